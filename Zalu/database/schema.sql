@@ -24,6 +24,8 @@ CREATE TABLE IF NOT EXISTS users (
     phone VARCHAR(20) UNIQUE,
     avatar_url VARCHAR(255) DEFAULT '/images/default-avatar.jpg',
     avatar_data LONGBLOB,
+    avatar_hash CHAR(64) NULL,
+    avatar_version INT NOT NULL DEFAULT 1,
     bio TEXT,
     birthdate DATE,
     gender VARCHAR(20) DEFAULT 'other',
@@ -101,6 +103,8 @@ CREATE TABLE IF NOT EXISTS messages (
     content LONGTEXT,
     file_data LONGBLOB,
     file_name VARCHAR(255),
+    file_ref CHAR(64) NULL,
+    file_size BIGINT NULL,
     is_read BOOLEAN DEFAULT FALSE,
     is_deleted BOOLEAN DEFAULT FALSE,
     is_recalled BOOLEAN DEFAULT FALSE,
@@ -110,6 +114,9 @@ CREATE TABLE IF NOT EXISTS messages (
     replied_to_content TEXT,
     is_pinned BOOLEAN DEFAULT FALSE,
     created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    changed_at TIMESTAMP(3) NULL DEFAULT NULL,
+    conversation_id INT NULL,
+    seq INT NULL,
     CONSTRAINT fk_messages_sender FOREIGN KEY (sender_id) REFERENCES users(id) ON DELETE CASCADE,
     CONSTRAINT fk_messages_receiver FOREIGN KEY (receiver_id) REFERENCES users(id) ON DELETE CASCADE,
     CONSTRAINT fk_messages_group FOREIGN KEY (group_id) REFERENCES groups(id) ON DELETE CASCADE,
@@ -120,6 +127,12 @@ CREATE TABLE IF NOT EXISTS messages (
     INDEX idx_messages_created_at (created_at),
     INDEX idx_messages_is_read (is_read),
     INDEX idx_messages_is_pinned (is_pinned),
+    INDEX idx_messages_file_ref (file_ref),
+    INDEX idx_messages_pair_id (sender_id, receiver_id, id),
+    INDEX idx_messages_group_id (group_id, id),
+    INDEX idx_messages_changed_at (changed_at),
+    INDEX idx_messages_unread (receiver_id, is_read, sender_id, group_id),
+    UNIQUE INDEX idx_messages_conversation_seq (conversation_id, seq),
     CHECK (
         (receiver_id IS NULL AND group_id IS NOT NULL) OR
         (receiver_id IS NOT NULL AND group_id IS NULL)
@@ -181,6 +194,59 @@ CREATE TABLE IF NOT EXISTS user_reports (
     INDEX idx_report_status (status)
 ) ENGINE=InnoDB;
 
+-- ============================================
+-- 9. READ CURSORS (tin đã đọc theo thành viên)
+-- ============================================
+-- chat_id: id bạn bè (chat 1-1) hoặc -group_id (chat nhóm)
+CREATE TABLE IF NOT EXISTS read_cursors (
+    user_id INT NOT NULL,
+    chat_id INT NOT NULL,
+    last_read_message_id INT NOT NULL DEFAULT 0,
+    updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+    PRIMARY KEY (user_id, chat_id),
+    CONSTRAINT fk_read_cursors_user FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE,
+    INDEX idx_read_cursors_chat (chat_id, last_read_message_id)
+) ENGINE=InnoDB;
+
+-- ============================================
+-- 10. CONVERSATIONS (số thứ tự tin nhắn theo cuộc trò chuyện)
+-- ============================================
+-- Chat 1-1: user_low < user_high; chat nhóm: group_id. last_seq = seq lớn nhất đã cấp
+CREATE TABLE IF NOT EXISTS conversations (
+    id INT AUTO_INCREMENT PRIMARY KEY,
+    user_low INT NULL,
+    user_high INT NULL,
+    group_id INT NULL,
+    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    last_seq INT NOT NULL DEFAULT 0,
+    UNIQUE KEY uq_conversations_pair (user_low, user_high),
+    UNIQUE KEY uq_conversations_group (group_id),
+    INDEX idx_conversations_user_high (user_high)
+) ENGINE=InnoDB;
+
+-- ============================================
+-- 11. AVATAR VARIANTS (avatar dựng sẵn theo kích thước UI)
+-- ============================================
+-- version = users.avatar_version lúc dựng; bản của phiên bản cũ bị bỏ qua khi đọc
+CREATE TABLE IF NOT EXISTS user_avatar_variants (
+    user_id INT NOT NULL,
+    size INT NOT NULL,
+    version INT NOT NULL,
+    data MEDIUMBLOB NOT NULL,
+    PRIMARY KEY (user_id, size),
+    CONSTRAINT fk_avatar_variants_user FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE
+) ENGINE=InnoDB;
+
+-- ============================================
+-- 12. SCHEMA VERSION (MigrationRunner)
+-- ============================================
+-- Server tự tạo bảng này và chạy các migration còn thiếu khi khởi động
+CREATE TABLE IF NOT EXISTS schema_version (
+    version INT PRIMARY KEY,
+    description VARCHAR(200) NOT NULL,
+    installed_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+) ENGINE=InnoDB;
+
 -- ============================================
 -- MYSQL CONFIG FOR LARGE FILE TRANSFERS
 -- ============================================
@@ -191,6 +257,9 @@ CREATE TABLE IF NOT EXISTS user_reports (
 -- QUICK RESET (uncomment when needed)
 -- ============================================
 -- SET FOREIGN_KEY_CHECKS = 0;
+-- TRUNCATE TABLE user_avatar_variants;
+-- TRUNCATE TABLE conversations;
+-- TRUNCATE TABLE read_cursors;
 -- TRUNCATE TABLE user_activity_logs;
 -- TRUNCATE TABLE voice_messages;
 -- TRUNCATE TABLE messages;
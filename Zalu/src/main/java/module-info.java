@@ -49,6 +49,7 @@ module org.example.zalu {
     exports org.example.zalu.service;
     exports org.example.zalu.controller.chat;
     exports org.example.zalu.dao;
+    exports org.example.zalu.protocol;
 
     opens org.example.zalu.client to javafx.fxml;
 
@@ -2,6 +2,11 @@ package org.example.zalu.client;
 
 import javafx.application.Platform;
 import org.example.zalu.exception.connection.ServerConnectionException;
+import org.example.zalu.protocol.BinaryObjectInputStream;
+import org.example.zalu.protocol.BinaryObjectOutputStream;
+import org.example.zalu.protocol.Packet;
+import org.example.zalu.protocol.ProtocolHandshake;
+import org.example.zalu.protocol.WireCodec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -14,6 +19,10 @@ public class ChatClient {
 
     private static String SERVER_ADDRESS = "localhost"; // Default: localhost
     private static int SERVER_PORT = 5000;
+    // Giao thức nhị phân (WireCodec) hay Java serialization kiểu cũ
+    private static volatile boolean binaryProtocol = true;
+    // Version đã thống nhất khi bắt tay; từ v2 dữ liệu lớn được gửi thành các frame PART
+    private static volatile int protocolVersion = ProtocolHandshake.LEGACY;
 
     // Đọc cấu hình từ file properties hoặc system property
     static {
@@ -26,6 +35,7 @@ public class ChatClient {
                 props.load(is);
                 SERVER_ADDRESS = props.getProperty("server.address", "localhost");
                 SERVER_PORT = Integer.parseInt(props.getProperty("server.port", "5000"));
+                binaryProtocol = !"legacy".equalsIgnoreCase(props.getProperty("client.protocol", "binary"));
                 logger.info("✓ Đã đọc cấu hình từ server.properties: {}:{}", SERVER_ADDRESS, SERVER_PORT);
                 is.close();
             }
@@ -33,6 +43,9 @@ public class ChatClient {
             // Nếu không có file, thử đọc từ system property
             String address = System.getProperty("server.address");
             String port = System.getProperty("server.port");
+            if ("legacy".equalsIgnoreCase(System.getProperty("client.protocol"))) {
+                binaryProtocol = false;
+            }
             if (address != null) {
                 SERVER_ADDRESS = address;
                 logger.info("✓ Đã đọc server.address từ system property: {}", SERVER_ADDRESS);
@@ -92,16 +105,32 @@ public class ChatClient {
             socket.setSendBufferSize(1024 * 1024 * 2); // 2MB send buffer
             socket.setReceiveBufferSize(1024 * 1024 * 2); // 2MB receive buffer
 
-            logger.debug("Đang khởi tạo ObjectOutputStream...");
-            out = new ObjectOutputStream(socket.getOutputStream());
-            out.flush();
+            if (binaryProtocol) {
+                logger.debug("Đang bắt tay giao thức nhị phân...");
+                int version = ProtocolHandshake.connect(socket.getInputStream(), socket.getOutputStream());
+                if (version == ProtocolHandshake.LEGACY) {
+                    logger.warn("⚠ Server chưa hỗ trợ giao thức nhị phân, kết nối lại bằng giao thức cũ");
+                    binaryProtocol = false;
+                    socket.close();
+                    return connectToServer();
+                }
+                protocolVersion = version;
+                out = new BinaryObjectOutputStream(socket.getOutputStream(), version);
+                in = new BinaryObjectInputStream(socket.getInputStream(), version);
+            } else {
+                protocolVersion = ProtocolHandshake.LEGACY;
+                logger.debug("Đang khởi tạo ObjectOutputStream...");
+                out = new ObjectOutputStream(socket.getOutputStream());
+                out.flush();
 
-            logger.debug("Đang khởi tạo ObjectInputStream...");
-            in = new ObjectInputStream(socket.getInputStream());
+                logger.debug("Đang khởi tạo ObjectInputStream...");
+                in = new ObjectInputStream(socket.getInputStream());
+            }
 
             connected = true;
             logger.info("=== ✓ Kết nối thành công ===");
             logger.info("Connected to: {}:{}", SERVER_ADDRESS, SERVER_PORT);
+            logger.info("Protocol: {}", binaryProtocol ? "binary v" + protocolVersion : "legacy");
             logger.info("Socket timeout: 120s");
             logger.info("Buffer size: 2MB");
             return true;
@@ -150,6 +179,8 @@ public class ChatClient {
                 if (userId > 0) {
                     startGlobalListener();
                     resumeSession();
+                    // Upload/download theo chunk đang dở gửi lại yêu cầu và tiếp tục từ offset đã có
+                    FileTransferClient.getInstance().onReconnected();
                 }
                 return;
             }
@@ -160,8 +191,13 @@ public class ChatClient {
         }
     }
 
+    // Hai làn gửi: lệnh/tin nhắn (control) và dữ liệu file, chunk, voice (bulk). Lệnh không phải chờ
+    // sau một file lớn: với giao thức v2 dữ liệu bulk được ghi từng PART, lệnh được chen vào giữa.
     private static final java.util.concurrent.ExecutorService senderExecutor = java.util.concurrent.Executors
             .newSingleThreadExecutor();
+    private static final java.util.concurrent.ExecutorService bulkExecutor = java.util.concurrent.Executors
+            .newSingleThreadExecutor();
+    private static final Object WRITE_LOCK = new Object();
 
     // Gửi tin nhắn dạng String
     public static void sendRequest(String request) {
@@ -172,8 +208,10 @@ public class ChatClient {
                 return;
             }
             try {
-                out.writeObject(request);
-                out.flush();
+                synchronized (WRITE_LOCK) {
+                    out.writeObject(request);
+                    out.flush();
+                }
                 logger.info("Gửi: {}", request);
             } catch (IOException e) {
                 logger.error("Lỗi gửi request: {}", e.getMessage());
@@ -182,9 +220,37 @@ public class ChatClient {
         });
     }
 
+    /**
+     * Gửi lệnh đã tách trường. Với giao thức nhị phân từng trường giữ nguyên (kể cả ký tự '|'),
+     * với giao thức cũ lệnh được nối lại thành chuỗi "NAME|a|b".
+     */
+    public static void sendPacket(Packet packet) {
+        sendObject(packet);
+    }
+
+    /**
+     * Gửi header và byte[] đi kèm trong cùng một lượt ghi, không lệnh nào khác chen vào giữa
+     * (dùng cho chunk upload, ghi log ở mức debug để không làm ngập log).
+     */
+    public static void sendPacketWithData(Packet header, byte[] data) {
+        bulkExecutor.submit(() -> {
+            if (!connected || out == null) {
+                reconnect();
+                return;
+            }
+            try {
+                writeBulk(binaryProtocol ? header : header.toLegacy(), data);
+                logger.debug("Gửi: {} ({} bytes)", header, data.length);
+            } catch (IOException e) {
+                logger.error("Lỗi gửi dữ liệu: {}", e.getMessage());
+                reconnect();
+            }
+        });
+    }
+
     // Gửi object (byte[] file, List, v.v.)
     public static void sendObject(Object obj) {
-        senderExecutor.submit(() -> {
+        (obj instanceof byte[] ? bulkExecutor : senderExecutor).submit(() -> {
             if (!connected || out == null) {
                 reconnect();
                 return;
@@ -194,12 +260,19 @@ public class ChatClient {
                     byte[] data = (byte[]) obj;
                     logger.info("Gửi file: {} bytes", data.length);
                     // Gửi file data
-                    out.writeObject(data);
-                    out.flush();
+                    writeBulk(data);
                     logger.debug("Đã flush file data thành công");
+                } else if (obj instanceof Packet packet && !binaryProtocol) {
+                    synchronized (WRITE_LOCK) {
+                        out.writeObject(packet.toLegacy());
+                        out.flush();
+                    }
+                    logger.info("Gửi: {}", packet);
                 } else {
-                    out.writeObject(obj);
-                    out.flush();
+                    synchronized (WRITE_LOCK) {
+                        out.writeObject(obj);
+                        out.flush();
+                    }
                     logger.info("Gửi object: {}", obj);
                 }
             } catch (IOException e) {
@@ -209,6 +282,36 @@ public class ChatClient {
         });
     }
 
+    /**
+     * Ghi các object của làn bulk. Với giao thức v2, dữ liệu lớn được cắt thành các frame PART và chỉ
+     * giữ khóa ghi trong từng PART, nên lệnh ở làn control được gửi xen vào giữa.
+     */
+    private static void writeBulk(Object... objects) throws IOException {
+        ObjectOutputStream stream = out;
+        long size = 0;
+        for (Object obj : objects) {
+            size += obj instanceof byte[] data ? data.length : 64;
+        }
+        if (protocolVersion < 2 || !(stream instanceof BinaryObjectOutputStream binary)
+                || size <= WireCodec.FRAGMENT_BYTES) {
+            synchronized (WRITE_LOCK) {
+                for (Object obj : objects) {
+                    stream.writeObject(obj);
+                }
+                stream.flush();
+            }
+            return;
+        }
+        byte[] batch = WireCodec.encodeBatch(binary.getVersion(), objects);
+        for (int offset = 0; offset < batch.length; offset += WireCodec.FRAGMENT_BYTES) {
+            int length = Math.min(WireCodec.FRAGMENT_BYTES, batch.length - offset);
+            synchronized (WRITE_LOCK) {
+                binary.writeFragment(batch, offset, length, offset + length == batch.length);
+                binary.flush();
+            }
+        }
+    }
+
     public static void startGlobalListener() {
         if (listening || !connected)
             return;
@@ -241,22 +344,32 @@ public class ChatClient {
             return;
         }
         try {
-            out.writeObject("RESUME_SESSION|" + userId);
-            out.flush();
+            synchronized (WRITE_LOCK) {
+                out.writeObject("RESUME_SESSION|" + userId + "|" + syncState());
+                out.flush();
+            }
             logger.info("Đã gửi yêu cầu khôi phục session cho userId={}", userId);
         } catch (IOException e) {
             logger.error("Không thể gửi yêu cầu khôi phục session: {}", e.getMessage());
         }
     }
 
+    /** "sinceId|syncedAt": id tin nhắn lớn nhất trong cache và mốc giờ server của lần đồng bộ trước. */
+    private static String syncState() {
+        ClientCache cache = ClientCache.getInstance();
+        return cache.getMaxMessageId() + "|" + cache.getSyncedAt();
+    }
+
     private static void closeConnection(boolean resetSession, boolean notifyServer) {
         listening = false;
         connected = false;
 
         if (notifyServer && out != null) {
             try {
-                out.writeObject("LOGOUT");
-                out.flush();
+                synchronized (WRITE_LOCK) {
+                    out.writeObject("LOGOUT");
+                    out.flush();
+                }
                 logger.info("Đã gửi LOGOUT tới server");
                 Thread.sleep(200);
             } catch (Exception ignored) {
@@ -317,7 +430,9 @@ public class ChatClient {
         // Lưu callback để gọi khi nhận response từ server
         pendingLoginCallback = callback;
 
-        sendRequest("LOGIN_REQUEST|" + username + "|" + password);
+        // Gửi kèm mốc cache để server chỉ trả tin nhắn mới hơn và các tin đã thay đổi
+        ClientCache.getInstance().prepareSync(username);
+        sendRequest("LOGIN_REQUEST|" + username + "|" + password + "|" + syncState());
 
         // KHÔNG gọi callback.onSuccess(-1) ở đây - đợi response từ server
         // Response sẽ được xử lý trong ChatEventManager.processEvent()
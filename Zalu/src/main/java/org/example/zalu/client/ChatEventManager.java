@@ -23,8 +23,10 @@ import java.net.SocketTimeoutException;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.BlockingDeque;
 import java.util.concurrent.LinkedBlockingDeque;
 import java.util.function.BiConsumer;
@@ -65,8 +67,10 @@ public class ChatEventManager {
     private static Consumer<String> memberRoleCallback = null;
     private static Consumer<List<Message>> searchMessagesCallback = null;
     private static Consumer<List<Message>> pinnedMessagesCallback = null;
+    private static Consumer<HistoryPage> historyPageCallback = null;
     private static Consumer<java.util.Map<Integer, Integer>> unreadCountCallback = null; // New: unread count map
     private static Consumer<java.util.Map<String, Object>> userStatsCallback = null;   // Profile stats
+    private static Consumer<java.util.Set<Integer>> avatarsCallback = null; // userId có avatar mới (GET_AVATARS)
     // Lưu metadata file tạm thời để gắn vào file data
     private static Message pendingFileMessage = null;
     // Lưu thông tin file download đang chờ
@@ -111,6 +115,64 @@ public class ChatEventManager {
         }
     }
 
+    // Một trang lịch sử chat (GET_HISTORY_PAGE)
+    public static class HistoryPage {
+        private final int chatId;
+        private final String cursor;
+        private final List<Message> messages;
+        private final String olderCursor;
+        private final String newerCursor;
+        private final Map<Integer, Integer> readCursors;
+
+        public HistoryPage(int chatId, String cursor, List<Message> messages, String olderCursor,
+                String newerCursor) {
+            this(chatId, cursor, messages, olderCursor, newerCursor, null);
+        }
+
+        public HistoryPage(int chatId, String cursor, List<Message> messages, String olderCursor,
+                String newerCursor, Map<Integer, Integer> readCursors) {
+            this.chatId = chatId;
+            this.cursor = cursor;
+            this.messages = messages;
+            this.olderCursor = olderCursor;
+            this.newerCursor = newerCursor;
+            this.readCursors = readCursors;
+        }
+
+        /** friendId cho chat 1-1, -groupId cho nhóm (giống ClientCache). */
+        public int getChatId() {
+            return chatId;
+        }
+
+        /** Con trỏ đã gửi lên, rỗng nếu là trang mới nhất. */
+        public String getCursor() {
+            return cursor;
+        }
+
+        public boolean isLatest() {
+            return cursor == null || cursor.isEmpty();
+        }
+
+        /** Tin nhắn tăng dần theo id. */
+        public List<Message> getMessages() {
+            return messages;
+        }
+
+        /** Con trỏ để lấy trang cũ hơn, null nếu đã hết. */
+        public String getOlderCursor() {
+            return olderCursor;
+        }
+
+        public String getNewerCursor() {
+            return newerCursor;
+        }
+
+        /** Chat nhóm: userId -> id tin đã đọc của từng thành viên; null nếu server không gửi. */
+        public Map<Integer, Integer> getReadCursors() {
+            return readCursors;
+        }
+    }
+
     // Counter để phân biệt các loại List<Integer> sau khi login
     private static int integerListCounter = 0;
     private static boolean hasReceivedGroups = false;
@@ -240,9 +302,7 @@ public class ChatEventManager {
                         Message m = (Message) o;
                         allMessages.add(m);
 
-                        int chatId = m.getGroupId() > 0 ? -m.getGroupId()
-                                : (m.getSenderId() == currentUserId ? m.getReceiverId() : m.getSenderId());
-                        groupedByChat.computeIfAbsent(chatId, k -> new ArrayList<>()).add(m);
+                        groupedByChat.computeIfAbsent(chatIdOf(m), k -> new ArrayList<>()).add(m);
                     }
                 }
 
@@ -381,9 +441,68 @@ public class ChatEventManager {
                 return;
             }
 
+            if (map.containsKey("type") && "LOGIN_SNAPSHOT".equals(map.get("type"))) {
+                handleLoginSnapshot(map);
+                return;
+            }
+
+            if (map.containsKey("type") && "HISTORY_PAGE".equals(map.get("type"))) {
+                List<Message> messages = new ArrayList<>();
+                if (map.get("data") instanceof List<?> data) {
+                    for (Object o : data) {
+                        if (o instanceof Message)
+                            messages.add((Message) o);
+                    }
+                }
+                int chatId = map.containsKey("groupId") ? -((Number) map.get("groupId")).intValue()
+                        : ((Number) map.get("friendId")).intValue();
+                Map<Integer, Integer> readCursors = null;
+                if (map.get("readCursors") instanceof Map<?, ?> cursors) {
+                    readCursors = new HashMap<>();
+                    for (Map.Entry<?, ?> e : cursors.entrySet()) {
+                        if (e.getKey() instanceof Number k && e.getValue() instanceof Number v) {
+                            readCursors.put(k.intValue(), v.intValue());
+                        }
+                    }
+                }
+                HistoryPage page = new HistoryPage(chatId, (String) map.get("cursor"), messages,
+                        (String) map.get("olderCursor"), (String) map.get("newerCursor"), readCursors);
+
+                // Trang mới nhất thay cho GET_CONVERSATION: cache và hiển thị như cũ
+                if (page.isLatest()) {
+                    logger.info("Caching latest page for chatId {}: {} messages", chatId, messages.size());
+                    ClientCache.getInstance().cacheMessages(chatId, messages);
+                }
+                if (historyPageCallback != null) {
+                    Platform.runLater(() -> historyPageCallback.accept(page));
+                }
+                if (page.isLatest() && getMessagesCallback != null) {
+                    Platform.runLater(() -> getMessagesCallback.accept(chatId, new ArrayList<>(messages)));
+                }
+                return;
+            }
+
+            if (map.containsKey("type") && "HISTORY_PAGE_FAIL".equals(map.get("type"))) {
+                logger.warn("GET_HISTORY_PAGE thất bại: {}", map.get("error"));
+                // Trả về trang rỗng giữ nguyên con trỏ để lần cuộn sau có thể thử lại
+                String cursor = (String) map.get("cursor");
+                if (historyPageCallback != null && cursor != null && !cursor.isEmpty()) {
+                    int chatId = map.containsKey("groupId") ? -((Number) map.get("groupId")).intValue()
+                            : ((Number) map.get("friendId")).intValue();
+                    HistoryPage page = new HistoryPage(chatId, cursor, new ArrayList<>(), cursor, null);
+                    Platform.runLater(() -> historyPageCallback.accept(page));
+                }
+                return;
+            }
+
+            // FRIEND_REQUESTS_INFO (có type) hoặc GET_PENDING_REQUESTS (chỉ có incoming/outgoing)
             if (map.containsKey("incoming") && map.containsKey("outgoing")) {
-                @SuppressWarnings("unchecked")
-                java.util.Map<String, List<org.example.zalu.model.User>> pendingMap = (java.util.Map<String, List<org.example.zalu.model.User>>) map;
+                java.util.Map<String, List<org.example.zalu.model.User>> pendingMap = new java.util.HashMap<>();
+                for (String key : List.of("incoming", "outgoing")) {
+                    @SuppressWarnings("unchecked")
+                    List<org.example.zalu.model.User> users = (List<org.example.zalu.model.User>) map.get(key);
+                    pendingMap.put(key, users);
+                }
                 if (pendingRequestsMapCallback != null) {
                     Platform.runLater(() -> pendingRequestsMapCallback.accept(pendingMap));
                 }
@@ -422,6 +541,33 @@ public class ChatEventManager {
                 return;
             }
 
+            if (map.containsKey("type") && "AVATARS".equals(map.get("type"))) {
+                // Chỉ gồm avatar đã đổi: user có phiên bản mà không có ảnh là không còn avatar
+                java.util.Set<Integer> changed = new java.util.HashSet<>();
+                if (map.get("versions") instanceof Map<?, ?> versions) {
+                    Map<?, ?> data = map.get("data") instanceof Map<?, ?> d ? d : Map.of();
+                    for (Map.Entry<?, ?> e : versions.entrySet()) {
+                        if (e.getKey() instanceof Number k && e.getValue() instanceof Number v) {
+                            byte[] bytes = data.get(e.getKey()) instanceof byte[] b ? b : null;
+                            ClientCache.getInstance().cacheAvatar(k.intValue(), v.intValue(), bytes);
+                            changed.add(k.intValue());
+                        }
+                    }
+                }
+                if (!changed.isEmpty()) {
+                    ClientCache.getInstance().saveCache();
+                    if (avatarsCallback != null) {
+                        Platform.runLater(() -> avatarsCallback.accept(changed));
+                    }
+                }
+                return;
+            }
+
+            if (map.containsKey("type") && "AVATARS_FAIL".equals(map.get("type"))) {
+                logger.warn("GET_AVATARS thất bại");
+                return;
+            }
+
             if (map.containsKey("type") && "USER_STATS_RESULT".equals(map.get("type"))) {
                 @SuppressWarnings("unchecked")
                 java.util.Map<String, Object> stats = (java.util.Map<String, Object>) map;
@@ -445,6 +591,10 @@ public class ChatEventManager {
 
         if (obj instanceof String) {
             String message = (String) obj;
+            // Phản hồi upload/download theo chunk do FileTransferClient xử lý (không log từng chunk)
+            if (FileTransferClient.getInstance().handleEvent(message)) {
+                return;
+            }
             logger.info("Received string message: {}", message);
 
             // ===== 1. XỬ LÝ ĐĂNG NHẬP THÀNH CÔNG (CHỈ CẦN BẤM 1 LẦN) =====
@@ -621,6 +771,25 @@ public class ChatEventManager {
                     pendingFileMessage = newFileMsg;
                     // Chờ nhận file data (byte[]) tiếp theo
                 }
+            } else if (message.startsWith("NEW_FILE_REF|") || message.startsWith("NEW_GROUP_FILE_REF|")) {
+                // File lớn không gửi kèm dữ liệu, chỉ có messageId để tải theo chunk khi mở/lưu
+                // Format: NEW_FILE_REF|senderId|receiverId|messageId|size|fileName
+                // hoặc NEW_GROUP_FILE_REF|groupId|senderId|messageId|size|fileName
+                String[] parts = message.split("\\|", 6);
+                if (parts.length >= 6) {
+                    boolean isGroup = message.startsWith("NEW_GROUP_FILE_REF|");
+                    int senderId = Integer.parseInt(isGroup ? parts[2] : parts[1]);
+                    Message newFileMsg = isGroup
+                            ? new Message(0, senderId, 0, null, true, LocalDateTime.now(), Integer.parseInt(parts[1]))
+                            : new Message(0, senderId, Integer.parseInt(parts[2]), null, true, LocalDateTime.now());
+                    newFileMsg.setId(Integer.parseInt(parts[3]));
+                    newFileMsg.setFileName(parts[5]);
+                    if (messageCallback != null) {
+                        List<Message> singleMsg = new ArrayList<>();
+                        singleMsg.add(newFileMsg);
+                        Platform.runLater(() -> messageCallback.accept(singleMsg));
+                    }
+                }
             } else if (message.equals("FRIENDS_UPDATE")) {
                 // Server broadcast khi danh sách bạn bè thay đổi
                 // (lời mời được chấp nhận, xóa bạn, v.v.)
@@ -730,11 +899,18 @@ public class ChatEventManager {
                     }
                 }
                 return;
+            } else if (message.startsWith("GROUP_READ|")) {
+                // Format: GROUP_READ|groupId|readerId|lastReadMessageId (đã xem bởi N)
+                if (broadcastCallback != null) {
+                    Platform.runLater(() -> broadcastCallback.accept(message));
+                }
+                return;
             } else if (message.startsWith("BROADCAST|")) {
                 if (broadcastCallback != null) {
                     Platform.runLater(() -> broadcastCallback.accept(message.substring(10)));
                 }
             } else if (message.startsWith("USER_ONLINE|") || message.startsWith("USER_OFFLINE|") ||
+                    message.startsWith("PRESENCE_BATCH|") ||
                     message.startsWith("NEW_MESSAGE|") || message.startsWith("NEW_FILE|") ||
                     message.startsWith("MESSAGE_DELETED|") || message.startsWith("MESSAGE_RECALLED|") ||
                     message.startsWith("MESSAGE_EDITED|") || message.startsWith("MESSAGE_PIN_UPDATE|") ||
@@ -844,6 +1020,9 @@ public class ChatEventManager {
         // Handle byte[] for file data or avatar data
         if (obj instanceof byte[]) {
             byte[] data = (byte[]) obj;
+            if (FileTransferClient.getInstance().handleData(data)) {
+                return;
+            }
             logger.info("Received byte data: {} bytes", data.length);
 
             // Kiểm tra xem có phải file download không
@@ -900,6 +1079,73 @@ public class ChatEventManager {
         logger.warn("Unknown event type: {}", (obj != null ? obj.getClass().getName() : "null"));
     }
 
+    /**
+     * Dữ liệu khởi tạo sau LOGIN_RESPONSE/RESUME_SESSION trong một lần gửi: chuyển cho các callback như
+     * luồng List cũ, rồi gộp tin nhắn mới và tombstone (tin đã xóa/thu hồi/sửa) vào ClientCache.
+     */
+    @SuppressWarnings("unchecked")
+    private void handleLoginSnapshot(java.util.Map<?, ?> map) {
+        List<Integer> friends = (List<Integer>) map.get("friends");
+        List<Integer> pending = (List<Integer>) map.get("pending");
+        List<org.example.zalu.model.GroupInfo> groups = (List<org.example.zalu.model.GroupInfo>) map.get("groups");
+        List<Integer> online = (List<Integer>) map.get("onlineUserIds");
+        java.util.Map<Integer, Integer> unread = (java.util.Map<Integer, Integer>) map.get("unreadCounts");
+        List<Message> messages = (List<Message>) map.get("messages");
+        List<Message> tombstones = (List<Message>) map.get("tombstones");
+        boolean reset = Boolean.TRUE.equals(map.get("reset"));
+        long syncedAt = map.get("syncedAt") instanceof Number n ? n.longValue() : 0;
+
+        // Gộp vào cache trước để danh sách chat lấy được tin cuối khi dựng lại
+        Map<Integer, List<Message>> added = new HashMap<>();
+        Map<Integer, List<Message>> changed = new HashMap<>();
+        if (messages != null) {
+            for (Message m : messages) {
+                added.computeIfAbsent(chatIdOf(m), k -> new ArrayList<>()).add(m);
+            }
+        }
+        if (tombstones != null) {
+            for (Message m : tombstones) {
+                changed.computeIfAbsent(chatIdOf(m), k -> new ArrayList<>()).add(m);
+            }
+        }
+        ClientCache.getInstance().applySync(added, changed, reset, syncedAt);
+        logger.info("Received LOGIN_SNAPSHOT: {} new messages, {} tombstones, reset={}",
+                messages != null ? messages.size() : 0, tombstones != null ? tombstones.size() : 0, reset);
+
+        hasReceivedGroups = true;
+        if (friends != null && !friends.isEmpty() && friendCallback != null) {
+            Platform.runLater(() -> friendCallback.accept(friends));
+        }
+        if (pending != null && !pending.isEmpty() && pendingRequestsCallback != null) {
+            Platform.runLater(() -> pendingRequestsCallback.accept(pending));
+        }
+        if (groups != null && groupsCallback != null) {
+            Platform.runLater(() -> groupsCallback.accept(groups));
+        }
+        if (online != null && onlineUsersCallback != null) {
+            Platform.runLater(() -> onlineUsersCallback.accept(online));
+        }
+        if (unread != null && unreadCountCallback != null) {
+            Platform.runLater(() -> unreadCountCallback.accept(unread));
+        }
+
+        // Chat đang mở (khi khôi phục session) hiển thị lại từ cache đã gộp
+        if (getMessagesCallback != null) {
+            Set<Integer> touched = new HashSet<>(added.keySet());
+            touched.addAll(changed.keySet());
+            for (int chatId : touched) {
+                List<Message> cached = new ArrayList<>(ClientCache.getInstance().getMessages(chatId));
+                Platform.runLater(() -> getMessagesCallback.accept(chatId, cached));
+            }
+        }
+    }
+
+    /** chatId trong ClientCache: id người bên kia với chat 1-1, -groupId với chat nhóm. */
+    private static int chatIdOf(Message m) {
+        return m.getGroupId() > 0 ? -m.getGroupId()
+                : (m.getSenderId() == currentUserId ? m.getReceiverId() : m.getSenderId());
+    }
+
     // register/unregister...
 
     public void registerFriendsCallback(Consumer<List<Integer>> callback) {
@@ -987,6 +1233,10 @@ public class ChatEventManager {
         userAvatarCallbacks.put(userId, callback);
     }
 
+    public void registerAvatarsCallback(Consumer<java.util.Set<Integer>> callback) {
+        avatarsCallback = callback;
+    }
+
     public void registerSearchMessagesCallback(Consumer<List<Message>> callback) {
         searchMessagesCallback = callback;
     }
@@ -995,6 +1245,10 @@ public class ChatEventManager {
         pinnedMessagesCallback = callback;
     }
 
+    public void registerHistoryPageCallback(Consumer<HistoryPage> callback) {
+        historyPageCallback = callback;
+    }
+
     public void registerMessageSentCallback(Consumer<String[]> callback) {
         messageSentCallback = callback;
     }
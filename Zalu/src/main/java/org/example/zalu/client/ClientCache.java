@@ -6,6 +6,7 @@ import org.example.zalu.model.User;
 import java.io.*;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -28,8 +29,14 @@ public class ClientCache {
     // Cache tin nhắn: chatId (Id bạn bè hoặc -Id nhóm) -> List tin nhắn
     private Map<Integer, List<Message>> messageCache = new ConcurrentHashMap<>();
 
-    // Cache Avatar: userId -> byte[]
+    // Cache Avatar: userId -> byte[] (ảnh 48px server dựng sẵn, hoặc ảnh gốc với server cũ)
     private final Map<Integer, byte[]> avatarCache = new ConcurrentHashMap<>();
+    // Phiên bản avatar đang cache: userId -> avatar_version (có cả user không có avatar), gửi kèm GET_AVATARS
+    private final Map<Integer, Integer> avatarVersions = new ConcurrentHashMap<>();
+
+    // Đồng bộ delta khi đăng nhập: tài khoản sở hữu cache tin nhắn và mốc giờ server của lần đồng bộ trước
+    private String syncOwner;
+    private long syncedAt;
 
     private ClientCache() {
     }
@@ -46,6 +53,10 @@ public class ClientCache {
         try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(CACHE_FILE))) {
             oos.writeObject(new ArrayList<>(userCache.values()));
             oos.writeObject(new HashMap<>(messageCache));
+            oos.writeObject(syncOwner);
+            oos.writeLong(syncedAt);
+            oos.writeObject(new HashMap<>(avatarCache));
+            oos.writeObject(new HashMap<>(avatarVersions));
             logger.info("Client cache saved to disk.");
         } catch (IOException e) {
             logger.error("Failed to save client cache: {}", e.getMessage());
@@ -65,6 +76,18 @@ public class ClientCache {
 
             Map<Integer, List<Message>> messages = (Map<Integer, List<Message>>) ois.readObject();
             messageCache.putAll(messages);
+            try {
+                syncOwner = (String) ois.readObject();
+                syncedAt = ois.readLong();
+            } catch (EOFException | OptionalDataException e) {
+                // File cache cũ chưa có mốc đồng bộ: lần đăng nhập tới sẽ đồng bộ lại từ đầu
+            }
+            try {
+                avatarCache.putAll((Map<Integer, byte[]>) ois.readObject());
+                avatarVersions.putAll((Map<Integer, Integer>) ois.readObject());
+            } catch (EOFException | OptionalDataException e) {
+                // File cache cũ chưa có avatar: GET_AVATARS đầu tiên tải lại tất cả
+            }
 
             logger.info("Client cache loaded from disk: {} users, {} conversations", userCache.size(),
                     messageCache.size());
@@ -98,18 +121,108 @@ public class ClientCache {
         return messageCache.getOrDefault(chatId, new ArrayList<>());
     }
 
+    /**
+     * Chuẩn bị đồng bộ khi đăng nhập bằng tài khoản {@code owner}: cache tin nhắn của tài khoản khác
+     * bị bỏ để không gửi nhầm mốc của người khác lên server.
+     */
+    public synchronized void prepareSync(String owner) {
+        if (owner != null && !owner.equals(syncOwner)) {
+            messageCache.clear();
+            syncOwner = owner;
+            syncedAt = 0;
+        }
+    }
+
+    /** Id tin nhắn lớn nhất đang có trong cache (0 nếu chưa có). */
+    public int getMaxMessageId() {
+        int max = 0;
+        for (List<Message> messages : messageCache.values()) {
+            synchronized (messages) {
+                for (Message m : messages) {
+                    max = Math.max(max, m.getId());
+                }
+            }
+        }
+        return max;
+    }
+
+    public long getSyncedAt() {
+        return syncedAt;
+    }
+
+    /**
+     * Gộp kết quả đồng bộ delta vào cache rồi ghi đĩa một lần.
+     *
+     * @param added   tin nhắn mới theo chatId, thêm vào (hoặc thay bản cũ cùng id)
+     * @param changed tin nhắn đã bị xóa/thu hồi/sửa theo chatId, chỉ thay bản đang có trong cache
+     * @param reset   true: bỏ toàn bộ cache tin nhắn cũ trước khi gộp
+     */
+    public synchronized void applySync(Map<Integer, List<Message>> added, Map<Integer, List<Message>> changed,
+            boolean reset, long syncedAt) {
+        if (reset) {
+            messageCache.clear();
+        }
+        for (Map.Entry<Integer, List<Message>> entry : changed.entrySet()) {
+            List<Message> cached = messageCache.get(entry.getKey());
+            if (cached == null) {
+                continue;
+            }
+            synchronized (cached) {
+                for (Message m : entry.getValue()) {
+                    for (int i = 0; i < cached.size(); i++) {
+                        if (cached.get(i).getId() == m.getId()) {
+                            cached.set(i, m);
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+        for (Map.Entry<Integer, List<Message>> entry : added.entrySet()) {
+            List<Message> cached = messageCache.computeIfAbsent(entry.getKey(),
+                    k -> Collections.synchronizedList(new ArrayList<>()));
+            synchronized (cached) {
+                for (Message m : entry.getValue()) {
+                    cached.removeIf(old -> old.getId() == m.getId());
+                    cached.add(m);
+                }
+                cached.sort(Comparator.comparingInt(Message::getId));
+            }
+        }
+        this.syncedAt = syncedAt;
+        saveCache();
+    }
+
     public void cacheAvatar(int userId, byte[] data) {
         if (data != null) {
             avatarCache.put(userId, data);
         }
     }
 
+    /**
+     * Lưu avatar nhận từ GET_AVATARS cùng phiên bản của nó; {@code data} null là user không có avatar.
+     */
+    public void cacheAvatar(int userId, int version, byte[] data) {
+        if (data != null) {
+            avatarCache.put(userId, data);
+        } else {
+            avatarCache.remove(userId);
+        }
+        avatarVersions.put(userId, version);
+    }
+
     public byte[] getAvatar(int userId) {
         return avatarCache.get(userId);
     }
 
+    /** Phiên bản avatar đang cache, -1 nếu chưa có. */
+    public int getAvatarVersion(int userId) {
+        return avatarVersions.getOrDefault(userId, -1);
+    }
+
     public void clearAvatarCache(int userId) {
         avatarCache.remove(userId);
+        avatarVersions.remove(userId);
     }
 
     public void clearUserCache(int userId) {
@@ -125,5 +238,7 @@ public class ClientCache {
         userCache.clear();
         messageCache.clear();
         avatarCache.clear();
+        avatarVersions.clear();
+        syncedAt = 0;
     }
 }
@@ -0,0 +1,400 @@
+package org.example.zalu.client;
+
+import org.example.zalu.exception.file.FileOperationException;
+import org.example.zalu.protocol.Packet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Upload/download file theo chunk với server.
+ * <p>
+ * Upload: UPLOAD_BEGIN → UPLOAD_READY (offset server đã có) → các UPLOAD_CHUNK, mỗi chunk được
+ * UPLOAD_ACK → UPLOAD_END kèm SHA-256 → UPLOAD_DONE. Download: DOWNLOAD_BEGIN → DOWNLOAD_INFO
+ * (dung lượng + SHA-256) → các DOWNLOAD_CHUNK/DOWNLOAD_DATA ghi vào file ".part" cạnh file đích.
+ * <p>
+ * Tối đa {@link #WINDOW} chunk được gửi/yêu cầu mà chưa có phản hồi, nên RAM dùng cho một lượt
+ * truyền không phụ thuộc dung lượng file. Khi mất kết nối, lượt truyền chờ ChatClient kết nối lại
+ * rồi hỏi lại server để tiếp tục từ offset đã có (upload) hoặc từ độ dài file ".part" (download).
+ * <p>
+ * Callback của {@link TransferListener} chạy trên thread truyền file, UI cần dùng Platform.runLater.
+ */
+public class FileTransferClient {
+    private static final Logger logger = LoggerFactory.getLogger(FileTransferClient.class);
+
+    /** Dung lượng tối đa cho một file, khớp với server.transfer.maxFileBytes mặc định của server. */
+    public static final long MAX_FILE_BYTES = 200L * 1024 * 1024;
+
+    private static final int WINDOW = 4;
+    private static final long EVENT_TIMEOUT_MS = 30_000;
+    private static final long RECONNECT_WAIT_MS = 30_000;
+    private static final int MAX_ATTEMPTS = 5;
+    private static final String RECONNECTED = "RECONNECTED";
+
+    private static final FileTransferClient INSTANCE = new FileTransferClient();
+
+    public interface TransferListener {
+        default void onProgress(long transferred, long total) {
+        }
+
+        void onComplete(int messageId);
+
+        void onFailed(String reason);
+    }
+
+    /** Phản hồi từ server (đã tách trường), kèm byte[] với DOWNLOAD_DATA. */
+    private record Event(String[] parts, byte[] data) {
+    }
+
+    /** Lỗi có thể thử lại sau khi kết nối lại (timeout, mất kết nối, server đã hủy lượt upload). */
+    private static class RetryableException extends IOException {
+        RetryableException(String message) {
+            super(message);
+        }
+    }
+
+    private final Map<String, BlockingQueue<Event>> uploads = new ConcurrentHashMap<>();
+    private final Map<Integer, BlockingQueue<Event>> downloads = new ConcurrentHashMap<>();
+    private final ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor();
+    // Header DOWNLOAD_DATA đang chờ byte[] đi kèm
+    private volatile String[] pendingData;
+
+    private FileTransferClient() {
+    }
+
+    public static FileTransferClient getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Upload file lên cho bạn bè (groupId = 0) hoặc nhóm (receiverId = 0).
+     *
+     * @return uploadId của lượt upload
+     */
+    public String upload(Path file, int receiverId, int groupId, TransferListener listener) {
+        String uploadId = UUID.randomUUID().toString();
+        BlockingQueue<Event> events = new LinkedBlockingQueue<>();
+        uploads.put(uploadId, events);
+        workers.submit(() -> {
+            try {
+                runWithRetry("upload " + uploadId,
+                        () -> listener.onComplete(sendFile(uploadId, file, receiverId, groupId, events, listener)),
+                        events, listener);
+            } finally {
+                uploads.remove(uploadId);
+            }
+        });
+        return uploadId;
+    }
+
+    /**
+     * Tải file của tin nhắn về {@code target}. Nếu đã có "target.part" từ lần tải trước thì tải tiếp.
+     */
+    public void download(int messageId, Path target, TransferListener listener) {
+        BlockingQueue<Event> events = new LinkedBlockingQueue<>();
+        if (downloads.putIfAbsent(messageId, events) != null) {
+            listener.onFailed("ALREADY_DOWNLOADING");
+            return;
+        }
+        workers.submit(() -> {
+            try {
+                runWithRetry("download " + messageId, () -> {
+                    receiveFile(messageId, target, events, listener);
+                    listener.onComplete(messageId);
+                }, events, listener);
+            } finally {
+                downloads.remove(messageId);
+            }
+        });
+    }
+
+    /**
+     * Nhận phản hồi UPLOAD_* / DOWNLOAD_* từ ChatEventManager.
+     *
+     * @return true nếu chuỗi thuộc về truyền file theo chunk
+     */
+    public boolean handleEvent(String message) {
+        if (!message.startsWith("UPLOAD_") && !message.startsWith("DOWNLOAD_")) {
+            return false;
+        }
+        // DOWNLOAD_INFO có tên file ở cuối, có thể chứa '|'
+        String[] parts = message.startsWith("DOWNLOAD_INFO|") ? message.split("\\|", 6) : message.split("\\|");
+        if (parts.length < 2) {
+            logger.warn("Phản hồi truyền file không hợp lệ: {}", message);
+            return true;
+        }
+        if (parts[0].startsWith("UPLOAD_")) {
+            BlockingQueue<Event> events = uploads.get(parts[1]);
+            if (events != null) {
+                events.offer(new Event(parts, null));
+            }
+            return true;
+        }
+        if (parts[0].equals("DOWNLOAD_DATA")) {
+            pendingData = parts;
+            return true;
+        }
+        offerDownload(parts, null);
+        return true;
+    }
+
+    /**
+     * Nhận byte[] đi sau DOWNLOAD_DATA.
+     *
+     * @return true nếu dữ liệu thuộc về một lượt download
+     */
+    public boolean handleData(byte[] data) {
+        String[] parts = pendingData;
+        if (parts == null) {
+            return false;
+        }
+        pendingData = null;
+        offerDownload(parts, data);
+        return true;
+    }
+
+    /** ChatClient gọi sau khi kết nối lại: các lượt truyền đang chờ sẽ hỏi lại server ngay. */
+    public void onReconnected() {
+        pendingData = null;
+        Event marker = new Event(new String[] { RECONNECTED }, null);
+        uploads.values().forEach(events -> events.offer(marker));
+        downloads.values().forEach(events -> events.offer(marker));
+    }
+
+    private void offerDownload(String[] parts, byte[] data) {
+        try {
+            BlockingQueue<Event> events = downloads.get(Integer.parseInt(parts[1]));
+            if (events != null) {
+                events.offer(new Event(parts, data));
+            }
+        } catch (NumberFormatException e) {
+            logger.warn("messageId không hợp lệ trong {}", parts[0]);
+        }
+    }
+
+    private interface Attempt {
+        void run() throws IOException, FileOperationException, InterruptedException;
+    }
+
+    private void runWithRetry(String name, Attempt attempt, BlockingQueue<Event> events, TransferListener listener) {
+        for (int i = 1;; i++) {
+            events.clear();
+            try {
+                attempt.run();
+                return;
+            } catch (FileOperationException e) {
+                logger.error("❌ {} thất bại: {}", name, e.getMessage());
+                listener.onFailed(e.getMessage());
+                return;
+            } catch (RetryableException e) {
+                if (i >= MAX_ATTEMPTS) {
+                    logger.error("❌ {} thất bại sau {} lần thử: {}", name, i, e.getMessage());
+                    listener.onFailed("CONNECTION_LOST");
+                    return;
+                }
+                logger.warn("⚠ {} bị gián đoạn ({}), thử lại lần {}", name, e.getMessage(), i + 1);
+                if (!awaitConnection()) {
+                    listener.onFailed("CONNECTION_LOST");
+                    return;
+                }
+            } catch (IOException e) {
+                logger.error("❌ {} lỗi I/O: {}", name, e.getMessage());
+                listener.onFailed("IO_ERROR");
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                listener.onFailed("INTERRUPTED");
+                return;
+            }
+        }
+    }
+
+    private int sendFile(String uploadId, Path file, int receiverId, int groupId, BlockingQueue<Event> events,
+            TransferListener listener) throws IOException, FileOperationException, InterruptedException {
+        long size = Files.size(file);
+        String sha256 = sha256(file);
+
+        ChatClient.sendPacket(Packet.of("UPLOAD_BEGIN", uploadId, receiverId, groupId, size,
+                file.getFileName().toString()));
+        // UPLOAD_READY|uploadId|offset|chunkBytes
+        String[] ready = expect(events, "UPLOAD_READY").parts();
+        long acked = Long.parseLong(ready[2]);
+        int chunkBytes = Integer.parseInt(ready[3]);
+        listener.onProgress(acked, size);
+
+        long next = acked;
+        boolean rewinding = false;
+        ArrayDeque<Long> expectedAcks = new ArrayDeque<>();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (acked < size) {
+                while (!rewinding && expectedAcks.size() < WINDOW && next < size) {
+                    int length = (int) Math.min(chunkBytes, size - next);
+                    ByteBuffer buffer = ByteBuffer.allocate(length);
+                    while (buffer.hasRemaining()) {
+                        if (channel.read(buffer, next + buffer.position()) < 0) {
+                            throw new IOException("File bị thay đổi trong lúc upload");
+                        }
+                    }
+                    ChatClient.sendPacketWithData(Packet.of("UPLOAD_CHUNK", uploadId, next, length), buffer.array());
+                    next += length;
+                    expectedAcks.add(next);
+                }
+                // UPLOAD_ACK|uploadId|committed
+                long committed = Long.parseLong(expect(events, "UPLOAD_ACK").parts()[2]);
+                Long expected = expectedAcks.poll();
+                if (expected == null || committed != expected) {
+                    // Server bỏ qua chunk không nối tiếp: chờ hết các ACK còn lại rồi gửi lại từ committed
+                    rewinding = true;
+                }
+                acked = committed;
+                if (rewinding && expectedAcks.isEmpty()) {
+                    next = acked;
+                    rewinding = false;
+                }
+                listener.onProgress(acked, size);
+            }
+        }
+
+        ChatClient.sendPacket(Packet.of("UPLOAD_END", uploadId, sha256));
+        // UPLOAD_DONE|uploadId|messageId
+        int messageId = Integer.parseInt(expect(events, "UPLOAD_DONE").parts()[2]);
+        logger.info("✓ Upload {} hoàn tất ({} bytes), messageId={}", uploadId, size, messageId);
+        return messageId;
+    }
+
+    private void receiveFile(int messageId, Path target, BlockingQueue<Event> events, TransferListener listener)
+            throws IOException, FileOperationException, InterruptedException {
+        ChatClient.sendPacket(Packet.of("DOWNLOAD_BEGIN", messageId));
+        // DOWNLOAD_INFO|messageId|size|sha256|chunkBytes|fileName
+        String[] info = expect(events, "DOWNLOAD_INFO").parts();
+        long size = Long.parseLong(info[2]);
+        String sha256 = info[3];
+        int chunkBytes = Integer.parseInt(info[4]);
+
+        Path part = target.resolveSibling(target.getFileName() + ".part");
+        long have = Files.exists(part) ? Files.size(part) : 0;
+        try (FileChannel channel = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            if (have > size) {
+                channel.truncate(0);
+                have = 0;
+            }
+            listener.onProgress(have, size);
+            long next = have;
+            int inFlight = 0;
+            while (have < size) {
+                while (inFlight < WINDOW && next < size) {
+                    int length = (int) Math.min(chunkBytes, size - next);
+                    ChatClient.sendPacket(Packet.of("DOWNLOAD_CHUNK", messageId, next, length));
+                    next += length;
+                    inFlight++;
+                }
+                // DOWNLOAD_DATA|messageId|offset|length + byte[]
+                Event data = expect(events, "DOWNLOAD_DATA");
+                long offset = Long.parseLong(data.parts()[2]);
+                if (offset < have) {
+                    continue; // phản hồi của lần thử trước
+                }
+                inFlight--;
+                if (offset != have || data.data() == null || data.data().length == 0) {
+                    throw new RetryableException("Nhận chunk sai vị trí " + offset + " (đang chờ " + have + ")");
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(data.data());
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer, have + buffer.position());
+                }
+                have += data.data().length;
+                listener.onProgress(have, size);
+            }
+            channel.force(false);
+        }
+
+        if (!sha256.equalsIgnoreCase(sha256(part))) {
+            Files.deleteIfExists(part);
+            throw new FileOperationException("CHECKSUM_MISMATCH");
+        }
+        Files.move(part, target, StandardCopyOption.REPLACE_EXISTING);
+        logger.info("✓ Đã tải file của tin nhắn {} ({} bytes) về {}", messageId, size, target);
+    }
+
+    /**
+     * Chờ phản hồi có tên {@code name}; phản hồi cũ không khớp (của lần thử trước) bị bỏ qua.
+     */
+    private Event expect(BlockingQueue<Event> events, String name)
+            throws InterruptedException, RetryableException, FileOperationException {
+        while (true) {
+            Event event = events.poll(EVENT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            if (event == null) {
+                throw new RetryableException("Hết thời gian chờ " + name);
+            }
+            String type = event.parts()[0];
+            if (type.equals(RECONNECTED)) {
+                throw new RetryableException("Đã kết nối lại");
+            }
+            if (type.equals("UPLOAD_FAIL") || type.equals("DOWNLOAD_FAIL")) {
+                String reason = event.parts().length > 2 ? event.parts()[2] : "UNKNOWN";
+                if (reason.equals("UNKNOWN_UPLOAD")) {
+                    // Server đã hủy lượt upload (hết hạn hoặc khởi động lại): bắt đầu lại từ đầu
+                    throw new RetryableException(reason);
+                }
+                throw new FileOperationException(reason);
+            }
+            if (type.equals(name)) {
+                return event;
+            }
+        }
+    }
+
+    private static boolean awaitConnection() {
+        long deadline = System.currentTimeMillis() + RECONNECT_WAIT_MS;
+        try {
+            Thread.sleep(1000);
+            while (!ChatClient.isConnected()) {
+                if (System.currentTimeMillis() > deadline) {
+                    return false;
+                }
+                Thread.sleep(500);
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static String sha256(Path file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-256 không khả dụng", e);
+        }
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+}
@@ -2,7 +2,10 @@ package org.example.zalu.controller;
 
 import javafx.application.Platform;
 import javafx.collections.FXCollections;
+import javafx.scene.control.IndexedCell;
 import javafx.scene.control.ListView;
+import javafx.scene.control.skin.VirtualFlow;
+import javafx.scene.input.ScrollEvent;
 import org.example.zalu.client.ChatClient;
 import org.example.zalu.client.ChatEventManager;
 import org.example.zalu.controller.chat.MessageListController;
@@ -15,12 +18,19 @@ import org.slf4j.LoggerFactory;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
 public class ChatListManager {
     private static final Logger logger = LoggerFactory.getLogger(ChatListManager.class);
+    // Số dòng đăng ký thêm trên/dưới vùng đang hiển thị, để cuộn nhẹ không phải đăng ký lại
+    private static final int PRESENCE_MARGIN_ROWS = 5;
+    // Chưa biết vùng hiển thị (danh sách chưa vẽ) thì đăng ký các dòng đầu
+    private static final int PRESENCE_DEFAULT_ROWS = 20;
 
     private final MainController mainController;
     private final ListView<ChatItem> chatList;
@@ -35,6 +45,8 @@ public class ChatListManager {
 
     private boolean hasReceivedFriends = false;
     private boolean isRefreshing = false;
+    // Các bạn bè đã đăng ký nhận trạng thái online (PRESENCE_SUBSCRIBE) lần gần nhất
+    private Set<Integer> presenceSubscription = null;
 
     public ChatListManager(MainController mainController,
             ListView<ChatItem> chatList,
@@ -50,6 +62,8 @@ public class ChatListManager {
         ChatEventManager.getInstance().registerFriendsCallback(this::onFriendsUpdated);
         ChatEventManager.getInstance().registerFriendsListFullCallback(this::onFriendsListFullReceived);
         ChatEventManager.getInstance().registerUnreadCountCallback(this::onUnreadCountReceived);
+        ChatEventManager.getInstance().registerAvatarsCallback(this::onAvatarsReceived);
+        chatList.addEventHandler(ScrollEvent.SCROLL, e -> Platform.runLater(() -> updatePresenceSubscription(false)));
     }
 
     public void refreshFriendList(int currentUserId) {
@@ -81,12 +95,9 @@ public class ChatListManager {
                 for (User user : friends) {
                     pendingFriendIds.add(user.getId());
                     loadedUsers.put(user.getId(), user);
-
-                    // Pre-fetch avatar if not in cache
-                    if (org.example.zalu.client.ClientCache.getInstance().getAvatar(user.getId()) == null) {
-                        ChatClient.sendRequest("GET_USER_AVATAR|" + user.getId());
-                    }
                 }
+                // Một GET_AVATARS cho cả danh sách, chỉ nhận lại avatar đã đổi
+                requestAvatars(pendingFriendIds);
             }
 
             buildChatItemsFromLoadedData();
@@ -193,6 +204,9 @@ public class ChatListManager {
 
         mainController.updateLastMessages();
 
+        // Danh sách dựng lại (đăng nhập, resume session) thì đăng ký lại dù vùng hiển thị không đổi
+        Platform.runLater(() -> updatePresenceSubscription(true));
+
         // PRE-FETCH: Tải trước tin nhắn cho top 5 cuộc trò chuyện gần nhất
         preFetchConversations(chatItems, 5);
 
@@ -205,8 +219,6 @@ public class ChatListManager {
             return;
 
         int count = 0;
-        int currentUserId = mainController.getCurrentUserId();
-
         for (ChatItem item : items) {
             if (count >= limit)
                 break;
@@ -214,9 +226,9 @@ public class ChatListManager {
             // Chỉ pre-fetch nếu chưa có trong cache hoặc cache còn ít (tùy chọn)
             // Để đơn giản, cứ gửi request để update cache mới nhất
             if (item.isGroup()) {
-                ChatClient.sendRequest("GET_GROUP_CONVERSATION|" + currentUserId + "|" + item.getGroup().getId());
+                ChatClient.sendRequest("GET_HISTORY_PAGE|" + item.getGroup().getId() + "|true");
             } else {
-                ChatClient.sendRequest("GET_CONVERSATION|" + currentUserId + "|" + item.getUser().getId());
+                ChatClient.sendRequest("GET_HISTORY_PAGE|" + item.getUser().getId() + "|false");
             }
             count++;
         }
@@ -293,9 +305,67 @@ public class ChatListManager {
                 isRefreshing = wasRefreshing;
             }
             chatList.refresh();
+            updatePresenceSubscription(false);
         });
     }
 
+    /**
+     * Chỉ nhận trạng thái online của bạn bè trong các chat đang hiển thị (và chat đang mở). Server trả về
+     * PRESENCE_BATCH với trạng thái hiện tại của họ, nên bạn bè vừa cuộn tới luôn có trạng thái đúng.
+     *
+     * @param force gửi lại kể cả khi tập bạn bè không đổi
+     */
+    private void updatePresenceSubscription(boolean force) {
+        List<ChatItem> items = chatList.getItems();
+        if (items == null || mainController.getCurrentUserId() <= 0) {
+            return;
+        }
+        int first = 0;
+        int last = Math.min(items.size(), PRESENCE_DEFAULT_ROWS) - 1;
+        if (chatList.lookup(".virtual-flow") instanceof VirtualFlow<?> flow) {
+            IndexedCell<?> firstCell = flow.getFirstVisibleCell();
+            IndexedCell<?> lastCell = flow.getLastVisibleCell();
+            if (firstCell != null && lastCell != null) {
+                first = Math.max(0, firstCell.getIndex() - PRESENCE_MARGIN_ROWS);
+                last = Math.min(items.size() - 1, lastCell.getIndex() + PRESENCE_MARGIN_ROWS);
+            }
+        }
+
+        Set<Integer> watched = new TreeSet<>();
+        for (int i = first; i <= last; i++) {
+            ChatItem item = items.get(i);
+            if (!item.isGroup()) {
+                watched.add(item.getUser().getId());
+            }
+        }
+        ChatItem selected = chatList.getSelectionModel().getSelectedItem();
+        if (selected != null && !selected.isGroup()) {
+            watched.add(selected.getUser().getId());
+        }
+        if (!force && watched.equals(presenceSubscription)) {
+            return;
+        }
+        presenceSubscription = watched;
+        StringBuilder ids = new StringBuilder();
+        for (int friendId : watched) {
+            if (ids.length() > 0) {
+                ids.append(',');
+            }
+            ids.append(friendId);
+        }
+        ChatClient.sendRequest("PRESENCE_SUBSCRIBE|" + ids);
+    }
+
+    /** Trạng thái online trong frame PRESENCE_BATCH|onlineIds|offlineIds. */
+    public void onPresenceBatch(List<Integer> onlineIds, List<Integer> offlineIds) {
+        for (int friendId : onlineIds) {
+            onlineFriends.put(friendId, true);
+        }
+        for (int friendId : offlineIds) {
+            onlineFriends.put(friendId, false);
+        }
+    }
+
     // Getters and Setters for shared state
     public Map<Integer, Boolean> getOnlineFriends() {
         return onlineFriends;
@@ -321,6 +391,31 @@ public class ChatListManager {
      * Refresh thông tin của một user cụ thể trong danh sách
      * Được gọi khi user cập nhật profile (avatar, name, etc.)
      */
+    /**
+     * Hỏi avatar 48px của các user trong một lệnh GET_AVATARS, kèm phiên bản đang cache: server chỉ gửi
+     * lại avatar đã đổi, kết quả về {@link #onAvatarsReceived(Set)}.
+     */
+    public void requestAvatars(Collection<Integer> userIds) {
+        if (userIds == null || userIds.isEmpty()) {
+            return;
+        }
+        org.example.zalu.client.ClientCache cache = org.example.zalu.client.ClientCache.getInstance();
+        StringBuilder known = new StringBuilder();
+        for (int userId : userIds) {
+            if (known.length() > 0) {
+                known.append(',');
+            }
+            known.append(userId).append(':').append(cache.getAvatarVersion(userId));
+        }
+        ChatClient.sendRequest("GET_AVATARS|" + User.AVATAR_SMALL + "|" + known);
+    }
+
+    private void onAvatarsReceived(Set<Integer> userIds) {
+        logger.info("Received {} changed avatars", userIds.size());
+        chatList.refresh();
+        mainController.updateChatHeaderStatus();
+    }
+
     public void refreshUserInList(int userId) {
         // Request user info mới từ server
         ChatEventManager.getInstance().registerGetUserByIdCallback(users -> {
@@ -349,6 +444,7 @@ public class ChatListManager {
         onlineFriends.clear();
         unreadCounts.clear();
         hasReceivedFriends = false;
+        presenceSubscription = null;
         if (chatList != null) {
             chatList.getItems().clear();
         }
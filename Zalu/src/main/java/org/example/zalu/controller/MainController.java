@@ -42,6 +42,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -466,7 +467,7 @@ public class MainController {
             }
 
             // Request from server
-            ChatClient.sendRequest("GET_GROUP_CONVERSATION|" + currentUserId + "|" + currentGroupId);
+            ChatClient.sendRequest("GET_HISTORY_PAGE|" + currentGroupId + "|true");
         } else {
             User friend = item.getUser();
             currentFriendId = friend.getId();
@@ -484,7 +485,7 @@ public class MainController {
             }
 
             // Request from server
-            ChatClient.sendRequest("GET_CONVERSATION|" + currentUserId + "|" + currentFriendId);
+            ChatClient.sendRequest("GET_HISTORY_PAGE|" + currentFriendId + "|false");
         }
     }
 
@@ -714,6 +715,16 @@ public class MainController {
                     logger.warn("Error parsing readerId from MESSAGES_READ: {}", message);
                 }
             }
+        } else if (message.startsWith("GROUP_READ|")) {
+            String[] parts = message.split("\\|");
+            if (parts.length >= 4 && messageListController != null) {
+                try {
+                    messageListController.onGroupRead(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]),
+                            Integer.parseInt(parts[3]));
+                } catch (NumberFormatException e) {
+                    logger.warn("Error parsing GROUP_READ: {}", message);
+                }
+            }
         } else if (message.startsWith("USER_ONLINE|")) {
             String[] parts = message.split("\\|");
             if (parts.length >= 2) {
@@ -730,6 +741,22 @@ public class MainController {
                     logger.warn("Error parsing userId from USER_ONLINE: {}", message);
                 }
             }
+        } else if (message.startsWith("PRESENCE_BATCH|")) {
+            // Format: PRESENCE_BATCH|onlineIds|offlineIds (id cách nhau bằng dấu phẩy, có thể rỗng)
+            String[] parts = message.split("\\|", -1);
+            if (parts.length >= 3) {
+                try {
+                    if (chatListManager != null) {
+                        chatListManager.onPresenceBatch(parseIdList(parts[1]), parseIdList(parts[2]));
+                    }
+                    Platform.runLater(() -> {
+                        chatList.refresh();
+                        updateChatHeaderStatus();
+                    });
+                } catch (NumberFormatException e) {
+                    logger.warn("Error parsing PRESENCE_BATCH: {}", message);
+                }
+            }
         } else if (message.startsWith("USER_OFFLINE|")) {
             String[] parts = message.split("\\|");
             if (parts.length >= 2) {
@@ -754,8 +781,13 @@ public class MainController {
                     int updatedUserId = Integer.parseInt(parts[1]);
                     logger.info("User {} updated profile, refreshing avatar and info", updatedUserId);
 
-                    // Clear avatar cache để reload avatar mới
-                    org.example.zalu.client.ClientCache.getInstance().clearAvatarCache(updatedUserId);
+                    // USER_PROFILE_UPDATED|userId|avatarVersion: chỉ tải lại avatar khi phiên bản khác bản đang có,
+                    // avatar cũ vẫn hiển thị tới khi GET_AVATARS trả về
+                    boolean avatarChanged = parts.length < 3 || Integer.parseInt(parts[2]) != org.example.zalu.client.ClientCache
+                            .getInstance().getAvatarVersion(updatedUserId);
+                    if (avatarChanged && chatListManager != null) {
+                        chatListManager.requestAvatars(java.util.List.of(updatedUserId));
+                    }
 
                     // Clear user cache để reload thông tin user mới
                     org.example.zalu.client.ClientCache.getInstance().clearUserCache(updatedUserId);
@@ -968,6 +1000,16 @@ public class MainController {
         }
     }
 
+    private static List<Integer> parseIdList(String csv) {
+        List<Integer> ids = new ArrayList<>();
+        for (String id : csv.split(",")) {
+            if (!id.isBlank()) {
+                ids.add(Integer.parseInt(id.trim()));
+            }
+        }
+        return ids;
+    }
+
     public boolean isFriendOnline(int friendId) {
         return chatListManager != null && chatListManager.getOnlineFriends().getOrDefault(friendId, false);
     }
@@ -22,10 +22,12 @@ import javafx.stage.Stage;
 import javafx.stage.StageStyle;
 import javafx.util.Duration;
 import org.example.zalu.client.ChatClient;
+import org.example.zalu.client.FileTransferClient;
 import org.example.zalu.controller.common.EmojiPickerController;
 import org.example.zalu.controller.common.ImagePreviewController;
 import org.example.zalu.model.Message;
 import org.example.zalu.model.User;
+import org.example.zalu.protocol.Packet;
 import org.example.zalu.util.audio.AudioRecorder;
 import org.example.zalu.util.ui.ChatRenderer;
 import org.example.zalu.util.IconUtil;
@@ -93,6 +95,8 @@ public class ChatController {
     private String pendingVoiceFileName = null;
 
     private byte[] pendingFileData = null;
+    // File không phải ảnh chỉ giữ đường dẫn, nội dung được đọc dần khi upload theo chunk
+    private Path pendingFilePath = null;
     private String pendingFileName = null;
     private boolean pendingFileIsImage = false;
 
@@ -232,26 +236,32 @@ public class ChatController {
         }
 
         try {
-            byte[] data = Files.readAllBytes(file.toPath());
-            if (data.length > 25 * 1024 * 1024) { // Giới hạn 25MB
-                showAlert("File quá lớn! Chỉ hỗ trợ file dưới 25MB.");
-                return;
-            }
-
             String fileName = file.getName();
             boolean isImage = ChatRenderer.isAudioFile(fileName) ? false : ChatRenderer.isImageFile(fileName);
 
-            // Lưu file vào pending và hiển thị preview
-            pendingFileData = data;
-            pendingFileName = fileName;
-            pendingFileIsImage = isImage;
-
-            // Nếu là ảnh, hiển thị preview dialog trước
+            // Nếu là ảnh, đọc vào RAM để hiển thị preview dialog trước
             if (isImage) {
+                byte[] data = Files.readAllBytes(file.toPath());
+                if (data.length > 25 * 1024 * 1024) { // Giới hạn 25MB
+                    showAlert("Ảnh quá lớn! Chỉ hỗ trợ ảnh dưới 25MB.");
+                    return;
+                }
+                pendingFileData = data;
+                pendingFileName = fileName;
+                pendingFileIsImage = true;
                 showImagePreviewDialog(data, fileName);
             } else {
-                // File khác thì hiển thị preview panel
-                showFilePreview(data, fileName);
+                // File khác chỉ giữ đường dẫn và hiển thị preview panel
+                long size = Files.size(file.toPath());
+                if (size > FileTransferClient.MAX_FILE_BYTES) {
+                    showAlert("File quá lớn! Chỉ hỗ trợ file dưới "
+                            + formatSize(FileTransferClient.MAX_FILE_BYTES) + ".");
+                    return;
+                }
+                pendingFilePath = file.toPath();
+                pendingFileName = fileName;
+                pendingFileIsImage = false;
+                showFilePreview(size, fileName);
             }
         } catch (IOException e) {
             logger.error("Error reading file", e);
@@ -292,7 +302,7 @@ public class ChatController {
         stopTypingSignal();
 
         // Kiểm tra nếu có file pending, gửi file trước
-        if (pendingFileData != null && pendingFileName != null) {
+        if ((pendingFileData != null || pendingFilePath != null) && pendingFileName != null) {
             sendFilePreview();
             return;
         }
@@ -348,26 +358,32 @@ public class ChatController {
             return;
 
         try {
-            byte[] data = Files.readAllBytes(file.toPath());
-            if (data.length > 25 * 1024 * 1024) { // Giới hạn 25MB
-                showAlert("File quá lớn! Chỉ hỗ trợ file dưới 25MB.");
-                return;
-            }
-
             String fileName = file.getName();
             boolean isImage = ChatRenderer.isAudioFile(fileName) ? false : ChatRenderer.isImageFile(fileName);
 
-            // Lưu file vào pending và hiển thị preview
-            pendingFileData = data;
-            pendingFileName = fileName;
-            pendingFileIsImage = isImage;
-
-            // Nếu là ảnh, hiển thị preview dialog trước
+            // Nếu là ảnh, đọc vào RAM để hiển thị preview dialog trước
             if (isImage) {
+                byte[] data = Files.readAllBytes(file.toPath());
+                if (data.length > 25 * 1024 * 1024) { // Giới hạn 25MB
+                    showAlert("Ảnh quá lớn! Chỉ hỗ trợ ảnh dưới 25MB.");
+                    return;
+                }
+                pendingFileData = data;
+                pendingFileName = fileName;
+                pendingFileIsImage = true;
                 showImagePreviewDialog(data, fileName);
             } else {
-                // File khác thì hiển thị preview panel
-                showFilePreview(data, fileName);
+                // File khác chỉ giữ đường dẫn và hiển thị preview panel
+                long size = Files.size(file.toPath());
+                if (size > FileTransferClient.MAX_FILE_BYTES) {
+                    showAlert("File quá lớn! Chỉ hỗ trợ file dưới "
+                            + formatSize(FileTransferClient.MAX_FILE_BYTES) + ".");
+                    return;
+                }
+                pendingFilePath = file.toPath();
+                pendingFileName = fileName;
+                pendingFileIsImage = false;
+                showFilePreview(size, fileName);
             }
 
         } catch (IOException e) {
@@ -428,18 +444,16 @@ public class ChatController {
             // Gửi file cho nhóm hoặc bạn bè
             if (currentGroupId > 0) {
                 // Gửi file cho nhóm
-                ChatClient.sendRequest(
-                        "SEND_GROUP_FILE|" + currentGroupId + "|" + currentUserId + "|" + fileName + "|" + data.length);
-                ChatClient.sendObject(data);
+                ChatClient.sendPacketWithData(
+                        Packet.of("SEND_GROUP_FILE", currentGroupId, currentUserId, fileName, data.length), data);
 
 
                 logger.info("Sent {} to group: {} ({})", (isImage ? "image" : "file"), fileName,
                         formatSize(data.length));
             } else if (currentFriendId > 0) {
                 // Gửi file cho bạn bè
-                ChatClient.sendRequest(
-                        "SEND_FILE|" + currentUserId + "|" + currentFriendId + "|" + fileName + "|" + data.length);
-                ChatClient.sendObject(data);
+                ChatClient.sendPacketWithData(
+                        Packet.of("SEND_FILE", currentUserId, currentFriendId, fileName, data.length), data);
 
 
                 logger.info("Sent {}: {} ({})", (isImage ? "image" : "file"), fileName, formatSize(data.length));
@@ -466,7 +480,7 @@ public class ChatController {
         }
     }
 
-    private void showFilePreview(byte[] data, String fileName) {
+    private void showFilePreview(long size, String fileName) {
         Platform.runLater(() -> {
             if (filePreviewPanel != null) {
                 filePreviewPanel.setVisible(true);
@@ -484,7 +498,7 @@ public class ChatController {
                 }
 
                 if (filePreviewSize != null) {
-                    filePreviewSize.setText(formatSize(data.length));
+                    filePreviewSize.setText(formatSize(size));
                 }
 
                 // Cập nhật text nút Gửi
@@ -502,6 +516,7 @@ public class ChatController {
                 filePreviewPanel.setManaged(false);
             }
             pendingFileData = null;
+            pendingFilePath = null;
             pendingFileName = null;
             pendingFileIsImage = false;
 
@@ -518,11 +533,64 @@ public class ChatController {
     }
 
     private void sendFilePreview() {
-        if (pendingFileData != null && pendingFileName != null) {
+        if (pendingFilePath != null && pendingFileName != null) {
+            uploadFile(pendingFilePath, pendingFileName);
+        } else if (pendingFileData != null && pendingFileName != null) {
             sendFileData(pendingFileData, pendingFileName, pendingFileIsImage);
         }
     }
 
+    /**
+     * Upload file theo chunk: đọc dần từ đĩa, tiếp tục được sau khi kết nối lại.
+     */
+    private void uploadFile(Path path, String fileName) {
+        int groupId = currentGroupId > 0 ? currentGroupId : 0;
+        int receiverId = groupId > 0 ? 0 : currentFriendId;
+        if (groupId == 0 && receiverId <= 0) {
+            return;
+        }
+        if (fileProgressBar != null) {
+            fileProgressBar.setVisible(true);
+            fileProgressBar.setManaged(true);
+            fileProgressBar.setProgress(0);
+        }
+        hideFilePreview();
+
+        FileTransferClient.getInstance().upload(path, receiverId, groupId, new FileTransferClient.TransferListener() {
+            @Override
+            public void onProgress(long transferred, long total) {
+                Platform.runLater(() -> {
+                    if (fileProgressBar != null) {
+                        fileProgressBar.setProgress(total > 0 ? (double) transferred / total : 0);
+                    }
+                });
+            }
+
+            @Override
+            public void onComplete(int messageId) {
+                logger.info("Sent file: {} (messageId={})", fileName, messageId);
+                Platform.runLater(ChatController.this::hideFileProgress);
+            }
+
+            @Override
+            public void onFailed(String reason) {
+                logger.error("Upload file {} thất bại: {}", fileName, reason);
+                Platform.runLater(() -> {
+                    hideFileProgress();
+                    showAlert("Gửi file thất bại: " + reason);
+                });
+            }
+        });
+    }
+
+    private void hideFileProgress() {
+        if (fileProgressBar != null) {
+            fileProgressBar.setVisible(false);
+            fileProgressBar.setManaged(false);
+            fileProgressBar.setProgress(0);
+        }
+    }
+
     private String formatSize(long bytes) {
         if (bytes < 1024)
             return bytes + " B";
@@ -695,7 +763,7 @@ public class ChatController {
             pendingVoiceFileName = null;
 
             // Reset text nút Gửi
-            if (sendButton != null && pendingFileData == null) {
+            if (sendButton != null && pendingFileData == null && pendingFilePath == null) {
                 sendButton.setText("Gửi");
             }
         });
@@ -733,13 +801,11 @@ public class ChatController {
         try {
             // Gửi như file thông thường, nhưng đánh dấu là voice message
             if (currentGroupId > 0) {
-                ChatClient.sendRequest("SEND_GROUP_FILE|" + currentGroupId + "|" + currentUserId + "|" + fileName + "|"
-                        + audioData.length);
-                ChatClient.sendObject(audioData);
+                ChatClient.sendPacketWithData(Packet.of("SEND_GROUP_FILE", currentGroupId, currentUserId, fileName,
+                        audioData.length), audioData);
             } else if (currentFriendId > 0) {
-                ChatClient.sendRequest(
-                        "SEND_FILE|" + currentUserId + "|" + currentFriendId + "|" + fileName + "|" + audioData.length);
-                ChatClient.sendObject(audioData);
+                ChatClient.sendPacketWithData(
+                        Packet.of("SEND_FILE", currentUserId, currentFriendId, fileName, audioData.length), audioData);
             }
 
 
@@ -830,7 +896,7 @@ public class ChatController {
             showAlert("Nội dung không được để trống!");
             return;
         }
-        ChatClient.sendRequest("EDIT_MESSAGE|" + messageId + "|" + currentUserId + "|" + newContent);
+        ChatClient.sendPacket(Packet.of("EDIT_MESSAGE", messageId, currentUserId, newContent));
     }
 
     /**
@@ -879,16 +945,16 @@ public class ChatController {
             return false;
 
         String tempId = UUID.randomUUID().toString();
-        String requestStr;
+        Packet request;
         if (currentGroupId > 0) {
-            String baseRequest = "SEND_GROUP_MESSAGE|" + currentGroupId + "|" + content;
+            // Gửi từng trường riêng để nội dung có ký tự '|' không bị cắt
             if (replyingToMessageId != null && replyingToMessageId > 0) {
-                requestStr = baseRequest + "|REPLY_TO|" + replyingToMessageId + "|" + replyingToContent + "|TEMP_ID|"
-                        + tempId;
+                request = Packet.of("SEND_GROUP_MESSAGE", currentGroupId, content, "REPLY_TO", replyingToMessageId,
+                        replyingToContent, "TEMP_ID", tempId);
             } else {
-                requestStr = baseRequest + "|TEMP_ID|" + tempId;
+                request = Packet.of("SEND_GROUP_MESSAGE", currentGroupId, content, "TEMP_ID", tempId);
             }
-            ChatClient.sendRequest(requestStr);
+            ChatClient.sendPacket(request);
             logger.debug("Sending group message: groupId={}, senderId={}, content={}, tempId={}", currentGroupId,
                     currentUserId, content, tempId);
 
@@ -911,14 +977,14 @@ public class ChatController {
             cancelReply(); // Clear reply after sending
             return true;
         } else if (currentFriendId > 0) {
-            String baseRequest = "SEND_MESSAGE|" + currentFriendId + "|" + currentUserId + "|" + content;
+            // Gửi từng trường riêng để nội dung có ký tự '|' không bị cắt
             if (replyingToMessageId != null && replyingToMessageId > 0) {
-                requestStr = baseRequest + "|REPLY_TO|" + replyingToMessageId + "|" + replyingToContent + "|TEMP_ID|"
-                        + tempId;
+                request = Packet.of("SEND_MESSAGE", currentFriendId, currentUserId, content, "REPLY_TO", replyingToMessageId,
+                        replyingToContent, "TEMP_ID", tempId);
             } else {
-                requestStr = baseRequest + "|TEMP_ID|" + tempId;
+                request = Packet.of("SEND_MESSAGE", currentFriendId, currentUserId, content, "TEMP_ID", tempId);
             }
-            ChatClient.sendRequest(requestStr);
+            ChatClient.sendPacket(request);
             logger.debug("Sending message: receiverId={}, senderId={}, content={}, tempId={}", currentFriendId,
                     currentUserId, content, tempId);
 
@@ -4,6 +4,7 @@ import javafx.animation.Timeline;
 import javafx.application.Platform;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
+import javafx.geometry.Bounds;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.Parent;
@@ -20,6 +21,7 @@ import javafx.scene.control.Tab;
 import javafx.scene.control.TabPane;
 import javafx.scene.control.TextField;
 import javafx.scene.image.ImageView;
+import javafx.scene.input.ScrollEvent;
 import javafx.scene.layout.FlowPane;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.Priority;
@@ -46,7 +48,12 @@ import org.example.zalu.client.ChatEventManager;
 import java.io.IOException;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class MessageListController {
     private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(MessageListController.class);
@@ -145,9 +152,34 @@ public class MessageListController {
     // Pinned messages
     private final List<Message> pinnedMessages = new ArrayList<>();
 
+    // Lịch sử chỉ mang metadata file: ảnh chưa có dữ liệu chờ hiện trong khung chat mới tải (GET_FILE)
+    private final Map<Integer, Message> pendingAttachments = new LinkedHashMap<>();
+    private final Set<Integer> loadingAttachments = new HashSet<>();
+
+    // Phân trang lịch sử: con trỏ trang cũ hơn theo chatId (friendId, -groupId), null = đã hết tin cũ
+    private final Map<Integer, String> olderCursors = new HashMap<>();
+    private String pendingOlderCursor = null;
+
+    // Con trỏ đã đọc của thành viên theo groupId (userId -> id tin đã đọc), dùng cho "Đã xem bởi N"
+    private final Map<Integer, Map<Integer, Integer>> groupReadCursors = new HashMap<>();
+
     @FXML
     public void initialize() {
         chatRenderer = new ChatRenderer(chatArea, chatScrollPane);
+        chatScrollPane.vvalueProperty().addListener((obs, oldVal, newVal) -> {
+            prefetchVisibleAttachments();
+            // Cuộn lên tới đầu thì tải trang cũ hơn
+            if (newVal.doubleValue() <= 0.0 && oldVal.doubleValue() > 0.0) {
+                loadOlderMessages();
+            }
+        });
+        // Nội dung chưa đầy khung chat thì không có thanh cuộn: lăn chuột lên cũng tải trang cũ hơn
+        chatScrollPane.addEventFilter(ScrollEvent.SCROLL, e -> {
+            if (e.getDeltaY() > 0 && chatScrollPane.getVvalue() <= 0.0) {
+                loadOlderMessages();
+            }
+        });
+        chatArea.heightProperty().addListener((obs, oldVal, newVal) -> prefetchVisibleAttachments());
 
         // Initialize services
         chatHeaderService = new ChatHeaderService(chatHeader, friendNameLabel, friendStatusLabel, friendAvatar);
@@ -173,6 +205,7 @@ public class MessageListController {
     private void setupCallbacks() {
         ChatEventManager.getInstance().registerSearchMessagesCallback(this::handleSearchMessagesResult);
         ChatEventManager.getInstance().registerPinnedMessagesCallback(this::handlePinnedMessagesResult);
+        ChatEventManager.getInstance().registerHistoryPageCallback(this::handleHistoryPage);
         // Reuse broadcast callback for pin updates if needed, or register specific
         // string handler in EventManager?
         // EventManager sends "MESSAGE_PIN_UPDATE|..." to broadcastCallback.
@@ -356,7 +389,7 @@ public class MessageListController {
         }
         chatHeaderService.showHeaderForFriend(friend, isOnline);
 
-        chatRenderer.clearChat();
+        clearChat();
         loadPinnedMessages(); // Load pinned messages
 
         if (messages == null || messages.isEmpty()) {
@@ -581,6 +614,7 @@ public class MessageListController {
                 chatRenderer.hideReadStatusFromOldMessages();
                 // Force scroll to bottom để hiển thị tin nhắn mới
                 chatRenderer.addMessagesBatch(nodes, false, true);
+                updateGroupSeenIndicator();
             }
 
             infoPanelService.updateSharedMediaAndFiles(currentConversationMessages, currentGroup != null);
@@ -637,6 +671,7 @@ public class MessageListController {
 
                 currentConversationMessages.add(msg);
                 infoPanelService.updateSharedMediaAndFiles(currentConversationMessages, currentGroup != null);
+                updateGroupSeenIndicator();
             }
         });
     }
@@ -716,27 +751,32 @@ public class MessageListController {
             mainBox.setUserData(msg.getId());
             return mainBox;
         } else if (msg.getFileName() != null && !msg.getFileName().trim().isEmpty()) {
+            // Lịch sử/tìm kiếm/ghim không kèm nội dung file: ảnh tải khi hiện ra, voice tải khi bấm phát
+            boolean needsData = msg.getFileData() == null && msg.getId() > 0;
+            Runnable loadData = needsData ? () -> loadAttachment(msg) : null;
+            HBox mainBox;
             if (ChatRenderer.isAudioFile(msg.getFileName())) {
                 VBox voiceBox = MessageBubbleFactory.createVoiceBubble(msg.getFileData(), msg.getFileName(), isOwn,
-                        msg.getCreatedAt(), senderName, msg.getIsRead(), msg.getId(), () -> {
-                            // Re-render when data is loaded?
-                            // For now, factory will handle the download logic.
-                        });
-                return wrapInMainBox(voiceBox, isOwn, senderAvatarData, senderAvatarUrl);
+                        msg.getCreatedAt(), senderName, msg.getIsRead(), msg.getId(), loadData);
+                mainBox = wrapInMainBox(voiceBox, isOwn, senderAvatarData, senderAvatarUrl);
             } else if (ChatRenderer.isImageFile(msg.getFileName())) {
                 VBox imageBox = MessageBubbleFactory.createImageBubble(msg.getFileData(), msg.getFileName(), isOwn,
-                        msg.getCreatedAt(), senderName, msg.getIsRead(), msg.getId(), null);
-                return wrapInMainBox(imageBox, isOwn, senderAvatarData, senderAvatarUrl);
+                        msg.getCreatedAt(), senderName, msg.getIsRead(), msg.getId(), loadData);
+                mainBox = wrapInMainBox(imageBox, isOwn, senderAvatarData, senderAvatarUrl);
+                if (needsData && !loadingAttachments.contains(msg.getId())) {
+                    pendingAttachments.put(msg.getId(), msg);
+                }
             } else if (ChatRenderer.isVideoFile(msg.getFileName())) {
                 VBox videoBox = MessageBubbleFactory.createVideoBubble(msg.getFileData(), msg.getFileName(), isOwn,
                         msg.getCreatedAt(), senderName, msg.getIsRead(), msg.getId(), null);
-                return wrapInMainBox(videoBox, isOwn, senderAvatarData, senderAvatarUrl);
+                mainBox = wrapInMainBox(videoBox, isOwn, senderAvatarData, senderAvatarUrl);
             } else {
-                int fileSize = msg.getFileData() != null ? msg.getFileData().length : 0;
-                VBox fileBox = MessageBubbleFactory.createFileBubble(msg.getFileName(), fileSize, isOwn,
+                VBox fileBox = MessageBubbleFactory.createFileBubble(msg.getFileName(), (int) msg.getFileSize(), isOwn,
                         msg.getCreatedAt(), senderName, msg.getIsRead(), msg.getId(), null);
-                return wrapInMainBox(fileBox, isOwn, senderAvatarData, senderAvatarUrl);
+                mainBox = wrapInMainBox(fileBox, isOwn, senderAvatarData, senderAvatarUrl);
             }
+            mainBox.setUserData(msg.getId());
+            return mainBox;
         }
         return null;
     }
@@ -800,6 +840,8 @@ public class MessageListController {
     }
 
     public void clearChat() {
+        pendingAttachments.clear();
+        pendingOlderCursor = null;
         chatRenderer.clearChat();
     }
 
@@ -849,7 +891,7 @@ public class MessageListController {
         friendNameLabel.setText("👥 " + group.getName());
         friendStatusLabel.setText(group.getMemberCount() + " thành viên");
 
-        chatRenderer.clearChat();
+        clearChat();
         loadPinnedMessages(); // Load pinned messages
 
         if (messages == null || messages.isEmpty()) {
@@ -875,6 +917,7 @@ public class MessageListController {
             if (!nodes.isEmpty()) {
                 chatRenderer.addMessagesBatch(nodes, false, true); // Force scroll on initial load
             }
+            updateGroupSeenIndicator();
         }
         infoPanelService.configureForGroup(group);
         infoPanelService.updateSharedMediaAndFiles(currentConversationMessages, true);
@@ -922,6 +965,42 @@ public class MessageListController {
         // Logic client-side handled via event broadcast
     }
 
+    /**
+     * Thành viên nhóm đã đọc tới lastReadId (GROUP_READ)
+     */
+    public void onGroupRead(int groupId, int readerId, int lastReadId) {
+        groupReadCursors.computeIfAbsent(groupId, k -> new HashMap<>()).merge(readerId, lastReadId, Math::max);
+        if (currentGroup != null && currentGroup.getId() == groupId) {
+            updateGroupSeenIndicator();
+        }
+    }
+
+    /**
+     * Hiển thị "Đã xem bởi N" dưới tin cuối của nhóm đang mở: N là số thành viên khác (không tính
+     * mình và người gửi) có con trỏ đã đọc tới tin đó.
+     */
+    private void updateGroupSeenIndicator() {
+        if (currentGroup == null || currentConversationMessages.isEmpty()) {
+            chatRenderer.hideSeenIndicator();
+            return;
+        }
+        Message last = currentConversationMessages.get(currentConversationMessages.size() - 1);
+        Map<Integer, Integer> cursors = groupReadCursors.get(currentGroup.getId());
+        int seen = 0;
+        if (cursors != null && last.getId() > 0) {
+            for (Map.Entry<Integer, Integer> e : cursors.entrySet()) {
+                if (e.getKey() != currentUserId && e.getKey() != last.getSenderId() && e.getValue() >= last.getId()) {
+                    seen++;
+                }
+            }
+        }
+        if (seen > 0) {
+            chatRenderer.showSeenIndicator(seen);
+        } else {
+            chatRenderer.hideSeenIndicator();
+        }
+    }
+
     @FXML
     private void toggleInfoPanel() {
         infoPanelService.toggleInfoPanel();
@@ -1684,78 +1763,132 @@ public class MessageListController {
         org.example.zalu.client.ChatClient.sendRequest("PIN_MESSAGE|" + messageId + "|false");
     }
 
+    private int currentChatId() {
+        if (currentGroup != null) {
+            return -currentGroup.getId();
+        }
+        return currentFriend != null ? currentFriend.getId() : 0;
+    }
+
     /**
-     * Request file từ server khi file data null hoặc thiếu
+     * Xin trang tin nhắn cũ hơn tin đầu tiên đang hiển thị (GET_HISTORY_PAGE với con trỏ của server).
      */
-    private void requestFileFromServer(int messageId, String fileName, boolean isOwn, LocalDateTime timestamp,
-            String senderName, byte[] senderAvatarData, String senderAvatarUrl,
-            boolean isRead, boolean isVoice) {
-        // Hiển thị placeholder trước (file message hoặc loading indicator)
-        if (isVoice) {
-            // Hiển thị voice message placeholder
-            chatRenderer.addFileMessage(fileName, 0, isOwn, timestamp, senderName, senderAvatarData, senderAvatarUrl,
-                    isRead, messageId);
-        } else if (ChatRenderer.isImageFile(fileName)) {
-            // Hiển thị image placeholder (có thể là loading indicator)
-            chatRenderer.addFileMessage(fileName, 0, isOwn, timestamp, senderName, senderAvatarData, senderAvatarUrl,
-                    isRead, messageId);
-        } else {
-            // Hiển thị file message placeholder
-            chatRenderer.addFileMessage(fileName, 0, isOwn, timestamp, senderName, senderAvatarData, senderAvatarUrl,
-                    isRead, messageId);
+    private void loadOlderMessages() {
+        int chatId = currentChatId();
+        String cursor = olderCursors.get(chatId);
+        if (chatId == 0 || cursor == null || pendingOlderCursor != null) {
+            return;
+        }
+        pendingOlderCursor = cursor;
+        ChatClient.sendRequest("GET_HISTORY_PAGE|" + Math.abs(chatId) + "|" + (chatId < 0) + "|" + cursor);
+        logger.debug("Loading older messages for chatId {} (cursor {})", chatId, cursor);
+    }
+
+    private void handleHistoryPage(ChatEventManager.HistoryPage page) {
+        int chatId = page.getChatId();
+        if (page.isLatest()) {
+            olderCursors.put(chatId, page.getOlderCursor());
+            if (chatId < 0 && page.getReadCursors() != null) {
+                groupReadCursors.put(-chatId, new HashMap<>(page.getReadCursors()));
+                if (chatId == currentChatId()) {
+                    updateGroupSeenIndicator();
+                }
+            }
+            return;
+        }
+        if (!page.getCursor().equals(pendingOlderCursor)) {
+            return;
+        }
+        pendingOlderCursor = null;
+        olderCursors.put(chatId, page.getOlderCursor());
+        if (chatId != currentChatId()) {
+            return;
         }
 
-        // Đăng ký callback để nhận file từ server
-        // Đăng ký callback để nhận file từ server
+        // Chèn trang cũ hơn lên đầu, bỏ các tin đã hiển thị
+        Set<Integer> shown = new HashSet<>();
+        for (Node node : chatArea.getChildren()) {
+            if (node.getUserData() instanceof Integer id) {
+                shown.add(id);
+            }
+        }
+        Set<Integer> known = new HashSet<>();
+        for (Message m : currentConversationMessages) {
+            known.add(m.getId());
+        }
+        List<Message> older = new ArrayList<>();
+        List<Node> nodes = new ArrayList<>();
+        for (Message msg : page.getMessages()) {
+            if (!known.contains(msg.getId())) {
+                older.add(msg);
+            }
+            if (shown.contains(msg.getId())) {
+                continue;
+            }
+            Node node = createMessageNode(msg);
+            if (node != null) {
+                nodes.add(node);
+            }
+        }
+        currentConversationMessages.addAll(0, older);
+        chatRenderer.addMessagesBatch(nodes, true);
+        logger.debug("Prepended {} older messages for chatId {}", nodes.size(), chatId);
+    }
+
+    /**
+     * Tải ảnh đang hiện trong khung chat mà chưa có dữ liệu. Ảnh ở xa phía trên chỉ tải khi cuộn tới.
+     */
+    private void prefetchVisibleAttachments() {
+        if (pendingAttachments.isEmpty() || chatScrollPane.getScene() == null) {
+            return;
+        }
+        Bounds viewport = chatScrollPane.localToScene(chatScrollPane.getBoundsInLocal());
+        List<Message> visible = new ArrayList<>();
+        for (Node node : chatArea.getChildren()) {
+            Message msg = node.getUserData() instanceof Integer id ? pendingAttachments.get(id) : null;
+            if (msg != null && node.localToScene(node.getBoundsInLocal()).intersects(viewport)) {
+                visible.add(msg);
+            }
+        }
+        visible.forEach(this::loadAttachment);
+    }
+
+    /**
+     * Gửi GET_FILE cho tin nhắn file rồi vẽ lại bubble tại chỗ khi nhận được dữ liệu.
+     */
+    private void loadAttachment(Message msg) {
+        int messageId = msg.getId();
+        pendingAttachments.remove(messageId);
+        if (!loadingAttachments.add(messageId)) {
+            return;
+        }
         ChatEventManager.getInstance().registerFileDownloadCallback(messageId, downloadInfo -> {
-            if (downloadInfo != null) {
-                String downloadFileName = downloadInfo.getFileName();
-                byte[] fileData = downloadInfo.getFileData();
-                if (fileData != null && fileData.length > 0) {
-                    Platform.runLater(() -> {
-                        // Xóa placeholder và hiển thị file/ảnh thật
-                        // Tìm và xóa node cũ (có thể dựa vào messageId lưu trong userData)
-                        removeMessageNode(messageId);
-
-                        // Hiển thị lại với file data đầy đủ
-                        if (isVoice) {
-                            chatRenderer.addVoiceMessage(fileData, downloadFileName, isOwn, timestamp, senderName,
-                                    senderAvatarData, senderAvatarUrl, isRead, messageId);
-                        } else if (ChatRenderer.isImageFile(downloadFileName)) {
-                            chatRenderer.addImageMessage(fileData, downloadFileName, isOwn, timestamp, senderName,
-                                    senderAvatarData, senderAvatarUrl, isRead, messageId);
-                        } else {
-                            chatRenderer.addFileMessage(downloadFileName, fileData.length, isOwn, timestamp, senderName,
-                                    senderAvatarData, senderAvatarUrl, isRead, messageId);
-                        }
-                    });
-                }
+            loadingAttachments.remove(messageId);
+            if (downloadInfo == null || downloadInfo.getFileData() == null) {
+                logger.warn("Không tải được file của tin nhắn {}", messageId);
+                return;
             }
+            msg.setFileData(downloadInfo.getFileData());
+            replaceMessageNode(msg);
         });
-
-        // Gửi request GET_FILE
         ChatClient.sendRequest("GET_FILE|" + messageId);
-        logger.debug("Requesting file from server for messageId: {}, fileName: {}", messageId, fileName);
+        logger.debug("Requesting file from server for messageId: {}, fileName: {}", messageId, msg.getFileName());
     }
 
     /**
-     * Xóa message node dựa vào messageId
+     * Thay node của tin nhắn (tìm theo messageId trong userData) bằng node mới, giữ nguyên vị trí
      */
-    private void removeMessageNode(int messageId) {
-        if (chatArea == null)
-            return;
-        Platform.runLater(() -> {
-            for (int i = chatArea.getChildren().size() - 1; i >= 0; i--) {
-                Node node = chatArea.getChildren().get(i);
-                if (node instanceof HBox) {
-                    Object msgIdObj = ((HBox) node).getUserData();
-                    if (msgIdObj != null && msgIdObj instanceof Integer && (Integer) msgIdObj == messageId) {
-                        chatArea.getChildren().remove(i);
-                        break;
-                    }
+    private void replaceMessageNode(Message msg) {
+        for (int i = 0; i < chatArea.getChildren().size(); i++) {
+            Node node = chatArea.getChildren().get(i);
+            if (node.getUserData() instanceof Integer id && id == msg.getId()) {
+                Node updated = createMessageNode(msg);
+                if (updated != null) {
+                    chatArea.getChildren().set(i, updated);
                 }
+                return;
             }
-        });
+        }
     }
 
     private boolean isSameMessages(List<Message> list1, List<Message> list2) {
@@ -481,23 +481,13 @@ public class ManageGroupController {
                 "Thành viên này sẽ không thể xem tin nhắn và thông tin nhóm sau khi bị xóa.");
         confirm.showAndWait().ifPresent(response -> {
             if (response == ButtonType.OK) {
-                try {
-                    boolean success = groupDAO.removeMemberFromGroup(groupId, selectedUser.getId());
-                    if (success) {
-                        members.remove(selected);
-                        membersListView.getSelectionModel().clearSelection();
-                        showAlert("Thành công", "Đã xóa \"" + displayName + "\" khỏi nhóm.");
-                        if (onGroupUpdated != null) {
-                            onGroupUpdated.run();
-                        }
-                        // Gửi request đến server
-                        ChatClient.sendRequest("REMOVE_GROUP_MEMBER|" + groupId + "|" + selectedUser.getId());
-                    } else {
-                        showAlert("Lỗi", "Không thể xóa thành viên. Vui lòng thử lại.");
-                    }
-                } catch (SQLException e) {
-                    logger.error("Lỗi khi xóa thành viên: {}", e.getMessage(), e);
-                    showAlert("Lỗi", "Lỗi khi xóa thành viên: " + e.getMessage());
+                // Server ghi DB và cập nhật danh sách thành viên đang dùng để gửi tin nhóm
+                ChatClient.sendRequest("REMOVE_GROUP_MEMBER|" + groupId + "|" + selectedUser.getId());
+                members.remove(selected);
+                membersListView.getSelectionModel().clearSelection();
+                showAlert("Thành công", "Đã xóa \"" + displayName + "\" khỏi nhóm.");
+                if (onGroupUpdated != null) {
+                    onGroupUpdated.run();
                 }
             }
         });
@@ -627,20 +617,10 @@ public class ManageGroupController {
         confirm.setContentText("Bạn có chắc muốn rời nhóm này?");
         confirm.showAndWait().ifPresent(response -> {
             if (response == ButtonType.OK) {
-                try {
-                    boolean success = groupDAO.leaveGroup(groupId, currentUserId);
-                    if (success) {
-                        showAlert("Thành công", "Bạn đã rời nhóm.");
-                        // Gửi request đến server
-                        ChatClient.sendRequest("LEAVE_GROUP|" + groupId);
-                        if (dialogStage != null) {
-                            dialogStage.close();
-                        }
-                    } else {
-                        showAlert("Lỗi", "Không thể rời nhóm.");
-                    }
-                } catch (SQLException e) {
-                    showAlert("Lỗi", "Lỗi khi rời nhóm: " + e.getMessage());
+                // Server ghi DB và trả LEAVE_GROUP|SUCCESS/FAIL (MainController xử lý)
+                ChatClient.sendRequest("LEAVE_GROUP|" + groupId);
+                if (dialogStage != null) {
+                    dialogStage.close();
                 }
             }
         });
@@ -659,20 +639,11 @@ public class ManageGroupController {
         confirm.setContentText("Bạn có chắc muốn xóa nhóm này? Hành động này không thể hoàn tác.");
         confirm.showAndWait().ifPresent(response -> {
             if (response == ButtonType.OK) {
-                try {
-                    boolean success = groupDAO.deleteGroup(groupId);
-                    if (success) {
-                        showAlert("Thành công", "Đã xóa nhóm.");
-                        // Gửi request đến server
-                        ChatClient.sendRequest("DELETE_GROUP|" + groupId);
-                        if (dialogStage != null) {
-                            dialogStage.close();
-                        }
-                    } else {
-                        showAlert("Lỗi", "Không thể xóa nhóm.");
-                    }
-                } catch (SQLException e) {
-                    showAlert("Lỗi", "Lỗi khi xóa nhóm: " + e.getMessage());
+                // Server kiểm tra quyền admin, xóa nhóm và gửi GROUPS_UPDATE cho các thành viên
+                ChatClient.sendRequest("DELETE_GROUP|" + groupId);
+                showAlert("Thành công", "Đã gửi yêu cầu xóa nhóm.");
+                if (dialogStage != null) {
+                    dialogStage.close();
                 }
             }
         });
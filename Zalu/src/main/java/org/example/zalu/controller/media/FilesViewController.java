@@ -17,8 +17,7 @@ import javafx.scene.paint.Color;
 import javafx.scene.shape.Rectangle;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
-import org.example.zalu.client.ChatClient;
-import org.example.zalu.client.ChatEventManager;
+import org.example.zalu.client.FileTransferClient;
 import org.example.zalu.model.Message;
 import org.example.zalu.util.IconUtil;
 import org.slf4j.Logger;
@@ -254,7 +253,7 @@ public class FilesViewController {
                 // Skip images and videos (they're in media view)
                 if (!org.example.zalu.util.ui.ChatRenderer.isImageFile(msg.getFileName()) &&
                         !isVideoFile(msg.getFileName())) {
-                    long fileSize = msg.getFileData() != null ? msg.getFileData().length : 0;
+                    long fileSize = msg.getFileSize();
                     files.add(new FileItem(msg.getFileName(), fileSize, msg));
                 }
             }
@@ -313,27 +312,42 @@ public class FilesViewController {
             return;
         }
 
-        // Nếu chưa có data, request từ server
-        logger.info("File data not available, requesting from server for messageId: {}", messageId);
-
-        // Register callback để xử lý file download response
-        ChatEventManager.getInstance().registerFileDownloadCallback(messageId, downloadInfo -> {
-            logger.info("File download callback triggered for messageId: {}", messageId);
-            if (downloadInfo != null && downloadInfo.getFileData() != null) {
-                logger.info("File downloaded successfully: {} ({} bytes)",
-                        downloadInfo.getFileName(), downloadInfo.getFileData().length);
-                openFileDirectly(downloadInfo.getFileName(), downloadInfo.getFileData());
-            } else {
-                logger.error("File download failed for messageId: {}", messageId);
-                Platform.runLater(() -> {
-                    showAlert("Không thể tải file. Vui lòng thử lại.");
-                });
+        // Nếu chưa có data, tải theo chunk về thư mục tạm rồi mở
+        logger.info("File data not available, downloading from server for messageId: {}", messageId);
+        java.nio.file.Path target = java.nio.file.Paths.get(System.getProperty("java.io.tmpdir"), "zalu-downloads",
+                messageId + "_" + fileName);
+        if (java.nio.file.Files.exists(target)) {
+            openDownloadedFile(target.toFile());
+            return;
+        }
+        try {
+            java.nio.file.Files.createDirectories(target.getParent());
+        } catch (IOException e) {
+            showAlert("Lỗi khi mở file: " + e.getMessage());
+            return;
+        }
+        FileTransferClient.getInstance().download(messageId, target, new FileTransferClient.TransferListener() {
+            @Override
+            public void onComplete(int id) {
+                logger.info("File downloaded successfully: {}", target);
+                Platform.runLater(() -> openDownloadedFile(target.toFile()));
+            }
+
+            @Override
+            public void onFailed(String reason) {
+                logger.error("File download failed for messageId {}: {}", messageId, reason);
+                Platform.runLater(() -> showAlert("Không thể tải file. Vui lòng thử lại."));
             }
         });
+    }
 
-        // Gửi request download
-        logger.info("Sending GET_FILE request for messageId: {}", messageId);
-        ChatClient.sendRequest("GET_FILE|" + messageId);
+    private void openDownloadedFile(File file) {
+        try {
+            java.awt.Desktop.getDesktop().open(file);
+        } catch (Exception e) {
+            logger.warn("Cannot open file with Desktop.open(): {}", e.getMessage());
+            showAlert("File đã được lưu tại: " + file.getAbsolutePath());
+        }
     }
 
     private void openFileDirectly(String fileName, byte[] fileData) {
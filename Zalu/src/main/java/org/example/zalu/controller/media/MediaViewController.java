@@ -53,7 +53,8 @@ public class MediaViewController {
         // Lọc và sắp xếp media messages (ảnh và video) theo thời gian mới nhất trước
         allMediaMessages = new java.util.ArrayList<>();
         for (Message msg : messages) {
-            if (msg.getFileName() != null && msg.getFileData() != null && msg.getFileData().length > 0) {
+            // Lịch sử chỉ mang metadata: ảnh chưa tải vẫn được liệt kê (ô giữ chỗ)
+            if (msg.getFileName() != null && msg.getFileSize() > 0) {
                 if (ChatRenderer.isImageFile(msg.getFileName()) || isVideoFile(msg.getFileName())) {
                     allMediaMessages.add(msg);
                 }
@@ -131,7 +132,17 @@ public class MediaViewController {
     }
     
     private void addMediaItemToPane(Message msg, FlowPane pane) {
-        if (ChatRenderer.isImageFile(msg.getFileName())) {
+        if (ChatRenderer.isImageFile(msg.getFileName()) && msg.getFileData() == null) {
+            StackPane placeholder = new StackPane(IconUtil.getImageIcon(48));
+            placeholder.setStyle(
+                "-fx-background-color: #f0f0f0; " +
+                "-fx-background-radius: 12; " +
+                "-fx-padding: 4;"
+            );
+            placeholder.setPrefSize(180, 180);
+            placeholder.setMaxSize(180, 180);
+            pane.getChildren().add(placeholder);
+        } else if (ChatRenderer.isImageFile(msg.getFileName())) {
             try {
                 Image image = new Image(new ByteArrayInputStream(msg.getFileData()), 200, 200, true, true);
                 ImageView imageView = new ImageView(image);
@@ -111,6 +111,15 @@ public class ProfileController {
                     statusLabel.setText("✓ Lưu thành công!");
                     statusLabel.setStyle("-fx-text-fill: green;");
 
+                    // UPDATE_PROFILE|SUCCESS|avatarVersion: các lần lưu sau không gửi lại avatar
+                    String[] parts = response.split("\\|");
+                    if (parts.length >= 3) {
+                        try {
+                            currentUser.setAvatarVersion(Integer.parseInt(parts[2]));
+                        } catch (NumberFormatException ignored) {
+                        }
+                    }
+
                     // Refresh UI với thông tin mới
                     updateUIWithUser(currentUser);
 
@@ -330,6 +339,8 @@ public class ProfileController {
                     return;
                 }
                 currentUser.setAvatarData(bytes);
+                // Phiên bản 0: server lưu ảnh này làm avatar mới khi bấm Lưu
+                currentUser.setAvatarVersion(0);
 
                 Image newImage = new Image(selected.toURI().toString());
                 avatarImageView.setImage(resizeImage(newImage, 100, 100));
@@ -0,0 +1,130 @@
+package org.example.zalu.dao;
+
+import org.example.zalu.util.database.SchemaCapability;
+import org.example.zalu.util.database.SchemaRegistry;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bảng conversations (migration V9__conversations.sql): mỗi chat 1-1 và mỗi nhóm có một hàng, tin nhắn
+ * mang conversation_id và seq tăng dần trong cuộc trò chuyện.
+ * <p>
+ * Chỉ dùng nội bộ trong các DAO, trên Connection của câu lệnh đang chạy. Id cuộc trò chuyện không
+ * bao giờ đổi nên được cache trong RAM; hàng conversations chỉ bị khóa trong transaction cấp seq.
+ */
+final class ConversationDAO {
+
+    /** Khóa chat (-groupId, hoặc cặp user nhỏ/lớn) -> id cuộc trò chuyện */
+    private static final Map<Long, Integer> ids = new ConcurrentHashMap<>();
+
+    private ConversationDAO() {
+    }
+
+    /**
+     * DB đã có conversation_id/seq chưa (đọc từ schema lúc khởi động). Chưa có thì DAO dùng các câu
+     * truy vấn theo sender/receiver/group như cũ.
+     */
+    static boolean isEnabled() {
+        return SchemaRegistry.has(SchemaCapability.CONVERSATION_SEQ);
+    }
+
+    private static long key(int userA, int userB, int groupId) {
+        if (groupId > 0) {
+            return -groupId;
+        }
+        return ((long) Math.min(userA, userB) << 32) | Math.max(userA, userB);
+    }
+
+    /**
+     * Id cuộc trò chuyện đã có, 0 nếu chưa có (chưa từng có tin nhắn).
+     *
+     * @param groupId &gt; 0 với chat nhóm (khi đó userA/userB bị bỏ qua)
+     */
+    static int find(Connection conn, int userA, int userB, int groupId) throws SQLException {
+        long key = key(userA, userB, groupId);
+        Integer cached = ids.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        String sql = groupId > 0
+                ? "SELECT id FROM conversations WHERE group_id = ?"
+                : "SELECT id FROM conversations WHERE user_low = ? AND user_high = ?";
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            bind(pstmt, userA, userB, groupId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (!rs.next()) {
+                    return 0;
+                }
+                int id = rs.getInt(1);
+                ids.put(key, id);
+                return id;
+            }
+        }
+    }
+
+    /**
+     * Id cuộc trò chuyện, tạo mới nếu chưa có. Phải gọi khi {@code conn} đang ở autocommit, để hàng
+     * mới được commit ngay và không bị rollback cùng tin nhắn (id đã cache vẫn đúng). Hai luồng cùng tạo
+     * thì một luồng gặp lỗi trùng khóa và đọc lại hàng của luồng kia.
+     */
+    static int getOrCreate(Connection conn, int userA, int userB, int groupId) throws SQLException {
+        int id = find(conn, userA, userB, groupId);
+        if (id > 0) {
+            return id;
+        }
+        String sql = groupId > 0
+                ? "INSERT INTO conversations (group_id) VALUES (?)"
+                : "INSERT INTO conversations (user_low, user_high) VALUES (?, ?)";
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            bind(pstmt, userA, userB, groupId);
+            pstmt.executeUpdate();
+        } catch (SQLException e) {
+            // 23xxx: vi phạm ràng buộc (trùng khóa) - luồng khác vừa tạo
+            if (e.getSQLState() == null || !e.getSQLState().startsWith("23")) {
+                throw e;
+            }
+        }
+        id = find(conn, userA, userB, groupId);
+        if (id == 0) {
+            throw new SQLException("Không tạo được cuộc trò chuyện");
+        }
+        return id;
+    }
+
+    /**
+     * Cấp {@code count} số thứ tự liên tiếp cho cuộc trò chuyện và trả về số đầu tiên. Phải gọi trong
+     * transaction của câu INSERT tin nhắn: hàng conversations bị khóa tới khi commit, nên seq tăng dần
+     * đúng theo thứ tự commit và rollback thì trả lại các số đã cấp.
+     */
+    static int allocate(Connection conn, int conversationId, int count) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "UPDATE conversations SET last_seq = last_seq + ? WHERE id = ?")) {
+            pstmt.setInt(1, count);
+            pstmt.setInt(2, conversationId);
+            if (pstmt.executeUpdate() == 0) {
+                throw new SQLException("Không tìm thấy cuộc trò chuyện " + conversationId);
+            }
+        }
+        try (PreparedStatement pstmt = conn.prepareStatement("SELECT last_seq FROM conversations WHERE id = ?")) {
+            pstmt.setInt(1, conversationId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                rs.next();
+                return rs.getInt(1) - count + 1;
+            }
+        }
+    }
+
+    private static void bind(PreparedStatement pstmt, int userA, int userB, int groupId) throws SQLException {
+        if (groupId > 0) {
+            pstmt.setInt(1, groupId);
+        } else {
+            pstmt.setInt(1, Math.min(userA, userB));
+            pstmt.setInt(2, Math.max(userA, userB));
+        }
+    }
+}
@@ -2,6 +2,8 @@ package org.example.zalu.dao;
 
 import org.example.zalu.model.GroupInfo;
 import org.example.zalu.util.database.DBConnection;
+import org.example.zalu.util.database.SchemaCapability;
+import org.example.zalu.util.database.SchemaRegistry;
 
 import java.sql.*;
 import java.time.LocalDateTime;
@@ -19,6 +21,10 @@ public class GroupDAO {
         return DBConnection.getConnection(); // ← Xịn, an toàn, hiệu suất cao
     }
 
+    private Connection getConnection(DBConnection.Pool pool) throws SQLException {
+        return DBConnection.getConnection(pool);
+    }
+
     public List<GroupInfo> getUserGroups(int userId) throws SQLException {
         List<GroupInfo> groups = new ArrayList<>();
         String sql = "SELECT g.id, g.name, COUNT(gm.user_id) as member_count " +
@@ -37,7 +43,7 @@ public class GroupDAO {
                     group.setMemberCount(rs.getInt("member_count"));
 
                     // Load avatar nếu có
-                    if (hasAvatarColumn(conn)) {
+                    if (hasAvatarColumn()) {
                         loadGroupAvatar(conn, group);
                     }
 
@@ -83,7 +89,7 @@ public class GroupDAO {
 
     // Sửa để nhận Connection từ pool (tránh tạo PreparedStatement mới mỗi lần)
     private void addMemberToGroup(Connection conn, int groupId, int userId, String role) throws SQLException {
-        if (hasRoleColumn(conn)) {
+        if (hasRoleColumn()) {
             String sql = "INSERT INTO group_members (group_id, user_id, role) VALUES (?, ?, ?)";
             try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
                 pstmt.setInt(1, groupId);
@@ -118,32 +124,42 @@ public class GroupDAO {
         return members;
     }
 
+    /**
+     * Id các nhóm user đang tham gia (không nạp tên/avatar như getUserGroups)
+     */
+    public List<Integer> getUserGroupIds(int userId) throws SQLException {
+        List<Integer> groupIds = new ArrayList<>();
+        String sql = "SELECT group_id FROM group_members WHERE user_id = ?";
+
+        try (Connection conn = getConnection();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setInt(1, userId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    groupIds.add(rs.getInt("group_id"));
+                }
+            }
+        }
+        return groupIds;
+    }
+
     private int insertGroupRecord(Connection conn, String name, int creatorId) throws SQLException {
-        String sqlWithCreator = "INSERT INTO groups (name, created_by) VALUES (?, ?)";
-        try (PreparedStatement pstmt = conn.prepareStatement(sqlWithCreator, Statement.RETURN_GENERATED_KEYS)) {
+        boolean hasCreator = SchemaRegistry.has(SchemaCapability.GROUP_CREATED_BY);
+        String sql = hasCreator
+                ? "INSERT INTO groups (name, created_by) VALUES (?, ?)"
+                : "INSERT INTO groups (name) VALUES (?)";
+        try (PreparedStatement pstmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
             pstmt.setString(1, name);
-            pstmt.setInt(2, creatorId);
+            if (hasCreator) {
+                pstmt.setInt(2, creatorId);
+            }
             pstmt.executeUpdate();
             try (ResultSet rs = pstmt.getGeneratedKeys()) {
                 if (rs.next()) {
                     return rs.getInt(1);
                 }
             }
-        } catch (SQLException e) {
-            if (isUnknownColumn(e, "created_by")) {
-                String fallbackSql = "INSERT INTO groups (name) VALUES (?)";
-                try (PreparedStatement pstmt = conn.prepareStatement(fallbackSql, Statement.RETURN_GENERATED_KEYS)) {
-                    pstmt.setString(1, name);
-                    pstmt.executeUpdate();
-                    try (ResultSet rs = pstmt.getGeneratedKeys()) {
-                        if (rs.next()) {
-                            return rs.getInt(1);
-                        }
-                    }
-                }
-            } else {
-                throw e;
-            }
         }
         return -1;
     }
@@ -168,47 +184,9 @@ public class GroupDAO {
         }
     }
 
-    private static volatile Boolean groupMembersHasRoleColumn = null;
-
-    private boolean hasRoleColumn(Connection conn) {
-        if (groupMembersHasRoleColumn != null) {
-            return groupMembersHasRoleColumn;
-        }
-        synchronized (GroupDAO.class) {
-            if (groupMembersHasRoleColumn == null) {
-                groupMembersHasRoleColumn = detectRoleColumn(conn);
-                System.out.println("GroupDAO: group_members.role column available? " + groupMembersHasRoleColumn);
-            }
-        }
-        return groupMembersHasRoleColumn;
-    }
-
-    private boolean detectRoleColumn(Connection conn) {
-        try {
-            DatabaseMetaData meta = conn.getMetaData();
-            String catalog = conn.getCatalog();
-            if (columnExists(meta, catalog, "group_members", "role")) {
-                return true;
-            }
-            if (columnExists(meta, catalog, "GROUP_MEMBERS", "ROLE")) {
-                return true;
-            }
-        } catch (SQLException e) {
-            System.out.println("GroupDAO: không thể kiểm tra cột role, mặc định = false. Lỗi: " + e.getMessage());
-        }
-        return false;
-    }
-
-    private boolean columnExists(DatabaseMetaData meta, String catalog, String tableName, String columnName)
-            throws SQLException {
-        try (ResultSet rs = meta.getColumns(catalog, null, tableName, columnName)) {
-            return rs.next();
-        }
-    }
-
-    private boolean isUnknownColumn(SQLException e, String column) {
-        String message = e.getMessage();
-        return message != null && message.toLowerCase().contains("unknown column '" + column.toLowerCase() + "'");
+    // Cột tùy chọn đọc từ schema lúc khởi động, không dò DatabaseMetaData ở mỗi lần gọi
+    private boolean hasRoleColumn() {
+        return SchemaRegistry.has(SchemaCapability.GROUP_MEMBER_ROLE);
     }
 
     /**
@@ -271,7 +249,7 @@ public class GroupDAO {
      * Lấy role của user trong nhóm
      */
     public String getMemberRole(int groupId, int userId) throws SQLException {
-        if (!hasRoleColumn(getConnection())) {
+        if (!hasRoleColumn()) {
             return "member"; // Mặc định nếu không có cột role
         }
 
@@ -343,7 +321,7 @@ public class GroupDAO {
                     group.setName(rs.getString("name"));
 
                     // Load avatar nếu có
-                    if (hasAvatarColumn(conn)) {
+                    if (hasAvatarColumn()) {
                         loadGroupAvatar(conn, group);
                     }
 
@@ -369,58 +347,29 @@ public class GroupDAO {
      * Cập nhật avatar nhóm
      */
     public boolean updateGroupAvatar(int groupId, byte[] avatarData) throws SQLException {
-        try (Connection conn = getConnection()) {
-            if (!hasAvatarColumn(conn)) {
-                // Nếu không có cột avatar, không làm gì
-                return false;
-            }
+        if (!hasAvatarColumn()) {
+            // Nếu không có cột avatar, không làm gì
+            return false;
+        }
 
-            String sql = "UPDATE groups SET avatar_data = ? WHERE id = ?";
-            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
-                if (avatarData != null && avatarData.length > 0) {
-                    pstmt.setBytes(1, avatarData);
-                } else {
-                    pstmt.setNull(1, Types.BLOB);
-                }
-                pstmt.setInt(2, groupId);
-                return pstmt.executeUpdate() > 0;
+        String sql = "UPDATE groups SET avatar_data = ? WHERE id = ?";
+        try (Connection conn = getConnection();
+                PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            if (avatarData != null && avatarData.length > 0) {
+                pstmt.setBytes(1, avatarData);
+            } else {
+                pstmt.setNull(1, Types.BLOB);
             }
+            pstmt.setInt(2, groupId);
+            return pstmt.executeUpdate() > 0;
         }
     }
 
     /**
      * Kiểm tra xem bảng groups có cột avatar_data không
      */
-    private static volatile Boolean groupsHasAvatarColumn = null;
-
-    private boolean hasAvatarColumn(Connection conn) {
-        if (groupsHasAvatarColumn != null) {
-            return groupsHasAvatarColumn;
-        }
-        synchronized (GroupDAO.class) {
-            if (groupsHasAvatarColumn == null) {
-                groupsHasAvatarColumn = detectAvatarColumn(conn);
-                System.out.println("GroupDAO: groups.avatar_data column available? " + groupsHasAvatarColumn);
-            }
-        }
-        return groupsHasAvatarColumn;
-    }
-
-    private boolean detectAvatarColumn(Connection conn) {
-        try {
-            DatabaseMetaData meta = conn.getMetaData();
-            String catalog = conn.getCatalog();
-            if (columnExists(meta, catalog, "groups", "avatar_data")) {
-                return true;
-            }
-            if (columnExists(meta, catalog, "GROUPS", "AVATAR_DATA")) {
-                return true;
-            }
-        } catch (SQLException e) {
-            System.out
-                    .println("GroupDAO: không thể kiểm tra cột avatar_data, mặc định = false. Lỗi: " + e.getMessage());
-        }
-        return false;
+    private boolean hasAvatarColumn() {
+        return SchemaRegistry.has(SchemaCapability.GROUP_AVATAR);
     }
 
     /**
@@ -446,7 +395,7 @@ public class GroupDAO {
      */
     public List<GroupMemberInfo> getGroupMembersWithRole(int groupId) throws SQLException {
         List<GroupMemberInfo> members = new ArrayList<>();
-        String sql = hasRoleColumn(getConnection())
+        String sql = hasRoleColumn()
                 ? "SELECT user_id, role FROM group_members WHERE group_id = ?"
                 : "SELECT user_id FROM group_members WHERE group_id = ?";
 
@@ -457,7 +406,7 @@ public class GroupDAO {
                 while (rs.next()) {
                     GroupMemberInfo info = new GroupMemberInfo();
                     info.setUserId(rs.getInt("user_id"));
-                    if (hasRoleColumn(conn)) {
+                    if (hasRoleColumn()) {
                         String role = rs.getString("role");
                         info.setRole(role != null ? role : "member");
                     } else {
@@ -474,7 +423,7 @@ public class GroupDAO {
      * Cập nhật role của thành viên (promote/demote admin)
      */
     public boolean updateMemberRole(int groupId, int userId, String role) throws SQLException {
-        if (!hasRoleColumn(getConnection())) {
+        if (!hasRoleColumn()) {
             return false; // Không hỗ trợ role
         }
 
@@ -517,7 +466,7 @@ public class GroupDAO {
      */
     public int getTotalGroupCount() throws SQLException {
         String sql = "SELECT COUNT(*) as total FROM groups";
-        try (Connection conn = getConnection();
+        try (Connection conn = getConnection(DBConnection.Pool.ANALYTICS);
                 PreparedStatement ps = conn.prepareStatement(sql);
                 ResultSet rs = ps.executeQuery()) {
             if (rs.next()) {
@@ -543,7 +492,7 @@ public class GroupDAO {
                 "LEFT JOIN group_members gm ON g.id = gm.group_id " +
                 "GROUP BY g.id, g.name, u.username, g.created_at " +
                 "ORDER BY g.created_at DESC";
-        try (Connection conn = getConnection();
+        try (Connection conn = getConnection(DBConnection.Pool.ANALYTICS);
                 PreparedStatement ps = conn.prepareStatement(sql);
                 ResultSet rs = ps.executeQuery()) {
             while (rs.next()) {
@@ -573,7 +522,7 @@ public class GroupDAO {
                 "WHERE g.name LIKE ? " +
                 "GROUP BY g.id, g.name, u.username, g.created_at " +
                 "ORDER BY g.created_at DESC";
-        try (Connection conn = getConnection();
+        try (Connection conn = getConnection(DBConnection.Pool.ANALYTICS);
                 PreparedStatement ps = conn.prepareStatement(sql)) {
             ps.setString(1, "%" + query + "%");
             try (ResultSet rs = ps.executeQuery()) {
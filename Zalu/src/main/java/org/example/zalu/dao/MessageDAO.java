@@ -2,15 +2,28 @@ package org.example.zalu.dao;
 
 import org.example.zalu.model.Message;
 import org.example.zalu.util.database.DBConnection;
+import org.example.zalu.util.database.SchemaCapability;
+import org.example.zalu.util.database.SchemaRegistry;
 import org.example.zalu.exception.database.DatabaseException;
 import org.example.zalu.exception.database.DatabaseConnectionException;
+import org.example.zalu.exception.message.MessageCommitUnknownException;
 import org.example.zalu.exception.message.MessageException;
 import org.example.zalu.exception.message.MessageSendFailedException;
+import org.example.zalu.server.storage.BlobStore;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
 
 public class MessageDAO {
 
@@ -23,29 +36,195 @@ public class MessageDAO {
         return DBConnection.getConnection();
     }
 
+    private Connection getConnection(DBConnection.Pool pool) throws SQLException {
+        return DBConnection.getConnection(pool);
+    }
+
+    /**
+     * Pool cho một trang lịch sử: trang cũ hơn một tin client đã có không phụ thuộc tin vừa gửi nên đọc
+     * từ pool đọc (có thể là replica); trang mới nhất và tin mới hơn anchor phải thấy tin vừa lưu.
+     */
+    private static DBConnection.Pool historyPool(int anchorId, boolean olderThan) {
+        return olderThan && anchorId < Integer.MAX_VALUE ? DBConnection.Pool.READ : DBConnection.Pool.WRITE;
+    }
+
     public boolean saveMessage(Message message)
             throws MessageSendFailedException, DatabaseException, DatabaseConnectionException {
-        // Kiểm tra xem có cột is_pinned không
-        boolean hasPinnedColumn = hasPinnedColumn();
-        String sql = hasPinnedColumn
-                ? "INSERT INTO messages (sender_id, receiver_id, content, file_data, file_name, created_at, is_read, group_id, "
-                        +
-                        "is_deleted, is_recalled, is_edited, edited_content, replied_to_message_id, replied_to_content, is_pinned) "
-                        +
-                        "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)"
-                : "INSERT INTO messages (sender_id, receiver_id, content, file_data, file_name, created_at, is_read, group_id, "
-                        +
-                        "is_deleted, is_recalled, is_edited, edited_content, replied_to_message_id, replied_to_content) "
-                        +
-                        "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+        return insertMessage(message, null, 0, null);
+    }
+
+    /**
+     * Lưu tin nhắn file với dữ liệu đọc dần từ file trên đĩa (upload theo chunk),
+     * không nạp cả file vào RAM.
+     *
+     * @param fileSource file chứa nội dung (file tạm của lượt upload)
+     * @param fileSize   số byte của file
+     * @param sha256     checksum đã kiểm tra khi upload (làm khóa blob), null để tự tính
+     */
+    public boolean saveFileMessage(Message message, Path fileSource, long fileSize, String sha256)
+            throws MessageSendFailedException, DatabaseException, DatabaseConnectionException {
+        return insertMessage(message, fileSource, fileSize, sha256);
+    }
+
+    /**
+     * Lưu nhiều tin nhắn văn bản (không có file) bằng một câu INSERT nhiều hàng trong một transaction,
+     * dùng cho group commit của MessagePersistPipeline. Id tự tăng được gán lại cho từng tin theo thứ tự
+     * hàng từ getGeneratedKeys; khi hàm trả về, mọi hàng đã được commit.
+     * <p>
+     * Với bảng conversations, seq của cả lô được cấp trong cùng transaction, mỗi cuộc trò chuyện một lần,
+     * theo thứ tự id cuộc trò chuyện tăng dần để hai lô chạy song song không khóa chéo nhau.
+     */
+    public void saveMessages(List<Message> messages)
+            throws MessageSendFailedException, DatabaseException, DatabaseConnectionException {
+        if (messages.isEmpty()) {
+            return;
+        }
+        Queries q = queries();
+        boolean hasPinnedColumn = q.pinned;
+        String sql = q.insertBatchPrefix + String.join(", ", Collections.nCopies(messages.size(), q.insertBatchRow));
+        // Lỗi trước COMMIT thì lô chắc chắn đã rollback; lỗi từ lúc gửi COMMIT thì không biết DB đã lưu chưa
+        boolean commitSent = false;
+        boolean committed = false;
+        try (Connection conn = getConnection()) {
+            int[] conversationIds = new int[messages.size()];
+            if (q.conversations) {
+                for (int i = 0; i < messages.size(); i++) {
+                    Message message = messages.get(i);
+                    conversationIds[i] = ConversationDAO.getOrCreate(conn, message.getSenderId(),
+                            message.getReceiverId(), message.getGroupId());
+                }
+            }
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            try (PreparedStatement pstmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+                int[] seqs = q.conversations ? allocateSeqs(conn, conversationIds) : null;
+                int index = 1;
+                for (int m = 0; m < messages.size(); m++) {
+                    Message message = messages.get(m);
+                    pstmt.setInt(index++, message.getSenderId());
+                    pstmt.setObject(index++, message.getGroupId() > 0 ? null : message.getReceiverId());
+                    pstmt.setString(index++, message.getContent());
+                    pstmt.setString(index++, message.getFileName());
+                    pstmt.setTimestamp(index++, Timestamp.valueOf(message.getCreatedAt()));
+                    pstmt.setBoolean(index++, message.getIsRead());
+                    pstmt.setObject(index++, message.getGroupId() > 0 ? message.getGroupId() : null);
+                    pstmt.setBoolean(index++, message.isDeleted());
+                    pstmt.setBoolean(index++, message.isRecalled());
+                    pstmt.setBoolean(index++, message.isEdited());
+                    pstmt.setString(index++, message.getEditedContent());
+                    if (message.getRepliedToMessageId() > 0) {
+                        pstmt.setInt(index++, message.getRepliedToMessageId());
+                    } else {
+                        pstmt.setNull(index++, Types.INTEGER);
+                    }
+                    pstmt.setString(index++, message.getRepliedToContent());
+                    if (hasPinnedColumn) {
+                        pstmt.setBoolean(index++, message.isPinned());
+                    }
+                    if (seqs != null) {
+                        pstmt.setInt(index++, conversationIds[m]);
+                        pstmt.setInt(index++, seqs[m]);
+                    }
+                }
+                if (pstmt.executeUpdate() != messages.size()) {
+                    throw new MessageSendFailedException("Không thể lưu tin nhắn vào database");
+                }
+                int i = 0;
+                try (ResultSet rs = pstmt.getGeneratedKeys()) {
+                    while (rs.next() && i < messages.size()) {
+                        messages.get(i++).setId(rs.getInt(1));
+                    }
+                }
+                if (i != messages.size()) {
+                    throw new MessageSendFailedException("Không lấy được id của tin nhắn vừa lưu");
+                }
+                commitSent = true;
+                conn.commit();
+                committed = true;
+            } catch (SQLException | MessageSendFailedException e) {
+                if (!commitSent) {
+                    conn.rollback();
+                }
+                throw e;
+            } finally {
+                conn.setAutoCommit(autoCommit);
+            }
+        } catch (MessageSendFailedException e) {
+            throw e;
+        } catch (SQLException e) {
+            if (committed) {
+                // Lô đã commit, id đã gán; lỗi chỉ xảy ra khi trả kết nối
+                System.err.println("MessageDAO: Lỗi khi trả kết nối sau khi lưu " + messages.size() + " message: "
+                        + e.getMessage());
+                return;
+            }
+            if (commitSent) {
+                throw new MessageCommitUnknownException(
+                        "Không rõ " + messages.size() + " tin nhắn đã được lưu hay chưa: " + e.getMessage(), e);
+            }
+            System.err.println("MessageDAO: Lỗi SQL khi lưu " + messages.size() + " message: " + e.getMessage());
+            // Wrap SQLException thành DatabaseConnectionException nếu là lỗi kết nối
+            if (e.getMessage() != null && (e.getMessage().toLowerCase().contains("connection") ||
+                    e.getMessage().toLowerCase().contains("timeout") ||
+                    e.getMessage().toLowerCase().contains("cannot establish"))) {
+                throw new DatabaseConnectionException("Không thể kết nối đến database", e);
+            }
+            throw new MessageSendFailedException("Lỗi khi gửi tin nhắn: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Cấp seq cho từng tin của một lô theo thứ tự trong lô; conversationIds[i] là cuộc trò chuyện của tin i.
+     */
+    private static int[] allocateSeqs(Connection conn, int[] conversationIds) throws SQLException {
+        Map<Integer, List<Integer>> byConversation = new TreeMap<>();
+        for (int i = 0; i < conversationIds.length; i++) {
+            byConversation.computeIfAbsent(conversationIds[i], k -> new ArrayList<>()).add(i);
+        }
+        int[] seqs = new int[conversationIds.length];
+        for (Map.Entry<Integer, List<Integer>> entry : byConversation.entrySet()) {
+            int seq = ConversationDAO.allocate(conn, entry.getKey(), entry.getValue().size());
+            for (int i : entry.getValue()) {
+                seqs[i] = seq++;
+            }
+        }
+        return seqs;
+    }
+
+    private boolean insertMessage(Message message, Path fileSource, long fileSize, String sha256)
+            throws MessageSendFailedException, DatabaseException, DatabaseConnectionException {
+        // Có cột is_pinned / file_ref hay không đã biết từ schema lúc khởi động
+        Queries q = queries();
+        boolean hasPinnedColumn = q.pinned;
+        boolean blobStoreEnabled = q.blobStore;
+        String sql = q.insertMessage;
         try (Connection conn = getConnection();
                 PreparedStatement pstmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
 
+            int conversationId = q.conversations ? ConversationDAO.getOrCreate(conn, message.getSenderId(),
+                    message.getReceiverId(), message.getGroupId()) : 0;
             pstmt.setInt(1, message.getSenderId());
             pstmt.setObject(2, message.getGroupId() > 0 ? null : message.getReceiverId());
             pstmt.setString(3, message.getContent());
 
-            if (message.getFileData() != null && message.getFileData().length > 0) {
+            boolean hasBytes = message.getFileData() != null && message.getFileData().length > 0;
+            String fileRef = null;
+            long storedSize = 0;
+            InputStream fileStream = null;
+            if (blobStoreEnabled && (fileSource != null || hasBytes)) {
+                // Nội dung nằm trong blob store, hàng messages chỉ giữ khóa và dung lượng
+                fileRef = fileSource != null ? BlobStore.getInstance().put(fileSource, sha256)
+                        : BlobStore.getInstance().put(message.getFileData());
+                storedSize = fileSource != null ? fileSize : message.getFileData().length;
+                pstmt.setNull(4, Types.BLOB);
+                System.out.println("MessageDAO: Lưu file vào blob store - ref: " + fileRef + ", size: " + storedSize
+                        + " bytes, fileName: " + message.getFileName());
+            } else if (fileSource != null) {
+                fileStream = Files.newInputStream(fileSource);
+                pstmt.setBinaryStream(4, fileStream, fileSize);
+                System.out.println("MessageDAO: Lưu file từ " + fileSource.getFileName() + " - size: " + fileSize
+                        + " bytes, fileName: " + message.getFileName());
+            } else if (hasBytes) {
                 pstmt.setBytes(4, message.getFileData());
                 System.out.println("MessageDAO: Lưu file data - size: " + message.getFileData().length
                         + " bytes, fileName: " + message.getFileName());
@@ -67,11 +246,43 @@ public class MessageDAO {
                 pstmt.setNull(13, Types.INTEGER);
             }
             pstmt.setString(14, message.getRepliedToContent());
+            int index = 15;
             if (hasPinnedColumn) {
-                pstmt.setBoolean(15, message.isPinned());
+                pstmt.setBoolean(index++, message.isPinned());
+            }
+            if (blobStoreEnabled) {
+                pstmt.setString(index++, fileRef);
+                if (fileRef != null) {
+                    pstmt.setLong(index++, storedSize);
+                } else {
+                    pstmt.setNull(index++, Types.BIGINT);
+                }
             }
 
-            int rows = pstmt.executeUpdate();
+            int rows;
+            boolean autoCommit = conn.getAutoCommit();
+            try {
+                if (q.conversations) {
+                    // Cấp seq ngay trước INSERT: hàng conversations chỉ bị khóa trong lúc ghi một hàng
+                    conn.setAutoCommit(false);
+                    pstmt.setInt(index++, conversationId);
+                    pstmt.setInt(index, ConversationDAO.allocate(conn, conversationId, 1));
+                }
+                rows = pstmt.executeUpdate();
+                if (q.conversations) {
+                    conn.commit();
+                }
+            } catch (SQLException e) {
+                if (q.conversations) {
+                    conn.rollback();
+                }
+                throw e;
+            } finally {
+                if (fileStream != null) {
+                    fileStream.close();
+                }
+                conn.setAutoCommit(autoCommit);
+            }
             if (rows > 0) {
                 try (ResultSet rs = pstmt.getGeneratedKeys()) {
                     if (rs.next()) {
@@ -85,6 +296,8 @@ public class MessageDAO {
             }
         } catch (MessageSendFailedException e) {
             throw e;
+        } catch (IOException e) {
+            throw new MessageSendFailedException("Không đọc được file để lưu: " + e.getMessage(), e);
         } catch (SQLException e) {
             System.err.println("MessageDAO: Lỗi SQL khi lưu message: " + e.getMessage());
             // Wrap SQLException thành DatabaseConnectionException nếu là lỗi kết nối
@@ -99,82 +312,18 @@ public class MessageDAO {
 
     public List<Message> getMessagesBetween(int user1, int user2)
             throws MessageException, DatabaseException, DatabaseConnectionException {
-        List<Message> messages = new ArrayList<>();
-        boolean hasPinnedColumn = hasPinnedColumn();
-        // Load file_data for images and voice messages to display immediately
-        String sql;
+        // Chỉ lấy metadata file (tên, dung lượng, blob), không kéo file_data qua JDBC
+        Queries q = queries();
         try (Connection conn = getConnection()) {
-            hasPinnedColumn = hasPinnedColumn(conn);
-            sql = hasPinnedColumn
-                    ? "SELECT id, sender_id, receiver_id, content, file_data, file_name, created_at, is_read, group_id, "
-                            +
-                            "is_deleted, is_recalled, is_edited, edited_content, replied_to_message_id, replied_to_content, is_pinned "
-                            +
-                            "FROM messages " +
-                            "WHERE ((sender_id = ? AND receiver_id = ?) OR (sender_id = ? AND receiver_id = ?)) " +
-                            "AND (group_id = 0 OR group_id IS NULL) ORDER BY is_pinned DESC, created_at ASC"
-                    : "SELECT id, sender_id, receiver_id, content, file_data, file_name, created_at, is_read, group_id, "
-                            +
-                            "is_deleted, is_recalled, is_edited, edited_content, replied_to_message_id, replied_to_content "
-                            +
-                            "FROM messages " +
-                            "WHERE ((sender_id = ? AND receiver_id = ?) OR (sender_id = ? AND receiver_id = ?)) " +
-                            "AND (group_id = 0 OR group_id IS NULL) ORDER BY created_at ASC";
-        } catch (SQLException e) {
-            // Fallback to basic query
-            sql = "SELECT id, sender_id, receiver_id, content, file_data, file_name, created_at, is_read, group_id, " +
-                    "is_deleted, is_recalled, is_edited, edited_content, replied_to_message_id, replied_to_content " +
-                    "FROM messages " +
-                    "WHERE ((sender_id = ? AND receiver_id = ?) OR (sender_id = ? AND receiver_id = ?)) " +
-                    "AND (group_id = 0 OR group_id IS NULL) ORDER BY created_at ASC";
-            hasPinnedColumn = false;
-        }
-
-        try (Connection conn = getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setInt(1, user1);
-            pstmt.setInt(2, user2);
-            pstmt.setInt(3, user2);
-            pstmt.setInt(4, user1);
-            // Re-check hasPinnedColumn with this connection
-            boolean actuallyHasPinned = hasPinnedColumn(conn);
-
-            try (ResultSet rs = pstmt.executeQuery()) {
-                while (rs.next()) {
-                    byte[] fileData = rs.getBytes("file_data");
-                    String fileName = rs.getString("file_name");
-                    Message m = new Message(
-                            rs.getInt("id"),
-                            rs.getInt("sender_id"),
-                            rs.getInt("receiver_id"),
-                            rs.getString("content"),
-                            fileData,
-                            fileName,
-                            rs.getBoolean("is_read"),
-                            rs.getTimestamp("created_at").toLocalDateTime(),
-                            rs.getObject("group_id") != null ? rs.getInt("group_id") : 0);
-                    m.setDeleted(rs.getBoolean("is_deleted"));
-                    m.setRecalled(rs.getBoolean("is_recalled"));
-                    m.setEdited(rs.getBoolean("is_edited"));
-                    m.setEditedContent(rs.getString("edited_content"));
-                    int repliedToId = rs.getInt("replied_to_message_id");
-                    if (!rs.wasNull()) {
-                        m.setRepliedToMessageId(repliedToId);
-                    }
-                    m.setRepliedToContent(rs.getString("replied_to_content"));
-                    if (actuallyHasPinned) {
-                        try {
-                            m.setPinned(rs.getBoolean("is_pinned"));
-                        } catch (SQLException e) {
-                            // Column doesn't exist, ignore
-                            m.setPinned(false);
-                        }
-                    }
-                    if (fileName != null && fileData != null) {
-                        System.out.println("MessageDAO: Load message từ DB - ID: " + m.getId() + ", fileName: "
-                                + fileName + ", fileData size: " + fileData.length);
-                    }
-                    messages.add(m);
-                }
+            if (q.conversations) {
+                return readConversation(conn, q, ConversationDAO.find(conn, user1, user2, 0));
+            }
+            try (PreparedStatement pstmt = conn.prepareStatement(q.selectBetween)) {
+                pstmt.setInt(1, user1);
+                pstmt.setInt(2, user2);
+                pstmt.setInt(3, user2);
+                pstmt.setInt(4, user1);
+                return readHistoryPage(pstmt, false);
             }
         } catch (SQLException e) {
             // Wrap SQLException thành DatabaseConnectionException nếu là lỗi kết nối
@@ -185,7 +334,6 @@ public class MessageDAO {
             }
             throw new MessageException("Lỗi khi lấy tin nhắn: " + e.getMessage(), e);
         }
-        return messages;
     }
 
     public List<Message> getAllMessagesForUser(int userId)
@@ -394,69 +542,45 @@ public class MessageDAO {
         }
     }
 
-    public List<Message> getMessagesForGroup(int groupId)
-            throws MessageException, DatabaseException, DatabaseConnectionException {
-        List<Message> messages = new ArrayList<>();
-        boolean hasPinnedColumn = false;
-        // Load file_data for images and voice messages to display immediately
-        String sql;
-        try (Connection conn = getConnection()) {
-            hasPinnedColumn = hasPinnedColumn(conn);
-            sql = hasPinnedColumn
-                    ? "SELECT id, sender_id, receiver_id, content, file_data, file_name, created_at, is_read, group_id, "
-                            +
-                            "is_deleted, is_recalled, is_edited, edited_content, replied_to_message_id, replied_to_content, is_pinned "
-                            +
-                            "FROM messages WHERE group_id = ? ORDER BY is_pinned DESC, created_at ASC"
-                    : "SELECT id, sender_id, receiver_id, content, file_data, file_name, created_at, is_read, group_id, "
-                            +
-                            "is_deleted, is_recalled, is_edited, edited_content, replied_to_message_id, replied_to_content "
-                            +
-                            "FROM messages WHERE group_id = ? ORDER BY created_at ASC";
-        } catch (SQLException e) {
-            sql = "SELECT id, sender_id, receiver_id, content, file_data, file_name, created_at, is_read, group_id, " +
-                    "is_deleted, is_recalled, is_edited, edited_content, replied_to_message_id, replied_to_content " +
-                    "FROM messages WHERE group_id = ? ORDER BY created_at ASC";
-            hasPinnedColumn = false;
-        }
-
+    /**
+     * Số tin chưa đọc của user theo chatId (id người gửi với chat 1-1, -groupId với chat nhóm) bằng một
+     * truy vấn GROUP BY, thay cho một lần COUNT(*) mỗi cuộc trò chuyện. Chat đã đọc hết không có trong map.
+     */
+    public Map<Integer, Integer> getUnreadCounts(int userId) throws DatabaseException, DatabaseConnectionException {
+        String sql = "SELECT CASE WHEN group_id IS NULL OR group_id = 0 THEN sender_id ELSE -group_id END AS chat_id, "
+                + "COUNT(*) AS unread FROM messages WHERE receiver_id = ? AND is_read = FALSE "
+                + "AND NOT COALESCE(is_deleted, FALSE) AND NOT COALESCE(is_recalled, FALSE) GROUP BY chat_id";
+        Map<Integer, Integer> counts = new HashMap<>();
         try (Connection conn = getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setInt(1, groupId);
-            boolean actuallyHasPinned = hasPinnedColumn(conn);
+            pstmt.setInt(1, userId);
             try (ResultSet rs = pstmt.executeQuery()) {
                 while (rs.next()) {
-                    byte[] fileData = rs.getBytes("file_data");
-                    String fileName = rs.getString("file_name");
-                    Message m = new Message(
-                            rs.getInt("id"),
-                            rs.getInt("sender_id"),
-                            rs.getInt("receiver_id"),
-                            rs.getString("content"),
-                            fileData,
-                            fileName,
-                            rs.getBoolean("is_read"),
-                            rs.getTimestamp("created_at").toLocalDateTime(),
-                            groupId);
-                    m.setDeleted(rs.getBoolean("is_deleted"));
-                    m.setRecalled(rs.getBoolean("is_recalled"));
-                    m.setEdited(rs.getBoolean("is_edited"));
-                    m.setEditedContent(rs.getString("edited_content"));
-                    int repliedToId = rs.getInt("replied_to_message_id");
-                    if (!rs.wasNull()) {
-                        m.setRepliedToMessageId(repliedToId);
-                    }
-                    m.setRepliedToContent(rs.getString("replied_to_content"));
-                    if (actuallyHasPinned) {
-                        try {
-                            m.setPinned(rs.getBoolean("is_pinned"));
-                        } catch (SQLException e) {
-                            // Column doesn't exist, ignore
-                            m.setPinned(false);
-                        }
-                    }
-                    messages.add(m);
+                    counts.put(rs.getInt("chat_id"), rs.getInt("unread"));
                 }
             }
+        } catch (SQLException e) {
+            if (e.getMessage() != null && (e.getMessage().toLowerCase().contains("connection") ||
+                    e.getMessage().toLowerCase().contains("timeout") ||
+                    e.getMessage().toLowerCase().contains("cannot establish"))) {
+                throw new DatabaseConnectionException("Không thể kết nối đến database", e);
+            }
+            throw new DatabaseException("Lỗi khi lấy số tin nhắn chưa đọc: " + e.getMessage(), e);
+        }
+        return counts;
+    }
+
+    public List<Message> getMessagesForGroup(int groupId)
+            throws MessageException, DatabaseException, DatabaseConnectionException {
+        // Chỉ lấy metadata file (tên, dung lượng, blob), không kéo file_data qua JDBC
+        Queries q = queries();
+        try (Connection conn = getConnection()) {
+            if (q.conversations) {
+                return readConversation(conn, q, ConversationDAO.find(conn, 0, 0, groupId));
+            }
+            try (PreparedStatement pstmt = conn.prepareStatement(q.selectGroup)) {
+                pstmt.setInt(1, groupId);
+                return readHistoryPage(pstmt, false);
+            }
         } catch (SQLException e) {
             // Wrap SQLException thành DatabaseConnectionException nếu là lỗi kết nối
             if (e.getMessage() != null && (e.getMessage().toLowerCase().contains("connection") ||
@@ -466,65 +590,482 @@ public class MessageDAO {
             }
             throw new MessageException("Lỗi khi lấy tin nhắn nhóm: " + e.getMessage(), e);
         }
-        return messages;
     }
 
     // Nếu bạn có thêm method khác (updateMessage, getMessageById, v.v.) thì cứ thêm
     // vào, mình để sẵn cấu trúc
 
+    /**
+     * Một trang lịch sử chat 1-1, phân trang theo id (keyset), sắp xếp tăng dần theo id.
+     * <p>
+     * Mỗi chiều (A gửi B, B gửi A) là một lần quét khoảng trên index (sender_id, receiver_id, id) dừng ở
+     * LIMIT; hai nhánh gộp lại chỉ còn tối đa 2 * limit hàng cần sắp xếp. Khi DB đã có conversations,
+     * trang là một lần quét dải (conversation_id, seq) duy nhất.
+     *
+     * @param olderThan true: lấy các tin có id &lt; anchorId (mới nhất trước), false: id &gt; anchorId
+     */
+    public List<Message> getMessagePageBetween(int user1, int user2, int anchorId, boolean olderThan, int limit)
+            throws MessageException, DatabaseException, DatabaseConnectionException {
+        String range = olderThan ? "id < ? ORDER BY id DESC" : "id > ? ORDER BY id ASC";
+        String branch = "(SELECT " + historyColumns() + " FROM messages WHERE sender_id = ? AND receiver_id = ? "
+                + "AND (group_id = 0 OR group_id IS NULL) AND " + range + " LIMIT ?)";
+        String sql = branch + " UNION " + branch + (olderThan ? " ORDER BY id DESC" : " ORDER BY id ASC") + " LIMIT ?";
+        Queries q = queries();
+        try (Connection conn = getConnection(historyPool(anchorId, olderThan))) {
+            if (q.conversations) {
+                return readConversationPage(conn, q, ConversationDAO.find(conn, user1, user2, 0),
+                        anchorId, olderThan, limit);
+            }
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                pstmt.setInt(1, user1);
+                pstmt.setInt(2, user2);
+                pstmt.setInt(3, anchorId);
+                pstmt.setInt(4, limit);
+                pstmt.setInt(5, user2);
+                pstmt.setInt(6, user1);
+                pstmt.setInt(7, anchorId);
+                pstmt.setInt(8, limit);
+                pstmt.setInt(9, limit);
+                return readHistoryPage(pstmt, olderThan);
+            }
+        } catch (SQLException e) {
+            if (e.getMessage() != null && (e.getMessage().toLowerCase().contains("connection") ||
+                    e.getMessage().toLowerCase().contains("timeout") ||
+                    e.getMessage().toLowerCase().contains("cannot establish"))) {
+                throw new DatabaseConnectionException("Không thể kết nối đến database", e);
+            }
+            throw new MessageException("Lỗi khi lấy trang tin nhắn: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Một trang lịch sử chat nhóm, phân trang theo id trên index (group_id, id), sắp xếp tăng dần theo id.
+     * Khi DB đã có conversations, trang được quét trên (conversation_id, seq).
+     *
+     * @param olderThan true: lấy các tin có id &lt; anchorId (mới nhất trước), false: id &gt; anchorId
+     */
+    public List<Message> getGroupMessagePage(int groupId, int anchorId, boolean olderThan, int limit)
+            throws MessageException, DatabaseException, DatabaseConnectionException {
+        String sql = "SELECT " + historyColumns() + " FROM messages WHERE group_id = ? AND "
+                + (olderThan ? "id < ? ORDER BY id DESC" : "id > ? ORDER BY id ASC") + " LIMIT ?";
+        Queries q = queries();
+        try (Connection conn = getConnection(historyPool(anchorId, olderThan))) {
+            if (q.conversations) {
+                return readConversationPage(conn, q, ConversationDAO.find(conn, 0, 0, groupId),
+                        anchorId, olderThan, limit);
+            }
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                pstmt.setInt(1, groupId);
+                pstmt.setInt(2, anchorId);
+                pstmt.setInt(3, limit);
+                return readHistoryPage(pstmt, olderThan);
+            }
+        } catch (SQLException e) {
+            if (e.getMessage() != null && (e.getMessage().toLowerCase().contains("connection") ||
+                    e.getMessage().toLowerCase().contains("timeout") ||
+                    e.getMessage().toLowerCase().contains("cannot establish"))) {
+                throw new DatabaseConnectionException("Không thể kết nối đến database", e);
+            }
+            throw new MessageException("Lỗi khi lấy trang tin nhắn nhóm: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Các tin nhắn mới hơn sinceId của user (chat 1-1 và các nhóm user đang tham gia), dùng cho
+     * đồng bộ delta khi đăng nhập. Chỉ metadata file, sắp xếp tăng dần theo id.
+     * <p>
+     * Mỗi nhánh (user gửi, user nhận, tin nhóm) quét ngược một khoảng index từ tin mới nhất và dừng ở
+     * LIMIT, nên lấy {@code limit + 1} hàng là biết được có bị cắt bớt hay không.
+     */
+    public List<Message> getMessagesSince(int userId, int sinceId, int limit)
+            throws MessageException, DatabaseException, DatabaseConnectionException {
+        String tail = "id > ? ORDER BY id DESC LIMIT ?)";
+        String sql = "(SELECT " + historyColumns() + " FROM messages WHERE sender_id = ? AND " + tail
+                + " UNION (SELECT " + historyColumns() + " FROM messages WHERE receiver_id = ? AND " + tail
+                + " UNION (SELECT " + historyColumns() + " FROM messages WHERE group_id IN "
+                + "(SELECT group_id FROM group_members WHERE user_id = ?) AND " + tail
+                + " ORDER BY id DESC LIMIT ?";
+        try (Connection conn = getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            int i = 1;
+            for (int branch = 0; branch < 3; branch++) {
+                pstmt.setInt(i++, userId);
+                pstmt.setInt(i++, sinceId);
+                pstmt.setInt(i++, limit);
+            }
+            pstmt.setInt(i, limit);
+            return readHistoryPage(pstmt, true);
+        } catch (SQLException e) {
+            if (e.getMessage() != null && (e.getMessage().toLowerCase().contains("connection") ||
+                    e.getMessage().toLowerCase().contains("timeout") ||
+                    e.getMessage().toLowerCase().contains("cannot establish"))) {
+                throw new DatabaseConnectionException("Không thể kết nối đến database", e);
+            }
+            throw new MessageException("Lỗi khi lấy tin nhắn mới cho user: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Các tin nhắn có id &lt;= maxId của user đã bị xóa/thu hồi/sửa sau thời điểm changedSince
+     * (tombstone cho cache của client), theo thứ tự thay đổi. Cần cột changed_at
+     * ({@link #isChangeTrackingEnabled()}).
+     */
+    public List<Message> getChangedMessages(int userId, int maxId, Timestamp changedSince, int limit)
+            throws MessageException, DatabaseException, DatabaseConnectionException {
+        String sql = "SELECT " + historyColumns() + " FROM messages WHERE changed_at > ? AND id <= ? "
+                + "AND (sender_id = ? OR receiver_id = ? OR group_id IN "
+                + "(SELECT group_id FROM group_members WHERE user_id = ?)) ORDER BY changed_at LIMIT ?";
+        try (Connection conn = getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setTimestamp(1, changedSince);
+            pstmt.setInt(2, maxId);
+            pstmt.setInt(3, userId);
+            pstmt.setInt(4, userId);
+            pstmt.setInt(5, userId);
+            pstmt.setInt(6, limit);
+            return readHistoryPage(pstmt, false);
+        } catch (SQLException e) {
+            if (e.getMessage() != null && (e.getMessage().toLowerCase().contains("connection") ||
+                    e.getMessage().toLowerCase().contains("timeout") ||
+                    e.getMessage().toLowerCase().contains("cannot establish"))) {
+                throw new DatabaseConnectionException("Không thể kết nối đến database", e);
+            }
+            throw new MessageException("Lỗi khi lấy tin nhắn đã thay đổi: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Giờ hiện tại của DB (cùng đồng hồ với changed_at), làm mốc cho lần đồng bộ sau.
+     */
+    public Timestamp getDatabaseTime() throws DatabaseException, DatabaseConnectionException {
+        try (Connection conn = getConnection();
+                PreparedStatement pstmt = conn.prepareStatement("SELECT CURRENT_TIMESTAMP(3)");
+                ResultSet rs = pstmt.executeQuery()) {
+            rs.next();
+            return rs.getTimestamp(1);
+        } catch (SQLException e) {
+            if (e.getMessage() != null && (e.getMessage().toLowerCase().contains("connection") ||
+                    e.getMessage().toLowerCase().contains("timeout") ||
+                    e.getMessage().toLowerCase().contains("cannot establish"))) {
+                throw new DatabaseConnectionException("Không thể kết nối đến database", e);
+            }
+            throw new DatabaseException("Lỗi khi đọc giờ database: " + e.getMessage(), e);
+        }
+    }
+
+    private String historyColumns() {
+        return queries().historyColumns;
+    }
+
+    /** Toàn bộ tin của một cuộc trò chuyện theo seq; conversationId 0 (chưa có tin nào) trả về rỗng. */
+    private List<Message> readConversation(Connection conn, Queries q, int conversationId) throws SQLException {
+        if (conversationId == 0) {
+            return new ArrayList<>();
+        }
+        try (PreparedStatement pstmt = conn.prepareStatement(q.selectConversation)) {
+            pstmt.setInt(1, conversationId);
+            return readHistoryPage(pstmt, false);
+        }
+    }
+
+    /**
+     * Một trang của cuộc trò chuyện theo seq. Client vẫn phân trang bằng id tin nhắn, nên anchorId được
+     * đổi thành mốc seq trước: seq của chính tin đó, hoặc (tin đã bị xóa khỏi DB) seq lớn nhất của các tin
+     * có id nhỏ hơn. Seq cấp theo thứ tự commit nên thứ tự seq trùng với thứ tự id trong một cuộc trò chuyện.
+     */
+    private List<Message> readConversationPage(Connection conn, Queries q, int conversationId, int anchorId,
+            boolean olderThan, int limit) throws SQLException {
+        if (conversationId == 0) {
+            return new ArrayList<>();
+        }
+        int bound;
+        if (anchorId == Integer.MAX_VALUE) {
+            bound = Integer.MAX_VALUE;
+        } else if (anchorId <= 0) {
+            bound = 0;
+        } else {
+            bound = seqOf(conn, conversationId, anchorId);
+            if (bound < 0) {
+                bound = -bound - 1;
+                if (olderThan) {
+                    bound++;
+                }
+            }
+        }
+        try (PreparedStatement pstmt = conn.prepareStatement(olderThan ? q.selectOlder : q.selectNewer)) {
+            pstmt.setInt(1, conversationId);
+            pstmt.setInt(2, bound);
+            pstmt.setInt(3, limit);
+            return readHistoryPage(pstmt, olderThan);
+        }
+    }
+
+    /**
+     * Seq của tin messageId trong cuộc trò chuyện; không có thì trả về -(S + 1) với S là seq lớn nhất của
+     * các tin có id nhỏ hơn (0 nếu không có).
+     */
+    private static int seqOf(Connection conn, int conversationId, int messageId) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "SELECT seq FROM messages WHERE id = ? AND conversation_id = ?")) {
+            pstmt.setInt(1, messageId);
+            pstmt.setInt(2, conversationId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getInt(1);
+                }
+            }
+        }
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "SELECT COALESCE(MAX(seq), 0) FROM messages WHERE conversation_id = ? AND id < ?")) {
+            pstmt.setInt(1, conversationId);
+            pstmt.setInt(2, messageId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                rs.next();
+                return -rs.getInt(1) - 1;
+            }
+        }
+    }
+
+    private List<Message> readHistoryPage(PreparedStatement pstmt, boolean descending) throws SQLException {
+        boolean hasPinned = queries().pinned;
+        List<Message> messages = new ArrayList<>();
+        try (ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                Message m = new Message(
+                        rs.getInt("id"),
+                        rs.getInt("sender_id"),
+                        rs.getInt("receiver_id"),
+                        rs.getString("content"),
+                        null, // Chỉ metadata, client tải nội dung bằng GET_FILE
+                        rs.getString("file_name"),
+                        rs.getBoolean("is_read"),
+                        rs.getTimestamp("created_at").toLocalDateTime(),
+                        rs.getObject("group_id") != null ? rs.getInt("group_id") : 0);
+                readFileMeta(rs, m);
+                m.setDeleted(rs.getBoolean("is_deleted"));
+                m.setRecalled(rs.getBoolean("is_recalled"));
+                m.setEdited(rs.getBoolean("is_edited"));
+                m.setEditedContent(rs.getString("edited_content"));
+                int repliedToId = rs.getInt("replied_to_message_id");
+                if (!rs.wasNull()) {
+                    m.setRepliedToMessageId(repliedToId);
+                }
+                m.setRepliedToContent(rs.getString("replied_to_content"));
+                if (hasPinned) {
+                    m.setPinned(rs.getBoolean("is_pinned"));
+                }
+                messages.add(m);
+            }
+        }
+        if (descending) {
+            Collections.reverse(messages);
+        }
+        return messages;
+    }
+
     /**
      * Lấy message theo ID
      */
     public Message getMessageById(int messageId)
             throws MessageException, DatabaseException, DatabaseConnectionException {
-        boolean hasPinnedColumn = hasPinnedColumn();
-        String sql = hasPinnedColumn
-                ? "SELECT id, sender_id, receiver_id, content, file_data, file_name, created_at, is_read, group_id, " +
-                        "is_deleted, is_recalled, is_edited, edited_content, replied_to_message_id, replied_to_content, is_pinned "
-                        +
-                        "FROM messages WHERE id = ?"
-                : "SELECT id, sender_id, receiver_id, content, file_data, file_name, created_at, is_read, group_id, " +
-                        "is_deleted, is_recalled, is_edited, edited_content, replied_to_message_id, replied_to_content "
-                        +
-                        "FROM messages WHERE id = ?";
+        try (Connection conn = getConnection(); PreparedStatement pstmt = conn.prepareStatement(queries().selectById)) {
+            pstmt.setInt(1, messageId);
+            List<Message> found = readHistoryPage(pstmt, false);
+            return found.isEmpty() ? null : found.get(0);
+        } catch (SQLException e) {
+            if (e.getMessage() != null && (e.getMessage().toLowerCase().contains("connection") ||
+                    e.getMessage().toLowerCase().contains("timeout") ||
+                    e.getMessage().toLowerCase().contains("cannot establish"))) {
+                throw new DatabaseConnectionException("Không thể kết nối đến database", e);
+            }
+            throw new MessageException("Lỗi khi lấy tin nhắn: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Lấy nhiều message theo ID (kết quả của chỉ mục tìm kiếm), giữ nguyên thứ tự của {@code messageIds}.
+     * ID không còn trong DB bị bỏ qua.
+     */
+    public List<Message> getMessagesByIds(List<Integer> messageIds)
+            throws MessageException, DatabaseException, DatabaseConnectionException {
+        if (messageIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+        String sql = "SELECT " + historyColumns() + " FROM messages WHERE id IN ("
+                + String.join(",", Collections.nCopies(messageIds.size(), "?")) + ")";
+        try (Connection conn = getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            for (int i = 0; i < messageIds.size(); i++) {
+                pstmt.setInt(i + 1, messageIds.get(i));
+            }
+            Map<Integer, Message> byId = new HashMap<>();
+            for (Message m : readHistoryPage(pstmt, false)) {
+                byId.put(m.getId(), m);
+            }
+            List<Message> ordered = new ArrayList<>(byId.size());
+            for (Integer id : messageIds) {
+                Message m = byId.get(id);
+                if (m != null) {
+                    ordered.add(m);
+                }
+            }
+            return ordered;
+        } catch (SQLException e) {
+            if (e.getMessage() != null && (e.getMessage().toLowerCase().contains("connection") ||
+                    e.getMessage().toLowerCase().contains("timeout") ||
+                    e.getMessage().toLowerCase().contains("cannot establish"))) {
+                throw new DatabaseConnectionException("Không thể kết nối đến database", e);
+            }
+            throw new MessageException("Lỗi khi lấy tin nhắn: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Lấy tối đa {@code limit} tin nhắn có id lớn hơn {@code afterId}, chỉ các cột cần để lập chỉ mục
+     * tìm kiếm (không có nội dung file).
+     */
+    public List<Message> getMessagesAfter(int afterId, int limit)
+            throws MessageException, DatabaseException, DatabaseConnectionException {
+        String sql = "SELECT " + INDEX_COLUMNS + " FROM messages WHERE id > ? ORDER BY id LIMIT ?";
+        try (Connection conn = getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setInt(1, afterId);
+            pstmt.setInt(2, limit);
+            return readIndexRows(pstmt);
+        } catch (SQLException e) {
+            if (e.getMessage() != null && (e.getMessage().toLowerCase().contains("connection") ||
+                    e.getMessage().toLowerCase().contains("timeout") ||
+                    e.getMessage().toLowerCase().contains("cannot establish"))) {
+                throw new DatabaseConnectionException("Không thể kết nối đến database", e);
+            }
+            throw new MessageException("Lỗi khi đọc tin nhắn để lập chỉ mục: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Như {@link #getMessagesAfter(int, int)} nhưng chỉ các tin bị sửa/xóa/thu hồi sau {@code changedSince}
+     * (null: mọi tin đã từng thay đổi), theo id. Cần cột changed_at ({@link #isChangeTrackingEnabled()}).
+     */
+    public List<Message> getChangedMessagesAfter(Timestamp changedSince, int afterId, int limit)
+            throws MessageException, DatabaseException, DatabaseConnectionException {
+        String sql = "SELECT " + INDEX_COLUMNS + " FROM messages WHERE "
+                + (changedSince != null ? "changed_at > ?" : "changed_at IS NOT NULL")
+                + " AND id > ? ORDER BY id LIMIT ?";
+        try (Connection conn = getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            int i = 1;
+            if (changedSince != null) {
+                pstmt.setTimestamp(i++, changedSince);
+            }
+            pstmt.setInt(i++, afterId);
+            pstmt.setInt(i, limit);
+            return readIndexRows(pstmt);
+        } catch (SQLException e) {
+            if (e.getMessage() != null && (e.getMessage().toLowerCase().contains("connection") ||
+                    e.getMessage().toLowerCase().contains("timeout") ||
+                    e.getMessage().toLowerCase().contains("cannot establish"))) {
+                throw new DatabaseConnectionException("Không thể kết nối đến database", e);
+            }
+            throw new MessageException("Lỗi khi đọc tin nhắn đã thay đổi để lập chỉ mục: " + e.getMessage(), e);
+        }
+    }
+
+    private static final String INDEX_COLUMNS =
+            "id, sender_id, receiver_id, group_id, content, file_name, is_deleted, is_recalled";
+
+    private static List<Message> readIndexRows(PreparedStatement pstmt) throws SQLException {
+        List<Message> messages = new ArrayList<>();
+        try (ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                String content = rs.getString("content");
+                Message m = new Message(
+                        rs.getInt("id"),
+                        rs.getInt("sender_id"),
+                        rs.getInt("receiver_id"),
+                        content != null && !content.isBlank() ? content : null,
+                        null,
+                        rs.getString("file_name"),
+                        false,
+                        null,
+                        rs.getObject("group_id") != null ? rs.getInt("group_id") : 0);
+                m.setDeleted(rs.getBoolean("is_deleted"));
+                m.setRecalled(rs.getBoolean("is_recalled"));
+                messages.add(m);
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * Thông tin file của tin nhắn (tên, dung lượng, người gửi/nhận) mà không tải file_data.
+     *
+     * @return null nếu tin nhắn không tồn tại hoặc không có file
+     */
+    public FileInfo getFileInfo(int messageId)
+            throws MessageException, DatabaseException, DatabaseConnectionException {
+        boolean blobStoreEnabled = isBlobStoreEnabled();
+        String sql = blobStoreEnabled
+                ? "SELECT id, sender_id, receiver_id, group_id, file_name, file_ref, "
+                        + "COALESCE(file_size, OCTET_LENGTH(file_data)) AS file_size FROM messages "
+                        + "WHERE id = ? AND (file_ref IS NOT NULL OR file_data IS NOT NULL)"
+                : "SELECT id, sender_id, receiver_id, group_id, file_name, OCTET_LENGTH(file_data) AS file_size "
+                        + "FROM messages WHERE id = ? AND file_data IS NOT NULL";
         try (Connection conn = getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
             pstmt.setInt(1, messageId);
             try (ResultSet rs = pstmt.executeQuery()) {
                 if (rs.next()) {
-                    byte[] fileData = rs.getBytes("file_data");
-                    String fileName = rs.getString("file_name");
-                    Message m = new Message(
-                            rs.getInt("id"),
-                            rs.getInt("sender_id"),
-                            rs.getInt("receiver_id"),
-                            rs.getString("content"),
-                            fileData,
-                            fileName,
-                            rs.getBoolean("is_read"),
-                            rs.getTimestamp("created_at").toLocalDateTime(),
-                            rs.getObject("group_id") != null ? rs.getInt("group_id") : 0);
-                    m.setDeleted(rs.getBoolean("is_deleted"));
-                    m.setRecalled(rs.getBoolean("is_recalled"));
-                    m.setEdited(rs.getBoolean("is_edited"));
-                    m.setEditedContent(rs.getString("edited_content"));
-                    int repliedToId = rs.getInt("replied_to_message_id");
-                    if (!rs.wasNull()) {
-                        m.setRepliedToMessageId(repliedToId);
-                    }
-                    m.setRepliedToContent(rs.getString("replied_to_content"));
-                    if (hasPinnedColumn) {
-                        m.setPinned(rs.getBoolean("is_pinned"));
+                    FileInfo info = new FileInfo();
+                    info.messageId = rs.getInt("id");
+                    info.senderId = rs.getInt("sender_id");
+                    info.receiverId = rs.getInt("receiver_id");
+                    info.groupId = rs.getObject("group_id") != null ? rs.getInt("group_id") : 0;
+                    info.fileName = rs.getString("file_name");
+                    info.fileSize = rs.getLong("file_size");
+                    info.fileRef = blobStoreEnabled ? rs.getString("file_ref") : null;
+                    return info;
+                }
+            }
+        } catch (SQLException e) {
+            if (e.getMessage() != null && (e.getMessage().toLowerCase().contains("connection") ||
+                    e.getMessage().toLowerCase().contains("timeout") ||
+                    e.getMessage().toLowerCase().contains("cannot establish"))) {
+                throw new DatabaseConnectionException("Không thể kết nối đến database", e);
+            }
+            throw new MessageException("Lỗi khi lấy thông tin file: " + e.getMessage(), e);
+        }
+        return null;
+    }
+
+    /**
+     * Đọc một đoạn file_data của tin nhắn (offset tính từ 0), dùng cho download theo chunk.
+     *
+     * @return mảng rỗng nếu offset vượt quá dung lượng file, null nếu không có file
+     */
+    public byte[] readFileRange(int messageId, long offset, int length)
+            throws MessageException, DatabaseException, DatabaseConnectionException {
+        boolean blobStoreEnabled = isBlobStoreEnabled();
+        String sql = blobStoreEnabled
+                ? "SELECT SUBSTRING(file_data, ?, ?), file_ref FROM messages "
+                        + "WHERE id = ? AND (file_ref IS NOT NULL OR file_data IS NOT NULL)"
+                : "SELECT SUBSTRING(file_data, ?, ?) FROM messages WHERE id = ? AND file_data IS NOT NULL";
+        try (Connection conn = getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setLong(1, offset + 1);
+            pstmt.setInt(2, length);
+            pstmt.setInt(3, messageId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    String fileRef = blobStoreEnabled ? rs.getString(2) : null;
+                    if (fileRef != null) {
+                        return BlobStore.getInstance().read(fileRef, offset, length);
                     }
-                    return m;
+                    byte[] data = rs.getBytes(1);
+                    return data != null ? data : new byte[0];
                 }
             }
+        } catch (IOException e) {
+            throw new MessageException("Lỗi khi đọc file từ blob store: " + e.getMessage(), e);
         } catch (SQLException e) {
             if (e.getMessage() != null && (e.getMessage().toLowerCase().contains("connection") ||
                     e.getMessage().toLowerCase().contains("timeout") ||
                     e.getMessage().toLowerCase().contains("cannot establish"))) {
                 throw new DatabaseConnectionException("Không thể kết nối đến database", e);
             }
-            throw new MessageException("Lỗi khi lấy tin nhắn: " + e.getMessage(), e);
+            throw new MessageException("Lỗi khi đọc file: " + e.getMessage(), e);
         }
         return null;
     }
@@ -533,7 +1074,7 @@ public class MessageDAO {
      * Xóa tin nhắn cho mình (is_deleted = true)
      */
     public boolean deleteMessage(int messageId, int userId) throws DatabaseException, DatabaseConnectionException {
-        String sql = "UPDATE messages SET is_deleted = TRUE WHERE id = ? AND sender_id = ?";
+        String sql = "UPDATE messages SET is_deleted = TRUE" + changeMark() + " WHERE id = ? AND sender_id = ?";
         try (Connection conn = getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
             pstmt.setInt(1, messageId);
             pstmt.setInt(2, userId);
@@ -552,7 +1093,8 @@ public class MessageDAO {
      * Thu hồi tin nhắn (xóa cho cả hai: is_recalled = true)
      */
     public boolean recallMessage(int messageId, int userId) throws DatabaseException, DatabaseConnectionException {
-        String sql = "UPDATE messages SET is_recalled = TRUE, content = ? WHERE id = ? AND sender_id = ?";
+        String sql = "UPDATE messages SET is_recalled = TRUE, content = ?" + changeMark()
+                + " WHERE id = ? AND sender_id = ?";
         try (Connection conn = getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
             pstmt.setString(1, "Tin nhắn đã được thu hồi");
             pstmt.setInt(2, messageId);
@@ -573,7 +1115,8 @@ public class MessageDAO {
      */
     public boolean editMessage(int messageId, int userId, String newContent)
             throws DatabaseException, DatabaseConnectionException {
-        String sql = "UPDATE messages SET content = ?, is_edited = TRUE, edited_content = ? WHERE id = ? AND sender_id = ?";
+        String sql = "UPDATE messages SET content = ?, is_edited = TRUE, edited_content = ?" + changeMark()
+                + " WHERE id = ? AND sender_id = ?";
         try (Connection conn = getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
             pstmt.setString(1, newContent);
             pstmt.setString(2, newContent);
@@ -591,62 +1134,233 @@ public class MessageDAO {
     }
 
     /**
-     * Kiểm tra xem bảng messages có cột is_pinned không
+     * Các câu SQL phụ thuộc schema, dựng một lần cho mỗi {@link SchemaRegistry.Snapshot} thay vì ghép lại
+     * (và dò DatabaseMetaData) ở mỗi lần gọi.
      */
-    private static volatile Boolean messagesHasPinnedColumn = null;
+    private static final class Queries {
+        final SchemaRegistry.Snapshot schema;
+        final boolean pinned;
+        final boolean blobStore;
+        final boolean changeTracking;
+        /** Tin nhắn có conversation_id/seq (V9__conversations.sql) */
+        final boolean conversations;
+        /** Cột metadata file: không lấy file_data, chỉ lấy dung lượng (và khóa blob nếu có) */
+        final String fileMetaColumns;
+        final String historyColumns;
+        /** Phần SET đánh dấu thời điểm thay đổi cho các UPDATE xóa/thu hồi/sửa */
+        final String changeMark;
+        final String insertMessage;
+        final String insertBatchPrefix;
+        final String insertBatchRow;
+        final String selectBetween;
+        final String selectGroup;
+        final String selectById;
+        final String selectConversation;
+        final String selectOlder;
+        final String selectNewer;
 
-    private boolean hasPinnedColumn() {
-        if (messagesHasPinnedColumn != null) {
-            return messagesHasPinnedColumn;
+        Queries(SchemaRegistry.Snapshot schema) {
+            this.schema = schema;
+            pinned = schema.has(SchemaCapability.MESSAGE_PINNED);
+            blobStore = schema.has(SchemaCapability.MESSAGE_FILE_REF);
+            changeTracking = schema.has(SchemaCapability.MESSAGE_CHANGED_AT);
+            conversations = schema.has(SchemaCapability.CONVERSATION_SEQ);
+            fileMetaColumns = blobStore
+                    ? "file_ref, COALESCE(file_size, OCTET_LENGTH(file_data)) AS file_size, "
+                    : "OCTET_LENGTH(file_data) AS file_size, ";
+            historyColumns = "id, sender_id, receiver_id, content, " + fileMetaColumns
+                    + "file_name, created_at, is_read, group_id, is_deleted, is_recalled, is_edited, edited_content, "
+                    + "replied_to_message_id, replied_to_content" + (pinned ? ", is_pinned" : "");
+            changeMark = changeTracking ? ", changed_at = CURRENT_TIMESTAMP(3)" : "";
+            insertMessage = "INSERT INTO messages (sender_id, receiver_id, content, file_data, file_name, created_at, "
+                    + "is_read, group_id, is_deleted, is_recalled, is_edited, edited_content, replied_to_message_id, "
+                    + "replied_to_content" + (pinned ? ", is_pinned" : "") + (blobStore ? ", file_ref, file_size" : "")
+                    + (conversations ? ", conversation_id, seq" : "")
+                    + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?" + (pinned ? ", ?" : "")
+                    + (blobStore ? ", ?, ?" : "") + (conversations ? ", ?, ?" : "") + ")";
+            insertBatchPrefix = "INSERT INTO messages (sender_id, receiver_id, content, file_name, created_at, is_read, "
+                    + "group_id, is_deleted, is_recalled, is_edited, edited_content, replied_to_message_id, "
+                    + "replied_to_content" + (pinned ? ", is_pinned" : "")
+                    + (conversations ? ", conversation_id, seq" : "") + ") VALUES ";
+            insertBatchRow = "(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?" + (pinned ? ", ?" : "")
+                    + (conversations ? ", ?, ?" : "") + ")";
+            String order = pinned ? " ORDER BY is_pinned DESC, created_at ASC" : " ORDER BY created_at ASC";
+            selectBetween = "SELECT " + historyColumns + " FROM messages "
+                    + "WHERE ((sender_id = ? AND receiver_id = ?) OR (sender_id = ? AND receiver_id = ?)) "
+                    + "AND (group_id = 0 OR group_id IS NULL)" + order;
+            selectGroup = "SELECT " + historyColumns + " FROM messages WHERE group_id = ?" + order;
+            selectById = "SELECT " + historyColumns + " FROM messages WHERE id = ?";
+            selectConversation = "SELECT " + historyColumns + " FROM messages WHERE conversation_id = ?"
+                    + (pinned ? " ORDER BY is_pinned DESC, seq ASC" : " ORDER BY seq ASC");
+            selectOlder = "SELECT " + historyColumns + " FROM messages WHERE conversation_id = ? AND seq < ? "
+                    + "ORDER BY seq DESC LIMIT ?";
+            selectNewer = "SELECT " + historyColumns + " FROM messages WHERE conversation_id = ? AND seq > ? "
+                    + "ORDER BY seq ASC LIMIT ?";
         }
-        synchronized (MessageDAO.class) {
-            if (messagesHasPinnedColumn == null) {
-                try (Connection conn = getConnection()) {
-                    messagesHasPinnedColumn = detectPinnedColumn(conn);
-                    System.out.println("MessageDAO: messages.is_pinned column available? " + messagesHasPinnedColumn);
-                } catch (SQLException e) {
-                    System.out.println(
-                            "MessageDAO: không thể kiểm tra cột is_pinned, mặc định = false. Lỗi: " + e.getMessage());
-                    messagesHasPinnedColumn = false;
-                }
-            }
+    }
+
+    private static volatile Queries queries;
+
+    private static Queries queries() {
+        SchemaRegistry.Snapshot schema = SchemaRegistry.current();
+        Queries q = queries;
+        if (q == null || q.schema != schema) {
+            q = new Queries(schema);
+            queries = q;
         }
-        return messagesHasPinnedColumn;
+        return q;
+    }
+
+    private boolean hasPinnedColumn() {
+        return queries().pinned;
+    }
+
+    /**
+     * Bảng messages đã có cột file_ref/file_size chưa (migration V4__blob_store.sql).
+     * Chưa có thì file vẫn lưu trong file_data như cũ.
+     */
+    public boolean isBlobStoreEnabled() {
+        return queries().blobStore;
+    }
+
+    /**
+     * Bảng messages đã có cột changed_at chưa (migration V6__delta_sync.sql).
+     * Chưa có thì không tính được tombstone, đồng bộ khi đăng nhập luôn gửi lại từ đầu.
+     */
+    public boolean isChangeTrackingEnabled() {
+        return queries().changeTracking;
+    }
+
+    private String changeMark() {
+        return queries().changeMark;
     }
 
-    private boolean hasPinnedColumn(Connection conn) {
-        if (messagesHasPinnedColumn != null) {
-            return messagesHasPinnedColumn;
+    /** Cột metadata file cho các truy vấn lịch sử/tìm kiếm/ghim. */
+    private String fileMetaColumns() {
+        return queries().fileMetaColumns;
+    }
+
+    /** Gán dung lượng, MIME và khóa blob cho tin nhắn có file (đọc từ {@link #fileMetaColumns()}). */
+    private void readFileMeta(ResultSet rs, Message m) throws SQLException {
+        long fileSize = rs.getLong("file_size");
+        String fileRef = isBlobStoreEnabled() ? rs.getString("file_ref") : null;
+        if (m.getFileName() == null || (fileSize <= 0 && fileRef == null)) {
+            return;
         }
-        synchronized (MessageDAO.class) {
-            if (messagesHasPinnedColumn == null) {
-                messagesHasPinnedColumn = detectPinnedColumn(conn);
-                System.out.println("MessageDAO: messages.is_pinned column available? " + messagesHasPinnedColumn);
-            }
+        m.setFile(true);
+        m.setFileSize(fileSize);
+        m.setFileRef(fileRef);
+        m.setMimeType(mimeTypeOf(m.getFileName()));
+    }
+
+    /** Đoán MIME type từ phần mở rộng tên file. */
+    public static String mimeTypeOf(String fileName) {
+        String lower = fileName.toLowerCase(Locale.ROOT);
+        int dot = lower.lastIndexOf('.');
+        String ext = dot >= 0 ? lower.substring(dot + 1) : "";
+        switch (ext) {
+            case "jpg":
+            case "jpeg":
+                return "image/jpeg";
+            case "png":
+            case "gif":
+            case "bmp":
+            case "webp":
+                return "image/" + ext;
+            case "wav":
+                return "audio/wav";
+            case "mp3":
+                return "audio/mpeg";
+            case "m4a":
+            case "aac":
+                return "audio/aac";
+            case "ogg":
+                return "audio/ogg";
+            case "mp4":
+            case "webm":
+                return "video/" + ext;
+            case "mov":
+                return "video/quicktime";
+            case "mkv":
+                return "video/x-matroska";
+            case "avi":
+                return "video/x-msvideo";
+            case "pdf":
+                return "application/pdf";
+            case "zip":
+                return "application/zip";
+            case "txt":
+                return "text/plain";
+            default:
+                String guessed = URLConnection.guessContentTypeFromName(lower);
+                return guessed != null ? guessed : "application/octet-stream";
         }
-        return messagesHasPinnedColumn;
     }
 
-    private boolean detectPinnedColumn(Connection conn) {
-        try {
-            DatabaseMetaData meta = conn.getMetaData();
-            String catalog = conn.getCatalog();
-            if (columnExists(meta, catalog, "messages", "is_pinned")) {
-                return true;
-            }
-            if (columnExists(meta, catalog, "MESSAGES", "IS_PINNED")) {
-                return true;
+    /**
+     * Id các tin nhắn còn giữ file trong cột file_data (chưa chuyển sang blob store).
+     */
+    public List<Integer> findInlineFileIds(int limit) throws DatabaseException, DatabaseConnectionException {
+        List<Integer> ids = new ArrayList<>();
+        String sql = "SELECT id FROM messages WHERE file_data IS NOT NULL AND file_ref IS NULL ORDER BY id LIMIT ?";
+        try (Connection conn = getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setInt(1, limit);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    ids.add(rs.getInt(1));
+                }
             }
         } catch (SQLException e) {
-            System.out.println("MessageDAO: không thể kiểm tra cột is_pinned: " + e.getMessage());
+            if (e.getMessage() != null && (e.getMessage().toLowerCase().contains("connection") ||
+                    e.getMessage().toLowerCase().contains("timeout") ||
+                    e.getMessage().toLowerCase().contains("cannot establish"))) {
+                throw new DatabaseConnectionException("Không thể kết nối đến database", e);
+            }
+            throw new DatabaseException("Lỗi khi tìm file cần chuyển: " + e.getMessage(), e);
         }
-        return false;
+        return ids;
     }
 
-    private boolean columnExists(DatabaseMetaData meta, String catalog, String tableName, String columnName)
-            throws SQLException {
-        try (ResultSet rs = meta.getColumns(catalog, null, tableName, columnName)) {
-            return rs.next();
+    /**
+     * Chuyển file_data của một tin nhắn sang blob store rồi xóa khỏi hàng.
+     * Chỉ cập nhật nếu hàng chưa được chuyển (an toàn khi chạy song song với server).
+     *
+     * @return số byte đã chuyển, 0 nếu hàng không còn file_data
+     */
+    public long moveFileToBlobStore(int messageId, BlobStore store)
+            throws DatabaseException, DatabaseConnectionException {
+        String select = "SELECT file_data FROM messages WHERE id = ? AND file_data IS NOT NULL AND file_ref IS NULL";
+        String update = "UPDATE messages SET file_ref = ?, file_size = ?, file_data = NULL "
+                + "WHERE id = ? AND file_ref IS NULL";
+        try (Connection conn = getConnection()) {
+            String fileRef;
+            try (PreparedStatement pstmt = conn.prepareStatement(select)) {
+                pstmt.setInt(1, messageId);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (!rs.next()) {
+                        return 0;
+                    }
+                    try (InputStream in = rs.getBinaryStream(1)) {
+                        fileRef = store.put(in);
+                    }
+                }
+            }
+            long size = store.size(fileRef);
+            try (PreparedStatement pstmt = conn.prepareStatement(update)) {
+                pstmt.setString(1, fileRef);
+                pstmt.setLong(2, size);
+                pstmt.setInt(3, messageId);
+                return pstmt.executeUpdate() > 0 ? size : 0;
+            }
+        } catch (IOException e) {
+            throw new DatabaseException("Không ghi được blob cho tin nhắn " + messageId + ": " + e.getMessage(), e);
+        } catch (SQLException e) {
+            if (e.getMessage() != null && (e.getMessage().toLowerCase().contains("connection") ||
+                    e.getMessage().toLowerCase().contains("timeout") ||
+                    e.getMessage().toLowerCase().contains("cannot establish"))) {
+                throw new DatabaseConnectionException("Không thể kết nối đến database", e);
+            }
+            throw new DatabaseException("Lỗi khi chuyển file sang blob store: " + e.getMessage(), e);
         }
     }
 
@@ -657,25 +1371,13 @@ public class MessageDAO {
             throws MessageException, DatabaseException, DatabaseConnectionException {
         List<Message> messages = new ArrayList<>();
         boolean hasPinnedColumn = hasPinnedColumn();
-        String sql = hasPinnedColumn
-                ? "SELECT id, sender_id, receiver_id, content, file_data, file_name, created_at, is_read, group_id, " +
-                        "is_deleted, is_recalled, is_edited, edited_content, replied_to_message_id, replied_to_content, is_pinned "
-                        +
-                        "FROM messages " +
-                        "WHERE ((sender_id = ? AND receiver_id = ?) OR (sender_id = ? AND receiver_id = ?)) " +
-                        "AND (group_id = 0 OR group_id IS NULL) " +
-                        "AND (content LIKE ? OR file_name LIKE ?) " +
-                        "ORDER BY created_at ASC"
-                : "SELECT id, sender_id, receiver_id, content, file_data, file_name, created_at, is_read, group_id, " +
-                        "is_deleted, is_recalled, is_edited, edited_content, replied_to_message_id, replied_to_content "
-                        +
-                        "FROM messages " +
-                        "WHERE ((sender_id = ? AND receiver_id = ?) OR (sender_id = ? AND receiver_id = ?)) " +
-                        "AND (group_id = 0 OR group_id IS NULL) " +
-                        "AND (content LIKE ? OR file_name LIKE ?) " +
-                        "ORDER BY created_at ASC";
+        String sql = "SELECT " + historyColumns() + " FROM messages "
+                + "WHERE ((sender_id = ? AND receiver_id = ?) OR (sender_id = ? AND receiver_id = ?)) "
+                + "AND (group_id = 0 OR group_id IS NULL) "
+                + "AND (content LIKE ? OR file_name LIKE ?) "
+                + "ORDER BY created_at ASC";
 
-        try (Connection conn = getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
+        try (Connection conn = getConnection(DBConnection.Pool.READ); PreparedStatement pstmt = conn.prepareStatement(sql)) {
             String searchPattern = "%" + searchText + "%";
             pstmt.setInt(1, user1);
             pstmt.setInt(2, user2);
@@ -686,18 +1388,18 @@ public class MessageDAO {
 
             try (ResultSet rs = pstmt.executeQuery()) {
                 while (rs.next()) {
-                    byte[] fileData = rs.getBytes("file_data");
                     String fileName = rs.getString("file_name");
                     Message m = new Message(
                             rs.getInt("id"),
                             rs.getInt("sender_id"),
                             rs.getInt("receiver_id"),
                             rs.getString("content"),
-                            fileData,
+                            null, // Chỉ metadata, client tải nội dung bằng GET_FILE
                             fileName,
                             rs.getBoolean("is_read"),
                             rs.getTimestamp("created_at").toLocalDateTime(),
                             rs.getObject("group_id") != null ? rs.getInt("group_id") : 0);
+                    readFileMeta(rs, m);
                     m.setDeleted(rs.getBoolean("is_deleted"));
                     m.setRecalled(rs.getBoolean("is_recalled"));
                     m.setEdited(rs.getBoolean("is_edited"));
@@ -731,23 +1433,11 @@ public class MessageDAO {
             throws MessageException, DatabaseException, DatabaseConnectionException {
         List<Message> messages = new ArrayList<>();
         boolean hasPinnedColumn = hasPinnedColumn();
-        String sql = hasPinnedColumn
-                ? "SELECT id, sender_id, receiver_id, content, file_data, file_name, created_at, is_read, group_id, " +
-                        "is_deleted, is_recalled, is_edited, edited_content, replied_to_message_id, replied_to_content, is_pinned "
-                        +
-                        "FROM messages " +
-                        "WHERE group_id = ? " +
-                        "AND (content LIKE ? OR file_name LIKE ?) " +
-                        "ORDER BY created_at ASC"
-                : "SELECT id, sender_id, receiver_id, content, file_data, file_name, created_at, is_read, group_id, " +
-                        "is_deleted, is_recalled, is_edited, edited_content, replied_to_message_id, replied_to_content "
-                        +
-                        "FROM messages " +
-                        "WHERE group_id = ? " +
-                        "AND (content LIKE ? OR file_name LIKE ?) " +
-                        "ORDER BY created_at ASC";
+        String sql = "SELECT " + historyColumns() + " FROM messages "
+                + "WHERE group_id = ? AND (content LIKE ? OR file_name LIKE ?) "
+                + "ORDER BY created_at ASC";
 
-        try (Connection conn = getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
+        try (Connection conn = getConnection(DBConnection.Pool.READ); PreparedStatement pstmt = conn.prepareStatement(sql)) {
             String searchPattern = "%" + searchText + "%";
             pstmt.setInt(1, groupId);
             pstmt.setString(2, searchPattern);
@@ -755,18 +1445,18 @@ public class MessageDAO {
 
             try (ResultSet rs = pstmt.executeQuery()) {
                 while (rs.next()) {
-                    byte[] fileData = rs.getBytes("file_data");
                     String fileName = rs.getString("file_name");
                     Message m = new Message(
                             rs.getInt("id"),
                             rs.getInt("sender_id"),
                             rs.getInt("receiver_id"),
                             rs.getString("content"),
-                            fileData,
+                            null, // Chỉ metadata, client tải nội dung bằng GET_FILE
                             fileName,
                             rs.getBoolean("is_read"),
                             rs.getTimestamp("created_at").toLocalDateTime(),
                             groupId);
+                    readFileMeta(rs, m);
                     m.setDeleted(rs.getBoolean("is_deleted"));
                     m.setRecalled(rs.getBoolean("is_recalled"));
                     m.setEdited(rs.getBoolean("is_edited"));
@@ -826,7 +1516,7 @@ public class MessageDAO {
         }
 
         List<Message> messages = new ArrayList<>();
-        String sql = "SELECT id, sender_id, receiver_id, content, file_data, file_name, created_at, is_read, group_id, "
+        String sql = "SELECT id, sender_id, receiver_id, content, " + fileMetaColumns() + "file_name, created_at, is_read, group_id, "
                 +
                 "is_deleted, is_recalled, is_edited, edited_content, replied_to_message_id, replied_to_content, is_pinned "
                 +
@@ -844,18 +1534,18 @@ public class MessageDAO {
 
             try (ResultSet rs = pstmt.executeQuery()) {
                 while (rs.next()) {
-                    byte[] fileData = rs.getBytes("file_data");
                     String fileName = rs.getString("file_name");
                     Message m = new Message(
                             rs.getInt("id"),
                             rs.getInt("sender_id"),
                             rs.getInt("receiver_id"),
                             rs.getString("content"),
-                            fileData,
+                            null, // Chỉ metadata, client tải nội dung bằng GET_FILE
                             fileName,
                             rs.getBoolean("is_read"),
                             rs.getTimestamp("created_at").toLocalDateTime(),
                             rs.getObject("group_id") != null ? rs.getInt("group_id") : 0);
+                    readFileMeta(rs, m);
                     m.setDeleted(rs.getBoolean("is_deleted"));
                     m.setRecalled(rs.getBoolean("is_recalled"));
                     m.setEdited(rs.getBoolean("is_edited"));
@@ -890,7 +1580,7 @@ public class MessageDAO {
         }
 
         List<Message> messages = new ArrayList<>();
-        String sql = "SELECT id, sender_id, receiver_id, content, file_data, file_name, created_at, is_read, group_id, "
+        String sql = "SELECT id, sender_id, receiver_id, content, " + fileMetaColumns() + "file_name, created_at, is_read, group_id, "
                 +
                 "is_deleted, is_recalled, is_edited, edited_content, replied_to_message_id, replied_to_content, is_pinned "
                 +
@@ -904,18 +1594,18 @@ public class MessageDAO {
 
             try (ResultSet rs = pstmt.executeQuery()) {
                 while (rs.next()) {
-                    byte[] fileData = rs.getBytes("file_data");
                     String fileName = rs.getString("file_name");
                     Message m = new Message(
                             rs.getInt("id"),
                             rs.getInt("sender_id"),
                             rs.getInt("receiver_id"),
                             rs.getString("content"),
-                            fileData,
+                            null, // Chỉ metadata, client tải nội dung bằng GET_FILE
                             fileName,
                             rs.getBoolean("is_read"),
                             rs.getTimestamp("created_at").toLocalDateTime(),
                             groupId);
+                    readFileMeta(rs, m);
                     m.setDeleted(rs.getBoolean("is_deleted"));
                     m.setRecalled(rs.getBoolean("is_recalled"));
                     m.setEdited(rs.getBoolean("is_edited"));
@@ -959,7 +1649,7 @@ public class MessageDAO {
                 "  AND is_deleted = FALSE AND is_recalled = FALSE " +
                 "GROUP BY DATE(created_at) " +
                 "ORDER BY msg_date ASC";
-        try (Connection conn = getConnection();
+        try (Connection conn = getConnection(DBConnection.Pool.ANALYTICS);
                 PreparedStatement ps = conn.prepareStatement(sql)) {
             ps.setInt(1, days);
             try (ResultSet rs = ps.executeQuery()) {
@@ -996,7 +1686,7 @@ public class MessageDAO {
                 "GROUP BY m.sender_id, u.username " +
                 "ORDER BY msg_count DESC " +
                 "LIMIT ?";
-        try (Connection conn = getConnection();
+        try (Connection conn = getConnection(DBConnection.Pool.ANALYTICS);
                 PreparedStatement ps = conn.prepareStatement(sql)) {
             ps.setInt(1, limit);
             try (ResultSet rs = ps.executeQuery()) {
@@ -1027,7 +1717,7 @@ public class MessageDAO {
     public long getMessageCountByUser(int userId)
             throws DatabaseException, DatabaseConnectionException {
         String sql = "SELECT COUNT(*) FROM messages WHERE sender_id = ? AND is_deleted = FALSE AND is_recalled = FALSE";
-        try (Connection conn = getConnection();
+        try (Connection conn = getConnection(DBConnection.Pool.ANALYTICS);
                 PreparedStatement ps = conn.prepareStatement(sql)) {
             ps.setInt(1, userId);
             try (ResultSet rs = ps.executeQuery()) {
@@ -1048,7 +1738,7 @@ public class MessageDAO {
     public long getFileCountByUser(int userId)
             throws DatabaseException, DatabaseConnectionException {
         String sql = "SELECT COUNT(*) FROM messages WHERE sender_id = ? AND file_name IS NOT NULL AND is_deleted = FALSE";
-        try (Connection conn = getConnection();
+        try (Connection conn = getConnection(DBConnection.Pool.ANALYTICS);
                 PreparedStatement ps = conn.prepareStatement(sql)) {
             ps.setInt(1, userId);
             try (ResultSet rs = ps.executeQuery()) {
@@ -1068,4 +1758,15 @@ public class MessageDAO {
         public String username;
         public long messageCount;
     }
+
+    public static class FileInfo {
+        public int messageId;
+        public int senderId;
+        public int receiverId;
+        public int groupId;
+        public String fileName;
+        public long fileSize;
+        /** Khóa blob trong {@link BlobStore}, null nếu file còn nằm trong cột file_data. */
+        public String fileRef;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,214 @@
+package org.example.zalu.dao;
+
+import org.example.zalu.exception.database.DatabaseConnectionException;
+import org.example.zalu.exception.database.DatabaseException;
+import org.example.zalu.util.database.DBConnection;
+import org.example.zalu.util.database.SchemaCapability;
+import org.example.zalu.util.database.SchemaRegistry;
+
+import java.sql.*;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Con trỏ đã đọc theo thành viên (bảng read_cursors, migration V8__read_cursors.sql).
+ * <p>
+ * Mỗi (user, chatId) chỉ có một hàng giữ id tin nhắn lớn nhất user đã đọc; chatId là id bạn bè với
+ * chat 1-1 và -groupId với chat nhóm. Đánh dấu đã đọc là upsert một hàng thay vì UPDATE is_read
+ * từng tin, tin chưa đọc là tin có id lớn hơn con trỏ, và "đã xem bởi N" của nhóm đọc thẳng các
+ * con trỏ của nhóm qua idx_read_cursors_chat.
+ */
+public class ReadCursorDAO {
+
+    public ReadCursorDAO() {
+        // Pool sẽ được lấy tự động từ DBConnection
+    }
+
+    private Connection getConnection() throws SQLException {
+        return DBConnection.getConnection();
+    }
+
+    /**
+     * DB đã có bảng read_cursors chưa (đọc từ schema lúc khởi động). Chưa có thì server dùng cột
+     * messages.is_read như cũ.
+     */
+    public boolean isAvailable() {
+        return SchemaRegistry.has(SchemaCapability.READ_CURSORS);
+    }
+
+    /**
+     * Đánh dấu user đã đọc tới tin mới nhất của cuộc trò chuyện. Tin mới nhất lấy theo index
+     * (conversation_id, seq) khi DB đã có conversations, nếu không thì (sender_id, receiver_id, id) hoặc
+     * (group_id, id); con trỏ không bao giờ lùi lại.
+     *
+     * @param chatId id bạn bè (chat 1-1) hoặc -groupId (chat nhóm)
+     * @return id tin nhắn con trỏ đang trỏ tới (0 nếu cuộc trò chuyện chưa có tin nào)
+     */
+    public int markRead(int userId, int chatId) throws DatabaseException, DatabaseConnectionException {
+        String latestSql = chatId < 0
+                ? "SELECT COALESCE(MAX(id), 0) FROM messages WHERE group_id = ?"
+                : "SELECT COALESCE(MAX(id), 0) FROM messages WHERE sender_id = ? AND receiver_id = ?";
+        String upsertSql = "INSERT INTO read_cursors (user_id, chat_id, last_read_message_id) VALUES (?, ?, ?) "
+                + "ON DUPLICATE KEY UPDATE last_read_message_id = GREATEST(last_read_message_id, VALUES(last_read_message_id))";
+        try (Connection conn = getConnection()) {
+            int latestId;
+            if (ConversationDAO.isEnabled()) {
+                latestId = latestInConversation(conn, chatId < 0
+                        ? ConversationDAO.find(conn, 0, 0, -chatId)
+                        : ConversationDAO.find(conn, userId, chatId, 0));
+            } else {
+                try (PreparedStatement pstmt = conn.prepareStatement(latestSql)) {
+                    if (chatId < 0) {
+                        pstmt.setInt(1, -chatId);
+                    } else {
+                        pstmt.setInt(1, chatId);
+                        pstmt.setInt(2, userId);
+                    }
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        latestId = rs.next() ? rs.getInt(1) : 0;
+                    }
+                }
+            }
+            try (PreparedStatement pstmt = conn.prepareStatement(upsertSql)) {
+                pstmt.setInt(1, userId);
+                pstmt.setInt(2, chatId);
+                pstmt.setInt(3, latestId);
+                pstmt.executeUpdate();
+            }
+            return latestId;
+        } catch (SQLException e) {
+            throw wrap(e, "Lỗi khi cập nhật con trỏ đã đọc");
+        }
+    }
+
+    /** Id tin có seq lớn nhất của cuộc trò chuyện: một lần nhảy index (conversation_id, seq). */
+    private static int latestInConversation(Connection conn, int conversationId) throws SQLException {
+        if (conversationId == 0) {
+            return 0;
+        }
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "SELECT id FROM messages WHERE conversation_id = ? ORDER BY seq DESC LIMIT 1")) {
+            pstmt.setInt(1, conversationId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        }
+    }
+
+    /**
+     * Id tin nhắn lớn nhất user đã đọc trong cuộc trò chuyện, 0 nếu chưa đọc tin nào.
+     */
+    public int getLastReadMessageId(int userId, int chatId) throws DatabaseException, DatabaseConnectionException {
+        String sql = "SELECT last_read_message_id FROM read_cursors WHERE user_id = ? AND chat_id = ?";
+        try (Connection conn = getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setInt(1, userId);
+            pstmt.setInt(2, chatId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        } catch (SQLException e) {
+            throw wrap(e, "Lỗi khi lấy con trỏ đã đọc");
+        }
+    }
+
+    /**
+     * Con trỏ của mọi người đã đọc một cuộc trò chuyện (userId -> id tin đã đọc), dùng cho
+     * "đã xem bởi N" của nhóm. Chỉ đọc idx_read_cursors_chat, không quét messages.
+     */
+    public Map<Integer, Integer> getReadCursors(int chatId) throws DatabaseException, DatabaseConnectionException {
+        String sql = "SELECT user_id, last_read_message_id FROM read_cursors WHERE chat_id = ? AND last_read_message_id > 0";
+        Map<Integer, Integer> cursors = new HashMap<>();
+        try (Connection conn = getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setInt(1, chatId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    cursors.put(rs.getInt("user_id"), rs.getInt("last_read_message_id"));
+                }
+            }
+        } catch (SQLException e) {
+            throw wrap(e, "Lỗi khi lấy con trỏ đã đọc của nhóm");
+        }
+        return cursors;
+    }
+
+    /**
+     * Số tin chưa đọc của user theo chatId, tính bằng số tin có id lớn hơn con trỏ.
+     * <p>
+     * Chat 1-1 chưa có con trỏ thì mọi tin nhận được đều chưa đọc. Nhóm chưa có con trỏ chỉ tính tin
+     * gửi sau khi user vào nhóm; tin của chính user không bao giờ là chưa đọc. Chat đã đọc hết không
+     * có trong map.
+     * <p>
+     * Khi DB đã có conversations, con trỏ được đổi thành seq của tin đã đọc và mỗi cuộc trò chuyện là
+     * một lần quét dải (conversation_id, seq) từ sau con trỏ.
+     */
+    public Map<Integer, Integer> getUnreadCounts(int userId) throws DatabaseException, DatabaseConnectionException {
+        String sql = ConversationDAO.isEnabled() ? UNREAD_BY_SEQ_SQL : UNREAD_BY_ID_SQL;
+        Map<Integer, Integer> counts = new HashMap<>();
+        try (Connection conn = getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            // Mọi tham số của hai câu đều là userId
+            long params = sql.chars().filter(c -> c == '?').count();
+            for (int i = 1; i <= params; i++) {
+                pstmt.setInt(i, userId);
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    counts.put(rs.getInt("chat_id"), rs.getInt("unread"));
+                }
+            }
+        } catch (SQLException e) {
+            throw wrap(e, "Lỗi khi lấy số tin nhắn chưa đọc");
+        }
+        return counts;
+    }
+
+    /** Tin đã xóa hoặc thu hồi không tính là chưa đọc. */
+    private static final String NOT_REMOVED = "AND NOT COALESCE(m.is_deleted, FALSE) "
+            + "AND NOT COALESCE(m.is_recalled, FALSE) ";
+
+    private static final String UNREAD_BY_ID_SQL = "SELECT m.sender_id AS chat_id, COUNT(*) AS unread FROM messages m "
+            + "LEFT JOIN read_cursors rc ON rc.user_id = m.receiver_id AND rc.chat_id = m.sender_id "
+            + "WHERE m.receiver_id = ? AND m.group_id IS NULL "
+            + "AND m.id > COALESCE(rc.last_read_message_id, 0) " + NOT_REMOVED
+            + "GROUP BY m.sender_id "
+            + "UNION ALL "
+            + "SELECT -gm.group_id AS chat_id, COUNT(*) AS unread FROM group_members gm "
+            + "LEFT JOIN read_cursors rc ON rc.user_id = gm.user_id AND rc.chat_id = -gm.group_id "
+            + "JOIN messages m ON m.group_id = gm.group_id AND m.id > COALESCE(rc.last_read_message_id, 0) "
+            + "AND m.sender_id <> gm.user_id AND (rc.user_id IS NOT NULL OR m.created_at >= gm.joined_at) "
+            + NOT_REMOVED + "WHERE gm.user_id = ? "
+            + "GROUP BY gm.group_id";
+
+    /**
+     * Như {@link #UNREAD_BY_ID_SQL} nhưng quét theo (conversation_id, seq): r là tin con trỏ đang trỏ tới.
+     * Điều kiện id giữ kết quả đúng khi tin đó không còn trong DB (r null).
+     */
+    private static final String UNREAD_BY_SEQ_SQL = "SELECT CASE WHEN c.user_low = ? THEN c.user_high ELSE c.user_low END "
+            + "AS chat_id, COUNT(*) AS unread FROM conversations c "
+            + "LEFT JOIN read_cursors rc ON rc.user_id = ? "
+            + "AND rc.chat_id = (CASE WHEN c.user_low = ? THEN c.user_high ELSE c.user_low END) "
+            + "LEFT JOIN messages r ON r.id = rc.last_read_message_id "
+            + "JOIN messages m ON m.conversation_id = c.id AND m.seq > COALESCE(r.seq, 0) "
+            + "AND m.id > COALESCE(rc.last_read_message_id, 0) AND m.sender_id <> ? " + NOT_REMOVED
+            + "WHERE c.user_low = ? OR c.user_high = ? "
+            + "GROUP BY c.id, c.user_low, c.user_high "
+            + "UNION ALL "
+            + "SELECT -gm.group_id AS chat_id, COUNT(*) AS unread FROM group_members gm "
+            + "JOIN conversations c ON c.group_id = gm.group_id "
+            + "LEFT JOIN read_cursors rc ON rc.user_id = gm.user_id AND rc.chat_id = -gm.group_id "
+            + "LEFT JOIN messages r ON r.id = rc.last_read_message_id "
+            + "JOIN messages m ON m.conversation_id = c.id AND m.seq > COALESCE(r.seq, 0) "
+            + "AND m.id > COALESCE(rc.last_read_message_id, 0) "
+            + "AND m.sender_id <> gm.user_id AND (rc.user_id IS NOT NULL OR m.created_at >= gm.joined_at) "
+            + NOT_REMOVED + "WHERE gm.user_id = ? "
+            + "GROUP BY gm.group_id";
+
+    private static DatabaseException wrap(SQLException e, String message) throws DatabaseConnectionException {
+        // Wrap SQLException thành DatabaseConnectionException nếu là lỗi kết nối
+        if (e.getMessage() != null && (e.getMessage().toLowerCase().contains("connection") ||
+                e.getMessage().toLowerCase().contains("timeout") ||
+                e.getMessage().toLowerCase().contains("cannot establish"))) {
+            throw new DatabaseConnectionException("Không thể kết nối đến database", e);
+        }
+        return new DatabaseException(message + ": " + e.getMessage(), e);
+    }
+}
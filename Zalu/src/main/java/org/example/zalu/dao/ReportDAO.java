@@ -1,10 +1,9 @@
 package org.example.zalu.dao;
 
-import com.zaxxer.hikari.HikariConfig;
-import com.zaxxer.hikari.HikariDataSource;
 import org.example.zalu.exception.database.DatabaseConnectionException;
 import org.example.zalu.exception.database.DatabaseException;
 import org.example.zalu.model.UserReport;
+import org.example.zalu.util.database.DBConnection;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
@@ -14,30 +13,12 @@ import java.util.ArrayList;
 import java.util.List;
 
 public class ReportDAO {
-    private static HikariDataSource dataSource;
-
-    static {
-        try {
-            HikariConfig config = new HikariConfig();
-            config.setJdbcUrl("jdbc:mysql://localhost:3306/laptrinhmang_db?useUnicode=true&characterEncoding=UTF-8&useSSL=false&allowPublicKeyRetrieval=true");
-            config.setUsername("root");
-            config.setPassword("");
-            config.setMaximumPoolSize(10);
-            config.setMinimumIdle(2);
-            config.setIdleTimeout(300000);
-            config.setConnectionTimeout(20000);
-            
-            dataSource = new HikariDataSource(config);
-        } catch (Exception e) {
-            System.err.println("Lỗi khởi tạo pool kết nối cho ReportDAO: " + e.getMessage());
-        }
+    private Connection getConnection() throws SQLException {
+        return DBConnection.getConnection();
     }
 
-    private Connection getConnection() throws SQLException {
-        if (dataSource == null) {
-            throw new SQLException("DataSource chưa được khởi tạo");
-        }
-        return dataSource.getConnection();
+    private Connection getConnection(DBConnection.Pool pool) throws SQLException {
+        return DBConnection.getConnection(pool);
     }
 
     public boolean createReport(UserReport report) throws DatabaseException, DatabaseConnectionException {
@@ -67,7 +48,7 @@ public class ReportDAO {
                      "JOIN users u1 ON r.reporter_id = u1.id " +
                      "JOIN users u2 ON r.reported_user_id = u2.id " +
                      "ORDER BY r.created_at DESC";
-        try (Connection conn = getConnection();
+        try (Connection conn = getConnection(DBConnection.Pool.ANALYTICS);
              PreparedStatement ps = conn.prepareStatement(sql);
              ResultSet rs = ps.executeQuery()) {
              
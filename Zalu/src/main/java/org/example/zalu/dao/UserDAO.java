@@ -7,15 +7,29 @@ import org.example.zalu.exception.database.DatabaseException;
 import org.example.zalu.exception.auth.UserNotFoundException;
 import org.example.zalu.exception.auth.InvalidCredentialsException;
 import org.example.zalu.exception.auth.RegistrationFailedException;
+import org.example.zalu.util.database.SchemaCapability;
+import org.example.zalu.util.database.SchemaRegistry;
 import org.mindrot.jbcrypt.BCrypt;
 
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.Map;
 
 public class UserDAO {
 
@@ -28,11 +42,44 @@ public class UserDAO {
         return DBConnection.getConnection();
     }
 
+    private Connection getConnection(DBConnection.Pool pool) throws SQLException {
+        return DBConnection.getConnection(pool);
+    }
+
+    /**
+     * DB đã có users.avatar_version và user_avatar_variants chưa (đọc từ schema lúc khởi động). Chưa có
+     * thì login/getUserById trả ảnh gốc và mọi lần lưu profile đều ghi lại avatar như cũ.
+     */
+    public static boolean hasAvatarVersions() {
+        return SchemaRegistry.has(SchemaCapability.AVATAR_VERSION);
+    }
+
+    /**
+     * Câu SELECT một user kèm avatar: ảnh {@link User#AVATAR_MEDIUM} đã dựng của phiên bản hiện tại,
+     * chưa dựng thì ảnh gốc. Các cột của user_avatar_variants không trùng tên cột nào của users.
+     */
+    private static String selectWithAvatar(String columns, String where) {
+        if (!hasAvatarVersions()) {
+            return "SELECT " + columns + ", avatar_data FROM users WHERE " + where;
+        }
+        return "SELECT " + columns + ", avatar_version, COALESCE(v.data, avatar_data) AS avatar_data FROM users u "
+                + "LEFT JOIN user_avatar_variants v ON v.user_id = u.id AND v.size = " + User.AVATAR_MEDIUM
+                + " AND v.version = u.avatar_version WHERE " + where;
+    }
+
+    private static void readAvatar(ResultSet rs, User user) throws SQLException {
+        user.setAvatarData(rs.getBytes("avatar_data"));
+        if (hasAvatarVersions()) {
+            user.setAvatarVersion(rs.getInt("avatar_version"));
+        }
+    }
+
     public boolean register(User user)
             throws RegistrationFailedException, DatabaseException, DatabaseConnectionException {
         String hashedPassword = BCrypt.hashpw(user.getPassword(), BCrypt.gensalt());
         String sql = "INSERT INTO users (username, full_name, password, email, phone, avatar_url, avatar_data, bio, birthdate, gender, status) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
-        try (Connection conn = getConnection(); PreparedStatement stmt = conn.prepareStatement(sql)) {
+        try (Connection conn = getConnection();
+                PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
             stmt.setString(1, user.getUsername());
             stmt.setString(2, user.getFullName());
             stmt.setString(3, hashedPassword);
@@ -49,6 +96,11 @@ public class UserDAO {
             if (!success) {
                 throw new RegistrationFailedException("Không thể tạo tài khoản");
             }
+            try (ResultSet keys = stmt.getGeneratedKeys()) {
+                if (keys.next()) {
+                    user.setId(keys.getInt(1));
+                }
+            }
             return success;
         } catch (java.sql.SQLIntegrityConstraintViolationException e) {
             throw new RegistrationFailedException("Tên đăng nhập, email hoặc số điện thoại đã tồn tại", e);
@@ -65,9 +117,9 @@ public class UserDAO {
 
     public User login(String username, String password)
             throws InvalidCredentialsException, UserNotFoundException, DatabaseException, DatabaseConnectionException {
-        String sql = "SELECT id, username, full_name, password, email, phone, avatar_url, avatar_data, bio, birthdate, gender, status, created_at "
-                +
-                "FROM users WHERE username = ?";
+        String sql = selectWithAvatar(
+                "id, username, full_name, password, email, phone, avatar_url, bio, birthdate, gender, status, created_at",
+                "username = ?");
         try (Connection conn = getConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
             ps.setString(1, username);
             try (ResultSet rs = ps.executeQuery()) {
@@ -90,7 +142,7 @@ public class UserDAO {
                     user.setCreatedAt(
                             rs.getTimestamp("created_at") != null ? rs.getTimestamp("created_at").toLocalDateTime()
                                     : null);
-                    user.setAvatarData(rs.getBytes("avatar_data"));
+                    readAvatar(rs, user);
                     return user;
                 } else {
                     throw new UserNotFoundException("Không tìm thấy người dùng với username: " + username);
@@ -110,7 +162,9 @@ public class UserDAO {
     }
 
     public User getUserById(int id) throws UserNotFoundException, DatabaseException, DatabaseConnectionException {
-        String sql = "SELECT id, username, full_name, email, phone, avatar_url, avatar_data, bio, birthdate, gender, status, created_at FROM users WHERE id = ?";
+        String sql = selectWithAvatar(
+                "id, username, full_name, email, phone, avatar_url, bio, birthdate, gender, status, created_at",
+                "id = ?");
         try (Connection conn = getConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
             ps.setInt(1, id);
             try (ResultSet rs = ps.executeQuery()) {
@@ -129,7 +183,7 @@ public class UserDAO {
                     user.setCreatedAt(
                             rs.getTimestamp("created_at") != null ? rs.getTimestamp("created_at").toLocalDateTime()
                                     : null);
-                    user.setAvatarData(rs.getBytes("avatar_data"));
+                    readAvatar(rs, user);
                     return user;
                 } else {
                     throw new UserNotFoundException("Không tìm thấy người dùng với ID: " + id);
@@ -148,9 +202,64 @@ public class UserDAO {
         }
     }
 
+    /**
+     * Lưu profile, avatar chỉ được thay khi {@link #isNewAvatar(User)}. Phiên bản sau khi lưu được ghi
+     * lại vào {@code user}.
+     */
     public boolean updateUser(User user) throws DatabaseException, DatabaseConnectionException {
+        return updateUser(user, isNewAvatar(user));
+    }
+
+    /**
+     * Ảnh trong {@code user} có phải ảnh mới chọn không. Chưa có phiên bản avatar trong DB thì luôn ghi
+     * lại như cũ. Có thì {@code avatarVersion > 0} nghĩa là client không chọn ảnh mới; với
+     * {@code avatarVersion = 0} (ảnh mới, hoặc client cũ không gửi phiên bản) ảnh rỗng hay trùng ảnh gốc
+     * / ảnh thu nhỏ server đã gửi lúc login đều coi là giữ nguyên avatar.
+     */
+    public boolean isNewAvatar(User user) throws DatabaseException, DatabaseConnectionException {
+        if (!hasAvatarVersions()) {
+            return true;
+        }
+        if (user.getAvatarVersion() > 0 || user.getAvatarData() == null || user.getAvatarData().length == 0) {
+            return false;
+        }
+        String sql = "SELECT u.avatar_hash, v.data FROM users u LEFT JOIN user_avatar_variants v "
+                + "ON v.user_id = u.id AND v.size = ? AND v.version = u.avatar_version WHERE u.id = ?";
+        try (Connection conn = getConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setInt(1, User.AVATAR_MEDIUM);
+            ps.setInt(2, user.getId());
+            try (ResultSet rs = ps.executeQuery()) {
+                return !rs.next() || !isSameAvatar(user.getAvatarData(), rs.getString(1), rs.getBytes(2));
+            }
+        } catch (SQLException e) {
+            if (isConnectionError(e))
+                throw new DatabaseConnectionException("Không thể kết nối đến database", e);
+            throw new DatabaseException("Lỗi khi kiểm tra avatar", e);
+        }
+    }
+
+    /** Ảnh client gửi lên có trùng ảnh gốc (so SHA-256) hoặc ảnh thu nhỏ đang lưu không. */
+    static boolean isSameAvatar(byte[] data, String originalHash, byte[] rendition) {
+        return Arrays.equals(data, rendition) || (originalHash != null && originalHash.equals(sha256(data)));
+    }
+
+    /**
+     * Lưu profile; {@code newAvatar = false} giữ nguyên avatar đang lưu (avatarData trong {@code user}
+     * bị bỏ qua). Phiên bản sau khi lưu được ghi lại vào {@code user}.
+     */
+    public boolean updateUser(User user, boolean newAvatar) throws DatabaseException, DatabaseConnectionException {
         boolean hasPassword = user.getPassword() != null && !user.getPassword().isBlank();
-        String sql = "UPDATE users SET username = ?, full_name = ?, email = ?, phone = ?, avatar_url = ?, avatar_data = ?, bio = ?, birthdate = ?, gender = ?, status = ?";
+        boolean versioned = hasAvatarVersions();
+        newAvatar = newAvatar || !versioned;
+        String sql = "UPDATE users SET username = ?, full_name = ?, email = ?, phone = ?, avatar_url = ?";
+        if (newAvatar) {
+            sql += ", avatar_data = ?";
+        }
+        if (newAvatar && versioned) {
+            // MySQL gán từ trái sang phải: avatar_version so với avatar_hash cũ
+            sql += ", avatar_version = IF(avatar_hash <=> ?, avatar_version, avatar_version + 1), avatar_hash = ?";
+        }
+        sql += ", bio = ?, birthdate = ?, gender = ?, status = ?";
         if (hasPassword) {
             sql += ", password = ?";
         }
@@ -162,7 +271,14 @@ public class UserDAO {
             stmt.setString(idx++, user.getEmail());
             stmt.setString(idx++, user.getPhone());
             stmt.setString(idx++, user.getAvatarUrlRaw());
-            stmt.setBytes(idx++, user.getAvatarData());
+            if (newAvatar) {
+                stmt.setBytes(idx++, user.getAvatarData());
+            }
+            if (newAvatar && versioned) {
+                String hash = sha256(user.getAvatarData());
+                stmt.setString(idx++, hash);
+                stmt.setString(idx++, hash);
+            }
             stmt.setString(idx++, user.getBio());
             Date sqlDate = (user.getBirthdate() != null) ? Date.valueOf(user.getBirthdate()) : null;
             stmt.setDate(idx++, sqlDate);
@@ -172,7 +288,20 @@ public class UserDAO {
                 stmt.setString(idx++, BCrypt.hashpw(user.getPassword(), BCrypt.gensalt()));
             }
             stmt.setInt(idx, user.getId());
-            return stmt.executeUpdate() > 0;
+            if (stmt.executeUpdate() == 0) {
+                return false;
+            }
+            if (versioned) {
+                try (PreparedStatement ps = conn.prepareStatement("SELECT avatar_version FROM users WHERE id = ?")) {
+                    ps.setInt(1, user.getId());
+                    try (ResultSet rs = ps.executeQuery()) {
+                        if (rs.next()) {
+                            user.setAvatarVersion(rs.getInt(1));
+                        }
+                    }
+                }
+            }
+            return true;
         } catch (SQLException e) {
             // Wrap SQLException thành DatabaseConnectionException nếu là lỗi kết nối
             if (e.getMessage() != null && (e.getMessage().toLowerCase().contains("connection") ||
@@ -201,18 +330,57 @@ public class UserDAO {
         }
     }
 
-    public List<User> searchUsers(String query) throws DatabaseException, DatabaseConnectionException {
+    /**
+     * Ghi trạng thái (status, last_seen_at) của nhiều user trong một batch UPDATE, dùng cho ghi sau
+     * của PresenceService.
+     *
+     * @param statusByUser userId -> "online"/"offline"
+     * @param lastSeenByUser userId -> thời điểm đổi trạng thái
+     */
+    public void updateStatusBatch(Map<Integer, String> statusByUser, Map<Integer, LocalDateTime> lastSeenByUser)
+            throws DatabaseException, DatabaseConnectionException {
+        if (statusByUser.isEmpty()) {
+            return;
+        }
+        String sql = "UPDATE users SET status = ?, last_seen_at = ? WHERE id = ?";
+        try (Connection conn = getConnection(); PreparedStatement stmt = conn.prepareStatement(sql)) {
+            for (Map.Entry<Integer, String> entry : statusByUser.entrySet()) {
+                LocalDateTime lastSeen = lastSeenByUser.getOrDefault(entry.getKey(), LocalDateTime.now());
+                stmt.setString(1, entry.getValue());
+                stmt.setTimestamp(2, Timestamp.valueOf(lastSeen));
+                stmt.setInt(3, entry.getKey());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        } catch (SQLException e) {
+            // Wrap SQLException thành DatabaseConnectionException nếu là lỗi kết nối
+            if (e.getMessage() != null && (e.getMessage().toLowerCase().contains("connection") ||
+                    e.getMessage().toLowerCase().contains("timeout") ||
+                    e.getMessage().toLowerCase().contains("cannot establish"))) {
+                throw new DatabaseConnectionException("Không thể kết nối đến database", e);
+            }
+            throw new DatabaseException("Lỗi khi cập nhật trạng thái người dùng", e);
+        }
+    }
+
+    /**
+     * Tìm user theo họ tên / số điện thoại / email, tối đa {@code limit} kết quả. Chỉ dùng khi danh bạ
+     * trong RAM (UserDirectory) chưa nạp xong.
+     */
+    public List<User> searchUsers(String query, int excludeUserId, int limit)
+            throws DatabaseException, DatabaseConnectionException {
         List<User> users = new ArrayList<>();
         // Removed avatar_data
         String sql = "SELECT id, username, full_name, email, phone, avatar_url, bio, birthdate, gender, status "
                 +
-                "FROM users WHERE (full_name LIKE ? OR phone LIKE ? OR email LIKE ?) AND id != ?";
-        try (Connection conn = getConnection(); PreparedStatement stmt = conn.prepareStatement(sql)) {
+                "FROM users WHERE (full_name LIKE ? OR phone LIKE ? OR email LIKE ?) AND id != ? LIMIT ?";
+        try (Connection conn = getConnection(DBConnection.Pool.READ); PreparedStatement stmt = conn.prepareStatement(sql)) {
             String pattern = "%" + query + "%";
             stmt.setString(1, pattern);
             stmt.setString(2, pattern);
             stmt.setString(3, pattern);
-            stmt.setInt(4, 0);
+            stmt.setInt(4, excludeUserId);
+            stmt.setInt(5, limit);
             try (ResultSet rs = stmt.executeQuery()) {
                 while (rs.next()) {
                     User user = new User(
@@ -241,6 +409,34 @@ public class UserDAO {
         return users;
     }
 
+    /**
+     * Các cột để lập danh bạ tìm kiếm (id, username, họ tên, email, số điện thoại) của tối đa {@code limit}
+     * user có id lớn hơn {@code afterId}, theo thứ tự id.
+     */
+    public List<User> getDirectoryEntries(int afterId, int limit)
+            throws DatabaseException, DatabaseConnectionException {
+        List<User> users = new ArrayList<>();
+        String sql = "SELECT id, username, full_name, email, phone FROM users WHERE id > ? ORDER BY id LIMIT ?";
+        try (Connection conn = getConnection(); PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, afterId);
+            stmt.setInt(2, limit);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    users.add(new User(rs.getInt("id"), rs.getString("username"), rs.getString("full_name"),
+                            rs.getString("email"), rs.getString("phone"), null, null, null, null, null));
+                }
+            }
+        } catch (SQLException e) {
+            if (e.getMessage() != null && (e.getMessage().toLowerCase().contains("connection") ||
+                    e.getMessage().toLowerCase().contains("timeout") ||
+                    e.getMessage().toLowerCase().contains("cannot establish"))) {
+                throw new DatabaseConnectionException("Không thể kết nối đến database", e);
+            }
+            throw new DatabaseException("Lỗi khi nạp danh bạ người dùng", e);
+        }
+        return users;
+    }
+
     public boolean isUserOnline(int userId) throws DatabaseException, DatabaseConnectionException {
         String sql = "SELECT status FROM users WHERE id = ?";
         try (Connection conn = getConnection(); PreparedStatement pstmt = conn.prepareStatement(sql)) {
@@ -323,12 +519,122 @@ public class UserDAO {
         return null;
     }
 
+    /**
+     * Phiên bản avatar hiện tại của các user (userId -> avatar_version). User không tồn tại không có
+     * trong map.
+     */
+    public Map<Integer, Integer> getAvatarVersions(Collection<Integer> ids)
+            throws DatabaseException, DatabaseConnectionException {
+        Map<Integer, Integer> versions = new HashMap<>();
+        if (ids == null || ids.isEmpty()) {
+            return versions;
+        }
+        String sql = "SELECT id, avatar_version FROM users WHERE id IN (" + placeholders(ids.size()) + ")";
+        try (Connection conn = getConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
+            int idx = 1;
+            for (int id : ids) {
+                ps.setInt(idx++, id);
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    versions.put(rs.getInt("id"), rs.getInt("avatar_version"));
+                }
+            }
+        } catch (SQLException e) {
+            if (isConnectionError(e))
+                throw new DatabaseConnectionException("Không thể kết nối đến database", e);
+            throw new DatabaseException("Lỗi khi lấy phiên bản avatar", e);
+        }
+        return versions;
+    }
+
+    /**
+     * Ảnh avatar đã dựng ở kích thước {@code size} cho các user (userId -> phiên bản cần lấy). Chỉ trả
+     * về ảnh dựng đúng phiên bản đó; user chưa có ảnh dựng không có trong map.
+     */
+    public Map<Integer, byte[]> getAvatarVariants(Map<Integer, Integer> versions, int size)
+            throws DatabaseException, DatabaseConnectionException {
+        Map<Integer, byte[]> variants = new HashMap<>();
+        if (versions == null || versions.isEmpty()) {
+            return variants;
+        }
+        String sql = "SELECT user_id, version, data FROM user_avatar_variants WHERE size = ? AND user_id IN ("
+                + placeholders(versions.size()) + ")";
+        try (Connection conn = getConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
+            int idx = 1;
+            ps.setInt(idx++, size);
+            for (int id : versions.keySet()) {
+                ps.setInt(idx++, id);
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    int userId = rs.getInt("user_id");
+                    if (rs.getInt("version") == versions.get(userId)) {
+                        variants.put(userId, rs.getBytes("data"));
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            if (isConnectionError(e))
+                throw new DatabaseConnectionException("Không thể kết nối đến database", e);
+            throw new DatabaseException("Lỗi khi tải avatar", e);
+        }
+        return variants;
+    }
+
+    /**
+     * Ảnh avatar gốc nếu avatar của user vẫn đang ở phiên bản {@code version}, null nếu không có avatar
+     * hoặc đã đổi sang phiên bản khác.
+     */
+    public byte[] getAvatarData(int userId, int version) throws DatabaseException, DatabaseConnectionException {
+        String sql = "SELECT avatar_data FROM users WHERE id = ? AND avatar_version = ?";
+        try (Connection conn = getConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setInt(1, userId);
+            ps.setInt(2, version);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getBytes("avatar_data") : null;
+            }
+        } catch (SQLException e) {
+            if (isConnectionError(e))
+                throw new DatabaseConnectionException("Không thể kết nối đến database", e);
+            throw new DatabaseException("Lỗi khi tải avatar", e);
+        }
+    }
+
+    /**
+     * Lưu ảnh đã dựng của một phiên bản avatar (size -> ảnh). Không ghi đè ảnh của phiên bản mới hơn
+     * khi hai lần dựng chạy chồng nhau.
+     */
+    public void saveAvatarVariants(int userId, int version, Map<Integer, byte[]> variants)
+            throws DatabaseException, DatabaseConnectionException {
+        if (variants.isEmpty()) {
+            return;
+        }
+        String sql = "INSERT INTO user_avatar_variants (user_id, size, version, data) VALUES (?, ?, ?, ?) "
+                + "ON DUPLICATE KEY UPDATE data = IF(VALUES(version) >= version, VALUES(data), data), "
+                + "version = GREATEST(version, VALUES(version))";
+        try (Connection conn = getConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
+            for (Map.Entry<Integer, byte[]> entry : variants.entrySet()) {
+                ps.setInt(1, userId);
+                ps.setInt(2, entry.getKey());
+                ps.setInt(3, version);
+                ps.setBytes(4, entry.getValue());
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        } catch (SQLException e) {
+            if (isConnectionError(e))
+                throw new DatabaseConnectionException("Không thể kết nối đến database", e);
+            throw new DatabaseException("Lỗi khi lưu avatar đã dựng", e);
+        }
+    }
+
     /**
      * Đếm tổng số user đã đăng ký trong hệ thống
      */
     public int getTotalUserCount() throws DatabaseException, DatabaseConnectionException {
         String sql = "SELECT COUNT(*) as total FROM users";
-        try (Connection conn = getConnection();
+        try (Connection conn = getConnection(DBConnection.Pool.ANALYTICS);
                 PreparedStatement ps = conn.prepareStatement(sql);
                 ResultSet rs = ps.executeQuery()) {
             if (rs.next()) {
@@ -356,7 +662,7 @@ public class UserDAO {
         List<User> users = new ArrayList<>();
         String sql = "SELECT id, username, full_name, email, phone, avatar_url, bio, birthdate, gender, status, is_locked, created_at "
                 + "FROM users ORDER BY created_at DESC";
-        try (Connection conn = getConnection();
+        try (Connection conn = getConnection(DBConnection.Pool.ANALYTICS);
                 PreparedStatement ps = conn.prepareStatement(sql);
                 ResultSet rs = ps.executeQuery()) {
             while (rs.next()) {
@@ -378,7 +684,7 @@ public class UserDAO {
         List<User> users = new ArrayList<>();
         String sql = "SELECT id, username, full_name, email, phone, avatar_url, bio, birthdate, gender, status, is_locked, created_at "
                 + "FROM users WHERE username LIKE ? OR full_name LIKE ? OR email LIKE ? ORDER BY created_at DESC";
-        try (Connection conn = getConnection();
+        try (Connection conn = getConnection(DBConnection.Pool.ANALYTICS);
                 PreparedStatement ps = conn.prepareStatement(sql)) {
             String pattern = "%" + query + "%";
             ps.setString(1, pattern);
@@ -459,7 +765,7 @@ public class UserDAO {
      */
     public int getNewUserCountLastNDays(int days) throws DatabaseException, DatabaseConnectionException {
         String sql = "SELECT COUNT(*) FROM users WHERE created_at >= DATE_SUB(NOW(), INTERVAL ? DAY)";
-        try (Connection conn = getConnection();
+        try (Connection conn = getConnection(DBConnection.Pool.ANALYTICS);
                 PreparedStatement ps = conn.prepareStatement(sql)) {
             ps.setInt(1, days);
             try (ResultSet rs = ps.executeQuery()) {
@@ -498,6 +804,21 @@ public class UserDAO {
         return u;
     }
 
+    private static String placeholders(int count) {
+        return String.join(", ", Collections.nCopies(count, "?"));
+    }
+
+    private static String sha256(byte[] data) {
+        if (data == null || data.length == 0) {
+            return null;
+        }
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     private boolean isConnectionError(SQLException e) {
         String msg = e.getMessage();
         return msg != null && (msg.toLowerCase().contains("connection") ||
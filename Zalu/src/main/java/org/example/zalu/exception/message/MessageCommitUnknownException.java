@@ -0,0 +1,11 @@
+package org.example.zalu.exception.message;
+
+/**
+ * Exception được ném khi lỗi xảy ra lúc COMMIT lô tin nhắn: không biết DB đã lưu hay chưa, nên không
+ * được ghi lại các tin đó (có thể bị lưu hai lần)
+ */
+public class MessageCommitUnknownException extends MessageSendFailedException {
+    public MessageCommitUnknownException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -11,6 +11,9 @@ public class Message implements Serializable {
     private String content;
     private byte[] fileData;
     private String fileName;
+    private long fileSize = 0; // Dung lượng file, có cả khi lịch sử không kèm fileData
+    private String mimeType = null; // MIME đoán từ phần mở rộng tên file
+    private String fileRef = null; // Khóa blob (SHA-256) trên server, null nếu file còn trong DB
     private boolean isRead;
     private LocalDateTime createdAt;
     private int groupId = 0; // Mới: 0 cho 1-1, >0 cho group chat
@@ -135,6 +138,37 @@ public class Message implements Serializable {
         this.fileName = fileName;
     }
 
+    /**
+     * Dung lượng file đính kèm. Tin nhắn lấy từ lịch sử/tìm kiếm/ghim chỉ mang metadata (fileData = null),
+     * client tải nội dung bằng GET_FILE khi cần.
+     */
+    public long getFileSize() {
+        if (fileSize > 0) {
+            return fileSize;
+        }
+        return fileData != null ? fileData.length : 0;
+    }
+
+    public void setFileSize(long fileSize) {
+        this.fileSize = fileSize;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    public void setMimeType(String mimeType) {
+        this.mimeType = mimeType;
+    }
+
+    public String getFileRef() {
+        return fileRef;
+    }
+
+    public void setFileRef(String fileRef) {
+        this.fileRef = fileRef;
+    }
+
     public boolean getIsRead() {
         return isRead;
     }
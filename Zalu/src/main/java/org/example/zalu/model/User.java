@@ -6,6 +6,12 @@ import java.time.LocalDateTime;
 
 public class User implements Serializable {
     private static final long serialVersionUID = 1L;
+    /** Kích thước avatar server dựng sẵn: danh sách chat/bạn bè */
+    public static final int AVATAR_SMALL = 48;
+    /** Kích thước avatar server dựng sẵn: trang cá nhân, thông tin thành viên */
+    public static final int AVATAR_MEDIUM = 100;
+    /** Ảnh gốc */
+    public static final int AVATAR_FULL = 0;
     private int id;
     private String username;
     private String fullName;
@@ -14,6 +20,8 @@ public class User implements Serializable {
     private String phone;
     private String avatarUrl; // Giữ nhưng không dùng binary
     private byte[] avatarData;
+    // Phiên bản avatar trên server (0 = chưa biết, hoặc ảnh mới chọn chưa lưu)
+    private int avatarVersion;
     private String bio;
     private LocalDate birthdate;
     private String status;
@@ -162,6 +170,14 @@ public class User implements Serializable {
         this.avatarData = avatarData;
     }
 
+    public int getAvatarVersion() {
+        return avatarVersion;
+    }
+
+    public void setAvatarVersion(int avatarVersion) {
+        this.avatarVersion = avatarVersion;
+    }
+
     public boolean hasAvatarData() {
         return avatarData != null && avatarData.length > 0;
     }
@@ -0,0 +1,106 @@
+package org.example.zalu.protocol;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.StreamCorruptedException;
+import java.util.ArrayDeque;
+
+/**
+ * ObjectInputStream đọc frame của {@link WireCodec}. readObject() trả về đúng kiểu mà phía gửi
+ * đã ghi (String, Packet, byte[], List, Map, Message, User, GroupInfo, ...).
+ * <p>
+ * Frame PART được ghép lại trong bộ đệm; frame thường chen giữa được trả về ngay, còn các object
+ * trong nhóm PART được trả về theo thứ tự khi nhận đủ phần cuối. Bộ đệm ghép bị giới hạn bởi
+ * {@link PartBudget}.
+ */
+public class BinaryObjectInputStream extends ObjectInputStream {
+    private final DataInputStream in;
+    private final ArrayDeque<Object> ready = new ArrayDeque<>();
+    private final int version;
+    private final PartBudget budget;
+    private ByteArrayOutputStream partial;
+    // Số byte của nhóm PART đang ghép đã giữ trong budget
+    private long reserved;
+
+    public BinaryObjectInputStream(InputStream source) throws IOException {
+        this(source, WireCodec.VERSION);
+    }
+
+    /**
+     * @param version version đã thỏa thuận khi bắt tay, quyết định trường nào được đọc từ peer
+     */
+    public BinaryObjectInputStream(InputStream source, int version) throws IOException {
+        this(source, version, PartBudget.UNLIMITED);
+    }
+
+    /**
+     * @param budget giới hạn bộ nhớ ghép PART của stream này và chung cho mọi stream dùng cùng budget
+     */
+    public BinaryObjectInputStream(InputStream source, int version, PartBudget budget) throws IOException {
+        super();
+        this.in = new DataInputStream(source instanceof BufferedInputStream ? source
+                : new BufferedInputStream(source, 64 * 1024));
+        this.version = version;
+        this.budget = budget;
+    }
+
+    @Override
+    protected Object readObjectOverride() throws IOException {
+        if (!ready.isEmpty()) {
+            return ready.poll();
+        }
+        while (true) {
+            Object obj = WireCodec.readFrame(in, version);
+            if (!(obj instanceof WireCodec.Fragment fragment)) {
+                return obj;
+            }
+            int length = fragment.data().length;
+            if (reserved + length > budget.getPerStreamBytes()) {
+                long size = reserved + length;
+                releasePartial();
+                throw new StreamCorruptedException("Nhóm PART quá lớn: " + size + " bytes");
+            }
+            if (!budget.reserve(length)) {
+                releasePartial();
+                throw new IOException("Quá nhiều dữ liệu PART đang chờ ghép (" + budget.getUsed() + " bytes)");
+            }
+            reserved += length;
+            if (partial == null) {
+                partial = new ByteArrayOutputStream(length * 4);
+            }
+            partial.write(fragment.data());
+            if (fragment.last()) {
+                DataInputStream batch = new DataInputStream(new ByteArrayInputStream(partial.toByteArray()));
+                releasePartial();
+                while (batch.available() > 0) {
+                    ready.add(WireCodec.readFrame(batch, version));
+                }
+                if (!ready.isEmpty()) {
+                    return ready.poll();
+                }
+            }
+        }
+    }
+
+    @Override
+    public int available() throws IOException {
+        return ready.size() + in.available();
+    }
+
+    private void releasePartial() {
+        partial = null;
+        budget.release(reserved);
+        reserved = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        releasePartial();
+        in.close();
+    }
+}
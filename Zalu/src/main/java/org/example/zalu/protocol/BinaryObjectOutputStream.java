@@ -0,0 +1,55 @@
+package org.example.zalu.protocol;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+/**
+ * ObjectOutputStream ghi theo giao thức nhị phân của {@link WireCodec} thay vì Java serialization.
+ * Giữ nguyên API writeObject()/flush() để code gửi hiện có không phải đổi.
+ */
+public class BinaryObjectOutputStream extends ObjectOutputStream {
+    private final DataOutputStream out;
+    private final int version;
+
+    public BinaryObjectOutputStream(OutputStream target) throws IOException {
+        this(target, WireCodec.VERSION);
+    }
+
+    /**
+     * @param version version đã thỏa thuận khi bắt tay, quyết định trường nào được ghi cho peer
+     */
+    public BinaryObjectOutputStream(OutputStream target, int version) throws IOException {
+        super();
+        this.out = new DataOutputStream(new BufferedOutputStream(target, 64 * 1024));
+        this.version = version;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    @Override
+    protected void writeObjectOverride(Object obj) throws IOException {
+        WireCodec.writeFrame(out, obj, version);
+    }
+
+    /**
+     * Ghi một phần của batch do {@link WireCodec#encodeBatch} tạo ra (chỉ dùng khi hai bên đã thỏa thuận v2).
+     */
+    public void writeFragment(byte[] batch, int offset, int length, boolean last) throws IOException {
+        WireCodec.writeFragment(out, batch, offset, length, last);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
@@ -0,0 +1,131 @@
+package org.example.zalu.protocol;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Một đoạn file trên đĩa cần gửi như byte[] mà không nạp vào heap.
+ * <p>
+ * Ghi qua {@link BinaryObjectOutputStream} (hoặc hàng đợi gửi của server), đoạn file được đưa
+ * thẳng ra stream bằng {@link FileChannel#transferTo}; phía nhận đọc được một byte[] như thường.
+ */
+public final class FileRegion {
+    private final Path file;
+    private final long offset;
+    private final long length;
+
+    public FileRegion(Path file, long offset, long length) {
+        if (offset < 0 || length < 0) {
+            throw new IllegalArgumentException("offset/length không hợp lệ: " + offset + "/" + length);
+        }
+        this.file = file;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    /** Chép đoạn file ra stream, trả về số byte đã ghi. */
+    public long transferTo(OutputStream out) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            checkBounds(channel);
+            WritableByteChannel target = Channels.newChannel(out);
+            long position = offset;
+            long end = offset + length;
+            while (position < end) {
+                long n = channel.transferTo(position, end - position, target);
+                if (n <= 0) {
+                    throw new IOException("File bị cắt ngắn khi đang gửi: " + file);
+                }
+                position += n;
+            }
+            return length;
+        }
+    }
+
+    /** Mở stream đọc đúng đoạn file (dùng khi cần cắt nhỏ thành frame PART). */
+    public InputStream open() throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            checkBounds(channel);
+            channel.position(offset);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return new InputStream() {
+            private final InputStream in = Channels.newInputStream(channel);
+            private long remaining = length;
+
+            @Override
+            public int read() throws IOException {
+                if (remaining <= 0) {
+                    return -1;
+                }
+                int b = in.read();
+                if (b >= 0) {
+                    remaining--;
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (remaining <= 0) {
+                    return -1;
+                }
+                int n = in.read(b, off, (int) Math.min(len, remaining));
+                if (n > 0) {
+                    remaining -= n;
+                }
+                return n;
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+        };
+    }
+
+    /** Đọc cả đoạn vào bộ nhớ, chỉ dùng cho client giao thức cũ (Java serialization). */
+    public byte[] readAll() throws IOException {
+        if (length > WireCodec.MAX_FRAME_BYTES) {
+            throw new IOException("Đoạn file quá lớn: " + length + " bytes");
+        }
+        try (InputStream in = open()) {
+            byte[] data = in.readNBytes((int) length);
+            if (data.length != length) {
+                throw new IOException("File bị cắt ngắn khi đang đọc: " + file);
+            }
+            return data;
+        }
+    }
+
+    private void checkBounds(FileChannel channel) throws IOException {
+        if (offset + length > channel.size()) {
+            throw new IOException("Đoạn " + offset + "+" + length + " vượt quá kích thước file " + file);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "FileRegion[" + file.getFileName() + " @" + offset + "+" + length + "]";
+    }
+}
@@ -0,0 +1,104 @@
+package org.example.zalu.protocol;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+
+/**
+ * Chuỗi frame đã mã hóa của một nhóm object, đọc dần để cắt thành các frame PART.
+ * <p>
+ * Object thường được mã hóa sẵn; {@link FileRegion} chỉ được đọc từ đĩa khi tới lượt, nên gửi
+ * một file lớn chỉ tốn một bộ đệm cỡ {@link WireCodec#FRAGMENT_BYTES}.
+ */
+public final class FrameBatch implements Closeable {
+    private final ArrayDeque<Object> segments = new ArrayDeque<>();
+    private final long length;
+    private long position;
+    private InputStream current;
+
+    private FrameBatch(int version, Object[] objects) throws IOException {
+        long total = 0;
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buf);
+        for (Object obj : objects) {
+            if (obj instanceof FileRegion region) {
+                out.writeInt(WireCodec.bytesFrameLength(region));
+                out.writeShort(Opcode.BYTES.code());
+                out.flush();
+                segments.add(buf.toByteArray());
+                total += buf.size() + region.getLength();
+                segments.add(region);
+                buf.reset();
+            } else {
+                WireCodec.writeFrame(out, obj, version);
+            }
+        }
+        out.flush();
+        if (buf.size() > 0) {
+            segments.add(buf.toByteArray());
+            total += buf.size();
+        }
+        this.length = total;
+    }
+
+    public static FrameBatch of(Object... objects) throws IOException {
+        return of(WireCodec.VERSION, objects);
+    }
+
+    /** Như {@link #of(Object...)} nhưng mã hóa theo version đã thỏa thuận với peer nhận. */
+    public static FrameBatch of(int version, Object... objects) throws IOException {
+        return new FrameBatch(version, objects);
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public long getRemaining() {
+        return length - position;
+    }
+
+    /**
+     * Đọc tối đa {@code buffer.length} byte tiếp theo.
+     *
+     * @return số byte đã đọc, 0 khi đã hết
+     */
+    public int read(byte[] buffer) throws IOException {
+        int filled = 0;
+        while (filled < buffer.length) {
+            if (current == null) {
+                Object next = segments.poll();
+                if (next == null) {
+                    break;
+                }
+                current = next instanceof FileRegion region ? region.open()
+                        : new ByteArrayInputStream((byte[]) next);
+            }
+            int n = current.read(buffer, filled, buffer.length - filled);
+            if (n < 0) {
+                current.close();
+                current = null;
+                continue;
+            }
+            filled += n;
+        }
+        position += filled;
+        if (filled == 0 && position < length) {
+            throw new IOException("File bị cắt ngắn khi đang gửi");
+        }
+        return filled;
+    }
+
+    @Override
+    public void close() throws IOException {
+        segments.clear();
+        if (current != null) {
+            current.close();
+            current = null;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package org.example.zalu.protocol;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Mã lệnh (opcode) của giao thức nhị phân. Giá trị số là một phần của giao thức:
+ * chỉ được thêm mới, không được đổi hoặc dùng lại số cũ.
+ * <p>
+ * 0x01xx: lệnh từ client gửi lên, 0x02xx: sự kiện/phản hồi server gửi xuống.
+ * Các chuỗi có tên lệnh không nằm trong bảng được gửi nguyên văn dưới dạng {@link #TEXT}.
+ */
+public enum Opcode {
+    // --- Frame đặc biệt ---
+    TEXT(0x0000),
+    PART(0xFFFD),
+    BYTES(0xFFFE),
+    VALUE(0xFFFF),
+
+    // --- Client -> Server ---
+    REGISTER_REQUEST(0x0101),
+    LOGIN_REQUEST(0x0102),
+    RESUME_SESSION(0x0103),
+    LOGOUT(0x0104),
+    KEEP_ALIVE(0x0105),
+    SEND_MESSAGE(0x0110),
+    SEND_GROUP_MESSAGE(0x0111),
+    SEND_FILE(0x0112),
+    SEND_VOICE(0x0113),
+    SEND_GROUP_FILE(0x0114),
+    SEND_GROUP_VOICE(0x0115),
+    MARK_AS_READ(0x0116),
+    DELETE_MESSAGE(0x0117),
+    RECALL_MESSAGE(0x0118),
+    EDIT_MESSAGE(0x0119),
+    PIN_MESSAGE(0x011A),
+    TYPING(0x011B),
+    TYPING_STOP(0x011C),
+    GET_FILE(0x0120),
+    GET_CONVERSATION(0x0121),
+    GET_GROUP_CONVERSATION(0x0122),
+    GET_MESSAGES(0x0123),
+    GET_GROUP_MESSAGES(0x0124),
+    SEARCH_MESSAGES(0x0125),
+    GET_PINNED_MESSAGES(0x0126),
+    GET_HISTORY_PAGE(0x0127),
+    SEND_FRIEND_REQUEST(0x0130),
+    ACCEPT_FRIEND(0x0131),
+    REJECT_FRIEND(0x0132),
+    GET_FRIENDS(0x0133),
+    GET_FRIEND_REQUESTS_INFO(0x0134),
+    GET_FRIENDS_LIST_FULL(0x0135),
+    GET_PENDING_REQUESTS(0x0136),
+    SEARCH_USERS(0x0137),
+    GET_USER_AVATAR(0x0138),
+    GET_USER_BY_ID(0x0139),
+    GET_USER_STATS(0x013A),
+    REPORT_USER(0x013B),
+    PRESENCE_SUBSCRIBE(0x013C),
+    GET_AVATARS(0x013D),
+    CREATE_GROUP(0x0140),
+    GET_GROUPS(0x0141),
+    GET_GROUP_INFO(0x0142),
+    GET_FRIENDS_NOT_IN_GROUP(0x0143),
+    GET_GROUP_MEMBERS(0x0144),
+    ADD_GROUP_MEMBER(0x0145),
+    GET_MEMBER_ROLE(0x0146),
+    LEAVE_GROUP(0x0147),
+    DELETE_GROUP(0x0148),
+    REMOVE_GROUP_MEMBER(0x0149),
+    VIDEO_CALL_REQUEST(0x0150),
+    VIDEO_CALL_ACCEPT(0x0151),
+    VIDEO_CALL_REJECT(0x0152),
+    VIDEO_CALL_END(0x0153),
+    UPLOAD_BEGIN(0x0160),
+    UPLOAD_CHUNK(0x0161),
+    UPLOAD_END(0x0162),
+    DOWNLOAD_BEGIN(0x0163),
+    DOWNLOAD_CHUNK(0x0164),
+
+    // --- Server -> Client ---
+    LOGIN_RESPONSE(0x0201),
+    REGISTER_RESPONSE(0x0202),
+    LOGOUT_OK(0x0203),
+    KEEP_ALIVE_OK(0x0204),
+    ERROR(0x0205),
+    KICKED(0x0206),
+    ACCOUNT_LOCKED(0x0207),
+    ACCOUNT_DELETED(0x0208),
+    SYSTEM_ANNOUNCEMENT(0x0209),
+    UPDATE_PROFILE(0x020A),
+    NEW_MESSAGE(0x0210),
+    NEW_GROUP_MESSAGE(0x0211),
+    NEW_FILE(0x0212),
+    NEW_GROUP_FILE(0x0213),
+    MESSAGE_SENT(0x0214),
+    GROUP_MESSAGE_SENT(0x0215),
+    FILE_SENT(0x0216),
+    GROUP_FILE_SENT(0x0217),
+    FILE_DATA(0x0218),
+    READY_FOR_FILE(0x0219),
+    MESSAGES_READ(0x021A),
+    MESSAGE_DELETED(0x021B),
+    MESSAGE_RECALLED(0x021C),
+    MESSAGE_EDITED(0x021D),
+    MESSAGE_PIN_UPDATE(0x021E),
+    TYPING_INDICATOR(0x021F),
+    USER_ONLINE(0x0220),
+    USER_OFFLINE(0x0221),
+    USER_PROFILE_UPDATED(0x0222),
+    USER_AVATAR(0x0223),
+    FRIENDS_UPDATE(0x0224),
+    FRIEND_REQUEST_RECEIVED(0x0225),
+    FRIEND_REQUEST_SENT(0x0226),
+    GROUPS_UPDATE(0x0227),
+    GROUP_MEMBERS_UPDATE(0x0228),
+    GROUP_DISBANDED(0x0229),
+    MEMBER_ROLE(0x022A),
+    REPORT_USER_SUCCESS(0x022B),
+    REPORT_USER_FAIL(0x022C),
+    GROUP_READ(0x022D),
+    PRESENCE_BATCH(0x022E),
+    VIDEO_CALL_INCOMING(0x0230),
+    VIDEO_CALL_ACCEPTED(0x0231),
+    VIDEO_CALL_REJECTED(0x0232),
+    VIDEO_CALL_ENDED(0x0233),
+    UPLOAD_READY(0x0240),
+    UPLOAD_ACK(0x0241),
+    UPLOAD_DONE(0x0242),
+    UPLOAD_FAIL(0x0243),
+    DOWNLOAD_INFO(0x0244),
+    DOWNLOAD_DATA(0x0245),
+    DOWNLOAD_FAIL(0x0246),
+    NEW_FILE_REF(0x0247),
+    NEW_GROUP_FILE_REF(0x0248);
+
+    private static final Map<Integer, Opcode> BY_CODE = new HashMap<>();
+    private static final Map<String, Opcode> BY_NAME = new HashMap<>();
+
+    static {
+        for (Opcode op : values()) {
+            BY_CODE.put(op.code, op);
+            if (op.isCommand()) {
+                BY_NAME.put(op.name(), op);
+            }
+        }
+    }
+
+    private final int code;
+
+    Opcode(int code) {
+        this.code = code;
+    }
+
+    public int code() {
+        return code;
+    }
+
+    /** true nếu là lệnh/sự kiện có tên (không phải frame TEXT/PART/BYTES/VALUE). */
+    public boolean isCommand() {
+        return this != TEXT && this != PART && this != BYTES && this != VALUE;
+    }
+
+    public static Opcode fromCode(int code) {
+        return BY_CODE.get(code);
+    }
+
+    /** Tra opcode theo tên lệnh, trả về null nếu tên không có trong bảng. */
+    public static Opcode fromName(String name) {
+        return BY_NAME.get(name);
+    }
+}
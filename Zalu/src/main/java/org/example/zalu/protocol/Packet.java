@@ -0,0 +1,121 @@
+package org.example.zalu.protocol;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Một lệnh hoặc sự kiện đã tách trường: tên lệnh + danh sách trường.
+ * <p>
+ * Với giao thức nhị phân mỗi trường được gửi kèm độ dài, nên nội dung tin nhắn có chứa '|'
+ * vẫn được giữ nguyên. Với giao thức cũ, {@link #parseLegacy(String)} tách chuỗi theo '|'
+ * giống hệt {@code msg.split("\\|")} trước đây.
+ */
+public final class Packet implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String name;
+    private final String[] fields;
+
+    /**
+     * @param name   tên lệnh, ví dụ SEND_MESSAGE
+     * @param fields các trường sau tên lệnh
+     */
+    public Packet(String name, String... fields) {
+        this.name = name;
+        this.fields = fields != null ? fields : new String[0];
+    }
+
+    public static Packet of(String name, Object... fields) {
+        String[] values = new String[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            values[i] = String.valueOf(fields[i]);
+        }
+        return new Packet(name, values);
+    }
+
+    /**
+     * Tách chuỗi lệnh kiểu cũ "NAME|a|b|c", giữ cả trường rỗng ở cuối để split(limit) khớp với chuỗi gốc.
+     */
+    public static Packet parseLegacy(String text) {
+        String[] parts = text.split("\\|", -1);
+        if (parts.length == 0) {
+            return new Packet("");
+        }
+        return new Packet(parts[0], Arrays.copyOfRange(parts, 1, parts.length));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Opcode getOpcode() {
+        return Opcode.fromName(name);
+    }
+
+    public int size() {
+        return fields.length;
+    }
+
+    /** Trường thứ i (tính từ 1, vì vị trí 0 là tên lệnh như khi split). */
+    public String get(int i) {
+        return i == 0 ? name : fields[i - 1];
+    }
+
+    public int getInt(int i) {
+        return Integer.parseInt(get(i).trim());
+    }
+
+    /**
+     * Tương đương {@code msg.split("\\|")}: phần tử 0 là tên lệnh, bỏ các trường rỗng ở cuối.
+     */
+    public String[] split() {
+        int n = fields.length;
+        while (n > 0 && (fields[n - 1] == null || fields[n - 1].isEmpty())) {
+            n--;
+        }
+        String[] parts = new String[n + 1];
+        parts[0] = name;
+        System.arraycopy(fields, 0, parts, 1, n);
+        return parts;
+    }
+
+    /**
+     * Tương đương {@code msg.split("\\|", limit)}: các trường từ vị trí limit-1 trở đi được nối lại.
+     */
+    public String[] split(int limit) {
+        String[] all = new String[fields.length + 1];
+        all[0] = name;
+        System.arraycopy(fields, 0, all, 1, fields.length);
+        if (limit <= 0 || all.length <= limit) {
+            return all;
+        }
+        String[] parts = Arrays.copyOf(all, limit);
+        parts[limit - 1] = String.join("|", Arrays.copyOfRange(all, limit - 1, all.length));
+        return parts;
+    }
+
+    /** Chuỗi lệnh kiểu cũ "NAME|a|b". */
+    public String toLegacy() {
+        if (fields.length == 0) {
+            return name;
+        }
+        return name + "|" + String.join("|", fields);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Packet other)) return false;
+        return name.equals(other.name) && Arrays.equals(fields, other.fields);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * name.hashCode() + Arrays.hashCode(fields);
+    }
+
+    @Override
+    public String toString() {
+        return toLegacy();
+    }
+}
@@ -0,0 +1,51 @@
+package org.example.zalu.protocol;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Giới hạn bộ nhớ dùng để ghép các nhóm frame PART phía nhận ({@link BinaryObjectInputStream}).
+ * <p>
+ * Một nhóm PART chỉ được giải mã khi đã nhận đủ phần cuối, nên toàn bộ nhóm nằm trong heap. Mỗi stream
+ * được giữ tối đa {@code perStreamBytes}, và mọi stream dùng chung một budget giữ tối đa
+ * {@code totalBytes}; vượt một trong hai thì readObject() ném lỗi và kết nối bị đóng.
+ */
+public class PartBudget {
+    /** Không giới hạn chung, mỗi stream tối đa một frame (phía client). */
+    public static final PartBudget UNLIMITED = new PartBudget(WireCodec.MAX_FRAME_BYTES, Long.MAX_VALUE);
+
+    private final long perStreamBytes;
+    private final long totalBytes;
+    private final AtomicLong used = new AtomicLong();
+
+    public PartBudget(long perStreamBytes, long totalBytes) {
+        this.perStreamBytes = Math.min(perStreamBytes, WireCodec.MAX_FRAME_BYTES);
+        this.totalBytes = totalBytes;
+    }
+
+    public long getPerStreamBytes() {
+        return perStreamBytes;
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /** Số byte PART đang được ghép trên mọi stream dùng budget này. */
+    public long getUsed() {
+        return used.get();
+    }
+
+    boolean reserve(long bytes) {
+        if (used.addAndGet(bytes) > totalBytes) {
+            used.addAndGet(-bytes);
+            return false;
+        }
+        return true;
+    }
+
+    void release(long bytes) {
+        if (bytes > 0) {
+            used.addAndGet(-bytes);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package org.example.zalu.protocol;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+
+/**
+ * Thỏa thuận giao thức khi mới kết nối.
+ * <p>
+ * Client mới gửi 4 byte "ZLB" + version và chờ server trả lời "ZLB" + version được chọn.
+ * Client cũ mở ObjectOutputStream ngay nên 2 byte đầu là magic của Java serialization (0xACED):
+ * server nhận ra và tiếp tục với giao thức cũ. Phía server không ghi gì trước khi biết loại client.
+ */
+public final class ProtocolHandshake {
+    /** Version trả về khi hai bên dùng Java serialization kiểu cũ. */
+    public static final int LEGACY = 0;
+
+    private static final byte[] MAGIC = { 'Z', 'L', 'B' };
+    private static final int STREAM_MAGIC_HIGH = 0xAC;
+
+    private ProtocolHandshake() {
+    }
+
+    /**
+     * Phía server: xem các byte đầu tiên để biết client dùng giao thức nào.
+     *
+     * @param in  stream đọc của kết nối, phải hỗ trợ mark/reset
+     * @param out stream ghi của kết nối (chỉ dùng khi client gửi "ZLB")
+     * @return version đã thống nhất (truyền cho {@link BinaryObjectOutputStream}/{@link BinaryObjectInputStream}
+     *         để không gửi trường client chưa biết), hoặc {@link #LEGACY} nếu là client cũ (stream được trả về
+     *         vị trí đầu)
+     */
+    public static int accept(BufferedInputStream in, OutputStream out) throws IOException {
+        in.mark(MAGIC.length + 1);
+        int first = in.read();
+        if (first < 0) {
+            throw new EOFException("Client đóng kết nối trước khi bắt tay");
+        }
+        if (first == STREAM_MAGIC_HIGH) {
+            in.reset();
+            return LEGACY;
+        }
+        byte[] rest = new byte[MAGIC.length];
+        new DataInputStream(in).readFully(rest);
+        if (first != MAGIC[0] || rest[0] != MAGIC[1] || rest[1] != MAGIC[2]) {
+            throw new StreamCorruptedException("Bắt tay không hợp lệ");
+        }
+        int version = Math.min(rest[2] & 0xFF, WireCodec.VERSION);
+        if (version < 1) {
+            throw new StreamCorruptedException("Version giao thức không hỗ trợ: " + (rest[2] & 0xFF));
+        }
+        out.write(new byte[] { MAGIC[0], MAGIC[1], MAGIC[2], (byte) version });
+        out.flush();
+        return version;
+    }
+
+    /**
+     * Phía client: gửi lời chào và đọc version server chọn.
+     *
+     * @return version đã thống nhất, hoặc {@link #LEGACY} nếu server cũ trả về header Java serialization
+     *         (khi đó kết nối không dùng tiếp được, cần mở lại ở chế độ cũ)
+     */
+    public static int connect(InputStream in, OutputStream out) throws IOException {
+        out.write(new byte[] { MAGIC[0], MAGIC[1], MAGIC[2], (byte) WireCodec.VERSION });
+        out.flush();
+        byte[] reply = new byte[MAGIC.length + 1];
+        // DataInputStream không đọc trước, phần sau của stream vẫn nguyên cho BinaryObjectInputStream
+        new DataInputStream(in).readFully(reply, 0, 2);
+        if ((reply[0] & 0xFF) == STREAM_MAGIC_HIGH) {
+            return LEGACY;
+        }
+        new DataInputStream(in).readFully(reply, 2, 2);
+        if (reply[0] != MAGIC[0] || reply[1] != MAGIC[1] || reply[2] != MAGIC[2] || reply[3] < 1) {
+            throw new StreamCorruptedException("Server trả lời bắt tay không hợp lệ");
+        }
+        return reply[3];
+    }
+}
@@ -0,0 +1,672 @@
+package org.example.zalu.protocol;
+
+import org.example.zalu.model.GroupInfo;
+import org.example.zalu.model.Message;
+import org.example.zalu.model.User;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Codec dùng chung cho client và server: mã hóa object thành frame nhị phân có độ dài đứng trước.
+ * <pre>
+ * frame   = length:int32  opcode:uint16  payload
+ * lệnh    = flags:uint8  count:varint  (string)*      (flags bit0 = gửi dưới dạng Packet)
+ * TEXT    = string                                     (chuỗi có tên lệnh không nằm trong Opcode)
+ * BYTES   = dữ liệu thô (file, avatar) không thêm header
+ * VALUE   = tag:uint8 + giá trị (List, Map, Message, User, GroupInfo, ...)
+ * PART    = flags:uint8  dữ liệu                       (flags bit0 = phần cuối, từ v2)
+ * Message = ... fileName  fileData  [fileSize:varint  mimeType  fileRef]   (khi có file, từ v3)
+ * User    = ... gender  locked:bool  avatarVersion:varint                       (từ v4)
+ * string  = varint(len + 1) + UTF-8, 0 = null
+ * </pre>
+ * Kiểu không có codec riêng (ví dụ ClientErrorLog) được đóng gói bằng Java serialization trong tag
+ * SERIALIZED để không mất tương thích.
+ * <p>
+ * Từ v2, một nhóm frame lớn (file, chunk) có thể được cắt thành nhiều frame PART; ghép dữ liệu các
+ * PART theo thứ tự được đúng chuỗi frame ban đầu. Frame thường được phép chen giữa các PART nên
+ * lệnh/sự kiện chat không phải chờ cả file gửi xong.
+ * <p>
+ * Các hàm nhận {@code version} mã hóa theo version đã thỏa thuận khi bắt tay: trường có từ version sau
+ * không được ghi cho (và không được đọc từ) peer cũ. Các hàm không có tham số này dùng {@link #VERSION}.
+ */
+public final class WireCodec {
+    public static final int VERSION = 4;
+    public static final int MAX_FRAME_BYTES = 256 * 1024 * 1024;
+    /** Kích thước dữ liệu mỗi frame PART. */
+    public static final int FRAGMENT_BYTES = 64 * 1024;
+
+    private static final int FLAG_PACKET = 1;
+    private static final int FLAG_LAST = 1;
+
+    private static final int T_NULL = 0;
+    private static final int T_TRUE = 1;
+    private static final int T_FALSE = 2;
+    private static final int T_INT = 3;
+    private static final int T_LONG = 4;
+    private static final int T_DOUBLE = 5;
+    private static final int T_STRING = 6;
+    private static final int T_BYTES = 7;
+    private static final int T_LIST = 8;
+    private static final int T_MAP = 9;
+    private static final int T_SET = 10;
+    private static final int T_DATETIME = 11;
+    private static final int T_DATE = 12;
+    private static final int T_MESSAGE = 13;
+    private static final int T_USER = 14;
+    private static final int T_GROUP = 15;
+    private static final int T_PACKET = 16;
+    private static final int T_SERIALIZED = 17;
+
+    private static final int M_READ = 1;
+    private static final int M_FILE = 1 << 1;
+    private static final int M_DELETED = 1 << 2;
+    private static final int M_RECALLED = 1 << 3;
+    private static final int M_EDITED = 1 << 4;
+    private static final int M_PINNED = 1 << 5;
+    private static final int M_FILE_META = 1 << 6;
+
+    private WireCodec() {
+    }
+
+    // =========================================================
+    // FRAME
+    // =========================================================
+
+    /**
+     * Mã hóa một object thành payload của frame (chưa có length).
+     */
+    public static void writeFrame(DataOutputStream out, Object obj) throws IOException {
+        writeFrame(out, obj, VERSION);
+    }
+
+    public static void writeFrame(DataOutputStream out, Object obj, int version) throws IOException {
+        if (obj instanceof FileRegion region) {
+            // Đoạn file trên đĩa: ghi header BYTES rồi chép thẳng từ file, không đệm trong heap
+            out.writeInt(bytesFrameLength(region));
+            out.writeShort(Opcode.BYTES.code());
+            region.transferTo(out);
+            return;
+        }
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(obj instanceof byte[] b ? b.length + 8 : 128);
+        DataOutputStream body = new DataOutputStream(buf);
+        encodeFrameBody(body, obj, version);
+        body.flush();
+        if (buf.size() > MAX_FRAME_BYTES) {
+            throw new IOException("Frame quá lớn: " + buf.size() + " bytes");
+        }
+        out.writeInt(buf.size());
+        buf.writeTo(out);
+    }
+
+    public static Object readFrame(DataInputStream in) throws IOException {
+        return readFrame(in, VERSION);
+    }
+
+    public static Object readFrame(DataInputStream in, int version) throws IOException {
+        int length = in.readInt();
+        if (length < 2 || length > MAX_FRAME_BYTES) {
+            throw new StreamCorruptedException("Độ dài frame không hợp lệ: " + length);
+        }
+        byte[] frame = new byte[length];
+        in.readFully(frame);
+        return decodeFrameBody(new DataInputStream(new ByteArrayInputStream(frame)), length, version);
+    }
+
+    /** Mã hóa object thành một frame đầy đủ (có length), tiện cho test và đo kích thước. */
+    public static byte[] encode(Object obj) throws IOException {
+        return encode(obj, VERSION);
+    }
+
+    public static byte[] encode(Object obj, int version) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buf);
+        writeFrame(out, obj, version);
+        out.flush();
+        return buf.toByteArray();
+    }
+
+    public static Object decode(byte[] frame) throws IOException {
+        return decode(frame, VERSION);
+    }
+
+    public static Object decode(byte[] frame, int version) throws IOException {
+        return readFrame(new DataInputStream(new ByteArrayInputStream(frame)), version);
+    }
+
+    /**
+     * Một phần của nhóm frame bị cắt nhỏ, do {@link #readFrame} trả về để
+     * {@link BinaryObjectInputStream} ghép lại.
+     */
+    record Fragment(boolean last, byte[] data) {
+    }
+
+    /** Mã hóa liên tiếp nhiều object thành chuỗi frame để gửi dưới dạng PART. */
+    public static byte[] encodeBatch(Object... objects) throws IOException {
+        return encodeBatch(VERSION, objects);
+    }
+
+    public static byte[] encodeBatch(int version, Object... objects) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buf);
+        for (Object obj : objects) {
+            writeFrame(out, obj, version);
+        }
+        out.flush();
+        return buf.toByteArray();
+    }
+
+    /** Độ dài frame BYTES (phần sau trường length) dùng để gửi một đoạn file. */
+    static int bytesFrameLength(FileRegion region) throws IOException {
+        if (region.getLength() + 2 > MAX_FRAME_BYTES) {
+            throw new IOException("Frame quá lớn: " + region.getLength() + " bytes");
+        }
+        return (int) region.getLength() + 2;
+    }
+
+    /** Ghi đoạn [offset, offset + length) của batch thành một frame PART. */
+    public static void writeFragment(DataOutputStream out, byte[] batch, int offset, int length, boolean last)
+            throws IOException {
+        out.writeInt(length + 3);
+        out.writeShort(Opcode.PART.code());
+        out.writeByte(last ? FLAG_LAST : 0);
+        out.write(batch, offset, length);
+    }
+
+    private static void encodeFrameBody(DataOutputStream out, Object obj, int version) throws IOException {
+        if (obj instanceof String text) {
+            String[] parts = text.split("\\|", -1);
+            Opcode op = Opcode.fromName(parts[0]);
+            if (op == null) {
+                out.writeShort(Opcode.TEXT.code());
+                writeString(out, text);
+                return;
+            }
+            out.writeShort(op.code());
+            out.writeByte(0);
+            writeVarInt(out, parts.length - 1);
+            for (int i = 1; i < parts.length; i++) {
+                writeString(out, parts[i]);
+            }
+        } else if (obj instanceof Packet packet && packet.getOpcode() != null) {
+            out.writeShort(packet.getOpcode().code());
+            out.writeByte(FLAG_PACKET);
+            writeVarInt(out, packet.size());
+            for (int i = 1; i <= packet.size(); i++) {
+                writeString(out, packet.get(i));
+            }
+        } else if (obj instanceof byte[] data) {
+            out.writeShort(Opcode.BYTES.code());
+            out.write(data);
+        } else {
+            out.writeShort(Opcode.VALUE.code());
+            writeValue(out, obj, version);
+        }
+    }
+
+    private static Object decodeFrameBody(DataInputStream in, int length, int version) throws IOException {
+        int code = in.readUnsignedShort();
+        Opcode op = Opcode.fromCode(code);
+        if (op == null) {
+            throw new StreamCorruptedException("Opcode không hỗ trợ: 0x" + Integer.toHexString(code));
+        }
+        switch (op) {
+            case TEXT:
+                return readString(in);
+            case BYTES: {
+                byte[] data = new byte[length - 2];
+                in.readFully(data);
+                return data;
+            }
+            case VALUE:
+                return readValue(in, version);
+            case PART: {
+                if (length < 3) {
+                    throw new StreamCorruptedException("Frame PART thiếu dữ liệu");
+                }
+                int flags = in.readUnsignedByte();
+                byte[] data = new byte[length - 3];
+                in.readFully(data);
+                return new Fragment((flags & FLAG_LAST) != 0, data);
+            }
+            default: {
+                int flags = in.readUnsignedByte();
+                int count = readVarInt(in);
+                String[] fields = new String[count];
+                for (int i = 0; i < count; i++) {
+                    fields[i] = readString(in);
+                }
+                if ((flags & FLAG_PACKET) != 0) {
+                    return new Packet(op.name(), fields);
+                }
+                StringBuilder sb = new StringBuilder(op.name());
+                for (String f : fields) {
+                    sb.append('|').append(f);
+                }
+                return sb.toString();
+            }
+        }
+    }
+
+    // =========================================================
+    // VALUE
+    // =========================================================
+
+    public static void writeValue(DataOutputStream out, Object obj) throws IOException {
+        writeValue(out, obj, VERSION);
+    }
+
+    public static void writeValue(DataOutputStream out, Object obj, int version) throws IOException {
+        if (obj == null) {
+            out.writeByte(T_NULL);
+        } else if (obj instanceof Boolean b) {
+            out.writeByte(b ? T_TRUE : T_FALSE);
+        } else if (obj instanceof Integer i) {
+            out.writeByte(T_INT);
+            writeVarLong(out, zigzag(i));
+        } else if (obj instanceof Long l) {
+            out.writeByte(T_LONG);
+            writeVarLong(out, zigzag(l));
+        } else if (obj instanceof Double d) {
+            out.writeByte(T_DOUBLE);
+            out.writeDouble(d);
+        } else if (obj instanceof String s) {
+            out.writeByte(T_STRING);
+            writeString(out, s);
+        } else if (obj instanceof byte[] data) {
+            out.writeByte(T_BYTES);
+            writeBytes(out, data);
+        } else if (obj instanceof List<?> list) {
+            out.writeByte(T_LIST);
+            writeCollection(out, list, version);
+        } else if (obj instanceof Set<?> set) {
+            out.writeByte(T_SET);
+            writeCollection(out, set, version);
+        } else if (obj instanceof Map<?, ?> map) {
+            out.writeByte(T_MAP);
+            writeVarInt(out, map.size());
+            for (Map.Entry<?, ?> e : map.entrySet()) {
+                writeValue(out, e.getKey(), version);
+                writeValue(out, e.getValue(), version);
+            }
+        } else if (obj instanceof LocalDateTime dt) {
+            out.writeByte(T_DATETIME);
+            writeDateTime(out, dt);
+        } else if (obj instanceof LocalDate d) {
+            out.writeByte(T_DATE);
+            writeVarLong(out, zigzag(d.toEpochDay()));
+        } else if (obj instanceof Message m) {
+            out.writeByte(T_MESSAGE);
+            writeMessage(out, m, version);
+        } else if (obj instanceof User u) {
+            out.writeByte(T_USER);
+            writeUser(out, u, version);
+        } else if (obj instanceof GroupInfo g) {
+            out.writeByte(T_GROUP);
+            writeGroup(out, g);
+        } else if (obj instanceof Packet p) {
+            out.writeByte(T_PACKET);
+            writeString(out, p.getName());
+            writeVarInt(out, p.size());
+            for (int i = 1; i <= p.size(); i++) {
+                writeString(out, p.get(i));
+            }
+        } else if (obj instanceof Serializable) {
+            out.writeByte(T_SERIALIZED);
+            ByteArrayOutputStream buf = new ByteArrayOutputStream();
+            try (ObjectOutputStream oos = new ObjectOutputStream(buf)) {
+                oos.writeObject(obj);
+            }
+            writeBytes(out, buf.toByteArray());
+        } else {
+            throw new NotSerializableException(obj.getClass().getName());
+        }
+    }
+
+    public static Object readValue(DataInputStream in) throws IOException {
+        return readValue(in, VERSION);
+    }
+
+    public static Object readValue(DataInputStream in, int version) throws IOException {
+        int tag = in.readUnsignedByte();
+        switch (tag) {
+            case T_NULL:
+                return null;
+            case T_TRUE:
+                return Boolean.TRUE;
+            case T_FALSE:
+                return Boolean.FALSE;
+            case T_INT:
+                return (int) unzigzag(readVarLong(in));
+            case T_LONG:
+                return unzigzag(readVarLong(in));
+            case T_DOUBLE:
+                return in.readDouble();
+            case T_STRING:
+                return readString(in);
+            case T_BYTES:
+                return readBytes(in);
+            case T_LIST: {
+                int n = readCount(in);
+                List<Object> list = new ArrayList<>(n);
+                for (int i = 0; i < n; i++) {
+                    list.add(readValue(in, version));
+                }
+                return list;
+            }
+            case T_SET: {
+                int n = readCount(in);
+                Set<Object> set = new LinkedHashSet<>();
+                for (int i = 0; i < n; i++) {
+                    set.add(readValue(in, version));
+                }
+                return set;
+            }
+            case T_MAP: {
+                int n = readCount(in);
+                Map<Object, Object> map = new LinkedHashMap<>();
+                for (int i = 0; i < n; i++) {
+                    Object key = readValue(in, version);
+                    map.put(key, readValue(in, version));
+                }
+                return map;
+            }
+            case T_DATETIME:
+                return readDateTime(in);
+            case T_DATE:
+                return LocalDate.ofEpochDay(unzigzag(readVarLong(in)));
+            case T_MESSAGE:
+                return readMessage(in, version);
+            case T_USER:
+                return readUser(in, version);
+            case T_GROUP:
+                return readGroup(in);
+            case T_PACKET: {
+                String name = readString(in);
+                int n = readCount(in);
+                String[] fields = new String[n];
+                for (int i = 0; i < n; i++) {
+                    fields[i] = readString(in);
+                }
+                return new Packet(name, fields);
+            }
+            case T_SERIALIZED: {
+                byte[] data = readBytes(in);
+                try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(data))) {
+                    return ois.readObject();
+                } catch (ClassNotFoundException e) {
+                    throw new InvalidObjectException("Không tìm thấy class: " + e.getMessage());
+                }
+            }
+            default:
+                throw new StreamCorruptedException("Tag không hỗ trợ: " + tag);
+        }
+    }
+
+    private static void writeCollection(DataOutputStream out, Collection<?> values, int version) throws IOException {
+        writeVarInt(out, values.size());
+        for (Object v : values) {
+            writeValue(out, v, version);
+        }
+    }
+
+    // =========================================================
+    // MODEL
+    // =========================================================
+
+    private static void writeMessage(DataOutputStream out, Message m, int version) throws IOException {
+        writeVarInt(out, m.getId());
+        writeVarInt(out, m.getSenderId());
+        writeVarInt(out, m.getReceiverId());
+        writeVarInt(out, m.getGroupId());
+        int flags = (m.getIsRead() ? M_READ : 0) | (m.isFile() ? M_FILE : 0) | (m.isDeleted() ? M_DELETED : 0)
+                | (m.isRecalled() ? M_RECALLED : 0) | (m.isEdited() ? M_EDITED : 0) | (m.isPinned() ? M_PINNED : 0);
+        // Peer v2 không biết bit M_FILE_META: chỉ gửi tên file, không gửi metadata
+        boolean meta = version >= 3 && m.getFileName() != null;
+        out.writeByte(flags | (meta ? M_FILE_META : 0));
+        writeString(out, m.getContent());
+        writeString(out, m.getFileName());
+        writeBytes(out, m.getFileData());
+        if (meta) {
+            writeVarLong(out, m.getFileSize());
+            writeString(out, m.getMimeType());
+            writeString(out, m.getFileRef());
+        }
+        writeString(out, m.getEditedContent());
+        writeVarInt(out, m.getRepliedToMessageId());
+        writeString(out, m.getRepliedToContent());
+        writeDateTime(out, m.getCreatedAt());
+        out.writeByte(m.getStatus() != null ? m.getStatus().ordinal() + 1 : 0);
+        writeString(out, m.getTempId());
+    }
+
+    private static Message readMessage(DataInputStream in, int version) throws IOException {
+        Message m = new Message();
+        m.setId(readVarInt(in));
+        m.setSenderId(readVarInt(in));
+        m.setReceiverId(readVarInt(in));
+        m.setGroupId(readVarInt(in));
+        int flags = in.readUnsignedByte();
+        m.setIsRead((flags & M_READ) != 0);
+        m.setFile((flags & M_FILE) != 0);
+        m.setDeleted((flags & M_DELETED) != 0);
+        m.setRecalled((flags & M_RECALLED) != 0);
+        m.setEdited((flags & M_EDITED) != 0);
+        m.setPinned((flags & M_PINNED) != 0);
+        m.setContent(readString(in));
+        m.setFileName(readString(in));
+        m.setFileData(readBytes(in));
+        if (version >= 3 && (flags & M_FILE_META) != 0) {
+            m.setFileSize(readVarLong(in));
+            m.setMimeType(readString(in));
+            m.setFileRef(readString(in));
+        }
+        m.setEditedContent(readString(in));
+        m.setRepliedToMessageId(readVarInt(in));
+        m.setRepliedToContent(readString(in));
+        m.setCreatedAt(readDateTime(in));
+        int status = in.readUnsignedByte();
+        m.setStatus(status > 0 ? Message.MessageStatus.values()[status - 1] : null);
+        m.setTempId(readString(in));
+        return m;
+    }
+
+    private static void writeUser(DataOutputStream out, User u, int version) throws IOException {
+        writeVarInt(out, u.getId());
+        writeString(out, u.getUsername());
+        writeString(out, u.getFullName());
+        writeString(out, u.getPassword());
+        writeString(out, u.getEmail());
+        writeString(out, u.getPhone());
+        writeString(out, u.getAvatarUrlRaw());
+        writeBytes(out, u.getAvatarData());
+        writeString(out, u.getBio());
+        out.writeBoolean(u.getBirthdate() != null);
+        if (u.getBirthdate() != null) {
+            writeVarLong(out, zigzag(u.getBirthdate().toEpochDay()));
+        }
+        writeString(out, u.getStatus());
+        writeDateTime(out, u.getCreatedAt());
+        writeString(out, u.getGender());
+        out.writeBoolean(u.isLocked());
+        if (version >= 4) {
+            writeVarInt(out, u.getAvatarVersion());
+        }
+    }
+
+    private static User readUser(DataInputStream in, int version) throws IOException {
+        int id = readVarInt(in);
+        String username = readString(in);
+        String fullName = readString(in);
+        String password = readString(in);
+        String email = readString(in);
+        String phone = readString(in);
+        String avatarUrl = readString(in);
+        byte[] avatarData = readBytes(in);
+        String bio = readString(in);
+        LocalDate birthdate = in.readBoolean() ? LocalDate.ofEpochDay(unzigzag(readVarLong(in))) : null;
+        String status = readString(in);
+        LocalDateTime createdAt = readDateTime(in);
+        String gender = readString(in);
+        boolean locked = in.readBoolean();
+        int avatarVersion = version >= 4 ? readVarInt(in) : 0;
+
+        // Constructor hiển thị chấp nhận username rỗng; các trường còn lại đặt lại nguyên giá trị
+        User u = new User(id, username, fullName, email, phone, avatarUrl, bio, birthdate, status, gender);
+        u.setFullName(fullName);
+        u.setAvatarUrl(avatarUrl);
+        if (password != null && !password.isBlank()) {
+            u.setPassword(password);
+        }
+        u.setAvatarData(avatarData);
+        u.setAvatarVersion(avatarVersion);
+        u.setCreatedAt(createdAt);
+        u.setLocked(locked);
+        return u;
+    }
+
+    private static void writeGroup(DataOutputStream out, GroupInfo g) throws IOException {
+        writeVarInt(out, g.getId());
+        writeString(out, g.getName());
+        writeVarInt(out, g.getMemberCount());
+        writeBytes(out, g.getAvatarData());
+        writeString(out, g.getAvatarUrl());
+    }
+
+    private static GroupInfo readGroup(DataInputStream in) throws IOException {
+        GroupInfo g = new GroupInfo(readVarInt(in), readString(in), readVarInt(in));
+        g.setAvatarData(readBytes(in));
+        g.setAvatarUrl(readString(in));
+        return g;
+    }
+
+    // =========================================================
+    // PRIMITIVES
+    // =========================================================
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, utf8.length + 1);
+        out.write(utf8);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int n = readCount(in);
+        if (n == 0) {
+            return null;
+        }
+        byte[] utf8 = new byte[n - 1];
+        in.readFully(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] data) throws IOException {
+        if (data == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        writeVarInt(out, data.length + 1);
+        out.write(data);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int n = readCount(in);
+        if (n == 0) {
+            return null;
+        }
+        byte[] data = new byte[n - 1];
+        in.readFully(data);
+        return data;
+    }
+
+    private static void writeDateTime(DataOutputStream out, LocalDateTime dt) throws IOException {
+        if (dt == null) {
+            out.writeByte(0);
+            return;
+        }
+        out.writeByte(1);
+        writeVarLong(out, zigzag(dt.toEpochSecond(ZoneOffset.UTC)));
+        writeVarInt(out, dt.getNano());
+    }
+
+    private static LocalDateTime readDateTime(DataInputStream in) throws IOException {
+        if (in.readUnsignedByte() == 0) {
+            return null;
+        }
+        long seconds = unzigzag(readVarLong(in));
+        return LocalDateTime.ofEpochSecond(seconds, readVarInt(in), ZoneOffset.UTC);
+    }
+
+    private static int readCount(DataInputStream in) throws IOException {
+        int n = readVarInt(in);
+        if (n < 0 || n > MAX_FRAME_BYTES) {
+            throw new StreamCorruptedException("Độ dài không hợp lệ: " + n);
+        }
+        return n;
+    }
+
+    /** Varint không dấu (7 bit mỗi byte), dùng cho id, độ dài và số lượng. */
+    static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        writeVarLong(out, value & 0xFFFFFFFFL);
+    }
+
+    static int readVarInt(DataInputStream in) throws IOException {
+        return (int) readVarLong(in);
+    }
+
+    static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarLong(DataInputStream in) throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new StreamCorruptedException("Varint quá dài");
+    }
+
+    private static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    private static long unzigzag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+}
@@ -6,32 +6,65 @@ import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import org.example.zalu.dao.*;
 import org.example.zalu.model.UserActivity;
+import org.example.zalu.server.activity.ActivityLogWriter;
+import org.example.zalu.server.avatar.AvatarStore;
+import org.example.zalu.server.directory.UserDirectory;
+import org.example.zalu.server.friend.FriendGraphCache;
+import org.example.zalu.server.group.GroupMembershipCache;
+import org.example.zalu.server.history.HotConversationCache;
+import org.example.zalu.server.metrics.CommandMetrics;
+import org.example.zalu.server.net.ConnectionEngine;
+import org.example.zalu.server.persist.MessagePersistPipeline;
+import org.example.zalu.server.presence.PresenceService;
+import org.example.zalu.server.search.MessageSearchIndex;
+import org.example.zalu.server.storage.BlobMigrator;
+import org.example.zalu.server.storage.BlobStore;
+import org.example.zalu.server.transfer.FileTransferService;
+import org.example.zalu.server.unread.UnreadCounterService;
+import org.example.zalu.util.database.DBConnection;
+import org.example.zalu.util.database.MigrationRunner;
 import org.example.zalu.util.database.MySQLConfigHelper;
+import org.example.zalu.util.database.SchemaRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.ObjectOutputStream;
 import java.net.ServerSocket;
-import java.net.Socket;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
 import java.time.LocalDateTime;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Properties;
 import java.util.function.Consumer;
 
 public class ChatServer {
     private static final Logger logger = LoggerFactory.getLogger(ChatServer.class);
 
-    private static final Map<Integer, ObjectOutputStream> clients = new HashMap<>();
+    // Giá trị là OutboundQueue của từng phiên; ConcurrentHashMap để ServerUI đọc thống kê an toàn
+    private static final Map<Integer, ObjectOutputStream> clients = new java.util.concurrent.ConcurrentHashMap<>();
     private static final Map<Integer, String> onlineUsers = new HashMap<>();
     private static UserDAO userDAO;
     private static FriendDAO friendDAO;
     private static MessageDAO messageDAO;
     private static GroupDAO groupDAO;
     private static UserActivityDAO userActivityDAO;
+    private static ActivityLogWriter activityLog;
     private static ReportDAO reportDAO;
+    private static ReadCursorDAO readCursorDAO;
+    private static final FileTransferService fileTransfers = new FileTransferService();
+    private static BlobMigrator blobMigrator;
+    private static UnreadCounterService unreadCounters;
+    private static GroupMembershipCache groupMembership;
+    private static FriendGraphCache friendGraph;
+    private static UserDirectory userDirectory;
+    private static PresenceService presence;
+    private static MessagePersistPipeline messagePersist;
+    private static MessageSearchIndex searchIndex;
+    private static HotConversationCache recentMessages;
+    private static AvatarStore avatars;
+    private static CommandMetrics commandMetrics;
 
     private static final ObservableList<String> userList = FXCollections.observableArrayList();
     private static Consumer<UserActivity> activityCallback;
@@ -39,7 +72,7 @@ public class ChatServer {
     private static Consumer<org.example.zalu.model.ClientErrorLog> errorReportCallback;
 
     private static volatile boolean serverRunning = false;
-    private static ServerSocket serverSocket;
+    private static volatile ConnectionEngine connectionEngine;
     private static Thread serverThread;
 
     private static final java.util.Set<Integer> MUTED_USERS = java.util.Collections
@@ -69,19 +102,68 @@ public class ChatServer {
     public static void main(String[] args) {
         logger.info("⚠ BỎ QUA KIỂM TRA LICENSE (yêu cầu bảo mật đã tắt cho bản dev).");
 
+        prepareSchema();
+
         // KHỞI TẠO TẤT CẢ DAO ĐÚNG CÁCH – KHÔNG CẦN CONNECTION
         userDAO = new UserDAO();
         friendDAO = new FriendDAO();
         messageDAO = new MessageDAO();
         groupDAO = new GroupDAO();
         userActivityDAO = new UserActivityDAO();
+        activityLog = new ActivityLogWriter(userActivityDAO,
+                ServerConfig.getInt("server.activity.queueCapacity", 10000),
+                ServerConfig.getInt("server.activity.batchSize", 200),
+                ServerConfig.getLong("server.activity.flushMs", 500),
+                ActivityLogWriter.OverflowPolicy.parse(ServerConfig.get("server.activity.overflow", "sample")),
+                ServerConfig.getInt("server.activity.sampleEvery", 10));
+        activityLog.start();
+        // Tắt JVM thì ghi nốt nhật ký còn trong hàng đợi
+        Runtime.getRuntime().addShutdownHook(new Thread(activityLog::stop, "Activity-Writer-Drain"));
         reportDAO = new ReportDAO();
+        readCursorDAO = new ReadCursorDAO();
+        groupMembership = new GroupMembershipCache(groupDAO);
+        friendGraph = new FriendGraphCache(friendDAO, clients::containsKey,
+                ServerConfig.getInt("server.friends.maxCachedUsers", 20000));
+        userDirectory = new UserDirectory(userDAO, friendGraph);
+        avatars = new AvatarStore(userDAO);
+        commandMetrics = new CommandMetrics();
+        ClientHandler.getCommandRegistry().addInterceptor(commandMetrics);
+        if (ServerConfig.getBoolean("server.metrics.dbTiming", true)) {
+            DBConnection.setUsageTracker(commandMetrics);
+        }
+        unreadCounters = new UnreadCounterService(messageDAO, readCursorDAO, groupMembership);
+        messagePersist = new MessagePersistPipeline(messageDAO,
+                ServerConfig.getInt("server.persist.maxBatch", 128),
+                ServerConfig.getLong("server.persist.maxDelayMicros", 2000),
+                ServerConfig.getInt("server.persist.writers", 2),
+                ServerConfig.getInt("server.persist.queueCapacity", 4096));
+        presence = new PresenceService(friendGraph, clients::containsKey, ChatServer::broadcastToUser, userDAO,
+                ServerConfig.getLong("server.presence.debounceMs", 1500),
+                ServerConfig.getLong("server.presence.flushMs", 200),
+                ServerConfig.getLong("server.presence.persistMs", 1000));
+        if (ServerConfig.getBoolean("server.search.enabled", true)) {
+            searchIndex = new MessageSearchIndex(messageDAO,
+                    Path.of(ServerConfig.get("server.search.dir", "data/search")),
+                    ServerConfig.getLong("server.search.flushMs", 1000),
+                    ServerConfig.getInt("server.search.maxSegments", 8));
+        }
+        if (ServerConfig.getBoolean("server.history.cache.enabled", true)) {
+            recentMessages = new HotConversationCache(messageDAO,
+                    ServerConfig.getInt("server.history.cache.perConversation", 64),
+                    ServerConfig.getLong("server.history.cache.maxMB", 64) * 1024 * 1024);
+        }
         logger.info("✓ Tất cả DAO đã khởi tạo thành công với HikariCP!");
 
         // Kiểm tra và cấu hình max_allowed_packet
         logger.info("=== Kiểm tra cấu hình MySQL ===");
         try {
-            MySQLConfigHelper.checkAndSetMaxAllowedPacket();
+            if (messageDAO.isBlobStoreEnabled()) {
+                // File mới nằm trong blob store, không cần nới max_allowed_packet cho LONGBLOB
+                logger.info("✓ Blob store đang bật, file đính kèm lưu tại {}",
+                        BlobStore.getInstance().getRoot().toAbsolutePath());
+            } else {
+                MySQLConfigHelper.checkAndSetMaxAllowedPacket();
+            }
             logger.info("================================\n");
         } catch (Exception e) {
             logger.error("⚠ Không thể kết nối tới MySQL: {}", e.getMessage());
@@ -97,20 +179,7 @@ public class ChatServer {
      * Đọc port từ server.properties
      */
     private static int getServerPort() {
-        try {
-            Properties props = new Properties();
-            InputStream is = ChatServer.class.getClassLoader()
-                    .getResourceAsStream("server.properties");
-            if (is != null) {
-                props.load(is);
-                String portStr = props.getProperty("server.port", "5000");
-                is.close();
-                return Integer.parseInt(portStr);
-            }
-        } catch (Exception e) {
-            logger.warn("Không đọc được port từ server.properties, dùng mặc định 5000: {}", e.getMessage());
-        }
-        return 5000; // Default port
+        return ServerConfig.getInt("server.port", 5000);
     }
 
     /**
@@ -147,6 +216,26 @@ public class ChatServer {
     /**
      * Bắt đầu server
      */
+    /**
+     * Chạy migration còn thiếu rồi đọc schema một lần, trước khi DAO nào dựng câu SQL theo capability.
+     * Migration lỗi không chặn server: DAO vẫn chạy theo những gì DB đang có.
+     */
+    private static void prepareSchema() {
+        if (ServerConfig.getBoolean("server.schema.migrate", true)) {
+            try (Connection conn = DBConnection.getConnection()) {
+                int count = new MigrationRunner(MigrationRunner.defaultMigrations()).migrate(conn);
+                logger.info("✓ Migration: {} phiên bản mới", count);
+            } catch (SQLException e) {
+                logger.error("❌ Không chạy được migration: {}", e.getMessage());
+            }
+        }
+        try {
+            SchemaRegistry.refresh();
+        } catch (SQLException e) {
+            logger.error("⚠ Không đọc được schema: {}", e.getMessage());
+        }
+    }
+
     public static void startServer() {
         if (serverRunning) {
             logger.warn("Server đã đang chạy");
@@ -198,28 +287,46 @@ public class ChatServer {
             }
 
             try {
-                serverSocket = new ServerSocket(port);
+                ConnectionEngine engine = ConnectionEngine.fromConfig();
+                engine.bind(port);
+                connectionEngine = engine;
+                if (!serverRunning) {
+                    // stopServer() được gọi trong lúc đang bind
+                    engine.stop();
+                    return;
+                }
                 serverStartTime = LocalDateTime.now(); // Ghi nhận thời gian bắt đầu
-                logger.info("🚀 Zalu Server đang chạy trên port {}", port);
-                ClientBroadcaster broadcaster = new ClientBroadcaster(clients);
+                logger.info("🚀 Zalu Server đang chạy trên port {} (engine: {})", port, engine.getName());
+                ClientBroadcaster broadcaster = new ClientBroadcaster(clients, groupMembership);
+                presence.start();
+                userDirectory.start();
+                if (ServerConfig.getBoolean("server.persist.groupCommit", true)) {
+                    messagePersist.start();
+                }
+                if (searchIndex != null) {
+                    searchIndex.start();
+                }
+                if (ServerConfig.getBoolean("server.blob.migrate", true) && messageDAO != null) {
+                    blobMigrator = new BlobMigrator(messageDAO, BlobStore.getInstance());
+                    blobMigrator.start();
+                }
                 // Khởi động Service Discovery (UDP Broadcast Listener)
                 new ServerDiscoveryListener(port).start();
 
-                while (serverRunning) {
-                    try {
-                        Socket client = serverSocket.accept();
-                        logger.info("✅ Client mới kết nối: {}", client.getInetAddress());
-                        ClientHandler handler = new ClientHandler(client, userDAO, friendDAO, messageDAO, groupDAO,
-                                clients, onlineUsers, ChatServer::updateUserList, broadcaster,
-                                ChatServer::addActivity);
-                        clientHandlers.add(handler);
-                        handler.start();
-                    } catch (IOException e) {
-                        if (serverRunning) {
-                            logger.error("Lỗi khi chấp nhận client: {}", e.getMessage());
+                engine.serve(connection -> {
+                    logger.info("✅ Client mới kết nối: {}", connection.getRemoteAddress());
+                    ClientHandler handler = new ClientHandler(connection, userDAO, friendDAO, messageDAO, groupDAO,
+                            clients, onlineUsers, ChatServer::updateUserList, broadcaster,
+                            ChatServer::addActivity);
+                    clientHandlers.add(handler);
+                    return () -> {
+                        try {
+                            handler.run();
+                        } finally {
+                            clientHandlers.remove(handler);
                         }
-                    }
-                }
+                    };
+                });
             } catch (java.net.BindException e) {
                 logger.error("==========================================");
                 logger.error("❌ KHÔNG THỂ BIND PORT {}!", port);
@@ -248,13 +355,28 @@ public class ChatServer {
         serverRunning = false;
 
         // Đóng server socket
-        try {
-            if (serverSocket != null && !serverSocket.isClosed()) {
-                serverSocket.close();
-                logger.debug("Server socket đã được đóng");
-            }
-        } catch (IOException e) {
-            logger.error("Lỗi khi đóng server socket: {}", e.getMessage());
+        ConnectionEngine engine = connectionEngine;
+        if (engine != null) {
+            engine.stop();
+            connectionEngine = null;
+            logger.debug("Server socket đã được đóng");
+        }
+
+        if (blobMigrator != null) {
+            blobMigrator.stop();
+            blobMigrator = null;
+        }
+
+        if (presence != null) {
+            presence.stop();
+        }
+
+        if (messagePersist != null) {
+            messagePersist.stop();
+        }
+
+        if (searchIndex != null) {
+            searchIndex.stop();
         }
 
         // Đợi thread kết thúc (tối đa 2 giây)
@@ -287,16 +409,14 @@ public class ChatServer {
      * Thêm hoạt động vào nhật ký
      */
     public static void addActivity(UserActivity activity) {
-        if (userActivityDAO != null) {
-            try {
-                userActivityDAO.logActivity(activity);
-            } catch (Exception e) {
-                logger.error("Lỗi ghi log DB: {}", e.getMessage());
-            }
-        }
+        // Bảng hoạt động trên ServerUI đọc thẳng bản ghi trong RAM, không chờ DB
         if (activityCallback != null) {
             activityCallback.accept(activity);
         }
+        // Ghi DB theo lô ở luồng Activity-Writer
+        if (activityLog != null) {
+            activityLog.submit(activity);
+        }
     }
 
 
@@ -350,13 +470,13 @@ public class ChatServer {
                     for (ClientHandler handler : clientHandlers) {
                         if (handler.getUserId() == userId) {
                             try {
-                                // Đợi một chút để client nhận message
-                                Thread.sleep(100);
-                                handler.getSocket().close();
+                                // Đợi hàng đợi gửi xong KICKED rồi mới đóng
+                                if (clientOut instanceof OutboundQueue queue) {
+                                    queue.awaitDrained(1000);
+                                }
+                                handler.getConnection().close();
                             } catch (IOException e) {
                                 logger.error("Lỗi khi đóng socket user bị kick: {}", e.getMessage());
-                            } catch (InterruptedException e) {
-                                Thread.currentThread().interrupt();
                             }
                             targetHandler = handler;
                             break;
@@ -432,6 +552,28 @@ public class ChatServer {
         return serverStartTime;
     }
 
+    /**
+     * Hàng đợi gửi của các user đang online (dùng bởi ServerUI)
+     */
+    public static Map<Integer, OutboundQueue> getOutboundQueues() {
+        Map<Integer, OutboundQueue> result = new java.util.TreeMap<>();
+        synchronized (clients) {
+            clients.forEach((id, out) -> {
+                if (out instanceof OutboundQueue queue) {
+                    result.put(id, queue);
+                }
+            });
+        }
+        return result;
+    }
+
+    /**
+     * Engine kết nối đang chạy (null khi server dừng)
+     */
+    public static ConnectionEngine getConnectionEngine() {
+        return connectionEngine;
+    }
+
     public static int getCurrentOnlineUsers() {
         return onlineUsers.size();
     }
@@ -452,6 +594,94 @@ public class ChatServer {
         return reportDAO;
     }
 
+    public static ReadCursorDAO getReadCursorDAO() {
+        return readCursorDAO;
+    }
+
+    /**
+     * Upload/download theo chunk (file tạm, checksum) dùng chung cho mọi phiên
+     */
+    public static FileTransferService getFileTransfers() {
+        return fileTransfers;
+    }
+
+    /**
+     * Số tin chưa đọc của từng user giữ trong RAM (DB chỉ dùng để nạp lại)
+     */
+    public static UnreadCounterService getUnreadCounters() {
+        return unreadCounters;
+    }
+
+    /**
+     * Thành viên nhóm giữ trong RAM cho gửi tin nhóm và kiểm tra quyền
+     */
+    public static GroupMembershipCache getGroupMembership() {
+        return groupMembership;
+    }
+
+    /**
+     * Danh sách bạn bè giữ trong RAM cho đăng nhập, presence và danh sách bạn bè
+     */
+    public static FriendGraphCache getFriendGraph() {
+        return friendGraph;
+    }
+
+    /**
+     * Danh bạ user trong RAM cho SEARCH_USERS
+     */
+    public static UserDirectory getUserDirectory() {
+        return userDirectory;
+    }
+
+    /**
+     * Avatar có phiên bản và ảnh dựng sẵn cho GET_AVATARS
+     */
+    public static AvatarStore getAvatars() {
+        return avatars;
+    }
+
+    /**
+     * Số lần chạy, lỗi và histogram độ trễ của từng lệnh (tab Hiệu năng của ServerUI)
+     */
+    public static CommandMetrics getCommandMetrics() {
+        return commandMetrics;
+    }
+
+    /**
+     * Group commit cho tin nhắn văn bản (SEND_MESSAGE, SEND_GROUP_MESSAGE)
+     */
+    public static MessagePersistPipeline getMessagePersist() {
+        return messagePersist;
+    }
+
+    /**
+     * Chỉ mục tìm kiếm tin nhắn (null nếu server.search.enabled=false)
+     */
+    public static MessageSearchIndex getSearchIndex() {
+        return searchIndex;
+    }
+
+    /**
+     * Tin nhắn mới nhất của các cuộc trò chuyện đang hoạt động (null nếu server.history.cache.enabled=false)
+     */
+    public static HotConversationCache getRecentMessages() {
+        return recentMessages;
+    }
+
+    /**
+     * Nhật ký hoạt động ghi DB theo lô ở nền
+     */
+    public static ActivityLogWriter getActivityLog() {
+        return activityLog;
+    }
+
+    /**
+     * Trạng thái online/offline gửi cho bạn bè theo lô
+     */
+    public static PresenceService getPresence() {
+        return presence;
+    }
+
     // ============================================================
     // ADMIN ACCOUNT ACTIONS
     // ============================================================
@@ -510,6 +740,12 @@ public class ChatServer {
             }
             boolean ok = userDAO.deleteUser(userId);
             if (ok) {
+                groupMembership.onUserDeleted(userId);
+                friendGraph.onUserDeleted(userId);
+                userDirectory.remove(userId);
+                if (recentMessages != null) {
+                    recentMessages.clear();
+                }
                 addActivity(new UserActivity(userId, "System", "DELETE_ACCOUNT", LocalDateTime.now()));
                 logger.info("Admin đã xóa tài khoản user {}", userId);
             }
@@ -526,12 +762,15 @@ public class ChatServer {
     public static boolean deleteGroupAdmin(int groupId) {
         try {
             // Thông báo tất cả thành viên đang online
-            java.util.List<Integer> members = groupDAO.getGroupMembers(groupId);
+            int[] members = groupMembership.getMembers(groupId);
             for (int memberId : members) {
                 broadcastToUser(memberId, "GROUP_DISBANDED|" + groupId + "|Nhóm đã bị Admin giải tán.");
             }
-            boolean ok = groupDAO.deleteGroup(groupId);
+            boolean ok = groupMembership.deleteGroup(groupId);
             if (ok) {
+                for (int memberId : members) {
+                    unreadCounters.onLeftGroup(memberId, groupId);
+                }
                 addActivity(new UserActivity(0, "System", "DELETE_GROUP", groupId, null, LocalDateTime.now()));
                 logger.info("Admin đã giải tán nhóm {}", groupId);
             }
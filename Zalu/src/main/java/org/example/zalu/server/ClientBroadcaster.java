@@ -1,26 +1,32 @@
 package org.example.zalu.server;
 
-import org.example.zalu.dao.GroupDAO;
 import org.example.zalu.model.Message;
+import org.example.zalu.server.group.GroupMembershipCache;
+import org.example.zalu.server.metrics.CommandMetrics;
 
 import java.io.ObjectOutputStream;
-import java.util.List;
 import java.util.Map;
 
 /**
- * Utility class để broadcast messages đến clients
+ * Utility class để broadcast messages đến clients.
+ * Stream trong map là OutboundQueue của người nhận: writeObject()/flush() chỉ đưa frame vào
+ * hàng đợi, nên người gửi không bị chặn bởi client chậm và không ghi chồng lên phản hồi của họ.
+ * Thời gian mỗi lần broadcast được tính vào fan-out của lệnh đang chạy ({@link CommandMetrics}).
  */
 public class ClientBroadcaster {
     private final Map<Integer, ObjectOutputStream> clients;
+    private final GroupMembershipCache groupMembership;
 
-    public ClientBroadcaster(Map<Integer, ObjectOutputStream> clients) {
+    public ClientBroadcaster(Map<Integer, ObjectOutputStream> clients, GroupMembershipCache groupMembership) {
         this.clients = clients;
+        this.groupMembership = groupMembership;
     }
 
     /**
      * Broadcast message đến cả người gửi và người nhận
      */
     public void broadcastMessage(Message msg, int receiverId) {
+        long start = System.nanoTime();
         int senderId = msg.getSenderId();
 
         // Gửi cho người nhận
@@ -70,14 +76,16 @@ public class ClientBroadcaster {
                 System.out.println("Không gửi được cho sender " + senderId);
             }
         }
+        CommandMetrics.recordFanOut(start);
     }
 
     /**
      * Broadcast group message đến tất cả thành viên
      */
-    public void broadcastGroupMessage(Message msg, int groupId, GroupDAO groupDAO) {
+    public void broadcastGroupMessage(Message msg, int groupId) {
+        long start = System.nanoTime();
         try {
-            List<Integer> members = groupDAO.getGroupMembers(groupId);
+            int[] members = groupMembership.getMembers(groupId);
             for (int memberId : members) {
                 ObjectOutputStream target = clients.get(memberId);
                 if (target != null) {
@@ -107,12 +115,50 @@ public class ClientBroadcaster {
         } catch (Exception e) {
             System.out.println("Lỗi khi lấy danh sách thành viên nhóm: " + e.getMessage());
         }
+        CommandMetrics.recordFanOut(start);
+    }
+
+    /**
+     * Báo có file mới mà không gửi kèm dữ liệu (file lớn upload theo chunk).
+     * Client tải nội dung khi cần bằng DOWNLOAD_BEGIN/DOWNLOAD_CHUNK với messageId.
+     * Format: NEW_FILE_REF|senderId|receiverId|messageId|size|fileName
+     * hoặc NEW_GROUP_FILE_REF|groupId|senderId|messageId|size|fileName
+     */
+    public void broadcastFileReference(Message msg, long fileSize) {
+        long start = System.nanoTime();
+        if (msg.getGroupId() > 0) {
+            sendToGroup(msg.getGroupId(), "NEW_GROUP_FILE_REF|" + msg.getGroupId() + "|" + msg.getSenderId()
+                    + "|" + msg.getId() + "|" + fileSize + "|" + msg.getFileName());
+        } else {
+            String event = "NEW_FILE_REF|" + msg.getSenderId() + "|" + msg.getReceiverId() + "|" + msg.getId() + "|"
+                    + fileSize + "|" + msg.getFileName();
+            send(msg.getReceiverId(), event);
+            if (msg.getSenderId() != msg.getReceiverId()) {
+                send(msg.getSenderId(), event);
+            }
+        }
+        CommandMetrics.recordFanOut(start);
     }
 
     /**
      * Broadcast message đến một user cụ thể
      */
     public void broadcastToUser(int userId, String message) {
+        long start = System.nanoTime();
+        send(userId, message);
+        CommandMetrics.recordFanOut(start);
+    }
+
+    /**
+     * Broadcast message đến tất cả thành viên trong nhóm
+     */
+    public void broadcastToGroup(int groupId, String message) {
+        long start = System.nanoTime();
+        sendToGroup(groupId, message);
+        CommandMetrics.recordFanOut(start);
+    }
+
+    private void send(int userId, String message) {
         ObjectOutputStream out = clients.get(userId);
         if (out != null) {
             try {
@@ -124,14 +170,11 @@ public class ClientBroadcaster {
         }
     }
 
-    /**
-     * Broadcast message đến tất cả thành viên trong nhóm
-     */
-    public void broadcastToGroup(int groupId, String message, GroupDAO groupDAO) {
+    private void sendToGroup(int groupId, String message) {
         try {
-            List<Integer> members = groupDAO.getGroupMembers(groupId);
+            int[] members = groupMembership.getMembers(groupId);
             for (int memberId : members) {
-                broadcastToUser(memberId, message);
+                send(memberId, message);
             }
         } catch (Exception e) {
             System.out.println("Lỗi khi broadcast đến nhóm " + groupId + ": " + e.getMessage());
@@ -1,33 +1,151 @@
 package org.example.zalu.server;
 
 import org.example.zalu.dao.*;
+import org.example.zalu.exception.file.FileOperationException;
 import org.example.zalu.model.Message;
 import org.example.zalu.model.User;
 import org.example.zalu.model.UserActivity;
+import org.example.zalu.protocol.BinaryObjectInputStream;
+import org.example.zalu.protocol.BinaryObjectOutputStream;
+import org.example.zalu.protocol.FileRegion;
+import org.example.zalu.protocol.Opcode;
+import org.example.zalu.protocol.Packet;
+import org.example.zalu.protocol.PartBudget;
+import org.example.zalu.protocol.ProtocolHandshake;
+import org.example.zalu.server.command.Command;
+import org.example.zalu.server.command.CommandRegistry;
+import org.example.zalu.server.directory.UserDirectory;
+import org.example.zalu.server.group.GroupMembershipCache;
+import org.example.zalu.server.history.HistoryCursor;
+import org.example.zalu.server.history.HotConversationCache;
+import org.example.zalu.server.net.ClientConnection;
+import org.example.zalu.server.search.MessageSearchIndex;
+import org.example.zalu.server.storage.BlobStore;
+import org.example.zalu.server.transfer.FileTransferService;
+import org.example.zalu.server.transfer.UploadSession;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedInputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
-import java.net.Socket;
 import java.net.SocketException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 import java.util.function.Consumer;
 
 /**
- * Handler để xử lý kết nối từ một client
+ * Handler để xử lý kết nối từ một client.
+ * Thread chạy handler do ConnectionEngine quyết định (platform, virtual hoặc NIO).
  */
-public class ClientHandler extends Thread {
+public class ClientHandler implements Runnable {
     private static final Logger logger = LoggerFactory.getLogger(ClientHandler.class);
 
-    private final Socket socket;
+    // Bảng lệnh dùng chung cho mọi phiên, tra theo opcode thay cho chuỗi startsWith
+    private static final CommandRegistry COMMANDS = new CommandRegistry();
+    // Lệnh chỉ đọc chạy trên virtual thread riêng để không chặn lệnh kế tiếp của cùng kết nối
+    private static final ExecutorService OFFLOAD_EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+    private static final int MAX_OFFLOADED_PER_SESSION = ServerConfig
+            .getInt("server.command.maxConcurrentPerSession", 4);
+    // Số tin nhắn mỗi trang GET_HISTORY_PAGE
+    private static final int HISTORY_PAGE_SIZE = ServerConfig.getInt("server.history.pageSize", 50);
+    private static final int HISTORY_MAX_PAGE_SIZE = ServerConfig.getInt("server.history.maxPageSize", 200);
+    // Giới hạn tin mới / tombstone trong LOGIN_SNAPSHOT, vượt quá thì client đồng bộ lại từ đầu
+    private static final int SYNC_MAX_MESSAGES = ServerConfig.getInt("server.sync.maxMessages", 500);
+    private static final int SYNC_MAX_CHANGES = ServerConfig.getInt("server.sync.maxChanges", 1000);
+    // Số user tối đa trả về cho SEARCH_USERS
+    private static final int USER_SEARCH_LIMIT = ServerConfig.getInt("server.users.searchLimit", 20);
+    // Số kết quả mỗi trang SEARCH_MESSAGES
+    private static final int SEARCH_PAGE_SIZE = ServerConfig.getInt("server.search.pageSize", 50);
+    private static final int SEARCH_MAX_PAGE_SIZE = ServerConfig.getInt("server.search.maxPageSize", 200);
+    // Bộ nhớ ghép frame PART từ client: mỗi kết nối và chung cho cả server
+    private static final PartBudget PART_BUDGET = new PartBudget(
+            ServerConfig.getLong("server.inbound.maxPartBytes", 32L * 1024 * 1024),
+            ServerConfig.getLong("server.inbound.maxPartBytesTotal", 256L * 1024 * 1024));
+
+    static {
+        COMMANDS
+                .register(Command.of(Opcode.SEND_MESSAGE, ClientHandler::handleSendMessage))
+                .register(Command.of(Opcode.SEND_FILE, ClientHandler::handleSendFile))
+                .register(Command.of(Opcode.SEND_VOICE, ClientHandler::handleSendFile))
+                .register(Command.of(Opcode.SEND_GROUP_FILE, ClientHandler::handleSendGroupFile))
+                .register(Command.of(Opcode.SEND_GROUP_VOICE, ClientHandler::handleSendGroupFile))
+                .register(Command.of(Opcode.SEND_FRIEND_REQUEST, ClientHandler::handleSendFriendRequest))
+                .register(Command.of(Opcode.ACCEPT_FRIEND, ClientHandler::handleAcceptFriend))
+                .register(Command.of(Opcode.REJECT_FRIEND, ClientHandler::handleRejectFriend))
+                .register(Command.of(Opcode.LOGOUT, ClientHandler::handleLogout))
+                .register(Command.of(Opcode.SEND_GROUP_MESSAGE, ClientHandler::handleSendGroupMessage))
+                .register(Command.of(Opcode.MARK_AS_READ, ClientHandler::handleMarkAsRead))
+                .register(Command.of(Opcode.DELETE_MESSAGE, ClientHandler::handleDeleteMessage))
+                .register(Command.of(Opcode.RECALL_MESSAGE, ClientHandler::handleRecallMessage))
+                .register(Command.of(Opcode.EDIT_MESSAGE, ClientHandler::handleEditMessage))
+                .register(Command.of(Opcode.CREATE_GROUP, ClientHandler::handleCreateGroup))
+                .register(Command.of(Opcode.GET_FILE, ClientHandler::handleGetFile).offloadable())
+                .register(Command.of(Opcode.GET_GROUPS, ClientHandler::handleGetGroups))
+                .register(Command.of(Opcode.GET_FRIENDS, ClientHandler::handleGetFriends))
+                .register(Command.of(Opcode.GET_FRIEND_REQUESTS_INFO, ClientHandler::handleGetFriendRequestsInfo)
+                        .offloadable())
+                .register(Command.of(Opcode.GET_FRIENDS_LIST_FULL, ClientHandler::handleGetFriendsListFull)
+                        .offloadable())
+                .register(Command.of(Opcode.GET_CONVERSATION, ClientHandler::handleGetConversation).offloadable())
+                .register(Command.of(Opcode.GET_GROUP_CONVERSATION, ClientHandler::handleGetGroupConversation)
+                        .offloadable())
+                .register(Command.of(Opcode.GET_HISTORY_PAGE, ClientHandler::handleGetHistoryPage).offloadable())
+                .register(Command.of(Opcode.GET_GROUP_INFO, ClientHandler::handleGetGroupInfo))
+                .register(Command.of(Opcode.GET_FRIENDS_NOT_IN_GROUP, ClientHandler::handleGetFriendsNotInGroup)
+                        .offloadable())
+                .register(Command.of(Opcode.GET_GROUP_MEMBERS, ClientHandler::handleGetGroupMembers))
+                .register(Command.of(Opcode.ADD_GROUP_MEMBER, ClientHandler::handleAddGroupMember))
+                .register(Command.of(Opcode.GET_MEMBER_ROLE, ClientHandler::handleGetMemberRole))
+                .register(Command.of(Opcode.LEAVE_GROUP, ClientHandler::handleLeaveGroup))
+                .register(Command.of(Opcode.DELETE_GROUP, ClientHandler::handleDeleteGroup))
+                .register(Command.of(Opcode.REMOVE_GROUP_MEMBER, ClientHandler::handleRemoveGroupMember))
+                // Trả về List<User> trần, client ghép theo thứ tự nên phải chạy trên luồng đọc
+                .register(Command.of(Opcode.SEARCH_USERS, ClientHandler::handleSearchUsers))
+                // Trả về header USER_AVATAR rồi byte[] trần, client ghép theo thứ tự nên phải chạy trên luồng đọc
+                .register(Command.of(Opcode.GET_USER_AVATAR, ClientHandler::handleGetUserAvatar))
+                .register(Command.of(Opcode.GET_AVATARS, ClientHandler::handleGetAvatars).offloadable())
+                .register(Command.of(Opcode.GET_PENDING_REQUESTS, ClientHandler::handleGetPendingRequests))
+                .register(Command.of(Opcode.GET_MESSAGES, ClientHandler::handleGetMessages))
+                .register(Command.of(Opcode.GET_GROUP_MESSAGES, ClientHandler::handleGetGroupMessages))
+                .register(Command.of(Opcode.GET_USER_BY_ID, ClientHandler::handleGetUserById))
+                .register(Command.of(Opcode.GET_USER_STATS, ClientHandler::handleGetUserStats).offloadable())
+                .register(Command.of(Opcode.KEEP_ALIVE, ClientHandler::handleKeepAlive).anonymous())
+                .register(Command.of(Opcode.REPORT_USER, ClientHandler::handleReportUser))
+                .register(Command.of(Opcode.TYPING, ClientHandler::handleTyping))
+                .register(Command.of(Opcode.TYPING_STOP, ClientHandler::handleTypingStop))
+                .register(Command.of(Opcode.PRESENCE_SUBSCRIBE, ClientHandler::handlePresenceSubscribe))
+                .register(Command.of(Opcode.SEARCH_MESSAGES, ClientHandler::handleSearchMessages).offloadable())
+                .register(Command.of(Opcode.GET_PINNED_MESSAGES, ClientHandler::handleGetPinnedMessages).offloadable())
+                .register(Command.of(Opcode.PIN_MESSAGE, ClientHandler::handlePinMessage))
+                .register(Command.of(Opcode.VIDEO_CALL_REQUEST, ClientHandler::handleVideoCallRequest))
+                .register(Command.of(Opcode.VIDEO_CALL_ACCEPT, ClientHandler::handleVideoCallAccept))
+                .register(Command.of(Opcode.VIDEO_CALL_REJECT, ClientHandler::handleVideoCallReject))
+                .register(Command.of(Opcode.VIDEO_CALL_END, ClientHandler::handleVideoCallEnd))
+                .register(Command.of(Opcode.UPLOAD_BEGIN, ClientHandler::handleUploadBegin))
+                .register(Command.of(Opcode.UPLOAD_CHUNK, ClientHandler::handleUploadChunk))
+                .register(Command.of(Opcode.UPLOAD_END, ClientHandler::handleUploadEnd))
+                .register(Command.of(Opcode.DOWNLOAD_BEGIN, ClientHandler::handleDownloadBegin).offloadable())
+                .register(Command.of(Opcode.DOWNLOAD_CHUNK, ClientHandler::handleDownloadChunk));
+    }
+
+    private final ClientConnection connection;
     private final UserDAO userDAO;
     private final FriendDAO friendDAO;
     private final MessageDAO messageDAO;
@@ -38,22 +156,33 @@ public class ClientHandler extends Thread {
     private final ClientBroadcaster broadcaster;
     private final Consumer<UserActivity> activityCallback;
 
-    private ObjectOutputStream out;
+    // Mọi phản hồi và broadcast tới client này đều đi qua hàng đợi gửi
+    private OutboundQueue out;
     private ObjectInputStream in;
     private int userId = -1;
+    private int protocolVersion = ProtocolHandshake.LEGACY;
     // Lưu metadata file tạm thời
     private int pendingFileReceiverId = -1;
     private int pendingFileGroupId = -1;
     private String pendingFileName = null;
-
-    public ClientHandler(Socket socket, UserDAO userDAO, FriendDAO friendDAO,
+    // Header UPLOAD_CHUNK đang chờ byte[] đi kèm
+    private String pendingUploadId = null;
+    private long pendingUploadOffset;
+    private int pendingUploadLength;
+    // File đã kiểm tra quyền qua DOWNLOAD_BEGIN, DOWNLOAD_CHUNK chỉ phục vụ các file này
+    private final Set<Integer> downloadGrants = ConcurrentHashMap.newKeySet();
+    private final Map<Integer, String> downloadRefs = new ConcurrentHashMap<>();
+    // Giới hạn số lệnh offload chạy song song của phiên; hết lượt thì chạy ngay trên thread đọc
+    private final Semaphore offloadPermits = new Semaphore(MAX_OFFLOADED_PER_SESSION);
+
+    public ClientHandler(ClientConnection connection, UserDAO userDAO, FriendDAO friendDAO,
             MessageDAO messageDAO, GroupDAO groupDAO,
             Map<Integer, ObjectOutputStream> clients,
             Map<Integer, String> onlineUsers,
             Runnable updateUserListCallback,
             ClientBroadcaster broadcaster,
             Consumer<UserActivity> activityCallback) {
-        this.socket = socket;
+        this.connection = connection;
         this.userDAO = userDAO;
         this.friendDAO = friendDAO;
         this.messageDAO = messageDAO;
@@ -63,57 +192,86 @@ public class ClientHandler extends Thread {
         this.updateUserListCallback = updateUserListCallback;
         this.broadcaster = broadcaster;
         this.activityCallback = activityCallback;
-
-        try {
-            // Tăng timeout và buffer size cho file lớn
-            socket.setSoTimeout(120000); // 120 giây timeout
-            socket.setTcpNoDelay(true); // Tắt Nagle algorithm để gửi nhanh hơn
-            socket.setSendBufferSize(1024 * 1024 * 2); // 2MB send buffer
-            socket.setReceiveBufferSize(1024 * 1024 * 2); // 2MB receive buffer
-        } catch (Exception e) {
-            logger.error("Error configuring socket", e);
-        }
+        // Timeout đọc, TCP_NODELAY và kích thước buffer được ConnectionEngine cấu hình theo server.properties
     }
 
-    public Socket getSocket() {
-        return socket;
+    public ClientConnection getConnection() {
+        return connection;
     }
 
     public int getUserId() {
         return userId;
     }
 
+    /** Bảng lệnh của server, dùng để gắn interceptor (thống kê, giới hạn tần suất). */
+    public static CommandRegistry getCommandRegistry() {
+        return COMMANDS;
+    }
+
+    /** Version giao thức nhị phân của phiên, 0 nếu client dùng Java serialization kiểu cũ. */
+    public int getProtocolVersion() {
+        return protocolVersion;
+    }
+
+    /**
+     * Chuỗi lệnh kiểu cũ được tách theo '|', Packet từ giao thức nhị phân giữ nguyên từng trường.
+     */
+    private static Packet toPacket(Object obj) {
+        if (obj instanceof Packet packet) {
+            return packet;
+        }
+        if (obj instanceof String text) {
+            return Packet.parseLegacy(text);
+        }
+        return null;
+    }
+
     @Override
     public void run() {
         try {
-            out = new ObjectOutputStream(socket.getOutputStream());
-            out.flush();
-            in = new ObjectInputStream(socket.getInputStream());
+            // Xác định giao thức trước khi ghi bất kỳ byte nào: client cũ gửi header Java serialization
+            BufferedInputStream socketIn = new BufferedInputStream(connection.getInputStream(), 64 * 1024);
+            protocolVersion = ProtocolHandshake.accept(socketIn, connection.getOutputStream());
+            ObjectOutputStream socketOut;
+            if (protocolVersion == ProtocolHandshake.LEGACY) {
+                socketOut = new ObjectOutputStream(connection.getOutputStream());
+                socketOut.flush();
+                in = new ObjectInputStream(socketIn);
+            } else {
+                socketOut = new BinaryObjectOutputStream(connection.getOutputStream(), protocolVersion);
+                in = new BinaryObjectInputStream(socketIn, protocolVersion, PART_BUDGET);
+            }
+            logger.debug("Client {} dùng giao thức {}", connection.getRemoteAddress(),
+                    protocolVersion == ProtocolHandshake.LEGACY ? "legacy" : "binary v" + protocolVersion);
+            out = new OutboundQueue(socketOut, connection, protocolVersion >= 2);
 
             // Đọc lệnh đầu tiên (LOGIN / REGISTER / RESUME)
             Object obj = in.readObject();
-            if (!(obj instanceof String request))
+            Packet first = toPacket(obj);
+            if (first == null)
                 return;
+            String request = first.toLegacy();
 
             if (request.startsWith("REGISTER_REQUEST|")) {
-                handleRegister(request);
+                handleRegister(first);
                 return; // Sau khi đăng ký xong thì đóng kết nối, client sẽ tự login lại
             }
 
             boolean authenticated = false;
 
             if (request.startsWith("RESUME_SESSION|")) {
-                authenticated = handleResumeSession(request);
+                authenticated = handleResumeSession(first);
             }
 
             if (!authenticated && request.startsWith("LOGIN_REQUEST|")) {
-                authenticated = handleLogin(request);
+                authenticated = handleLogin(first);
             }
 
             if (!authenticated) {
                 out.writeObject("ERROR|AUTH_REQUIRED");
                 out.flush();
-                socket.close();
+                out.awaitDrained(2000);
+                connection.close();
                 return;
             }
 
@@ -125,9 +283,10 @@ public class ClientHandler extends Thread {
                     logger.debug("Server: Đã đọc object từ user {}, type: {}", userId,
                             (obj != null ? obj.getClass().getName() : "null"));
 
-                    if (obj instanceof String msg) {
-                        logger.debug("Server: Nhận String message: {}", msg);
-                        handleMessage(msg);
+                    if (obj instanceof String || obj instanceof Packet) {
+                        Packet packet = toPacket(obj);
+                        logger.debug("Server: Nhận lệnh: {}", packet);
+                        dispatch(packet);
                     } else if (obj instanceof org.example.zalu.model.ClientErrorLog) {
                         org.example.zalu.model.ClientErrorLog errorLog = (org.example.zalu.model.ClientErrorLog) obj;
                         logger.error("REPORTED CLIENT ERROR from user {}: {}", userId, errorLog);
@@ -144,8 +303,16 @@ public class ClientHandler extends Thread {
                             // Ensure the user is updating their own profile
                             if (updatedUser.getId() == userId) {
                                 try {
-                                    if (userDAO.updateUser(updatedUser)) {
-                                        out.writeObject("UPDATE_PROFILE|SUCCESS");
+                                    // Client cũ (< v4) không gửi avatarVersion: ảnh trùng ảnh đã lưu thì giữ nguyên
+                                    boolean newAvatar = userDAO.isNewAvatar(updatedUser);
+                                    if (userDAO.updateUser(updatedUser, newAvatar)) {
+                                        int avatarVersion = updatedUser.getAvatarVersion();
+                                        if (newAvatar) {
+                                            ChatServer.getAvatars().publish(userId, avatarVersion,
+                                                    updatedUser.getAvatarData());
+                                        }
+                                        ChatServer.getUserDirectory().put(updatedUser);
+                                        out.writeObject("UPDATE_PROFILE|SUCCESS|" + avatarVersion);
                                         // Update cache/list
                                         onlineUsers.put(userId, updatedUser.getUsername()); // or FullName if we tracked
                                                                                             // that
@@ -154,12 +321,13 @@ public class ClientHandler extends Thread {
 
                                         // Broadcast profile update to all friends so they can reload avatar
                                         try {
-                                            List<Integer> friendIds = friendDAO.getFriendsByUserId(userId);
+                                            int[] friendIds = ChatServer.getFriendGraph().getFriends(userId);
                                             for (int friendId : friendIds) {
-                                                broadcaster.broadcastToUser(friendId, "USER_PROFILE_UPDATED|" + userId);
+                                                broadcaster.broadcastToUser(friendId,
+                                                        "USER_PROFILE_UPDATED|" + userId + "|" + avatarVersion);
                                             }
                                             logger.debug("Broadcasted profile update to {} friends of user {}",
-                                                    friendIds.size(), userId);
+                                                    friendIds.length, userId);
                                         } catch (Exception e) {
                                             logger.error("Error broadcasting profile update", e);
                                         }
@@ -178,9 +346,14 @@ public class ClientHandler extends Thread {
                     } else if (obj instanceof byte[]) {
                         byte[] fileData = (byte[]) obj;
                         ChatServer.TOTAL_BYTES_TRANSFERRED.addAndGet(fileData.length);
-                        logger.info("Server: Nhận được file data từ user {}, size: {} bytes", userId, fileData.length);
-                        handleFileData(fileData);
-                        logger.debug("Server: Đã xử lý xong file data từ user {}", userId);
+                        if (pendingUploadId != null) {
+                            handleUploadChunkData(fileData);
+                        } else {
+                            logger.info("Server: Nhận được file data từ user {}, size: {} bytes", userId,
+                                    fileData.length);
+                            handleFileData(fileData);
+                            logger.debug("Server: Đã xử lý xong file data từ user {}", userId);
+                        }
                     } else {
                         logger.warn("Server: Nhận object không xác định từ user {}: {}", userId,
                                 obj.getClass().getName());
@@ -211,8 +384,8 @@ public class ClientHandler extends Thread {
         }
     }
 
-    private void handleRegister(String msg) throws IOException {
-        String[] parts = msg.split("\\|");
+    private void handleRegister(Packet packet) throws IOException {
+        String[] parts = packet.split();
         if (parts.length < 6) {
             out.writeObject("REGISTER_RESPONSE|FAIL|Thiếu dữ liệu. Vui lòng điền đầy đủ thông tin.");
             out.flush();
@@ -230,6 +403,7 @@ public class ClientHandler extends Thread {
                     "/images/default-avatar.jpg", "", null, "offline", "other");
             boolean ok = userDAO.register(newUser);
             if (ok) {
+                ChatServer.getUserDirectory().put(newUser);
                 out.writeObject("REGISTER_RESPONSE|SUCCESS|Đăng ký thành công. Hãy đăng nhập để tiếp tục.");
             } else {
                 out.writeObject("REGISTER_RESPONSE|FAIL|Không thể tạo tài khoản. Thử lại sau.");
@@ -245,16 +419,17 @@ public class ClientHandler extends Thread {
             out.writeObject("REGISTER_RESPONSE|FAIL|Lỗi server: " + e.getMessage());
         } finally {
             out.flush();
+            out.awaitDrained(2000);
             try {
-                socket.close();
+                connection.close();
             } catch (IOException ignored) {
             }
         }
     }
 
-    private boolean handleLogin(String request) throws Exception {
-        logger.info("Server: Xử lý LOGIN_REQUEST: {}", request);
-        String[] p = request.split("\\|");
+    private boolean handleLogin(Packet packet) throws Exception {
+        logger.info("Server: Xử lý LOGIN_REQUEST: {}", packet);
+        String[] p = packet.split();
         if (p.length < 3) {
             logger.warn("Server: LOGIN_REQUEST thiếu thông tin");
             out.writeObject("LOGIN_RESPONSE|FAIL|Thiếu thông tin đăng nhập");
@@ -269,7 +444,7 @@ public class ClientHandler extends Thread {
             java.nio.file.Files.write(java.nio.file.Paths.get(logPath), (String.format(
                     "{\"id\":\"log_%d_F\",\"timestamp\":%d,\"location\":\"ClientHandler.java:204\",\"message\":\"Login attempt - before DB call\",\"data\":{\"username\":\"%s\",\"threadName\":\"%s\",\"clientAddress\":\"%s\"},\"sessionId\":\"debug-session\",\"runId\":\"run1\",\"hypothesisId\":\"F\"}\n",
                     System.currentTimeMillis(), System.currentTimeMillis(), p[1], Thread.currentThread().getName(),
-                    socket.getRemoteSocketAddress())).getBytes(), java.nio.file.StandardOpenOption.CREATE,
+                    connection.getRemoteAddress())).getBytes(), java.nio.file.StandardOpenOption.CREATE,
                     java.nio.file.StandardOpenOption.APPEND);
         } catch (Exception e) {
         }
@@ -291,7 +466,7 @@ public class ClientHandler extends Thread {
             out.writeObject("LOGIN_RESPONSE|FAIL|Sai tài khoản hoặc mật khẩu");
             out.flush();
             // KHÔNG đóng socket ở đây để client có thể thử lại mà không cần kết nối lại
-            // socket.close();
+            // connection.close();
             return false;
         }
 
@@ -331,8 +506,87 @@ public class ClientHandler extends Thread {
         out.writeObject("LOGIN_RESPONSE|SUCCESS|" + userId);
         out.flush();
 
+        // Client mới gửi kèm mốc cache: LOGIN_REQUEST|username|password|sinceId|syncedAt
+        if (p.length >= 4) {
+            sendLoginSnapshot(parseSyncInt(p, 3), parseSyncLong(p, 4));
+        } else {
+            sendLegacyLoginData();
+        }
+
+        // 7. Bạn bè được báo online theo lô sau khoảng chống chập chờn
+        ChatServer.getPresence().onConnected(userId);
+
+        logger.info("✓ {} (ID: {}) đăng nhập thành công", user.getUsername(), userId);
+        return true;
+    }
+
+    /**
+     * Dữ liệu khởi tạo gửi một lần (LOGIN_SNAPSHOT) sau LOGIN_RESPONSE hoặc RESUME_SESSION: bạn bè, lời mời
+     * đang chờ, nhóm, user online, số tin chưa đọc và phần tin nhắn client chưa có.
+     * <p>
+     * Tin nhắn chỉ gồm các tin có id &gt; sinceId (tối đa {@code server.sync.maxMessages}) cùng tombstone là
+     * các tin cũ hơn đã bị xóa/thu hồi/sửa sau mốc syncedAt. Khi không đồng bộ nối tiếp được (cache trống,
+     * DB chưa có changed_at, quá nhiều thay đổi) thì đặt reset để client bỏ cache tin nhắn; các tin cũ
+     * hơn được tải theo trang khi mở chat.
+     */
+    private void sendLoginSnapshot(int sinceId, long syncedAt) throws Exception {
+        List<Integer> friendIds = ChatServer.getFriendGraph().getFriendList(userId);
+        List<org.example.zalu.model.GroupInfo> userGroups = groupDAO.getUserGroups(userId);
+
+        Map<String, Object> snapshot = new HashMap<>();
+        snapshot.put("type", "LOGIN_SNAPSHOT");
+        snapshot.put("friends", friendIds);
+        snapshot.put("pending", friendDAO.getPendingFriendRequests(userId));
+        snapshot.put("groups", userGroups);
+        snapshot.put("onlineUserIds", new ArrayList<>(onlineUsers.keySet()));
+        snapshot.put("unreadCounts", getUnreadCounts(friendIds, userGroups));
+        putMessageDelta(snapshot, sinceId, syncedAt);
+        out.writeObject(snapshot);
+        out.flush();
+        logger.debug("Đã gửi LOGIN_SNAPSHOT cho user {}: {} bạn bè, {} nhóm, {} tin mới, {} tombstone (reset={})",
+                userId, friendIds.size(), userGroups.size(), ((List<?>) snapshot.get("messages")).size(),
+                ((List<?>) snapshot.get("tombstones")).size(), snapshot.get("reset"));
+    }
+
+    private void putMessageDelta(Map<String, Object> snapshot, int sinceId, long syncedAt) {
+        List<Message> messages = new ArrayList<>();
+        List<Message> tombstones = new ArrayList<>();
+        boolean reset = sinceId <= 0 || syncedAt <= 0 || !messageDAO.isChangeTrackingEnabled();
+        long nextSyncedAt = syncedAt;
+        try {
+            // Lấy mốc trước khi truy vấn: thay đổi chen vào giữa chừng sẽ được gửi lại ở lần sau
+            nextSyncedAt = messageDAO.getDatabaseTime().getTime();
+            messages = messageDAO.getMessagesSince(userId, reset ? 0 : sinceId, SYNC_MAX_MESSAGES + 1);
+            if (messages.size() > SYNC_MAX_MESSAGES) {
+                messages = new ArrayList<>(messages.subList(messages.size() - SYNC_MAX_MESSAGES, messages.size()));
+                reset = true;
+            }
+            if (!reset) {
+                tombstones = messageDAO.getChangedMessages(userId, sinceId, new Timestamp(syncedAt),
+                        SYNC_MAX_CHANGES + 1);
+                if (tombstones.size() > SYNC_MAX_CHANGES) {
+                    tombstones = new ArrayList<>();
+                    reset = true;
+                }
+            }
+        } catch (Exception e) {
+            // Giữ nguyên mốc cũ của client, lần đăng nhập sau sẽ đồng bộ lại
+            logger.error("Lỗi khi lấy tin nhắn đồng bộ cho user {}", userId, e);
+            messages = new ArrayList<>();
+            tombstones = new ArrayList<>();
+            reset = false;
+            nextSyncedAt = syncedAt;
+        }
+        snapshot.put("messages", messages);
+        snapshot.put("tombstones", tombstones);
+        snapshot.put("reset", reset);
+        snapshot.put("syncedAt", nextSyncedAt);
+    }
+
+    /** Client cũ: gửi từng phần dữ liệu khởi tạo, kèm toàn bộ tin nhắn cũ. */
+    private void sendLegacyLoginData() throws Exception {
         // 1. Gửi danh sách bạn bè
-        List<Integer> friendIds = friendDAO.getFriendsByUserId(userId);
+        List<Integer> friendIds = ChatServer.getFriendGraph().getFriendList(userId);
         out.writeObject(friendIds);
         out.flush();
         logger.debug("Đã gửi danh sách {} bạn bè cho user {}", friendIds.size(), userId);
@@ -364,49 +618,57 @@ public class ClientHandler extends Thread {
         logger.debug("Đã gửi danh sách {} online users cho user {}", onlineUserIds.size(), userId);
 
         // 6. Gửi unread count cho từng friend và group
+        Map<Integer, Integer> unreadCountMap = getUnreadCounts(friendIds, userGroups);
+        out.writeObject(unreadCountMap);
+        out.flush();
+        logger.debug("Đã gửi unread count map với {} entries cho user {}", unreadCountMap.size(), userId);
+    }
+
+    /**
+     * Số tin chưa đọc theo chatId (id bạn bè, -id nhóm) của các bạn bè và nhóm hiện tại; bỏ qua các chat
+     * đã đọc hết. Đọc từ bộ đếm trong RAM, chỉ lần đầu của mỗi user mới chạy một truy vấn GROUP BY.
+     */
+    private Map<Integer, Integer> getUnreadCounts(List<Integer> friendIds,
+            List<org.example.zalu.model.GroupInfo> userGroups) {
         Map<Integer, Integer> unreadCountMap = new HashMap<>();
         try {
-            // Đếm unread messages cho từng friend
+            Map<Integer, Integer> counts = ChatServer.getUnreadCounters().getUnreadCounts(userId);
             for (int friendId : friendIds) {
-                int unreadCount = messageDAO.getUnreadCountForConversation(userId, friendId);
-                if (unreadCount > 0) {
+                Integer unreadCount = counts.get(friendId);
+                if (unreadCount != null && unreadCount > 0) {
                     unreadCountMap.put(friendId, unreadCount);
                 }
             }
-
-            // Đếm unread messages cho từng group
             for (org.example.zalu.model.GroupInfo group : userGroups) {
-                int unreadCount = messageDAO.getUnreadCountForGroup(userId, group.getId());
-                if (unreadCount > 0) {
-                    unreadCountMap.put(-group.getId(), unreadCount); // Negative ID for groups
+                Integer unreadCount = counts.get(-group.getId()); // Negative ID for groups
+                if (unreadCount != null && unreadCount > 0) {
+                    unreadCountMap.put(-group.getId(), unreadCount);
                 }
             }
-
-            out.writeObject(unreadCountMap);
-            out.flush();
-            logger.debug("Đã gửi unread count map với {} entries cho user {}", unreadCountMap.size(), userId);
         } catch (Exception e) {
             logger.error("Lỗi khi tính unread count", e);
-            out.writeObject(new HashMap<Integer, Integer>()); // Send empty map on error
-            out.flush();
+            unreadCountMap.clear(); // Send empty map on error
         }
+        return unreadCountMap;
+    }
 
-        // 7. Broadcast USER_ONLINE cho tất cả friends
+    private static int parseSyncInt(String[] p, int index) {
+        return (int) Math.max(0, Math.min(Integer.MAX_VALUE, parseSyncLong(p, index)));
+    }
+
+    private static long parseSyncLong(String[] p, int index) {
+        if (p.length <= index) {
+            return 0;
+        }
         try {
-            for (int friendId : friendIds) {
-                broadcaster.broadcastToUser(friendId, "USER_ONLINE|" + userId);
-            }
-            logger.debug("Đã broadcast USER_ONLINE cho {} friends của user {}", friendIds.size(), userId);
-        } catch (Exception e) {
-            logger.error("Lỗi khi broadcast USER_ONLINE", e);
+            return Long.parseLong(p[index]);
+        } catch (NumberFormatException e) {
+            return 0;
         }
-
-        logger.info("✓ {} (ID: {}) đăng nhập thành công", user.getUsername(), userId);
-        return true;
     }
 
-    private boolean handleResumeSession(String request) throws IOException {
-        String[] parts = request.split("\\|");
+    private boolean handleResumeSession(Packet packet) throws IOException {
+        String[] parts = packet.split();
         if (parts.length < 2) {
             out.writeObject("RESUME_SESSION|FAIL|INVALID_FORMAT");
             out.flush();
@@ -442,6 +704,8 @@ public class ClientHandler extends Thread {
             if (updateUserListCallback != null) {
                 updateUserListCallback.run();
             }
+            // Kết nối lại trong khoảng chống chập chờn thì bạn bè không thấy offline/online
+            ChatServer.getPresence().onConnected(userId);
 
             // KHÔNG ghi nhận hoạt động LOGIN cho resume session
             // Resume session không phải là login mới, chỉ là khôi phục kết nối
@@ -449,6 +713,17 @@ public class ClientHandler extends Thread {
             out.writeObject("RESUME_SESSION|OK");
             out.flush();
 
+            // Client mới gửi kèm mốc cache: RESUME_SESSION|userId|sinceId|syncedAt
+            if (parts.length >= 3) {
+                try {
+                    sendLoginSnapshot(parseSyncInt(parts, 2), parseSyncLong(parts, 3));
+                } catch (IOException e) {
+                    throw e;
+                } catch (Exception e) {
+                    logger.error("Lỗi khi gửi LOGIN_SNAPSHOT cho resume session của user {}", userId, e);
+                }
+            }
+
             // Nhắc client tự refresh lại danh sách
             broadcaster.broadcastToUser(userId, "FRIENDS_UPDATE");
             broadcaster.broadcastToUser(userId, "GROUPS_UPDATE");
@@ -466,1008 +741,1384 @@ public class ClientHandler extends Thread {
         }
     }
 
-    private void handleMessage(String msg) throws Exception {
-        if (msg.startsWith("SEND_MESSAGE|")) {
-            // Tăng biến đếm tin nhắn đã gửi (chỉ cho SEND_MESSAGE thực sự)
-            ChatServer.TOTAL_MESSAGES_SENT.incrementAndGet();
-
-            // Kiểm tra bị cấm chat không
-            if (ChatServer.isUserMuted(userId)) {
-                out.writeObject("SYSTEM_ANNOUNCEMENT|Bạn đang bị cấm chat, không thể gửi tin nhắn!");
-                out.flush();
-                return;
-            }
-            // Format: SEND_MESSAGE|receiverId|senderId|content or
-            // SEND_MESSAGE|receiverId|senderId|content|REPLY_TO|repliedToMessageId|repliedToContent
-            String[] p = msg.split("\\|");
-            int receiverId = Integer.parseInt(p[1]);
-            String content = p[3];
-            Message m = new Message(0, userId, receiverId, content, false, LocalDateTime.now());
-            m.setIsRead(false);
-            m.setGroupId(0);
-
-            // Parsing optional parts (REPLY_TO, TEMP_ID)
-            for (int i = 4; i < p.length; i++) {
-                if ("REPLY_TO".equals(p[i]) && i + 2 < p.length) {
-                    m.setRepliedToMessageId(Integer.parseInt(p[i + 1]));
-                    m.setRepliedToContent(p[i + 2]);
-                    i += 2;
-                } else if ("TEMP_ID".equals(p[i]) && i + 1 < p.length) {
-                    m.setTempId(p[i + 1]);
-                    i += 1;
-                }
-            }
-
-            // #region agent log
-            try {
-                String logPath = "d:\\Java\\LTM\\Zalu\\.cursor\\debug.log";
-                java.nio.file.Files.write(java.nio.file.Paths.get(logPath), (String.format(
-                        "{\"id\":\"log_%d_F\",\"timestamp\":%d,\"location\":\"ClientHandler.java:353\",\"message\":\"Saving message - before DB call\",\"data\":{\"senderId\":%d,\"receiverId\":%d,\"threadName\":\"%s\"},\"sessionId\":\"debug-session\",\"runId\":\"run1\",\"hypothesisId\":\"F\"}\n",
-                        System.currentTimeMillis(), System.currentTimeMillis(), userId, receiverId,
-                        Thread.currentThread().getName())).getBytes(), java.nio.file.StandardOpenOption.CREATE,
-                        java.nio.file.StandardOpenOption.APPEND);
-            } catch (Exception e) {
-            }
-            // #endregion
-            if (messageDAO.saveMessage(m)) {
-                // #region agent log
+    /**
+     * Tra lệnh theo opcode, kiểm tra đăng nhập và interceptor rồi chạy handler
+     * trên thread đọc hoặc trên executor riêng nếu lệnh cho phép.
+     */
+    private void dispatch(Packet packet) throws Exception {
+        Opcode opcode = packet.getOpcode();
+        Command command = COMMANDS.get(opcode);
+        if (command == null) {
+            logger.warn("Server: Lệnh không hỗ trợ từ user {}: {}", userId, packet.getName());
+            return;
+        }
+        if (command.requiresAuth() && userId <= 0) {
+            out.writeObject("ERROR|AUTH_REQUIRED");
+            out.flush();
+            return;
+        }
+        if (!COMMANDS.beforeCommand(this, opcode)) {
+            out.writeObject("ERROR|COMMAND_REJECTED|" + opcode.name());
+            out.flush();
+            return;
+        }
+        if (command.isOffloadable() && offloadPermits.tryAcquire()) {
+            long queuedAt = System.nanoTime();
+            OFFLOAD_EXECUTOR.execute(() -> {
                 try {
-                    String logPath = "d:\\Java\\LTM\\Zalu\\.cursor\\debug.log";
-                    java.nio.file.Files.write(java.nio.file.Paths.get(logPath), (String.format(
-                            "{\"id\":\"log_%d_F\",\"timestamp\":%d,\"location\":\"ClientHandler.java:355\",\"message\":\"Message saved successfully\",\"data\":{\"messageId\":%d,\"senderId\":%d,\"receiverId\":%d,\"threadName\":\"%s\"},\"sessionId\":\"debug-session\",\"runId\":\"run1\",\"hypothesisId\":\"F\"}\n",
-                            System.currentTimeMillis(), System.currentTimeMillis(), m.getId(), userId, receiverId,
-                            Thread.currentThread().getName())).getBytes(), java.nio.file.StandardOpenOption.CREATE,
-                            java.nio.file.StandardOpenOption.APPEND);
+                    execute(command, packet, System.nanoTime() - queuedAt);
                 } catch (Exception e) {
+                    logger.error("Server: Lỗi xử lý {} từ client {}: {}", opcode, userId, e.getMessage(), e);
+                } finally {
+                    offloadPermits.release();
                 }
-                // #endregion
-                broadcaster.broadcastMessage(m, receiverId);
-                out.writeObject("MESSAGE_SENT|OK|" + m.getId() + (m.getTempId() != null ? "|" + m.getTempId() : ""));
-
-                // Ghi nhận hoạt động gửi tin nhắn
-                if (activityCallback != null) {
-                    String encryptedContent = UserActivity.encryptContent(content);
-                    UserActivity messageActivity = new UserActivity(
-                            userId, onlineUsers.get(userId), "MESSAGE",
-                            receiverId, encryptedContent, LocalDateTime.now());
-                    activityCallback.accept(messageActivity);
-                }
-            }
-        } else if (msg.startsWith("SEND_FILE|") || msg.startsWith("SEND_VOICE|")) {
-            // Format: SEND_FILE|senderId|receiverId|fileName|fileSize
-            String[] p = msg.split("\\|");
-            if (p.length >= 5) {
-                // int senderId = Integer.parseInt(p[1]); // Not used
-                pendingFileReceiverId = Integer.parseInt(p[2]);
-                pendingFileName = p[3];
-                long fileSize = Long.parseLong(p[4]);
-                pendingFileGroupId = -1; // Reset group
-                logger.info("Server: Nhận SEND_FILE từ user {} - fileName: {}, receiverId: {}, fileSize: {} bytes",
-                        userId, pendingFileName, pendingFileReceiverId, fileSize);
-                out.writeObject("READY_FOR_FILE");
+            });
+        } else {
+            execute(command, packet, -1);
+        }
+    }
+
+    private void execute(Command command, Packet packet, long queuedNanos) throws Exception {
+        COMMANDS.commandStarted(this, command.getOpcode(), queuedNanos);
+        long start = System.nanoTime();
+        Throwable error = null;
+        try {
+            command.getHandler().handle(this, packet);
+        } catch (Exception e) {
+            error = e;
+            throw e;
+        } finally {
+            try {
                 out.flush();
-                logger.debug("Server: Đã gửi READY_FOR_FILE, chờ nhận file data...");
+            } finally {
+                COMMANDS.afterCommand(this, command.getOpcode(), System.nanoTime() - start, error);
             }
-        } else if (msg.startsWith("SEND_GROUP_FILE|") || msg.startsWith("SEND_GROUP_VOICE|")) {
-            // Format: SEND_GROUP_FILE|groupId|senderId|fileName|fileSize
-            String[] p = msg.split("\\|");
-            if (p.length >= 5) {
-                pendingFileGroupId = Integer.parseInt(p[1]);
-                // int senderId = Integer.parseInt(p[2]); // Not used
-                pendingFileName = p[3];
-                pendingFileReceiverId = -1; // Reset receiver
-                out.writeObject("READY_FOR_FILE");
-            }
-        } else if (msg.startsWith("SEND_FRIEND_REQUEST|")) {
-            String[] p = msg.split("\\|");
-            int senderId = Integer.parseInt(p[1]);
-            int receiverId = Integer.parseInt(p[2]);
+        }
+    }
+
+    private void handleSendMessage(Packet packet) throws Exception {
+        // Tăng biến đếm tin nhắn đã gửi (chỉ cho SEND_MESSAGE thực sự)
+        ChatServer.TOTAL_MESSAGES_SENT.incrementAndGet();
+
+        // Kiểm tra bị cấm chat không
+        if (ChatServer.isUserMuted(userId)) {
+            out.writeObject("SYSTEM_ANNOUNCEMENT|Bạn đang bị cấm chat, không thể gửi tin nhắn!");
+            out.flush();
+            return;
+        }
+        // Format: SEND_MESSAGE|receiverId|senderId|content or
+        // SEND_MESSAGE|receiverId|senderId|content|REPLY_TO|repliedToMessageId|repliedToContent
+        String[] p = packet.split();
+        int receiverId = Integer.parseInt(p[1]);
+        String content = p[3];
+        Message m = new Message(0, userId, receiverId, content, false, LocalDateTime.now());
+        m.setIsRead(false);
+        m.setGroupId(0);
+
+        // Parsing optional parts (REPLY_TO, TEMP_ID)
+        for (int i = 4; i < p.length; i++) {
+            if ("REPLY_TO".equals(p[i]) && i + 2 < p.length) {
+                m.setRepliedToMessageId(Integer.parseInt(p[i + 1]));
+                m.setRepliedToContent(p[i + 2]);
+                i += 2;
+            } else if ("TEMP_ID".equals(p[i]) && i + 1 < p.length) {
+                m.setTempId(p[i + 1]);
+                i += 1;
+            }
+        }
 
+        // #region agent log
+        try {
+            String logPath = "d:\\Java\\LTM\\Zalu\\.cursor\\debug.log";
+            java.nio.file.Files.write(java.nio.file.Paths.get(logPath), (String.format(
+                    "{\"id\":\"log_%d_F\",\"timestamp\":%d,\"location\":\"ClientHandler.java:353\",\"message\":\"Saving message - before DB call\",\"data\":{\"senderId\":%d,\"receiverId\":%d,\"threadName\":\"%s\"},\"sessionId\":\"debug-session\",\"runId\":\"run1\",\"hypothesisId\":\"F\"}\n",
+                    System.currentTimeMillis(), System.currentTimeMillis(), userId, receiverId,
+                    Thread.currentThread().getName())).getBytes(), java.nio.file.StandardOpenOption.CREATE,
+                    java.nio.file.StandardOpenOption.APPEND);
+        } catch (Exception e) {
+        }
+        // #endregion
+        // Group commit: chỉ trả về khi tin đã được commit cùng lô
+        if (ChatServer.getMessagePersist().save(m)) {
+            ChatServer.getUnreadCounters().onMessageSaved(m);
+            indexForSearch(m);
+            rememberRecent(m);
             // #region agent log
             try {
                 String logPath = "d:\\Java\\LTM\\Zalu\\.cursor\\debug.log";
                 java.nio.file.Files.write(java.nio.file.Paths.get(logPath), (String.format(
-                        "{\"id\":\"log_%d_G\",\"timestamp\":%d,\"location\":\"ClientHandler.java:419\",\"message\":\"Processing SEND_FRIEND_REQUEST\",\"data\":{\"senderId\":%d,\"receiverId\":%d,\"threadName\":\"%s\"},\"sessionId\":\"debug-session\",\"runId\":\"run1\",\"hypothesisId\":\"G\"}\n",
-                        System.currentTimeMillis(), System.currentTimeMillis(), senderId, receiverId,
+                        "{\"id\":\"log_%d_F\",\"timestamp\":%d,\"location\":\"ClientHandler.java:355\",\"message\":\"Message saved successfully\",\"data\":{\"messageId\":%d,\"senderId\":%d,\"receiverId\":%d,\"threadName\":\"%s\"},\"sessionId\":\"debug-session\",\"runId\":\"run1\",\"hypothesisId\":\"F\"}\n",
+                        System.currentTimeMillis(), System.currentTimeMillis(), m.getId(), userId, receiverId,
                         Thread.currentThread().getName())).getBytes(), java.nio.file.StandardOpenOption.CREATE,
                         java.nio.file.StandardOpenOption.APPEND);
             } catch (Exception e) {
             }
             // #endregion
+            broadcaster.broadcastMessage(m, receiverId);
+            out.writeObject("MESSAGE_SENT|OK|" + m.getId() + (m.getTempId() != null ? "|" + m.getTempId() : ""));
 
-            boolean success = friendDAO.sendFriendRequest(senderId, receiverId);
-
-            // #region agent log
-            try {
-                String logPath = "d:\\Java\\LTM\\Zalu\\.cursor\\debug.log";
-                java.nio.file.Files.write(java.nio.file.Paths.get(logPath), (String.format(
-                        "{\"id\":\"log_%d_G\",\"timestamp\":%d,\"location\":\"ClientHandler.java:425\",\"message\":\"Friend request processed\",\"data\":{\"success\":%s,\"senderId\":%d,\"receiverId\":%d},\"sessionId\":\"debug-session\",\"runId\":\"run1\",\"hypothesisId\":\"G\"}\n",
-                        System.currentTimeMillis(), System.currentTimeMillis(), success, senderId, receiverId))
-                        .getBytes(), java.nio.file.StandardOpenOption.CREATE, java.nio.file.StandardOpenOption.APPEND);
-            } catch (Exception e) {
+            // Ghi nhận hoạt động gửi tin nhắn
+            if (activityCallback != null) {
+                String encryptedContent = UserActivity.encryptContent(content);
+                UserActivity messageActivity = new UserActivity(
+                        userId, onlineUsers.get(userId), "MESSAGE",
+                        receiverId, encryptedContent, LocalDateTime.now());
+                activityCallback.accept(messageActivity);
             }
-            // #endregion
+        }
+    }
 
-            out.writeObject(success ? "FRIEND_REQUEST_SENT|OK" : "FRIEND_REQUEST_SENT|FAIL");
+    private void handleSendFile(Packet packet) throws Exception {
+        // Format: SEND_FILE|senderId|receiverId|fileName|fileSize
+        String[] p = packet.split();
+        if (p.length >= 5) {
+            // int senderId = Integer.parseInt(p[1]); // Not used
+            pendingFileReceiverId = Integer.parseInt(p[2]);
+            pendingFileName = p[3];
+            long fileSize = Long.parseLong(p[4]);
+            pendingFileGroupId = -1; // Reset group
+            logger.info("Server: Nhận SEND_FILE từ user {} - fileName: {}, receiverId: {}, fileSize: {} bytes",
+                    userId, pendingFileName, pendingFileReceiverId, fileSize);
+            out.writeObject("READY_FOR_FILE");
             out.flush();
+            logger.debug("Server: Đã gửi READY_FOR_FILE, chờ nhận file data...");
+        }
+    }
 
-            if (success) {
-                broadcaster.broadcastToUser(receiverId, "FRIEND_REQUEST_RECEIVED|" + senderId);
-            }
-        } else if (msg.startsWith("ACCEPT_FRIEND|")) {
-            String[] p = msg.split("\\|");
-            int receiverId = Integer.parseInt(p[1]);
-            int senderId = Integer.parseInt(p[2]);
+    private void handleSendGroupFile(Packet packet) throws Exception {
+        // Format: SEND_GROUP_FILE|groupId|senderId|fileName|fileSize
+        String[] p = packet.split();
+        if (p.length >= 5) {
+            pendingFileGroupId = Integer.parseInt(p[1]);
+            // int senderId = Integer.parseInt(p[2]); // Not used
+            pendingFileName = p[3];
+            pendingFileReceiverId = -1; // Reset receiver
+            out.writeObject("READY_FOR_FILE");
+        }
+    }
 
-            boolean success = friendDAO.acceptFriendRequest(receiverId, senderId);
-            out.writeObject(success ? "ACCEPT_FRIEND_OK" : "ACCEPT_FRIEND_FAIL");
+    private void handleSendFriendRequest(Packet packet) throws Exception {
+        String[] p = packet.split();
+        int senderId = Integer.parseInt(p[1]);
+        int receiverId = Integer.parseInt(p[2]);
 
-            if (success) {
-                logger.info("Server: Accept thành công từ {} đến {}", senderId, receiverId);
-                broadcaster.broadcastToUser(receiverId, "FRIENDS_UPDATE");
-                broadcaster.broadcastToUser(senderId, "FRIENDS_UPDATE");
-            }
-        } else if (msg.startsWith("REJECT_FRIEND|")) {
-            String[] p = msg.split("\\|");
-            int receiverId = Integer.parseInt(p[1]);
-            int senderId = Integer.parseInt(p[2]);
+        // #region agent log
+        try {
+            String logPath = "d:\\Java\\LTM\\Zalu\\.cursor\\debug.log";
+            java.nio.file.Files.write(java.nio.file.Paths.get(logPath), (String.format(
+                    "{\"id\":\"log_%d_G\",\"timestamp\":%d,\"location\":\"ClientHandler.java:419\",\"message\":\"Processing SEND_FRIEND_REQUEST\",\"data\":{\"senderId\":%d,\"receiverId\":%d,\"threadName\":\"%s\"},\"sessionId\":\"debug-session\",\"runId\":\"run1\",\"hypothesisId\":\"G\"}\n",
+                    System.currentTimeMillis(), System.currentTimeMillis(), senderId, receiverId,
+                    Thread.currentThread().getName())).getBytes(), java.nio.file.StandardOpenOption.CREATE,
+                    java.nio.file.StandardOpenOption.APPEND);
+        } catch (Exception e) {
+        }
+        // #endregion
 
-            boolean success = friendDAO.rejectFriendRequest(receiverId, senderId);
-            if (success) {
-                broadcaster.broadcastToUser(receiverId, "FRIENDS_UPDATE");
-                broadcaster.broadcastToUser(senderId, "FRIENDS_UPDATE");
-            }
-        } else if (msg.equals("LOGOUT")) {
-            logger.info("User {} đăng xuất chủ động", userId);
-            int logoutUserId = userId;
-            String username = onlineUsers.get(userId);
+        boolean success = friendDAO.sendFriendRequest(senderId, receiverId);
 
-            // Ghi nhận hoạt động đăng xuất
-            if (activityCallback != null && username != null) {
-                UserActivity logoutActivity = new UserActivity(
-                        logoutUserId, username, "LOGOUT", LocalDateTime.now());
-                activityCallback.accept(logoutActivity);
-            }
+        // #region agent log
+        try {
+            String logPath = "d:\\Java\\LTM\\Zalu\\.cursor\\debug.log";
+            java.nio.file.Files.write(java.nio.file.Paths.get(logPath), (String.format(
+                    "{\"id\":\"log_%d_G\",\"timestamp\":%d,\"location\":\"ClientHandler.java:425\",\"message\":\"Friend request processed\",\"data\":{\"success\":%s,\"senderId\":%d,\"receiverId\":%d},\"sessionId\":\"debug-session\",\"runId\":\"run1\",\"hypothesisId\":\"G\"}\n",
+                    System.currentTimeMillis(), System.currentTimeMillis(), success, senderId, receiverId))
+                    .getBytes(), java.nio.file.StandardOpenOption.CREATE, java.nio.file.StandardOpenOption.APPEND);
+        } catch (Exception e) {
+        }
+        // #endregion
 
-            try {
-                out.writeObject("LOGOUT_OK");
-                out.flush();
-            } catch (Exception ignored) {
-            }
-            // Broadcast USER_OFFLINE trước khi cleanup
-            try {
-                List<Integer> friendIds = friendDAO.getFriendsByUserId(logoutUserId);
-                for (int friendId : friendIds) {
-                    broadcaster.broadcastToUser(friendId, "USER_OFFLINE|" + logoutUserId);
-                }
-                logger.debug("Đã broadcast USER_OFFLINE cho {} friends của user {}", friendIds.size(), logoutUserId);
-            } catch (Exception e) {
-                logger.error("Lỗi khi broadcast USER_OFFLINE", e);
-            }
-            return;
-        } else if (msg.startsWith("SEND_GROUP_MESSAGE|")) {
-            // Tăng biến đếm tin nhắn đã gửi (group message)
-            ChatServer.TOTAL_MESSAGES_SENT.incrementAndGet();
+        out.writeObject(success ? "FRIEND_REQUEST_SENT|OK" : "FRIEND_REQUEST_SENT|FAIL");
+        out.flush();
 
-            // Format: SEND_GROUP_MESSAGE|groupId|content or
-            // SEND_GROUP_MESSAGE|groupId|content|REPLY_TO|repliedToMessageId|repliedToContent
-            String[] p = msg.split("\\|");
-            int groupId = Integer.parseInt(p[1]);
-            String content = p[2];
-
-            Message m = new Message(0, userId, 0, content, false, LocalDateTime.now(), groupId);
-            m.setIsRead(false);
-
-            // Parsing optional parts
-            for (int i = 3; i < p.length; i++) {
-                if ("REPLY_TO".equals(p[i]) && i + 2 < p.length) {
-                    m.setRepliedToMessageId(Integer.parseInt(p[i + 1]));
-                    m.setRepliedToContent(p[i + 2]);
-                    i += 2;
-                } else if ("TEMP_ID".equals(p[i]) && i + 1 < p.length) {
-                    m.setTempId(p[i + 1]);
-                    i += 1;
-                }
-            }
+        if (success) {
+            broadcaster.broadcastToUser(receiverId, "FRIEND_REQUEST_RECEIVED|" + senderId);
+        }
+    }
 
-            if (messageDAO.saveMessage(m)) {
-                broadcaster.broadcastGroupMessage(m, groupId, groupDAO);
-                out.writeObject(
-                        "GROUP_MESSAGE_SENT|OK|" + m.getId() + (m.getTempId() != null ? "|" + m.getTempId() : ""));
+    private void handleAcceptFriend(Packet packet) throws Exception {
+        String[] p = packet.split();
+        int receiverId = Integer.parseInt(p[1]);
+        int senderId = Integer.parseInt(p[2]);
 
-                // Ghi nhận hoạt động gửi tin nhắn nhóm
-                if (activityCallback != null) {
-                    String encryptedContent = UserActivity.encryptContent(content);
-                    UserActivity groupMessageActivity = new UserActivity(
-                            userId, onlineUsers.get(userId), "GROUP_MESSAGE",
-                            groupId, encryptedContent, LocalDateTime.now(), true);
-                    activityCallback.accept(groupMessageActivity);
-                }
-            } else {
-                out.writeObject("GROUP_MESSAGE_SENT|FAIL");
+        boolean success = friendDAO.acceptFriendRequest(receiverId, senderId);
+        if (success) {
+            ChatServer.getFriendGraph().onFriendshipAdded(receiverId, senderId);
+        }
+        out.writeObject(success ? "ACCEPT_FRIEND_OK" : "ACCEPT_FRIEND_FAIL");
+
+        if (success) {
+            logger.info("Server: Accept thành công từ {} đến {}", senderId, receiverId);
+            broadcaster.broadcastToUser(receiverId, "FRIENDS_UPDATE");
+            broadcaster.broadcastToUser(senderId, "FRIENDS_UPDATE");
+        }
+    }
+
+    private void handleRejectFriend(Packet packet) throws Exception {
+        String[] p = packet.split();
+        int receiverId = Integer.parseInt(p[1]);
+        int senderId = Integer.parseInt(p[2]);
+
+        boolean success = friendDAO.rejectFriendRequest(receiverId, senderId);
+        if (success) {
+            // Hàng friends của cặp này đã bị xóa: lượt nạp đang chạy của hai user không được cache
+            ChatServer.getFriendGraph().onFriendshipRemoved(receiverId, senderId);
+            broadcaster.broadcastToUser(receiverId, "FRIENDS_UPDATE");
+            broadcaster.broadcastToUser(senderId, "FRIENDS_UPDATE");
+        }
+    }
+
+    private void handleLogout(Packet packet) throws Exception {
+        logger.info("User {} đăng xuất chủ động", userId);
+        int logoutUserId = userId;
+        String username = onlineUsers.get(userId);
+
+        // Ghi nhận hoạt động đăng xuất
+        if (activityCallback != null && username != null) {
+            UserActivity logoutActivity = new UserActivity(
+                    logoutUserId, username, "LOGOUT", LocalDateTime.now());
+            activityCallback.accept(logoutActivity);
+        }
+
+        try {
+            out.writeObject("LOGOUT_OK");
+            out.flush();
+        } catch (Exception ignored) {
+        }
+        // USER_OFFLINE được báo theo lô khi cleanup() bỏ user khỏi danh sách clients
+    }
+
+    private void handleSendGroupMessage(Packet packet) throws Exception {
+        // Tăng biến đếm tin nhắn đã gửi (group message)
+        ChatServer.TOTAL_MESSAGES_SENT.incrementAndGet();
+
+        // Format: SEND_GROUP_MESSAGE|groupId|content or
+        // SEND_GROUP_MESSAGE|groupId|content|REPLY_TO|repliedToMessageId|repliedToContent
+        String[] p = packet.split();
+        int groupId = Integer.parseInt(p[1]);
+        String content = p[2];
+
+        Message m = new Message(0, userId, 0, content, false, LocalDateTime.now(), groupId);
+        m.setIsRead(false);
+
+        // Parsing optional parts
+        for (int i = 3; i < p.length; i++) {
+            if ("REPLY_TO".equals(p[i]) && i + 2 < p.length) {
+                m.setRepliedToMessageId(Integer.parseInt(p[i + 1]));
+                m.setRepliedToContent(p[i + 2]);
+                i += 2;
+            } else if ("TEMP_ID".equals(p[i]) && i + 1 < p.length) {
+                m.setTempId(p[i + 1]);
+                i += 1;
             }
-        } else if (msg.startsWith("MARK_AS_READ|")) {
-            String[] p = msg.split("\\|");
-            if (p.length >= 3) {
-                try {
-                    if (p.length == 4 && "GROUP".equals(p[3])) {
-                        int userId = Integer.parseInt(p[1]);
-                        int groupId = Integer.parseInt(p[2]);
+        }
+
+        if (ChatServer.getMessagePersist().save(m)) {
+            ChatServer.getUnreadCounters().onMessageSaved(m);
+            indexForSearch(m);
+            rememberRecent(m);
+            broadcaster.broadcastGroupMessage(m, groupId);
+            out.writeObject(
+                    "GROUP_MESSAGE_SENT|OK|" + m.getId() + (m.getTempId() != null ? "|" + m.getTempId() : ""));
+
+            // Ghi nhận hoạt động gửi tin nhắn nhóm
+            if (activityCallback != null) {
+                String encryptedContent = UserActivity.encryptContent(content);
+                UserActivity groupMessageActivity = new UserActivity(
+                        userId, onlineUsers.get(userId), "GROUP_MESSAGE",
+                        groupId, encryptedContent, LocalDateTime.now(), true);
+                activityCallback.accept(groupMessageActivity);
+            }
+        } else {
+            out.writeObject("GROUP_MESSAGE_SENT|FAIL");
+        }
+    }
+
+    private void handleMarkAsRead(Packet packet) throws Exception {
+        String[] p = packet.split();
+        if (p.length >= 3) {
+            try {
+                ReadCursorDAO readCursorDAO = ChatServer.getReadCursorDAO();
+                boolean useCursors = readCursorDAO != null && readCursorDAO.isAvailable();
+                if (p.length == 4 && "GROUP".equals(p[3])) {
+                    int userId = Integer.parseInt(p[1]);
+                    int groupId = Integer.parseInt(p[2]);
+                    if (useCursors) {
+                        // Một hàng read_cursors thay cho UPDATE is_read từng tin
+                        int lastReadId = readCursorDAO.markRead(userId, -groupId);
+                        ChatServer.getUnreadCounters().markRead(userId, -groupId);
+                        out.writeObject("MARK_AS_READ|OK");
+                        if (lastReadId > 0) {
+                            broadcastGroupRead(groupId, userId, lastReadId);
+                        }
+                    } else {
                         boolean success = messageDAO.markGroupMessagesAsRead(userId, groupId);
+                        ChatServer.getUnreadCounters().markRead(userId, -groupId);
+                        forgetRecent(userId, groupId, true);
                         if (success) {
                             out.writeObject("MARK_AS_READ|OK");
                         }
+                    }
+                } else {
+                    int receiverId = Integer.parseInt(p[1]);
+                    int senderId = Integer.parseInt(p[2]);
+                    if (useCursors) {
+                        int lastReadId = readCursorDAO.markRead(receiverId, senderId);
+                        ChatServer.getUnreadCounters().markRead(receiverId, senderId);
+                        out.writeObject("MARK_AS_READ|OK");
+                        if (lastReadId > 0) {
+                            broadcaster.broadcastToUser(senderId, "MESSAGES_READ|" + receiverId + "|" + lastReadId);
+                        }
                     } else {
-                        int receiverId = Integer.parseInt(p[1]);
-                        int senderId = Integer.parseInt(p[2]);
                         boolean success = messageDAO.markMessagesAsRead(receiverId, senderId);
+                        ChatServer.getUnreadCounters().markRead(receiverId, senderId);
+                        forgetRecent(receiverId, senderId, false);
                         if (success) {
                             out.writeObject("MARK_AS_READ|OK");
                             broadcaster.broadcastToUser(senderId, "MESSAGES_READ|" + receiverId);
                         }
                     }
-                } catch (NumberFormatException e) {
-                    out.writeObject("MARK_AS_READ|FAIL|" + e.getMessage());
-                } catch (org.example.zalu.exception.database.DatabaseException
-                        | org.example.zalu.exception.database.DatabaseConnectionException e) {
-                    out.writeObject("MARK_AS_READ|FAIL|" + e.getMessage());
                 }
+            } catch (NumberFormatException e) {
+                out.writeObject("MARK_AS_READ|FAIL|" + e.getMessage());
+            } catch (org.example.zalu.exception.database.DatabaseException
+                    | org.example.zalu.exception.database.DatabaseConnectionException e) {
+                out.writeObject("MARK_AS_READ|FAIL|" + e.getMessage());
             }
-        } else if (msg.startsWith("DELETE_MESSAGE|")) {
-            // Format: DELETE_MESSAGE|messageId|userId
-            String[] p = msg.split("\\|");
-            if (p.length >= 3) {
-                try {
-                    int messageId = Integer.parseInt(p[1]);
-                    int requestUserId = Integer.parseInt(p[2]);
-                    Message message = messageDAO.getMessageById(messageId);
-                    if (message != null && message.getSenderId() == requestUserId) {
-                        boolean success = messageDAO.deleteMessage(messageId, requestUserId);
-                        if (success) {
-                            out.writeObject("DELETE_MESSAGE|OK|" + messageId);
-                            // Broadcast to receiver
-                            if (message.getGroupId() > 0) {
-                                broadcaster.broadcastToGroup(message.getGroupId(), "MESSAGE_DELETED|" + messageId,
-                                        groupDAO);
-                            } else {
-                                broadcaster.broadcastToUser(message.getReceiverId(), "MESSAGE_DELETED|" + messageId);
-                            }
-                        } else {
-                            out.writeObject("DELETE_MESSAGE|FAIL");
-                        }
-                    } else {
-                        out.writeObject("DELETE_MESSAGE|FAIL|PERMISSION_DENIED");
-                    }
-                } catch (Exception e) {
-                    out.writeObject("DELETE_MESSAGE|FAIL|" + e.getMessage());
+        }
+    }
+
+    /**
+     * Báo cho các thành viên khác của nhóm con trỏ đã đọc mới của readerId ("đã xem bởi N").
+     * Format: GROUP_READ|groupId|readerId|lastReadMessageId
+     */
+    private void broadcastGroupRead(int groupId, int readerId, int lastReadId) {
+        try {
+            String event = "GROUP_READ|" + groupId + "|" + readerId + "|" + lastReadId;
+            for (int memberId : ChatServer.getGroupMembership().getMembers(groupId)) {
+                if (memberId != readerId) {
+                    broadcaster.broadcastToUser(memberId, event);
                 }
             }
-        } else if (msg.startsWith("RECALL_MESSAGE|")) {
-            // Format: RECALL_MESSAGE|messageId|userId
-            String[] p = msg.split("\\|");
-            if (p.length >= 3) {
-                try {
-                    int messageId = Integer.parseInt(p[1]);
-                    int requestUserId = Integer.parseInt(p[2]);
-                    Message message = messageDAO.getMessageById(messageId);
-                    if (message != null && message.getSenderId() == requestUserId) {
-                        boolean success = messageDAO.recallMessage(messageId, requestUserId);
-                        if (success) {
-                            out.writeObject("RECALL_MESSAGE|OK|" + messageId);
-                            // Broadcast to receiver(s)
-                            if (message.getGroupId() > 0) {
-                                broadcaster.broadcastToGroup(message.getGroupId(), "MESSAGE_RECALLED|" + messageId,
-                                        groupDAO);
-                            } else {
-                                broadcaster.broadcastToUser(message.getReceiverId(), "MESSAGE_RECALLED|" + messageId);
-                                // Also broadcast to sender
-                                broadcaster.broadcastToUser(requestUserId, "MESSAGE_RECALLED|" + messageId);
-                            }
+        } catch (SQLException e) {
+            logger.warn("⚠ Không gửi được GROUP_READ cho nhóm {}: {}", groupId, e.getMessage());
+        }
+    }
+
+    private void handleDeleteMessage(Packet packet) throws Exception {
+        // Format: DELETE_MESSAGE|messageId|userId
+        String[] p = packet.split();
+        if (p.length >= 3) {
+            try {
+                int messageId = Integer.parseInt(p[1]);
+                int requestUserId = Integer.parseInt(p[2]);
+                Message message = messageDAO.getMessageById(messageId);
+                if (message != null && message.getSenderId() == requestUserId) {
+                    boolean success = messageDAO.deleteMessage(messageId, requestUserId);
+                    if (success) {
+                        removeFromSearch(messageId);
+                        message.setDeleted(true);
+                        updateRecent(message);
+                        ChatServer.getUnreadCounters().onMessageRemoved(message);
+                        out.writeObject("DELETE_MESSAGE|OK|" + messageId);
+                        // Broadcast to receiver
+                        if (message.getGroupId() > 0) {
+                            broadcaster.broadcastToGroup(message.getGroupId(), "MESSAGE_DELETED|" + messageId);
                         } else {
-                            out.writeObject("RECALL_MESSAGE|FAIL");
+                            broadcaster.broadcastToUser(message.getReceiverId(), "MESSAGE_DELETED|" + messageId);
                         }
                     } else {
-                        out.writeObject("RECALL_MESSAGE|FAIL|PERMISSION_DENIED");
+                        out.writeObject("DELETE_MESSAGE|FAIL");
                     }
-                } catch (Exception e) {
-                    out.writeObject("RECALL_MESSAGE|FAIL|" + e.getMessage());
+                } else {
+                    out.writeObject("DELETE_MESSAGE|FAIL|PERMISSION_DENIED");
                 }
+            } catch (Exception e) {
+                out.writeObject("DELETE_MESSAGE|FAIL|" + e.getMessage());
             }
-        } else if (msg.startsWith("EDIT_MESSAGE|")) {
-            // Format: EDIT_MESSAGE|messageId|userId|newContent
-            String[] p = msg.split("\\|", 4);
-            if (p.length >= 4) {
-                try {
-                    int messageId = Integer.parseInt(p[1]);
-                    int requestUserId = Integer.parseInt(p[2]);
-                    String newContent = p[3];
-                    Message message = messageDAO.getMessageById(messageId);
-                    if (message != null && message.getSenderId() == requestUserId && !message.isRecalled()) {
-                        boolean success = messageDAO.editMessage(messageId, requestUserId, newContent);
-                        if (success) {
-                            out.writeObject("EDIT_MESSAGE|OK|" + messageId);
-                            // Broadcast to receiver(s)
-                            Message updatedMessage = messageDAO.getMessageById(messageId);
-                            if (updatedMessage != null) {
-                                if (updatedMessage.getGroupId() > 0) {
-                                    broadcaster.broadcastToGroup(updatedMessage.getGroupId(),
-                                            "MESSAGE_EDITED|" + messageId + "|" + newContent, groupDAO);
-                                } else {
-                                    broadcaster.broadcastToUser(updatedMessage.getReceiverId(),
-                                            "MESSAGE_EDITED|" + messageId + "|" + newContent);
-                                    // Also broadcast to sender
-                                    broadcaster.broadcastToUser(requestUserId,
-                                            "MESSAGE_EDITED|" + messageId + "|" + newContent);
-                                }
-                            }
+        }
+    }
+
+    private void handleRecallMessage(Packet packet) throws Exception {
+        // Format: RECALL_MESSAGE|messageId|userId
+        String[] p = packet.split();
+        if (p.length >= 3) {
+            try {
+                int messageId = Integer.parseInt(p[1]);
+                int requestUserId = Integer.parseInt(p[2]);
+                Message message = messageDAO.getMessageById(messageId);
+                if (message != null && message.getSenderId() == requestUserId) {
+                    boolean success = messageDAO.recallMessage(messageId, requestUserId);
+                    if (success) {
+                        removeFromSearch(messageId);
+                        updateRecent(messageDAO.getMessageById(messageId));
+                        ChatServer.getUnreadCounters().onMessageRemoved(message);
+                        out.writeObject("RECALL_MESSAGE|OK|" + messageId);
+                        // Broadcast to receiver(s)
+                        if (message.getGroupId() > 0) {
+                            broadcaster.broadcastToGroup(message.getGroupId(), "MESSAGE_RECALLED|" + messageId);
                         } else {
-                            out.writeObject("EDIT_MESSAGE|FAIL");
+                            broadcaster.broadcastToUser(message.getReceiverId(), "MESSAGE_RECALLED|" + messageId);
+                            // Also broadcast to sender
+                            broadcaster.broadcastToUser(requestUserId, "MESSAGE_RECALLED|" + messageId);
                         }
                     } else {
-                        out.writeObject("EDIT_MESSAGE|FAIL|PERMISSION_DENIED");
+                        out.writeObject("RECALL_MESSAGE|FAIL");
                     }
-                } catch (Exception e) {
-                    out.writeObject("EDIT_MESSAGE|FAIL|" + e.getMessage());
+                } else {
+                    out.writeObject("RECALL_MESSAGE|FAIL|PERMISSION_DENIED");
                 }
+            } catch (Exception e) {
+                out.writeObject("RECALL_MESSAGE|FAIL|" + e.getMessage());
             }
-        } else if (msg.startsWith("CREATE_GROUP|")) {
-            String[] p = msg.split("\\|");
-            String groupName = p[1];
-            List<Integer> memberIds = new ArrayList<>();
-            for (int i = 2; i < p.length; i++) {
-                memberIds.add(Integer.parseInt(p[i]));
-            }
+        }
+    }
 
+    private void handleEditMessage(Packet packet) throws Exception {
+        // Format: EDIT_MESSAGE|messageId|userId|newContent
+        String[] p = packet.split(4);
+        if (p.length >= 4) {
             try {
-                int groupId = groupDAO.createGroup(groupName, userId, memberIds);
-                if (groupId > 0) {
-                    out.writeObject("CREATE_GROUP|OK|" + groupId);
-                    List<Integer> allMembers = groupDAO.getGroupMembers(groupId);
-                    for (int memberId : allMembers) {
-                        broadcaster.broadcastToUser(memberId, "GROUPS_UPDATE");
+                int messageId = Integer.parseInt(p[1]);
+                int requestUserId = Integer.parseInt(p[2]);
+                String newContent = p[3];
+                Message message = messageDAO.getMessageById(messageId);
+                if (message != null && message.getSenderId() == requestUserId && !message.isRecalled()) {
+                    boolean success = messageDAO.editMessage(messageId, requestUserId, newContent);
+                    if (success) {
+                        out.writeObject("EDIT_MESSAGE|OK|" + messageId);
+                        // Broadcast to receiver(s)
+                        Message updatedMessage = messageDAO.getMessageById(messageId);
+                        if (updatedMessage != null) {
+                            indexForSearch(updatedMessage);
+                            updateRecent(updatedMessage);
+                            if (updatedMessage.getGroupId() > 0) {
+                                broadcaster.broadcastToGroup(updatedMessage.getGroupId(),
+                                        "MESSAGE_EDITED|" + messageId + "|" + newContent);
+                            } else {
+                                broadcaster.broadcastToUser(updatedMessage.getReceiverId(),
+                                        "MESSAGE_EDITED|" + messageId + "|" + newContent);
+                                // Also broadcast to sender
+                                broadcaster.broadcastToUser(requestUserId,
+                                        "MESSAGE_EDITED|" + messageId + "|" + newContent);
+                            }
+                        }
+                    } else {
+                        out.writeObject("EDIT_MESSAGE|FAIL");
                     }
                 } else {
-                    out.writeObject("CREATE_GROUP|FAIL");
+                    out.writeObject("EDIT_MESSAGE|FAIL|PERMISSION_DENIED");
                 }
-            } catch (SQLException e) {
-                logger.error("Lỗi SQL khi tạo nhóm", e);
-                out.writeObject("CREATE_GROUP|FAIL|" + e.getMessage());
+            } catch (Exception e) {
+                out.writeObject("EDIT_MESSAGE|FAIL|" + e.getMessage());
             }
-        } else if (msg.startsWith("GET_FILE|")) {
-            // Format: GET_FILE|messageId
-            String[] p = msg.split("\\|");
-            if (p.length >= 2) {
-                try {
-                    int messageId = Integer.parseInt(p[1]);
-                    Message message = messageDAO.getMessageById(messageId);
-                    if (message != null && message.getFileData() != null) {
-                        // Kiểm tra quyền: user phải là sender hoặc receiver (hoặc member của group)
-                        boolean hasPermission = false;
-                        if (message.getGroupId() > 0) {
-                            // Group message: kiểm tra user có trong group không
-                            List<Integer> members = groupDAO.getGroupMembers(message.getGroupId());
-                            hasPermission = members.contains(userId);
-                        } else {
-                            // 1-1 message: kiểm tra user là sender hoặc receiver
-                            hasPermission = (message.getSenderId() == userId || message.getReceiverId() == userId);
-                        }
+        }
+    }
 
-                        if (hasPermission) {
-                            // Gửi metadata trước
-                            out.writeObject("FILE_DATA|" + messageId + "|" + message.getFileName() + "|"
-                                    + message.getFileData().length);
-                            out.flush();
-                            // Gửi file data
-                            out.writeObject(message.getFileData());
-                            out.flush();
-                            logger.info("Server: Đã gửi file cho messageId {} cho user {}", messageId, userId);
-                        } else {
-                            out.writeObject("FILE_DATA|FAIL|" + messageId + "|PERMISSION_DENIED");
-                            out.flush();
-                        }
+    private void handleCreateGroup(Packet packet) throws Exception {
+        String[] p = packet.split();
+        String groupName = p[1];
+        List<Integer> memberIds = new ArrayList<>();
+        for (int i = 2; i < p.length; i++) {
+            memberIds.add(Integer.parseInt(p[i]));
+        }
+
+        try {
+            int groupId = groupDAO.createGroup(groupName, userId, memberIds);
+            if (groupId > 0) {
+                out.writeObject("CREATE_GROUP|OK|" + groupId);
+                List<Integer> allMembers = groupDAO.getGroupMembers(groupId);
+                ChatServer.getGroupMembership().onGroupCreated(groupId, allMembers);
+                for (int memberId : allMembers) {
+                    broadcaster.broadcastToUser(memberId, "GROUPS_UPDATE");
+                }
+            } else {
+                out.writeObject("CREATE_GROUP|FAIL");
+            }
+        } catch (SQLException e) {
+            logger.error("Lỗi SQL khi tạo nhóm", e);
+            out.writeObject("CREATE_GROUP|FAIL|" + e.getMessage());
+        }
+    }
+
+    private void handleGetFile(Packet packet) throws Exception {
+        // Format: GET_FILE|messageId
+        String[] p = packet.split();
+        if (p.length >= 2) {
+            try {
+                int messageId = Integer.parseInt(p[1]);
+                // Chỉ lấy thông tin file để kiểm tra quyền, chưa đọc nội dung
+                MessageDAO.FileInfo info = messageDAO.getFileInfo(messageId);
+                if (info != null) {
+                    // Kiểm tra quyền: user phải là sender hoặc receiver (hoặc member của group)
+                    boolean hasPermission = false;
+                    if (info.groupId > 0) {
+                        // Group message: kiểm tra user có trong group không
+                        hasPermission = ChatServer.getGroupMembership().isMember(info.groupId, userId);
                     } else {
-                        out.writeObject("FILE_DATA|FAIL|" + messageId + "|FILE_NOT_FOUND");
-                        out.flush();
+                        // 1-1 message: kiểm tra user là sender hoặc receiver
+                        hasPermission = (info.senderId == userId || info.receiverId == userId);
                     }
-                } catch (Exception e) {
-                    logger.error("Lỗi khi xử lý GET_FILE", e);
-                    try {
-                        out.writeObject("FILE_DATA|FAIL|" + e.getMessage());
+
+                    if (hasPermission) {
+                        // Header và dữ liệu cùng một frame; file trong blob store được gửi thẳng từ đĩa
+                        Object payload = info.fileRef != null
+                                ? BlobStore.getInstance().region(info.fileRef, 0, info.fileSize)
+                                : messageDAO.readFileRange(messageId, 0, (int) info.fileSize);
+                        out.writeObject("FILE_DATA|" + messageId + "|" + info.fileName + "|" + info.fileSize);
+                        out.writeObject(payload);
+                        out.flush();
+                        ChatServer.TOTAL_BYTES_TRANSFERRED.addAndGet(info.fileSize);
+                        logger.info("Server: Đã gửi file cho messageId {} cho user {}", messageId, userId);
+                    } else {
+                        out.writeObject("FILE_DATA|FAIL|" + messageId + "|PERMISSION_DENIED");
                         out.flush();
-                    } catch (IOException ioEx) {
-                        logger.error("Server: Không thể gửi error response", ioEx);
                     }
+                } else {
+                    out.writeObject("FILE_DATA|FAIL|" + messageId + "|FILE_NOT_FOUND");
+                    out.flush();
+                }
+            } catch (Exception e) {
+                logger.error("Lỗi khi xử lý GET_FILE", e);
+                try {
+                    out.writeObject("FILE_DATA|FAIL|" + e.getMessage());
+                    out.flush();
+                } catch (IOException ioEx) {
+                    logger.error("Server: Không thể gửi error response", ioEx);
                 }
             }
-        } else if (msg.startsWith("GET_GROUPS|")) {
-            try {
-                List<org.example.zalu.model.GroupInfo> groups = groupDAO.getUserGroups(userId);
-                out.writeObject(groups);
-            } catch (SQLException e) {
-                logger.error("Lỗi SQL khi lấy danh sách nhóm", e);
-                out.writeObject(new ArrayList<>());
-            }
-        } else if (msg.startsWith("GET_FRIENDS|")) {
-            // Format: GET_FRIENDS|userId
-            try {
-                String[] p = msg.split("\\|");
-                int requestUserId = p.length >= 2 ? Integer.parseInt(p[1]) : userId;
-                List<Integer> friendIds = friendDAO.getFriendsByUserId(requestUserId);
-                out.writeObject(friendIds);
-                logger.debug("Đã gửi danh sách {} bạn bè cho user {}", friendIds.size(), requestUserId);
-            } catch (SQLException e) {
-                logger.error("Lỗi SQL khi lấy danh sách bạn bè", e);
-                out.writeObject(new ArrayList<>());
-            } catch (NumberFormatException e) {
-                logger.error("Lỗi parse userId trong GET_FRIENDS", e);
-                out.writeObject(new ArrayList<>());
-            }
-        } else if (msg.startsWith("GET_FRIEND_REQUESTS_INFO|")) {
-            // Format: GET_FRIEND_REQUESTS_INFO|userId
-            try {
-                String[] p = msg.split("\\|");
-                int requestUserId = p.length >= 2 ? Integer.parseInt(p[1]) : userId;
-
-                // Reuse existing DAO logic logic via new helper in ClientHandler or direct
-                // mapping
-                // Since FriendDAO methods getPendingRequestsWithUserInfo are available but need
-                // UserDAO
-                // We use FriendDAO to get ID lists and mapped them manually or better yet use
-                // FriendDAO methods if available
-                // FriendDAO currently has getPendingRequests(int) -> List<Integer> and
-                // getPendingRequestsWithUserInfo(int, UserDAO)
-
-                List<User> incoming = friendDAO.getPendingRequestsWithUserInfo(requestUserId, userDAO);
-                List<User> outgoing = friendDAO.getOutgoingRequestsWithUserInfo(requestUserId, userDAO);
-
-                java.util.Map<String, List<User>> responseMap = new java.util.HashMap<>();
-                responseMap.put("incoming", incoming);
-                responseMap.put("outgoing", outgoing);
-                responseMap.put("dataType", new ArrayList<>()); // Dummy to identify as map in client if needed, or key
-                                                                // check
-                // Actually client checks keys "incoming" and "outgoing"
+        }
+    }
 
-                out.writeObject(responseMap);
-                out.flush();
-                logger.debug("Đã gửi friend requests info cho user {}", requestUserId);
-            } catch (Exception e) {
-                logger.error("Lỗi lấy friend requests info", e);
-                // Send empty map to avoid client hanging
-                java.util.Map<String, List<User>> emptyMap = new java.util.HashMap<>();
-                emptyMap.put("incoming", new ArrayList<>());
-                emptyMap.put("outgoing", new ArrayList<>());
-                out.writeObject(emptyMap);
-            }
-        } else if (msg.startsWith("GET_FRIENDS_LIST_FULL|")) {
-            // Format: GET_FRIENDS_LIST_FULL|userId
-            try {
-                String[] p = msg.split("\\|");
-                int requestUserId = p.length >= 2 ? Integer.parseInt(p[1]) : userId;
+    private void handleGetGroups(Packet packet) throws Exception {
+        try {
+            List<org.example.zalu.model.GroupInfo> groups = groupDAO.getUserGroups(userId);
+            out.writeObject(groups);
+        } catch (SQLException e) {
+            logger.error("Lỗi SQL khi lấy danh sách nhóm", e);
+            out.writeObject(new ArrayList<>());
+        }
+    }
+
+    private void handleGetFriends(Packet packet) throws Exception {
+        // Format: GET_FRIENDS|userId
+        try {
+            String[] p = packet.split();
+            int requestUserId = p.length >= 2 ? Integer.parseInt(p[1]) : userId;
+            List<Integer> friendIds = ChatServer.getFriendGraph().getFriendList(requestUserId);
+            out.writeObject(friendIds);
+            logger.debug("Đã gửi danh sách {} bạn bè cho user {}", friendIds.size(), requestUserId);
+        } catch (SQLException e) {
+            logger.error("Lỗi SQL khi lấy danh sách bạn bè", e);
+            out.writeObject(new ArrayList<>());
+        } catch (NumberFormatException e) {
+            logger.error("Lỗi parse userId trong GET_FRIENDS", e);
+            out.writeObject(new ArrayList<>());
+        }
+    }
+
+    private void handleGetFriendRequestsInfo(Packet packet) throws Exception {
+        // Format: GET_FRIEND_REQUESTS_INFO|userId
+        try {
+            String[] p = packet.split();
+            int requestUserId = p.length >= 2 ? Integer.parseInt(p[1]) : userId;
+
+            List<User> incoming = friendDAO.getPendingRequestsWithUserInfo(requestUserId, userDAO);
+            List<User> outgoing = friendDAO.getOutgoingRequestsWithUserInfo(requestUserId, userDAO);
+
+            java.util.Map<String, Object> responseMap = new java.util.HashMap<>();
+            responseMap.put("type", "FRIEND_REQUESTS_INFO");
+            responseMap.put("incoming", incoming);
+            responseMap.put("outgoing", outgoing);
+            out.writeObject(responseMap);
+            out.flush();
+            logger.debug("Đã gửi friend requests info cho user {}", requestUserId);
+        } catch (Exception e) {
+            logger.error("Lỗi lấy friend requests info", e);
+            // Send empty map to avoid client hanging
+            java.util.Map<String, Object> emptyMap = new java.util.HashMap<>();
+            emptyMap.put("type", "FRIEND_REQUESTS_INFO");
+            emptyMap.put("incoming", new ArrayList<User>());
+            emptyMap.put("outgoing", new ArrayList<User>());
+            out.writeObject(emptyMap);
+        }
+    }
+
+    private void handleGetFriendsListFull(Packet packet) throws Exception {
+        // Format: GET_FRIENDS_LIST_FULL|userId
+        try {
+            String[] p = packet.split();
+            int requestUserId = p.length >= 2 ? Integer.parseInt(p[1]) : userId;
 
-                List<Integer> friendIds = friendDAO.getFriendsByUserId(requestUserId);
-                List<User> friends = userDAO.getUsersByIds(friendIds);
+            List<Integer> friendIds = ChatServer.getFriendGraph().getFriendList(requestUserId);
+            List<User> friends = userDAO.getUsersByIds(friendIds);
 
+            java.util.Map<String, Object> responseMap = new java.util.HashMap<>();
+            responseMap.put("type", "FRIENDS_LIST_FULL");
+            responseMap.put("data", friends);
+
+            out.writeObject(responseMap);
+            out.flush();
+            logger.debug("Sent friends list full for user {}", requestUserId);
+
+        } catch (Exception e) {
+            logger.error("Error sending friends list full", e);
+            try {
                 java.util.Map<String, Object> responseMap = new java.util.HashMap<>();
                 responseMap.put("type", "FRIENDS_LIST_FULL");
-                responseMap.put("data", friends);
-
+                responseMap.put("data", new ArrayList<User>());
                 out.writeObject(responseMap);
-                out.flush();
-                logger.debug("Sent friends list full for user {}", requestUserId);
+            } catch (IOException ignored) {
+            }
+        }
+    }
 
-            } catch (Exception e) {
-                logger.error("Error sending friends list full", e);
-                try {
-                    out.writeObject(new java.util.HashMap<>());
-                } catch (IOException ignored) {
+    private void handleGetConversation(Packet packet) throws Exception {
+        // Format: GET_CONVERSATION|userId|friendId
+        try {
+            String[] p = packet.split();
+            if (p.length >= 3) {
+                int rUserId = Integer.parseInt(p[1]);
+                int friendId = Integer.parseInt(p[2]);
+                List<Message> messages = recentConversation(rUserId, friendId, false);
+                if (messages == null) {
+                    messages = messageDAO.getMessagesBetween(rUserId, friendId);
                 }
+
+                java.util.Map<String, Object> response = new java.util.HashMap<>();
+                response.put("type", "CONVERSATION_HISTORY");
+                response.put("data", messages);
+                response.put("friendId", friendId); // Echo back to identify context
+
+                out.writeObject(response);
+                out.flush();
+                logger.debug("Sent conversation history ({} messages) between {} and {}", messages.size(), rUserId,
+                        friendId);
             }
-        } else if (msg.startsWith("GET_CONVERSATION|")) {
-            // Format: GET_CONVERSATION|userId|friendId
+        } catch (Exception e) {
+            logger.error("Error handling GET_CONVERSATION", e);
             try {
-                String[] p = msg.split("\\|");
-                if (p.length >= 3) {
-                    int rUserId = Integer.parseInt(p[1]);
-                    int friendId = Integer.parseInt(p[2]);
-                    List<Message> messages = messageDAO.getMessagesBetween(rUserId, friendId);
-
-                    java.util.Map<String, Object> response = new java.util.HashMap<>();
-                    response.put("type", "CONVERSATION_HISTORY");
-                    response.put("data", messages);
-                    response.put("friendId", friendId); // Echo back to identify context
-
-                    out.writeObject(response);
-                    out.flush();
-                    logger.debug("Sent conversation history ({} messages) between {} and {}", messages.size(), rUserId,
-                            friendId);
-                }
-            } catch (Exception e) {
-                logger.error("Error handling GET_CONVERSATION", e);
-                try {
-                    java.util.Map<String, Object> errorResponse = new java.util.HashMap<>();
-                    errorResponse.put("type", "CONVERSATION_HISTORY_FAIL");
-                    errorResponse.put("error", e.getMessage());
-                    out.writeObject(errorResponse);
-                    out.flush();
-                } catch (IOException ioEx) {
-                    logger.error("Server: Không thể gửi error response cho GET_CONVERSATION", ioEx);
-                }
+                java.util.Map<String, Object> errorResponse = new java.util.HashMap<>();
+                errorResponse.put("type", "CONVERSATION_HISTORY_FAIL");
+                errorResponse.put("error", e.getMessage());
+                out.writeObject(errorResponse);
+                out.flush();
+            } catch (IOException ioEx) {
+                logger.error("Server: Không thể gửi error response cho GET_CONVERSATION", ioEx);
             }
-        } else if (msg.startsWith("GET_GROUP_CONVERSATION|")) {
-            // Format: GET_GROUP_CONVERSATION|userId|groupId
-            try {
-                String[] p = msg.split("\\|");
-                if (p.length >= 3) {
-                    int requestUserId = Integer.parseInt(p[1]);
-                    int groupId = Integer.parseInt(p[2]);
-
-                    // SECURITY CHECK: Verify user is still a member of the group
-                    boolean isMember = groupDAO.isMemberOfGroup(groupId, requestUserId);
-                    if (!isMember) {
-                        logger.warn("User {} attempted to access group {} messages but is not a member", requestUserId,
-                                groupId);
-                        java.util.Map<String, Object> errorResponse = new java.util.HashMap<>();
-                        errorResponse.put("type", "CONVERSATION_HISTORY_FAIL");
-                        errorResponse.put("error", "NOT_A_MEMBER");
-                        out.writeObject(errorResponse);
-                        out.flush();
-                        return;
-                    }
-
-                    List<Message> messages = messageDAO.getMessagesForGroup(groupId);
+        }
+    }
 
-                    java.util.Map<String, Object> response = new java.util.HashMap<>();
-                    response.put("type", "CONVERSATION_HISTORY");
-                    response.put("data", messages);
-                    response.put("groupId", groupId); // Echo back
+    private void handleGetGroupConversation(Packet packet) throws Exception {
+        // Format: GET_GROUP_CONVERSATION|userId|groupId
+        try {
+            String[] p = packet.split();
+            if (p.length >= 3) {
+                int requestUserId = Integer.parseInt(p[1]);
+                int groupId = Integer.parseInt(p[2]);
 
-                    out.writeObject(response);
-                    out.flush();
-                    logger.debug("Sent group conversation history ({} messages) for group {}", messages.size(),
+                // SECURITY CHECK: Verify user is still a member of the group
+                boolean isMember = ChatServer.getGroupMembership().isMember(groupId, requestUserId);
+                if (!isMember) {
+                    logger.warn("User {} attempted to access group {} messages but is not a member", requestUserId,
                             groupId);
-                }
-            } catch (Exception e) {
-                logger.error("Error handling GET_GROUP_CONVERSATION", e);
-                try {
                     java.util.Map<String, Object> errorResponse = new java.util.HashMap<>();
                     errorResponse.put("type", "CONVERSATION_HISTORY_FAIL");
-                    errorResponse.put("error", e.getMessage());
+                    errorResponse.put("error", "NOT_A_MEMBER");
                     out.writeObject(errorResponse);
                     out.flush();
-                } catch (IOException ioEx) {
-                    logger.error("Server: Không thể gửi error response cho GET_GROUP_CONVERSATION", ioEx);
+                    return;
                 }
-            }
-        } else if (msg.startsWith("GET_GROUP_INFO|")) {
-            try {
-                int groupId = Integer.parseInt(msg.split("\\|")[1]);
-                org.example.zalu.model.GroupInfo group = groupDAO.getGroupById(groupId);
-                if (group != null) {
-                    out.writeObject(group);
-                } else {
-                    out.writeObject(null);
-                }
-            } catch (SQLException e) {
-                logger.error("Error getting group info", e);
-                out.writeObject(null);
-            }
-        } else if (msg.startsWith("GET_FRIENDS_NOT_IN_GROUP|")) {
-            try {
-                String[] p = msg.split("\\|");
-                int groupId = Integer.parseInt(p[1]);
-                int requestUserId = Integer.parseInt(p[2]);
-                List<Integer> friendIds = friendDAO.getFriendsByUserId(requestUserId);
-                List<Integer> memberIds = groupDAO.getGroupMembers(groupId);
-                List<User> result = new ArrayList<>();
-                for (int friendId : friendIds) {
-                    if (!memberIds.contains(friendId)) {
-                        User u = userDAO.getUserById(friendId);
-                        if (u != null)
-                            result.add(u);
-                    }
+
+                List<Message> messages = recentConversation(requestUserId, groupId, true);
+                if (messages == null) {
+                    messages = messageDAO.getMessagesForGroup(groupId);
                 }
+
                 java.util.Map<String, Object> response = new java.util.HashMap<>();
-                response.put("type", "FRIENDS_NOT_IN_GROUP");
-                response.put("data", result);
+                response.put("type", "CONVERSATION_HISTORY");
+                response.put("data", messages);
+                response.put("groupId", groupId); // Echo back
+
                 out.writeObject(response);
-            } catch (Exception e) {
-                logger.error("Error getting friends not in group", e);
-                out.writeObject(new ArrayList<User>());
+                out.flush();
+                logger.debug("Sent group conversation history ({} messages) for group {}", messages.size(),
+                        groupId);
             }
-        } else if (msg.startsWith("GET_GROUP_MEMBERS|")) {
-            // Format: GET_GROUP_MEMBERS|groupId
+        } catch (Exception e) {
+            logger.error("Error handling GET_GROUP_CONVERSATION", e);
             try {
-                String[] p = msg.split("\\|");
-                int groupId = Integer.parseInt(p[1]);
-                List<Integer> memberIds = groupDAO.getGroupMembers(groupId);
-                List<User> members = new ArrayList<>();
-                for (int memberId : memberIds) {
-                    User u = userDAO.getUserById(memberId);
-                    if (u != null) {
-                        members.add(u);
-                    }
+                java.util.Map<String, Object> errorResponse = new java.util.HashMap<>();
+                errorResponse.put("type", "CONVERSATION_HISTORY_FAIL");
+                errorResponse.put("error", e.getMessage());
+                out.writeObject(errorResponse);
+                out.flush();
+            } catch (IOException ioEx) {
+                logger.error("Server: Không thể gửi error response cho GET_GROUP_CONVERSATION", ioEx);
+            }
+        }
+    }
+
+    /** Cả cuộc trò chuyện từ cache tin gần đây nếu nó đủ ngắn để nằm trọn trong vòng đệm, ngược lại null. */
+    private static List<Message> recentConversation(int requestUserId, int targetId, boolean isGroup) {
+        HotConversationCache recent = ChatServer.getRecentMessages();
+        return recent != null ? recent.all(requestUserId, targetId, isGroup) : null;
+    }
+
+    private void handleGetHistoryPage(Packet packet) throws Exception {
+        // Format: GET_HISTORY_PAGE|targetId|isGroup|cursor|limit (cursor rỗng = trang mới nhất)
+        // Phản hồi: HISTORY_PAGE với data tăng dần theo id, olderCursor (null khi đã hết tin cũ) và newerCursor
+        String[] p = packet.split();
+        if (p.length < 3) {
+            return;
+        }
+        int targetId = Integer.parseInt(p[1]);
+        boolean isGroup = Boolean.parseBoolean(p[2]);
+        String cursorValue = p.length >= 4 ? p[3] : "";
+        int limit = HISTORY_PAGE_SIZE;
+        if (p.length >= 5 && !p[4].isEmpty()) {
+            limit = Math.max(1, Math.min(Integer.parseInt(p[4]), HISTORY_MAX_PAGE_SIZE));
+        }
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("type", "HISTORY_PAGE");
+        response.put(isGroup ? "groupId" : "friendId", targetId);
+        response.put("cursor", cursorValue);
+        HistoryCursor cursor;
+        try {
+            cursor = HistoryCursor.parse(cursorValue);
+        } catch (IllegalArgumentException e) {
+            response.put("type", "HISTORY_PAGE_FAIL");
+            response.put("error", "INVALID_CURSOR");
+            out.writeObject(response);
+            return;
+        }
+        try {
+            if (isGroup && !ChatServer.getGroupMembership().isMember(targetId, userId)) {
+                logger.warn("User {} attempted to page group {} messages but is not a member", userId, targetId);
+                response.put("type", "HISTORY_PAGE_FAIL");
+                response.put("error", "NOT_A_MEMBER");
+                out.writeObject(response);
+                return;
+            }
+
+            // Lấy dư một tin để biết còn trang tiếp theo hay không; trang mới nhất thường có sẵn trong RAM
+            HotConversationCache recent = ChatServer.getRecentMessages();
+            List<Message> messages = recent != null
+                    ? recent.page(userId, targetId, isGroup, cursor.getMessageId(), cursor.isOlder(), limit + 1)
+                    : null;
+            if (messages == null) {
+                messages = isGroup
+                        ? messageDAO.getGroupMessagePage(targetId, cursor.getMessageId(), cursor.isOlder(), limit + 1)
+                        : messageDAO.getMessagePageBetween(userId, targetId, cursor.getMessageId(), cursor.isOlder(),
+                                limit + 1);
+            }
+            boolean hasMore = messages.size() > limit;
+            if (hasMore) {
+                messages = new ArrayList<>(cursor.isOlder() ? messages.subList(1, messages.size())
+                        : messages.subList(0, limit));
+            }
+
+            // Trang cũ hơn: olderCursor chỉ có khi còn tin cũ.
+            // Trang mới hơn: không có tin mới thì giữ nguyên con trỏ để hỏi lại sau
+            String olderCursor = null;
+            String newerCursor = cursor.isOlder() ? null : cursorValue;
+            if (!messages.isEmpty()) {
+                if (hasMore || !cursor.isOlder()) {
+                    olderCursor = HistoryCursor.olderThan(messages.get(0).getId()).encode();
                 }
-                out.writeObject(members);
-                logger.debug("Sent {} group members for group {}", members.size(), groupId);
-            } catch (Exception e) {
-                logger.error("Error getting group members", e);
-                out.writeObject(new ArrayList<User>());
+                newerCursor = HistoryCursor.newerThan(messages.get(messages.size() - 1).getId()).encode();
+            }
+            applyReadCursors(response, messages, targetId, isGroup);
+            response.put("data", messages);
+            response.put("olderCursor", olderCursor);
+            response.put("newerCursor", newerCursor);
+            response.put("hasMore", hasMore);
+            out.writeObject(response);
+            logger.debug("Sent history page ({} messages, cursor '{}') for {} {}", messages.size(), cursorValue,
+                    isGroup ? "group" : "friend", targetId);
+        } catch (Exception e) {
+            logger.error("Error handling GET_HISTORY_PAGE", e);
+            response.put("type", "HISTORY_PAGE_FAIL");
+            response.put("error", e.getMessage());
+            out.writeObject(response);
+        }
+    }
+
+    /**
+     * Trạng thái đã đọc của trang lịch sử lấy từ read_cursors thay vì cột is_read: chat 1-1 đánh dấu
+     * isRead theo con trỏ của người nhận từng tin, chat nhóm gửi kèm "readCursors" (userId -> id tin
+     * đã đọc) để client tự tính "đã xem bởi N".
+     */
+    private void applyReadCursors(Map<String, Object> response, List<Message> messages, int targetId,
+            boolean isGroup) throws Exception {
+        ReadCursorDAO readCursorDAO = ChatServer.getReadCursorDAO();
+        if (readCursorDAO == null || !readCursorDAO.isAvailable()) {
+            return;
+        }
+        if (isGroup) {
+            response.put("readCursors", readCursorDAO.getReadCursors(-targetId));
+            return;
+        }
+        if (messages.isEmpty()) {
+            return;
+        }
+        int friendReadId = readCursorDAO.getLastReadMessageId(targetId, userId);
+        int myReadId = readCursorDAO.getLastReadMessageId(userId, targetId);
+        for (Message m : messages) {
+            m.setIsRead(m.getId() <= (m.getSenderId() == userId ? friendReadId : myReadId));
+        }
+    }
+
+    private void handleGetGroupInfo(Packet packet) throws Exception {
+        try {
+            int groupId = Integer.parseInt(packet.split()[1]);
+            org.example.zalu.model.GroupInfo group = groupDAO.getGroupById(groupId);
+            if (group != null) {
+                out.writeObject(group);
+            } else {
+                out.writeObject(null);
             }
-        } else if (msg.startsWith("ADD_GROUP_MEMBER|")) {
-            String[] p = msg.split("\\|");
+        } catch (SQLException e) {
+            logger.error("Error getting group info", e);
+            out.writeObject(null);
+        }
+    }
+
+    private void handleGetFriendsNotInGroup(Packet packet) throws Exception {
+        try {
+            String[] p = packet.split();
             int groupId = Integer.parseInt(p[1]);
-            int memberId = Integer.parseInt(p[2]);
-            try {
-                boolean success = groupDAO.addMemberToGroup(groupId, memberId);
-                if (success) {
-                    out.writeObject("ADD_GROUP_MEMBER|SUCCESS");
-                    // Notify new member
-                    broadcaster.broadcastToUser(memberId, "GROUPS_UPDATE");
-                    // Notify existing members
-                    List<Integer> members = groupDAO.getGroupMembers(groupId);
-                    for (int mId : members) {
-                        broadcaster.broadcastToUser(mId, "GROUP_MEMBERS_UPDATE|" + groupId);
-                    }
-                } else {
-                    out.writeObject("ADD_GROUP_MEMBER|FAIL");
+            int requestUserId = Integer.parseInt(p[2]);
+            int[] friendIds = ChatServer.getFriendGraph().getFriends(requestUserId);
+            GroupMembershipCache membership = ChatServer.getGroupMembership();
+            List<User> result = new ArrayList<>();
+            for (int friendId : friendIds) {
+                if (!membership.isMember(groupId, friendId)) {
+                    User u = userDAO.getUserById(friendId);
+                    if (u != null)
+                        result.add(u);
                 }
-            } catch (SQLException e) {
-                out.writeObject("ADD_GROUP_MEMBER|FAIL|" + e.getMessage());
             }
-        } else if (msg.startsWith("GET_MEMBER_ROLE|")) {
-            String[] p = msg.split("\\|");
+            java.util.Map<String, Object> response = new java.util.HashMap<>();
+            response.put("type", "FRIENDS_NOT_IN_GROUP");
+            response.put("data", result);
+            out.writeObject(response);
+        } catch (Exception e) {
+            logger.error("Error getting friends not in group", e);
+            java.util.Map<String, Object> response = new java.util.HashMap<>();
+            response.put("type", "FRIENDS_NOT_IN_GROUP");
+            response.put("data", new ArrayList<User>());
+            out.writeObject(response);
+        }
+    }
+
+    private void handleGetGroupMembers(Packet packet) throws Exception {
+        // Format: GET_GROUP_MEMBERS|groupId
+        try {
+            String[] p = packet.split();
             int groupId = Integer.parseInt(p[1]);
-            int memberId = Integer.parseInt(p[2]);
-            try {
-                String role = groupDAO.getMemberRole(groupId, memberId);
-                out.writeObject("MEMBER_ROLE|" + (role != null ? role : "none"));
-            } catch (SQLException e) {
-                out.writeObject("MEMBER_ROLE|ERROR");
+            int[] memberIds = ChatServer.getGroupMembership().getMembers(groupId);
+            List<User> members = new ArrayList<>();
+            for (int memberId : memberIds) {
+                User u = userDAO.getUserById(memberId);
+                if (u != null) {
+                    members.add(u);
+                }
             }
-        } else if (msg.startsWith("LEAVE_GROUP|")) {
-            int groupId = Integer.parseInt(msg.split("\\|")[1]);
-            try {
-                boolean success = groupDAO.leaveGroup(groupId, userId);
+            out.writeObject(members);
+            logger.debug("Sent {} group members for group {}", members.size(), groupId);
+        } catch (Exception e) {
+            logger.error("Error getting group members", e);
+            out.writeObject(new ArrayList<User>());
+        }
+    }
+
+    private void handleAddGroupMember(Packet packet) throws Exception {
+        String[] p = packet.split();
+        int groupId = Integer.parseInt(p[1]);
+        int memberId = Integer.parseInt(p[2]);
+        try {
+            boolean success = groupDAO.addMemberToGroup(groupId, memberId);
+            if (success) {
+                ChatServer.getGroupMembership().onMemberAdded(groupId, memberId);
+                out.writeObject("ADD_GROUP_MEMBER|SUCCESS");
+                // Notify new member
+                broadcaster.broadcastToUser(memberId, "GROUPS_UPDATE");
+                // Notify existing members
+                int[] members = ChatServer.getGroupMembership().getMembers(groupId);
+                for (int mId : members) {
+                    broadcaster.broadcastToUser(mId, "GROUP_MEMBERS_UPDATE|" + groupId);
+                }
+            } else {
+                out.writeObject("ADD_GROUP_MEMBER|FAIL");
+            }
+        } catch (SQLException e) {
+            out.writeObject("ADD_GROUP_MEMBER|FAIL|" + e.getMessage());
+        }
+    }
+
+    private void handleGetMemberRole(Packet packet) throws Exception {
+        String[] p = packet.split();
+        int groupId = Integer.parseInt(p[1]);
+        int memberId = Integer.parseInt(p[2]);
+        try {
+            String role = groupDAO.getMemberRole(groupId, memberId);
+            out.writeObject("MEMBER_ROLE|" + (role != null ? role : "none"));
+        } catch (SQLException e) {
+            out.writeObject("MEMBER_ROLE|ERROR");
+        }
+    }
+
+    private void handleLeaveGroup(Packet packet) throws Exception {
+        int groupId = Integer.parseInt(packet.split()[1]);
+        try {
+            // Hàng đã không còn (client cũ tự xóa trong DB) vẫn tính là đã rời: cache vẫn được cập nhật
+            ChatServer.getGroupMembership().removeMember(groupId, userId);
+            ChatServer.getUnreadCounters().onLeftGroup(userId, groupId);
+            out.writeObject("LEAVE_GROUP|SUCCESS");
+            broadcaster.broadcastToUser(userId, "GROUPS_UPDATE");
+            int[] members = ChatServer.getGroupMembership().getMembers(groupId);
+            for (int m : members)
+                broadcaster.broadcastToUser(m, "GROUP_MEMBERS_UPDATE|" + groupId);
+        } catch (SQLException e) {
+            out.writeObject("LEAVE_GROUP|FAIL|" + e.getMessage());
+        }
+    }
+
+    private void handleRemoveGroupMember(Packet packet) throws Exception {
+        // Format: REMOVE_GROUP_MEMBER|groupId|memberId (chỉ admin, không xóa được admin khác)
+        String[] p = packet.split();
+        int groupId = Integer.parseInt(p[1]);
+        int memberId = Integer.parseInt(p[2]);
+        try {
+            if (memberId == userId || !"admin".equals(groupDAO.getMemberRole(groupId, userId))
+                    || "admin".equals(groupDAO.getMemberRole(groupId, memberId))) {
+                out.writeObject("REMOVE_GROUP_MEMBER|FAIL|PERMISSION_DENIED");
+                return;
+            }
+            ChatServer.getGroupMembership().removeMember(groupId, memberId);
+            ChatServer.getUnreadCounters().onLeftGroup(memberId, groupId);
+            out.writeObject("REMOVE_GROUP_MEMBER|SUCCESS");
+            broadcaster.broadcastToUser(memberId, "GROUPS_UPDATE");
+            int[] members = ChatServer.getGroupMembership().getMembers(groupId);
+            for (int m : members)
+                broadcaster.broadcastToUser(m, "GROUP_MEMBERS_UPDATE|" + groupId);
+        } catch (SQLException e) {
+            out.writeObject("REMOVE_GROUP_MEMBER|FAIL|" + e.getMessage());
+        }
+    }
+
+    private void handleDeleteGroup(Packet packet) throws Exception {
+        int groupId = Integer.parseInt(packet.split()[1]);
+        try {
+            String role = groupDAO.getMemberRole(groupId, userId);
+            // Nhóm đã bị xóa khỏi DB (client cũ tự xóa) thì chỉ còn dọn cache và báo các thành viên đã biết
+            boolean alreadyDeleted = role == null && groupDAO.getGroupById(groupId) == null;
+            if ("admin".equals(role) || alreadyDeleted) {
+                int[] members = ChatServer.getGroupMembership().getMembers(groupId);
+                boolean success = ChatServer.getGroupMembership().deleteGroup(groupId) || alreadyDeleted;
                 if (success) {
-                    out.writeObject("LEAVE_GROUP|SUCCESS");
-                    broadcaster.broadcastToUser(userId, "GROUPS_UPDATE");
-                    List<Integer> members = groupDAO.getGroupMembers(groupId);
                     for (int m : members)
-                        broadcaster.broadcastToUser(m, "GROUP_MEMBERS_UPDATE|" + groupId);
+                        ChatServer.getUnreadCounters().onLeftGroup(m, groupId);
+                    forgetRecent(userId, groupId, true);
+                    out.writeObject("DELETE_GROUP|SUCCESS");
+                    for (int m : members)
+                        broadcaster.broadcastToUser(m, "GROUPS_UPDATE");
                 } else {
-                    out.writeObject("LEAVE_GROUP|FAIL");
+                    out.writeObject("DELETE_GROUP|FAIL");
                 }
-            } catch (SQLException e) {
-                out.writeObject("LEAVE_GROUP|FAIL|" + e.getMessage());
+            } else {
+                out.writeObject("DELETE_GROUP|FAIL|PERMISSION_DENIED");
             }
-        } else if (msg.startsWith("DELETE_GROUP|")) {
-            int groupId = Integer.parseInt(msg.split("\\|")[1]);
-            try {
-                String role = groupDAO.getMemberRole(groupId, userId);
-                if ("admin".equals(role)) {
-                    List<Integer> members = groupDAO.getGroupMembers(groupId);
-                    boolean success = groupDAO.deleteGroup(groupId);
-                    if (success) {
-                        out.writeObject("DELETE_GROUP|SUCCESS");
-                        for (int m : members)
-                            broadcaster.broadcastToUser(m, "GROUPS_UPDATE");
-                    } else {
-                        out.writeObject("DELETE_GROUP|FAIL");
+        } catch (SQLException e) {
+            out.writeObject("DELETE_GROUP|FAIL|" + e.getMessage());
+        }
+    }
+
+    private void handleSearchUsers(Packet packet) throws Exception {
+        // Format: SEARCH_USERS|query|userId
+        try {
+            String[] p = packet.split(3);
+            if (p.length >= 2) {
+                String query = p[1];
+                int requestUserId = p.length >= 3 ? Integer.parseInt(p[2]) : userId;
+                UserDirectory directory = ChatServer.getUserDirectory();
+                List<org.example.zalu.model.User> users;
+                // Giữ cả bạn bè và người đã gửi lời mời, client tự hiện nút phù hợp (Gửi/Hủy/Đã là bạn)
+                if (directory != null && directory.isReady()) {
+                    // Danh bạ xếp hạng sẵn, chỉ đọc từ DB đúng các user trả về
+                    List<Integer> ids = directory.search(query, requestUserId, USER_SEARCH_LIMIT);
+                    java.util.Map<Integer, org.example.zalu.model.User> byId = new java.util.HashMap<>();
+                    for (org.example.zalu.model.User user : userDAO.getUsersByIds(ids)) {
+                        byId.put(user.getId(), user);
+                    }
+                    users = new ArrayList<>(ids.size());
+                    for (Integer id : ids) {
+                        if (byId.containsKey(id)) {
+                            users.add(byId.get(id));
+                        }
                     }
                 } else {
-                    out.writeObject("DELETE_GROUP|FAIL|PERMISSION_DENIED");
+                    users = userDAO.searchUsers(query, requestUserId, USER_SEARCH_LIMIT);
                 }
-            } catch (SQLException e) {
-                out.writeObject("DELETE_GROUP|FAIL|" + e.getMessage());
+                out.writeObject(users);
+                logger.debug("Đã gửi {} kết quả tìm kiếm cho query '{}'", users.size(), query);
+            } else {
+                out.writeObject(new ArrayList<>());
+            }
+        } catch (org.example.zalu.exception.database.DatabaseException
+                | org.example.zalu.exception.database.DatabaseConnectionException e) {
+            logger.error("Lỗi khi tìm kiếm user", e);
+            out.writeObject(new ArrayList<>());
+        }
+    }
+
+    private void handleGetUserAvatar(Packet packet) throws Exception {
+        // Format: GET_USER_AVATAR|userId
+        try {
+            int targetUserId = Integer.parseInt(packet.split()[1]);
+            byte[] avatarData = userDAO.getAvatarData(targetUserId);
+            if (avatarData != null && avatarData.length > 0) {
+                // Header và ảnh cùng một lần flush để không có frame nào khác chen vào giữa
+                out.writeObject("USER_AVATAR|" + targetUserId + "|" + avatarData.length);
+                out.writeObject(avatarData);
+                out.flush();
+            } else {
+                out.writeObject("USER_AVATAR|" + targetUserId + "|0");
+                out.flush();
+            }
+        } catch (Exception e) {
+            logger.error("Error getting avatar for user", e);
+            out.writeObject("USER_AVATAR|FAIL");
+        }
+    }
+
+    private void handleGetAvatars(Packet packet) throws Exception {
+        // Format: GET_AVATARS|size|userId:version,userId:version,... (version = phiên bản client đang có)
+        // Trả về Map type=AVATARS chỉ gồm các avatar đã đổi: versions (userId -> phiên bản mới) và
+        // data (userId -> ảnh ở kích thước size); user có trong versions mà không có trong data là không còn avatar
+        java.util.Map<String, Object> response = new java.util.HashMap<>();
+        response.put("type", "AVATARS");
+        try {
+            String[] p = packet.split();
+            int size = Integer.parseInt(p[1]);
+            java.util.Map<Integer, Integer> known = new java.util.LinkedHashMap<>();
+            if (p.length >= 3) {
+                for (String item : p[2].split(",")) {
+                    if (item.isBlank()) {
+                        continue;
+                    }
+                    int colon = item.indexOf(':');
+                    int id = Integer.parseInt((colon < 0 ? item : item.substring(0, colon)).trim());
+                    known.put(id, colon < 0 ? 0 : Integer.parseInt(item.substring(colon + 1).trim()));
+                }
+            }
+            org.example.zalu.server.avatar.AvatarStore.Changes changes = ChatServer.getAvatars().changed(known, size);
+            response.put("size", size);
+            response.put("versions", changes.versions());
+            response.put("data", changes.data());
+            logger.debug("GET_AVATARS: {} user, {} đã đổi", known.size(), changes.versions().size());
+        } catch (Exception e) {
+            logger.error("Lỗi GET_AVATARS: {}", e.getMessage());
+            response.put("type", "AVATARS_FAIL");
+        }
+        out.writeObject(response);
+        out.flush();
+    }
+
+    private void handleGetPendingRequests(Packet packet) throws Exception {
+        // Format: GET_PENDING_REQUESTS|userId
+        try {
+            String[] p = packet.split();
+            int requestUserId = p.length >= 2 ? Integer.parseInt(p[1]) : userId;
+            List<Integer> incoming = friendDAO.getPendingFriendRequests(requestUserId);
+            List<Integer> outgoing = friendDAO.getOutgoingRequest(requestUserId);
+            // Gửi cả hai danh sách
+            java.util.Map<String, List<Integer>> result = new java.util.HashMap<>();
+            result.put("incoming", incoming);
+            result.put("outgoing", outgoing);
+            out.writeObject(result);
+            logger.debug("Đã gửi {} incoming và {} outgoing requests cho user {}", incoming.size(), outgoing.size(),
+                    requestUserId);
+        } catch (SQLException e) {
+            logger.error("Lỗi SQL khi lấy pending requests", e);
+            java.util.Map<String, List<Integer>> emptyResult = new java.util.HashMap<>();
+            emptyResult.put("incoming", new ArrayList<>());
+            emptyResult.put("outgoing", new ArrayList<>());
+            out.writeObject(emptyResult);
+        }
+    }
+
+    private void handleGetMessages(Packet packet) throws Exception {
+        // Format: GET_MESSAGES|userId|friendId
+        try {
+            String[] p = packet.split();
+            if (p.length >= 3) {
+                int requestUserId = Integer.parseInt(p[1]);
+                int friendId = Integer.parseInt(p[2]);
+                List<Message> messages = messageDAO.getMessagesBetween(requestUserId, friendId);
+                out.writeObject(messages);
+                logger.debug("Đã gửi {} tin nhắn giữa user {} và {}", messages.size(), requestUserId, friendId);
+            } else {
+                out.writeObject(new ArrayList<>());
             }
-        } else if (msg.startsWith("SEARCH_USERS|"))
+        } catch (org.example.zalu.exception.message.MessageException
+                | org.example.zalu.exception.database.DatabaseException
+                | org.example.zalu.exception.database.DatabaseConnectionException e) {
+            logger.error("Lỗi khi lấy tin nhắn", e);
+            out.writeObject(new ArrayList<>());
+        }
+    }
 
-        {
-            // Format: SEARCH_USERS|query|userId
-            try {
-                String[] p = msg.split("\\|", 3);
-                if (p.length >= 2) {
-                    String query = p[1];
-                    int requestUserId = p.length >= 3 ? Integer.parseInt(p[2]) : userId;
-                    List<org.example.zalu.model.User> users = userDAO.searchUsers(query);
-                    // Filter out ONLY current user, but keep friends and pending requests
-                    // Client will handle showing appropriate button (Gửi/Hủy/Đã là bạn)
-                    List<org.example.zalu.model.User> filteredUsers = new ArrayList<>();
-                    for (org.example.zalu.model.User user : users) {
-                        if (user.getId() != requestUserId) {
-                            filteredUsers.add(user);
-                        }
-                    }
-                    out.writeObject(filteredUsers);
-                    logger.debug("Đã gửi {} kết quả tìm kiếm cho query '{}'", filteredUsers.size(), query);
-                } else {
+    private void handleGetGroupMessages(Packet packet) throws Exception {
+        // Format: GET_GROUP_MESSAGES|groupId|userId
+        try {
+            String[] p = packet.split();
+            if (p.length >= 2) {
+                int groupId = Integer.parseInt(p[1]);
+                int requestUserId = p.length >= 3 ? Integer.parseInt(p[2]) : userId;
+
+                // SECURITY CHECK: Verify user is still a member of the group
+                boolean isMember = ChatServer.getGroupMembership().isMember(groupId, requestUserId);
+                if (!isMember) {
+                    logger.warn("User {} attempted to access group {} messages but is not a member", requestUserId,
+                            groupId);
                     out.writeObject(new ArrayList<>());
+                    return;
                 }
-            } catch (org.example.zalu.exception.database.DatabaseException
-                    | org.example.zalu.exception.database.DatabaseConnectionException e) {
-                logger.error("Lỗi khi tìm kiếm user", e);
+
+                List<Message> messages = messageDAO.getMessagesForGroup(groupId);
+                out.writeObject(messages);
+                logger.debug("Đã gửi {} tin nhắn cho nhóm {}", messages.size(), groupId);
+            } else {
                 out.writeObject(new ArrayList<>());
             }
-        } else if (msg.startsWith("GET_USER_AVATAR|")) {
-            // Format: GET_USER_AVATAR|userId
-            try {
-                int targetUserId = Integer.parseInt(msg.split("\\|")[1]);
-                byte[] avatarData = userDAO.getAvatarData(targetUserId);
-                if (avatarData != null && avatarData.length > 0) {
-                    out.writeObject("USER_AVATAR|" + targetUserId + "|" + avatarData.length);
-                    out.flush();
-                    out.writeObject(avatarData);
-                    out.flush();
-                } else {
-                    out.writeObject("USER_AVATAR|" + targetUserId + "|0");
-                    out.flush();
-                }
-            } catch (Exception e) {
-                logger.error("Error getting avatar for user", e);
-                out.writeObject("USER_AVATAR|FAIL");
+        } catch (org.example.zalu.exception.message.MessageException
+                | org.example.zalu.exception.database.DatabaseException
+                | org.example.zalu.exception.database.DatabaseConnectionException e) {
+            logger.error("Lỗi khi lấy tin nhắn nhóm", e);
+            out.writeObject(new ArrayList<>());
+        } catch (SQLException e) {
+            logger.error("Lỗi SQL khi kiểm tra membership", e);
+            out.writeObject(new ArrayList<>());
+        }
+    }
+
+    private void handleGetUserById(Packet packet) throws Exception {
+        // Format: GET_USER_BY_ID|userId
+        try {
+            String[] p = packet.split();
+            if (p.length >= 2) {
+                int requestUserId = Integer.parseInt(p[1]);
+                org.example.zalu.model.User user = userDAO.getUserById(requestUserId);
+                out.writeObject(user);
+                logger.debug("Đã gửi thông tin user {}", requestUserId);
+            } else {
+                out.writeObject(null);
             }
-        } else if (msg.startsWith("GET_PENDING_REQUESTS|")) {
-            // Format: GET_PENDING_REQUESTS|userId
-            try {
-                String[] p = msg.split("\\|");
-                int requestUserId = p.length >= 2 ? Integer.parseInt(p[1]) : userId;
-                List<Integer> incoming = friendDAO.getPendingFriendRequests(requestUserId);
-                List<Integer> outgoing = friendDAO.getOutgoingRequest(requestUserId);
-                // Gửi cả hai danh sách
-                java.util.Map<String, List<Integer>> result = new java.util.HashMap<>();
-                result.put("incoming", incoming);
-                result.put("outgoing", outgoing);
-                out.writeObject(result);
-                logger.debug("Đã gửi {} incoming và {} outgoing requests cho user {}", incoming.size(), outgoing.size(),
-                        requestUserId);
-            } catch (SQLException e) {
-                logger.error("Lỗi SQL khi lấy pending requests", e);
-                java.util.Map<String, List<Integer>> emptyResult = new java.util.HashMap<>();
-                emptyResult.put("incoming", new ArrayList<>());
-                emptyResult.put("outgoing", new ArrayList<>());
-                out.writeObject(emptyResult);
-            }
-        } else if (msg.startsWith("GET_MESSAGES|")) {
-            // Format: GET_MESSAGES|userId|friendId
+        } catch (org.example.zalu.exception.auth.UserNotFoundException e) {
+            logger.warn("User không tồn tại", e);
+            out.writeObject(null);
+        } catch (org.example.zalu.exception.database.DatabaseException
+                | org.example.zalu.exception.database.DatabaseConnectionException e) {
+            logger.error("Lỗi khi lấy thông tin user", e);
+            out.writeObject(null);
+        }
+    }
+
+    private void handleGetUserStats(Packet packet) throws Exception {
+        // Format: GET_USER_STATS|userId
+        try {
+            String[] p = packet.split();
+            int targetId = p.length >= 2 ? Integer.parseInt(p[1]) : userId;
+
+            long msgCount    = messageDAO.getMessageCountByUser(targetId);
+            long fileCount   = messageDAO.getFileCountByUser(targetId);
+            int  friendCount = ChatServer.getFriendGraph().getFriends(targetId).length;
+            int  groupCount  = groupDAO.getUserGroups(targetId).size();
+
+            // Lấy ngày tạo tài khoản từ UserDAO
+            String joinedDate = "";
             try {
-                String[] p = msg.split("\\|");
-                if (p.length >= 3) {
-                    int requestUserId = Integer.parseInt(p[1]);
-                    int friendId = Integer.parseInt(p[2]);
-                    List<Message> messages = messageDAO.getMessagesBetween(requestUserId, friendId);
-                    out.writeObject(messages);
-                    logger.debug("Đã gửi {} tin nhắn giữa user {} và {}", messages.size(), requestUserId, friendId);
+                org.example.zalu.model.User u = userDAO.getUserById(targetId);
+                if (u != null && u.getCreatedAt() != null) {
+                    joinedDate = u.getCreatedAt().format(java.time.format.DateTimeFormatter.ofPattern("dd/MM/yyyy"));
+                }
+            } catch (Exception ignored) {}
+
+            java.util.Map<String, Object> stats = new java.util.HashMap<>();
+            stats.put("type", "USER_STATS_RESULT");
+            stats.put("messageCount", msgCount);
+            stats.put("fileCount",    fileCount);
+            stats.put("friendCount",  friendCount);
+            stats.put("groupCount",   groupCount);
+            stats.put("joinedDate",   joinedDate);
+            out.writeObject(stats);
+            out.flush();
+        } catch (Exception e) {
+            logger.error("Lỗi GET_USER_STATS: {}", e.getMessage());
+            java.util.Map<String, Object> stats = new java.util.HashMap<>();
+            stats.put("type", "USER_STATS_RESULT");
+            out.writeObject(stats);
+            out.flush();
+        }
+    }
+
+    private void handleKeepAlive(Packet packet) throws Exception {
+        out.writeObject("KEEP_ALIVE_OK");
+    }
+
+    private void handleReportUser(Packet packet) throws Exception {
+        // Format: REPORT_USER|reportedUserId|reason|description
+        try {
+            String[] p = packet.split(4);
+            if (p.length >= 3) {
+                int reportedId = Integer.parseInt(p[1]);
+                String reason = p[2];
+                String description = p.length >= 4 ? p[3] : "";
+                
+                org.example.zalu.model.UserReport report = new org.example.zalu.model.UserReport(
+                    userId, reportedId, reason, description
+                );
+                
+                boolean success = ChatServer.getReportDAO().createReport(report);
+                if (success) {
+                    out.writeObject("REPORT_USER_SUCCESS");
+                    logger.info("User {} reported user {} for: {}", userId, reportedId, reason);
                 } else {
-                    out.writeObject(new ArrayList<>());
+                    out.writeObject("REPORT_USER_FAIL");
                 }
-            } catch (org.example.zalu.exception.message.MessageException
-                    | org.example.zalu.exception.database.DatabaseException
-                    | org.example.zalu.exception.database.DatabaseConnectionException e) {
-                logger.error("Lỗi khi lấy tin nhắn", e);
-                out.writeObject(new ArrayList<>());
             }
-        } else if (msg.startsWith("GET_GROUP_MESSAGES|")) {
-            // Format: GET_GROUP_MESSAGES|groupId|userId
-            try {
-                String[] p = msg.split("\\|");
-                if (p.length >= 2) {
-                    int groupId = Integer.parseInt(p[1]);
-                    int requestUserId = p.length >= 3 ? Integer.parseInt(p[2]) : userId;
-
-                    // SECURITY CHECK: Verify user is still a member of the group
-                    boolean isMember = groupDAO.isMemberOfGroup(groupId, requestUserId);
-                    if (!isMember) {
-                        logger.warn("User {} attempted to access group {} messages but is not a member", requestUserId,
-                                groupId);
-                        out.writeObject(new ArrayList<>());
-                        return;
-                    }
+        } catch (Exception e) {
+            logger.error("Lỗi khi xử lý REPORT_USER: {}", e.getMessage());
+            try { out.writeObject("REPORT_USER_FAIL"); } catch (Exception ignored) {}
+        }
+    }
 
-                    List<Message> messages = messageDAO.getMessagesForGroup(groupId);
-                    out.writeObject(messages);
-                    logger.debug("Đã gửi {} tin nhắn cho nhóm {}", messages.size(), groupId);
-                } else {
-                    out.writeObject(new ArrayList<>());
+    private void handleTyping(Packet packet) throws Exception {
+        // Format: TYPING|senderId|receiverId
+        String[] p = packet.split();
+        if (p.length >= 3) {
+            int senderId = Integer.parseInt(p[1]);
+            int receiverId = Integer.parseInt(p[2]);
+            // Broadcast typing signal đến receiver
+            broadcaster.broadcastToUser(receiverId, "TYPING_INDICATOR|" + senderId);
+        }
+    }
+
+    private void handleTypingStop(Packet packet) throws Exception {
+        // Format: TYPING_STOP|senderId|receiverId
+        String[] p = packet.split();
+        if (p.length >= 3) {
+            int senderId = Integer.parseInt(p[1]);
+            int receiverId = Integer.parseInt(p[2]);
+            // Broadcast stop typing signal đến receiver
+            broadcaster.broadcastToUser(receiverId, "TYPING_STOP|" + senderId);
+        }
+    }
+
+    private void handlePresenceSubscribe(Packet packet) throws Exception {
+        // Format: PRESENCE_SUBSCRIBE|friendId,friendId,... (các chat đang hiển thị, có thể rỗng)
+        String[] p = packet.split();
+        List<Integer> watchedIds = new ArrayList<>();
+        if (p.length >= 2) {
+            for (String id : p[1].split(",")) {
+                if (!id.isBlank()) {
+                    watchedIds.add(Integer.parseInt(id.trim()));
                 }
-            } catch (org.example.zalu.exception.message.MessageException
-                    | org.example.zalu.exception.database.DatabaseException
-                    | org.example.zalu.exception.database.DatabaseConnectionException e) {
-                logger.error("Lỗi khi lấy tin nhắn nhóm", e);
-                out.writeObject(new ArrayList<>());
-            } catch (SQLException e) {
-                logger.error("Lỗi SQL khi kiểm tra membership", e);
-                out.writeObject(new ArrayList<>());
             }
-        } else if (msg.startsWith("GET_USER_BY_ID|")) {
-            // Format: GET_USER_BY_ID|userId
+        }
+        // Trả về trạng thái hiện tại của các bạn bè vừa đăng ký, sau đó chỉ nhận thay đổi của họ
+        out.writeObject(ChatServer.getPresence().subscribe(userId, watchedIds));
+        out.flush();
+    }
+
+    private void handleVideoCallRequest(Packet packet) throws Exception {
+        // Format: VIDEO_CALL_REQUEST|callerId|callerName|receiverId
+        String[] p = packet.split();
+        if (p.length >= 4) {
             try {
-                String[] p = msg.split("\\|");
-                if (p.length >= 2) {
-                    int requestUserId = Integer.parseInt(p[1]);
-                    org.example.zalu.model.User user = userDAO.getUserById(requestUserId);
-                    out.writeObject(user);
-                    logger.debug("Đã gửi thông tin user {}", requestUserId);
+                int callerId = Integer.parseInt(p[1]);
+                String callerName = p[2];
+                int receiverId = Integer.parseInt(p[3]);
+
+                // Kiểm tra receiver có online không
+                if (clients.containsKey(receiverId)) {
+                    // Forward request đến receiver
+                    broadcaster.broadcastToUser(receiverId,
+                            "VIDEO_CALL_INCOMING|" + callerId + "|" + callerName);
+
+                    // Confirm đã gửi request
+                    out.writeObject("VIDEO_CALL_REQUEST|SENT");
+                    logger.info("Forwarded video call request from {} to {}", callerId, receiverId);
                 } else {
-                    out.writeObject(null);
+                    // User offline
+                    out.writeObject("VIDEO_CALL_REQUEST|FAIL|USER_OFFLINE");
+                    logger.warn("Video call request failed: user {} is offline", receiverId);
                 }
-            } catch (org.example.zalu.exception.auth.UserNotFoundException e) {
-                logger.warn("User không tồn tại", e);
-                out.writeObject(null);
-            } catch (org.example.zalu.exception.database.DatabaseException
-                    | org.example.zalu.exception.database.DatabaseConnectionException e) {
-                logger.error("Lỗi khi lấy thông tin user", e);
-                out.writeObject(null);
+            } catch (Exception e) {
+                logger.error("Error handling VIDEO_CALL_REQUEST", e);
+                out.writeObject("VIDEO_CALL_REQUEST|FAIL|ERROR");
             }
-        } else if (msg.startsWith("GET_USER_STATS|")) {
-            // Format: GET_USER_STATS|userId
+        }
+    }
+
+    private void handleVideoCallAccept(Packet packet) throws Exception {
+        // Format: VIDEO_CALL_ACCEPT|receiverId|receiverName|callerId
+        String[] p = packet.split();
+        if (p.length >= 4) {
             try {
-                String[] p = msg.split("\\|");
-                int targetId = p.length >= 2 ? Integer.parseInt(p[1]) : userId;
+                int receiverId = Integer.parseInt(p[1]);
+                String receiverName = p[2];
+                int callerId = Integer.parseInt(p[3]);
 
-                long msgCount    = messageDAO.getMessageCountByUser(targetId);
-                long fileCount   = messageDAO.getFileCountByUser(targetId);
-                int  friendCount = friendDAO.getFriendsByUserId(targetId).size();
-                int  groupCount  = groupDAO.getUserGroups(targetId).size();
+                // Forward accept đến caller
+                broadcaster.broadcastToUser(callerId,
+                        "VIDEO_CALL_ACCEPTED|" + receiverId + "|" + receiverName);
 
-                // Lấy ngày tạo tài khoản từ UserDAO
-                String joinedDate = "";
-                try {
-                    org.example.zalu.model.User u = userDAO.getUserById(targetId);
-                    if (u != null && u.getCreatedAt() != null) {
-                        joinedDate = u.getCreatedAt().format(java.time.format.DateTimeFormatter.ofPattern("dd/MM/yyyy"));
-                    }
-                } catch (Exception ignored) {}
-
-                java.util.Map<String, Object> stats = new java.util.HashMap<>();
-                stats.put("type", "USER_STATS_RESULT");
-                stats.put("messageCount", msgCount);
-                stats.put("fileCount",    fileCount);
-                stats.put("friendCount",  friendCount);
-                stats.put("groupCount",   groupCount);
-                stats.put("joinedDate",   joinedDate);
-                out.writeObject(stats);
-                out.flush();
-            } catch (Exception e) {
-                logger.error("Lỗi GET_USER_STATS: {}", e.getMessage());
-                out.writeObject(new java.util.HashMap<>());
-                out.flush();
-            }
-        } else if (msg.equals("KEEP_ALIVE")) {
-            out.writeObject("KEEP_ALIVE_OK");
-        } else if (msg.startsWith("REPORT_USER|")) {
-            // Format: REPORT_USER|reportedUserId|reason|description
-            try {
-                String[] p = msg.split("\\|", 4);
-                if (p.length >= 3) {
-                    int reportedId = Integer.parseInt(p[1]);
-                    String reason = p[2];
-                    String description = p.length >= 4 ? p[3] : "";
-                    
-                    org.example.zalu.model.UserReport report = new org.example.zalu.model.UserReport(
-                        userId, reportedId, reason, description
-                    );
-                    
-                    boolean success = ChatServer.getReportDAO().createReport(report);
-                    if (success) {
-                        out.writeObject("REPORT_USER_SUCCESS");
-                        logger.info("User {} reported user {} for: {}", userId, reportedId, reason);
-                    } else {
-                        out.writeObject("REPORT_USER_FAIL");
-                    }
-                }
+                logger.info("User {} accepted video call from {}", receiverId, callerId);
             } catch (Exception e) {
-                logger.error("Lỗi khi xử lý REPORT_USER: {}", e.getMessage());
-                try { out.writeObject("REPORT_USER_FAIL"); } catch (Exception ignored) {}
+                logger.error("Error handling VIDEO_CALL_ACCEPT", e);
             }
-        } else if (msg.startsWith("TYPING|")) {
+        }
+    }
 
-            // Format: TYPING|senderId|receiverId
-            String[] p = msg.split("\\|");
-            if (p.length >= 3) {
-                int senderId = Integer.parseInt(p[1]);
-                int receiverId = Integer.parseInt(p[2]);
-                // Broadcast typing signal đến receiver
-                broadcaster.broadcastToUser(receiverId, "TYPING_INDICATOR|" + senderId);
-            }
-        } else if (msg.startsWith("TYPING_STOP|")) {
-            // Format: TYPING_STOP|senderId|receiverId
-            String[] p = msg.split("\\|");
-            if (p.length >= 3) {
-                int senderId = Integer.parseInt(p[1]);
-                int receiverId = Integer.parseInt(p[2]);
-                // Broadcast stop typing signal đến receiver
-                broadcaster.broadcastToUser(receiverId, "TYPING_STOP|" + senderId);
-            }
-        } else if (msg.startsWith("SEARCH_MESSAGES|")) {
-            handleSearchMessages(msg);
-        } else if (msg.startsWith("GET_PINNED_MESSAGES|")) {
-            handleGetPinnedMessages(msg);
-        } else if (msg.startsWith("PIN_MESSAGE|")) {
-            handlePinMessage(msg);
-        } else if (msg.startsWith("MARK_AS_READ|")) {
-            handleMarkAsRead(msg);
-        } else if (msg.startsWith("VIDEO_CALL_REQUEST|")) {
-            // Format: VIDEO_CALL_REQUEST|callerId|callerName|receiverId
-            String[] p = msg.split("\\|");
-            if (p.length >= 4) {
-                try {
-                    int callerId = Integer.parseInt(p[1]);
-                    String callerName = p[2];
-                    int receiverId = Integer.parseInt(p[3]);
-
-                    // Kiểm tra receiver có online không
-                    if (clients.containsKey(receiverId)) {
-                        // Forward request đến receiver
-                        broadcaster.broadcastToUser(receiverId,
-                                "VIDEO_CALL_INCOMING|" + callerId + "|" + callerName);
-
-                        // Confirm đã gửi request
-                        out.writeObject("VIDEO_CALL_REQUEST|SENT");
-                        logger.info("Forwarded video call request from {} to {}", callerId, receiverId);
-                    } else {
-                        // User offline
-                        out.writeObject("VIDEO_CALL_REQUEST|FAIL|USER_OFFLINE");
-                        logger.warn("Video call request failed: user {} is offline", receiverId);
-                    }
-                } catch (Exception e) {
-                    logger.error("Error handling VIDEO_CALL_REQUEST", e);
-                    out.writeObject("VIDEO_CALL_REQUEST|FAIL|ERROR");
-                }
-            }
-        } else if (msg.startsWith("VIDEO_CALL_ACCEPT|")) {
-            // Format: VIDEO_CALL_ACCEPT|receiverId|receiverName|callerId
-            String[] p = msg.split("\\|");
-            if (p.length >= 4) {
-                try {
-                    int receiverId = Integer.parseInt(p[1]);
-                    String receiverName = p[2];
-                    int callerId = Integer.parseInt(p[3]);
+    private void handleVideoCallReject(Packet packet) throws Exception {
+        // Format: VIDEO_CALL_REJECT|receiverId|callerId
+        String[] p = packet.split();
+        if (p.length >= 3) {
+            try {
+                int receiverId = Integer.parseInt(p[1]);
+                int callerId = Integer.parseInt(p[2]);
 
-                    // Forward accept đến caller
-                    broadcaster.broadcastToUser(callerId,
-                            "VIDEO_CALL_ACCEPTED|" + receiverId + "|" + receiverName);
+                // Forward reject đến caller
+                broadcaster.broadcastToUser(callerId,
+                        "VIDEO_CALL_REJECTED|" + receiverId);
 
-                    logger.info("User {} accepted video call from {}", receiverId, callerId);
-                } catch (Exception e) {
-                    logger.error("Error handling VIDEO_CALL_ACCEPT", e);
-                }
+                logger.info("User {} rejected video call from {}", receiverId, callerId);
+            } catch (Exception e) {
+                logger.error("Error handling VIDEO_CALL_REJECT", e);
             }
-        } else if (msg.startsWith("VIDEO_CALL_REJECT|")) {
-            // Format: VIDEO_CALL_REJECT|receiverId|callerId
-            String[] p = msg.split("\\|");
-            if (p.length >= 3) {
-                try {
-                    int receiverId = Integer.parseInt(p[1]);
-                    int callerId = Integer.parseInt(p[2]);
-
-                    // Forward reject đến caller
-                    broadcaster.broadcastToUser(callerId,
-                            "VIDEO_CALL_REJECTED|" + receiverId);
+        }
+    }
 
-                    logger.info("User {} rejected video call from {}", receiverId, callerId);
-                } catch (Exception e) {
-                    logger.error("Error handling VIDEO_CALL_REJECT", e);
-                }
-            }
-        } else if (msg.startsWith("VIDEO_CALL_END|")) {
-            // Format: VIDEO_CALL_END|userId|otherUserId
-            String[] p = msg.split("\\|");
-            if (p.length >= 3) {
-                try {
-                    int userId = Integer.parseInt(p[1]);
-                    int otherUserId = Integer.parseInt(p[2]);
+    private void handleVideoCallEnd(Packet packet) throws Exception {
+        // Format: VIDEO_CALL_END|userId|otherUserId
+        String[] p = packet.split();
+        if (p.length >= 3) {
+            try {
+                int userId = Integer.parseInt(p[1]);
+                int otherUserId = Integer.parseInt(p[2]);
 
-                    // Forward end signal đến other user
-                    broadcaster.broadcastToUser(otherUserId,
-                            "VIDEO_CALL_ENDED|" + userId);
+                // Forward end signal đến other user
+                broadcaster.broadcastToUser(otherUserId,
+                        "VIDEO_CALL_ENDED|" + userId);
 
-                    logger.info("Video call ended between {} and {}", userId, otherUserId);
-                } catch (Exception e) {
-                    logger.error("Error handling VIDEO_CALL_END", e);
-                }
+                logger.info("Video call ended between {} and {}", userId, otherUserId);
+            } catch (Exception e) {
+                logger.error("Error handling VIDEO_CALL_END", e);
             }
         }
-        out.flush();
     }
 
     private void handleFileData(byte[] fileData) {
@@ -1490,9 +2141,12 @@ public class ClientHandler extends Thread {
                 logger.debug("Server: Tạo Message cho group - groupId: {}, fileName: {}", pendingFileGroupId,
                         pendingFileName);
                 if (messageDAO.saveMessage(m)) {
+                    ChatServer.getUnreadCounters().onMessageSaved(m);
+                    indexForSearch(m);
+                    rememberRecent(m);
                     logger.info("Server: Lưu file group thành công! Message ID: {}", m.getId());
                     ChatServer.TOTAL_FILES_SENT.incrementAndGet(); // Tăng counter
-                    broadcaster.broadcastGroupMessage(m, pendingFileGroupId, groupDAO);
+                    broadcaster.broadcastGroupMessage(m, pendingFileGroupId);
                     out.writeObject("GROUP_FILE_SENT|OK|" + m.getId());
                     out.flush();
 
@@ -1514,6 +2168,9 @@ public class ClientHandler extends Thread {
                 logger.debug("Server: Tạo Message cho friend - receiverId: {}, fileName: {}", pendingFileReceiverId,
                         pendingFileName);
                 if (messageDAO.saveMessage(m)) {
+                    ChatServer.getUnreadCounters().onMessageSaved(m);
+                    indexForSearch(m);
+                    rememberRecent(m);
                     logger.info("Server: Lưu file thành công! Message ID: {}", m.getId());
                     ChatServer.TOTAL_FILES_SENT.incrementAndGet(); // Tăng counter
                     broadcaster.broadcastMessage(m, pendingFileReceiverId);
@@ -1552,41 +2209,310 @@ public class ClientHandler extends Thread {
         }
     }
 
-    private void handleSearchMessages(String msg) {
-        // Format: SEARCH_MESSAGES|userId|targetId|query|isGroup
+    private void handleUploadBegin(Packet packet) throws Exception {
+        // Format: UPLOAD_BEGIN|uploadId|receiverId|groupId|fileSize|fileName
+        String[] p = packet.split(6);
+        String uploadId = p.length > 1 ? p[1] : "";
+        if (p.length < 6) {
+            out.writeObject("UPLOAD_FAIL|" + uploadId + "|INVALID_REQUEST");
+            return;
+        }
+        try {
+            int receiverId = Integer.parseInt(p[2]);
+            int groupId = Integer.parseInt(p[3]);
+            long fileSize = Long.parseLong(p[4]);
+            boolean validTarget = groupId > 0 ? ChatServer.getGroupMembership().isMember(groupId, userId) : receiverId > 0;
+            if (!validTarget) {
+                out.writeObject("UPLOAD_FAIL|" + uploadId + "|INVALID_RECEIVER");
+                return;
+            }
+            UploadSession session = ChatServer.getFileTransfers().begin(userId, uploadId, receiverId, groupId, p[5],
+                    fileSize);
+            out.writeObject("UPLOAD_READY|" + uploadId + "|" + session.getCommitted() + "|"
+                    + FileTransferService.CHUNK_BYTES);
+        } catch (NumberFormatException e) {
+            out.writeObject("UPLOAD_FAIL|" + uploadId + "|INVALID_REQUEST");
+        } catch (FileOperationException e) {
+            out.writeObject("UPLOAD_FAIL|" + uploadId + "|" + e.getMessage());
+        }
+    }
+
+    private void handleUploadChunk(Packet packet) throws Exception {
+        // Format: UPLOAD_CHUNK|uploadId|offset|length, byte[] của chunk gửi ngay sau
+        String[] p = packet.split();
+        if (p.length >= 4) {
+            pendingUploadId = p[1];
+            pendingUploadOffset = Long.parseLong(p[2]);
+            pendingUploadLength = Integer.parseInt(p[3]);
+        }
+    }
+
+    private void handleUploadChunkData(byte[] data) throws IOException {
+        String uploadId = pendingUploadId;
+        pendingUploadId = null;
+        try {
+            if (data.length != pendingUploadLength) {
+                throw new FileOperationException("INVALID_CHUNK");
+            }
+            long committed = ChatServer.getFileTransfers().writeChunk(userId, uploadId, pendingUploadOffset, data);
+            out.writeObject("UPLOAD_ACK|" + uploadId + "|" + committed);
+        } catch (FileOperationException e) {
+            out.writeObject("UPLOAD_FAIL|" + uploadId + "|" + e.getMessage());
+        }
+        out.flush();
+    }
+
+    private void handleUploadEnd(Packet packet) throws Exception {
+        // Format: UPLOAD_END|uploadId|sha256
+        String[] p = packet.split();
+        if (p.length < 3) {
+            return;
+        }
+        String uploadId = p[1];
+        FileTransferService transfers = ChatServer.getFileTransfers();
+        UploadSession session;
+        try {
+            session = transfers.complete(userId, uploadId, p[2]);
+        } catch (FileOperationException e) {
+            out.writeObject("UPLOAD_FAIL|" + uploadId + "|" + e.getMessage());
+            return;
+        }
+
+        try {
+            int groupId = session.getGroupId();
+            String fileName = session.getFileName();
+            Message m = groupId > 0
+                    ? new Message(0, userId, 0, null, null, fileName, false, LocalDateTime.now(), groupId)
+                    : new Message(0, userId, session.getReceiverId(), null, null, fileName, false,
+                            LocalDateTime.now());
+            // File nhỏ vẫn đẩy kèm dữ liệu như trước, file lớn chỉ báo messageId để người nhận tải theo chunk
+            boolean inline = session.getFileSize() <= FileTransferService.INLINE_BROADCAST_BYTES;
+            boolean saved;
+            if (inline) {
+                m.setFileData(Files.readAllBytes(session.getSpoolFile()));
+                saved = messageDAO.saveMessage(m);
+            } else {
+                saved = messageDAO.saveFileMessage(m, session.getSpoolFile(), session.getFileSize(), p[2]);
+            }
+            if (!saved) {
+                out.writeObject("UPLOAD_FAIL|" + uploadId + "|DATABASE_ERROR");
+                return;
+            }
+            ChatServer.getUnreadCounters().onMessageSaved(m);
+            indexForSearch(m);
+            rememberRecent(m);
+            logger.info("Server: Lưu file upload {} thành công! Message ID: {}, size: {} bytes", uploadId, m.getId(),
+                    session.getFileSize());
+            ChatServer.TOTAL_FILES_SENT.incrementAndGet();
+
+            if (!inline) {
+                broadcaster.broadcastFileReference(m, session.getFileSize());
+            } else if (groupId > 0) {
+                broadcaster.broadcastGroupMessage(m, groupId);
+            } else {
+                broadcaster.broadcastMessage(m, session.getReceiverId());
+            }
+            out.writeObject("UPLOAD_DONE|" + uploadId + "|" + m.getId());
+            out.writeObject((groupId > 0 ? "GROUP_FILE_SENT|OK|" : "FILE_SENT|OK|") + m.getId());
+
+            if (activityCallback != null) {
+                UserActivity fileActivity = groupId > 0
+                        ? new UserActivity(userId, onlineUsers.get(userId), "GROUP_FILE", groupId, fileName,
+                                LocalDateTime.now(), true)
+                        : new UserActivity(userId, onlineUsers.get(userId), "FILE", session.getReceiverId(),
+                                fileName, LocalDateTime.now());
+                activityCallback.accept(fileActivity);
+            }
+        } catch (Exception e) {
+            logger.error("Server: Lỗi khi lưu file upload {}: {}", uploadId, e.getMessage(), e);
+            out.writeObject("UPLOAD_FAIL|" + uploadId + "|DATABASE_ERROR");
+        } finally {
+            transfers.discard(session);
+        }
+    }
+
+    private void handleDownloadBegin(Packet packet) throws Exception {
+        // Format: DOWNLOAD_BEGIN|messageId
+        String[] p = packet.split();
+        if (p.length < 2) {
+            return;
+        }
+        int messageId = Integer.parseInt(p[1]);
+        MessageDAO.FileInfo info = messageDAO.getFileInfo(messageId);
+        if (info == null) {
+            out.writeObject("DOWNLOAD_FAIL|" + messageId + "|FILE_NOT_FOUND");
+            return;
+        }
+        boolean hasPermission = info.groupId > 0
+                ? ChatServer.getGroupMembership().isMember(info.groupId, userId)
+                : info.senderId == userId || info.receiverId == userId;
+        if (!hasPermission) {
+            out.writeObject("DOWNLOAD_FAIL|" + messageId + "|PERMISSION_DENIED");
+            return;
+        }
+
+        FileTransferService transfers = ChatServer.getFileTransfers();
+        // File trong blob store: khóa chính là SHA-256 của nội dung
+        String sha256 = info.fileRef != null ? info.fileRef : transfers.getCachedHash(messageId);
+        if (sha256 == null) {
+            // Tính checksum bằng cách đọc từng đoạn, không nạp cả file
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (long offset = 0; offset < info.fileSize; offset += FileTransferService.CHUNK_BYTES) {
+                byte[] chunk = messageDAO.readFileRange(messageId, offset, FileTransferService.CHUNK_BYTES);
+                if (chunk == null || chunk.length == 0) {
+                    break;
+                }
+                digest.update(chunk);
+            }
+            sha256 = HexFormat.of().formatHex(digest.digest());
+            transfers.cacheHash(messageId, sha256);
+        }
+        downloadGrants.add(messageId);
+        if (info.fileRef != null) {
+            downloadRefs.put(messageId, info.fileRef);
+        }
+        out.writeObject("DOWNLOAD_INFO|" + messageId + "|" + info.fileSize + "|" + sha256 + "|"
+                + FileTransferService.CHUNK_BYTES + "|" + info.fileName);
+    }
+
+    private void handleDownloadChunk(Packet packet) throws Exception {
+        // Format: DOWNLOAD_CHUNK|messageId|offset|length
+        String[] p = packet.split();
+        if (p.length < 4) {
+            return;
+        }
+        int messageId = Integer.parseInt(p[1]);
+        if (!downloadGrants.contains(messageId)) {
+            out.writeObject("DOWNLOAD_FAIL|" + messageId + "|PERMISSION_DENIED");
+            return;
+        }
+        long offset = Long.parseLong(p[2]);
+        int length = Math.min(Integer.parseInt(p[3]), FileTransferService.CHUNK_BYTES);
+        String fileRef = downloadRefs.get(messageId);
+        if (fileRef != null) {
+            FileRegion region = BlobStore.getInstance().region(fileRef, offset, length);
+            ChatServer.TOTAL_BYTES_TRANSFERRED.addAndGet(region.getLength());
+            out.writeObject("DOWNLOAD_DATA|" + messageId + "|" + region.getOffset() + "|" + region.getLength());
+            out.writeObject(region);
+            return;
+        }
+        byte[] data = messageDAO.readFileRange(messageId, offset, length);
+        if (data == null) {
+            out.writeObject("DOWNLOAD_FAIL|" + messageId + "|FILE_NOT_FOUND");
+            return;
+        }
+        ChatServer.TOTAL_BYTES_TRANSFERRED.addAndGet(data.length);
+        // Header và dữ liệu nằm chung một frame của hàng đợi gửi
+        out.writeObject("DOWNLOAD_DATA|" + messageId + "|" + offset + "|" + data.length);
+        out.writeObject(data);
+    }
+
+    private void handleSearchMessages(Packet packet) {
+        // Format: SEARCH_MESSAGES|userId|targetId|query|isGroup[|offset|limit]
         try {
-            String[] p = msg.split("\\|", 5);
+            String[] p = packet.split(7);
             if (p.length >= 5) {
                 int rUserId = Integer.parseInt(p[1]);
                 int targetId = Integer.parseInt(p[2]);
                 String query = p[3];
                 boolean isGroup = Boolean.parseBoolean(p[4]);
-
-                List<Message> results;
-                if (isGroup) {
-                    results = messageDAO.searchGroupMessages(targetId, query);
-                } else {
-                    results = messageDAO.searchMessages(rUserId, targetId, query);
-                }
+                int offset = p.length > 5 ? Math.max(0, Integer.parseInt(p[5])) : 0;
+                int limit = p.length > 6 ? Integer.parseInt(p[6]) : SEARCH_PAGE_SIZE;
+                limit = Math.max(1, Math.min(limit, SEARCH_MAX_PAGE_SIZE));
 
                 java.util.Map<String, Object> response = new java.util.HashMap<>();
                 response.put("type", "SEARCH_MESSAGES_RESULT");
-                response.put("data", results);
+                MessageSearchIndex index = ChatServer.getSearchIndex();
+                if (index != null && index.isReady()) {
+                    // Xếp hạng trên chỉ mục, chỉ đọc từ DB các tin của trang này
+                    long chatKey = isGroup ? MessageSearchIndex.groupKey(targetId)
+                            : MessageSearchIndex.pairKey(rUserId, targetId);
+                    MessageSearchIndex.Page page = index.search(chatKey, query, offset, limit);
+                    List<Message> results = new ArrayList<>();
+                    Set<Integer> live = new HashSet<>();
+                    for (Message m : messageDAO.getMessagesByIds(page.ids())) {
+                        if (!m.isDeleted() && !m.isRecalled()) {
+                            results.add(m);
+                            live.add(m.getId());
+                        }
+                    }
+                    // Mục cũ trong chỉ mục (tin đã xóa/thu hồi/không còn): không tính vào tổng và bỏ luôn
+                    for (int id : page.ids()) {
+                        if (!live.contains(id)) {
+                            index.remove(id);
+                        }
+                    }
+                    response.put("data", results);
+                    response.put("total", page.total() - (page.ids().size() - results.size()));
+                } else {
+                    // Chỉ mục chưa dựng xong (hoặc đã tắt): tìm bằng SQL như cũ
+                    List<Message> results;
+                    if (isGroup) {
+                        results = messageDAO.searchGroupMessages(targetId, query);
+                    } else {
+                        results = messageDAO.searchMessages(rUserId, targetId, query);
+                    }
+                    response.put("total", results.size());
+                    response.put("data", new ArrayList<>(results.subList(Math.min(offset, results.size()),
+                            Math.min(offset + limit, results.size()))));
+                }
+                response.put("offset", offset);
                 out.writeObject(response);
             }
         } catch (Exception e) {
             logger.error("Error searching messages", e);
             try {
-                out.writeObject(new ArrayList<>());
+                java.util.Map<String, Object> response = new java.util.HashMap<>();
+                response.put("type", "SEARCH_MESSAGES_RESULT");
+                response.put("data", new ArrayList<Message>());
+                response.put("total", 0);
+                response.put("offset", 0);
+                out.writeObject(response);
             } catch (IOException ignored) {
             }
         }
     }
 
-    private void handleGetPinnedMessages(String msg) {
+    private static void indexForSearch(Message message) {
+        MessageSearchIndex index = ChatServer.getSearchIndex();
+        if (index != null) {
+            index.index(message);
+        }
+    }
+
+    private static void removeFromSearch(int messageId) {
+        MessageSearchIndex index = ChatServer.getSearchIndex();
+        if (index != null) {
+            index.remove(messageId);
+        }
+    }
+
+    private static void rememberRecent(Message message) {
+        HotConversationCache recent = ChatServer.getRecentMessages();
+        if (recent != null) {
+            recent.onSaved(message);
+        }
+    }
+
+    /** Cột is_read (không có read_cursors) hoặc cả cuộc trò chuyện đổi hàng loạt: nạp lại lần sau. */
+    private static void forgetRecent(int requestUserId, int targetId, boolean isGroup) {
+        HotConversationCache recent = ChatServer.getRecentMessages();
+        if (recent != null) {
+            recent.invalidate(requestUserId, targetId, isGroup);
+        }
+    }
+
+    private static void updateRecent(Message message) {
+        HotConversationCache recent = ChatServer.getRecentMessages();
+        if (recent != null && message != null) {
+            recent.onChanged(message);
+        }
+    }
+
+    private void handleGetPinnedMessages(Packet packet) {
         // Format: GET_PINNED_MESSAGES|userId|targetId|isGroup
         try {
-            String[] p = msg.split("\\|");
+            String[] p = packet.split();
             if (p.length >= 4) {
                 int rUserId = Integer.parseInt(p[1]);
                 int targetId = Integer.parseInt(p[2]);
@@ -1606,15 +2532,18 @@ public class ClientHandler extends Thread {
         } catch (Exception e) {
             logger.error("Error getting pinned messages", e);
             try {
-                out.writeObject(new ArrayList<>());
+                java.util.Map<String, Object> response = new java.util.HashMap<>();
+                response.put("type", "PINNED_MESSAGES_RESULT");
+                response.put("data", new ArrayList<Message>());
+                out.writeObject(response);
             } catch (IOException ignored) {
             }
         }
     }
 
-    private void handlePinMessage(String msg) {
+    private void handlePinMessage(Packet packet) {
         try {
-            String[] p = msg.split("\\|");
+            String[] p = packet.split();
             int messageId = Integer.parseInt(p[1]);
             boolean isPinned = Boolean.parseBoolean(p[2]);
 
@@ -1622,10 +2551,11 @@ public class ClientHandler extends Thread {
             if (success) {
                 out.writeObject("PIN_MESSAGE|SUCCESS|" + messageId + "|" + isPinned);
                 Message m = messageDAO.getMessageById(messageId);
+                updateRecent(m);
                 if (m != null) {
                     String event = "MESSAGE_PIN_UPDATE|" + messageId + "|" + isPinned;
                     if (m.getGroupId() > 0) {
-                        broadcaster.broadcastToGroup(m.getGroupId(), event, groupDAO);
+                        broadcaster.broadcastToGroup(m.getGroupId(), event);
                     } else {
                         broadcaster.broadcastToUser(m.getReceiverId(), event);
                         broadcaster.broadcastToUser(m.getSenderId(), event);
@@ -1643,22 +2573,6 @@ public class ClientHandler extends Thread {
         }
     }
 
-    private void handleMarkAsRead(String msg) {
-        try {
-            String[] p = msg.split("\\|");
-            int rUserId = Integer.parseInt(p[1]);
-            int targetId = Integer.parseInt(p[2]);
-            boolean isGroup = p.length >= 4 && "GROUP".equals(p[3]);
-
-            if (!isGroup) {
-                messageDAO.markMessagesAsRead(targetId, rUserId);
-                broadcaster.broadcastToUser(targetId, "MESSAGES_READ|" + rUserId);
-            }
-        } catch (Exception e) {
-            logger.error("Error marking messages as read", e);
-        }
-    }
-
     private void cleanup() {
         if (userId != -1) {
             int disconnectedUserId = userId;
@@ -1678,20 +2592,19 @@ public class ClientHandler extends Thread {
 
             logger.info("User {} đã thoát", userId);
 
-            // Broadcast USER_OFFLINE cho tất cả friends
-            try {
-                List<Integer> friendIds = friendDAO.getFriendsByUserId(disconnectedUserId);
-                for (int friendId : friendIds) {
-                    broadcaster.broadcastToUser(friendId, "USER_OFFLINE|" + disconnectedUserId);
-                }
-                logger.debug("Đã broadcast USER_OFFLINE cho {} friends của user {}", friendIds.size(),
-                        disconnectedUserId);
-            } catch (Exception e) {
-                logger.error("Lỗi khi broadcast USER_OFFLINE", e);
+            // Bạn bè được báo offline theo lô nếu user không kết nối lại trong khoảng chống chập chờn
+            ChatServer.getPresence().onDisconnected(disconnectedUserId);
+            ChatServer.getUnreadCounters().onDisconnected(disconnectedUserId);
+        }
+        try {
+            // Trả lại phần budget PART của nhóm đang ghép dở
+            if (in != null) {
+                in.close();
             }
+        } catch (Exception ignored) {
         }
         try {
-            socket.close();
+            connection.close();
         } catch (Exception ignored) {
         }
     }
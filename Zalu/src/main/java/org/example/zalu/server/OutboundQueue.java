@@ -0,0 +1,484 @@
+package org.example.zalu.server;
+
+import org.example.zalu.protocol.BinaryObjectOutputStream;
+import org.example.zalu.protocol.FileRegion;
+import org.example.zalu.protocol.FrameBatch;
+import org.example.zalu.protocol.Packet;
+import org.example.zalu.protocol.WireCodec;
+import org.example.zalu.server.net.ClientConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hàng đợi gửi có giới hạn cho một phiên client, chỉ một writer ghi ra socket.
+ * <p>
+ * Kế thừa ObjectOutputStream để ClientHandler, ClientBroadcaster và ChatServer vẫn gọi
+ * writeObject()/flush() như cũ: các object ghi giữa hai lần flush() của cùng một thread được
+ * gom thành một frame và đưa vào hàng đợi nguyên khối (ví dụ header NEW_FILE + byte[]),
+ * nên không thể bị xen giữa bởi thread khác. Người gửi không bao giờ bị chặn bởi client chậm.
+ * <p>
+ * Khi hàng đợi đầy:
+ * <ul>
+ * <li>sự kiện tạm thời (TYPING_INDICATOR, TYPING_STOP, KEEP_ALIVE_OK) bị bỏ trước</li>
+ * <li>trạng thái online/offline và cập nhật profile của cùng một user được gộp, chỉ giữ bản mới nhất</li>
+ * <li>vượt ngưỡng cao: ngắt kết nối client chậm (disconnect) hoặc bỏ frame mới (drop)</li>
+ * </ul>
+ * <p>
+ * Frame chia hai làn: frame có byte[] hoặc {@link FileRegion} (file, chunk, voice) đi làn BULK,
+ * còn lại đi làn CONTROL.
+ * Writer luôn ưu tiên CONTROL. Với client giao thức v2, frame BULK lớn được cắt thành các frame
+ * PART {@link WireCodec#FRAGMENT_BYTES} và frame CONTROL được chen vào giữa, nên tin nhắn và
+ * trạng thái không phải chờ cả file gửi xong. Client cũ chỉ được ưu tiên theo từng frame.
+ */
+public class OutboundQueue extends ObjectOutputStream {
+    private static final Logger logger = LoggerFactory.getLogger(OutboundQueue.class);
+
+    public enum OverflowPolicy {
+        DISCONNECT, DROP
+    }
+
+    public enum Lane {
+        CONTROL, BULK
+    }
+
+    private static final int HIGH_WATER_FRAMES = ServerConfig.getInt("server.outbound.highWaterFrames", 2000);
+    private static final long HIGH_WATER_BYTES = ServerConfig.getLong("server.outbound.highWaterBytes",
+            64L * 1024 * 1024);
+    private static final int EPHEMERAL_LIMIT = ServerConfig.getInt("server.outbound.ephemeralLimit", 200);
+    private static final boolean COALESCE_PRESENCE = ServerConfig.getBoolean("server.outbound.coalescePresence",
+            true);
+    private static final OverflowPolicy OVERFLOW_POLICY = "drop".equalsIgnoreCase(
+            ServerConfig.get("server.outbound.overflowPolicy", "disconnect"))
+                    ? OverflowPolicy.DROP
+                    : OverflowPolicy.DISCONNECT;
+
+    private static final Thread.Builder WRITERS = Thread.ofVirtual().name("outbound-", 0);
+
+    private static final class Frame {
+        Object[] objects;
+        final String coalesceKey;
+        final long bytes;
+        final long heapBytes;
+        final Lane lane;
+
+        Frame(Object[] objects, String coalesceKey, long bytes, long heapBytes, Lane lane) {
+            this.objects = objects;
+            this.coalesceKey = coalesceKey;
+            this.bytes = bytes;
+            this.heapBytes = heapBytes;
+            this.lane = lane;
+        }
+    }
+
+    private final ObjectOutputStream target;
+    private final BinaryObjectOutputStream fragmentTarget;
+    private final ClientConnection connection;
+    private final ThreadLocal<List<Object>> pendingWrites = ThreadLocal.withInitial(ArrayList::new);
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition drained = lock.newCondition();
+    private final ArrayDeque<Frame> control = new ArrayDeque<>();
+    private final ArrayDeque<Frame> bulk = new ArrayDeque<>();
+    private final Map<String, Frame> coalescing = new HashMap<>();
+    private long queuedBytes;
+    private int peakDepth;
+    private boolean draining;
+    private volatile boolean closed;
+    private volatile boolean overflowed;
+
+    // Chỉ writer truy cập: frame BULK đang gửi dở theo từng PART
+    private FrameBatch bulkBatch;
+    private byte[] fragmentBuffer;
+
+    private final AtomicLong sentFrames = new AtomicLong();
+    private final AtomicLong droppedFrames = new AtomicLong();
+    private final AtomicLong coalescedFrames = new AtomicLong();
+    private final AtomicLong[] laneFrames = { new AtomicLong(), new AtomicLong() };
+    private final AtomicLong[] laneBytes = { new AtomicLong(), new AtomicLong() };
+
+    /**
+     * @param target     stream thật của socket, đã ghi header
+     * @param connection dùng để ngắt kết nối khi client quá chậm hoặc ghi lỗi
+     */
+    public OutboundQueue(ObjectOutputStream target, ClientConnection connection) throws IOException {
+        this(target, connection, false);
+    }
+
+    /**
+     * @param fragmentBulk true nếu client hỗ trợ frame PART (giao thức v2 trở lên)
+     */
+    public OutboundQueue(ObjectOutputStream target, ClientConnection connection, boolean fragmentBulk)
+            throws IOException {
+        super();
+        this.target = target;
+        this.connection = connection;
+        this.fragmentTarget = fragmentBulk && target instanceof BinaryObjectOutputStream binary ? binary : null;
+    }
+
+    @Override
+    protected void writeObjectOverride(Object obj) throws IOException {
+        if (closed) {
+            throw new IOException("Outbound queue closed");
+        }
+        pendingWrites.get().add(obj);
+    }
+
+    /**
+     * Đưa các object đã ghi từ thread hiện tại vào hàng đợi thành một frame.
+     */
+    @Override
+    public void flush() throws IOException {
+        List<Object> batch = pendingWrites.get();
+        if (batch.isEmpty()) {
+            return;
+        }
+        Object[] objects = batch.toArray();
+        pendingWrites.remove();
+        enqueue(objects);
+    }
+
+    private void enqueue(Object[] objects) throws IOException {
+        String head = objects[0] instanceof String s ? s
+                : objects[0] instanceof Packet p ? p.toLegacy() : null;
+        boolean ephemeral = head != null && isEphemeral(head);
+        String key = COALESCE_PRESENCE && head != null ? coalesceKey(head) : null;
+        long bytes = estimateBytes(objects, true);
+        // Đoạn file (FileRegion) nằm trên đĩa nên không tính vào ngưỡng bộ nhớ của hàng đợi
+        long heapBytes = estimateBytes(objects, false);
+        Lane lane = laneOf(objects);
+
+        boolean startWriter = false;
+        boolean overflow = false;
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IOException("Outbound queue closed");
+            }
+            if (key != null) {
+                Frame existing = coalescing.get(key);
+                if (existing != null) {
+                    existing.objects = objects;
+                    coalescedFrames.incrementAndGet();
+                    return;
+                }
+            }
+            int depth = control.size() + bulk.size();
+            if (ephemeral && depth >= EPHEMERAL_LIMIT) {
+                droppedFrames.incrementAndGet();
+                return;
+            }
+            if (depth >= HIGH_WATER_FRAMES || queuedBytes + heapBytes > HIGH_WATER_BYTES) {
+                if (ephemeral || OVERFLOW_POLICY == OverflowPolicy.DROP) {
+                    droppedFrames.incrementAndGet();
+                    return;
+                }
+                overflow = true;
+            } else {
+                Frame frame = new Frame(objects, key, bytes, heapBytes, lane);
+                (lane == Lane.BULK ? bulk : control).add(frame);
+                if (key != null) {
+                    coalescing.put(key, frame);
+                }
+                queuedBytes += heapBytes;
+                peakDepth = Math.max(peakDepth, depth + 1);
+                if (!draining) {
+                    draining = true;
+                    startWriter = true;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (overflow) {
+            logger.warn("⚠ Hàng đợi gửi vượt ngưỡng ({} frame / {} bytes), ngắt kết nối client chậm {}",
+                    HIGH_WATER_FRAMES, HIGH_WATER_BYTES, connection.getRemoteAddress());
+            overflowed = true;
+            discard();
+            throw new IOException("Outbound queue overflow");
+        }
+        if (startWriter) {
+            WRITERS.start(this::writeLoop);
+        }
+    }
+
+    /**
+     * Writer duy nhất: ưu tiên frame CONTROL, sau đó mới đến BULK (hoặc PART tiếp theo của frame
+     * BULK đang gửi dở); flush khi hàng đợi rỗng và sau mỗi frame CONTROL chen giữa các PART.
+     */
+    private void writeLoop() {
+        boolean dirty = false;
+        while (true) {
+            Frame frame;
+            boolean continueBulk = false;
+            lock.lock();
+            try {
+                if (closed) {
+                    return;
+                }
+                frame = control.poll();
+                if (frame == null) {
+                    if (bulkBatch != null) {
+                        continueBulk = true;
+                    } else {
+                        frame = bulk.poll();
+                    }
+                }
+                if (frame != null) {
+                    if (frame.coalesceKey != null && coalescing.get(frame.coalesceKey) == frame) {
+                        coalescing.remove(frame.coalesceKey);
+                    }
+                    queuedBytes -= frame.heapBytes;
+                } else if (!continueBulk && !dirty) {
+                    draining = false;
+                    drained.signalAll();
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                if (continueBulk) {
+                    writeNextFragment();
+                    dirty = true;
+                    continue;
+                }
+                if (frame == null) {
+                    target.flush();
+                    dirty = false;
+                    continue;
+                }
+                if (frame.lane == Lane.BULK && fragmentTarget != null && frame.bytes > WireCodec.FRAGMENT_BYTES) {
+                    bulkBatch = FrameBatch.of(fragmentTarget.getVersion(), frame.objects);
+                    writeNextFragment();
+                } else {
+                    for (Object obj : frame.objects) {
+                        if (obj instanceof FileRegion region && !(target instanceof BinaryObjectOutputStream)) {
+                            // Client giao thức cũ chỉ đọc được byte[] qua Java serialization
+                            obj = region.readAll();
+                        }
+                        target.writeObject(obj);
+                    }
+                }
+                sentFrames.incrementAndGet();
+                laneFrames[frame.lane.ordinal()].incrementAndGet();
+                laneBytes[frame.lane.ordinal()].addAndGet(frame.bytes);
+                dirty = true;
+                if (frame.lane == Lane.CONTROL && bulkBatch != null) {
+                    target.flush();
+                    dirty = false;
+                }
+            } catch (IOException e) {
+                logger.debug("Ghi ra client {} thất bại: {}", connection.getRemoteAddress(), e.getMessage());
+                closeBulkBatch();
+                discard();
+                return;
+            }
+        }
+    }
+
+    private void writeNextFragment() throws IOException {
+        if (fragmentBuffer == null) {
+            fragmentBuffer = new byte[WireCodec.FRAGMENT_BYTES];
+        }
+        int length = bulkBatch.read(fragmentBuffer);
+        boolean last = bulkBatch.getRemaining() == 0;
+        fragmentTarget.writeFragment(fragmentBuffer, 0, length, last);
+        if (last) {
+            closeBulkBatch();
+        }
+    }
+
+    private void closeBulkBatch() {
+        if (bulkBatch != null) {
+            try {
+                bulkBatch.close();
+            } catch (IOException ignored) {
+            }
+            bulkBatch = null;
+        }
+    }
+
+    /**
+     * Chờ writer gửi hết các frame đang chờ (dùng trước khi đóng kết nối).
+     *
+     * @return true nếu hàng đợi đã rỗng trước khi hết thời gian
+     */
+    public boolean awaitDrained(long timeoutMs) {
+        try {
+            flush();
+        } catch (IOException ignored) {
+        }
+        lock.lock();
+        try {
+            long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+            while (draining && !closed) {
+                if (remaining <= 0) {
+                    return false;
+                }
+                remaining = drained.awaitNanos(remaining);
+            }
+            return control.isEmpty() && bulk.isEmpty();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Hủy mọi frame còn chờ và đóng kết nối. */
+    private void discard() {
+        lock.lock();
+        try {
+            closed = true;
+            droppedFrames.addAndGet(control.size() + bulk.size());
+            control.clear();
+            bulk.clear();
+            coalescing.clear();
+            queuedBytes = 0;
+            draining = false;
+            drained.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            connection.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        awaitDrained(2000);
+        closed = true;
+        target.close();
+    }
+
+    private static boolean isEphemeral(String head) {
+        return head.startsWith("TYPING_INDICATOR|") || head.startsWith("TYPING_STOP|")
+                || head.startsWith("KEEP_ALIVE_OK");
+    }
+
+    /** Sự kiện trạng thái chỉ cần bản mới nhất, trả về khóa gộp hoặc null. */
+    private static String coalesceKey(String head) {
+        if (head.startsWith("USER_ONLINE|") || head.startsWith("USER_OFFLINE|")) {
+            return "PRESENCE|" + head.substring(head.indexOf('|') + 1);
+        }
+        if (head.startsWith("USER_PROFILE_UPDATED|")) {
+            // USER_PROFILE_UPDATED|userId|avatarVersion: chỉ giữ bản mới nhất của mỗi user
+            int end = head.indexOf('|', "USER_PROFILE_UPDATED|".length());
+            return end < 0 ? head : head.substring(0, end);
+        }
+        return null;
+    }
+
+    private static Lane laneOf(Object[] objects) {
+        for (Object obj : objects) {
+            if (obj instanceof byte[] || obj instanceof FileRegion) {
+                return Lane.BULK;
+            }
+        }
+        return Lane.CONTROL;
+    }
+
+    private static long estimateBytes(Object[] objects, boolean includeRegions) {
+        long bytes = 0;
+        for (Object obj : objects) {
+            if (obj instanceof byte[] data) {
+                bytes += data.length;
+            } else if (obj instanceof FileRegion region) {
+                bytes += includeRegions ? region.getLength() : 64;
+            } else if (obj instanceof String s) {
+                bytes += s.length() * 2L;
+            } else {
+                bytes += 256;
+            }
+        }
+        return bytes;
+    }
+
+    public int getDepth() {
+        lock.lock();
+        try {
+            return control.size() + bulk.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Số frame đang chờ trong một làn. */
+    public int getDepth(Lane lane) {
+        lock.lock();
+        try {
+            return (lane == Lane.BULK ? bulk : control).size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getPeakDepth() {
+        lock.lock();
+        try {
+            return peakDepth;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getQueuedBytes() {
+        lock.lock();
+        try {
+            return queuedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getSentFrames() {
+        return sentFrames.get();
+    }
+
+    /** Số frame đã gửi của một làn. */
+    public long getSentFrames(Lane lane) {
+        return laneFrames[lane.ordinal()].get();
+    }
+
+    /** Số byte (ước tính) đã gửi của một làn, dùng để tính thông lượng. */
+    public long getSentBytes(Lane lane) {
+        return laneBytes[lane.ordinal()].get();
+    }
+
+    public boolean isFragmenting() {
+        return fragmentTarget != null;
+    }
+
+    public long getDroppedFrames() {
+        return droppedFrames.get();
+    }
+
+    public long getCoalescedFrames() {
+        return coalescedFrames.get();
+    }
+
+    public boolean isOverflowed() {
+        return overflowed;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+}
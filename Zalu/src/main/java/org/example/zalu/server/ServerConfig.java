@@ -0,0 +1,68 @@
+package org.example.zalu.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * Cấu hình phía server, đọc một lần từ server.properties.
+ * Mọi khóa đều có thể ghi đè bằng tham số JVM, ví dụ: -Dserver.engine=nio
+ */
+public final class ServerConfig {
+    private static final Logger logger = LoggerFactory.getLogger(ServerConfig.class);
+
+    private static final Properties props = load();
+
+    private ServerConfig() {
+    }
+
+    private static Properties load() {
+        Properties p = new Properties();
+        try (InputStream is = ServerConfig.class.getClassLoader().getResourceAsStream("server.properties")) {
+            if (is != null) {
+                p.load(is);
+            }
+        } catch (Exception e) {
+            logger.warn("Không đọc được server.properties, dùng cấu hình mặc định: {}", e.getMessage());
+        }
+        return p;
+    }
+
+    public static String get(String key, String defaultValue) {
+        String value = System.getProperty(key, props.getProperty(key));
+        return value != null && !value.isBlank() ? value.trim() : defaultValue;
+    }
+
+    public static int getInt(String key, int defaultValue) {
+        String value = get(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            logger.warn("Giá trị {}={} không hợp lệ, dùng mặc định {}", key, value, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    public static long getLong(String key, long defaultValue) {
+        String value = get(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            logger.warn("Giá trị {}={} không hợp lệ, dùng mặc định {}", key, value, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    public static boolean getBoolean(String key, boolean defaultValue) {
+        String value = get(key, null);
+        return value != null ? Boolean.parseBoolean(value) : defaultValue;
+    }
+}
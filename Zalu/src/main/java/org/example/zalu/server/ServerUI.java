@@ -20,11 +20,16 @@ import org.example.zalu.dao.GroupDAO;
 import org.example.zalu.dao.MessageDAO;
 import org.example.zalu.model.User;
 import org.example.zalu.model.UserActivity;
+import org.example.zalu.server.history.HotConversationCache;
+import org.example.zalu.server.metrics.CommandMetrics;
+import org.example.zalu.server.metrics.LatencyHistogram;
 
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Giao diện quản lý Server Zalu
@@ -36,6 +41,9 @@ public class ServerUI extends Application {
 
     private static final ObservableList<ServerModels.OnlineUser> onlineUserData = FXCollections.observableArrayList();
     private static final ObservableList<ServerModels.ActivityRecord> activityData = FXCollections.observableArrayList();
+    // Hoạt động mới chờ đưa lên bảng; gom lại để mỗi lượt runLater thêm cả lô
+    private static final java.util.Queue<UserActivity> pendingActivities = new java.util.concurrent.ConcurrentLinkedQueue<>();
+    private static final java.util.concurrent.atomic.AtomicBoolean activityDrainScheduled = new java.util.concurrent.atomic.AtomicBoolean();
     private static final ObservableList<org.example.zalu.model.ClientErrorLog> errorLogData = FXCollections
             .observableArrayList();
 
@@ -59,6 +67,18 @@ public class ServerUI extends Application {
     private TableView<AdminReportEntry> reportMgmtTable;
     private static final ObservableList<AdminReportEntry> reportMgmtData = FXCollections.observableArrayList();
 
+    // Connection monitor tab
+    private static final ObservableList<OutboundQueueEntry> queueData = FXCollections.observableArrayList();
+    private Label engineLabel;
+    // Byte đã gửi theo làn [control, bulk] ở lần làm mới trước, để tính thông lượng mỗi giây
+    private final Map<Integer, long[]> laneSnapshots = new HashMap<>();
+
+    // Command metrics tab
+    private static final ObservableList<CommandMetricEntry> commandMetricData = FXCollections.observableArrayList();
+    private Label commandMetricsLabel;
+    // Số lần chạy mỗi opcode ở lần làm mới trước, để tính số lệnh mỗi giây
+    private final Map<String, Long> commandCountSnapshots = new HashMap<>();
+
     // Chart data cache
     private List<long[]> chartData = new ArrayList<>();
 
@@ -108,7 +128,18 @@ public class ServerUI extends Application {
             if (reportTab.isSelected()) loadAllReports();
         });
 
-        tabPane.getTabs().addAll(dashboardTab, statsTab, userMgmtTab, groupMgmtTab, reportTab, errorTab);
+        // --- TAB 7: CONNECTION MONITOR ---
+        Tab connectionTab = new Tab("Giám sát Kết nối");
+        connectionTab.setClosable(false);
+        connectionTab.setContent(createConnectionMonitorContent());
+
+        // --- TAB 8: COMMAND METRICS ---
+        Tab metricsTab = new Tab("Hiệu năng Lệnh");
+        metricsTab.setClosable(false);
+        metricsTab.setContent(createCommandMetricsContent());
+
+        tabPane.getTabs().addAll(dashboardTab, statsTab, userMgmtTab, groupMgmtTab, reportTab, errorTab,
+                connectionTab, metricsTab);
 
         // Đăng ký callback
         ChatServer.setActivityCallback(this::addActivity);
@@ -231,7 +262,9 @@ public class ServerUI extends Application {
         Label totalFilesLabel  = (Label) ((VBox) filesCard.getChildren().get(1)).getChildren().get(0);
         VBox dataCard   = createStatCard("📊", "Lưu lượng Data",   "0 KB",   "#2ecc71", cardStyle);
         totalBytesLabel = (Label) ((VBox) dataCard.getChildren().get(1)).getChildren().get(0);
-        row1.getChildren().addAll(msgCard, filesCard, dataCard);
+        VBox cacheCard  = createStatCard("⚡", "Cache lịch sử",    "N/A",    "#16a085", cardStyle);
+        Label historyCacheLabel = (Label) ((VBox) cacheCard.getChildren().get(1)).getChildren().get(0);
+        row1.getChildren().addAll(msgCard, filesCard, dataCard, cacheCard);
 
         // ── Stat Cards Row 2 ──────────────────────────────────
         HBox row2 = new HBox(15);
@@ -311,6 +344,12 @@ public class ServerUI extends Application {
                             totalFilesLabel.setText(String.format("%,d", ChatServer.TOTAL_FILES_SENT.get()));
                         if (totalBytesLabel != null)
                             totalBytesLabel.setText(formatBytes(ChatServer.TOTAL_BYTES_TRANSFERRED.get()));
+                        HotConversationCache recent = ChatServer.getRecentMessages();
+                        if (historyCacheLabel != null && recent != null) {
+                            historyCacheLabel.setText(String.format("%.1f%% hit · %,d chat · %s",
+                                    recent.getHitRate() * 100, recent.getConversationCount(),
+                                    formatBytes(recent.getBytes())));
+                        }
                         if (totalUsersLabel != null) {
                             try {
                                 totalUsersLabel.setText(String.format("%,d", ChatServer.getUserDAO().getTotalUserCount()));
@@ -999,6 +1038,243 @@ public class ServerUI extends Application {
         return container;
     }
 
+    // =========================================================
+    // CONNECTION MONITOR TAB
+    // =========================================================
+    private VBox createConnectionMonitorContent() {
+        VBox container = new VBox(20);
+        container.setPadding(new Insets(20));
+        container.setStyle("-fx-background-color: #f8f9fa;");
+
+        Label title = new Label("🔌 Giám sát Kết nối & Hàng đợi gửi");
+        title.setStyle("-fx-font-size: 24px; -fx-font-weight: bold; -fx-text-fill: #2c3e50;");
+
+        engineLabel = new Label("Engine: Offline");
+        engineLabel.setStyle("-fx-font-size: 14px; -fx-text-fill: #7f8c8d;");
+
+        TableView<OutboundQueueEntry> table = new TableView<>(queueData);
+        table.setStyle("-fx-background-color: white; -fx-border-color: #bdc3c7;");
+        table.setColumnResizePolicy(TableView.CONSTRAINED_RESIZE_POLICY);
+
+        TableColumn<OutboundQueueEntry, Integer> idCol = new TableColumn<>("Id User");
+        idCol.setCellValueFactory(c -> new SimpleIntegerProperty(c.getValue().userId).asObject());
+        idCol.setStyle("-fx-alignment: CENTER;");
+
+        TableColumn<OutboundQueueEntry, Integer> depthCol = new TableColumn<>("Đang chờ");
+        depthCol.setCellValueFactory(c -> new SimpleIntegerProperty(c.getValue().depth).asObject());
+        depthCol.setStyle("-fx-alignment: CENTER;");
+
+        TableColumn<OutboundQueueEntry, Integer> peakCol = new TableColumn<>("Cao nhất");
+        peakCol.setCellValueFactory(c -> new SimpleIntegerProperty(c.getValue().peakDepth).asObject());
+        peakCol.setStyle("-fx-alignment: CENTER;");
+
+        TableColumn<OutboundQueueEntry, String> bytesCol = new TableColumn<>("Dữ liệu chờ");
+        bytesCol.setCellValueFactory(c -> new SimpleStringProperty(formatBytes(c.getValue().queuedBytes)));
+        bytesCol.setStyle("-fx-alignment: CENTER;");
+
+        TableColumn<OutboundQueueEntry, Long> sentCol = new TableColumn<>("Đã gửi");
+        sentCol.setCellValueFactory(c -> new SimpleLongProperty(c.getValue().sent).asObject());
+        sentCol.setStyle("-fx-alignment: CENTER;");
+
+        TableColumn<OutboundQueueEntry, String> controlCol = new TableColumn<>("Control/s");
+        controlCol.setCellValueFactory(c -> new SimpleStringProperty(formatBytes(c.getValue().controlRate) + "/s"));
+        controlCol.setStyle("-fx-alignment: CENTER;");
+
+        TableColumn<OutboundQueueEntry, String> bulkCol = new TableColumn<>("Bulk/s");
+        bulkCol.setCellValueFactory(c -> new SimpleStringProperty(formatBytes(c.getValue().bulkRate) + "/s"));
+        bulkCol.setStyle("-fx-alignment: CENTER;");
+
+        TableColumn<OutboundQueueEntry, Long> droppedCol = new TableColumn<>("Bỏ qua");
+        droppedCol.setCellValueFactory(c -> new SimpleLongProperty(c.getValue().dropped).asObject());
+        droppedCol.setStyle("-fx-alignment: CENTER;");
+
+        TableColumn<OutboundQueueEntry, Long> coalescedCol = new TableColumn<>("Gộp");
+        coalescedCol.setCellValueFactory(c -> new SimpleLongProperty(c.getValue().coalesced).asObject());
+        coalescedCol.setStyle("-fx-alignment: CENTER;");
+
+        TableColumn<OutboundQueueEntry, String> statusCol = new TableColumn<>("Trạng thái");
+        statusCol.setCellValueFactory(c -> new SimpleStringProperty(c.getValue().status));
+        statusCol.setStyle("-fx-alignment: CENTER;");
+
+        table.getColumns().setAll(idCol, depthCol, peakCol, bytesCol, sentCol, controlCol, bulkCol, droppedCol,
+                coalescedCol, statusCol);
+        VBox.setVgrow(table, Priority.ALWAYS);
+
+        Thread monitorThread = new Thread(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(1000);
+                    refreshConnectionMonitor();
+                } catch (InterruptedException e) { break; }
+            }
+        });
+        monitorThread.setDaemon(true);
+        monitorThread.start();
+
+        container.getChildren().addAll(title, engineLabel, table);
+        return container;
+    }
+
+    private void refreshConnectionMonitor() {
+        List<OutboundQueueEntry> entries = new ArrayList<>();
+        Map<Integer, long[]> snapshots = new HashMap<>();
+        ChatServer.getOutboundQueues().forEach((id, q) -> {
+            long[] now = { q.getSentBytes(OutboundQueue.Lane.CONTROL), q.getSentBytes(OutboundQueue.Lane.BULK) };
+            long[] prev = laneSnapshots.getOrDefault(id, now);
+            snapshots.put(id, now);
+            entries.add(new OutboundQueueEntry(id, q.getDepth(), q.getPeakDepth(), q.getQueuedBytes(),
+                    q.getSentFrames(), Math.max(0, now[0] - prev[0]), Math.max(0, now[1] - prev[1]),
+                    q.getDroppedFrames(), q.getCoalescedFrames(),
+                    q.isOverflowed() ? "⚠ Quá tải" : q.isClosed() ? "Đã đóng" : "OK"));
+        });
+        laneSnapshots.clear();
+        laneSnapshots.putAll(snapshots);
+        org.example.zalu.server.net.ConnectionEngine engine = ChatServer.getConnectionEngine();
+        String engineText = engine != null
+                ? "Engine: " + engine.getName() + " | Kết nối đang mở: " + engine.getActiveConnections()
+                : "Engine: Offline";
+        Platform.runLater(() -> {
+            queueData.setAll(entries);
+            if (engineLabel != null) engineLabel.setText(engineText);
+        });
+    }
+
+    // =========================================================
+    // COMMAND METRICS TAB
+    // =========================================================
+    private VBox createCommandMetricsContent() {
+        VBox container = new VBox(20);
+        container.setPadding(new Insets(20));
+        container.setStyle("-fx-background-color: #f8f9fa;");
+
+        Label title = new Label("⏱ Hiệu năng theo Lệnh");
+        title.setStyle("-fx-font-size: 24px; -fx-font-weight: bold; -fx-text-fill: #2c3e50;");
+
+        commandMetricsLabel = new Label("Chưa có lệnh nào");
+        commandMetricsLabel.setStyle("-fx-font-size: 14px; -fx-text-fill: #7f8c8d;");
+
+        Button resetBtn = new Button("↺ Đặt lại");
+        resetBtn.getStyleClass().add("action-btn");
+        resetBtn.setOnAction(e -> {
+            CommandMetrics metrics = ChatServer.getCommandMetrics();
+            if (metrics != null) {
+                metrics.reset();
+                commandCountSnapshots.clear();
+                refreshCommandMetrics();
+            }
+        });
+
+        Button snapshotBtn = new Button("📥 Lưu snapshot CSV");
+        snapshotBtn.setStyle(
+                "-fx-background-color: #9b59b6; -fx-text-fill: white; -fx-font-weight: bold; " +
+                "-fx-padding: 8 18; -fx-background-radius: 8;");
+        snapshotBtn.setOnAction(e -> exportCommandMetrics());
+
+        HBox actionBox = new HBox(15, resetBtn, snapshotBtn);
+        actionBox.setAlignment(Pos.CENTER_LEFT);
+
+        TableView<CommandMetricEntry> table = new TableView<>(commandMetricData);
+        table.setStyle("-fx-background-color: white; -fx-border-color: #bdc3c7;");
+        table.setColumnResizePolicy(TableView.CONSTRAINED_RESIZE_POLICY);
+
+        TableColumn<CommandMetricEntry, String> opCol = new TableColumn<>("Lệnh");
+        opCol.setCellValueFactory(c -> new SimpleStringProperty(c.getValue().opcode));
+
+        TableColumn<CommandMetricEntry, Long> countCol = new TableColumn<>("Số lần");
+        countCol.setCellValueFactory(c -> new SimpleLongProperty(c.getValue().count).asObject());
+        countCol.setStyle("-fx-alignment: CENTER;");
+
+        TableColumn<CommandMetricEntry, Long> rateCol = new TableColumn<>("Lệnh/s");
+        rateCol.setCellValueFactory(c -> new SimpleLongProperty(c.getValue().rate).asObject());
+        rateCol.setStyle("-fx-alignment: CENTER;");
+
+        TableColumn<CommandMetricEntry, Long> errorCol = new TableColumn<>("Lỗi");
+        errorCol.setCellValueFactory(c -> new SimpleLongProperty(c.getValue().errors).asObject());
+        errorCol.setStyle("-fx-alignment: CENTER;");
+
+        table.getColumns().setAll(opCol, countCol, rateCol, errorCol,
+                latencyColumn("p50", e -> e.latency, 0.5),
+                latencyColumn("p99", e -> e.latency, 0.99),
+                latencyColumn("p999", e -> e.latency, 0.999),
+                latencyColumn("Max", e -> e.latency, 1),
+                latencyColumn("DB p99", e -> e.db, 0.99),
+                latencyColumn("Fan-out p99", e -> e.fanOut, 0.99),
+                latencyColumn("Chờ hàng đợi p99", e -> e.queueWait, 0.99));
+        VBox.setVgrow(table, Priority.ALWAYS);
+
+        Thread monitorThread = new Thread(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(1000);
+                    refreshCommandMetrics();
+                } catch (InterruptedException e) { break; }
+            }
+        });
+        monitorThread.setDaemon(true);
+        monitorThread.start();
+
+        container.getChildren().addAll(title, commandMetricsLabel, actionBox, table);
+        return container;
+    }
+
+    /** Cột percentile {@code quantile} của một histogram; "-" khi lệnh chưa có mẫu nào loại đó. */
+    private TableColumn<CommandMetricEntry, String> latencyColumn(String name,
+            java.util.function.Function<CommandMetricEntry, LatencyHistogram.Snapshot> histogram, double quantile) {
+        TableColumn<CommandMetricEntry, String> col = new TableColumn<>(name);
+        col.setCellValueFactory(c -> {
+            LatencyHistogram.Snapshot h = histogram.apply(c.getValue());
+            return new SimpleStringProperty(h.count() == 0 ? "-" : formatMicros(h.percentile(quantile)));
+        });
+        col.setStyle("-fx-alignment: CENTER;");
+        return col;
+    }
+
+    private synchronized void refreshCommandMetrics() {
+        CommandMetrics metrics = ChatServer.getCommandMetrics();
+        if (metrics == null) {
+            return;
+        }
+        List<CommandMetricEntry> entries = new ArrayList<>();
+        Map<String, Long> counts = new HashMap<>();
+        long total = 0;
+        long totalRate = 0;
+        for (CommandMetrics.Row row : metrics.snapshot()) {
+            String name = row.opcode().name();
+            long rate = Math.max(0, row.count() - commandCountSnapshots.getOrDefault(name, row.count()));
+            counts.put(name, row.count());
+            total += row.count();
+            totalRate += rate;
+            entries.add(new CommandMetricEntry(name, row.count(), rate, row.errors(), row.latency(), row.db(),
+                    row.fanOut(), row.queueWait()));
+        }
+        commandCountSnapshots.clear();
+        commandCountSnapshots.putAll(counts);
+        entries.sort((a, b) -> Long.compare(b.count, a.count));
+        String summary = String.format("Tổng %,d lệnh | %,d lệnh/s | Tính từ %s", total, totalRate,
+                java.time.Instant.ofEpochMilli(metrics.getResetAt()).atZone(java.time.ZoneId.systemDefault())
+                        .format(DateTimeFormatter.ofPattern("HH:mm:ss dd/MM/yyyy")));
+        Platform.runLater(() -> {
+            commandMetricData.setAll(entries);
+            if (commandMetricsLabel != null) commandMetricsLabel.setText(summary);
+        });
+    }
+
+    private void exportCommandMetrics() {
+        CommandMetrics metrics = ChatServer.getCommandMetrics();
+        if (metrics == null) {
+            showError("Server chưa chạy");
+            return;
+        }
+        try {
+            java.io.File file = new java.io.File("server_command_metrics_"
+                    + java.time.LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss")) + ".csv");
+            metrics.writeSnapshot(file.toPath());
+            showInfo("Đã lưu snapshot hiệu năng ra file: " + file.getAbsolutePath());
+        } catch (Exception e) {
+            showError("Lỗi xuất file: " + e.getMessage());
+        }
+    }
+
     // =========================================================
     // SHARED UI HELPERS
     // =========================================================
@@ -1034,6 +1310,12 @@ public class ServerUI extends Application {
         else return String.format("%.2f GB", bytes / (1024.0 * 1024.0 * 1024.0));
     }
 
+    private String formatMicros(long micros) {
+        if (micros < 1000) return micros + " µs";
+        else if (micros < 1_000_000) return String.format("%.1f ms", micros / 1000.0);
+        else return String.format("%.2f s", micros / 1_000_000.0);
+    }
+
     private String formatDuration(java.time.Duration duration) {
         long days = duration.toDays();
         long hours = duration.toHours() % 24;
@@ -1152,15 +1434,26 @@ public class ServerUI extends Application {
     }
 
     private void addActivity(UserActivity activity) {
-        Platform.runLater(() -> {
+        pendingActivities.offer(activity);
+        if (activityDrainScheduled.compareAndSet(false, true)) {
+            Platform.runLater(this::drainActivities);
+        }
+    }
+
+    private void drainActivities() {
+        activityDrainScheduled.set(false);
+        List<ServerModels.ActivityRecord> records = new ArrayList<>();
+        UserActivity activity;
+        while ((activity = pendingActivities.poll()) != null) {
             String action = getActionDescription(activity.getActivityType());
             Integer passiveUserId = null;
             if (activity.getTargetUserId() > 0) passiveUserId = activity.getTargetUserId();
             else if (activity.getGroupId() > 0) passiveUserId = activity.getGroupId();
             String content = activity.getEncryptedContent() != null ? activity.getEncryptedContent() : "";
-            activityData.add(new ServerModels.ActivityRecord(activity.getUserId(), passiveUserId, action, content));
-            if (activityData.size() > 1000) activityData.remove(0);
-        });
+            records.add(new ServerModels.ActivityRecord(activity.getUserId(), passiveUserId, action, content));
+        }
+        activityData.addAll(records);
+        if (activityData.size() > 1000) activityData.remove(0, activityData.size() - 1000);
     }
 
 
@@ -1362,6 +1655,44 @@ public class ServerUI extends Application {
         }
     }
 
+    /** Entry for Outbound Queue monitor table */
+    public static class OutboundQueueEntry {
+        public final int userId;
+        public final int depth;
+        public final int peakDepth;
+        public final long queuedBytes;
+        public final long sent;
+        public final long controlRate;
+        public final long bulkRate;
+        public final long dropped;
+        public final long coalesced;
+        public final String status;
+        OutboundQueueEntry(int userId, int depth, int peakDepth, long queuedBytes, long sent, long controlRate,
+                           long bulkRate, long dropped, long coalesced, String status) {
+            this.userId = userId; this.depth = depth; this.peakDepth = peakDepth; this.queuedBytes = queuedBytes;
+            this.sent = sent; this.controlRate = controlRate; this.bulkRate = bulkRate;
+            this.dropped = dropped; this.coalesced = coalesced; this.status = status;
+        }
+    }
+
+    /** Entry for Command Metrics table */
+    public static class CommandMetricEntry {
+        public final String opcode;
+        public final long count;
+        public final long rate;
+        public final long errors;
+        public final LatencyHistogram.Snapshot latency;
+        public final LatencyHistogram.Snapshot db;
+        public final LatencyHistogram.Snapshot fanOut;
+        public final LatencyHistogram.Snapshot queueWait;
+        CommandMetricEntry(String opcode, long count, long rate, long errors, LatencyHistogram.Snapshot latency,
+                           LatencyHistogram.Snapshot db, LatencyHistogram.Snapshot fanOut,
+                           LatencyHistogram.Snapshot queueWait) {
+            this.opcode = opcode; this.count = count; this.rate = rate; this.errors = errors;
+            this.latency = latency; this.db = db; this.fanOut = fanOut; this.queueWait = queueWait;
+        }
+    }
+
     /** Entry for Admin Report Management table */
     public static class AdminReportEntry {
         public final int id;
@@ -0,0 +1,201 @@
+package org.example.zalu.server.activity;
+
+import org.example.zalu.dao.UserActivityDAO;
+import org.example.zalu.model.UserActivity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Ghi nhật ký hoạt động (user_activity_logs) ở nền, không chặn ClientHandler.
+ * <p>
+ * {@link #submit(UserActivity)} chỉ đưa bản ghi vào một hàng đợi không khóa có giới hạn
+ * {@code capacity}; luồng Activity-Writer gom tối đa {@code batchSize} bản ghi thành một batch INSERT,
+ * ghi ngay khi đủ lô hoặc sau {@code flushMs}. {@link #stop()} ghi nốt toàn bộ hàng đợi.
+ * <p>
+ * Khi hàng đợi đầy: {@link OverflowPolicy#BLOCK} bắt thread gửi chờ tới khi có chỗ;
+ * {@link OverflowPolicy#SAMPLE} chỉ giữ 1 trên {@code sampleEvery} bản ghi vượt mức (thay bản ghi cũ
+ * nhất), còn lại bỏ và đếm vào {@link #getDropped()}.
+ */
+public class ActivityLogWriter {
+    private static final Logger logger = LoggerFactory.getLogger(ActivityLogWriter.class);
+
+    public enum OverflowPolicy {
+        BLOCK, SAMPLE;
+
+        /** "block" hoặc "sample" (không phân biệt hoa thường), sai thì dùng SAMPLE. */
+        public static OverflowPolicy parse(String value) {
+            return "block".equalsIgnoreCase(value == null ? "" : value.trim()) ? BLOCK : SAMPLE;
+        }
+    }
+
+    private final UserActivityDAO dao;
+    private final int capacity;
+    private final int batchSize;
+    private final long flushNanos;
+    private final OverflowPolicy overflow;
+    private final int sampleEvery;
+
+    private final Queue<UserActivity> queue = new ConcurrentLinkedQueue<>();
+    // ConcurrentLinkedQueue.size() phải duyệt cả hàng đợi, nên đếm riêng
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong overflowed = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private volatile Thread worker;
+    private volatile boolean running;
+
+    public ActivityLogWriter(UserActivityDAO dao, int capacity, int batchSize, long flushMs,
+            OverflowPolicy overflow, int sampleEvery) {
+        this.dao = dao;
+        this.capacity = Math.max(1, capacity);
+        this.batchSize = Math.max(1, batchSize);
+        this.flushNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, flushMs));
+        this.overflow = overflow;
+        this.sampleEvery = Math.max(1, sampleEvery);
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        worker = new Thread(this::run, "Activity-Writer");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /** Dừng luồng ghi và ghi nốt mọi bản ghi còn trong hàng đợi. */
+    public synchronized void stop() {
+        running = false;
+        Thread t = worker;
+        worker = null;
+        if (t != null) {
+            LockSupport.unpark(t);
+            try {
+                t.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        drain();
+        logger.info("✓ Đã ghi xong nhật ký hoạt động: {} bản ghi, bỏ {} bản ghi do hàng đợi đầy",
+                written.get(), dropped.get());
+    }
+
+    /**
+     * Đưa bản ghi vào hàng đợi ghi nền.
+     *
+     * @return false nếu bản ghi bị bỏ do hàng đợi đầy (chế độ SAMPLE)
+     */
+    public boolean submit(UserActivity activity) {
+        while (!tryReserve()) {
+            overflowed.incrementAndGet();
+            if (overflow == OverflowPolicy.SAMPLE || !running) {
+                return sample(activity);
+            }
+            // BLOCK: chờ luồng ghi giải phóng chỗ
+            LockSupport.unpark(worker);
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        queue.offer(activity);
+        if (size.get() >= batchSize) {
+            Thread t = worker;
+            if (t != null) {
+                LockSupport.unpark(t);
+            }
+        }
+        return true;
+    }
+
+    private boolean tryReserve() {
+        if (size.incrementAndGet() <= capacity) {
+            return true;
+        }
+        size.decrementAndGet();
+        return false;
+    }
+
+    private boolean sample(UserActivity activity) {
+        if (overflowed.get() % sampleEvery != 0) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        // Giữ bản ghi mẫu, bỏ bản ghi cũ nhất để không vượt capacity
+        if (queue.poll() != null) {
+            dropped.incrementAndGet();
+        } else {
+            size.incrementAndGet();
+        }
+        queue.offer(activity);
+        return true;
+    }
+
+    private void run() {
+        while (running) {
+            if (size.get() < batchSize) {
+                LockSupport.parkNanos(this, flushNanos);
+            }
+            writeBatch();
+        }
+    }
+
+    /** Ghi hết hàng đợi trên thread gọi. */
+    void drain() {
+        while (writeBatch() > 0) {
+            // tiếp tục tới khi hàng đợi rỗng
+        }
+    }
+
+    private int writeBatch() {
+        List<UserActivity> batch = new ArrayList<>(Math.min(batchSize, Math.max(1, size.get())));
+        UserActivity activity;
+        while (batch.size() < batchSize && (activity = queue.poll()) != null) {
+            batch.add(activity);
+        }
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        size.addAndGet(-batch.size());
+        try {
+            dao.logActivities(batch);
+            written.addAndGet(batch.size());
+            batches.incrementAndGet();
+        } catch (Exception e) {
+            // Nhật ký không được làm nghẽn server: lô lỗi bị bỏ và đếm lại
+            failed.addAndGet(batch.size());
+            logger.error("Lỗi ghi log DB ({} bản ghi): {}", batch.size(), e.getMessage());
+        }
+        return batch.size();
+    }
+
+    public int getQueued() {
+        return Math.max(0, size.get());
+    }
+
+    public long getWritten() {
+        return written.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getBatches() {
+        return batches.get();
+    }
+}
@@ -0,0 +1,210 @@
+package org.example.zalu.server.avatar;
+
+import org.example.zalu.dao.UserDAO;
+import org.example.zalu.exception.database.DatabaseConnectionException;
+import org.example.zalu.exception.database.DatabaseException;
+import org.example.zalu.model.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Avatar có phiên bản cho GET_AVATARS, thay cho GET_USER_AVATAR gửi ảnh gốc mỗi lần hỏi.
+ * <p>
+ * Mỗi lần ảnh đại diện đổi, users.avatar_version tăng (xem {@link UserDAO#updateUser(User)}) và ảnh được
+ * thu nhỏ sẵn ở các kích thước UI dùng ({@link #SIZES}), lưu vào user_avatar_variants cùng phiên bản
+ * đã dựng ra nó. Client gửi phiên bản đang có của từng user và chỉ nhận lại avatar đã đổi, ở đúng kích
+ * thước cần hiển thị. Avatar có từ trước khi có bảng này được dựng lần đầu khi có người xin.
+ * <p>
+ * Ảnh thu nhỏ dùng ImageIO: PNG khi ảnh có kênh alpha, JPEG nếu không. Định dạng ImageIO không đọc được
+ * thì gửi ảnh gốc cho mọi kích thước.
+ */
+public class AvatarStore {
+    private static final Logger logger = LoggerFactory.getLogger(AvatarStore.class);
+
+    /** Các kích thước được dựng sẵn; {@link User#AVATAR_FULL} là ảnh gốc, không dựng. */
+    public static final int[] SIZES = { User.AVATAR_SMALL, User.AVATAR_MEDIUM };
+
+    /**
+     * Kết quả một lần GET_AVATARS: phiên bản mới của các user có avatar đã đổi, và ảnh của họ (user
+     * không còn avatar có trong {@code versions} nhưng không có trong {@code data}).
+     */
+    public record Changes(Map<Integer, Integer> versions, Map<Integer, byte[]> data) {
+    }
+
+    private final UserDAO userDAO;
+
+    private final AtomicLong requested = new AtomicLong();
+    private final AtomicLong unchanged = new AtomicLong();
+    private final AtomicLong rendered = new AtomicLong();
+
+    public AvatarStore(UserDAO userDAO) {
+        this.userDAO = userDAO;
+    }
+
+    public static boolean isValidSize(int size) {
+        if (size == User.AVATAR_FULL) {
+            return true;
+        }
+        for (int s : SIZES) {
+            if (s == size) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Các avatar đã đổi so với phiên bản client đang có.
+     *
+     * @param known userId -> phiên bản client đang có (số âm hoặc 0 nếu chưa có gì)
+     * @param size  một trong {@link #SIZES} hoặc {@link User#AVATAR_FULL}
+     */
+    public Changes changed(Map<Integer, Integer> known, int size)
+            throws DatabaseException, DatabaseConnectionException {
+        if (!isValidSize(size)) {
+            throw new IllegalArgumentException("Kích thước avatar không hỗ trợ: " + size);
+        }
+        requested.addAndGet(known.size());
+        Map<Integer, Integer> versions = new LinkedHashMap<>();
+        Map<Integer, byte[]> data = new HashMap<>();
+
+        if (!UserDAO.hasAvatarVersions()) {
+            // DB chưa chạy V10: không biết phiên bản, gửi ảnh gốc như GET_USER_AVATAR
+            for (int userId : known.keySet()) {
+                versions.put(userId, 0);
+                byte[] original = userDAO.getAvatarData(userId);
+                if (original != null && original.length > 0) {
+                    data.put(userId, original);
+                }
+            }
+            return new Changes(versions, data);
+        }
+
+        for (Map.Entry<Integer, Integer> entry : userDAO.getAvatarVersions(known.keySet()).entrySet()) {
+            Integer have = known.get(entry.getKey());
+            if (have != null && have.intValue() == entry.getValue()) {
+                unchanged.incrementAndGet();
+            } else {
+                versions.put(entry.getKey(), entry.getValue());
+            }
+        }
+        if (versions.isEmpty()) {
+            return new Changes(versions, data);
+        }
+
+        if (size != User.AVATAR_FULL) {
+            data.putAll(userDAO.getAvatarVariants(versions, size));
+        }
+        for (Map.Entry<Integer, Integer> entry : versions.entrySet()) {
+            int userId = entry.getKey();
+            if (data.containsKey(userId)) {
+                continue;
+            }
+            byte[] original = userDAO.getAvatarData(userId, entry.getValue());
+            if (original == null || original.length == 0) {
+                continue;
+            }
+            if (size == User.AVATAR_FULL) {
+                data.put(userId, original);
+            } else {
+                // Avatar chưa có ảnh dựng sẵn (có từ trước V10, hoặc lần dựng trước lỗi): dựng một lần
+                Map<Integer, byte[]> variants = publish(userId, entry.getValue(), original);
+                data.put(userId, variants.getOrDefault(size, original));
+            }
+        }
+        return new Changes(versions, data);
+    }
+
+    /**
+     * Dựng và lưu ảnh thu nhỏ cho một phiên bản avatar vừa lưu. Lỗi chỉ được ghi log: lần GET_AVATARS
+     * sau sẽ dựng lại.
+     *
+     * @return size -> ảnh đã dựng (rỗng nếu {@code original} rỗng)
+     */
+    public Map<Integer, byte[]> publish(int userId, int version, byte[] original) {
+        Map<Integer, byte[]> variants = new HashMap<>();
+        if (original == null || original.length == 0 || !UserDAO.hasAvatarVersions()) {
+            return variants;
+        }
+        try {
+            for (int size : SIZES) {
+                variants.put(size, render(original, size));
+            }
+            rendered.incrementAndGet();
+            userDAO.saveAvatarVariants(userId, version, variants);
+            logger.debug("Đã dựng avatar v{} của user {}", version, userId);
+        } catch (IOException | DatabaseException | DatabaseConnectionException e) {
+            logger.warn("⚠ Không dựng được avatar v{} của user {}: {}", version, userId, e.getMessage());
+        }
+        return variants;
+    }
+
+    /**
+     * Thu nhỏ ảnh để cạnh dài nhất bằng {@code size}, giữ tỉ lệ. Ảnh đã nhỏ hơn, định dạng không đọc
+     * được, hoặc bản thu nhỏ không nhỏ hơn ảnh gốc thì trả về ảnh gốc.
+     */
+    static byte[] render(byte[] original, int size) throws IOException {
+        BufferedImage source = ImageIO.read(new ByteArrayInputStream(original));
+        if (source == null) {
+            return original;
+        }
+        int width = source.getWidth();
+        int height = source.getHeight();
+        if (Math.max(width, height) <= size) {
+            return original;
+        }
+        double scale = (double) size / Math.max(width, height);
+        int targetWidth = Math.max(1, (int) Math.round(width * scale));
+        int targetHeight = Math.max(1, (int) Math.round(height * scale));
+        boolean alpha = source.getColorModel().hasAlpha();
+        int type = alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+
+        // Thu nhỏ mỗi lần một nửa tới kích thước đích: bicubic một bước từ ảnh lớn bị răng cưa
+        BufferedImage image = source;
+        do {
+            width = Math.max(targetWidth, width / 2);
+            height = Math.max(targetHeight, height / 2);
+            BufferedImage step = new BufferedImage(width, height, type);
+            Graphics2D g = step.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(image, 0, 0, width, height, null);
+            g.dispose();
+            image = step;
+        } while (width != targetWidth || height != targetHeight);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (!ImageIO.write(image, alpha ? "png" : "jpg", out)) {
+            return original;
+        }
+        byte[] bytes = out.toByteArray();
+        return bytes.length < original.length ? bytes : original;
+    }
+
+    /** Số user được hỏi qua GET_AVATARS */
+    public long getRequested() {
+        return requested.get();
+    }
+
+    /** Số user client đã có đúng phiên bản (không gửi lại ảnh) */
+    public long getUnchanged() {
+        return unchanged.get();
+    }
+
+    /** Số lần dựng ảnh thu nhỏ */
+    public long getRendered() {
+        return rendered.get();
+    }
+}
@@ -0,0 +1,55 @@
+package org.example.zalu.server.command;
+
+import org.example.zalu.protocol.Opcode;
+
+/**
+ * Một lệnh đã đăng ký: handler cùng các thuộc tính mà dispatcher cần biết.
+ * <ul>
+ * <li>requiresAuth: chỉ chạy khi phiên đã đăng nhập (mặc định bật)</li>
+ * <li>offloadable: được phép chạy ngoài thread đọc của kết nối. Chỉ dùng cho lệnh chỉ đọc
+ * mà phản hồi tự mô tả (có type hoặc id), vì thứ tự phản hồi so với lệnh khác không còn được giữ</li>
+ * </ul>
+ */
+public final class Command {
+    private final Opcode opcode;
+    private final CommandHandler handler;
+    private final boolean requiresAuth;
+    private final boolean offloadable;
+
+    private Command(Opcode opcode, CommandHandler handler, boolean requiresAuth, boolean offloadable) {
+        this.opcode = opcode;
+        this.handler = handler;
+        this.requiresAuth = requiresAuth;
+        this.offloadable = offloadable;
+    }
+
+    public static Command of(Opcode opcode, CommandHandler handler) {
+        return new Command(opcode, handler, true, false);
+    }
+
+    /** Lệnh không cần đăng nhập (ví dụ KEEP_ALIVE). */
+    public Command anonymous() {
+        return new Command(opcode, handler, false, offloadable);
+    }
+
+    /** Cho phép chạy trên thread riêng thay vì thread đọc của kết nối. */
+    public Command offloadable() {
+        return new Command(opcode, handler, requiresAuth, true);
+    }
+
+    public Opcode getOpcode() {
+        return opcode;
+    }
+
+    public CommandHandler getHandler() {
+        return handler;
+    }
+
+    public boolean requiresAuth() {
+        return requiresAuth;
+    }
+
+    public boolean isOffloadable() {
+        return offloadable;
+    }
+}
@@ -0,0 +1,12 @@
+package org.example.zalu.server.command;
+
+import org.example.zalu.protocol.Packet;
+import org.example.zalu.server.ClientHandler;
+
+/**
+ * Xử lý một lệnh của client trong phiên {@link ClientHandler}.
+ */
+@FunctionalInterface
+public interface CommandHandler {
+    void handle(ClientHandler session, Packet packet) throws Exception;
+}
@@ -0,0 +1,35 @@
+package org.example.zalu.server.command;
+
+import org.example.zalu.protocol.Opcode;
+import org.example.zalu.server.ClientHandler;
+
+/**
+ * Móc chạy quanh mọi lệnh đi qua {@link CommandRegistry}, dùng để gắn thống kê hoặc giới hạn tần suất.
+ */
+public interface CommandInterceptor {
+
+    /**
+     * Gọi trước khi lệnh chạy.
+     *
+     * @return false để từ chối lệnh (client nhận ERROR|COMMAND_REJECTED|tên lệnh)
+     */
+    default boolean beforeCommand(ClientHandler session, Opcode opcode) {
+        return true;
+    }
+
+    /**
+     * Gọi ngay trước handler, trên thread sẽ chạy handler (thread đọc hoặc thread offload).
+     *
+     * @param queuedNanos thời gian lệnh offload chờ executor, -1 nếu lệnh chạy ngay trên thread đọc
+     */
+    default void commandStarted(ClientHandler session, Opcode opcode, long queuedNanos) {
+    }
+
+    /**
+     * Gọi sau khi lệnh chạy xong, kể cả khi lỗi.
+     *
+     * @param error exception của handler, null nếu thành công
+     */
+    default void afterCommand(ClientHandler session, Opcode opcode, long elapsedNanos, Throwable error) {
+    }
+}
@@ -0,0 +1,86 @@
+package org.example.zalu.server.command;
+
+import org.example.zalu.protocol.Opcode;
+import org.example.zalu.server.ClientHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Bảng tra lệnh theo opcode (EnumMap, thời gian hằng số) thay cho chuỗi if/startsWith.
+ * Mỗi opcode chỉ được đăng ký một lần.
+ */
+public class CommandRegistry {
+    private static final Logger logger = LoggerFactory.getLogger(CommandRegistry.class);
+
+    private final Map<Opcode, Command> commands = new EnumMap<>(Opcode.class);
+    private final List<CommandInterceptor> interceptors = new CopyOnWriteArrayList<>();
+
+    /**
+     * @throws IllegalStateException nếu opcode đã có handler
+     */
+    public CommandRegistry register(Command command) {
+        Command previous = commands.putIfAbsent(command.getOpcode(), command);
+        if (previous != null) {
+            throw new IllegalStateException("Lệnh đã được đăng ký: " + command.getOpcode());
+        }
+        return this;
+    }
+
+    public Command get(Opcode opcode) {
+        return opcode != null ? commands.get(opcode) : null;
+    }
+
+    public Map<Opcode, Command> getCommands() {
+        return Collections.unmodifiableMap(commands);
+    }
+
+    public void addInterceptor(CommandInterceptor interceptor) {
+        interceptors.add(interceptor);
+    }
+
+    public void removeInterceptor(CommandInterceptor interceptor) {
+        interceptors.remove(interceptor);
+    }
+
+    /**
+     * @return false nếu có interceptor từ chối lệnh
+     */
+    public boolean beforeCommand(ClientHandler session, Opcode opcode) {
+        for (CommandInterceptor interceptor : interceptors) {
+            try {
+                if (!interceptor.beforeCommand(session, opcode)) {
+                    return false;
+                }
+            } catch (RuntimeException e) {
+                logger.error("Lỗi trong interceptor trước lệnh {}", opcode, e);
+            }
+        }
+        return true;
+    }
+
+    public void commandStarted(ClientHandler session, Opcode opcode, long queuedNanos) {
+        for (CommandInterceptor interceptor : interceptors) {
+            try {
+                interceptor.commandStarted(session, opcode, queuedNanos);
+            } catch (RuntimeException e) {
+                logger.error("Lỗi trong interceptor khi bắt đầu lệnh {}", opcode, e);
+            }
+        }
+    }
+
+    public void afterCommand(ClientHandler session, Opcode opcode, long elapsedNanos, Throwable error) {
+        for (CommandInterceptor interceptor : interceptors) {
+            try {
+                interceptor.afterCommand(session, opcode, elapsedNanos, error);
+            } catch (RuntimeException e) {
+                logger.error("Lỗi trong interceptor sau lệnh {}", opcode, e);
+            }
+        }
+    }
+}
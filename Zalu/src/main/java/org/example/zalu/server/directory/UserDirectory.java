@@ -0,0 +1,374 @@
+package org.example.zalu.server.directory;
+
+import org.example.zalu.dao.UserDAO;
+import org.example.zalu.model.User;
+import org.example.zalu.server.friend.FriendGraphCache;
+import org.example.zalu.server.search.TextNormalizer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Danh bạ user trong RAM cho SEARCH_USERS, thay cho {@code LIKE '%q%'} trên ba cột không có giới hạn.
+ * <p>
+ * Mỗi user được lập chỉ mục theo username, họ tên, email và số điện thoại (chữ thường, bỏ dấu):
+ * <ul>
+ * <li>theo từ: "nguyen van" khớp "Nguyễn Văn An", từ gõ dở khớp theo tiền tố;</li>
+ * <li>theo 3-gram: chuỗi từ 3 ký tự nằm giữa số điện thoại, email hay username ("3456" khớp 0912345678).</li>
+ * </ul>
+ * Kết quả xếp theo khoảng cách bạn bè (bạn bè, bạn của bạn bè, người lạ) rồi theo độ khớp, chỉ lấy
+ * {@code limit} user đầu. Bạn của bạn bè chỉ xét danh sách đang có trong {@link FriendGraphCache}, không
+ * nạp thêm từ DB mỗi lần gõ phím.
+ * <p>
+ * Danh bạ được nạp ở nền khi server khởi động; đăng ký, sửa profile và xóa tài khoản cập nhật ngay qua
+ * {@link #put(User)} / {@link #remove(int)}. Trước khi nạp xong, {@link #isReady()} là false và server tìm
+ * bằng truy vấn SQL có LIMIT.
+ */
+public class UserDirectory {
+    private static final Logger logger = LoggerFactory.getLogger(UserDirectory.class);
+
+    private static final int LOAD_BATCH = 1000;
+    private static final int GRAM = 3;
+    // Điểm khớp: nguyên từ > tiền tố > chuỗi con (3-gram)
+    private static final int EXACT_WEIGHT = 4;
+    private static final int PREFIX_WEIGHT = 2;
+    private static final int GRAM_WEIGHT = 1;
+    private static final int FRIEND = 1;
+    private static final int FRIEND_OF_FRIEND = 2;
+    private static final int STRANGER = 3;
+
+    private final UserDAO userDAO;
+    private final FriendGraphCache friendGraph;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // userId -> các trường đã chuẩn hóa (bỏ khoảng trắng/dấu câu) để kiểm tra chuỗi con
+    private final Map<Integer, String[]> fields = new HashMap<>();
+    private final Map<Integer, String[]> tokensByUser = new HashMap<>();
+    private final TreeMap<String, Set<Integer>> tokens = new TreeMap<>();
+    private final Map<String, Set<Integer>> grams = new HashMap<>();
+    // User bị xóa trong lúc đang nạp, để lượt nạp không thêm lại
+    private final Set<Integer> removedWhileLoading = new HashSet<>();
+
+    private final AtomicLong searches = new AtomicLong();
+    private volatile boolean loading;
+    private volatile boolean ready;
+    private Thread loader;
+
+    public UserDirectory(UserDAO userDAO, FriendGraphCache friendGraph) {
+        this.userDAO = userDAO;
+        this.friendGraph = friendGraph;
+    }
+
+    /** Nạp toàn bộ danh bạ ở nền (gọi một lần khi server khởi động). */
+    public synchronized void start() {
+        if (loader != null || ready) {
+            return;
+        }
+        loading = true;
+        loader = new Thread(this::load, "User-Directory-Loader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    private void load() {
+        long started = System.currentTimeMillis();
+        try {
+            int afterId = 0;
+            while (true) {
+                List<User> batch = userDAO.getDirectoryEntries(afterId, LOAD_BATCH);
+                if (batch.isEmpty()) {
+                    break;
+                }
+                lock.writeLock().lock();
+                try {
+                    for (User user : batch) {
+                        // User vừa sửa profile / vừa bị xóa trong lúc nạp: giữ bản mới hơn
+                        if (!fields.containsKey(user.getId()) && !removedWhileLoading.contains(user.getId())) {
+                            add(user);
+                        }
+                    }
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                afterId = batch.get(batch.size() - 1).getId();
+            }
+            ready = true;
+            logger.info("✓ Danh bạ tìm kiếm: {} user, {} từ khóa ({} ms)", size(), getTokenCount(),
+                    System.currentTimeMillis() - started);
+        } catch (Exception e) {
+            logger.error("❌ Không nạp được danh bạ, SEARCH_USERS dùng SQL: {}", e.getMessage());
+        } finally {
+            lock.writeLock().lock();
+            try {
+                loading = false;
+                removedWhileLoading.clear();
+            } finally {
+                lock.writeLock().unlock();
+            }
+            synchronized (this) {
+                loader = null;
+            }
+        }
+    }
+
+    /** Thêm hoặc cập nhật user (sau khi đăng ký / sửa profile đã ghi DB). */
+    public void put(User user) {
+        if (user.getId() <= 0) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            delete(user.getId());
+            removedWhileLoading.remove(user.getId());
+            add(user);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** Tài khoản đã bị xóa. */
+    public void remove(int userId) {
+        lock.writeLock().lock();
+        try {
+            delete(userId);
+            if (loading) {
+                removedWhileLoading.add(userId);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Gọi khi đang giữ write lock
+    private void add(User user) {
+        int id = user.getId();
+        String[] values = { user.getUsername(), user.getFullName(), user.getEmail(), user.getPhone() };
+        Set<String> userTokens = new LinkedHashSet<>();
+        Set<String> userGrams = new HashSet<>();
+        List<String> compact = new ArrayList<>(values.length);
+        for (String value : values) {
+            if (value == null || value.isBlank()) {
+                continue;
+            }
+            List<String> words = TextNormalizer.tokenize(value);
+            userTokens.addAll(words);
+            String joined = String.join("", words);
+            if (!joined.isEmpty()) {
+                // "an.nguyen@mail.com" cũng khớp khi gõ liền "annguyen"
+                userTokens.add(joined.length() > TextNormalizer.MAX_TOKEN_LENGTH
+                        ? joined.substring(0, TextNormalizer.MAX_TOKEN_LENGTH) : joined);
+                compact.add(joined);
+                for (int i = 0; i + GRAM <= joined.length(); i++) {
+                    userGrams.add(joined.substring(i, i + GRAM));
+                }
+            }
+        }
+        String[] tokenArray = userTokens.toArray(String[]::new);
+        fields.put(id, compact.toArray(String[]::new));
+        tokensByUser.put(id, tokenArray);
+        for (String token : tokenArray) {
+            tokens.computeIfAbsent(token, t -> new HashSet<>()).add(id);
+        }
+        for (String gram : userGrams) {
+            grams.computeIfAbsent(gram, g -> new HashSet<>()).add(id);
+        }
+    }
+
+    // Gọi khi đang giữ write lock
+    private void delete(int id) {
+        String[] compact = fields.remove(id);
+        String[] userTokens = tokensByUser.remove(id);
+        if (compact == null) {
+            return;
+        }
+        for (String token : userTokens) {
+            removePosting(tokens, token, id);
+        }
+        for (String value : compact) {
+            for (int i = 0; i + GRAM <= value.length(); i++) {
+                removePosting(grams, value.substring(i, i + GRAM), id);
+            }
+        }
+    }
+
+    private static void removePosting(Map<String, Set<Integer>> index, String key, int id) {
+        Set<Integer> ids = index.get(key);
+        if (ids != null && ids.remove(id) && ids.isEmpty()) {
+            index.remove(key);
+        }
+    }
+
+    /**
+     * Tìm user cho {@code requesterId} (không gồm chính họ).
+     *
+     * @return tối đa {@code limit} id user, gần nhất và khớp nhất trước
+     */
+    public List<Integer> search(String query, int requesterId, int limit) {
+        searches.incrementAndGet();
+        List<String> words = TextNormalizer.tokenize(query);
+        if (words.isEmpty() || limit <= 0) {
+            return List.of();
+        }
+        Map<Integer, Integer> scores;
+        lock.readLock().lock();
+        try {
+            scores = matchWords(words);
+            String joined = String.join("", words);
+            if (joined.length() >= GRAM) {
+                for (int id : matchSubstring(joined)) {
+                    scores.putIfAbsent(id, GRAM_WEIGHT);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        scores.remove(requesterId);
+        if (scores.isEmpty()) {
+            return List.of();
+        }
+        Map<Integer, Integer> distances = distances(requesterId, scores.keySet());
+        Comparator<Integer> rank = Comparator
+                .<Integer>comparingInt(id -> distances.getOrDefault(id, STRANGER))
+                .thenComparing(Comparator.<Integer>comparingInt(scores::get).reversed())
+                .thenComparingInt(id -> id);
+        // Giữ limit ứng viên tốt nhất: heap đảo ngược, phần tử đầu là ứng viên kém nhất
+        PriorityQueue<Integer> top = new PriorityQueue<>(rank.reversed());
+        for (Integer id : scores.keySet()) {
+            top.add(id);
+            if (top.size() > limit) {
+                top.poll();
+            }
+        }
+        List<Integer> result = new ArrayList<>(top);
+        result.sort(rank);
+        return result;
+    }
+
+    /** Mọi từ phải khớp một từ của user (nguyên từ hoặc tiền tố); điểm cộng dồn. */
+    private Map<Integer, Integer> matchWords(List<String> words) {
+        Map<Integer, Integer> scores = null;
+        for (String word : words) {
+            Map<Integer, Integer> hits = new HashMap<>();
+            Set<Integer> exact = tokens.get(word);
+            if (exact != null) {
+                exact.forEach(id -> hits.put(id, EXACT_WEIGHT));
+            }
+            for (Set<Integer> ids : tokens.subMap(word, false, word + Character.MAX_VALUE, false).values()) {
+                ids.forEach(id -> hits.putIfAbsent(id, PREFIX_WEIGHT));
+            }
+            if (scores == null) {
+                scores = hits;
+            } else {
+                scores.keySet().retainAll(hits.keySet());
+                scores.replaceAll((id, score) -> score + hits.get(id));
+            }
+            if (scores.isEmpty()) {
+                break;
+            }
+        }
+        return scores;
+    }
+
+    /** User có một trường chứa {@code text}: giao các tập 3-gram rồi kiểm tra lại chuỗi con. */
+    private List<Integer> matchSubstring(String text) {
+        Set<Integer> smallest = null;
+        List<Set<Integer>> postings = new ArrayList<>();
+        for (int i = 0; i + GRAM <= text.length(); i++) {
+            Set<Integer> ids = grams.get(text.substring(i, i + GRAM));
+            if (ids == null) {
+                return List.of();
+            }
+            postings.add(ids);
+            if (smallest == null || ids.size() < smallest.size()) {
+                smallest = ids;
+            }
+        }
+        List<Integer> result = new ArrayList<>();
+        outer:
+        for (Integer id : smallest) {
+            for (Set<Integer> ids : postings) {
+                if (!ids.contains(id)) {
+                    continue outer;
+                }
+            }
+            for (String value : fields.get(id)) {
+                if (value.contains(text)) {
+                    result.add(id);
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    private Map<Integer, Integer> distances(int requesterId, Set<Integer> candidates) {
+        Map<Integer, Integer> distances = new HashMap<>();
+        if (friendGraph == null || requesterId <= 0) {
+            return distances;
+        }
+        int[] friends;
+        try {
+            friends = friendGraph.getFriends(requesterId);
+        } catch (Exception e) {
+            logger.warn("⚠ Không lấy được bạn bè của user {} để xếp hạng tìm kiếm: {}", requesterId,
+                    e.getMessage());
+            return distances;
+        }
+        for (int friendId : friends) {
+            int[] friendsOfFriend = friendGraph.peekFriends(friendId);
+            if (friendsOfFriend == null) {
+                continue;
+            }
+            for (int id : friendsOfFriend) {
+                if (candidates.contains(id)) {
+                    distances.put(id, FRIEND_OF_FRIEND);
+                }
+            }
+        }
+        // Bạn bè trực tiếp ghi sau cùng: vừa là bạn vừa là bạn của bạn bè thì vẫn là bạn
+        for (int friendId : friends) {
+            if (candidates.contains(friendId)) {
+                distances.put(friendId, FRIEND);
+            }
+        }
+        return distances;
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return fields.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getTokenCount() {
+        lock.readLock().lock();
+        try {
+            return tokens.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long getSearches() {
+        return searches.get();
+    }
+}
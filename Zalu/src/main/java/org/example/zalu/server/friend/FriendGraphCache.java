@@ -0,0 +1,198 @@
+package org.example.zalu.server.friend;
+
+import org.example.zalu.dao.FriendDAO;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntPredicate;
+
+/**
+ * Đồ thị bạn bè trong RAM: userId -> mảng int id bạn bè (đã sắp xếp), không giữ List&lt;Integer&gt;.
+ * <p>
+ * Danh sách của user được nạp từ DB (FriendDAO.getFriendsByUserId) lần đầu cần đến; sau đó đăng nhập,
+ * USER_ONLINE/USER_OFFLINE, cập nhật profile, GET_FRIENDS và GET_USER_STATS chỉ đọc RAM. Chấp nhận lời
+ * mời kết bạn, hủy kết bạn và xóa tài khoản phải báo qua các hàm on*() sau khi DB đã cập nhật.
+ * <p>
+ * Bộ nhớ có giới hạn: user offline bị bỏ khỏi cache khi thoát, và khi số user trong cache vượt
+ * {@code maxUsers} thì các user offline còn lại bị bỏ trước khi nạp thêm. Sau mỗi lượt dọn, lượt kế tiếp
+ * chỉ chạy khi cache lớn thêm 1/8, nên cache đầy user online không làm mỗi lần nạp phải quét cả map.
+ * Giống GroupMembershipCache, mảng không bị sửa tại chỗ và lượt nạp trùng với một thay đổi thì không
+ * được cache.
+ */
+public class FriendGraphCache {
+    private static final int[] NONE = new int[0];
+
+    private final FriendDAO friendDAO;
+    private final IntPredicate isOnline;
+    private final int maxUsers;
+    private final Map<Integer, int[]> friendsByUser = new ConcurrentHashMap<>();
+    // Tăng mỗi lần có thay đổi, để biết lượt nạp từ DB có thể đã cũ
+    private final AtomicLong mutations = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    // Số user trong cache mà tại đó lượt dọn tiếp theo chạy
+    private volatile int sweepAt;
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+
+    /**
+     * @param isOnline user đang online thì không bị bỏ khỏi cache
+     * @param maxUsers số user tối đa giữ danh sách bạn bè trong RAM
+     */
+    public FriendGraphCache(FriendDAO friendDAO, IntPredicate isOnline, int maxUsers) {
+        this.friendDAO = friendDAO;
+        this.isOnline = isOnline;
+        this.maxUsers = maxUsers;
+        this.sweepAt = maxUsers;
+    }
+
+    /**
+     * Id bạn bè của user, tăng dần. Mảng dùng chung, không được sửa.
+     */
+    public int[] getFriends(int userId) throws SQLException {
+        int[] friends = friendsByUser.get(userId);
+        if (friends != null) {
+            hits.incrementAndGet();
+            return friends;
+        }
+        misses.incrementAndGet();
+        long seen = mutations.get();
+        int[] loaded = toSortedArray(friendDAO.getFriendsByUserId(userId));
+        if (friendsByUser.size() >= sweepAt && sweeping.compareAndSet(false, true)) {
+            try {
+                evictOffline();
+            } finally {
+                sweeping.set(false);
+            }
+        }
+        synchronized (this) {
+            if (mutations.get() == seen) {
+                int[] previous = friendsByUser.putIfAbsent(userId, loaded);
+                if (previous != null) {
+                    return previous;
+                }
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Id bạn bè nếu user đang có trong cache, không nạp từ DB (null nếu chưa có). Mảng dùng chung, không
+     * được sửa.
+     */
+    public int[] peekFriends(int userId) {
+        return friendsByUser.get(userId);
+    }
+
+    /** Danh sách id bạn bè để gửi cho client (giao thức dùng List). */
+    public List<Integer> getFriendList(int userId) throws SQLException {
+        int[] friends = getFriends(userId);
+        List<Integer> list = new ArrayList<>(friends.length);
+        for (int friendId : friends) {
+            list.add(friendId);
+        }
+        return list;
+    }
+
+    public boolean areFriends(int userId, int otherId) throws SQLException {
+        return Arrays.binarySearch(getFriends(userId), otherId) >= 0;
+    }
+
+    /** Hai user vừa thành bạn bè (ACCEPT_FRIEND). */
+    public synchronized void onFriendshipAdded(int userId, int friendId) {
+        mutations.incrementAndGet();
+        friendsByUser.computeIfPresent(userId, (k, friends) -> with(friends, friendId));
+        friendsByUser.computeIfPresent(friendId, (k, friends) -> with(friends, userId));
+    }
+
+    /** Hai user không còn là bạn bè. */
+    public synchronized void onFriendshipRemoved(int userId, int friendId) {
+        mutations.incrementAndGet();
+        friendsByUser.computeIfPresent(userId, (k, friends) -> without(friends, friendId));
+        friendsByUser.computeIfPresent(friendId, (k, friends) -> without(friends, userId));
+    }
+
+    /** Tài khoản bị xóa: DB đã xóa các hàng friends của user (ON DELETE CASCADE). */
+    public synchronized void onUserDeleted(int userId) {
+        mutations.incrementAndGet();
+        int[] friends = friendsByUser.remove(userId);
+        if (friends == null) {
+            friendsByUser.replaceAll((k, list) -> without(list, userId));
+            return;
+        }
+        for (int friendId : friends) {
+            friendsByUser.computeIfPresent(friendId, (k, list) -> without(list, userId));
+        }
+    }
+
+    /** User vừa thoát: bỏ danh sách bạn bè của họ nếu không còn online. */
+    public void onUserOffline(int userId) {
+        if (!isOnline.test(userId) && friendsByUser.remove(userId) != null) {
+            evictions.incrementAndGet();
+        }
+    }
+
+    private void evictOffline() {
+        for (Integer userId : friendsByUser.keySet()) {
+            if (!isOnline.test(userId) && friendsByUser.remove(userId) != null) {
+                evictions.incrementAndGet();
+            }
+        }
+        int size = friendsByUser.size();
+        sweepAt = Math.max(maxUsers, size + Math.max(1, Math.max(size, maxUsers) / 8));
+    }
+
+    public int getCachedUsers() {
+        return friendsByUser.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    private static int[] with(int[] friends, int friendId) {
+        int index = Arrays.binarySearch(friends, friendId);
+        if (index >= 0) {
+            return friends;
+        }
+        int insertAt = -index - 1;
+        int[] updated = new int[friends.length + 1];
+        System.arraycopy(friends, 0, updated, 0, insertAt);
+        updated[insertAt] = friendId;
+        System.arraycopy(friends, insertAt, updated, insertAt + 1, friends.length - insertAt);
+        return updated;
+    }
+
+    private static int[] without(int[] friends, int friendId) {
+        int index = Arrays.binarySearch(friends, friendId);
+        if (index < 0) {
+            return friends;
+        }
+        if (friends.length == 1) {
+            return NONE;
+        }
+        int[] updated = new int[friends.length - 1];
+        System.arraycopy(friends, 0, updated, 0, index);
+        System.arraycopy(friends, index + 1, updated, index, friends.length - index - 1);
+        return updated;
+    }
+
+    private static int[] toSortedArray(Collection<Integer> ids) {
+        return ids.isEmpty() ? NONE : ids.stream().mapToInt(Integer::intValue).distinct().sorted().toArray();
+    }
+}
@@ -0,0 +1,212 @@
+package org.example.zalu.server.group;
+
+import org.example.zalu.dao.GroupDAO;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Chỉ mục thành viên nhóm trong RAM: groupId -> mảng id thành viên (đã sắp xếp) và userId -> tập nhóm.
+ * <p>
+ * Mỗi nhóm/user được nạp từ DB lần đầu cần đến; sau đó gửi tin nhóm, sự kiện xóa/thu hồi/sửa/ghim và kiểm tra quyền
+ * (lịch sử nhóm, GET_FILE) chỉ đọc RAM. Tạo nhóm, thêm thành viên, rời nhóm, giải tán nhóm và xóa tài
+ * khoản phải báo qua các hàm on*() sau khi DB đã cập nhật; rời nhóm, xóa thành viên và giải tán nhóm
+ * nên đi qua {@link #removeMember} / {@link #deleteGroup} để ghi DB và cập nhật cache cùng một chỗ.
+ * <p>
+ * Đọc không khóa: mảng thành viên không bao giờ bị sửa tại chỗ, thay đổi tạo mảng mới. Lượt nạp
+ * trùng với một thay đổi thì không được cache (lần sau nạp lại), nên không giữ danh sách cũ.
+ */
+public class GroupMembershipCache {
+    private final GroupDAO groupDAO;
+    private final Map<Integer, int[]> membersByGroup = new ConcurrentHashMap<>();
+    private final Map<Integer, Set<Integer>> groupsByUser = new ConcurrentHashMap<>();
+    // Tăng mỗi lần có thay đổi, để biết lượt nạp từ DB có thể đã cũ
+    private final AtomicLong mutations = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public GroupMembershipCache(GroupDAO groupDAO) {
+        this.groupDAO = groupDAO;
+    }
+
+    /**
+     * Id thành viên của nhóm, tăng dần. Mảng dùng chung, không được sửa.
+     */
+    public int[] getMembers(int groupId) throws SQLException {
+        int[] members = membersByGroup.get(groupId);
+        if (members != null) {
+            hits.incrementAndGet();
+            return members;
+        }
+        misses.incrementAndGet();
+        long seen = mutations.get();
+        int[] loaded = toSortedArray(groupDAO.getGroupMembers(groupId));
+        synchronized (this) {
+            if (mutations.get() == seen) {
+                int[] previous = membersByGroup.putIfAbsent(groupId, loaded);
+                if (previous != null) {
+                    return previous;
+                }
+            }
+        }
+        return loaded;
+    }
+
+    public boolean isMember(int groupId, int userId) throws SQLException {
+        return Arrays.binarySearch(getMembers(groupId), userId) >= 0;
+    }
+
+    /**
+     * Id các nhóm user đang tham gia (bản sao).
+     */
+    public Set<Integer> getGroupsOf(int userId) throws SQLException {
+        Set<Integer> groups = groupsByUser.get(userId);
+        if (groups != null) {
+            hits.incrementAndGet();
+            return new HashSet<>(groups);
+        }
+        misses.incrementAndGet();
+        long seen = mutations.get();
+        Set<Integer> loaded = ConcurrentHashMap.newKeySet();
+        loaded.addAll(groupDAO.getUserGroupIds(userId));
+        synchronized (this) {
+            if (mutations.get() == seen) {
+                Set<Integer> previous = groupsByUser.putIfAbsent(userId, loaded);
+                if (previous != null) {
+                    loaded = previous;
+                }
+            }
+        }
+        return new HashSet<>(loaded);
+    }
+
+    /**
+     * Xóa thành viên khỏi nhóm (rời nhóm hoặc bị admin xóa) trong DB rồi cập nhật cache. Cache được cập
+     * nhật cả khi DB không còn hàng đó, để người đã rời nhóm không còn nhận tin và quyền của nhóm.
+     *
+     * @return true nếu lần gọi này xóa được hàng trong DB
+     */
+    public boolean removeMember(int groupId, int userId) throws SQLException {
+        boolean removed = groupDAO.removeMemberFromGroup(groupId, userId);
+        onMemberRemoved(groupId, userId);
+        return removed;
+    }
+
+    /**
+     * Giải tán nhóm trong DB rồi bỏ nhóm khỏi cache (kể cả khi DB đã không còn nhóm).
+     *
+     * @return true nếu lần gọi này xóa được nhóm trong DB
+     */
+    public boolean deleteGroup(int groupId) throws SQLException {
+        boolean deleted = groupDAO.deleteGroup(groupId);
+        onGroupDeleted(groupId);
+        return deleted;
+    }
+
+    /** Nhóm mới tạo: danh sách thành viên đã biết đủ, không cần hỏi DB. */
+    public synchronized void onGroupCreated(int groupId, Collection<Integer> memberIds) {
+        mutations.incrementAndGet();
+        int[] members = toSortedArray(memberIds);
+        membersByGroup.put(groupId, members);
+        for (int userId : members) {
+            groupsByUser.computeIfPresent(userId, (k, groups) -> addTo(groups, groupId));
+        }
+    }
+
+    public synchronized void onMemberAdded(int groupId, int userId) {
+        mutations.incrementAndGet();
+        membersByGroup.computeIfPresent(groupId, (k, members) -> {
+            if (Arrays.binarySearch(members, userId) >= 0) {
+                return members;
+            }
+            int[] updated = Arrays.copyOf(members, members.length + 1);
+            updated[members.length] = userId;
+            Arrays.sort(updated);
+            return updated;
+        });
+        groupsByUser.computeIfPresent(userId, (k, groups) -> addTo(groups, groupId));
+    }
+
+    public synchronized void onMemberRemoved(int groupId, int userId) {
+        mutations.incrementAndGet();
+        membersByGroup.computeIfPresent(groupId, (k, members) -> without(members, userId));
+        groupsByUser.computeIfPresent(userId, (k, groups) -> {
+            groups.remove(groupId);
+            return groups;
+        });
+    }
+
+    public synchronized void onGroupDeleted(int groupId) {
+        mutations.incrementAndGet();
+        int[] members = membersByGroup.remove(groupId);
+        if (members == null) {
+            // Không biết thành viên: bỏ nhóm khỏi mọi user đã nạp
+            for (Set<Integer> groups : groupsByUser.values()) {
+                groups.remove(groupId);
+            }
+            return;
+        }
+        for (int userId : members) {
+            groupsByUser.computeIfPresent(userId, (k, groups) -> {
+                groups.remove(groupId);
+                return groups;
+            });
+        }
+    }
+
+    /** Tài khoản bị xóa: DB đã xóa các hàng group_members của user (ON DELETE CASCADE). */
+    public synchronized void onUserDeleted(int userId) {
+        mutations.incrementAndGet();
+        groupsByUser.remove(userId);
+        membersByGroup.replaceAll((groupId, members) -> without(members, userId));
+    }
+
+    /** Bỏ toàn bộ cache, lần sau nạp lại từ DB. */
+    public synchronized void clear() {
+        mutations.incrementAndGet();
+        membersByGroup.clear();
+        groupsByUser.clear();
+    }
+
+    public int getCachedGroups() {
+        return membersByGroup.size();
+    }
+
+    public int getCachedUsers() {
+        return groupsByUser.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private static Set<Integer> addTo(Set<Integer> groups, int groupId) {
+        groups.add(groupId);
+        return groups;
+    }
+
+    private static int[] without(int[] members, int userId) {
+        int index = Arrays.binarySearch(members, userId);
+        if (index < 0) {
+            return members;
+        }
+        int[] updated = new int[members.length - 1];
+        System.arraycopy(members, 0, updated, 0, index);
+        System.arraycopy(members, index + 1, updated, index, members.length - index - 1);
+        return updated;
+    }
+
+    private static int[] toSortedArray(Collection<Integer> ids) {
+        return ids.stream().mapToInt(Integer::intValue).distinct().sorted().toArray();
+    }
+}
@@ -0,0 +1,77 @@
+package org.example.zalu.server.history;
+
+/**
+ * Con trỏ phân trang lịch sử chat (GET_HISTORY_PAGE).
+ * <p>
+ * Client chỉ nhận và gửi lại nguyên chuỗi, không cần biết bên trong: hướng trang (cũ hơn / mới hơn)
+ * cùng id tin nhắn làm mốc. Phân trang theo id nên trang sau không bị lệch khi có tin nhắn mới chen vào,
+ * và DB chỉ quét một khoảng index thay vì OFFSET.
+ */
+public final class HistoryCursor {
+    /** Trang mới nhất (chưa có con trỏ). */
+    public static final HistoryCursor LATEST = new HistoryCursor(true, Integer.MAX_VALUE);
+
+    private static final char OLDER = 'o';
+    private static final char NEWER = 'n';
+
+    private final boolean older;
+    private final int messageId;
+
+    private HistoryCursor(boolean older, int messageId) {
+        this.older = older;
+        this.messageId = messageId;
+    }
+
+    /** Các tin nhắn có id nhỏ hơn messageId. */
+    public static HistoryCursor olderThan(int messageId) {
+        return new HistoryCursor(true, messageId);
+    }
+
+    /** Các tin nhắn có id lớn hơn messageId. */
+    public static HistoryCursor newerThan(int messageId) {
+        return new HistoryCursor(false, messageId);
+    }
+
+    /**
+     * Đọc con trỏ client gửi lên; chuỗi rỗng/null là trang mới nhất.
+     *
+     * @throws IllegalArgumentException nếu chuỗi không phải con trỏ do server tạo
+     */
+    public static HistoryCursor parse(String value) {
+        if (value == null || value.isEmpty()) {
+            return LATEST;
+        }
+        char direction = value.charAt(0);
+        if (direction != OLDER && direction != NEWER) {
+            throw new IllegalArgumentException("Con trỏ không hợp lệ: " + value);
+        }
+        int id;
+        try {
+            id = Integer.parseInt(value.substring(1), Character.MAX_RADIX);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Con trỏ không hợp lệ: " + value, e);
+        }
+        if (id < 0) {
+            throw new IllegalArgumentException("Con trỏ không hợp lệ: " + value);
+        }
+        return new HistoryCursor(direction == OLDER, id);
+    }
+
+    public String encode() {
+        return (older ? OLDER : NEWER) + Integer.toString(messageId, Character.MAX_RADIX);
+    }
+
+    /** true: lấy các tin cũ hơn mốc (id giảm dần); false: các tin mới hơn mốc. */
+    public boolean isOlder() {
+        return older;
+    }
+
+    public int getMessageId() {
+        return messageId;
+    }
+
+    @Override
+    public String toString() {
+        return encode();
+    }
+}
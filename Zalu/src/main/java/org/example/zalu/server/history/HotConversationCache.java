@@ -0,0 +1,430 @@
+package org.example.zalu.server.history;
+
+import org.example.zalu.dao.MessageDAO;
+import org.example.zalu.model.Message;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Các tin nhắn mới nhất của những cuộc trò chuyện đang hoạt động, giữ trong RAM để trang lịch sử đầu
+ * tiên (và các lần hỏi tin mới hơn) không phải vào MySQL.
+ * <p>
+ * Mỗi cuộc trò chuyện có một vòng đệm tối đa {@code perConversation} tin, chỉ metadata (không fileData),
+ * luôn là đoạn mới nhất liên tục theo id của cuộc trò chuyện. Vòng đệm được nạp một lần từ DB khi có
+ * người mở trang mới nhất; sau đó tin mới được nối vào qua {@link #onSaved(Message)}, còn sửa/thu
+ * hồi/xóa/ghim thay tin tại chỗ qua {@link #onChanged(Message)}. Lượt nạp trùng với một thay đổi của
+ * cùng cuộc trò chuyện thì không được cache, giống FriendGraphCache.
+ * <p>
+ * Tổng bộ nhớ (ước lượng theo độ dài chuỗi) bị giới hạn bởi {@code maxBytes}; vượt thì bỏ các cuộc
+ * trò chuyện lâu không được dùng nhất (LRU). Tin trả ra luôn là bản sao, người gọi sửa thoải mái.
+ */
+public class HotConversationCache {
+
+    private final MessageDAO messageDAO;
+    private final int perConversation;
+    private final long maxBytes;
+    // Thứ tự truy cập: phần tử đầu là cuộc trò chuyện lâu không dùng nhất
+    private final LinkedHashMap<Long, Ring> rings = new LinkedHashMap<>(256, 0.75f, true);
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param perConversation số tin tối đa giữ cho mỗi cuộc trò chuyện
+     * @param maxBytes        giới hạn bộ nhớ ước lượng cho cả cache
+     */
+    public HotConversationCache(MessageDAO messageDAO, int perConversation, long maxBytes) {
+        this.messageDAO = messageDAO;
+        this.perConversation = Math.max(1, perConversation);
+        this.maxBytes = maxBytes;
+    }
+
+    /** Khóa cuộc trò chuyện: -groupId với nhóm, cặp (id nhỏ, id lớn) với chat 1-1. */
+    static long key(int userId, int targetId, boolean isGroup) {
+        if (isGroup) {
+            return -targetId;
+        }
+        return ((long) Math.min(userId, targetId) << 32) | Math.max(userId, targetId);
+    }
+
+    private static long keyOf(Message message) {
+        return message.getGroupId() > 0
+                ? key(0, message.getGroupId(), true)
+                : key(message.getSenderId(), message.getReceiverId(), false);
+    }
+
+    /**
+     * Một trang lịch sử như {@link MessageDAO#getMessagePageBetween}/{@link MessageDAO#getGroupMessagePage}
+     * (tăng dần theo id), hoặc null nếu cache không trả lời được và người gọi phải hỏi DB. Trang mới nhất
+     * ({@code anchorId = Integer.MAX_VALUE}, olderThan) của cuộc trò chuyện chưa có trong cache sẽ nạp
+     * vòng đệm từ DB.
+     */
+    public List<Message> page(int userId, int targetId, boolean isGroup, int anchorId, boolean olderThan, int limit)
+            throws Exception {
+        long key = key(userId, targetId, isGroup);
+        Ring ring;
+        synchronized (rings) {
+            ring = rings.get(key);
+        }
+        if (ring == null) {
+            if (anchorId != Integer.MAX_VALUE || !olderThan || limit > perConversation) {
+                misses.incrementAndGet();
+                return null;
+            }
+            ring = load(key, userId, targetId, isGroup);
+        }
+        List<Message> page;
+        synchronized (ring) {
+            page = ring.page(anchorId, olderThan, limit);
+        }
+        (page != null ? hits : misses).incrementAndGet();
+        return page;
+    }
+
+    /**
+     * Toàn bộ cuộc trò chuyện (như getMessagesBetween/getMessagesForGroup: tin ghim trước, rồi theo thời
+     * gian) nếu vòng đệm đang giữ đủ mọi tin của nó, ngược lại null.
+     */
+    public List<Message> all(int userId, int targetId, boolean isGroup) {
+        Ring ring;
+        synchronized (rings) {
+            ring = rings.get(key(userId, targetId, isGroup));
+        }
+        List<Message> all = null;
+        if (ring != null) {
+            synchronized (ring) {
+                if (ring.ready() && ring.complete) {
+                    all = ring.page(Integer.MAX_VALUE, true, ring.size);
+                }
+            }
+        }
+        if (all == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        // Sắp xếp ổn định: giữ thứ tự id trong từng nhóm ghim/không ghim
+        all.sort((a, b) -> Boolean.compare(b.isPinned(), a.isPinned()));
+        return all;
+    }
+
+    /** Tin vừa được commit vào DB (đã có id). */
+    public void onSaved(Message message) {
+        if (message.getId() <= 0) {
+            return;
+        }
+        Ring ring;
+        synchronized (rings) {
+            ring = rings.get(keyOf(message));
+        }
+        if (ring == null) {
+            return;
+        }
+        synchronized (ring) {
+            if (!ring.ready()) {
+                ring.stale = true;
+                return;
+            }
+            bytes.addAndGet(ring.add(copyOf(message)));
+        }
+        evictIfNeeded();
+    }
+
+    /** Tin đã bị sửa, thu hồi, xóa hoặc ghim/bỏ ghim; {@code updated} là trạng thái mới trong DB. */
+    public void onChanged(Message updated) {
+        Ring ring;
+        synchronized (rings) {
+            ring = rings.get(keyOf(updated));
+        }
+        if (ring == null) {
+            return;
+        }
+        synchronized (ring) {
+            if (!ring.ready()) {
+                ring.stale = true;
+                return;
+            }
+            bytes.addAndGet(ring.replace(copyOf(updated)));
+        }
+        evictIfNeeded();
+    }
+
+    /** Bỏ cuộc trò chuyện khỏi cache (ví dụ nhóm bị giải tán). */
+    public void invalidate(int userId, int targetId, boolean isGroup) {
+        Ring ring;
+        synchronized (rings) {
+            ring = rings.remove(key(userId, targetId, isGroup));
+        }
+        if (ring != null) {
+            release(ring);
+        }
+    }
+
+    /** Bỏ toàn bộ cache (xóa tài khoản: DB xóa tin của user ở mọi cuộc trò chuyện). */
+    public void clear() {
+        List<Ring> removed;
+        synchronized (rings) {
+            removed = new ArrayList<>(rings.values());
+            rings.clear();
+        }
+        removed.forEach(this::release);
+    }
+
+    private Ring load(long key, int userId, int targetId, boolean isGroup) throws Exception {
+        Ring ring = new Ring(perConversation);
+        synchronized (rings) {
+            Ring existing = rings.putIfAbsent(key, ring);
+            if (existing != null) {
+                return existing;
+            }
+        }
+        loads.incrementAndGet();
+        List<Message> loaded;
+        try {
+            // Lấy dư một tin để biết cuộc trò chuyện có dài hơn vòng đệm không
+            loaded = isGroup
+                    ? messageDAO.getGroupMessagePage(targetId, Integer.MAX_VALUE, true, perConversation + 1)
+                    : messageDAO.getMessagePageBetween(userId, targetId, Integer.MAX_VALUE, true, perConversation + 1);
+        } catch (Exception e) {
+            drop(key, ring);
+            throw e;
+        }
+        boolean installed;
+        synchronized (ring) {
+            installed = !ring.stale;
+            if (installed) {
+                ring.complete = loaded.size() <= perConversation;
+                for (int i = Math.max(0, loaded.size() - perConversation); i < loaded.size(); i++) {
+                    bytes.addAndGet(ring.add(copyOf(loaded.get(i))));
+                }
+                ring.loaded = true;
+            }
+        }
+        if (!installed) {
+            // Có thay đổi trong lúc nạp: trả lời lần này từ dữ liệu vừa đọc, lần sau nạp lại
+            drop(key, ring);
+            Ring once = new Ring(perConversation);
+            once.complete = loaded.size() <= perConversation;
+            for (int i = Math.max(0, loaded.size() - perConversation); i < loaded.size(); i++) {
+                once.add(copyOf(loaded.get(i)));
+            }
+            once.loaded = true;
+            return once;
+        }
+        evictIfNeeded();
+        return ring;
+    }
+
+    private void drop(long key, Ring ring) {
+        synchronized (rings) {
+            rings.remove(key, ring);
+        }
+        release(ring);
+    }
+
+    private void release(Ring ring) {
+        synchronized (ring) {
+            bytes.addAndGet(-ring.bytes);
+            ring.bytes = 0;
+            ring.stale = true;
+        }
+    }
+
+    private void evictIfNeeded() {
+        if (bytes.get() <= maxBytes) {
+            return;
+        }
+        synchronized (rings) {
+            Iterator<Ring> it = rings.values().iterator();
+            // Giữ lại cuộc trò chuyện vừa dùng gần nhất kể cả khi một mình nó vượt giới hạn
+            while (bytes.get() > maxBytes && rings.size() > 1 && it.hasNext()) {
+                Ring ring = it.next();
+                it.remove();
+                release(ring);
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /** Bản sao chỉ có metadata: bỏ fileData, giữ tên/dung lượng/MIME để client tải bằng GET_FILE. */
+    private static Message copyOf(Message source) {
+        Message m = new Message();
+        m.setId(source.getId());
+        m.setSenderId(source.getSenderId());
+        m.setReceiverId(source.getReceiverId());
+        m.setContent(source.getContent());
+        m.setFileName(source.getFileName());
+        m.setFileSize(source.getFileSize());
+        m.setFileRef(source.getFileRef());
+        m.setFile(source.isFile() || (source.getFileName() != null && source.getFileSize() > 0));
+        if (m.isFile()) {
+            m.setMimeType(source.getMimeType() != null ? source.getMimeType()
+                    : MessageDAO.mimeTypeOf(source.getFileName()));
+        }
+        m.setIsRead(source.getIsRead());
+        m.setCreatedAt(source.getCreatedAt());
+        m.setGroupId(source.getGroupId());
+        m.setDeleted(source.isDeleted());
+        m.setRecalled(source.isRecalled());
+        m.setEdited(source.isEdited());
+        m.setEditedContent(source.getEditedContent());
+        m.setRepliedToMessageId(source.getRepliedToMessageId());
+        m.setRepliedToContent(source.getRepliedToContent());
+        m.setPinned(source.isPinned());
+        return m;
+    }
+
+    /** Ước lượng số byte một tin chiếm trong cache. */
+    static long sizeOf(Message m) {
+        return 160 + 2L * (length(m.getContent()) + length(m.getEditedContent()) + length(m.getRepliedToContent())
+                + length(m.getFileName()) + length(m.getFileRef()));
+    }
+
+    private static int length(String s) {
+        return s != null ? s.length() : 0;
+    }
+
+    public int getConversationCount() {
+        synchronized (rings) {
+            return rings.size();
+        }
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getLoads() {
+        return loads.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /** Tỉ lệ trả lời từ cache, 0..1 (0 khi chưa có lượt hỏi nào). */
+    public double getHitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    /**
+     * Vòng đệm của một cuộc trò chuyện, tăng dần theo id; mọi truy cập giữ khóa của chính nó.
+     */
+    private static final class Ring {
+        final Message[] slots;
+        int head; // vị trí tin cũ nhất
+        int size;
+        long bytes;
+        /** Vòng đệm giữ mọi tin của cuộc trò chuyện (không còn tin cũ hơn trong DB) */
+        boolean complete;
+        boolean loaded;
+        /** Có thay đổi trong lúc nạp, hoặc đã bị bỏ khỏi cache */
+        boolean stale;
+
+        Ring(int capacity) {
+            slots = new Message[capacity];
+        }
+
+        boolean ready() {
+            return loaded && !stale;
+        }
+
+        Message at(int i) {
+            return slots[(head + i) % slots.length];
+        }
+
+        /** Chèn theo id (thường là cuối); trả về số byte thay đổi. */
+        long add(Message m) {
+            int pos = size;
+            while (pos > 0 && at(pos - 1).getId() >= m.getId()) {
+                if (at(pos - 1).getId() == m.getId()) {
+                    return replace(m);
+                }
+                pos--;
+            }
+            long delta = 0;
+            if (size == slots.length) {
+                if (pos == 0) {
+                    // Cũ hơn mọi tin đang giữ: nằm ngoài đoạn mới nhất
+                    complete = false;
+                    return 0;
+                }
+                delta -= sizeOf(slots[head]);
+                slots[head] = null;
+                head = (head + 1) % slots.length;
+                size--;
+                pos--;
+                complete = false;
+            }
+            for (int i = size; i > pos; i--) {
+                slots[(head + i) % slots.length] = at(i - 1);
+            }
+            slots[(head + pos) % slots.length] = m;
+            size++;
+            delta += sizeOf(m);
+            bytes += delta;
+            return delta;
+        }
+
+        long replace(Message m) {
+            for (int i = size - 1; i >= 0; i--) {
+                Message old = at(i);
+                if (old.getId() == m.getId()) {
+                    slots[(head + i) % slots.length] = m;
+                    long delta = sizeOf(m) - sizeOf(old);
+                    bytes += delta;
+                    return delta;
+                }
+            }
+            return 0;
+        }
+
+        /** Bản sao của trang, hoặc null nếu đoạn đang giữ không đủ để trả lời chắc chắn. */
+        List<Message> page(int anchorId, boolean olderThan, int limit) {
+            if (!ready()) {
+                return null;
+            }
+            int oldestId = size > 0 ? at(0).getId() : Integer.MAX_VALUE;
+            List<Message> page = new ArrayList<>(Math.min(limit, size));
+            if (olderThan) {
+                int end = size;
+                while (end > 0 && at(end - 1).getId() >= anchorId) {
+                    end--;
+                }
+                if (end < limit && !complete) {
+                    return null;
+                }
+                for (int i = Math.max(0, end - limit); i < end; i++) {
+                    page.add(copyOf(at(i)));
+                }
+            } else {
+                // Các tin mới hơn anchor đều nằm trong đoạn khi anchor không cũ hơn tin cũ nhất
+                if (anchorId < oldestId && !complete) {
+                    return null;
+                }
+                for (int i = 0; i < size && page.size() < limit; i++) {
+                    if (at(i).getId() > anchorId) {
+                        page.add(copyOf(at(i)));
+                    }
+                }
+            }
+            return page;
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package org.example.zalu.server.metrics;
+
+import org.example.zalu.protocol.Opcode;
+import org.example.zalu.server.ClientHandler;
+import org.example.zalu.server.command.CommandInterceptor;
+import org.example.zalu.util.database.DBConnection;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thống kê theo từng lệnh (opcode) mà {@link ClientHandler} xử lý: số lần chạy, số lần handler ném lỗi và
+ * histogram độ trễ của handler. Ngoài tổng thời gian, mỗi lệnh còn có ba histogram riêng:
+ * <ul>
+ * <li>DB: thời gian giữ connection của thread chạy lệnh (gồm chờ pool), cộng thời gian chờ group commit</li>
+ * <li>fan-out: thời gian đưa sự kiện vào hàng đợi gửi của người nhận ({@link #recordFanOut(long)})</li>
+ * <li>chờ hàng đợi: thời gian lệnh offload chờ executor trước khi chạy</li>
+ * </ul>
+ * Gắn vào {@link org.example.zalu.server.command.CommandRegistry} như một interceptor và vào
+ * {@link DBConnection} như tracker. Thời gian DB/fan-out được cộng vào phạm vi của thread đang chạy lệnh,
+ * nên việc ở thread nền (luồng ghi lô, presence) không bị tính nhầm cho lệnh nào.
+ */
+public class CommandMetrics implements CommandInterceptor, DBConnection.UsageTracker {
+
+    /** Phạm vi đo của lệnh đang chạy trên thread. */
+    private static final class Scope {
+        Opcode opcode;
+        long dbNanos;
+        long fanOutNanos;
+    }
+
+    private static final ThreadLocal<Scope> CURRENT = new ThreadLocal<>();
+
+    /**
+     * Số liệu của một opcode tại một thời điểm. Histogram DB/fan-out chỉ có mẫu khi lệnh thực sự dùng DB
+     * hoặc gửi cho người khác; chờ hàng đợi chỉ có mẫu với lệnh chạy offload.
+     */
+    public record Row(Opcode opcode, long count, long errors, LatencyHistogram.Snapshot latency,
+            LatencyHistogram.Snapshot db, LatencyHistogram.Snapshot fanOut, LatencyHistogram.Snapshot queueWait) {
+    }
+
+    private static final class Stats {
+        final LongAdder count = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LatencyHistogram db = new LatencyHistogram();
+        final LatencyHistogram fanOut = new LatencyHistogram();
+        final LatencyHistogram queueWait = new LatencyHistogram();
+    }
+
+    private static final Opcode[] OPCODES = Opcode.values();
+
+    // Tạo khi opcode chạy lần đầu: phần lớn opcode không bao giờ cần bộ histogram
+    private final AtomicReferenceArray<Stats> stats = new AtomicReferenceArray<>(OPCODES.length);
+    private volatile long resetAt = System.currentTimeMillis();
+
+    private Stats stats(Opcode opcode) {
+        Stats s = stats.get(opcode.ordinal());
+        if (s == null) {
+            stats.compareAndSet(opcode.ordinal(), null, new Stats());
+            s = stats.get(opcode.ordinal());
+        }
+        return s;
+    }
+
+    @Override
+    public void commandStarted(ClientHandler session, Opcode opcode, long queuedNanos) {
+        Scope scope = CURRENT.get();
+        if (scope == null) {
+            scope = new Scope();
+            CURRENT.set(scope);
+        }
+        scope.opcode = opcode;
+        scope.dbNanos = 0;
+        scope.fanOutNanos = 0;
+        if (queuedNanos >= 0) {
+            stats(opcode).queueWait.recordNanos(queuedNanos);
+        }
+    }
+
+    @Override
+    public void afterCommand(ClientHandler session, Opcode opcode, long elapsedNanos, Throwable error) {
+        Stats s = stats(opcode);
+        s.count.increment();
+        if (error != null) {
+            s.errors.increment();
+        }
+        s.latency.recordNanos(elapsedNanos);
+        Scope scope = CURRENT.get();
+        if (scope != null && scope.opcode == opcode) {
+            if (scope.dbNanos > 0) {
+                s.db.recordNanos(scope.dbNanos);
+            }
+            if (scope.fanOutNanos > 0) {
+                s.fanOut.recordNanos(scope.fanOutNanos);
+            }
+            scope.opcode = null;
+        }
+    }
+
+    @Override
+    public boolean isTracking() {
+        Scope scope = CURRENT.get();
+        return scope != null && scope.opcode != null;
+    }
+
+    @Override
+    public void connectionReleased(DBConnection.Pool pool, long heldNanos) {
+        recordDb(heldNanos);
+    }
+
+    /** Cộng thời gian DB cho lệnh đang chạy trên thread này (không có lệnh thì bỏ qua). */
+    public static void recordDb(long nanos) {
+        Scope scope = CURRENT.get();
+        if (scope != null && scope.opcode != null) {
+            scope.dbNanos += nanos;
+        }
+    }
+
+    /**
+     * Cộng thời gian fan-out tính từ {@code startNanos} ({@link System#nanoTime()}) cho lệnh đang chạy
+     * trên thread này.
+     */
+    public static void recordFanOut(long startNanos) {
+        Scope scope = CURRENT.get();
+        if (scope != null && scope.opcode != null) {
+            scope.fanOutNanos += System.nanoTime() - startNanos;
+        }
+    }
+
+    /** Số liệu của các opcode đã chạy ít nhất một lần kể từ lần reset trước, theo thứ tự opcode. */
+    public List<Row> snapshot() {
+        List<Row> rows = new ArrayList<>();
+        for (Opcode opcode : OPCODES) {
+            Stats s = stats.get(opcode.ordinal());
+            if (s == null || s.count.sum() == 0) {
+                continue;
+            }
+            rows.add(new Row(opcode, s.count.sum(), s.errors.sum(), s.latency.snapshot(), s.db.snapshot(),
+                    s.fanOut.snapshot(), s.queueWait.snapshot()));
+        }
+        return rows;
+    }
+
+    /** Xóa mọi số liệu và bắt đầu tính lại thông lượng từ bây giờ. */
+    public void reset() {
+        for (int i = 0; i < OPCODES.length; i++) {
+            Stats s = stats.get(i);
+            if (s != null) {
+                s.count.reset();
+                s.errors.reset();
+                s.latency.reset();
+                s.db.reset();
+                s.fanOut.reset();
+                s.queueWait.reset();
+            }
+        }
+        resetAt = System.currentTimeMillis();
+    }
+
+    /** Thời điểm (epoch ms) bắt đầu tính số liệu hiện tại: lúc tạo hoặc lần reset gần nhất. */
+    public long getResetAt() {
+        return resetAt;
+    }
+
+    /** Ghi snapshot hiện tại ra file CSV (µs), ghi đè nếu file đã có. */
+    public void writeSnapshot(Path file) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writeCsv(writer, snapshot(), System.currentTimeMillis());
+        }
+    }
+
+    void writeCsv(Writer writer, List<Row> rows, long now) throws IOException {
+        double seconds = Math.max(1, now - resetAt) / 1000.0;
+        writer.write("opcode,count,errors,per_second,mean_us,p50_us,p99_us,p999_us,max_us,"
+                + "db_count,db_p50_us,db_p99_us,db_p999_us,fanout_count,fanout_p50_us,fanout_p99_us,fanout_p999_us,"
+                + "queue_count,queue_p50_us,queue_p99_us,queue_p999_us\n");
+        for (Row row : rows) {
+            LatencyHistogram.Snapshot latency = row.latency();
+            writer.write(String.format(Locale.ROOT, "%s,%d,%d,%.2f,%.1f,%d,%d,%d,%d,%s,%s,%s\n", row.opcode().name(),
+                    row.count(), row.errors(), row.count() / seconds, latency.meanMicros(), latency.percentile(0.5),
+                    latency.percentile(0.99), latency.percentile(0.999), latency.maxMicros(), csv(row.db()),
+                    csv(row.fanOut()), csv(row.queueWait())));
+        }
+    }
+
+    private static String csv(LatencyHistogram.Snapshot s) {
+        return s.count() + "," + s.percentile(0.5) + "," + s.percentile(0.99) + "," + s.percentile(0.999);
+    }
+}
@@ -0,0 +1,112 @@
+package org.example.zalu.server.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram độ trễ theo micro giây, bucket log-tuyến tính kiểu HdrHistogram: mỗi khoảng [2^k, 2^(k+1))
+ * chia thành {@value #SUB_BUCKETS} bucket bằng nhau, nên percentile sai lệch tối đa 1/{@value #SUB_BUCKETS}
+ * giá trị thật. Ghi một mẫu là một phép cộng nguyên tử vào một ô mảng cố định, không khóa, không cấp phát.
+ * <p>
+ * Giá trị từ khoảng 2^{@value #MAX_EXPONENT} µs (~19 giờ) trở lên được tính vào bucket cuối.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 4;
+    static final int SUB_BUCKETS = 1 << SUB_BITS;
+    static final int MAX_EXPONENT = 36;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder sumMicros = new LongAdder();
+    private final LongAccumulator maxMicros = new LongAccumulator(Long::max, 0);
+
+    /**
+     * Số liệu tại một thời điểm, đọc được mà không ảnh hưởng tới luồng đang ghi.
+     */
+    public record Snapshot(long count, long sumMicros, long maxMicros, long[] counts) {
+
+        /**
+         * Giá trị (µs) mà tỉ lệ {@code quantile} mẫu không vượt quá, làm tròn lên cận trên của bucket
+         * và không lớn hơn giá trị lớn nhất đã ghi. 0 nếu chưa có mẫu.
+         *
+         * @param quantile trong [0, 1], ví dụ 0.99 cho p99
+         */
+        public long percentile(double quantile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(upperBound(i), maxMicros);
+                }
+            }
+            return maxMicros;
+        }
+
+        public double meanMicros() {
+            return count == 0 ? 0 : (double) sumMicros / count;
+        }
+    }
+
+    /** Ghi một mẫu tính bằng nano giây. */
+    public void recordNanos(long nanos) {
+        record(Math.max(0, nanos) / 1000);
+    }
+
+    /** Ghi một mẫu tính bằng micro giây. */
+    public void record(long micros) {
+        micros = Math.max(0, micros);
+        counts.incrementAndGet(bucketOf(micros));
+        sumMicros.add(micros);
+        maxMicros.accumulate(micros);
+    }
+
+    /**
+     * Bản sao các bucket. Mẫu ghi song song có thể lệch một chút giữa tổng và từng bucket, không ảnh hưởng
+     * percentile vì số mẫu được đếm lại từ bucket.
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+            count += copy[i];
+        }
+        return new Snapshot(count, sumMicros.sum(), maxMicros.get(), copy);
+    }
+
+    /** Xóa mọi mẫu. Mẫu ghi đúng lúc reset có thể còn lại trong lần đọc sau. */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        sumMicros.reset();
+        maxMicros.reset();
+    }
+
+    static int bucketOf(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int sub = (int) (micros >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /** Giá trị lớn nhất (µs) rơi vào bucket {@code index}. */
+    static long upperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BITS - 1;
+        long width = 1L << (exponent - SUB_BITS);
+        return ((long) (SUB_BUCKETS + index % SUB_BUCKETS) << (exponent - SUB_BITS)) + width - 1;
+    }
+}
@@ -0,0 +1,103 @@
+package org.example.zalu.server.net;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Engine blocking I/O: mỗi kết nối một thread đọc riêng.
+ * Với virtual thread, kết nối rảnh chỉ tốn một stack nhỏ trên heap thay vì một thread hệ điều hành.
+ */
+public class BlockingConnectionEngine implements ConnectionEngine {
+    private static final Logger logger = LoggerFactory.getLogger(BlockingConnectionEngine.class);
+
+    private final boolean virtualThreads;
+    private final int sendBufferBytes;
+    private final int receiveBufferBytes;
+    private final int readTimeoutMs;
+    private final AtomicInteger activeConnections = new AtomicInteger();
+    private final Thread.Builder threadBuilder;
+
+    private volatile boolean running;
+    private ServerSocket serverSocket;
+
+    public BlockingConnectionEngine(boolean virtualThreads, int sendBufferBytes, int receiveBufferBytes,
+            int readTimeoutMs) {
+        this.virtualThreads = virtualThreads;
+        this.sendBufferBytes = sendBufferBytes;
+        this.receiveBufferBytes = receiveBufferBytes;
+        this.readTimeoutMs = readTimeoutMs;
+        this.threadBuilder = virtualThreads
+                ? Thread.ofVirtual().name("client-v-", 0)
+                : Thread.ofPlatform().name("client-", 0);
+    }
+
+    @Override
+    public void bind(int port) throws IOException {
+        serverSocket = new ServerSocket();
+        // Đặt trước bind để socket được accept kế thừa kích thước cửa sổ nhận
+        serverSocket.setReceiveBufferSize(receiveBufferBytes);
+        serverSocket.bind(new InetSocketAddress(port));
+        running = true;
+    }
+
+    @Override
+    public void serve(Function<ClientConnection, Runnable> sessionFactory) throws IOException {
+        while (running) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (!running) {
+                    break;
+                }
+                logger.error("Lỗi khi chấp nhận client: {}", e.getMessage());
+                continue;
+            }
+            try {
+                socket.setSoTimeout(readTimeoutMs);
+                socket.setTcpNoDelay(true);
+                socket.setSendBufferSize(sendBufferBytes);
+            } catch (IOException e) {
+                logger.error("Error configuring socket", e);
+            }
+            Runnable session = sessionFactory.apply(new SocketConnection(socket));
+            activeConnections.incrementAndGet();
+            threadBuilder.start(() -> {
+                try {
+                    session.run();
+                } finally {
+                    activeConnections.decrementAndGet();
+                }
+            });
+        }
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        try {
+            if (serverSocket != null && !serverSocket.isClosed()) {
+                serverSocket.close();
+            }
+        } catch (IOException e) {
+            logger.error("Lỗi khi đóng server socket: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public String getName() {
+        return virtualThreads ? "virtual" : "thread";
+    }
+
+    @Override
+    public int getActiveConnections() {
+        return activeConnections.get();
+    }
+}
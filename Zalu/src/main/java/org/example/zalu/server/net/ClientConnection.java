@@ -0,0 +1,28 @@
+package org.example.zalu.server.net;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketAddress;
+
+/**
+ * Một kết nối client đã được chấp nhận, tách khỏi cách engine đọc/ghi socket.
+ * ClientHandler chỉ làm việc với interface này nên giao thức giữ nguyên
+ * dù server chạy thread-per-connection hay selector NIO.
+ */
+public interface ClientConnection extends Closeable {
+
+    /** Luồng đọc dạng blocking; ném SocketTimeoutException khi quá thời gian chờ đọc. */
+    InputStream getInputStream() throws IOException;
+
+    /** Luồng ghi dạng blocking, luôn trả về cùng một instance. */
+    OutputStream getOutputStream() throws IOException;
+
+    SocketAddress getRemoteAddress();
+
+    boolean isClosed();
+
+    @Override
+    void close() throws IOException;
+}
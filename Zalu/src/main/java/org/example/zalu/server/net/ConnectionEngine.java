@@ -0,0 +1,48 @@
+package org.example.zalu.server.net;
+
+import org.example.zalu.server.ServerConfig;
+
+import java.io.IOException;
+import java.util.function.Function;
+
+/**
+ * Engine nhận kết nối cho ChatServer. Chọn bằng khóa server.engine trong server.properties:
+ * <ul>
+ * <li>thread  - mỗi kết nối một platform thread (cách cũ)</li>
+ * <li>virtual - mỗi kết nối một virtual thread (mặc định)</li>
+ * <li>nio     - một selector thread đọc mọi socket, phiên xử lý chạy trên virtual thread</li>
+ * </ul>
+ */
+public interface ConnectionEngine {
+
+    /** Mở cổng lắng nghe. Ném BindException nếu cổng đã bị chiếm. */
+    void bind(int port) throws IOException;
+
+    /**
+     * Vòng lặp nhận kết nối, chặn cho tới khi stop() được gọi.
+     *
+     * @param sessionFactory tạo phiên xử lý cho mỗi kết nối mới
+     */
+    void serve(Function<ClientConnection, Runnable> sessionFactory) throws IOException;
+
+    void stop();
+
+    String getName();
+
+    /** Số kết nối đang mở. */
+    int getActiveConnections();
+
+    static ConnectionEngine fromConfig() {
+        int sendBuffer = ServerConfig.getInt("server.socket.sendBufferBytes", 64 * 1024);
+        int receiveBuffer = ServerConfig.getInt("server.socket.receiveBufferBytes", 64 * 1024);
+        int readTimeout = ServerConfig.getInt("server.socket.readTimeoutMs", 120000);
+        String mode = ServerConfig.get("server.engine", "virtual").toLowerCase();
+        return switch (mode) {
+            case "thread", "platform" ->
+                new BlockingConnectionEngine(false, sendBuffer, receiveBuffer, readTimeout);
+            case "nio" -> new NioConnectionEngine(sendBuffer, receiveBuffer, readTimeout,
+                    ServerConfig.getInt("server.nio.maxBufferedInputBytes", 4 * 1024 * 1024));
+            default -> new BlockingConnectionEngine(true, sendBuffer, receiveBuffer, readTimeout);
+        };
+    }
+}
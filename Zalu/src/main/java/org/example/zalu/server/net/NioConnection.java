@@ -0,0 +1,289 @@
+package org.example.zalu.server.net;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Kết nối trong engine NIO. Selector thread đẩy các khối byte đọc được vào hàng đợi,
+ * phiên xử lý (virtual thread) đọc ra qua InputStream blocking như socket thường.
+ * Dùng ReentrantLock thay cho synchronized để virtual thread không bị ghim vào carrier.
+ */
+class NioConnection implements ClientConnection {
+    private final SocketChannel channel;
+    private final NioConnectionEngine engine;
+    private final int readTimeoutMs;
+    private final int maxBufferedBytes;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition readable = lock.newCondition();
+    private final Condition writable = lock.newCondition();
+    private final ArrayDeque<byte[]> inbound = new ArrayDeque<>();
+    private byte[] current;
+    private int currentPos;
+    private int bufferedBytes;
+    private boolean readPaused;
+    private boolean writePending;
+    private boolean eof;
+    private volatile boolean closed;
+
+    private final InputStream input = new ChannelInput();
+    private final OutputStream output;
+    private SelectionKey key;
+
+    NioConnection(SocketChannel channel, NioConnectionEngine engine, int readTimeoutMs, int maxBufferedBytes,
+            int writeBufferBytes) {
+        this.channel = channel;
+        this.engine = engine;
+        this.readTimeoutMs = readTimeoutMs;
+        this.maxBufferedBytes = maxBufferedBytes;
+        // ObjectOutputStream ghi từng mẩu nhỏ, gom lại để mỗi flush chỉ gọi write() vài lần
+        this.output = new BufferedOutputStream(new ChannelOutput(), Math.min(writeBufferBytes, 64 * 1024));
+    }
+
+    void attach(SelectionKey key) {
+        this.key = key;
+    }
+
+    SelectionKey key() {
+        return key;
+    }
+
+    SocketChannel channel() {
+        return channel;
+    }
+
+    /**
+     * Gọi từ selector thread khi có dữ liệu mới.
+     *
+     * @return true nếu hàng đợi đã đầy và cần tạm dừng OP_READ
+     */
+    boolean offer(byte[] chunk) {
+        lock.lock();
+        try {
+            inbound.add(chunk);
+            bufferedBytes += chunk.length;
+            readable.signal();
+            if (bufferedBytes >= maxBufferedBytes) {
+                readPaused = true;
+            }
+            return readPaused;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Gọi từ selector thread khi client đóng kết nối. */
+    void onEof() {
+        lock.lock();
+        try {
+            eof = true;
+            readable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Gọi từ selector thread khi socket ghi được tiếp. */
+    void onWritable() {
+        lock.lock();
+        try {
+            writePending = false;
+            writable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Tập interest mong muốn, selector thread đọc khi áp dụng thay đổi. */
+    int interestOps() {
+        lock.lock();
+        try {
+            return (readPaused ? 0 : SelectionKey.OP_READ) | (writePending ? SelectionKey.OP_WRITE : 0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return input;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return output;
+    }
+
+    @Override
+    public SocketAddress getRemoteAddress() {
+        try {
+            return channel.getRemoteAddress();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        lock.lock();
+        try {
+            readable.signalAll();
+            writable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        engine.unregister(this);
+        channel.close();
+    }
+
+    private class ChannelInput extends InputStream {
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            int n = read(one, 0, 1);
+            return n < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            boolean resume = false;
+            int n;
+            lock.lock();
+            try {
+                long remaining = TimeUnit.MILLISECONDS.toNanos(readTimeoutMs);
+                while (current == null) {
+                    current = inbound.poll();
+                    currentPos = 0;
+                    if (current != null) {
+                        break;
+                    }
+                    if (closed) {
+                        throw new SocketException("Socket closed");
+                    }
+                    if (eof) {
+                        return -1;
+                    }
+                    if (readTimeoutMs <= 0) {
+                        readable.await();
+                    } else {
+                        if (remaining <= 0) {
+                            throw new SocketTimeoutException("Read timed out");
+                        }
+                        remaining = readable.awaitNanos(remaining);
+                    }
+                }
+                n = Math.min(len, current.length - currentPos);
+                System.arraycopy(current, currentPos, b, off, n);
+                currentPos += n;
+                bufferedBytes -= n;
+                if (currentPos == current.length) {
+                    current = null;
+                }
+                if (readPaused && bufferedBytes < maxBufferedBytes / 2) {
+                    readPaused = false;
+                    resume = true;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SocketException("Interrupted while reading");
+            } finally {
+                lock.unlock();
+            }
+            if (resume) {
+                engine.requestInterestUpdate(NioConnection.this);
+            }
+            return n;
+        }
+
+        @Override
+        public int available() {
+            lock.lock();
+            try {
+                return bufferedBytes;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            NioConnection.this.close();
+        }
+    }
+
+    private class ChannelOutput extends OutputStream {
+        private final ReentrantLock writeLock = new ReentrantLock();
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ByteBuffer buf = ByteBuffer.wrap(b, off, len);
+            writeLock.lock();
+            try {
+                while (buf.hasRemaining()) {
+                    if (closed) {
+                        throw new SocketException("Socket closed");
+                    }
+                    if (channel.write(buf) == 0) {
+                        awaitWritable();
+                    }
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        private void awaitWritable() throws IOException {
+            lock.lock();
+            try {
+                writePending = true;
+            } finally {
+                lock.unlock();
+            }
+            engine.requestInterestUpdate(NioConnection.this);
+            lock.lock();
+            try {
+                long remaining = TimeUnit.MILLISECONDS.toNanos(readTimeoutMs > 0 ? readTimeoutMs : 120000);
+                while (writePending && !closed) {
+                    if (remaining <= 0) {
+                        throw new SocketTimeoutException("Write timed out");
+                    }
+                    remaining = writable.awaitNanos(remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SocketException("Interrupted while writing");
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package org.example.zalu.server.net;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Engine NIO: một selector thread nhận kết nối và đọc mọi socket ở chế độ non-blocking.
+ * Kết nối rảnh không giữ thread đọc nào đang chạy; phiên xử lý chạy trên virtual thread
+ * và chỉ được đánh thức khi selector đã đẩy dữ liệu vào hàng đợi của kết nối.
+ */
+public class NioConnectionEngine implements ConnectionEngine {
+    private static final Logger logger = LoggerFactory.getLogger(NioConnectionEngine.class);
+
+    private final int sendBufferBytes;
+    private final int receiveBufferBytes;
+    private final int readTimeoutMs;
+    private final int maxBufferedInputBytes;
+    private final AtomicInteger activeConnections = new AtomicInteger();
+    private final Queue<NioConnection> pendingInterest = new ConcurrentLinkedQueue<>();
+    private final Thread.Builder sessionThreads = Thread.ofVirtual().name("client-nio-", 0);
+
+    private volatile boolean running;
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private ByteBuffer readBuffer;
+
+    public NioConnectionEngine(int sendBufferBytes, int receiveBufferBytes, int readTimeoutMs,
+            int maxBufferedInputBytes) {
+        this.sendBufferBytes = sendBufferBytes;
+        this.receiveBufferBytes = receiveBufferBytes;
+        this.readTimeoutMs = readTimeoutMs;
+        this.maxBufferedInputBytes = maxBufferedInputBytes;
+    }
+
+    @Override
+    public void bind(int port) throws IOException {
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferBytes);
+        serverChannel.bind(new InetSocketAddress(port), 1024);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        // Một buffer đọc dùng chung cho selector thread, dữ liệu được copy ra trước lần đọc kế tiếp
+        readBuffer = ByteBuffer.allocateDirect(Math.max(receiveBufferBytes, 16 * 1024));
+        running = true;
+    }
+
+    @Override
+    public void serve(Function<ClientConnection, Runnable> sessionFactory) throws IOException {
+        try {
+            while (running) {
+                selector.select();
+                applyInterestUpdates();
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    try {
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept(sessionFactory);
+                        } else {
+                            if (key.isReadable()) {
+                                read(key);
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                ((NioConnection) key.attachment()).onWritable();
+                                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                            }
+                        }
+                    } catch (CancelledKeyException ignored) {
+                        // Kết nối đã bị đóng từ phía phiên xử lý
+                    }
+                }
+            }
+        } catch (ClosedSelectorException e) {
+            if (running) {
+                throw e;
+            }
+        }
+    }
+
+    private void accept(Function<ClientConnection, Runnable> sessionFactory) {
+        SocketChannel channel;
+        try {
+            channel = serverChannel.accept();
+            if (channel == null) {
+                return;
+            }
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.setOption(StandardSocketOptions.SO_SNDBUF, sendBufferBytes);
+        } catch (IOException e) {
+            if (running) {
+                logger.error("Lỗi khi chấp nhận client: {}", e.getMessage());
+            }
+            return;
+        }
+
+        NioConnection connection = new NioConnection(channel, this, readTimeoutMs, maxBufferedInputBytes,
+                sendBufferBytes);
+        try {
+            connection.attach(channel.register(selector, SelectionKey.OP_READ, connection));
+        } catch (IOException e) {
+            logger.error("Không đăng ký được kết nối với selector: {}", e.getMessage());
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            return;
+        }
+
+        Runnable session = sessionFactory.apply(connection);
+        activeConnections.incrementAndGet();
+        sessionThreads.start(() -> {
+            try {
+                session.run();
+            } finally {
+                activeConnections.decrementAndGet();
+                try {
+                    connection.close();
+                } catch (IOException ignored) {
+                }
+            }
+        });
+    }
+
+    private void read(SelectionKey key) {
+        NioConnection connection = (NioConnection) key.attachment();
+        int n;
+        try {
+            readBuffer.clear();
+            n = connection.channel().read(readBuffer);
+        } catch (IOException e) {
+            n = -1;
+        }
+        if (n < 0) {
+            key.cancel();
+            connection.onEof();
+            return;
+        }
+        if (n == 0) {
+            return;
+        }
+        readBuffer.flip();
+        byte[] chunk = new byte[n];
+        readBuffer.get(chunk);
+        if (connection.offer(chunk)) {
+            // Phiên xử lý đọc chậm hơn client gửi: ngừng đọc để TCP tự điều tiết
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        }
+    }
+
+    private void applyInterestUpdates() {
+        NioConnection connection;
+        while ((connection = pendingInterest.poll()) != null) {
+            SelectionKey key = connection.key();
+            if (key != null && key.isValid()) {
+                try {
+                    key.interestOps(connection.interestOps());
+                } catch (CancelledKeyException ignored) {
+                }
+            }
+        }
+    }
+
+    /** Gọi từ phiên xử lý khi cần bật lại OP_READ hoặc chờ OP_WRITE. */
+    void requestInterestUpdate(NioConnection connection) {
+        pendingInterest.add(connection);
+        Selector s = selector;
+        if (s != null) {
+            s.wakeup();
+        }
+    }
+
+    void unregister(NioConnection connection) {
+        SelectionKey key = connection.key();
+        if (key != null) {
+            key.cancel();
+            selector.wakeup();
+        }
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        try {
+            if (serverChannel != null && serverChannel.isOpen()) {
+                serverChannel.close();
+            }
+            if (selector != null && selector.isOpen()) {
+                selector.close();
+            }
+        } catch (IOException e) {
+            logger.error("Lỗi khi đóng server socket: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "nio";
+    }
+
+    @Override
+    public int getActiveConnections() {
+        return activeConnections.get();
+    }
+}
@@ -0,0 +1,237 @@
+package org.example.zalu.server.persist;
+
+import org.example.zalu.dao.MessageDAO;
+import org.example.zalu.exception.database.DatabaseConnectionException;
+import org.example.zalu.exception.database.DatabaseException;
+import org.example.zalu.exception.message.MessageCommitUnknownException;
+import org.example.zalu.exception.message.MessageSendFailedException;
+import org.example.zalu.model.Message;
+import org.example.zalu.server.metrics.CommandMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Group commit cho tin nhắn văn bản: gom tin từ mọi ClientHandler và ghi bằng một INSERT nhiều hàng.
+ * <p>
+ * {@link #save(Message)} đưa tin vào hàng đợi rồi chờ tới khi hàng đã được commit, nên MESSAGE_SENT|OK|id
+ * vẫn chỉ được gửi sau khi tin đã bền vững. Luồng Message-Writer lấy tin đầu tiên, chờ thêm tối đa
+ * {@code maxDelayMicros} hoặc tới khi đủ {@code maxBatch} tin, rồi gọi {@link MessageDAO#saveMessages(List)}
+ * một lần cho cả lô. Lô lỗi (đã rollback) được ghi lại từng tin để một tin hỏng không làm hỏng cả lô; lỗi
+ * lúc COMMIT ({@link MessageCommitUnknownException}) thì không ghi lại, vì lô có thể đã được lưu.
+ * <p>
+ * Tin có file vẫn đi thẳng MessageDAO.saveMessage/saveFileMessage.
+ */
+public class MessagePersistPipeline {
+    private static final Logger logger = LoggerFactory.getLogger(MessagePersistPipeline.class);
+    // Luồng ghi rảnh kiểm tra cờ dừng sau mỗi khoảng này
+    private static final long IDLE_POLL_MS = 100;
+
+    private final MessageDAO messageDAO;
+    private final int maxBatch;
+    private final long maxDelayNanos;
+    private final int writers;
+    private final BlockingQueue<Pending> queue;
+
+    private final AtomicLong saved = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong fallbackRows = new AtomicLong();
+    private final List<Thread> workers = new ArrayList<>();
+    private volatile boolean running;
+
+    private record Pending(Message message, CompletableFuture<Message> done) {
+    }
+
+    /**
+     * @param maxBatch số tin tối đa mỗi lô
+     * @param maxDelayMicros thời gian tối đa tin đầu lô chờ gom thêm
+     * @param writers số luồng ghi song song (mỗi luồng giữ một kết nối khi ghi)
+     * @param capacity số tin tối đa chờ ghi; đầy thì thread gửi chờ
+     */
+    public MessagePersistPipeline(MessageDAO messageDAO, int maxBatch, long maxDelayMicros, int writers,
+            int capacity) {
+        this.messageDAO = messageDAO;
+        this.maxBatch = Math.max(1, maxBatch);
+        this.maxDelayNanos = TimeUnit.MICROSECONDS.toNanos(Math.max(0, maxDelayMicros));
+        this.writers = Math.max(1, writers);
+        this.queue = new LinkedBlockingQueue<>(Math.max(this.maxBatch, capacity));
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        for (int i = 0; i < writers; i++) {
+            Thread worker = new Thread(this::run, "Message-Writer-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+        logger.info("✓ Group commit tin nhắn: tối đa {} tin hoặc {} µs mỗi lô, {} luồng ghi", maxBatch,
+                TimeUnit.NANOSECONDS.toMicros(maxDelayNanos), writers);
+    }
+
+    /** Dừng nhận tin mới; các tin đã vào hàng đợi vẫn được ghi. */
+    public synchronized void stop() {
+        // Không interrupt để lô đang ghi dở không mất kết nối; luồng ghi tự thoát sau lượt poll kế tiếp
+        running = false;
+        for (Thread worker : workers) {
+            try {
+                worker.join(2000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        workers.clear();
+        writeRemaining();
+    }
+
+    private synchronized void writeRemaining() {
+        List<Pending> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        if (!rest.isEmpty()) {
+            write(rest);
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Lưu tin nhắn văn bản, trả về khi hàng đã được commit và {@code message.getId()} đã có id.
+     * Pipeline chưa chạy thì ghi thẳng như trước.
+     */
+    public boolean save(Message message)
+            throws MessageSendFailedException, DatabaseException, DatabaseConnectionException {
+        if (!running) {
+            return messageDAO.saveMessage(message);
+        }
+        CompletableFuture<Message> done = new CompletableFuture<>();
+        long start = System.nanoTime();
+        try {
+            queue.put(new Pending(message, done));
+            if (!running) {
+                // stop() chạy xen giữa: không còn luồng ghi nào lấy tin này
+                writeRemaining();
+            }
+            done.get();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MessageSendFailedException("Bị gián đoạn khi chờ lưu tin nhắn", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof MessageSendFailedException failed) {
+                throw failed;
+            }
+            if (cause instanceof DatabaseConnectionException connection) {
+                throw connection;
+            }
+            if (cause instanceof DatabaseException database) {
+                throw database;
+            }
+            throw new MessageSendFailedException("Lỗi khi gửi tin nhắn: " + cause.getMessage(), cause);
+        } finally {
+            // Lệnh gửi tin chờ lô commit: tính là thời gian DB của lệnh
+            CommandMetrics.recordDb(System.nanoTime() - start);
+        }
+    }
+
+    private void run() {
+        List<Pending> batch = new ArrayList<>(maxBatch);
+        boolean interrupted = false;
+        while (running && !interrupted) {
+            try {
+                Pending first = queue.poll(IDLE_POLL_MS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + maxDelayNanos;
+                while (batch.size() < maxBatch) {
+                    // Lấy luôn các tin đã chờ sẵn, chỉ đợi khi hàng đợi trống
+                    if (queue.drainTo(batch, maxBatch - batch.size()) > 0) {
+                        continue;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    Pending next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+            if (!batch.isEmpty()) {
+                write(batch);
+                batch.clear();
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void write(List<Pending> batch) {
+        List<Message> messages = new ArrayList<>(batch.size());
+        for (Pending pending : batch) {
+            messages.add(pending.message());
+        }
+        try {
+            messageDAO.saveMessages(messages);
+            saved.addAndGet(batch.size());
+            batches.incrementAndGet();
+            for (Pending pending : batch) {
+                pending.done().complete(pending.message());
+            }
+        } catch (MessageCommitUnknownException e) {
+            // Ghi lại có thể lưu mỗi tin hai lần (và cấp seq thứ hai): báo lỗi cho người gửi
+            logger.error("❌ Lỗi khi commit lô {} tin nhắn, không ghi lại: {}", batch.size(), e.getMessage());
+            for (Pending pending : batch) {
+                pending.done().completeExceptionally(e);
+            }
+        } catch (Exception e) {
+            logger.warn("⚠ Ghi lô {} tin nhắn thất bại, ghi lại từng tin: {}", batch.size(), e.getMessage());
+            for (Pending pending : batch) {
+                try {
+                    messageDAO.saveMessage(pending.message());
+                    saved.incrementAndGet();
+                    fallbackRows.incrementAndGet();
+                    pending.done().complete(pending.message());
+                } catch (Exception rowError) {
+                    pending.done().completeExceptionally(rowError);
+                }
+            }
+        }
+    }
+
+    public int getQueued() {
+        return queue.size();
+    }
+
+    public long getSaved() {
+        return saved.get();
+    }
+
+    public long getBatches() {
+        return batches.get();
+    }
+
+    public long getFallbackRows() {
+        return fallbackRows.get();
+    }
+}
@@ -0,0 +1,316 @@
+package org.example.zalu.server.presence;
+
+import org.example.zalu.dao.UserDAO;
+import org.example.zalu.server.friend.FriendGraphCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.IntPredicate;
+
+/**
+ * Trạng thái online/offline của user, gửi cho bạn bè theo lô.
+ * <p>
+ * Đăng nhập, resume session và ngắt kết nối chỉ đánh dấu user "đã thay đổi". Luồng Presence-Flusher
+ * chỉ công bố khi trạng thái đã đứng yên {@code debounceMs}, và công bố trạng thái thật lúc đó: user
+ * rớt mạng rồi kết nối lại trong khoảng này thì bạn bè không nhận gì. Các thay đổi của một lượt flush
+ * được gom theo người nhận thành một frame {@code PRESENCE_BATCH|onlineIds|offlineIds} (id cách nhau
+ * bằng dấu phẩy, phần rỗng nếu không có).
+ * <p>
+ * Client gửi PRESENCE_SUBSCRIBE thì chỉ nhận trạng thái của các bạn bè đã đăng ký (các chat đang hiển
+ * thị); client chưa đăng ký nhận USER_ONLINE/USER_OFFLINE từng user như cũ. users.status và
+ * users.last_seen_at được ghi sau (write-behind) bằng một batch UPDATE mỗi {@code persistMs}.
+ */
+public class PresenceService {
+    private static final Logger logger = LoggerFactory.getLogger(PresenceService.class);
+
+    private final FriendGraphCache friendGraph;
+    private final IntPredicate isOnline;
+    private final BiConsumer<Integer, String> sender;
+    private final UserDAO userDAO;
+    private final long debounceMs;
+    private final long flushMs;
+    private final long persistMs;
+
+    // userId -> thời điểm thay đổi gần nhất, chờ đủ debounceMs mới công bố
+    private final Map<Integer, Long> changedAt = new ConcurrentHashMap<>();
+    // User bạn bè đang thấy là online (trạng thái đã công bố)
+    private final Set<Integer> published = ConcurrentHashMap.newKeySet();
+    // userId -> các bạn bè client đang hiển thị; không có thì nhận sự kiện từng user
+    private final Map<Integer, Set<Integer>> subscriptions = new ConcurrentHashMap<>();
+    // userId -> trạng thái chờ ghi vào users
+    private final Map<Integer, StatusWrite> pendingWrites = new ConcurrentHashMap<>();
+
+    private final AtomicLong publishedChanges = new AtomicLong();
+    private final AtomicLong suppressedFlaps = new AtomicLong();
+    private final AtomicLong framesSent = new AtomicLong();
+    private final AtomicLong persistedRows = new AtomicLong();
+    private volatile Thread worker;
+    private volatile boolean running;
+
+    private record StatusWrite(boolean online, LocalDateTime at) {
+    }
+
+    /**
+     * @param isOnline user đang có kết nối
+     * @param sender gửi một sự kiện tới một user đang online
+     * @param userDAO null thì không ghi trạng thái vào DB
+     */
+    public PresenceService(FriendGraphCache friendGraph, IntPredicate isOnline, BiConsumer<Integer, String> sender,
+            UserDAO userDAO, long debounceMs, long flushMs, long persistMs) {
+        this.friendGraph = friendGraph;
+        this.isOnline = isOnline;
+        this.sender = sender;
+        this.userDAO = userDAO;
+        this.debounceMs = debounceMs;
+        this.flushMs = flushMs;
+        this.persistMs = persistMs;
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        worker = new Thread(this::run, "Presence-Flusher");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /** Dừng luồng flush và ghi nốt các trạng thái đang chờ. */
+    public synchronized void stop() {
+        running = false;
+        Thread t = worker;
+        if (t != null) {
+            t.interrupt();
+            worker = null;
+        }
+        persistPending();
+    }
+
+    private void run() {
+        long lastPersist = System.currentTimeMillis();
+        while (running) {
+            try {
+                Thread.sleep(flushMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            long now = System.currentTimeMillis();
+            try {
+                flush(now);
+                if (now - lastPersist >= persistMs) {
+                    persistPending();
+                    lastPersist = now;
+                }
+            } catch (Exception e) {
+                // Lỗi tạm thời (DB, socket) không được làm dừng presence tới hết đời server
+                logger.error("❌ Lỗi khi flush presence, thử lại ở lượt sau: {}", e.getMessage(), e);
+            }
+        }
+    }
+
+    /** User vừa đăng nhập hoặc resume session (gọi sau khi đã vào danh sách clients). */
+    public void onConnected(int userId) {
+        changedAt.put(userId, System.currentTimeMillis());
+    }
+
+    /** User vừa ngắt kết nối (gọi sau khi đã bỏ khỏi danh sách clients). */
+    public void onDisconnected(int userId) {
+        subscriptions.remove(userId);
+        changedAt.put(userId, System.currentTimeMillis());
+    }
+
+    /**
+     * Client chỉ muốn nhận trạng thái của các user này (chat đang hiển thị). Id không phải bạn bè bị bỏ.
+     *
+     * @return frame PRESENCE_BATCH với trạng thái hiện tại của các bạn bè đã đăng ký
+     */
+    public String subscribe(int userId, Collection<Integer> watchedIds) throws SQLException {
+        Set<Integer> watched = new TreeSet<>();
+        for (int watchedId : watchedIds) {
+            if (friendGraph.areFriends(userId, watchedId)) {
+                watched.add(watchedId);
+            }
+        }
+        subscriptions.put(userId, Set.copyOf(watched));
+        List<Integer> online = new ArrayList<>();
+        List<Integer> offline = new ArrayList<>();
+        for (int watchedId : watched) {
+            (published.contains(watchedId) ? online : offline).add(watchedId);
+        }
+        return toFrame(online, offline);
+    }
+
+    /**
+     * Công bố các thay đổi đã đứng yên đủ debounceMs tính tới {@code nowMs}.
+     *
+     * @return số frame đã gửi
+     */
+    int flush(long nowMs) {
+        List<Integer> cameOnline = new ArrayList<>();
+        List<Integer> wentOffline = new ArrayList<>();
+        LocalDateTime at = LocalDateTime.now();
+        for (Map.Entry<Integer, Long> entry : changedAt.entrySet()) {
+            long changed = entry.getValue();
+            if (nowMs - changed < debounceMs) {
+                continue;
+            }
+            int userId = entry.getKey();
+            // Chỉ bỏ nếu không có thay đổi mới hơn trong lúc đang flush
+            if (!changedAt.remove(userId, changed)) {
+                continue;
+            }
+            boolean online = isOnline.test(userId);
+            boolean changedState = online ? published.add(userId) : published.remove(userId);
+            if (!changedState) {
+                suppressedFlaps.incrementAndGet();
+                continue;
+            }
+            (online ? cameOnline : wentOffline).add(userId);
+            pendingWrites.put(userId, new StatusWrite(online, at));
+        }
+        if (cameOnline.isEmpty() && wentOffline.isEmpty()) {
+            return 0;
+        }
+        Collections.sort(cameOnline);
+        Collections.sort(wentOffline);
+        publishedChanges.addAndGet(cameOnline.size() + wentOffline.size());
+
+        Map<Integer, List<Integer>> onlineByRecipient = new HashMap<>();
+        Map<Integer, List<Integer>> offlineByRecipient = new HashMap<>();
+        int frames = 0;
+        frames += fanOut(cameOnline, "USER_ONLINE|", onlineByRecipient);
+        frames += fanOut(wentOffline, "USER_OFFLINE|", offlineByRecipient);
+
+        Set<Integer> recipients = new HashSet<>(onlineByRecipient.keySet());
+        recipients.addAll(offlineByRecipient.keySet());
+        for (int recipientId : recipients) {
+            sender.accept(recipientId, toFrame(onlineByRecipient.getOrDefault(recipientId, List.of()),
+                    offlineByRecipient.getOrDefault(recipientId, List.of())));
+            frames++;
+        }
+        for (int userId : wentOffline) {
+            // Danh sách bạn bè chỉ cần tới lúc đã báo offline xong
+            friendGraph.onUserOffline(userId);
+        }
+        framesSent.addAndGet(frames);
+        logger.debug("Presence: {} online, {} offline, {} frame", cameOnline.size(), wentOffline.size(), frames);
+        return frames;
+    }
+
+    /**
+     * Gom thay đổi của các user cho từng bạn bè đã đăng ký; bạn bè chưa đăng ký nhận sự kiện từng user.
+     *
+     * @return số sự kiện từng user đã gửi
+     */
+    private int fanOut(List<Integer> userIds, String legacyPrefix, Map<Integer, List<Integer>> byRecipient) {
+        int frames = 0;
+        for (int userId : userIds) {
+            int[] friendIds;
+            try {
+                friendIds = friendGraph.getFriends(userId);
+            } catch (SQLException e) {
+                logger.warn("⚠ Không lấy được bạn bè của user {} để báo trạng thái: {}", userId, e.getMessage());
+                continue;
+            }
+            for (int friendId : friendIds) {
+                if (!isOnline.test(friendId)) {
+                    continue;
+                }
+                Set<Integer> watched = subscriptions.get(friendId);
+                if (watched == null) {
+                    sender.accept(friendId, legacyPrefix + userId);
+                    frames++;
+                } else if (watched.contains(userId)) {
+                    byRecipient.computeIfAbsent(friendId, k -> new ArrayList<>()).add(userId);
+                }
+            }
+        }
+        return frames;
+    }
+
+    /** Ghi các trạng thái đang chờ vào users bằng một batch UPDATE; lỗi thì giữ lại để lần sau ghi tiếp. */
+    void persistPending() {
+        if (userDAO == null || pendingWrites.isEmpty()) {
+            return;
+        }
+        Map<Integer, StatusWrite> batch = new HashMap<>();
+        for (Integer userId : pendingWrites.keySet()) {
+            StatusWrite write = pendingWrites.remove(userId);
+            if (write != null) {
+                batch.put(userId, write);
+            }
+        }
+        Map<Integer, String> statuses = new HashMap<>();
+        Map<Integer, LocalDateTime> lastSeen = new HashMap<>();
+        batch.forEach((userId, write) -> {
+            statuses.put(userId, write.online() ? "online" : "offline");
+            lastSeen.put(userId, write.at());
+        });
+        try {
+            userDAO.updateStatusBatch(statuses, lastSeen);
+            persistedRows.addAndGet(batch.size());
+        } catch (Exception e) {
+            logger.warn("⚠ Không ghi được trạng thái của {} user, sẽ thử lại: {}", batch.size(), e.getMessage());
+            batch.forEach(pendingWrites::putIfAbsent);
+        }
+    }
+
+    private static String toFrame(List<Integer> online, List<Integer> offline) {
+        return "PRESENCE_BATCH|" + join(online) + "|" + join(offline);
+    }
+
+    private static String join(List<Integer> ids) {
+        StringBuilder sb = new StringBuilder();
+        for (int id : ids) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(id);
+        }
+        return sb.toString();
+    }
+
+    public boolean isPublishedOnline(int userId) {
+        return published.contains(userId);
+    }
+
+    public int getPendingChanges() {
+        return changedAt.size();
+    }
+
+    public int getPendingWrites() {
+        return pendingWrites.size();
+    }
+
+    public long getPublishedChanges() {
+        return publishedChanges.get();
+    }
+
+    public long getSuppressedFlaps() {
+        return suppressedFlaps.get();
+    }
+
+    public long getFramesSent() {
+        return framesSent.get();
+    }
+
+    public long getPersistedRows() {
+        return persistedRows.get();
+    }
+}
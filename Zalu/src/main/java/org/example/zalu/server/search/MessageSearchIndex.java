@@ -0,0 +1,471 @@
+package org.example.zalu.server.search;
+
+import org.example.zalu.dao.MessageDAO;
+import org.example.zalu.model.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Chỉ mục đảo ngược trong RAM cho SEARCH_MESSAGES, thay cho {@code content LIKE '%q%'} quét cả cuộc trò chuyện.
+ * <p>
+ * Mỗi cuộc trò chuyện (cặp user hoặc nhóm) có một từ điển riêng: từ (đã bỏ dấu, xem {@link TextNormalizer})
+ * → id các tin nhắn chứa từ đó, nên một lần tìm chỉ chạm tới tin của đúng cuộc trò chuyện. Mọi từ trong câu
+ * truy vấn phải khớp (từ cuối khớp theo tiền tố để gõ dở vẫn ra kết quả); tin khớp đúng nguyên từ xếp trước,
+ * cùng điểm thì tin mới hơn trước.
+ * <p>
+ * ClientHandler gọi {@link #index(Message)} khi lưu/sửa và {@link #remove(int)} khi xóa/thu hồi. Thay đổi
+ * được luồng Search-Indexer ghi ra segment mỗi {@code flushMs}; quá {@code maxSegments} segment thì gộp lại
+ * thành một snapshot. Khi khởi động, luồng này đọc lại các segment rồi lập chỉ mục tiếp các tin nhắn trong DB
+ * có id lớn hơn tin đã có, và lập lại các tin bị sửa/xóa/thu hồi (changed_at) sau mốc đồng bộ của segment cuối
+ * (thay đổi chưa kịp ghi ra segment khi server dừng đột ngột); trước khi xong, {@link #isReady()} là false và
+ * server tìm bằng SQL như cũ.
+ */
+public class MessageSearchIndex {
+    private static final Logger logger = LoggerFactory.getLogger(MessageSearchIndex.class);
+
+    private static final int CATCH_UP_BATCH = 500;
+    // Lùi mốc đồng bộ khi đọc lại thay đổi: tin vừa ghi DB có thể chưa kịp vào hàng đợi lúc lấy mốc
+    private static final long CHANGE_MARGIN_MS = 60_000;
+    // Tin rất dài chỉ lập chỉ mục chừng này từ đầu tiên
+    private static final int MAX_TERMS_PER_MESSAGE = 2000;
+    private static final int EXACT_WEIGHT = 2;
+    private static final int PREFIX_WEIGHT = 1;
+
+    private final MessageDAO messageDAO;
+    private final Path dir;
+    private final long flushNanos;
+    private final int maxSegments;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<Long, Conversation> conversations = new HashMap<>();
+    private final Map<Integer, Long> docChat = new HashMap<>();
+    private List<SearchSegments.Op> pending = new ArrayList<>();
+    private int maxIndexedId;
+    // Giờ DB (epoch ms) mà mọi thay đổi trước đó đã nằm trong segment; chỉ luồng Search-Indexer dùng
+    private long syncedAt;
+
+    private final AtomicLong searches = new AtomicLong();
+    private final AtomicLong segmentsWritten = new AtomicLong();
+    private final AtomicLong merges = new AtomicLong();
+    private SearchSegments segments;
+    private volatile Thread worker;
+    private volatile boolean running;
+    private volatile boolean ready;
+
+    /** Một trang kết quả: id tin nhắn theo thứ hạng và tổng số tin khớp. */
+    public record Page(List<Integer> ids, int total) {
+    }
+
+    /** Từ điển của một cuộc trò chuyện. */
+    private static final class Conversation {
+        final TreeMap<String, Set<Integer>> postings = new TreeMap<>();
+        final Map<Integer, String[]> docs = new HashMap<>();
+
+        void add(int id, String[] terms) {
+            remove(id);
+            docs.put(id, terms);
+            for (String term : terms) {
+                postings.computeIfAbsent(term, t -> new HashSet<>()).add(id);
+            }
+        }
+
+        void remove(int id) {
+            String[] terms = docs.remove(id);
+            if (terms == null) {
+                return;
+            }
+            for (String term : terms) {
+                Set<Integer> ids = postings.get(term);
+                if (ids != null && ids.remove(id) && ids.isEmpty()) {
+                    postings.remove(term);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param messageDAO nguồn để lập chỉ mục các tin chưa có khi khởi động (null: bỏ qua)
+     * @param dir thư mục segment (null: chỉ giữ trong RAM)
+     */
+    public MessageSearchIndex(MessageDAO messageDAO, Path dir, long flushMs, int maxSegments) {
+        this.messageDAO = messageDAO;
+        this.dir = dir;
+        this.flushNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(10, flushMs));
+        this.maxSegments = Math.max(1, maxSegments);
+    }
+
+    public static long groupKey(int groupId) {
+        return -groupId;
+    }
+
+    public static long pairKey(int userA, int userB) {
+        int low = Math.min(userA, userB);
+        int high = Math.max(userA, userB);
+        return ((long) low << 32) | (high & 0xFFFFFFFFL);
+    }
+
+    public static long chatKey(Message message) {
+        return message.getGroupId() > 0 ? groupKey(message.getGroupId())
+                : pairKey(message.getSenderId(), message.getReceiverId());
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        worker = new Thread(this::run, "Search-Indexer");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /** Dừng luồng nền và ghi nốt thay đổi chưa ra segment. */
+    public synchronized void stop() {
+        running = false;
+        Thread t = worker;
+        if (t != null) {
+            LockSupport.unpark(t);
+            try {
+                t.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            worker = null;
+        }
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /** Lập (lại) chỉ mục cho tin nhắn vừa lưu hoặc vừa sửa; tin đã xóa/thu hồi thì bỏ khỏi chỉ mục. */
+    public void index(Message message) {
+        if (message.getId() <= 0) {
+            return;
+        }
+        if (message.isDeleted() || message.isRecalled()) {
+            remove(message.getId());
+            return;
+        }
+        Set<String> terms = TextNormalizer.terms(message.getContent(), message.getFileName());
+        if (terms.isEmpty()) {
+            remove(message.getId());
+            return;
+        }
+        String[] array = terms.stream().limit(MAX_TERMS_PER_MESSAGE).toArray(String[]::new);
+        record(SearchSegments.Op.add(message.getId(), chatKey(message), array));
+    }
+
+    public void remove(int messageId) {
+        lock.writeLock().lock();
+        try {
+            // Ghi cả khi chưa có trong RAM: lúc khởi động, tin có thể chỉ nằm trong segment chưa đọc lại
+            SearchSegments.Op op = SearchSegments.Op.delete(messageId);
+            apply(op);
+            pending.add(op);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void record(SearchSegments.Op op) {
+        lock.writeLock().lock();
+        try {
+            apply(op);
+            pending.add(op);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Gọi khi đang giữ write lock
+    private void apply(SearchSegments.Op op) {
+        Long previous = op.isAdd() ? docChat.put(op.id(), op.chatKey()) : docChat.remove(op.id());
+        if (previous != null && (!op.isAdd() || previous != op.chatKey())) {
+            Conversation old = conversations.get(previous);
+            if (old != null) {
+                old.remove(op.id());
+                if (old.docs.isEmpty()) {
+                    conversations.remove(previous);
+                }
+            }
+        }
+        if (op.isAdd()) {
+            conversations.computeIfAbsent(op.chatKey(), k -> new Conversation()).add(op.id(), op.terms());
+            maxIndexedId = Math.max(maxIndexedId, op.id());
+        }
+    }
+
+    private void reset() {
+        conversations.clear();
+        docChat.clear();
+        maxIndexedId = 0;
+    }
+
+    /**
+     * Tìm trong một cuộc trò chuyện.
+     *
+     * @param chatKey {@link #pairKey(int, int)} hoặc {@link #groupKey(int)}
+     * @return id tin nhắn của trang [offset, offset + limit) theo thứ hạng
+     */
+    public Page search(long chatKey, String query, int offset, int limit) {
+        searches.incrementAndGet();
+        List<String> tokens = new ArrayList<>(TextNormalizer.terms(query));
+        if (tokens.isEmpty()) {
+            return new Page(List.of(), 0);
+        }
+        Map<Integer, Integer> scores = null;
+        lock.readLock().lock();
+        try {
+            Conversation conversation = conversations.get(chatKey);
+            if (conversation == null) {
+                return new Page(List.of(), 0);
+            }
+            for (int i = 0; i < tokens.size(); i++) {
+                String token = tokens.get(i);
+                Map<Integer, Integer> hits = new HashMap<>();
+                Set<Integer> exact = conversation.postings.get(token);
+                if (exact != null) {
+                    exact.forEach(id -> hits.put(id, EXACT_WEIGHT));
+                }
+                if (i == tokens.size() - 1) {
+                    // Từ cuối có thể đang gõ dở: khớp mọi từ bắt đầu bằng nó
+                    for (Set<Integer> ids : conversation.postings
+                            .subMap(token, false, token + Character.MAX_VALUE, false).values()) {
+                        ids.forEach(id -> hits.putIfAbsent(id, PREFIX_WEIGHT));
+                    }
+                }
+                if (scores == null) {
+                    scores = hits;
+                } else {
+                    Map<Integer, Integer> next = new HashMap<>();
+                    for (Map.Entry<Integer, Integer> entry : scores.entrySet()) {
+                        Integer score = hits.get(entry.getKey());
+                        if (score != null) {
+                            next.put(entry.getKey(), entry.getValue() + score);
+                        }
+                    }
+                    scores = next;
+                }
+                if (scores.isEmpty()) {
+                    return new Page(List.of(), 0);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        Map<Integer, Integer> ranked = scores;
+        List<Integer> ids = new ArrayList<>(ranked.keySet());
+        ids.sort(Comparator.<Integer>comparingInt(ranked::get).reversed().thenComparing(Comparator.reverseOrder()));
+        int from = Math.min(Math.max(0, offset), ids.size());
+        int to = Math.min(from + Math.max(0, limit), ids.size());
+        return new Page(new ArrayList<>(ids.subList(from, to)), ids.size());
+    }
+
+    private void run() {
+        try {
+            if (dir != null) {
+                segments = new SearchSegments(dir);
+                lock.writeLock().lock();
+                try {
+                    syncedAt = segments.replay(this::reset, this::apply);
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                logger.info("✓ Chỉ mục tìm kiếm: đọc lại {} tin nhắn từ {}", getIndexedMessages(), dir);
+            }
+            catchUp();
+            ready = running;
+            logger.info("✓ Chỉ mục tìm kiếm sẵn sàng: {} tin nhắn, {} cuộc trò chuyện", getIndexedMessages(),
+                    getConversations());
+        } catch (Exception e) {
+            logger.error("❌ Không dựng được chỉ mục tìm kiếm, SEARCH_MESSAGES dùng SQL: {}", e.getMessage());
+        }
+        while (running) {
+            LockSupport.parkNanos(this, flushNanos);
+            persist();
+        }
+        persist();
+    }
+
+    /**
+     * Lập chỉ mục các tin nhắn trong DB mới hơn tin cuối cùng đã có trong segment, và lập lại các tin đã
+     * thay đổi sau mốc đồng bộ (tin cũ bị sửa/xóa/thu hồi mà thao tác chưa kịp ghi ra segment).
+     */
+    private void catchUp() throws Exception {
+        if (messageDAO == null) {
+            return;
+        }
+        long changed = 0;
+        if (messageDAO.isChangeTrackingEnabled()) {
+            Timestamp since = syncedAt > 0 ? new Timestamp(syncedAt - CHANGE_MARGIN_MS) : null;
+            int after = 0;
+            while (running) {
+                List<Message> batch = messageDAO.getChangedMessagesAfter(since, after, CATCH_UP_BATCH);
+                if (batch.isEmpty()) {
+                    break;
+                }
+                for (Message message : batch) {
+                    index(message);
+                    after = Math.max(after, message.getId());
+                }
+                changed += batch.size();
+                persist();
+            }
+        }
+        int after;
+        lock.readLock().lock();
+        try {
+            after = maxIndexedId;
+        } finally {
+            lock.readLock().unlock();
+        }
+        long count = 0;
+        while (running) {
+            List<Message> batch = messageDAO.getMessagesAfter(after, CATCH_UP_BATCH);
+            if (batch.isEmpty()) {
+                break;
+            }
+            for (Message message : batch) {
+                index(message);
+                after = Math.max(after, message.getId());
+            }
+            count += batch.size();
+            persist();
+        }
+        if (count > 0 || changed > 0) {
+            logger.info("Chỉ mục tìm kiếm: đã đọc thêm {} tin nhắn mới, {} tin đã thay đổi từ DB", count, changed);
+        }
+    }
+
+    /**
+     * Mốc đồng bộ cho segment sắp ghi: giờ DB hiện tại, lấy trước khi gom thay đổi. Không đọc được thì giữ
+     * mốc cũ (vẫn đúng, chỉ làm lần khởi động sau đọc lại nhiều hơn).
+     */
+    private long syncTime() {
+        if (messageDAO == null || !messageDAO.isChangeTrackingEnabled()) {
+            return syncedAt;
+        }
+        try {
+            return messageDAO.getDatabaseTime().getTime();
+        } catch (Exception e) {
+            logger.debug("Không đọc được giờ DB cho mốc chỉ mục: {}", e.getMessage());
+            return syncedAt;
+        }
+    }
+
+    /** Ghi các thay đổi đang chờ ra một segment; quá nhiều segment thì gộp thành snapshot. */
+    private void persist() {
+        if (segments == null) {
+            return;
+        }
+        try {
+            boolean hasOps;
+            lock.readLock().lock();
+            try {
+                hasOps = !pending.isEmpty();
+            } finally {
+                lock.readLock().unlock();
+            }
+            long now = hasOps ? syncTime() : syncedAt;
+            List<SearchSegments.Op> ops;
+            lock.writeLock().lock();
+            try {
+                ops = pending;
+                pending = new ArrayList<>();
+            } finally {
+                lock.writeLock().unlock();
+            }
+            if (!ops.isEmpty()) {
+                try {
+                    segments.write(ops, false, now);
+                } catch (IOException e) {
+                    // Đưa lại lên đầu hàng chờ; syncedAt chỉ tăng khi các thay đổi này đã nằm trên đĩa
+                    lock.writeLock().lock();
+                    try {
+                        ops.addAll(pending);
+                        pending = ops;
+                    } finally {
+                        lock.writeLock().unlock();
+                    }
+                    throw e;
+                }
+                syncedAt = now;
+                segmentsWritten.incrementAndGet();
+            }
+            if (segments.count() > maxSegments) {
+                merge();
+            }
+        } catch (IOException e) {
+            logger.warn("⚠ Không ghi được segment chỉ mục tìm kiếm: {}", e.getMessage());
+        }
+    }
+
+    private void merge() throws IOException {
+        long now = syncTime();
+        List<SearchSegments.Op> snapshot = new ArrayList<>();
+        lock.writeLock().lock();
+        try {
+            // Snapshot đã gồm mọi thay đổi đang chờ
+            pending = new ArrayList<>();
+            for (Map.Entry<Long, Conversation> entry : conversations.entrySet()) {
+                for (Map.Entry<Integer, String[]> doc : entry.getValue().docs.entrySet()) {
+                    snapshot.add(SearchSegments.Op.add(doc.getKey(), entry.getKey(), doc.getValue()));
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        snapshot.sort(Comparator.comparingInt(SearchSegments.Op::id));
+        segments.write(snapshot, true, now);
+        syncedAt = now;
+        merges.incrementAndGet();
+        logger.info("Chỉ mục tìm kiếm: gộp segment thành snapshot {} tin nhắn", snapshot.size());
+    }
+
+    public int getIndexedMessages() {
+        lock.readLock().lock();
+        try {
+            return docChat.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getConversations() {
+        lock.readLock().lock();
+        try {
+            return conversations.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long getSearches() {
+        return searches.get();
+    }
+
+    public long getSegmentsWritten() {
+        return segmentsWritten.get();
+    }
+
+    public long getMerges() {
+        return merges.get();
+    }
+}
@@ -0,0 +1,174 @@
+package org.example.zalu.server.search;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Các file segment của {@link MessageSearchIndex} trong {@code server.search.dir}.
+ * <p>
+ * Mỗi segment (seg-&lt;thế hệ&gt;.idx) là một dãy thao tác ADD/DEL đã áp vào chỉ mục, ghi một lần rồi không
+ * sửa. Segment snapshot chứa toàn bộ chỉ mục tại thời điểm gộp; khi đọc lại, gặp snapshot thì bỏ trạng thái
+ * cũ, nên các segment cũ hơn có thể xóa. File được ghi ra file tạm rồi đổi tên, nên dừng giữa chừng không
+ * để lại segment dở.
+ * <p>
+ * Từ định dạng 2, header có thêm mốc đồng bộ (giờ DB, epoch ms): mọi thay đổi trước mốc này đã nằm trong
+ * segment đó hoặc các segment trước.
+ */
+final class SearchSegments {
+    private static final Logger logger = LoggerFactory.getLogger(SearchSegments.class);
+
+    private static final int MAGIC = 0x5A534958; // "ZSIX"
+    private static final int FORMAT = 2;
+    private static final byte ADD = 1;
+    private static final byte DEL = 2;
+
+    /** Một thao tác trên chỉ mục; {@code terms} null với DEL. */
+    record Op(int id, long chatKey, String[] terms) {
+        static Op add(int id, long chatKey, String[] terms) {
+            return new Op(id, chatKey, terms);
+        }
+
+        static Op delete(int id) {
+            return new Op(id, 0, null);
+        }
+
+        boolean isAdd() {
+            return terms != null;
+        }
+    }
+
+    private final Path dir;
+    private long generation;
+
+    SearchSegments(Path dir) throws IOException {
+        this.dir = dir;
+        Files.createDirectories(dir);
+        for (Path file : list()) {
+            generation = Math.max(generation, generationOf(file));
+        }
+    }
+
+    int count() throws IOException {
+        return list().size();
+    }
+
+    /**
+     * Đọc lại mọi segment theo thứ tự thế hệ. {@code reset} được gọi trước mỗi snapshot. Segment hỏng
+     * (ví dụ máy tắt khi đang đổi tên) bị bỏ qua.
+     *
+     * @return mốc đồng bộ của segment mới nhất, 0 nếu không biết (segment định dạng 1 hoặc có segment hỏng)
+     */
+    long replay(Runnable reset, Consumer<Op> apply) throws IOException {
+        long syncedAt = 0;
+        boolean intact = true;
+        for (Path file : list()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                int format = in.readInt() == MAGIC ? in.readInt() : -1;
+                if (format != 1 && format != FORMAT) {
+                    logger.warn("⚠ Bỏ qua segment không hợp lệ: {}", file.getFileName());
+                    intact = false;
+                    continue;
+                }
+                boolean snapshot = in.readBoolean();
+                long segmentSyncedAt = format >= 2 ? in.readLong() : 0;
+                int count = in.readInt();
+                List<Op> ops = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    ops.add(read(in));
+                }
+                if (snapshot) {
+                    // Snapshot chứa toàn bộ chỉ mục: segment hỏng trước đó không còn ảnh hưởng
+                    reset.run();
+                    intact = true;
+                }
+                ops.forEach(apply);
+                syncedAt = segmentSyncedAt;
+            } catch (IOException e) {
+                logger.warn("⚠ Bỏ qua segment hỏng {}: {}", file.getFileName(), e.getMessage());
+                intact = false;
+            }
+        }
+        return intact ? syncedAt : 0;
+    }
+
+    /**
+     * Ghi một segment mới. Với snapshot, các segment cũ hơn bị xóa sau khi snapshot đã nằm trên đĩa.
+     *
+     * @param syncedAt mốc đồng bộ (giờ DB, epoch ms) lấy trước khi gom {@code ops}, 0 nếu không biết
+     */
+    void write(List<Op> ops, boolean snapshot, long syncedAt) throws IOException {
+        long gen = ++generation;
+        Path target = dir.resolve(String.format("seg-%012d.idx", gen));
+        Path tmp = dir.resolve(target.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+            out.writeBoolean(snapshot);
+            out.writeLong(syncedAt);
+            out.writeInt(ops.size());
+            for (Op op : ops) {
+                write(out, op);
+            }
+        }
+        Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        if (snapshot) {
+            for (Path file : list()) {
+                if (generationOf(file) < gen) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    private static void write(DataOutputStream out, Op op) throws IOException {
+        out.writeByte(op.isAdd() ? ADD : DEL);
+        out.writeInt(op.id());
+        if (op.isAdd()) {
+            out.writeLong(op.chatKey());
+            out.writeShort(op.terms().length);
+            for (String term : op.terms()) {
+                out.writeUTF(term);
+            }
+        }
+    }
+
+    private static Op read(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        int id = in.readInt();
+        if (type == DEL) {
+            return Op.delete(id);
+        }
+        long chatKey = in.readLong();
+        String[] terms = new String[in.readUnsignedShort()];
+        for (int i = 0; i < terms.length; i++) {
+            terms[i] = in.readUTF();
+        }
+        return Op.add(id, chatKey, terms);
+    }
+
+    private List<Path> list() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(f -> f.getFileName().toString().matches("seg-\\d+\\.idx"))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private static long generationOf(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(4, name.length() - 4));
+    }
+}
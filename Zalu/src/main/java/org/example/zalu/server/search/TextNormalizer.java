@@ -0,0 +1,52 @@
+package org.example.zalu.server.search;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Tách từ cho chỉ mục tìm kiếm: chữ thường, bỏ dấu tiếng Việt ("Đã xem" → "da", "xem"), tách theo mọi
+ * ký tự không phải chữ/số. Câu truy vấn đi qua cùng hàm nên gõ có dấu hay không dấu đều khớp.
+ */
+public final class TextNormalizer {
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+    // Từ dài hơn (link, chuỗi base64...) chỉ giữ phần đầu
+    public static final int MAX_TOKEN_LENGTH = 32;
+
+    private TextNormalizer() {
+    }
+
+    /** Chữ thường và bỏ dấu; đ/Đ không phải dấu ghép nên đổi riêng thành d. */
+    public static String fold(String text) {
+        String lower = text.toLowerCase(Locale.ROOT).replace('đ', 'd');
+        return MARKS.matcher(Normalizer.normalize(lower, Normalizer.Form.NFD)).replaceAll("");
+    }
+
+    /** Các từ của đoạn văn bản theo thứ tự xuất hiện (có thể lặp). */
+    public static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null || text.isBlank()) {
+            return tokens;
+        }
+        for (String token : SEPARATORS.split(fold(text))) {
+            if (!token.isEmpty()) {
+                tokens.add(token.length() > MAX_TOKEN_LENGTH ? token.substring(0, MAX_TOKEN_LENGTH) : token);
+            }
+        }
+        return tokens;
+    }
+
+    /** Các từ không trùng của nhiều đoạn văn bản (nội dung, tên file...). */
+    public static Set<String> terms(String... texts) {
+        Set<String> terms = new LinkedHashSet<>();
+        for (String text : texts) {
+            terms.addAll(tokenize(text));
+        }
+        return terms;
+    }
+}
@@ -0,0 +1,106 @@
+package org.example.zalu.server.storage;
+
+import org.example.zalu.dao.MessageDAO;
+import org.example.zalu.server.ServerConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Chuyển dần file_data cũ trong bảng messages sang {@link BlobStore} khi server đang chạy.
+ * <p>
+ * Mỗi lượt lấy {@code server.blob.migrateBatch} hàng, chuyển từng hàng một (chỉ một file trong RAM)
+ * rồi nghỉ {@code server.blob.migratePauseMs} để không tranh DB với client. Hàng được cập nhật có điều
+ * kiện {@code file_ref IS NULL}, nên chạy lại hoặc dừng giữa chừng đều an toàn.
+ */
+public class BlobMigrator {
+    private static final Logger logger = LoggerFactory.getLogger(BlobMigrator.class);
+
+    private static final int BATCH_SIZE = ServerConfig.getInt("server.blob.migrateBatch", 20);
+    private static final long PAUSE_MS = ServerConfig.getLong("server.blob.migratePauseMs", 500);
+
+    private final MessageDAO messageDAO;
+    private final BlobStore store;
+    private final AtomicLong migratedRows = new AtomicLong();
+    private final AtomicLong migratedBytes = new AtomicLong();
+    private volatile Thread worker;
+    private volatile boolean running;
+
+    public BlobMigrator(MessageDAO messageDAO, BlobStore store) {
+        this.messageDAO = messageDAO;
+        this.store = store;
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        if (!messageDAO.isBlobStoreEnabled()) {
+            logger.warn("⚠ Bảng messages chưa có cột file_ref, file vẫn lưu trong DB. "
+                    + "Bật server.schema.migrate để migration V4__blob_store.sql thêm cột khi khởi động.");
+            return;
+        }
+        running = true;
+        worker = new Thread(this::run, "Blob-Migrator");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        Thread t = worker;
+        if (t != null) {
+            t.interrupt();
+            worker = null;
+        }
+    }
+
+    private void run() {
+        logger.info("Bắt đầu chuyển file_data cũ sang blob store...");
+        try {
+            while (running) {
+                List<Integer> ids = messageDAO.findInlineFileIds(BATCH_SIZE);
+                if (ids.isEmpty()) {
+                    break;
+                }
+                for (int id : ids) {
+                    if (!running) {
+                        return;
+                    }
+                    long bytes = messageDAO.moveFileToBlobStore(id, store);
+                    if (bytes > 0) {
+                        migratedRows.incrementAndGet();
+                        migratedBytes.addAndGet(bytes);
+                    }
+                }
+                logger.info("Blob store: đã chuyển {} file ({} bytes)", migratedRows.get(), migratedBytes.get());
+                Thread.sleep(PAUSE_MS);
+            }
+            if (running) {
+                logger.info("✓ Đã chuyển xong file_data sang blob store: {} file, {} bytes", migratedRows.get(),
+                        migratedBytes.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            // Lần khởi động sau sẽ chạy tiếp từ các hàng còn lại
+            logger.error("❌ Dừng chuyển file sang blob store: {}", e.getMessage(), e);
+        } finally {
+            running = false;
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public long getMigratedRows() {
+        return migratedRows.get();
+    }
+
+    public long getMigratedBytes() {
+        return migratedBytes.get();
+    }
+}
@@ -0,0 +1,251 @@
+package org.example.zalu.server.storage;
+
+import org.example.zalu.protocol.FileRegion;
+import org.example.zalu.server.ServerConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.regex.Pattern;
+
+/**
+ * Kho file đính kèm trên đĩa của server, đánh địa chỉ theo SHA-256 của nội dung.
+ * <p>
+ * Mỗi nội dung chỉ lưu một lần tại {@code <dir>/ab/cd/<sha256>}, nên cùng một file chuyển tiếp
+ * vào nhiều cuộc trò chuyện không tốn thêm dung lượng. Bảng messages chỉ giữ khóa (file_ref) và
+ * dung lượng (file_size). File được ghi vào thư mục tạm rồi đổi tên, nên blob đã tồn tại luôn
+ * đầy đủ; nhiều thread cùng ghi một nội dung cũng không sao.
+ * <p>
+ * Blob không bị xóa khi tin nhắn bị xóa/thu hồi (tin nhắn chỉ được đánh dấu, không xóa hàng).
+ */
+public class BlobStore {
+    private static final Logger logger = LoggerFactory.getLogger(BlobStore.class);
+
+    private static final Pattern SHA256 = Pattern.compile("[0-9a-f]{64}");
+    private static final int COPY_BUFFER = 64 * 1024;
+
+    private static volatile BlobStore instance;
+
+    private final Path root;
+    private final Path tmpDir;
+
+    public BlobStore(Path root) {
+        this.root = root;
+        this.tmpDir = root.resolve("tmp");
+    }
+
+    /** Kho mặc định của server, thư mục lấy từ {@code server.blob.dir}. */
+    public static BlobStore getInstance() {
+        if (instance == null) {
+            synchronized (BlobStore.class) {
+                if (instance == null) {
+                    instance = new BlobStore(Paths.get(ServerConfig.get("server.blob.dir", "data/blobs")));
+                    logger.info("✓ Blob store: {}", instance.root.toAbsolutePath());
+                }
+            }
+        }
+        return instance;
+    }
+
+    /** Kiểm tra chuỗi có đúng dạng khóa blob (SHA-256 hex chữ thường) không. */
+    public static boolean isValidRef(String ref) {
+        return ref != null && SHA256.matcher(ref).matches();
+    }
+
+    /**
+     * Lưu nội dung trong bộ nhớ.
+     *
+     * @return khóa SHA-256 của blob
+     */
+    public String put(byte[] data) throws IOException {
+        String ref = HexFormat.of().formatHex(sha256().digest(data));
+        Path target = resolve(ref);
+        if (Files.exists(target)) {
+            return ref;
+        }
+        Path tmp = newTempFile();
+        try {
+            Files.write(tmp, data);
+            commit(tmp, target);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        return ref;
+    }
+
+    /**
+     * Lưu nội dung một file trên đĩa (ví dụ file tạm của lượt upload) bằng FileChannel.transferTo,
+     * không đi qua heap.
+     *
+     * @param sha256 checksum đã biết (đã kiểm tra khi upload) hoặc null để tự tính
+     * @return khóa SHA-256 của blob
+     */
+    public String put(Path source, String sha256) throws IOException {
+        String ref = sha256 != null ? sha256.toLowerCase() : hash(source);
+        if (!isValidRef(ref)) {
+            throw new IOException("Checksum không hợp lệ: " + sha256);
+        }
+        Path target = resolve(ref);
+        if (Files.exists(target)) {
+            return ref;
+        }
+        Path tmp = newTempFile();
+        try {
+            try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+                    FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE,
+                            StandardOpenOption.TRUNCATE_EXISTING)) {
+                long size = in.size();
+                long position = 0;
+                while (position < size) {
+                    position += in.transferTo(position, size - position, out);
+                }
+                out.force(false);
+            }
+            commit(tmp, target);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        return ref;
+    }
+
+    /**
+     * Lưu nội dung đọc từ stream (dùng khi chuyển file_data cũ trong DB ra đĩa).
+     *
+     * @return khóa SHA-256 của blob
+     */
+    public String put(InputStream source) throws IOException {
+        MessageDigest digest = sha256();
+        Path tmp = newTempFile();
+        try {
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                byte[] buffer = new byte[COPY_BUFFER];
+                int n;
+                while ((n = source.read(buffer)) > 0) {
+                    digest.update(buffer, 0, n);
+                    ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, n);
+                    while (chunk.hasRemaining()) {
+                        out.write(chunk);
+                    }
+                }
+                out.force(false);
+            }
+            String ref = HexFormat.of().formatHex(digest.digest());
+            Path target = resolve(ref);
+            if (!Files.exists(target)) {
+                commit(tmp, target);
+            }
+            return ref;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    public boolean exists(String ref) {
+        return isValidRef(ref) && Files.exists(resolve(ref));
+    }
+
+    public long size(String ref) throws IOException {
+        return Files.size(resolve(ref));
+    }
+
+    /** Đọc cả blob vào bộ nhớ (ảnh/voice hiển thị ngay trong lịch sử chat). */
+    public byte[] read(String ref) throws IOException {
+        return Files.readAllBytes(resolve(ref));
+    }
+
+    /**
+     * Đọc một đoạn của blob.
+     *
+     * @return mảng rỗng nếu offset vượt quá dung lượng
+     */
+    public byte[] read(String ref, long offset, int length) throws IOException {
+        try (FileChannel channel = FileChannel.open(resolve(ref), StandardOpenOption.READ)) {
+            long available = Math.max(0, channel.size() - offset);
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(length, available));
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0) {
+                    break;
+                }
+            }
+            return buffer.position() == buffer.capacity() ? buffer.array()
+                    : Arrays.copyOf(buffer.array(), buffer.position());
+        }
+    }
+
+    /**
+     * Đoạn blob để gửi thẳng từ đĩa ra socket (GET_FILE, DOWNLOAD_CHUNK), không nạp vào heap.
+     * Đoạn vượt quá dung lượng được cắt bớt.
+     */
+    public FileRegion region(String ref, long offset, long length) throws IOException {
+        Path file = resolve(ref);
+        long size = Files.size(file);
+        long start = Math.min(Math.max(0, offset), size);
+        return new FileRegion(file, start, Math.min(length, size - start));
+    }
+
+    public Path resolve(String ref) {
+        if (!isValidRef(ref)) {
+            throw new IllegalArgumentException("Khóa blob không hợp lệ: " + ref);
+        }
+        return root.resolve(ref.substring(0, 2)).resolve(ref.substring(2, 4)).resolve(ref);
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    private Path newTempFile() throws IOException {
+        Files.createDirectories(tmpDir);
+        return Files.createTempFile(tmpDir, "blob-", ".tmp");
+    }
+
+    private void commit(Path tmp, Path target) throws IOException {
+        Files.createDirectories(target.getParent());
+        try {
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException e) {
+            // Thread khác vừa ghi cùng nội dung
+        } catch (AtomicMoveNotSupportedException e) {
+            try {
+                Files.move(tmp, target);
+            } catch (FileAlreadyExistsException ignored) {
+            }
+        }
+    }
+
+    private static String hash(Path file) throws IOException {
+        MessageDigest digest = sha256();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(COPY_BUFFER);
+            while (channel.read(buffer) > 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
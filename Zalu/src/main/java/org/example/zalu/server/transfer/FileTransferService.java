@@ -0,0 +1,210 @@
+package org.example.zalu.server.transfer;
+
+import org.example.zalu.exception.file.FileOperationException;
+import org.example.zalu.server.ServerConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Quản lý upload/download theo chunk cho toàn server.
+ * <p>
+ * Upload được ghi thẳng xuống file tạm trong thư mục spool, mỗi lượt chỉ giữ một chunk trong RAM.
+ * Lượt upload được nhận diện bằng userId + uploadId do client sinh ra, nên sau khi kết nối lại
+ * client gửi lại UPLOAD_BEGIN với cùng uploadId để biết server đã nhận đến byte nào và gửi tiếp.
+ * Lượt upload không hoạt động quá {@code server.transfer.idleTimeoutMs} bị hủy cùng file tạm.
+ * <p>
+ * Mã lỗi trong {@link FileOperationException#getMessage()} được gửi nguyên cho client qua UPLOAD_FAIL.
+ */
+public class FileTransferService {
+    private static final Logger logger = LoggerFactory.getLogger(FileTransferService.class);
+
+    public static final int CHUNK_BYTES = ServerConfig.getInt("server.transfer.chunkBytes", 256 * 1024);
+    public static final long MAX_FILE_BYTES = ServerConfig.getLong("server.transfer.maxFileBytes",
+            200L * 1024 * 1024);
+    /** File nhỏ hơn ngưỡng này vẫn được đẩy kèm dữ liệu cho người nhận như trước (NEW_FILE + byte[]). */
+    public static final long INLINE_BROADCAST_BYTES = ServerConfig.getLong("server.transfer.inlineBroadcastBytes",
+            1024L * 1024);
+    private static final long IDLE_TIMEOUT_MS = ServerConfig.getLong("server.transfer.idleTimeoutMs",
+            30L * 60 * 1000);
+    private static final int MAX_UPLOADS_PER_USER = ServerConfig.getInt("server.transfer.maxUploadsPerUser", 4);
+    private static final int HASH_CACHE_SIZE = 512;
+
+    private static final Pattern UPLOAD_ID = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
+    private final Path spoolDir;
+    private final Map<String, UploadSession> uploads = new ConcurrentHashMap<>();
+    private final Map<Integer, String> downloadHashes = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, String> eldest) {
+            return size() > HASH_CACHE_SIZE;
+        }
+    };
+
+    public FileTransferService() {
+        this(Paths.get(ServerConfig.get("server.transfer.spoolDir",
+                Paths.get(System.getProperty("java.io.tmpdir"), "zalu-uploads").toString())));
+    }
+
+    public FileTransferService(Path spoolDir) {
+        this.spoolDir = spoolDir;
+    }
+
+    /**
+     * Bắt đầu hoặc tiếp tục một lượt upload.
+     *
+     * @return phiên upload; {@link UploadSession#getCommitted()} là offset client cần gửi tiếp
+     */
+    public UploadSession begin(int userId, String uploadId, int receiverId, int groupId, String fileName,
+            long fileSize) throws FileOperationException {
+        if (uploadId == null || !UPLOAD_ID.matcher(uploadId).matches()) {
+            throw new FileOperationException("INVALID_UPLOAD_ID");
+        }
+        if (fileName == null || fileName.isBlank() || fileSize <= 0) {
+            throw new FileOperationException("INVALID_FILE");
+        }
+        if (fileSize > MAX_FILE_BYTES) {
+            throw new FileOperationException("FILE_TOO_LARGE");
+        }
+        purgeExpired();
+
+        String key = key(userId, uploadId);
+        UploadSession existing = uploads.get(key);
+        if (existing != null) {
+            if (existing.getFileSize() == fileSize && existing.getFileName().equals(fileName)
+                    && existing.getReceiverId() == receiverId && existing.getGroupId() == groupId) {
+                existing.touch();
+                logger.info("Tiếp tục upload {} của user {} từ byte {}/{}", uploadId, userId,
+                        existing.getCommitted(), fileSize);
+                return existing;
+            }
+            discard(existing);
+        }
+        long active = uploads.values().stream().filter(s -> s.getUserId() == userId).count();
+        if (active >= MAX_UPLOADS_PER_USER) {
+            throw new FileOperationException("TOO_MANY_UPLOADS");
+        }
+
+        try {
+            Files.createDirectories(spoolDir);
+            UploadSession session = new UploadSession(userId, uploadId, receiverId, groupId, fileName, fileSize,
+                    spoolDir.resolve(userId + "-" + uploadId + ".part"));
+            uploads.put(key, session);
+            logger.info("Bắt đầu upload {} của user {}: {} ({} bytes)", uploadId, userId, fileName, fileSize);
+            return session;
+        } catch (IOException e) {
+            logger.error("Không tạo được file tạm cho upload {}: {}", uploadId, e.getMessage());
+            throw new FileOperationException("SPOOL_ERROR", e);
+        }
+    }
+
+    /**
+     * Ghi một chunk. Chunk không nối tiếp phần đã nhận bị bỏ qua, client sẽ gửi lại từ offset được trả về.
+     *
+     * @return số byte server đã nhận liên tục
+     */
+    public long writeChunk(int userId, String uploadId, long offset, byte[] data) throws FileOperationException {
+        UploadSession session = uploads.get(key(userId, uploadId));
+        if (session == null) {
+            throw new FileOperationException("UNKNOWN_UPLOAD");
+        }
+        if (data.length == 0 || data.length > CHUNK_BYTES) {
+            throw new FileOperationException("INVALID_CHUNK");
+        }
+        try {
+            return session.write(offset, data);
+        } catch (IOException e) {
+            logger.error("Ghi chunk upload {} thất bại: {}", uploadId, e.getMessage());
+            discard(session);
+            throw new FileOperationException("SPOOL_ERROR", e);
+        }
+    }
+
+    /**
+     * Kết thúc upload: kiểm tra đủ dung lượng và SHA-256. Phiên được gỡ khỏi danh sách nhưng file tạm
+     * vẫn còn để người gọi lưu vào DB, sau đó phải gọi {@link #discard(UploadSession)}.
+     */
+    public UploadSession complete(int userId, String uploadId, String sha256) throws FileOperationException {
+        UploadSession session = uploads.get(key(userId, uploadId));
+        if (session == null) {
+            throw new FileOperationException("UNKNOWN_UPLOAD");
+        }
+        if (!session.isComplete()) {
+            throw new FileOperationException("INCOMPLETE");
+        }
+        uploads.remove(key(userId, uploadId), session);
+        String actual;
+        try {
+            actual = session.finish();
+        } catch (IOException e) {
+            discard(session);
+            throw new FileOperationException("SPOOL_ERROR", e);
+        }
+        if (sha256 == null || !sha256.equalsIgnoreCase(actual)) {
+            logger.warn("⚠ Upload {} của user {} sai checksum (client {}, server {})", uploadId, userId, sha256,
+                    actual);
+            discard(session);
+            throw new FileOperationException("CHECKSUM_MISMATCH");
+        }
+        return session;
+    }
+
+    /** Đóng và xóa file tạm của phiên. */
+    public void discard(UploadSession session) {
+        uploads.remove(key(session.getUserId(), session.getUploadId()), session);
+        try {
+            session.close();
+        } catch (IOException ignored) {
+        }
+        try {
+            Files.deleteIfExists(session.getSpoolFile());
+        } catch (IOException e) {
+            logger.warn("Không xóa được file tạm {}: {}", session.getSpoolFile(), e.getMessage());
+        }
+    }
+
+    /** Hủy các lượt upload đã quá thời gian chờ. */
+    public void purgeExpired() {
+        long deadline = System.currentTimeMillis() - IDLE_TIMEOUT_MS;
+        Iterator<UploadSession> it = uploads.values().iterator();
+        while (it.hasNext()) {
+            UploadSession session = it.next();
+            if (session.getLastActivity() < deadline) {
+                logger.info("Hủy upload {} của user {} do không hoạt động", session.getUploadId(),
+                        session.getUserId());
+                it.remove();
+                discard(session);
+            }
+        }
+    }
+
+    public int getActiveUploads() {
+        return uploads.size();
+    }
+
+    /** SHA-256 đã tính cho file của tin nhắn (dùng cho DOWNLOAD_INFO), null nếu chưa có. */
+    public String getCachedHash(int messageId) {
+        synchronized (downloadHashes) {
+            return downloadHashes.get(messageId);
+        }
+    }
+
+    public void cacheHash(int messageId, String sha256) {
+        synchronized (downloadHashes) {
+            downloadHashes.put(messageId, sha256);
+        }
+    }
+
+    private static String key(int userId, String uploadId) {
+        return userId + ":" + uploadId;
+    }
+}
@@ -0,0 +1,129 @@
+package org.example.zalu.server.transfer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Một lượt upload đang dở: file tạm trên đĩa + số byte đã nhận liên tục từ đầu.
+ * <p>
+ * Chunk chỉ được ghi khi offset đúng bằng số byte đã nhận, nên file tạm luôn là phần đầu
+ * liền mạch của file gốc và SHA-256 được cập nhật dần theo từng chunk (không phải đọc lại).
+ */
+public class UploadSession {
+    private final int userId;
+    private final String uploadId;
+    private final int receiverId;
+    private final int groupId;
+    private final String fileName;
+    private final long fileSize;
+    private final Path spoolFile;
+
+    private FileChannel channel;
+    private MessageDigest digest;
+    private long committed;
+    private volatile long lastActivity = System.currentTimeMillis();
+
+    UploadSession(int userId, String uploadId, int receiverId, int groupId, String fileName, long fileSize,
+            Path spoolFile) throws IOException {
+        this.userId = userId;
+        this.uploadId = uploadId;
+        this.receiverId = receiverId;
+        this.groupId = groupId;
+        this.fileName = fileName;
+        this.fileSize = fileSize;
+        this.spoolFile = spoolFile;
+        this.channel = FileChannel.open(spoolFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            this.digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            channel.close();
+            throw new IOException("SHA-256 không khả dụng", e);
+        }
+    }
+
+    /**
+     * Ghi một chunk nếu nó nối tiếp phần đã nhận.
+     *
+     * @return số byte đã nhận sau khi ghi (không đổi nếu offset không khớp)
+     */
+    synchronized long write(long offset, byte[] data) throws IOException {
+        touch();
+        if (channel == null || offset != committed || committed + data.length > fileSize) {
+            return committed;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, committed + buffer.position());
+        }
+        digest.update(data);
+        committed += data.length;
+        return committed;
+    }
+
+    /**
+     * Đóng file tạm và trả về SHA-256 (hex) của toàn bộ dữ liệu đã nhận.
+     */
+    synchronized String finish() throws IOException {
+        close();
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.force(false);
+            channel.close();
+            channel = null;
+        }
+    }
+
+    void touch() {
+        lastActivity = System.currentTimeMillis();
+    }
+
+    long getLastActivity() {
+        return lastActivity;
+    }
+
+    public synchronized long getCommitted() {
+        return committed;
+    }
+
+    public boolean isComplete() {
+        return getCommitted() == fileSize;
+    }
+
+    public int getUserId() {
+        return userId;
+    }
+
+    public String getUploadId() {
+        return uploadId;
+    }
+
+    public int getReceiverId() {
+        return receiverId;
+    }
+
+    public int getGroupId() {
+        return groupId;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    public Path getSpoolFile() {
+        return spoolFile;
+    }
+}
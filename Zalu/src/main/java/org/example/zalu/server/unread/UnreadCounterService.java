@@ -0,0 +1,222 @@
+package org.example.zalu.server.unread;
+
+import org.example.zalu.dao.MessageDAO;
+import org.example.zalu.dao.ReadCursorDAO;
+import org.example.zalu.exception.database.DatabaseConnectionException;
+import org.example.zalu.exception.database.DatabaseException;
+import org.example.zalu.model.Message;
+import org.example.zalu.server.group.GroupMembershipCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Số tin chưa đọc của từng user giữ trong RAM, dùng cho LOGIN_SNAPSHOT / unread count map.
+ * <p>
+ * Lần đầu cần đến, số đếm của user được nạp từ DB bằng một truy vấn GROUP BY
+ * ({@link ReadCursorDAO#getUnreadCounts(int)} khi đã có bảng read_cursors, nếu không thì
+ * {@link MessageDAO#getUnreadCounts(int)}); sau đó server tự tăng khi lưu tin nhắn và xóa về 0 khi
+ * MARK_AS_READ, nên các lần đăng nhập sau không chạm DB. DB chỉ là nguồn để nạp lại (sau khi khởi
+ * động lại server hoặc {@link #invalidate(int)}).
+ * <p>
+ * Số đếm của user bị bỏ khi user ngắt kết nối, nên map chỉ giữ user đang online. Tin bị xóa/thu hồi
+ * không được đếm trong DB; khi có tin như vậy, số đếm của người nhận được bỏ để nạp lại cho đúng.
+ * <p>
+ * Tin nhóm chỉ được đếm khi có con trỏ đã đọc (is_read không có nghĩa với tin nhóm).
+ * <p>
+ * Tin nhắn đến đúng lúc đang nạp có thể làm số đếm lệch một, lần đánh dấu đã đọc tiếp theo sẽ đưa về đúng.
+ * Lượt nạp trùng với invalidate / rời nhóm / đánh dấu đã đọc của cùng user thì không được cache (lần sau
+ * nạp lại), nên không giữ số đếm cũ.
+ */
+public class UnreadCounterService {
+    private static final Logger logger = LoggerFactory.getLogger(UnreadCounterService.class);
+
+    private final MessageDAO messageDAO;
+    private final ReadCursorDAO readCursorDAO;
+    private final GroupMembershipCache groupMembership;
+    // userId -> (chatId -> số tin chưa đọc); chỉ có các user đã được nạp
+    private final Map<Integer, Map<Integer, Integer>> counters = new ConcurrentHashMap<>();
+    // userId -> token của lượt nạp đang chạy; thay đổi số đếm của user xóa token để lượt nạp đó bị bỏ
+    private final Map<Integer, Object> loading = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+
+    public UnreadCounterService(MessageDAO messageDAO) {
+        this(messageDAO, null, null);
+    }
+
+    /**
+     * @param readCursorDAO null hoặc chưa có bảng read_cursors thì đếm theo messages.is_read
+     * @param groupMembership thành viên nhóm để tăng số đếm khi có tin nhóm
+     */
+    public UnreadCounterService(MessageDAO messageDAO, ReadCursorDAO readCursorDAO,
+            GroupMembershipCache groupMembership) {
+        this.messageDAO = messageDAO;
+        this.readCursorDAO = readCursorDAO;
+        this.groupMembership = groupMembership;
+    }
+
+    private boolean usesReadCursors() {
+        return readCursorDAO != null && readCursorDAO.isAvailable();
+    }
+
+    /**
+     * Bản sao số tin chưa đọc của user theo chatId (id bạn bè, -id nhóm); chat đã đọc hết không có trong map.
+     */
+    public Map<Integer, Integer> getUnreadCounts(int userId) throws DatabaseException, DatabaseConnectionException {
+        Map<Integer, Integer> counts = counters.get(userId);
+        if (counts != null) {
+            hits.incrementAndGet();
+        } else {
+            Object token = new Object();
+            loading.put(userId, token);
+            Map<Integer, Integer> loaded;
+            try {
+                loaded = new ConcurrentHashMap<>(usesReadCursors()
+                        ? readCursorDAO.getUnreadCounts(userId)
+                        : messageDAO.getUnreadCounts(userId));
+            } catch (DatabaseException | DatabaseConnectionException | RuntimeException e) {
+                loading.remove(userId, token);
+                throw e;
+            }
+            loads.incrementAndGet();
+            // Chỉ cache khi không có thay đổi nào của user xen vào lúc đang nạp (cùng khóa với update())
+            loading.computeIfPresent(userId, (k, current) -> {
+                if (current != token) {
+                    return current;
+                }
+                counters.putIfAbsent(userId, loaded);
+                return null;
+            });
+            counts = counters.getOrDefault(userId, loaded);
+        }
+        return new HashMap<>(counts);
+    }
+
+    /** Gọi sau khi tin nhắn đã được lưu vào DB. */
+    public void onMessageSaved(Message message) {
+        if (message.getGroupId() > 0) {
+            onGroupMessageSaved(message);
+            return;
+        }
+        if (message.getReceiverId() <= 0) {
+            return;
+        }
+        Map<Integer, Integer> counts = counters.get(message.getReceiverId());
+        if (counts != null) {
+            counts.merge(message.getSenderId(), 1, Integer::sum);
+        }
+    }
+
+    private void onGroupMessageSaved(Message message) {
+        // Không có con trỏ thì tin nhóm không được tính chưa đọc trong DB
+        if (groupMembership == null || counters.isEmpty() || !usesReadCursors()) {
+            return;
+        }
+        int[] members = groupMembers(message.getGroupId());
+        if (members == null) {
+            // Số đếm của nhóm có thể thiếu một tin; lần đánh dấu đã đọc hoặc nạp lại sẽ đưa về đúng
+            return;
+        }
+        int chatId = -message.getGroupId();
+        for (int memberId : members) {
+            if (memberId == message.getSenderId()) {
+                continue;
+            }
+            Map<Integer, Integer> counts = counters.get(memberId);
+            if (counts != null) {
+                counts.merge(chatId, 1, Integer::sum);
+            }
+        }
+    }
+
+    /**
+     * Gọi sau khi tin nhắn bị xóa hoặc thu hồi. Không biết tin đó còn chưa đọc với ai, nên số đếm của
+     * những người nhận đang được giữ bị bỏ và nạp lại từ DB (DB không đếm tin đã xóa/thu hồi).
+     */
+    public void onMessageRemoved(Message message) {
+        if (counters.isEmpty()) {
+            return;
+        }
+        if (message.getGroupId() <= 0) {
+            invalidate(message.getReceiverId());
+            return;
+        }
+        int[] members = groupMembership != null ? groupMembers(message.getGroupId()) : null;
+        if (members == null) {
+            // Không biết ai là thành viên: bỏ hết, các user sẽ nạp lại khi cần
+            loading.clear();
+            counters.clear();
+            return;
+        }
+        for (int memberId : members) {
+            if (memberId != message.getSenderId()) {
+                invalidate(memberId);
+            }
+        }
+    }
+
+    /** User rời nhóm, bị xóa khỏi nhóm hoặc nhóm bị giải tán: bỏ số đếm của nhóm đó. */
+    public void onLeftGroup(int userId, int groupId) {
+        update(userId, () -> {
+            Map<Integer, Integer> counts = counters.get(userId);
+            if (counts != null) {
+                counts.remove(-groupId);
+            }
+        });
+    }
+
+    /** User ngắt kết nối: không giữ số đếm của user offline, lần đăng nhập sau nạp lại từ DB. */
+    public void onDisconnected(int userId) {
+        invalidate(userId);
+    }
+
+    private int[] groupMembers(int groupId) {
+        try {
+            return groupMembership.getMembers(groupId);
+        } catch (SQLException e) {
+            logger.warn("⚠ Không lấy được thành viên nhóm {} để đếm tin chưa đọc: {}", groupId, e.getMessage());
+            return null;
+        }
+    }
+
+    /** User đã đọc hết một cuộc trò chuyện (chatId: id bạn bè hoặc -id nhóm). */
+    public void markRead(int userId, int chatId) {
+        update(userId, () -> {
+            Map<Integer, Integer> counts = counters.get(userId);
+            if (counts != null) {
+                counts.remove(chatId);
+            }
+        });
+    }
+
+    /** Bỏ số đếm trong RAM của user, lần sau sẽ nạp lại từ DB. */
+    public void invalidate(int userId) {
+        update(userId, () -> counters.remove(userId));
+    }
+
+    /** Sửa số đếm của user; lượt nạp đang chạy của user đó (nếu có) sẽ không được cache. */
+    private void update(int userId, Runnable change) {
+        loading.compute(userId, (k, token) -> {
+            change.run();
+            return null;
+        });
+    }
+
+    public int getTrackedUsers() {
+        return counters.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getLoads() {
+        return loads.get();
+    }
+}
@@ -5,6 +5,8 @@ import org.example.zalu.model.User;
 
 import java.io.ByteArrayInputStream;
 import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Service để xử lý avatar images
@@ -12,6 +14,12 @@ import java.net.URL;
 public class AvatarService {
     private static Image defaultAvatar;
 
+    // Ảnh 48x48 đã giải mã theo userId, kèm mảng byte đã giải mã ra nó: ClientCache thay mảng khi avatar đổi
+    private record Decoded(byte[] source, Image image) {
+    }
+
+    private static final Map<Integer, Decoded> decoded = new ConcurrentHashMap<>();
+
     /**
      * Resolve avatar image từ User object
      */
@@ -20,13 +28,17 @@ public class AvatarService {
             return getDefaultAvatar();
         }
 
-        // 1. Check ClientCache trước (avatar đã download)
+        // 1. Check ClientCache trước (avatar đã download), chỉ giải mã lại khi avatar đổi
         byte[] cachedAvatarData = org.example.zalu.client.ClientCache.getInstance().getAvatar(user.getId());
         if (cachedAvatarData != null && cachedAvatarData.length > 0) {
+            Decoded hit = decoded.get(user.getId());
+            if (hit != null && hit.source() == cachedAvatarData) {
+                return hit.image();
+            }
             try {
                 Image cachedImage = new Image(new ByteArrayInputStream(cachedAvatarData), 48, 48, true, true);
                 if (!cachedImage.isError()) {
-                    System.out.println("AvatarService: Using cached avatar for user " + user.getId());
+                    decoded.put(user.getId(), new Decoded(cachedAvatarData, cachedImage));
                     return cachedImage;
                 }
             } catch (Exception e) {
@@ -16,6 +16,7 @@ import org.example.zalu.model.GroupInfo;
 import org.example.zalu.model.Message;
 import org.example.zalu.model.User;
 import org.example.zalu.service.AvatarService;
+import org.example.zalu.util.IconUtil;
 import org.example.zalu.util.ui.ChatRenderer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -239,7 +240,8 @@ public class InfoPanelService {
         // Lọc và sắp xếp media messages (ảnh và video) theo thời gian mới nhất trước
         List<Message> mediaMessages = new ArrayList<>();
         for (Message msg : messages) {
-            if (msg.getFileName() != null && msg.getFileData() != null && msg.getFileData().length > 0) {
+            // Lịch sử chỉ mang metadata: ảnh chưa tải vẫn được liệt kê (ô giữ chỗ)
+            if (msg.getFileName() != null && msg.getFileSize() > 0) {
                 if (ChatRenderer.isImageFile(msg.getFileName()) || isVideoFile(msg.getFileName())) {
                     mediaMessages.add(msg);
                 }
@@ -265,7 +267,14 @@ public class InfoPanelService {
             if (displayCount >= maxDisplay)
                 break;
 
-            if (ChatRenderer.isImageFile(msg.getFileName())) {
+            if (ChatRenderer.isImageFile(msg.getFileName()) && msg.getFileData() == null) {
+                StackPane placeholder = new StackPane(IconUtil.getImageIcon(24));
+                placeholder.setStyle("-fx-background-color: #f0f0f0; -fx-background-radius: 8;");
+                placeholder.setPrefSize(80, 80);
+                placeholder.setMaxSize(80, 80);
+                mediaPreviewPane.getChildren().add(placeholder);
+                displayCount++;
+            } else if (ChatRenderer.isImageFile(msg.getFileName())) {
                 try {
                     Image image = new Image(new ByteArrayInputStream(msg.getFileData()), 80, 80, true, true);
                     ImageView imageView = new ImageView(image);
@@ -324,7 +333,7 @@ public class InfoPanelService {
             if (msg.getFileName() != null && !msg.getFileName().trim().isEmpty()) {
                 // Skip images and videos (they're in media view)
                 if (!ChatRenderer.isImageFile(msg.getFileName()) && !isVideoFile(msg.getFileName())) {
-                    long fileSize = msg.getFileData() != null ? msg.getFileData().length : 0;
+                    long fileSize = msg.getFileSize();
                     files.add(new FileItem(msg.getFileName(), fileSize, msg));
                 }
             }
@@ -4,192 +4,293 @@ import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
 
 import java.io.InputStream;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
  * DBConnection với HikariCP Pool để tránh connection timeout/failure.
  * Singleton pattern cho pool.
+ * <p>
+ * Có ba pool tách biệt ({@link Pool}) để truy vấn thống kê dài của ServerUI không giành connection với
+ * đường lưu tin nhắn: mỗi pool có kích thước và timeout riêng, cấu hình bằng
+ * {@code db.pool.<write|read|analytics>.*} trong database.properties. Hai pool đọc dùng
+ * {@code db.replica.url} nếu có (read replica), nếu không thì cùng DB chính. Pool đọc không khởi tạo được
+ * (replica lỗi) thì dùng pool ghi.
  */
 public class DBConnection {
-    private static HikariDataSource dataSource;
+
+    /**
+     * Nhóm truy vấn, mỗi nhóm một pool.
+     */
+    public enum Pool {
+        /** Ghi và mọi truy vấn cần thấy dữ liệu vừa ghi (mặc định). */
+        WRITE("write", 10, 2, 30000),
+        /** Truy vấn đọc của người dùng chịu được dữ liệu trễ vài giây: trang lịch sử cũ, tìm kiếm. */
+        READ("read", 6, 1, 5000),
+        /** Thống kê, danh sách admin và quét toàn bảng: ít connection, được phép chờ lâu. */
+        ANALYTICS("analytics", 2, 0, 60000);
+
+        private final String key;
+        private final int defaultMaxSize;
+        private final int defaultMinIdle;
+        private final long defaultConnectionTimeout;
+
+        Pool(String key, int defaultMaxSize, int defaultMinIdle, long defaultConnectionTimeout) {
+            this.key = key;
+            this.defaultMaxSize = defaultMaxSize;
+            this.defaultMinIdle = defaultMinIdle;
+            this.defaultConnectionTimeout = defaultConnectionTimeout;
+        }
+    }
+
+    private static final String DEFAULT_URL = "jdbc:mysql://localhost:3306/laptrinhmang_db?useSSL=false&serverTimezone=UTC&allowPublicKeyRetrieval=true&connectTimeout=30000&socketTimeout=60000&autoReconnect=true&maxAllowedPacket=16777216";
+
+    /**
+     * Nhận thời gian một thread giữ connection (từ lúc xin pool tới lúc close), dùng cho thống kê thời
+     * gian DB của từng lệnh.
+     */
+    public interface UsageTracker {
+        /** true nếu thread hiện tại đang được đo; chỉ khi đó connection mới được bọc lại. */
+        boolean isTracking();
+
+        void connectionReleased(Pool pool, long heldNanos);
+    }
+
+    private static final Map<Pool, HikariDataSource> dataSources = new EnumMap<>(Pool.class);
+    private static Properties properties;
+    private static volatile UsageTracker usageTracker;
 
     // Private constructor để singleton
     private DBConnection() {}
 
     /**
-     * Khởi tạo pool nếu chưa có (lazy init).
-     * Đọc cấu hình từ database.properties, fallback về giá trị mặc định nếu không có file.
+     * Dùng cấu hình này thay cho database.properties (test, hoặc công cụ trỏ tới DB khác). Các pool đang
+     * mở bị đóng, lần lấy connection sau tạo lại theo cấu hình mới; {@code null} để đọc lại file.
+     */
+    public static synchronized void configure(Properties props) {
+        closePool();
+        properties = props;
+    }
+
+    /**
+     * Đọc database.properties một lần, fallback về giá trị mặc định nếu không có file.
      */
-    private static synchronized HikariDataSource getDataSource() {
-        if (dataSource == null) {
-            HikariConfig config = new HikariConfig();
-            
-            // Đọc cấu hình từ database.properties
+    private static Properties getProperties() {
+        if (properties == null) {
             Properties props = new Properties();
-            String jdbcUrl = "jdbc:mysql://localhost:3306/laptrinhmang_db?useSSL=false&serverTimezone=UTC&allowPublicKeyRetrieval=true&connectTimeout=30000&socketTimeout=60000&autoReconnect=true&maxAllowedPacket=16777216";
-            String username = "root";
-            String password = "";
-            String driver = "com.mysql.cj.jdbc.Driver";
-            
-            // #region agent log
-            try {
-                String logPath = "d:\\Java\\LTM\\Zalu\\.cursor\\debug.log";
-                String defaultHost = extractHostFromJdbcUrl(jdbcUrl);
-                Files.write(Paths.get(logPath), (String.format("{\"id\":\"log_%d_A\",\"timestamp\":%d,\"location\":\"DBConnection.java:31\",\"message\":\"Default JDBC URL before reading properties\",\"data\":{\"jdbcUrl\":\"%s\",\"host\":\"%s\"},\"sessionId\":\"debug-session\",\"runId\":\"run1\",\"hypothesisId\":\"A\"}\n", System.currentTimeMillis(), System.currentTimeMillis(), jdbcUrl, defaultHost)).getBytes(), java.nio.file.StandardOpenOption.CREATE, java.nio.file.StandardOpenOption.APPEND);
-            } catch (Exception e) {}
-            // #endregion
-            
-            try {
-                InputStream is = DBConnection.class.getClassLoader()
-                        .getResourceAsStream("database.properties");
+            try (InputStream is = DBConnection.class.getClassLoader().getResourceAsStream("database.properties")) {
                 if (is != null) {
                     props.load(is);
-                    String originalUrl = jdbcUrl;
-                    jdbcUrl = props.getProperty("db.url", jdbcUrl);
-                    username = props.getProperty("db.username", username);
-                    password = props.getProperty("db.password", password);
-                    driver = props.getProperty("db.driver", driver);
-                    is.close();
                     System.out.println("✓ Đã đọc cấu hình database từ database.properties");
-                    
-                    // #region agent log
-                    try {
-                        String logPath = "d:\\Java\\LTM\\Zalu\\.cursor\\debug.log";
-                        String finalHost = extractHostFromJdbcUrl(jdbcUrl);
-                        boolean urlChanged = !originalUrl.equals(jdbcUrl);
-                        Files.write(Paths.get(logPath), (String.format("{\"id\":\"log_%d_B\",\"timestamp\":%d,\"location\":\"DBConnection.java:47\",\"message\":\"Properties loaded successfully\",\"data\":{\"urlChanged\":%s,\"finalJdbcUrl\":\"%s\",\"finalHost\":\"%s\",\"username\":\"%s\"},\"sessionId\":\"debug-session\",\"runId\":\"run1\",\"hypothesisId\":\"B\"}\n", System.currentTimeMillis(), System.currentTimeMillis(), urlChanged, jdbcUrl, finalHost, username)).getBytes(), java.nio.file.StandardOpenOption.CREATE, java.nio.file.StandardOpenOption.APPEND);
-                    } catch (Exception e) {}
-                    // #endregion
                 } else {
                     System.out.println("⚠ Không tìm thấy database.properties, sử dụng giá trị mặc định");
-                    
-                    // #region agent log
-                    try {
-                        String logPath = "d:\\Java\\LTM\\Zalu\\.cursor\\debug.log";
-                        String defaultHost = extractHostFromJdbcUrl(jdbcUrl);
-                        Files.write(Paths.get(logPath), (String.format("{\"id\":\"log_%d_B\",\"timestamp\":%d,\"location\":\"DBConnection.java:49\",\"message\":\"Properties file not found, using defaults\",\"data\":{\"jdbcUrl\":\"%s\",\"host\":\"%s\"},\"sessionId\":\"debug-session\",\"runId\":\"run1\",\"hypothesisId\":\"B\"}\n", System.currentTimeMillis(), System.currentTimeMillis(), jdbcUrl, defaultHost)).getBytes(), java.nio.file.StandardOpenOption.CREATE, java.nio.file.StandardOpenOption.APPEND);
-                    } catch (Exception e) {}
-                    // #endregion
                 }
             } catch (Exception e) {
                 System.err.println("⚠ Lỗi đọc database.properties: " + e.getMessage() + ", sử dụng giá trị mặc định");
-                
-                // #region agent log
-                try {
-                    String logPath = "d:\\Java\\LTM\\Zalu\\.cursor\\debug.log";
-                    Files.write(Paths.get(logPath), (String.format("{\"id\":\"log_%d_B\",\"timestamp\":%d,\"location\":\"DBConnection.java:52\",\"message\":\"Error reading properties file\",\"data\":{\"error\":\"%s\",\"jdbcUrl\":\"%s\"},\"sessionId\":\"debug-session\",\"runId\":\"run1\",\"hypothesisId\":\"B\"}\n", System.currentTimeMillis(), System.currentTimeMillis(), e.getMessage(), jdbcUrl)).getBytes(), java.nio.file.StandardOpenOption.CREATE, java.nio.file.StandardOpenOption.APPEND);
-                } catch (Exception ex) {}
-                // #endregion
             }
-            
-            config.setJdbcUrl(jdbcUrl);
-            // Lưu ý: maxAllowedPacket trong JDBC URL chỉ là hint, cần cấu hình MySQL server:
-            // SET GLOBAL max_allowed_packet=16777216; (16MB)
-            // Hoặc thêm vào my.ini/my.cnf: max_allowed_packet=16M
-            config.setUsername(username);
-            config.setPassword(password);
-            config.setDriverClassName(driver);
-
-            // Pool settings (tối ưu cho app chat nhỏ)
-            config.setMaximumPoolSize(10);  // Max 10 connections đồng thời
-            config.setMinimumIdle(2);  // Giữ 2 idle connections
-            config.setConnectionTimeout(30000);  // 30s timeout khi get connection
-            config.setIdleTimeout(600000);  // 10 phút idle trước khi close
-            config.setMaxLifetime(1800000);  // 30 phút lifetime mỗi connection
-            // Optimize cho MySQL
-            config.addDataSourceProperty("cachePrepStmts", "true");
-            config.addDataSourceProperty("prepStmtCacheSize", "250");
-            config.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
+            properties = props;
+        }
+        return properties;
+    }
 
-            // #region agent log
+    /**
+     * Khởi tạo pool nếu chưa có (lazy init). Pool đọc không tạo được thì dùng chung pool ghi.
+     */
+    private static synchronized HikariDataSource getDataSource(Pool pool) {
+        HikariDataSource dataSource = dataSources.get(pool);
+        if (dataSource != null) {
+            return dataSource;
+        }
+        Properties props = getProperties();
+        if (pool != Pool.WRITE && !Boolean.parseBoolean(props.getProperty("db.pool.split", "true"))) {
+            dataSource = getDataSource(Pool.WRITE);
+        } else if (pool == Pool.WRITE) {
+            dataSource = new HikariDataSource(config(pool, props));
+            printPoolInfo(pool, dataSource.getJdbcUrl());
+        } else {
             try {
-                String logPath = "d:\\Java\\LTM\\Zalu\\.cursor\\debug.log";
-                String finalHost = extractHostFromJdbcUrl(jdbcUrl);
-                int port = extractPortFromJdbcUrl(jdbcUrl);
-                Files.write(Paths.get(logPath), (String.format("{\"id\":\"log_%d_C\",\"timestamp\":%d,\"location\":\"DBConnection.java:73\",\"message\":\"Creating HikariDataSource with final config\",\"data\":{\"jdbcUrl\":\"%s\",\"host\":\"%s\",\"port\":%d,\"username\":\"%s\",\"isLocalhost\":%s},\"sessionId\":\"debug-session\",\"runId\":\"run1\",\"hypothesisId\":\"C\"}\n", System.currentTimeMillis(), System.currentTimeMillis(), jdbcUrl, finalHost, port, username, "localhost".equals(finalHost) || "127.0.0.1".equals(finalHost))).getBytes(), java.nio.file.StandardOpenOption.CREATE, java.nio.file.StandardOpenOption.APPEND);
-            } catch (Exception e) {}
-            // #endregion
+                dataSource = new HikariDataSource(config(pool, props));
+                printPoolInfo(pool, dataSource.getJdbcUrl());
+            } catch (RuntimeException e) {
+                System.err.println("⚠ Không khởi tạo được pool " + pool.key + " (" + e.getMessage()
+                        + "), dùng pool write");
+                dataSource = getDataSource(Pool.WRITE);
+            }
+        }
+        dataSources.put(pool, dataSource);
+        return dataSource;
+    }
 
-            dataSource = new HikariDataSource(config);
-            
-            // #region agent log
-            try {
-                String logPath = "d:\\Java\\LTM\\Zalu\\.cursor\\debug.log";
-                String finalHost = extractHostFromJdbcUrl(jdbcUrl);
-                Files.write(Paths.get(logPath), (String.format("{\"id\":\"log_%d_F\",\"timestamp\":%d,\"location\":\"DBConnection.java:119\",\"message\":\"HikariDataSource created\",\"data\":{\"host\":\"%s\",\"maxPoolSize\":10,\"minIdle\":2,\"canSupportMultipleClients\":true},\"sessionId\":\"debug-session\",\"runId\":\"run1\",\"hypothesisId\":\"F\"}\n", System.currentTimeMillis(), System.currentTimeMillis(), finalHost)).getBytes(), java.nio.file.StandardOpenOption.CREATE, java.nio.file.StandardOpenOption.APPEND);
-            } catch (Exception e) {}
-            // #endregion
-            
-            System.out.println("HikariCP DB Pool initialized successfully in DBConnection");
+    /**
+     * Cấu hình Hikari cho một pool. Khóa {@code db.pool.<tên>.*} của từng pool; pool write còn đọc các
+     * khóa cũ {@code db.pool.*}.
+     */
+    static HikariConfig config(Pool pool, Properties props) {
+        String jdbcUrl = props.getProperty("db.url", DEFAULT_URL);
+        String username = props.getProperty("db.username", "root");
+        String password = props.getProperty("db.password", "");
+        String replicaUrl = props.getProperty("db.replica.url", "").trim();
+        if (pool != Pool.WRITE && !replicaUrl.isEmpty()) {
+            jdbcUrl = replicaUrl;
+            username = props.getProperty("db.replica.username", username);
+            password = props.getProperty("db.replica.password", password);
+        }
+
+        HikariConfig config = new HikariConfig();
+        config.setPoolName("zalu-" + pool.key);
+        config.setJdbcUrl(jdbcUrl);
+        // Lưu ý: maxAllowedPacket trong JDBC URL chỉ là hint, cần cấu hình MySQL server:
+        // SET GLOBAL max_allowed_packet=16777216; (16MB)
+        // Hoặc thêm vào my.ini/my.cnf: max_allowed_packet=16M
+        config.setUsername(username);
+        config.setPassword(password);
+        config.setDriverClassName(props.getProperty("db.driver", "com.mysql.cj.jdbc.Driver"));
+
+        config.setMaximumPoolSize(intSetting(props, pool, "maxSize", pool.defaultMaxSize));
+        config.setMinimumIdle(intSetting(props, pool, "minIdle", pool.defaultMinIdle));
+        config.setConnectionTimeout(longSetting(props, pool, "connectionTimeout", pool.defaultConnectionTimeout));
+        config.setIdleTimeout(longSetting(props, pool, "idleTimeout", 600000));  // 10 phút idle trước khi close
+        config.setMaxLifetime(longSetting(props, pool, "maxLifetime", 1800000));  // 30 phút lifetime mỗi connection
+        // Pool đọc chỉ đọc: MySQL mở transaction read-only, lỡ ghi nhầm pool thì lỗi ngay
+        config.setReadOnly(pool != Pool.WRITE);
+        // Optimize cho MySQL
+        config.addDataSourceProperty("cachePrepStmts", "true");
+        config.addDataSourceProperty("prepStmtCacheSize", "250");
+        config.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
+        return config;
+    }
+
+    private static String setting(Properties props, Pool pool, String name) {
+        String value = props.getProperty("db.pool." + pool.key + "." + name);
+        if (value == null && pool == Pool.WRITE) {
+            value = props.getProperty("db.pool." + name);
+        }
+        return value == null ? null : value.trim();
+    }
+
+    private static int intSetting(Properties props, Pool pool, String name, int defaultValue) {
+        return (int) longSetting(props, pool, name, defaultValue);
+    }
+
+    private static long longSetting(Properties props, Pool pool, String name, long defaultValue) {
+        String value = setting(props, pool, name);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            System.err.println("⚠ Giá trị không hợp lệ cho db.pool." + pool.key + "." + name + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    private static void printPoolInfo(Pool pool, String jdbcUrl) {
+        System.out.println("HikariCP DB Pool '" + pool.key + "' initialized (host " + extractHostFromJdbcUrl(jdbcUrl)
+                + ":" + extractPortFromJdbcUrl(jdbcUrl) + ")");
+        if (pool == Pool.WRITE) {
             System.out.println("Note: maxAllowedPacket in JDBC URL is set to 16MB (hint for client)");
             System.out.println("IMPORTANT: MySQL server must have max_allowed_packet >= 16MB");
             System.out.println("  To set: SET GLOBAL max_allowed_packet=16777216; (requires admin)");
             System.out.println("  Or add to my.ini/my.cnf: max_allowed_packet=16M");
         }
-        return dataSource;
     }
 
     /**
-     * Get connection từ pool (thay thế DriverManager cũ).
+     * Get connection từ pool ghi (thay thế DriverManager cũ).
      * @return Connection mới từ pool.
      * @throws SQLException nếu pool fail.
      */
     public static Connection getConnection() throws SQLException {
-        // #region agent log
-        try {
-            String logPath = "d:\\Java\\LTM\\Zalu\\.cursor\\debug.log";
-            String currentUrl = dataSource != null ? dataSource.getJdbcUrl() : "not initialized";
-            String host = extractHostFromJdbcUrl(currentUrl);
-            int activeConnections = dataSource != null ? dataSource.getHikariPoolMXBean().getActiveConnections() : -1;
-            int idleConnections = dataSource != null ? dataSource.getHikariPoolMXBean().getIdleConnections() : -1;
-            int totalConnections = dataSource != null ? dataSource.getHikariPoolMXBean().getTotalConnections() : -1;
-            int threadsWaiting = dataSource != null ? dataSource.getHikariPoolMXBean().getThreadsAwaitingConnection() : -1;
-            Files.write(Paths.get(logPath), (String.format("{\"id\":\"log_%d_E\",\"timestamp\":%d,\"location\":\"DBConnection.java:134\",\"message\":\"Attempting to get connection - pool stats\",\"data\":{\"host\":\"%s\",\"activeConnections\":%d,\"idleConnections\":%d,\"totalConnections\":%d,\"threadsWaiting\":%d,\"threadName\":\"%s\"},\"sessionId\":\"debug-session\",\"runId\":\"run1\",\"hypothesisId\":\"E\"}\n", System.currentTimeMillis(), System.currentTimeMillis(), host, activeConnections, idleConnections, totalConnections, threadsWaiting, Thread.currentThread().getName())).getBytes(), java.nio.file.StandardOpenOption.CREATE, java.nio.file.StandardOpenOption.APPEND);
-        } catch (Exception e) {}
-        // #endregion
-        
-        Connection conn = getDataSource().getConnection();
-        
-        // #region agent log
-        try {
-            String logPath = "d:\\Java\\LTM\\Zalu\\.cursor\\debug.log";
-            String catalog = conn.getCatalog();
-            String metaUrl = conn.getMetaData().getURL();
-            String metaHost = extractHostFromJdbcUrl(metaUrl);
-            int activeAfter = dataSource != null ? dataSource.getHikariPoolMXBean().getActiveConnections() : -1;
-            int idleAfter = dataSource != null ? dataSource.getHikariPoolMXBean().getIdleConnections() : -1;
-            Files.write(Paths.get(logPath), (String.format("{\"id\":\"log_%d_E\",\"timestamp\":%d,\"location\":\"DBConnection.java:147\",\"message\":\"Connection obtained - pool stats after\",\"data\":{\"catalog\":\"%s\",\"host\":\"%s\",\"activeConnections\":%d,\"idleConnections\":%d,\"threadName\":\"%s\"},\"sessionId\":\"debug-session\",\"runId\":\"run1\",\"hypothesisId\":\"E\"}\n", System.currentTimeMillis(), System.currentTimeMillis(), catalog, metaHost, activeAfter, idleAfter, Thread.currentThread().getName())).getBytes(), java.nio.file.StandardOpenOption.CREATE, java.nio.file.StandardOpenOption.APPEND);
-        } catch (Exception e) {}
-        // #endregion
-        
-        return conn;
+        return getConnection(Pool.WRITE);
+    }
+
+    /**
+     * Get connection từ pool của nhóm truy vấn. Connection của {@link Pool#READ}/{@link Pool#ANALYTICS}
+     * là read-only và có thể trỏ tới replica.
+     */
+    public static Connection getConnection(Pool pool) throws SQLException {
+        UsageTracker tracker = usageTracker;
+        if (tracker == null || !tracker.isTracking()) {
+            return getDataSource(pool).getConnection();
+        }
+        long start = System.nanoTime();
+        return tracked(getDataSource(pool).getConnection(), pool, tracker, start);
+    }
+
+    /** Đo thời gian giữ connection của các thread mà tracker đang theo dõi; {@code null} để tắt. */
+    public static void setUsageTracker(UsageTracker tracker) {
+        usageTracker = tracker;
+    }
+
+    /** Bọc connection để báo cho tracker khi close (chỉ lần close đầu tiên được tính). */
+    private static Connection tracked(Connection conn, Pool pool, UsageTracker tracker, long start) {
+        boolean[] released = new boolean[1];
+        InvocationHandler handler = (proxy, method, args) -> {
+            if ("close".equals(method.getName()) && !released[0]) {
+                released[0] = true;
+                try {
+                    return method.invoke(conn, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                } finally {
+                    tracker.connectionReleased(pool, System.nanoTime() - start);
+                }
+            }
+            try {
+                return method.invoke(conn, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        };
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[] { Connection.class }, handler);
     }
 
     /**
      * Close pool khi app shutdown (gọi ở ChatServer hoặc ZaluApplication).
      * LƯU Ý: KHÔNG gọi method này khi logout, chỉ gọi khi app tắt hoàn toàn!
      */
-    public static void closePool() {
-        if (dataSource != null && !dataSource.isClosed()) {
-            dataSource.close();
-            dataSource = null;  // Reset để có thể tạo pool mới nếu cần
-            System.out.println("HikariCP DB Pool closed in DBConnection");
+    public static synchronized void closePool() {
+        // Pool đọc có thể là chính pool ghi (fallback): mỗi pool chỉ đóng một lần
+        Set<HikariDataSource> open = Collections.newSetFromMap(new IdentityHashMap<>());
+        open.addAll(dataSources.values());
+        dataSources.clear();
+        for (HikariDataSource dataSource : open) {
+            if (!dataSource.isClosed()) {
+                dataSource.close();
+                System.out.println("HikariCP DB Pool '" + dataSource.getPoolName() + "' closed in DBConnection");
+            }
         }
     }
-    
+
     /**
-     * Kiểm tra xem pool có đang hoạt động không
+     * Kiểm tra xem pool ghi có đang hoạt động không
      */
-    public static boolean isPoolActive() {
+    public static synchronized boolean isPoolActive() {
+        HikariDataSource dataSource = dataSources.get(Pool.WRITE);
         return dataSource != null && !dataSource.isClosed();
     }
 
+    /**
+     * Pool đọc có đang dùng chung pool ghi không (tắt db.pool.split hoặc replica lỗi lúc khởi tạo).
+     */
+    public static synchronized boolean isSharedWithWrite(Pool pool) {
+        return pool != Pool.WRITE && dataSources.containsKey(pool)
+                && dataSources.get(pool) == dataSources.get(Pool.WRITE);
+    }
+
     /**
      * Test connection (cho TestConnection.java).
      * @return true nếu connect OK.
@@ -197,33 +298,13 @@ public class DBConnection {
     public static boolean testConnection() {
         try (Connection conn = getConnection()) {
             System.out.println("DB Connection test: SUCCESS - " + conn.getCatalog());
-            
-            // #region agent log
-            try {
-                String logPath = "d:\\Java\\LTM\\Zalu\\.cursor\\debug.log";
-                String metaUrl = conn.getMetaData().getURL();
-                String host = extractHostFromJdbcUrl(metaUrl);
-                Files.write(Paths.get(logPath), (String.format("{\"id\":\"log_%d_D\",\"timestamp\":%d,\"location\":\"DBConnection.java:123\",\"message\":\"Connection test successful\",\"data\":{\"catalog\":\"%s\",\"host\":\"%s\",\"canConnectFromRemote\":%s},\"sessionId\":\"debug-session\",\"runId\":\"run1\",\"hypothesisId\":\"D\"}\n", System.currentTimeMillis(), System.currentTimeMillis(), conn.getCatalog(), host, !"localhost".equals(host) && !"127.0.0.1".equals(host))).getBytes(), java.nio.file.StandardOpenOption.CREATE, java.nio.file.StandardOpenOption.APPEND);
-            } catch (Exception e) {}
-            // #endregion
-            
             return true;
         } catch (SQLException e) {
             System.err.println("DB Connection test: FAIL - " + e.getMessage());
-            
-            // #region agent log
-            try {
-                String logPath = "d:\\Java\\LTM\\Zalu\\.cursor\\debug.log";
-                String errorMsg = e.getMessage();
-                boolean isConnectionRefused = errorMsg != null && (errorMsg.contains("Connection refused") || errorMsg.contains("Communications link failure"));
-                Files.write(Paths.get(logPath), (String.format("{\"id\":\"log_%d_D\",\"timestamp\":%d,\"location\":\"DBConnection.java:130\",\"message\":\"Connection test failed\",\"data\":{\"error\":\"%s\",\"isConnectionRefused\":%s,\"possibleRemoteIssue\":%s},\"sessionId\":\"debug-session\",\"runId\":\"run1\",\"hypothesisId\":\"D\"}\n", System.currentTimeMillis(), System.currentTimeMillis(), errorMsg, isConnectionRefused, isConnectionRefused)).getBytes(), java.nio.file.StandardOpenOption.CREATE, java.nio.file.StandardOpenOption.APPEND);
-            } catch (Exception ex) {}
-            // #endregion
-            
             return false;
         }
     }
-    
+
     /**
      * Extract host từ JDBC URL để kiểm tra
      */
@@ -240,7 +321,7 @@ public class DBConnection {
         } catch (Exception e) {}
         return "unknown";
     }
-    
+
     /**
      * Extract port từ JDBC URL
      */
@@ -258,4 +339,3 @@ public class DBConnection {
         return 3306;
     }
 }
-
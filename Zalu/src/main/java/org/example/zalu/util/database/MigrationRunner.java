@@ -0,0 +1,168 @@
+package org.example.zalu.util.database;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Chạy các migration có đánh số (src/main/resources/db/migration/V&lt;n&gt;__*.sql) khi server khởi động
+ * và ghi các phiên bản đã chạy vào bảng {@value #VERSION_TABLE}.
+ * <p>
+ * DB cũ đã chạy tay các script trước khi có bảng phiên bản vẫn nâng cấp được: câu lệnh báo bảng/cột/index
+ * đã tồn tại được bỏ qua, và migration có {@code baseline} chỉ được đánh dấu là đã chạy nếu DB đã có
+ * capability đó (tránh chạy lại phần chuyển dữ liệu).
+ */
+public class MigrationRunner {
+    private static final Logger logger = LoggerFactory.getLogger(MigrationRunner.class);
+
+    public static final String VERSION_TABLE = "schema_version";
+
+    /** Lỗi "đã tồn tại": MySQL 1050/1060/1061, H2 42101/42111/42121 */
+    private static final Set<Integer> ALREADY_EXISTS_CODES = Set.of(1050, 1060, 1061, 42101, 42111, 42121);
+
+    /**
+     * Một migration. {@code baseline}: capability mà migration này tạo ra; DB đã có sẵn thì chỉ ghi
+     * phiên bản, không chạy script (null để luôn chạy).
+     */
+    public record Migration(int version, String description, String sql, SchemaCapability baseline) {
+
+        /** Đọc script từ classpath (db/migration/...). */
+        public static Migration fromResource(int version, String description, String resource,
+                SchemaCapability baseline) {
+            try (InputStream is = MigrationRunner.class.getResourceAsStream("/db/migration/" + resource)) {
+                if (is == null) {
+                    throw new IllegalStateException("Không tìm thấy migration " + resource);
+                }
+                return new Migration(version, description, new String(is.readAllBytes(), StandardCharsets.UTF_8),
+                        baseline);
+            } catch (IOException e) {
+                throw new IllegalStateException("Không đọc được migration " + resource, e);
+            }
+        }
+    }
+
+    /** Các migration của ứng dụng, theo thứ tự phiên bản. */
+    public static List<Migration> defaultMigrations() {
+        return List.of(
+                Migration.fromResource(1, "pins_and_roles", "V1__pins_and_roles.sql", null),
+                Migration.fromResource(2, "reports", "V2__reports.sql", null),
+                Migration.fromResource(3, "admin_features", "V3__admin_features.sql", null),
+                Migration.fromResource(4, "blob_store", "V4__blob_store.sql", SchemaCapability.MESSAGE_FILE_REF),
+                Migration.fromResource(5, "history_paging", "V5__history_paging.sql", null),
+                Migration.fromResource(6, "delta_sync", "V6__delta_sync.sql", SchemaCapability.MESSAGE_CHANGED_AT),
+                Migration.fromResource(7, "unread_counts", "V7__unread_counts.sql", null),
+                Migration.fromResource(8, "read_cursors", "V8__read_cursors.sql", SchemaCapability.READ_CURSORS),
+                Migration.fromResource(9, "conversations", "V9__conversations.sql", null),
+                Migration.fromResource(10, "avatar_versions", "V10__avatar_versions.sql", null));
+    }
+
+    private final List<Migration> migrations;
+
+    public MigrationRunner(List<Migration> migrations) {
+        this.migrations = new ArrayList<>(migrations);
+        this.migrations.sort(Comparator.comparingInt(Migration::version));
+    }
+
+    /**
+     * Chạy các migration chưa có trong {@value #VERSION_TABLE}. Dừng ở migration lỗi đầu tiên (các
+     * phiên bản sau không chạy), phiên bản lỗi không được ghi lại nên lần khởi động sau sẽ thử lại.
+     *
+     * @return số migration đã chạy hoặc đánh dấu
+     */
+    public int migrate(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS " + VERSION_TABLE + " ("
+                    + "version INT PRIMARY KEY, "
+                    + "description VARCHAR(200) NOT NULL, "
+                    + "installed_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP)");
+        }
+        Set<Integer> applied = appliedVersions(conn);
+        SchemaRegistry.Snapshot before = SchemaRegistry.detect(conn);
+        int count = 0;
+        for (Migration migration : migrations) {
+            if (applied.contains(migration.version())) {
+                continue;
+            }
+            if (migration.baseline() != null && before.has(migration.baseline())) {
+                logger.info("✓ Migration V{} ({}) đã có sẵn trong DB, chỉ ghi phiên bản", migration.version(),
+                        migration.description());
+            } else {
+                logger.info("→ Chạy migration V{} ({})", migration.version(), migration.description());
+                try (Statement stmt = conn.createStatement()) {
+                    for (String sql : statements(migration.sql())) {
+                        execute(stmt, sql);
+                    }
+                } catch (SQLException e) {
+                    logger.error("❌ Migration V{} ({}) lỗi: {}", migration.version(), migration.description(),
+                            e.getMessage());
+                    throw e;
+                }
+            }
+            try (PreparedStatement pstmt = conn.prepareStatement(
+                    "INSERT INTO " + VERSION_TABLE + " (version, description) VALUES (?, ?)")) {
+                pstmt.setInt(1, migration.version());
+                pstmt.setString(2, migration.description());
+                pstmt.executeUpdate();
+            }
+            count++;
+        }
+        return count;
+    }
+
+    private void execute(Statement stmt, String sql) throws SQLException {
+        try {
+            stmt.execute(sql);
+        } catch (SQLException e) {
+            if (!ALREADY_EXISTS_CODES.contains(e.getErrorCode())) {
+                throw e;
+            }
+            logger.debug("Bỏ qua (đã tồn tại): {}", e.getMessage());
+        }
+    }
+
+    private Set<Integer> appliedVersions(Connection conn) throws SQLException {
+        Set<Integer> versions = new HashSet<>();
+        try (PreparedStatement pstmt = conn.prepareStatement("SELECT version FROM " + VERSION_TABLE);
+                ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                versions.add(rs.getInt(1));
+            }
+        }
+        return versions;
+    }
+
+    /** Tách script thành các câu lệnh: bỏ dòng chú thích "--", mỗi câu kết thúc bằng ";" cuối dòng. */
+    static List<String> statements(String script) {
+        List<String> result = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        for (String line : script.split("\r?\n")) {
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("--")) {
+                continue;
+            }
+            current.append(line).append('\n');
+            if (trimmed.endsWith(";")) {
+                String sql = current.toString().trim();
+                result.add(sql.substring(0, sql.length() - 1));
+                current.setLength(0);
+            }
+        }
+        if (!current.toString().isBlank()) {
+            result.add(current.toString().trim());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,42 @@
+package org.example.zalu.util.database;
+
+/**
+ * Các phần schema tùy chọn mà DAO cần biết DB đã có hay chưa.
+ * Mỗi capability tương ứng một cột (hoặc một bảng khi {@code column} là null).
+ */
+public enum SchemaCapability {
+    /** messages.is_pinned: ghim tin nhắn */
+    MESSAGE_PINNED("messages", "is_pinned"),
+    /** messages.file_ref: file đính kèm nằm trong blob store */
+    MESSAGE_FILE_REF("messages", "file_ref"),
+    /** messages.changed_at: tombstone cho đồng bộ delta */
+    MESSAGE_CHANGED_AT("messages", "changed_at"),
+    /** group_members.role: admin/member */
+    GROUP_MEMBER_ROLE("group_members", "role"),
+    /** groups.avatar_data */
+    GROUP_AVATAR("groups", "avatar_data"),
+    /** groups.created_by */
+    GROUP_CREATED_BY("groups", "created_by"),
+    /** Bảng read_cursors: con trỏ đã đọc theo thành viên */
+    READ_CURSORS("read_cursors", null),
+    /** conversations.last_seq: tin nhắn có conversation_id/seq (thêm cuối cùng trong V9) */
+    CONVERSATION_SEQ("conversations", "last_seq"),
+    /** users.avatar_version: avatar có phiên bản và ảnh dựng sẵn (thêm cuối cùng trong V10) */
+    AVATAR_VERSION("users", "avatar_version");
+
+    private final String table;
+    private final String column;
+
+    SchemaCapability(String table, String column) {
+        this.table = table;
+        this.column = column;
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    public String getColumn() {
+        return column;
+    }
+}
@@ -0,0 +1,123 @@
+package org.example.zalu.util.database;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Ảnh chụp schema của DB (phiên bản migration và các {@link SchemaCapability} đang có), đọc một lần
+ * khi server khởi động sau {@link MigrationRunner}.
+ * <p>
+ * DAO hỏi {@link #has(SchemaCapability)} thay vì dò DatabaseMetaData ở mỗi lần gọi, nên đường chạy chính
+ * không mượn thêm kết nối chỉ để kiểm tra cột. Nếu chưa ai gọi {@link #refresh()} (client, test, công cụ
+ * dòng lệnh), lần hỏi đầu tiên tự đọc schema một lần.
+ */
+public final class SchemaRegistry {
+    private static final Logger logger = LoggerFactory.getLogger(SchemaRegistry.class);
+
+    private static volatile Snapshot current;
+
+    private SchemaRegistry() {
+    }
+
+    /**
+     * Schema tại một thời điểm. Đối tượng mới được tạo mỗi lần đọc lại, nên có thể dùng làm khóa cho
+     * các câu SQL đã dựng sẵn theo schema.
+     */
+    public record Snapshot(int version, Set<SchemaCapability> capabilities) {
+        public Snapshot {
+            capabilities = capabilities.isEmpty() ? Collections.emptySet()
+                    : Collections.unmodifiableSet(EnumSet.copyOf(capabilities));
+        }
+
+        public boolean has(SchemaCapability capability) {
+            return capabilities.contains(capability);
+        }
+    }
+
+    public static Snapshot current() {
+        Snapshot snapshot = current;
+        if (snapshot == null) {
+            synchronized (SchemaRegistry.class) {
+                if (current == null) {
+                    try {
+                        current = load();
+                    } catch (SQLException e) {
+                        logger.warn("⚠ Không đọc được schema, coi như chưa có phần tùy chọn nào: {}",
+                                e.getMessage());
+                        current = new Snapshot(0, EnumSet.noneOf(SchemaCapability.class));
+                    }
+                }
+                snapshot = current;
+            }
+        }
+        return snapshot;
+    }
+
+    public static boolean has(SchemaCapability capability) {
+        return current().has(capability);
+    }
+
+    /** Đọc lại schema từ DB (gọi sau khi chạy migration). */
+    public static synchronized Snapshot refresh() throws SQLException {
+        current = load();
+        logger.info("✓ Schema phiên bản {}, capability: {}", current.version(), current.capabilities());
+        return current;
+    }
+
+    /** Dùng schema cho trước thay vì đọc từ DB (test, hoặc DAO chạy không có server). */
+    public static synchronized void install(Snapshot snapshot) {
+        current = snapshot;
+    }
+
+    private static Snapshot load() throws SQLException {
+        try (Connection conn = DBConnection.getConnection()) {
+            return detect(conn);
+        }
+    }
+
+    /** Đọc phiên bản migration và các capability bằng một kết nối. */
+    public static Snapshot detect(Connection conn) throws SQLException {
+        DatabaseMetaData meta = conn.getMetaData();
+        String catalog = conn.getCatalog();
+        Set<SchemaCapability> capabilities = EnumSet.noneOf(SchemaCapability.class);
+        for (SchemaCapability capability : SchemaCapability.values()) {
+            if (exists(meta, catalog, capability.getTable(), capability.getColumn())) {
+                capabilities.add(capability);
+            }
+        }
+        int version = 0;
+        if (exists(meta, catalog, MigrationRunner.VERSION_TABLE, null)) {
+            try (PreparedStatement pstmt = conn.prepareStatement(
+                    "SELECT COALESCE(MAX(version), 0) FROM " + MigrationRunner.VERSION_TABLE);
+                    ResultSet rs = pstmt.executeQuery()) {
+                version = rs.next() ? rs.getInt(1) : 0;
+            }
+        }
+        return new Snapshot(version, capabilities);
+    }
+
+    // MySQL trả tên thường, H2 trả tên hoa: thử cả hai như các DAO trước đây
+    private static boolean exists(DatabaseMetaData meta, String catalog, String table, String column)
+            throws SQLException {
+        return existsExact(meta, catalog, table, column)
+                || existsExact(meta, catalog, table.toUpperCase(), column != null ? column.toUpperCase() : null);
+    }
+
+    private static boolean existsExact(DatabaseMetaData meta, String catalog, String table, String column)
+            throws SQLException {
+        try (ResultSet rs = column == null
+                ? meta.getTables(catalog, null, table, null)
+                : meta.getColumns(catalog, null, table, column)) {
+            return rs.next();
+        }
+    }
+}
@@ -17,13 +17,11 @@ import javafx.scene.layout.VBox;
 import javafx.stage.Modality;
 import javafx.stage.Screen;
 import javafx.stage.Stage;
-import org.example.zalu.client.ChatClient;
+import org.example.zalu.client.FileTransferClient;
 import org.example.zalu.model.Message;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
@@ -32,7 +30,6 @@ import java.util.List;
 import java.util.Locale;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
-import org.example.zalu.client.ChatEventManager;
 
 public class ChatRenderer {
     private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(ChatRenderer.class);
@@ -40,6 +37,7 @@ public class ChatRenderer {
     private final VBox chatArea;
     private final ScrollPane chatScrollPane;
     private HBox typingIndicatorNode = null; // Node hiển thị typing indicator
+    private HBox seenIndicatorNode = null; // Dòng "Đã xem bởi N" dưới tin cuối của nhóm
     private boolean userScrolledUp = false; // Track if user manually scrolled up
     private boolean programmaticScroll = false; // Flag to ignore listener during programmatic scroll
     private static final double SCROLL_THRESHOLD = 0.95; // Consider "at bottom" if > 95%
@@ -118,10 +116,15 @@ public class ChatRenderer {
                 for (Node node : reversed) {
                     chatArea.getChildren().add(0, node);
                 }
-                // Adjust scroll: Maintain position (push down by added height ratio)
+                // Giữ nguyên tin đang xem: layout ngay để đo chiều cao mới, rồi dời vvalue theo phần vừa chèn
+                chatScrollPane.applyCss();
+                chatScrollPane.layout();
+                double viewport = chatScrollPane.getViewportBounds().getHeight();
                 double newHeight = chatArea.getHeight();
-                double addedRatio = (newHeight - oldHeight) / newHeight;
-                chatScrollPane.setVvalue(oldVvalue + addedRatio);
+                if (newHeight > viewport) {
+                    double oldOffset = oldVvalue * Math.max(0, oldHeight - viewport);
+                    chatScrollPane.setVvalue((oldOffset + newHeight - oldHeight) / (newHeight - viewport));
+                }
             } else {
                 // Append to bottom
                 chatArea.getChildren().addAll(messageNodes);
@@ -382,6 +385,7 @@ public class ChatRenderer {
             if (chatArea != null) {
                 chatArea.getChildren().clear();
                 typingIndicatorNode = null; // Reset typing indicator
+                seenIndicatorNode = null;
                 userScrolledUp = false; // Reset scroll flag for new chat
             }
         });
@@ -440,6 +444,48 @@ public class ChatRenderer {
         });
     }
 
+    /**
+     * Hiển thị "Đã xem bởi N" dưới tin nhắn cuối (chat nhóm), thay cho dòng cũ nếu có
+     *
+     * @param seenCount Số thành viên khác đã đọc tới tin cuối
+     */
+    public void showSeenIndicator(int seenCount) {
+        Platform.runLater(() -> {
+            if (chatArea == null)
+                return;
+            chatArea.getChildren().remove(seenIndicatorNode);
+
+            Label seenLabel = new Label("Đã xem bởi " + seenCount);
+            seenLabel.getStyleClass().add("message-read-status");
+            seenLabel.setStyle("-fx-font-size: 11px; -fx-text-fill: #8a8d91;");
+
+            HBox seenBox = new HBox(seenLabel);
+            seenBox.setAlignment(Pos.CENTER_RIGHT);
+            seenBox.setPadding(new Insets(0, 16, 4, 0));
+
+            seenIndicatorNode = seenBox;
+            // Giữ typing indicator ở cuối cùng
+            int index = typingIndicatorNode != null ? chatArea.getChildren().indexOf(typingIndicatorNode) : -1;
+            if (index >= 0) {
+                chatArea.getChildren().add(index, seenIndicatorNode);
+            } else {
+                chatArea.getChildren().add(seenIndicatorNode);
+            }
+        });
+    }
+
+    /**
+     * Ẩn dòng "Đã xem bởi N"
+     */
+    public void hideSeenIndicator() {
+        Platform.runLater(() -> {
+            if (chatArea != null && seenIndicatorNode != null) {
+                chatArea.getChildren().remove(seenIndicatorNode);
+                seenIndicatorNode = null;
+            }
+        });
+    }
+
     /**
      * Cập nhật read status của các tin nhắn đã gửi trong chat area
      * 
@@ -726,60 +772,38 @@ public class ChatRenderer {
         });
     }
 
-    // Download file (giữ nguyên, thêm msgId từ Message)
+    // Download file theo chunk thẳng xuống nơi lưu đã chọn, mở file khi tải xong
     private void downloadFile(int msgId, String fileName) {
-        String getCmd = "GET_FILE|" + msgId;
-        ChatClient.sendRequest(getCmd);
-        logger.info("Requesting download for msgId: {}, file: {}", msgId, fileName);
-
-        // Register callback để xử lý file download response
-        // Register callback để xử lý file download response
-        ChatEventManager.getInstance().registerFileDownloadCallback(msgId, downloadInfo -> {
-            if (downloadInfo != null) {
-                saveDownloadedFile(downloadInfo.getFileName(), downloadInfo.getFileData());
-            }
-        });
-    }
-
-    private void saveDownloadedFile(String fileName, byte[] fileData) {
-        if (fileData == null || fileData.length == 0) {
-            logger.warn("File data is null or empty");
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.setTitle("Lưu file");
+        fileChooser.setInitialFileName(fileName);
+        fileChooser.setInitialDirectory(new File(System.getProperty("user.home") + "/Downloads"));
+
+        // Lấy stage từ chatArea (nếu có)
+        Stage stage = (Stage) chatArea.getScene().getWindow();
+        File selectedFile = fileChooser.showSaveDialog(stage);
+        if (selectedFile == null) {
             return;
         }
-
-        Platform.runLater(() -> {
-            try {
-                // Mở file chooser để chọn nơi lưu
-                FileChooser fileChooser = new FileChooser();
-                fileChooser.setTitle("Lưu file");
-                fileChooser.setInitialFileName(fileName);
-                fileChooser.setInitialDirectory(new File(System.getProperty("user.home") + "/Downloads"));
-
-                // Lấy stage từ chatArea (nếu có)
-                Stage stage = (Stage) chatArea.getScene().getWindow();
-                File selectedFile = fileChooser.showSaveDialog(stage);
-
-                if (selectedFile != null) {
-                    // Lưu file
-                    try (FileOutputStream fos = new FileOutputStream(selectedFile)) {
-                        fos.write(fileData);
-                        fos.flush();
+        logger.info("Requesting download for msgId: {}, file: {}", msgId, fileName);
+        FileTransferClient.getInstance().download(msgId, selectedFile.toPath(),
+                new FileTransferClient.TransferListener() {
+                    @Override
+                    public void onComplete(int messageId) {
                         logger.info("File saved: {}", selectedFile.getAbsolutePath());
-
                         // Mở file nếu có thể
                         try {
                             java.awt.Desktop.getDesktop().open(selectedFile);
                         } catch (Exception e) {
                             logger.warn("Could not open file: {}", e.getMessage());
                         }
-                    } catch (IOException e) {
-                        logger.error("Error saving file", e);
                     }
-                }
-            } catch (Exception e) {
-                logger.error("Error in saveDownloadedFile", e);
-            }
-        });
+
+                    @Override
+                    public void onFailed(String reason) {
+                        logger.error("Error saving file {}: {}", fileName, reason);
+                    }
+                });
     }
 
     // Mới: Add message từ model (tích hợp isOwn từ senderId vs currentUserId)
@@ -799,7 +823,7 @@ public class ChatRenderer {
                 addVideoMessage(msg.getFileData(), msg.getFileName(), isOwn, msg.getCreatedAt(),
                         null, null, null, msg.getIsRead(), msg.getId());
             } else {
-                int size = msg.getFileData() != null ? msg.getFileData().length : 0;
+                int size = (int) msg.getFileSize();
                 addFileMessage(msg.getFileName(), size, isOwn, msg.getCreatedAt(),
                         null, null, null, msg.getIsRead(), msg.getId());
             }
@@ -19,6 +19,7 @@ import javafx.scene.paint.Color;
 import javafx.scene.shape.Circle;
 import javafx.util.Duration;
 
+import org.example.zalu.client.FileTransferClient;
 import org.example.zalu.service.AvatarService;
 import org.example.zalu.util.audio.VoicePlayer;
 import org.example.zalu.util.IconUtil;
@@ -336,77 +337,82 @@ public class MessageBubbleFactory {
     }
 
     /**
-     * Download file và lưu về máy với FileChooser
+     * Download file và lưu về máy với FileChooser.
+     * File được tải theo chunk thẳng xuống đĩa, không giữ cả file trong RAM.
      */
     private static void downloadAndSaveFile(int messageId, String fileName) {
-        // Đăng ký callback để nhận file data
-        org.example.zalu.client.ChatEventManager eventManager = org.example.zalu.client.ChatEventManager.getInstance();
-        eventManager.registerFileDownloadCallback(messageId, fileInfo -> {
-            if (fileInfo != null && fileInfo.getFileData() != null) {
-                Platform.runLater(() -> {
-                    javafx.stage.FileChooser fileChooser = new javafx.stage.FileChooser();
-                    fileChooser.setTitle("Lưu file");
-                    fileChooser.setInitialFileName(fileName);
-
-                    java.io.File file = fileChooser.showSaveDialog(null);
-                    if (file != null) {
-                        try {
-                            java.nio.file.Files.write(file.toPath(), fileInfo.getFileData());
-                            showNotification("Thành công", "Đã lưu file: " + file.getName(),
-                                    javafx.scene.control.Alert.AlertType.INFORMATION);
-                        } catch (Exception ex) {
-                            showNotification("Lỗi", "Không thể lưu file: " + ex.getMessage(),
-                                    javafx.scene.control.Alert.AlertType.ERROR);
-                        }
-                    }
-                });
-            } else {
-                Platform.runLater(() -> showNotification("Lỗi", "Không thể tải file",
+        javafx.stage.FileChooser fileChooser = new javafx.stage.FileChooser();
+        fileChooser.setTitle("Lưu file");
+        fileChooser.setInitialFileName(fileName);
+
+        java.io.File file = fileChooser.showSaveDialog(null);
+        if (file == null) {
+            return;
+        }
+        FileTransferClient.getInstance().download(messageId, file.toPath(), new FileTransferClient.TransferListener() {
+            @Override
+            public void onComplete(int id) {
+                Platform.runLater(() -> showNotification("Thành công", "Đã lưu file: " + file.getName(),
+                        javafx.scene.control.Alert.AlertType.INFORMATION));
+            }
+
+            @Override
+            public void onFailed(String reason) {
+                Platform.runLater(() -> showNotification("Lỗi", "Không thể tải file: " + reason,
                         javafx.scene.control.Alert.AlertType.ERROR));
             }
         });
-
-        // Gửi request tải file
-        org.example.zalu.client.ChatClient.sendRequest("GET_FILE|" + messageId);
     }
 
     /**
-     * Download file và mở ngay
+     * Download file và mở ngay. File tải về được giữ trong thư mục tạm của Zalu,
+     * mở lại lần sau không cần tải lại.
      */
     private static void downloadAndOpenFile(int messageId, String fileName) {
-        // Đăng ký callback để nhận file data
-        org.example.zalu.client.ChatEventManager eventManager = org.example.zalu.client.ChatEventManager.getInstance();
-        eventManager.registerFileDownloadCallback(messageId, fileInfo -> {
-            if (fileInfo != null && fileInfo.getFileData() != null) {
-                Platform.runLater(() -> {
-                    try {
-                        // Tạo file tạm
-                        java.io.File tempFile = java.io.File.createTempFile("zalu_", "_" + fileName);
-                        tempFile.deleteOnExit();
-                        java.nio.file.Files.write(tempFile.toPath(), fileInfo.getFileData());
-
-                        // Mở file với ứng dụng mặc định
-                        if (java.awt.Desktop.isDesktopSupported()) {
-                            java.awt.Desktop.getDesktop().open(tempFile);
-                            showNotification("Thành công", "Đã mở file: " + fileName,
-                                    javafx.scene.control.Alert.AlertType.INFORMATION);
-                        } else {
-                            showNotification("Lỗi", "Hệ thống không hỗ trợ mở file",
-                                    javafx.scene.control.Alert.AlertType.WARNING);
-                        }
-                    } catch (Exception ex) {
-                        showNotification("Lỗi", "Không thể mở file: " + ex.getMessage(),
-                                javafx.scene.control.Alert.AlertType.ERROR);
-                    }
-                });
-            } else {
-                Platform.runLater(() -> showNotification("Lỗi", "Không thể tải file",
+        java.nio.file.Path target = java.nio.file.Paths.get(System.getProperty("java.io.tmpdir"), "zalu-downloads",
+                messageId + "_" + fileName);
+        if (java.nio.file.Files.exists(target)) {
+            openFile(target.toFile(), fileName);
+            return;
+        }
+        try {
+            java.nio.file.Files.createDirectories(target.getParent());
+        } catch (java.io.IOException ex) {
+            showNotification("Lỗi", "Không thể mở file: " + ex.getMessage(),
+                    javafx.scene.control.Alert.AlertType.ERROR);
+            return;
+        }
+        FileTransferClient.getInstance().download(messageId, target, new FileTransferClient.TransferListener() {
+            @Override
+            public void onComplete(int id) {
+                Platform.runLater(() -> openFile(target.toFile(), fileName));
+            }
+
+            @Override
+            public void onFailed(String reason) {
+                Platform.runLater(() -> showNotification("Lỗi", "Không thể tải file: " + reason,
                         javafx.scene.control.Alert.AlertType.ERROR));
             }
         });
+    }
 
-        // Gửi request tải file
-        org.example.zalu.client.ChatClient.sendRequest("GET_FILE|" + messageId);
+    /**
+     * Mở file với ứng dụng mặc định
+     */
+    private static void openFile(java.io.File file, String fileName) {
+        try {
+            if (java.awt.Desktop.isDesktopSupported()) {
+                java.awt.Desktop.getDesktop().open(file);
+                showNotification("Thành công", "Đã mở file: " + fileName,
+                        javafx.scene.control.Alert.AlertType.INFORMATION);
+            } else {
+                showNotification("Lỗi", "Hệ thống không hỗ trợ mở file",
+                        javafx.scene.control.Alert.AlertType.WARNING);
+            }
+        } catch (Exception ex) {
+            showNotification("Lỗi", "Không thể mở file: " + ex.getMessage(),
+                    javafx.scene.control.Alert.AlertType.ERROR);
+        }
     }
 
     /**
@@ -520,12 +526,13 @@ public class MessageBubbleFactory {
 
             placeholder.getChildren().addAll(iconLabel, textLabel);
 
-            if (messageId > 0) {
+            if (onClick != null) {
+                // Người gọi tự tải ảnh (GET_FILE) và vẽ lại bubble khi có dữ liệu
+                placeholder.setOnMouseClicked(e -> onClick.run());
+            } else if (messageId > 0) {
                 placeholder.setOnMouseClicked(e -> {
                     org.example.zalu.client.ChatClient.sendRequest("GET_FILE|" + messageId);
                 });
-            } else if (onClick != null) {
-                placeholder.setOnMouseClicked(e -> onClick.run());
             }
 
             contentBox.getChildren().add(placeholder);
@@ -732,7 +739,10 @@ public class MessageBubbleFactory {
         // Xử lý play/pause
         playPauseButton.setOnAction(e -> {
             if (audioData == null || audioData.length == 0) {
-                if (messageId > 0) {
+                if (onPlayRequested != null) {
+                    onPlayRequested.run();
+                    durationLabel.setText("Đang tải...");
+                } else if (messageId > 0) {
                     org.example.zalu.client.ChatClient.sendRequest("GET_FILE|" + messageId);
                     durationLabel.setText("Đang tải...");
                 }
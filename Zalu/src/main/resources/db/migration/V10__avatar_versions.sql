@@ -0,0 +1,24 @@
+-- ============================================================
+-- Zalu Chat Application - Migration: Phiên bản avatar và ảnh dựng sẵn
+-- Version : 10 (2026-10)
+-- Mô tả  : users.avatar_version tăng mỗi lần ảnh đại diện đổi (avatar_hash = SHA-256 của ảnh
+--          gốc, tải lại đúng ảnh cũ thì không tăng). user_avatar_variants giữ ảnh đã thu nhỏ
+--          theo kích thước UI (48, 100), gắn với phiên bản đã dựng ra nó; bản của phiên bản cũ
+--          bị bỏ qua khi đọc. Client gửi phiên bản đang có và chỉ nhận lại avatar đã đổi.
+--          Mọi user bắt đầu ở phiên bản 1; ảnh thu nhỏ của avatar đã có được dựng dần khi có
+--          người xin. Cột avatar_version được thêm cuối cùng, trong một lệnh: server chỉ dùng
+--          đường mới khi cột này đã có.
+-- ============================================================
+
+CREATE TABLE IF NOT EXISTS user_avatar_variants (
+    user_id INT NOT NULL,
+    size INT NOT NULL,
+    version INT NOT NULL,
+    data MEDIUMBLOB NOT NULL,
+    PRIMARY KEY (user_id, size),
+    CONSTRAINT fk_avatar_variants_user FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE
+) ENGINE=InnoDB;
+
+ALTER TABLE users ADD COLUMN avatar_hash CHAR(64) NULL;
+
+ALTER TABLE users ADD COLUMN avatar_version INT NOT NULL DEFAULT 1;
@@ -0,0 +1,20 @@
+-- ============================================================
+-- Zalu Chat Application - Migration: Ghim tin nhắn, vai trò thành viên, avatar nhóm
+-- Version : 1
+-- Mô tả  : Các cột đã có trong schema.sql nhưng DB tạo từ bản cũ có thể thiếu:
+--          messages.is_pinned, group_members.role, groups.avatar_data.
+--          Trước đây DAO dò DatabaseMetaData ở mỗi lần gọi để tự bỏ qua các cột này.
+-- ============================================================
+
+ALTER TABLE messages
+    ADD COLUMN is_pinned BOOLEAN DEFAULT FALSE;
+
+CREATE INDEX idx_messages_is_pinned ON messages (is_pinned);
+
+ALTER TABLE group_members
+    ADD COLUMN role VARCHAR(20) NOT NULL DEFAULT 'member';
+
+CREATE INDEX idx_group_members_role ON group_members (role);
+
+ALTER TABLE `groups`
+    ADD COLUMN avatar_data LONGBLOB;
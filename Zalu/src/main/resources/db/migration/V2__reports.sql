@@ -1,8 +1,8 @@
--- ============================================
--- Zalu Chat Application - Migration Script
--- Adds `user_reports` table for reporting feature
--- ============================================
-USE laptrinhmang_db;
+-- ============================================================
+-- Zalu Chat Application - Migration: Báo cáo người dùng
+-- Version : 2
+-- Mô tả  : Thêm bảng user_reports cho chức năng báo cáo
+-- ============================================================
 
 CREATE TABLE IF NOT EXISTS user_reports (
     id INT AUTO_INCREMENT PRIMARY KEY,
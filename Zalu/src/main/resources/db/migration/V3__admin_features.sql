@@ -0,0 +1,12 @@
+-- ============================================================
+-- Zalu Chat Application - Migration: Admin Features
+-- Version : 3 (trước đây 2.1, 2026-08)
+-- Mô tả  : Thêm cột is_locked vào bảng users
+-- ============================================================
+
+ALTER TABLE users
+    ADD COLUMN is_locked BOOLEAN NOT NULL DEFAULT FALSE
+        COMMENT 'Tài khoản bị khóa bởi Admin: 0=bình thường, 1=bị khóa';
+
+-- Đảm bảo mọi user hiện tại đều có is_locked = FALSE (an toàn)
+UPDATE users SET is_locked = FALSE WHERE is_locked IS NULL;
@@ -0,0 +1,19 @@
+-- ============================================================
+-- Zalu Chat Application - Migration: Blob Store
+-- Version : 4 (trước đây 2.2, 2026-10)
+-- Mô tả  : File đính kèm chuyển từ messages.file_data (LONGBLOB) sang
+--          blob store trên đĩa của server (server.blob.dir), khóa theo SHA-256.
+--          Hàng messages chỉ giữ file_ref + file_size.
+--          Dữ liệu cũ trong file_data được server tự chuyển dần ra đĩa khi đang
+--          chạy (server.blob.migrate=true), không cần dừng server.
+-- ============================================================
+
+ALTER TABLE messages
+    ADD COLUMN file_ref CHAR(64) NULL
+        COMMENT 'SHA-256 của nội dung file trong blob store';
+
+ALTER TABLE messages
+    ADD COLUMN file_size BIGINT NULL
+        COMMENT 'Dung lượng file (bytes)';
+
+CREATE INDEX idx_messages_file_ref ON messages (file_ref);
@@ -0,0 +1,13 @@
+-- ============================================================
+-- Zalu Chat Application - Migration: Phân trang lịch sử chat
+-- Version : 5 (trước đây 2.3, 2026-10)
+-- Mô tả  : Index cho GET_HISTORY_PAGE (phân trang theo id tin nhắn).
+--          Mỗi trang chỉ quét một khoảng index rồi dừng ở LIMIT,
+--          không phải sắp xếp cả cuộc trò chuyện.
+-- ============================================================
+
+-- Chat 1-1: (sender_id, receiver_id) rồi tới id
+CREATE INDEX idx_messages_pair_id ON messages (sender_id, receiver_id, id);
+
+-- Chat nhóm: group_id rồi tới id
+CREATE INDEX idx_messages_group_id ON messages (group_id, id);
@@ -0,0 +1,13 @@
+-- ============================================================
+-- Zalu Chat Application - Migration: Đồng bộ tin nhắn theo delta khi đăng nhập
+-- Version : 6 (trước đây 2.4, 2026-10)
+-- Mô tả  : messages.changed_at ghi thời điểm tin nhắn bị xóa/thu hồi/sửa.
+--          Khi đăng nhập, client gửi id tin nhắn lớn nhất đã có; server chỉ
+--          trả tin mới hơn cùng các tin cũ đã thay đổi từ lần đồng bộ trước
+--          (tìm theo idx_messages_changed_at), không gửi lại cả lịch sử.
+-- ============================================================
+
+ALTER TABLE messages
+    ADD COLUMN changed_at TIMESTAMP(3) NULL DEFAULT NULL AFTER created_at;
+
+CREATE INDEX idx_messages_changed_at ON messages (changed_at);
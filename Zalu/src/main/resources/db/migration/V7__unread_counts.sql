@@ -0,0 +1,8 @@
+-- ============================================================
+-- Zalu Chat Application - Migration: Đếm tin chưa đọc bằng một truy vấn
+-- Version : 7 (trước đây 2.5, 2026-10)
+-- Mô tả  : Index phủ cho MessageDAO.getUnreadCounts (GROUP BY theo người gửi/nhóm).
+--          Truy vấn chỉ đọc index, không phải đọc hàng messages (nội dung, file).
+-- ============================================================
+
+CREATE INDEX idx_messages_unread ON messages (receiver_id, is_read, sender_id, group_id);
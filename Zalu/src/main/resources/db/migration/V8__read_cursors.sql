@@ -0,0 +1,35 @@
+-- ============================================================
+-- Zalu Chat Application - Migration: Con trỏ đã đọc theo thành viên
+-- Version : 8 (trước đây 2.6, 2026-10)
+-- Mô tả  : Mỗi (user, cuộc trò chuyện) chỉ giữ một hàng read_cursors với id tin nhắn
+--          lớn nhất đã đọc. MARK_AS_READ chỉ upsert một hàng thay vì UPDATE is_read
+--          từng tin; số tin chưa đọc = số tin có id lớn hơn con trỏ; "đã xem bởi N"
+--          của nhóm đọc thẳng từ idx_read_cursors_chat, không quét messages.
+--          chat_id: id bạn bè với chat 1-1, -group_id với chat nhóm (như client).
+-- ============================================================
+
+CREATE TABLE IF NOT EXISTS read_cursors (
+    user_id INT NOT NULL,
+    chat_id INT NOT NULL,
+    last_read_message_id INT NOT NULL DEFAULT 0,
+    updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+    PRIMARY KEY (user_id, chat_id),
+    CONSTRAINT fk_read_cursors_user FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE,
+    INDEX idx_read_cursors_chat (chat_id, last_read_message_id)
+) ENGINE=InnoDB;
+
+-- Chat 1-1: con trỏ = tin lớn nhất đã có is_read = TRUE
+INSERT INTO read_cursors (user_id, chat_id, last_read_message_id)
+SELECT receiver_id, sender_id, MAX(id)
+FROM messages
+WHERE group_id IS NULL AND receiver_id IS NOT NULL AND is_read = TRUE
+GROUP BY receiver_id, sender_id
+ON DUPLICATE KEY UPDATE last_read_message_id = GREATEST(last_read_message_id, VALUES(last_read_message_id));
+
+-- Chat nhóm: is_read chưa bao giờ đúng cho tin nhóm, coi như thành viên đã đọc hết tới hiện tại
+INSERT INTO read_cursors (user_id, chat_id, last_read_message_id)
+SELECT gm.user_id, -gm.group_id, COALESCE(MAX(m.id), 0)
+FROM group_members gm
+LEFT JOIN messages m ON m.group_id = gm.group_id
+GROUP BY gm.user_id, gm.group_id
+ON DUPLICATE KEY UPDATE last_read_message_id = GREATEST(last_read_message_id, VALUES(last_read_message_id));
@@ -0,0 +1,67 @@
+-- ============================================================
+-- Zalu Chat Application - Migration: Cuộc trò chuyện và số thứ tự tin nhắn
+-- Version : 9 (2026-10)
+-- Mô tả  : Mỗi chat 1-1 (user_low < user_high) và mỗi nhóm có một hàng conversations.
+--          Tin nhắn mang conversation_id và seq tăng dần trong cuộc trò chuyện, nên lịch sử,
+--          phân trang và đếm chưa đọc là một lần quét dải trên (conversation_id, seq) thay vì
+--          OR giữa hai chiều sender/receiver. Tin cũ được đánh seq theo thứ tự id.
+--          last_seq được thêm cuối cùng: server chỉ dùng seq khi cột này đã có, và mọi lệnh
+--          đều chạy lại được nếu migration dừng giữa chừng.
+-- ============================================================
+
+CREATE TABLE IF NOT EXISTS conversations (
+    id INT AUTO_INCREMENT PRIMARY KEY,
+    user_low INT NULL,
+    user_high INT NULL,
+    group_id INT NULL,
+    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    UNIQUE KEY uq_conversations_pair (user_low, user_high),
+    UNIQUE KEY uq_conversations_group (group_id),
+    INDEX idx_conversations_user_high (user_high)
+) ENGINE=InnoDB;
+
+ALTER TABLE messages
+    ADD COLUMN conversation_id INT NULL,
+    ADD COLUMN seq INT NULL;
+
+INSERT IGNORE INTO conversations (user_low, user_high)
+SELECT DISTINCT LEAST(sender_id, receiver_id), GREATEST(sender_id, receiver_id)
+FROM messages
+WHERE group_id IS NULL AND receiver_id IS NOT NULL;
+
+INSERT IGNORE INTO conversations (group_id)
+SELECT id FROM `groups`;
+
+UPDATE messages m
+JOIN conversations c ON c.user_low = LEAST(m.sender_id, m.receiver_id)
+    AND c.user_high = GREATEST(m.sender_id, m.receiver_id)
+SET m.conversation_id = c.id
+WHERE m.group_id IS NULL AND m.conversation_id IS NULL;
+
+UPDATE messages m
+JOIN conversations c ON c.group_id = m.group_id
+SET m.conversation_id = c.id
+WHERE m.group_id IS NOT NULL AND m.conversation_id IS NULL;
+
+-- seq theo thứ tự id trong từng cuộc trò chuyện
+UPDATE messages m
+JOIN (
+    SELECT id, ROW_NUMBER() OVER (PARTITION BY conversation_id ORDER BY id) AS rn
+    FROM messages
+    WHERE conversation_id IS NOT NULL
+) r ON r.id = m.id
+SET m.seq = r.rn
+WHERE m.seq IS NULL;
+
+CREATE UNIQUE INDEX idx_messages_conversation_seq ON messages (conversation_id, seq);
+
+ALTER TABLE conversations ADD COLUMN last_seq INT NOT NULL DEFAULT 0;
+
+UPDATE conversations c
+JOIN (
+    SELECT conversation_id, MAX(seq) AS max_seq
+    FROM messages
+    WHERE conversation_id IS NOT NULL
+    GROUP BY conversation_id
+) s ON s.conversation_id = c.id
+SET c.last_seq = s.max_seq;
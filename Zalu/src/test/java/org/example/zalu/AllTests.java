@@ -3,8 +3,26 @@ package org.example.zalu;
 import org.example.zalu.dao.FriendDAOTest;
 import org.example.zalu.dao.MessageDAOTest;
 import org.example.zalu.dao.UserDAOTest;
+import org.example.zalu.protocol.WireCodecTest;
+import org.example.zalu.server.activity.ActivityLogWriterTest;
+import org.example.zalu.server.avatar.AvatarStoreTest;
+import org.example.zalu.server.command.CommandRegistryTest;
+import org.example.zalu.server.directory.UserDirectoryTest;
+import org.example.zalu.server.friend.FriendGraphCacheTest;
+import org.example.zalu.server.group.GroupMembershipCacheTest;
+import org.example.zalu.server.history.HistoryCursorTest;
+import org.example.zalu.server.history.HotConversationCacheTest;
+import org.example.zalu.server.metrics.CommandMetricsTest;
+import org.example.zalu.server.persist.MessagePersistPipelineTest;
+import org.example.zalu.server.presence.PresenceServiceTest;
+import org.example.zalu.server.search.MessageSearchIndexTest;
+import org.example.zalu.server.storage.BlobStoreTest;
+import org.example.zalu.server.transfer.FileTransferServiceTest;
+import org.example.zalu.server.unread.UnreadCounterServiceTest;
 import org.example.zalu.service.FriendServiceTest;
 import org.example.zalu.service.MessageUpdateServiceTest;
+import org.example.zalu.util.database.DBConnectionTest;
+import org.example.zalu.util.database.MigrationRunnerTest;
 import org.junit.platform.suite.api.SelectClasses;
 import org.junit.platform.suite.api.Suite;
 
@@ -18,7 +36,25 @@ import org.junit.platform.suite.api.Suite;
     MessageDAOTest.class,
     FriendDAOTest.class,
     FriendServiceTest.class,
-    MessageUpdateServiceTest.class
+    MessageUpdateServiceTest.class,
+    WireCodecTest.class,
+    CommandRegistryTest.class,
+    FileTransferServiceTest.class,
+    BlobStoreTest.class,
+    HistoryCursorTest.class,
+    UnreadCounterServiceTest.class,
+    GroupMembershipCacheTest.class,
+    FriendGraphCacheTest.class,
+    PresenceServiceTest.class,
+    ActivityLogWriterTest.class,
+    MessagePersistPipelineTest.class,
+    MigrationRunnerTest.class,
+    MessageSearchIndexTest.class,
+    UserDirectoryTest.class,
+    HotConversationCacheTest.class,
+    AvatarStoreTest.class,
+    DBConnectionTest.class,
+    CommandMetricsTest.class
 })
 public class AllTests {
     // Test suite class
@@ -77,6 +77,45 @@ public class MessageDAOTest {
         }
     }
     
+    @Test
+    @DisplayName("Test phân trang lịch sử theo id (keyset)")
+    void testGetMessagePageBetween() throws Exception {
+        try {
+            List<Message> latest = messageDAO.getMessagePageBetween(1, 2, Integer.MAX_VALUE, true, 5);
+            assertTrue(latest.size() <= 5, "Trang không được vượt quá limit");
+            for (int i = 1; i < latest.size(); i++) {
+                assertTrue(latest.get(i - 1).getId() < latest.get(i).getId(), "Trang phải tăng dần theo id");
+            }
+            if (!latest.isEmpty()) {
+                int oldestId = latest.get(0).getId();
+                List<Message> older = messageDAO.getMessagePageBetween(1, 2, oldestId, true, 5);
+                assertTrue(older.stream().allMatch(m -> m.getId() < oldestId), "Trang cũ hơn chỉ có id nhỏ hơn mốc");
+            }
+        } catch (MessageException | DatabaseException | DatabaseConnectionException e) {
+            System.out.println("Skipping getMessagePageBetween test: " + e.getMessage());
+        }
+    }
+
+    @Test
+    @DisplayName("Test đồng bộ delta: chỉ lấy tin mới hơn mốc")
+    void testGetMessagesSince() throws Exception {
+        try {
+            List<Message> latest = messageDAO.getMessagesSince(1, 0, 5);
+            assertTrue(latest.size() <= 5, "Không được vượt quá limit");
+            for (int i = 1; i < latest.size(); i++) {
+                assertTrue(latest.get(i - 1).getId() < latest.get(i).getId(), "Phải tăng dần theo id");
+            }
+            if (!latest.isEmpty()) {
+                int sinceId = latest.get(0).getId();
+                List<Message> delta = messageDAO.getMessagesSince(1, sinceId, 5);
+                assertTrue(delta.stream().allMatch(m -> m.getId() > sinceId), "Chỉ có tin có id lớn hơn mốc");
+                assertEquals(latest.size() - 1, delta.size(), "Delta là các tin mới hơn mốc trong trang mới nhất");
+            }
+        } catch (MessageException | DatabaseException | DatabaseConnectionException e) {
+            System.out.println("Skipping getMessagesSince test: " + e.getMessage());
+        }
+    }
+
     @Test
     @DisplayName("Test getMessagesForGroup")
     void testGetMessagesForGroup_Success() throws Exception {
@@ -125,5 +125,18 @@ public class UserDAOTest {
             userDAO.register(nullUser);
         }, "Should throw exception for null username");
     }
-}
 
+    @Test
+    @DisplayName("Test ảnh client gửi lại (ảnh thu nhỏ lúc login hoặc ảnh gốc) không tính là ảnh mới")
+    void testIsSameAvatar() throws Exception {
+        byte[] original = { 1, 2, 3, 4 };
+        byte[] rendition = { 9, 9 };
+        String hash = java.util.HexFormat.of().formatHex(
+                java.security.MessageDigest.getInstance("SHA-256").digest(original));
+
+        assertTrue(UserDAO.isSameAvatar(new byte[] { 9, 9 }, hash, rendition), "Ảnh thu nhỏ server đã gửi");
+        assertTrue(UserDAO.isSameAvatar(new byte[] { 1, 2, 3, 4 }, hash, null), "Ảnh gốc, chưa dựng ảnh thu nhỏ");
+        assertFalse(UserDAO.isSameAvatar(new byte[] { 5 }, hash, rendition), "Ảnh mới chọn");
+        assertFalse(UserDAO.isSameAvatar(new byte[] { 5 }, null, null), "User chưa có avatar");
+    }
+}
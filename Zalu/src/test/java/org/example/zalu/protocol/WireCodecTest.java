@@ -0,0 +1,314 @@
+package org.example.zalu.protocol;
+
+import org.example.zalu.model.GroupInfo;
+import org.example.zalu.model.Message;
+import org.example.zalu.model.User;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests cho WireCodec: mã hóa rồi giải mã phải cho lại đúng giá trị ban đầu
+ */
+@DisplayName("WireCodec Tests")
+public class WireCodecTest {
+
+    private Object roundTrip(Object value) throws Exception {
+        return WireCodec.decode(WireCodec.encode(value));
+    }
+
+    @Test
+    @DisplayName("Test round-trip chuỗi lệnh kiểu cũ")
+    void testLegacyStringRoundTrip() throws Exception {
+        assertEquals("SEND_MESSAGE|2|1|Xin chào", roundTrip("SEND_MESSAGE|2|1|Xin chào"));
+        assertEquals("GET_FRIENDS|1||", roundTrip("GET_FRIENDS|1||"), "Trường rỗng ở cuối phải được giữ");
+        assertEquals("LOGOUT", roundTrip("LOGOUT"));
+        assertEquals("CUSTOM_EVENT|x", roundTrip("CUSTOM_EVENT|x"), "Lệnh lạ được gửi dạng TEXT");
+    }
+
+    @Test
+    @DisplayName("Test Packet giữ nguyên ký tự '|' trong nội dung")
+    void testPacketKeepsPipe() throws Exception {
+        Packet packet = Packet.of("SEND_MESSAGE", 2, 1, "a|b|c", "TEMP_ID", "t-1");
+        Object decoded = roundTrip(packet);
+
+        assertInstanceOf(Packet.class, decoded);
+        assertEquals(packet, decoded);
+        assertEquals("a|b|c", ((Packet) decoded).split()[3]);
+        assertEquals(Opcode.SEND_MESSAGE, ((Packet) decoded).getOpcode());
+    }
+
+    @Test
+    @DisplayName("Test Packet.parseLegacy tách giống String.split")
+    void testParseLegacyMatchesSplit() {
+        String msg = "EDIT_MESSAGE|5|1|nội dung|có|gạch|";
+        assertArrayEquals(msg.split("\\|"), Packet.parseLegacy(msg).split());
+        assertArrayEquals(msg.split("\\|", 4), Packet.parseLegacy(msg).split(4));
+    }
+
+    @Test
+    @DisplayName("Test round-trip Message")
+    void testMessageRoundTrip() throws Exception {
+        Message m = new Message(10, 1, 2, "Xin chào", new byte[] { 1, 2, 3 }, "a.png", true,
+                LocalDateTime.of(2024, 5, 1, 8, 30, 15, 123456789));
+        m.setFile(true);
+        m.setPinned(true);
+        m.setEdited(true);
+        m.setEditedContent("Xin chào!");
+        m.setRepliedToMessageId(7);
+        m.setRepliedToContent("trước đó");
+        m.setStatus(Message.MessageStatus.SENDING);
+        m.setTempId("temp-1");
+
+        Message r = (Message) roundTrip(m);
+
+        assertEquals(10, r.getId());
+        assertEquals(1, r.getSenderId());
+        assertEquals(2, r.getReceiverId());
+        assertEquals("Xin chào", r.getContent());
+        assertArrayEquals(new byte[] { 1, 2, 3 }, r.getFileData());
+        assertEquals("a.png", r.getFileName());
+        assertTrue(r.getIsRead());
+        assertTrue(r.isFile());
+        assertTrue(r.isPinned());
+        assertTrue(r.isEdited());
+        assertFalse(r.isRecalled());
+        assertEquals("Xin chào!", r.getEditedContent());
+        assertEquals(7, r.getRepliedToMessageId());
+        assertEquals("trước đó", r.getRepliedToContent());
+        assertEquals(m.getCreatedAt(), r.getCreatedAt());
+        assertEquals(Message.MessageStatus.SENDING, r.getStatus());
+        assertEquals("temp-1", r.getTempId());
+    }
+
+    @Test
+    @DisplayName("Test Message chỉ mang metadata file (lịch sử)")
+    void testMessageFileMetadataRoundTrip() throws Exception {
+        Message m = new Message(11, 1, 2, null, null, "b.jpg", false, LocalDateTime.of(2024, 5, 1, 9, 0));
+        m.setFile(true);
+        m.setFileSize(5_000_000L);
+        m.setMimeType("image/jpeg");
+        m.setFileRef("ab".repeat(32));
+
+        Message r = (Message) roundTrip(m);
+
+        assertNull(r.getFileData());
+        assertEquals("b.jpg", r.getFileName());
+        assertEquals(5_000_000L, r.getFileSize());
+        assertEquals("image/jpeg", r.getMimeType());
+        assertEquals("ab".repeat(32), r.getFileRef());
+
+        Message text = (Message) roundTrip(new Message(12, 1, 2, "hi", false, LocalDateTime.of(2024, 5, 1, 9, 0)));
+        assertEquals(0, text.getFileSize());
+        assertNull(text.getMimeType());
+    }
+
+    @Test
+    @DisplayName("Test peer v2 nhận Message file theo định dạng cũ, không có metadata")
+    void testMessageFileMetadataAtV2() throws Exception {
+        Message m = new Message(11, 1, 2, null, null, "b.jpg", false, LocalDateTime.of(2024, 5, 1, 9, 0));
+        m.setFile(true);
+        m.setFileSize(5_000_000L);
+        m.setMimeType("image/jpeg");
+        m.setFileRef("ab".repeat(32));
+        m.setTempId("t-9");
+        Message plain = new Message(11, 1, 2, null, null, "b.jpg", false, LocalDateTime.of(2024, 5, 1, 9, 0));
+        plain.setFile(true);
+        plain.setTempId("t-9");
+
+        // Đúng từng byte như khi chưa có metadata (v2)
+        assertArrayEquals(WireCodec.encode(plain, 2), WireCodec.encode(m, 2));
+
+        List<?> decoded = (List<?>) WireCodec.decode(WireCodec.encode(List.of(m, "sau"), 2), 2);
+        Message r = (Message) decoded.get(0);
+        assertEquals("b.jpg", r.getFileName());
+        assertTrue(r.isFile());
+        assertEquals(0, r.getFileSize());
+        assertNull(r.getFileRef());
+        assertEquals(LocalDateTime.of(2024, 5, 1, 9, 0), r.getCreatedAt());
+        assertEquals("t-9", r.getTempId());
+        assertEquals("sau", decoded.get(1));
+    }
+
+    @Test
+    @DisplayName("Test round-trip User")
+    void testUserRoundTrip() throws Exception {
+        User u = new User(3, "an", "Nguyễn Văn An", "an@example.com", "0901234567", "/images/an.png", "Xin chào",
+                LocalDate.of(2000, 1, 31), "online", "male");
+        u.setAvatarData(new byte[] { 9, 8 });
+        u.setAvatarVersion(7);
+        u.setLocked(true);
+
+        User r = (User) roundTrip(u);
+
+        assertEquals(3, r.getId());
+        assertEquals("an", r.getUsername());
+        assertEquals("Nguyễn Văn An", r.getFullName());
+        assertEquals("an@example.com", r.getEmail());
+        assertEquals("0901234567", r.getPhone());
+        assertEquals("/images/an.png", r.getAvatarUrlRaw());
+        assertArrayEquals(new byte[] { 9, 8 }, r.getAvatarData());
+        assertEquals(7, r.getAvatarVersion());
+        assertEquals("Xin chào", r.getBio());
+        assertEquals(LocalDate.of(2000, 1, 31), r.getBirthdate());
+        assertEquals("online", r.getStatus());
+        assertEquals("male", r.getGender());
+        assertTrue(r.isLocked());
+        assertNull(r.getPassword());
+    }
+
+    @Test
+    @DisplayName("Test peer v3 nhận User không có avatarVersion, các phần tử sau không bị lệch")
+    void testUserAtV3() throws Exception {
+        User u = new User(3, "an", "Nguyễn Văn An", "an@example.com", "0901234567", "/images/an.png", "Xin chào",
+                LocalDate.of(2000, 1, 31), "online", "male");
+        u.setAvatarData(new byte[] { 9, 8 });
+        u.setAvatarVersion(7);
+        User plain = new User(3, "an", "Nguyễn Văn An", "an@example.com", "0901234567", "/images/an.png", "Xin chào",
+                LocalDate.of(2000, 1, 31), "online", "male");
+        plain.setAvatarData(new byte[] { 9, 8 });
+
+        // Khác đúng một varint avatarVersion so với v4
+        assertEquals(WireCodec.encode(u, 4).length - 1, WireCodec.encode(u, 3).length);
+        assertArrayEquals(WireCodec.encode(plain, 3), WireCodec.encode(u, 3));
+
+        List<?> decoded = (List<?>) WireCodec.decode(WireCodec.encode(List.of(u, "sau"), 3), 3);
+        User r = (User) decoded.get(0);
+        assertEquals("an", r.getUsername());
+        assertArrayEquals(new byte[] { 9, 8 }, r.getAvatarData());
+        assertEquals("male", r.getGender());
+        assertEquals(0, r.getAvatarVersion());
+        assertEquals("sau", decoded.get(1));
+    }
+
+    @Test
+    @DisplayName("Test round-trip GroupInfo")
+    void testGroupInfoRoundTrip() throws Exception {
+        GroupInfo g = new GroupInfo(4, "Nhóm lớp", 12);
+        g.setAvatarUrl("/images/group.png");
+
+        GroupInfo r = (GroupInfo) roundTrip(g);
+
+        assertEquals(4, r.getId());
+        assertEquals("Nhóm lớp", r.getName());
+        assertEquals(12, r.getMemberCount());
+        assertEquals("/images/group.png", r.getAvatarUrl());
+        assertNull(r.getAvatarData());
+    }
+
+    @Test
+    @DisplayName("Test round-trip List, Map và byte[]")
+    void testCollectionsRoundTrip() throws Exception {
+        Map<String, Object> map = new HashMap<>();
+        map.put("type", "BOOTSTRAP");
+        map.put("count", 42);
+        map.put("total", 1L << 40);
+        map.put("users", List.of(new User(1, "a", "a", null, null, null, null, null, "online", null)));
+        map.put("empty", new ArrayList<>());
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> r = (Map<String, Object>) roundTrip(map);
+
+        assertEquals("BOOTSTRAP", r.get("type"));
+        assertEquals(42, r.get("count"));
+        assertEquals(1L << 40, r.get("total"));
+        assertEquals(1, ((List<?>) r.get("users")).size());
+        assertTrue(((List<?>) r.get("empty")).isEmpty());
+
+        byte[] data = new byte[100_000];
+        data[99_999] = 7;
+        assertArrayEquals(data, (byte[]) roundTrip(data));
+        assertArrayEquals(new byte[0], (byte[]) roundTrip(new byte[0]));
+    }
+
+    @Test
+    @DisplayName("Test BinaryObjectOutputStream/BinaryObjectInputStream giữ thứ tự object")
+    void testBinaryStreams() throws Exception {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        ObjectOutputStream out = new BinaryObjectOutputStream(buf);
+        out.writeObject("NEW_FILE|1|2|a.txt");
+        out.writeObject(new byte[] { 1, 2 });
+        out.writeObject(Packet.of("EDIT_MESSAGE", 1, 2, "x|y"));
+        out.flush();
+
+        ObjectInputStream in = new BinaryObjectInputStream(new ByteArrayInputStream(buf.toByteArray()));
+        assertEquals("NEW_FILE|1|2|a.txt", in.readObject());
+        assertArrayEquals(new byte[] { 1, 2 }, (byte[]) in.readObject());
+        assertEquals(Packet.of("EDIT_MESSAGE", 1, 2, "x|y"), in.readObject());
+    }
+
+    @Test
+    @DisplayName("Test frame PART được ghép lại, frame thường chen giữa được trả về trước")
+    void testFragmentedBatch() throws Exception {
+        byte[] data = new byte[WireCodec.FRAGMENT_BYTES * 2 + 100];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        byte[] batch = WireCodec.encodeBatch("NEW_FILE|1|2|a.bin", data);
+
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        BinaryObjectOutputStream out = new BinaryObjectOutputStream(buf);
+        for (int offset = 0; offset < batch.length; offset += WireCodec.FRAGMENT_BYTES) {
+            int length = Math.min(WireCodec.FRAGMENT_BYTES, batch.length - offset);
+            out.writeFragment(batch, offset, length, offset + length == batch.length);
+            if (offset == 0) {
+                out.writeObject("NEW_MESSAGE|1|2|hi");
+            }
+        }
+        out.flush();
+
+        ObjectInputStream in = new BinaryObjectInputStream(new ByteArrayInputStream(buf.toByteArray()));
+        assertEquals("NEW_MESSAGE|1|2|hi", in.readObject());
+        assertEquals("NEW_FILE|1|2|a.bin", in.readObject());
+        assertArrayEquals(data, (byte[]) in.readObject());
+    }
+
+    @Test
+    @DisplayName("Test nhóm PART vượt giới hạn mỗi kết nối hoặc toàn server bị từ chối")
+    void testFragmentBudget() throws Exception {
+        byte[] batch = WireCodec.encodeBatch("NEW_FILE|1|2|a.bin", new byte[WireCodec.FRAGMENT_BYTES * 2 + 1000]);
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        BinaryObjectOutputStream out = new BinaryObjectOutputStream(buf);
+        for (int offset = 0; offset < batch.length; offset += WireCodec.FRAGMENT_BYTES) {
+            int length = Math.min(WireCodec.FRAGMENT_BYTES, batch.length - offset);
+            out.writeFragment(batch, offset, length, offset + length == batch.length);
+        }
+        out.flush();
+        byte[] wire = buf.toByteArray();
+
+        PartBudget small = new PartBudget(WireCodec.FRAGMENT_BYTES * 2, Long.MAX_VALUE);
+        ObjectInputStream tooLarge = new BinaryObjectInputStream(new ByteArrayInputStream(wire), WireCodec.VERSION, small);
+        assertThrows(StreamCorruptedException.class, tooLarge::readObject);
+        assertEquals(0, small.getUsed());
+
+        // Kết nối đứt giữa nhóm PART vẫn giữ budget cho tới khi stream được đóng
+        PartBudget shared = new PartBudget(WireCodec.FRAGMENT_BYTES * 4, WireCodec.FRAGMENT_BYTES * 3);
+        ObjectInputStream cut = new BinaryObjectInputStream(
+                new ByteArrayInputStream(wire, 0, wire.length - 100), WireCodec.VERSION, shared);
+        assertThrows(IOException.class, cut::readObject);
+        assertEquals(WireCodec.FRAGMENT_BYTES * 2, shared.getUsed());
+        ObjectInputStream second = new BinaryObjectInputStream(new ByteArrayInputStream(wire), WireCodec.VERSION, shared);
+        assertThrows(IOException.class, second::readObject);
+        assertEquals(WireCodec.FRAGMENT_BYTES * 2, shared.getUsed());
+        cut.close();
+        assertEquals(0, shared.getUsed());
+
+        ObjectInputStream ok = new BinaryObjectInputStream(new ByteArrayInputStream(wire), WireCodec.VERSION, shared);
+        assertEquals("NEW_FILE|1|2|a.bin", ok.readObject());
+        assertEquals(0, shared.getUsed());
+    }
+}
@@ -0,0 +1,101 @@
+package org.example.zalu.server.activity;
+
+import org.example.zalu.dao.UserActivityDAO;
+import org.example.zalu.model.UserActivity;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests cho ActivityLogWriter (hàng đợi có giới hạn, ghi theo lô)
+ */
+@DisplayName("ActivityLogWriter Tests")
+public class ActivityLogWriterTest {
+
+    private final List<List<UserActivity>> batches = new ArrayList<>();
+    private UserActivityDAO dao;
+
+    @BeforeEach
+    void setUp() {
+        batches.clear();
+        // DAO giả: chỉ ghi nhận các lô được ghi
+        dao = new UserActivityDAO() {
+            @Override
+            public void logActivities(List<UserActivity> activities) {
+                synchronized (batches) {
+                    batches.add(new ArrayList<>(activities));
+                }
+            }
+        };
+    }
+
+    private static UserActivity activity(int userId) {
+        return new UserActivity(userId, "user" + userId, "MESSAGE", LocalDateTime.now());
+    }
+
+    @Test
+    @DisplayName("Test stop() ghi nốt hàng đợi theo lô")
+    void testDrainInBatches() {
+        ActivityLogWriter writer = new ActivityLogWriter(dao, 100, 4, 60_000,
+                ActivityLogWriter.OverflowPolicy.BLOCK, 1);
+        for (int i = 1; i <= 10; i++) {
+            assertTrue(writer.submit(activity(i)));
+        }
+        assertEquals(10, writer.getQueued());
+
+        writer.stop();
+
+        assertEquals(List.of(4, 4, 2), batches.stream().map(List::size).toList());
+        assertEquals(1, batches.get(0).get(0).getUserId());
+        assertEquals(10, writer.getWritten());
+        assertEquals(0, writer.getQueued());
+    }
+
+    @Test
+    @DisplayName("Test SAMPLE: hàng đợi đầy thì chỉ giữ 1 trên N bản ghi vượt mức")
+    void testSampleOnOverflow() {
+        ActivityLogWriter writer = new ActivityLogWriter(dao, 2, 10, 60_000,
+                ActivityLogWriter.OverflowPolicy.SAMPLE, 2);
+        assertTrue(writer.submit(activity(1)));
+        assertTrue(writer.submit(activity(2)));
+        assertFalse(writer.submit(activity(3)));
+        assertTrue(writer.submit(activity(4)));
+
+        assertEquals(2, writer.getQueued());
+        assertEquals(2, writer.getDropped());
+
+        writer.stop();
+        assertEquals(List.of(2, 4), batches.get(0).stream().map(UserActivity::getUserId).toList());
+    }
+
+    @Test
+    @DisplayName("Test luồng nền ghi khi đủ lô")
+    void testBackgroundWriter() throws Exception {
+        ActivityLogWriter writer = new ActivityLogWriter(dao, 100, 3, 60_000,
+                ActivityLogWriter.OverflowPolicy.BLOCK, 1);
+        writer.start();
+        for (int i = 1; i <= 3; i++) {
+            writer.submit(activity(i));
+        }
+        for (int i = 0; i < 100 && writer.getWritten() < 3; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(3, writer.getWritten());
+        assertEquals(1, writer.getBatches());
+        writer.stop();
+    }
+
+    @Test
+    @DisplayName("Test đọc chế độ tràn hàng đợi từ cấu hình")
+    void testParseOverflowPolicy() {
+        assertEquals(ActivityLogWriter.OverflowPolicy.BLOCK, ActivityLogWriter.OverflowPolicy.parse(" Block "));
+        assertEquals(ActivityLogWriter.OverflowPolicy.SAMPLE, ActivityLogWriter.OverflowPolicy.parse("sample"));
+        assertEquals(ActivityLogWriter.OverflowPolicy.SAMPLE, ActivityLogWriter.OverflowPolicy.parse(null));
+    }
+}
@@ -0,0 +1,158 @@
+package org.example.zalu.server.avatar;
+
+import org.example.zalu.dao.UserDAO;
+import org.example.zalu.model.User;
+import org.example.zalu.util.database.SchemaCapability;
+import org.example.zalu.util.database.SchemaRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests cho AvatarStore (DAO giả, không cần DB)
+ */
+@DisplayName("AvatarStore Tests")
+public class AvatarStoreTest {
+
+    // "DB" giả: userId -> phiên bản, ảnh gốc, và (userId, size) -> {phiên bản, ảnh dựng}
+    private final Map<Integer, Integer> versions = new HashMap<>();
+    private final Map<Integer, byte[]> originals = new HashMap<>();
+    private final Map<String, Object[]> variants = new HashMap<>();
+    private int originalReads;
+    private AvatarStore store;
+
+    private static byte[] png(int width, int height) throws Exception {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, (x * 7 + y * 13) & 0xFFFFFF);
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    private static BufferedImage decode(byte[] data) throws Exception {
+        return ImageIO.read(new ByteArrayInputStream(data));
+    }
+
+    @BeforeEach
+    void setUp() {
+        SchemaRegistry.install(new SchemaRegistry.Snapshot(10, EnumSet.of(SchemaCapability.AVATAR_VERSION)));
+        UserDAO dao = new UserDAO() {
+            @Override
+            public Map<Integer, Integer> getAvatarVersions(Collection<Integer> ids) {
+                Map<Integer, Integer> result = new HashMap<>();
+                for (int id : ids) {
+                    if (versions.containsKey(id)) {
+                        result.put(id, versions.get(id));
+                    }
+                }
+                return result;
+            }
+
+            @Override
+            public Map<Integer, byte[]> getAvatarVariants(Map<Integer, Integer> wanted, int size) {
+                Map<Integer, byte[]> result = new HashMap<>();
+                wanted.forEach((id, version) -> {
+                    Object[] row = variants.get(id + "/" + size);
+                    if (row != null && row[0].equals(version)) {
+                        result.put(id, (byte[]) row[1]);
+                    }
+                });
+                return result;
+            }
+
+            @Override
+            public byte[] getAvatarData(int userId, int version) {
+                originalReads++;
+                return versions.get(userId) == version ? originals.get(userId) : null;
+            }
+
+            @Override
+            public void saveAvatarVariants(int userId, int version, Map<Integer, byte[]> rendered) {
+                rendered.forEach((size, data) -> variants.put(userId + "/" + size, new Object[] { version, data }));
+            }
+        };
+        store = new AvatarStore(dao);
+    }
+
+    @AfterEach
+    void tearDown() {
+        SchemaRegistry.install(new SchemaRegistry.Snapshot(0, EnumSet.noneOf(SchemaCapability.class)));
+    }
+
+    @Test
+    @DisplayName("Test thu nhỏ giữ tỉ lệ, ảnh nhỏ hoặc không đọc được thì giữ nguyên")
+    void testRender() throws Exception {
+        BufferedImage small = decode(AvatarStore.render(png(400, 200), User.AVATAR_SMALL));
+        assertEquals(48, small.getWidth());
+        assertEquals(24, small.getHeight());
+
+        byte[] tiny = png(30, 30);
+        assertSame(tiny, AvatarStore.render(tiny, User.AVATAR_SMALL));
+        byte[] garbage = { 1, 2, 3 };
+        assertSame(garbage, AvatarStore.render(garbage, User.AVATAR_SMALL));
+    }
+
+    @Test
+    @DisplayName("Test chỉ trả về avatar đã đổi phiên bản")
+    void testRevalidation() throws Exception {
+        versions.put(1, 3);
+        originals.put(1, png(300, 300));
+        versions.put(2, 1);
+        store.publish(1, 3, originals.get(1));
+
+        AvatarStore.Changes changes = store.changed(Map.of(1, -1, 2, -1, 9, -1), User.AVATAR_SMALL);
+        assertEquals(Map.of(1, 3, 2, 1), changes.versions());
+        assertEquals(48, decode(changes.data().get(1)).getWidth());
+        // User 2 không có avatar: có phiên bản, không có ảnh
+        assertFalse(changes.data().containsKey(2));
+
+        changes = store.changed(Map.of(1, 3, 2, 1), User.AVATAR_SMALL);
+        assertTrue(changes.versions().isEmpty());
+        assertEquals(2, store.getUnchanged());
+
+        // Ảnh gốc khi xin kích thước đầy đủ
+        changes = store.changed(Map.of(1, 2), User.AVATAR_FULL);
+        assertSame(originals.get(1), changes.data().get(1));
+        assertThrows(IllegalArgumentException.class, () -> store.changed(Map.of(1, 2), 64));
+    }
+
+    @Test
+    @DisplayName("Test avatar cũ chưa có ảnh dựng: dựng một lần rồi đọc từ bảng")
+    void testLazyRender() throws Exception {
+        versions.put(1, 1);
+        originals.put(1, png(500, 250));
+
+        AvatarStore.Changes changes = store.changed(Map.of(1, -1), User.AVATAR_MEDIUM);
+        assertEquals(100, decode(changes.data().get(1)).getWidth());
+        assertEquals(1, store.getRendered());
+        int reads = originalReads;
+
+        store.changed(Map.of(1, -1), User.AVATAR_SMALL);
+        assertEquals(reads, originalReads);
+        assertEquals(1, store.getRendered());
+
+        // Phiên bản mới: ảnh dựng của phiên bản cũ bị bỏ qua
+        versions.put(1, 2);
+        originals.put(1, png(60, 60));
+        changes = store.changed(Map.of(1, 1), User.AVATAR_MEDIUM);
+        assertEquals(Map.of(1, 2), changes.versions());
+        assertEquals(60, decode(changes.data().get(1)).getWidth());
+        assertEquals(2, store.getRendered());
+    }
+}
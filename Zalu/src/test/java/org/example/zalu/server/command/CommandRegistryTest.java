@@ -0,0 +1,78 @@
+package org.example.zalu.server.command;
+
+import org.example.zalu.protocol.Opcode;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests cho CommandRegistry
+ */
+@DisplayName("CommandRegistry Tests")
+public class CommandRegistryTest {
+
+    private CommandRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        registry = new CommandRegistry();
+    }
+
+    @Test
+    @DisplayName("Test tra lệnh theo opcode")
+    void testLookup() {
+        CommandHandler handler = (session, packet) -> {
+        };
+        registry.register(Command.of(Opcode.TYPING, handler))
+                .register(Command.of(Opcode.GET_CONVERSATION, handler).offloadable())
+                .register(Command.of(Opcode.KEEP_ALIVE, handler).anonymous());
+
+        assertSame(handler, registry.get(Opcode.TYPING).getHandler());
+        assertTrue(registry.get(Opcode.TYPING).requiresAuth());
+        assertFalse(registry.get(Opcode.TYPING).isOffloadable());
+        assertTrue(registry.get(Opcode.GET_CONVERSATION).isOffloadable());
+        assertFalse(registry.get(Opcode.KEEP_ALIVE).requiresAuth());
+        assertNull(registry.get(Opcode.MARK_AS_READ));
+        assertNull(registry.get(null));
+    }
+
+    @Test
+    @DisplayName("Test không cho đăng ký trùng opcode")
+    void testDuplicateRegistration() {
+        registry.register(Command.of(Opcode.MARK_AS_READ, (session, packet) -> {
+        }));
+        assertThrows(IllegalStateException.class,
+                () -> registry.register(Command.of(Opcode.MARK_AS_READ, (session, packet) -> {
+                })));
+    }
+
+    @Test
+    @DisplayName("Test interceptor được gọi trước và sau lệnh")
+    void testInterceptors() {
+        List<String> calls = new ArrayList<>();
+        registry.addInterceptor(new CommandInterceptor() {
+            @Override
+            public boolean beforeCommand(org.example.zalu.server.ClientHandler session, Opcode opcode) {
+                calls.add("before:" + opcode);
+                return opcode != Opcode.TYPING;
+            }
+
+            @Override
+            public void afterCommand(org.example.zalu.server.ClientHandler session, Opcode opcode,
+                    long elapsedNanos, Throwable error) {
+                calls.add("after:" + opcode);
+            }
+        });
+
+        assertTrue(registry.beforeCommand(null, Opcode.GET_MESSAGES));
+        assertFalse(registry.beforeCommand(null, Opcode.TYPING), "Interceptor có thể từ chối lệnh");
+        registry.afterCommand(null, Opcode.GET_MESSAGES, 1000, null);
+
+        assertEquals(List.of("before:GET_MESSAGES", "before:TYPING", "after:GET_MESSAGES"), calls);
+    }
+}
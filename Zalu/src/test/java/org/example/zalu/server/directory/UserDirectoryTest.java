@@ -0,0 +1,91 @@
+package org.example.zalu.server.directory;
+
+import org.example.zalu.dao.FriendDAO;
+import org.example.zalu.model.User;
+import org.example.zalu.server.friend.FriendGraphCache;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests cho UserDirectory (không cần DB)
+ */
+@DisplayName("UserDirectory Tests")
+public class UserDirectoryTest {
+
+    private FriendGraphCache graph;
+    private UserDirectory directory;
+
+    private static User user(int id, String username, String fullName, String email, String phone) {
+        return new User(id, username, fullName, email, phone, null, null, null, null, null);
+    }
+
+    @BeforeEach
+    void setUp() {
+        // DAO giả: 1 là bạn của 2, 2 là bạn của 3
+        FriendDAO dao = new FriendDAO() {
+            @Override
+            public List<Integer> getFriendsByUserId(int userId) {
+                return switch (userId) {
+                    case 1 -> List.of(2);
+                    case 2 -> List.of(1, 3);
+                    case 3 -> List.of(2);
+                    default -> List.of();
+                };
+            }
+        };
+        graph = new FriendGraphCache(dao, id -> true, 100);
+        directory = new UserDirectory(null, graph);
+        directory.put(user(1, "me", "Trần Bình", "me@zalu.vn", "0900000001"));
+        directory.put(user(2, "annguyen", "Nguyễn Văn An", "an.nguyen@zalu.vn", "0912345678"));
+        directory.put(user(3, "anh.le", "Lê Anh", "anh@zalu.vn", "0987654321"));
+        directory.put(user(4, "an.pham", "Phạm An", "pham@mail.com", "0911111111"));
+    }
+
+    @Test
+    @DisplayName("Test tìm không dấu, theo tiền tố, không trả về chính mình")
+    void testMatching() {
+        assertEquals(List.of(2), directory.search("nguyen van", 1, 10));
+        assertEquals(List.of(2), directory.search("NGUYỄN v", 1, 10));
+        assertEquals(List.of(2), directory.search("an.nguyen@zalu.vn", 1, 10));
+        assertTrue(directory.search("binh", 1, 10).isEmpty());
+        assertEquals(List.of(1), directory.search("binh", 2, 10));
+    }
+
+    @Test
+    @DisplayName("Test chuỗi con bằng 3-gram: số điện thoại, email")
+    void testSubstring() {
+        assertEquals(List.of(2), directory.search("345678", 1, 10));
+        assertEquals(List.of(4), directory.search("mail", 1, 10));
+        assertTrue(directory.search("99999", 1, 10).isEmpty());
+    }
+
+    @Test
+    @DisplayName("Test xếp hạng theo khoảng cách bạn bè rồi độ khớp, giới hạn top-K")
+    void testRanking() throws Exception {
+        // Chưa có danh sách bạn của 2 trong cache: 3 được coi là người lạ
+        assertEquals(List.of(2, 4, 3), directory.search("an", 1, 10));
+
+        graph.getFriends(2);
+        // 2 là bạn, 3 là bạn của bạn, 4 là người lạ
+        assertEquals(List.of(2, 3, 4), directory.search("an", 1, 10));
+        assertEquals(List.of(2, 3), directory.search("an", 1, 2));
+    }
+
+    @Test
+    @DisplayName("Test sửa profile và xóa tài khoản cập nhật danh bạ")
+    void testUpdates() {
+        directory.put(user(4, "pham.minh", "Phạm Minh", "pham@mail.com", "0911111111"));
+        assertEquals(List.of(4), directory.search("minh", 1, 10));
+        assertFalse(directory.search("an", 1, 10).contains(4));
+
+        directory.remove(2);
+        assertTrue(directory.search("nguyen", 1, 10).isEmpty());
+        assertTrue(directory.search("345678", 1, 10).isEmpty());
+        assertEquals(3, directory.size());
+    }
+}
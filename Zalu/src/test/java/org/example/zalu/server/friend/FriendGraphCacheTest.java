@@ -0,0 +1,110 @@
+package org.example.zalu.server.friend;
+
+import org.example.zalu.dao.FriendDAO;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests cho FriendGraphCache (đồ thị bạn bè trong RAM, bỏ user offline)
+ */
+@DisplayName("FriendGraphCache Tests")
+public class FriendGraphCacheTest {
+
+    private int dbLoads;
+    private final Set<Integer> online = new HashSet<>();
+    private FriendGraphCache graph;
+
+    @BeforeEach
+    void setUp() {
+        dbLoads = 0;
+        online.clear();
+        // DAO giả: user 1 là bạn của 3 và 2; user 2 là bạn của 1
+        FriendDAO dao = new FriendDAO() {
+            @Override
+            public List<Integer> getFriendsByUserId(int userId) {
+                dbLoads++;
+                return switch (userId) {
+                    case 1 -> List.of(3, 2);
+                    case 2 -> List.of(1);
+                    default -> List.of();
+                };
+            }
+        };
+        graph = new FriendGraphCache(dao, online::contains, 2);
+    }
+
+    @Test
+    @DisplayName("Test chỉ nạp từ DB một lần, mảng đã sắp xếp")
+    void testLoadOnce() throws Exception {
+        assertArrayEquals(new int[] { 2, 3 }, graph.getFriends(1));
+        assertEquals(List.of(2, 3), graph.getFriendList(1));
+        assertTrue(graph.areFriends(1, 3));
+        assertFalse(graph.areFriends(1, 4));
+        assertEquals(1, dbLoads);
+        assertEquals(1, graph.getMisses());
+    }
+
+    @Test
+    @DisplayName("Test kết bạn / hủy kết bạn cập nhật cả hai phía")
+    void testFriendshipChanges() throws Exception {
+        graph.getFriends(1);
+        graph.getFriends(2);
+
+        graph.onFriendshipAdded(2, 5);
+        assertArrayEquals(new int[] { 1, 5 }, graph.getFriends(2));
+
+        graph.onFriendshipRemoved(1, 2);
+        assertArrayEquals(new int[] { 3 }, graph.getFriends(1));
+        assertArrayEquals(new int[] { 5 }, graph.getFriends(2));
+        assertEquals(2, dbLoads);
+    }
+
+    @Test
+    @DisplayName("Test bỏ user offline khi thoát và khi vượt giới hạn")
+    void testEviction() throws Exception {
+        online.add(1);
+        graph.getFriends(1);
+        graph.getFriends(2);
+
+        graph.onUserOffline(1);
+        assertEquals(2, graph.getCachedUsers(), "User còn online không bị bỏ");
+
+        // Đã đủ 2 user: nạp user 3 thì bỏ user offline (2) trước
+        graph.getFriends(3);
+        assertEquals(2, graph.getCachedUsers());
+        assertEquals(1, graph.getEvictions());
+
+        online.remove(1);
+        graph.onUserOffline(1);
+        assertEquals(1, graph.getCachedUsers());
+    }
+
+    @Test
+    @DisplayName("Test cache đầy user online không quét cả map ở mỗi lần nạp")
+    void testFullCacheSweepsRarely() throws Exception {
+        int[] onlineChecks = { 0 };
+        FriendDAO dao = new FriendDAO() {
+            @Override
+            public List<Integer> getFriendsByUserId(int userId) {
+                return List.of();
+            }
+        };
+        FriendGraphCache full = new FriendGraphCache(dao, userId -> {
+            onlineChecks[0]++;
+            return true;
+        }, 4);
+        for (int userId = 1; userId <= 1000; userId++) {
+            full.getFriends(userId);
+        }
+        assertEquals(1000, full.getCachedUsers());
+        // Quét ở mọi lần nạp là khoảng 500.000 lần kiểm tra
+        assertTrue(onlineChecks[0] < 20_000, "Số lần kiểm tra online: " + onlineChecks[0]);
+    }
+}
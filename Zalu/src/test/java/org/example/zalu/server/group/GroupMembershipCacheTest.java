@@ -0,0 +1,123 @@
+package org.example.zalu.server.group;
+
+import org.example.zalu.dao.GroupDAO;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests cho GroupMembershipCache (thành viên nhóm trong RAM, DB chỉ để nạp lần đầu)
+ */
+@DisplayName("GroupMembershipCache Tests")
+public class GroupMembershipCacheTest {
+
+    private int memberLoads;
+    private int userLoads;
+    private GroupMembershipCache cache;
+
+    @BeforeEach
+    void setUp() {
+        memberLoads = 0;
+        userLoads = 0;
+        // DAO giả: nhóm 7 có user 3, 1, 2; user 1 ở nhóm 7 và 8
+        GroupDAO dao = new GroupDAO() {
+            @Override
+            public List<Integer> getGroupMembers(int groupId) {
+                memberLoads++;
+                return groupId == 7 ? List.of(3, 1, 2) : List.of();
+            }
+
+            @Override
+            public List<Integer> getUserGroupIds(int userId) {
+                userLoads++;
+                return userId == 1 ? List.of(7, 8) : List.of();
+            }
+        };
+        cache = new GroupMembershipCache(dao);
+    }
+
+    @Test
+    @DisplayName("Test xóa thành viên ghi DB rồi bỏ khỏi cache, kể cả khi DB đã không còn hàng đó")
+    void testRemoveMember() throws Exception {
+        List<String> writes = new ArrayList<>();
+        GroupDAO dao = new GroupDAO() {
+            @Override
+            public List<Integer> getGroupMembers(int groupId) {
+                return List.of(1, 2, 3);
+            }
+
+            @Override
+            public List<Integer> getUserGroupIds(int userId) {
+                return List.of(7);
+            }
+
+            @Override
+            public boolean removeMemberFromGroup(int groupId, int userId) {
+                writes.add(groupId + ":" + userId);
+                // User 3 đã bị xóa khỏi DB từ trước
+                return userId != 3;
+            }
+        };
+        GroupMembershipCache removeCache = new GroupMembershipCache(dao);
+        removeCache.getMembers(7);
+        removeCache.getGroupsOf(2);
+
+        assertTrue(removeCache.removeMember(7, 2));
+        assertArrayEquals(new int[] { 1, 3 }, removeCache.getMembers(7));
+        assertFalse(removeCache.isMember(7, 2));
+        assertTrue(removeCache.getGroupsOf(2).isEmpty());
+
+        assertFalse(removeCache.removeMember(7, 3));
+        assertArrayEquals(new int[] { 1 }, removeCache.getMembers(7));
+        assertEquals(List.of("7:2", "7:3"), writes);
+    }
+
+    @Test
+    @DisplayName("Test chỉ nạp thành viên từ DB một lần, mảng đã sắp xếp")
+    void testLoadOnce() throws Exception {
+        assertArrayEquals(new int[] { 1, 2, 3 }, cache.getMembers(7));
+        assertTrue(cache.isMember(7, 2));
+        assertFalse(cache.isMember(7, 9));
+        assertEquals(1, memberLoads);
+        assertEquals(1, cache.getMisses());
+        assertEquals(2, cache.getHits());
+    }
+
+    @Test
+    @DisplayName("Test thêm/xóa thành viên cập nhật tại chỗ, không hỏi lại DB")
+    void testMutationsInPlace() throws Exception {
+        cache.getMembers(7);
+        cache.getGroupsOf(1);
+
+        cache.onMemberAdded(7, 5);
+        cache.onMemberRemoved(7, 1);
+        assertArrayEquals(new int[] { 2, 3, 5 }, cache.getMembers(7));
+        assertEquals(Set.of(8), cache.getGroupsOf(1));
+
+        cache.onGroupCreated(9, List.of(1, 4));
+        assertArrayEquals(new int[] { 1, 4 }, cache.getMembers(9));
+        assertEquals(Set.of(8, 9), cache.getGroupsOf(1));
+        assertEquals(1, memberLoads);
+        assertEquals(1, userLoads);
+    }
+
+    @Test
+    @DisplayName("Test giải tán nhóm và xóa tài khoản")
+    void testGroupAndUserDeleted() throws Exception {
+        cache.getMembers(7);
+        cache.getGroupsOf(1);
+
+        cache.onUserDeleted(2);
+        assertArrayEquals(new int[] { 1, 3 }, cache.getMembers(7));
+
+        cache.onGroupDeleted(7);
+        assertEquals(Set.of(8), cache.getGroupsOf(1));
+        assertEquals(0, cache.getCachedGroups());
+    }
+}
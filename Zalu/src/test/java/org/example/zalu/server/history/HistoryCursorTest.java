@@ -0,0 +1,43 @@
+package org.example.zalu.server.history;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests cho HistoryCursor (con trỏ phân trang lịch sử chat)
+ */
+@DisplayName("HistoryCursor Tests")
+public class HistoryCursorTest {
+
+    @Test
+    @DisplayName("Test con trỏ rỗng là trang mới nhất")
+    void testLatest() {
+        assertSame(HistoryCursor.LATEST, HistoryCursor.parse(""));
+        assertSame(HistoryCursor.LATEST, HistoryCursor.parse(null));
+        assertTrue(HistoryCursor.LATEST.isOlder());
+        assertEquals(Integer.MAX_VALUE, HistoryCursor.LATEST.getMessageId());
+    }
+
+    @Test
+    @DisplayName("Test mã hóa và đọc lại con trỏ")
+    void testRoundTrip() {
+        HistoryCursor older = HistoryCursor.parse(HistoryCursor.olderThan(123456).encode());
+        assertTrue(older.isOlder());
+        assertEquals(123456, older.getMessageId());
+
+        HistoryCursor newer = HistoryCursor.parse(HistoryCursor.newerThan(42).encode());
+        assertFalse(newer.isOlder());
+        assertEquals(42, newer.getMessageId());
+    }
+
+    @Test
+    @DisplayName("Test từ chối con trỏ không do server tạo")
+    void testInvalid() {
+        assertThrows(IllegalArgumentException.class, () -> HistoryCursor.parse("x12"));
+        assertThrows(IllegalArgumentException.class, () -> HistoryCursor.parse("o"));
+        assertThrows(IllegalArgumentException.class, () -> HistoryCursor.parse("o-5"));
+        assertThrows(IllegalArgumentException.class, () -> HistoryCursor.parse("o!!"));
+    }
+}
@@ -0,0 +1,131 @@
+package org.example.zalu.server.history;
+
+import org.example.zalu.dao.MessageDAO;
+import org.example.zalu.model.Message;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests cho HotConversationCache (DAO giả, không cần DB)
+ */
+@DisplayName("HotConversationCache Tests")
+public class HotConversationCacheTest {
+
+    private final List<Message> stored = new ArrayList<>();
+    private int loads;
+    private MessageDAO dao;
+
+    private static Message text(int id, int sender, int receiver, String content) {
+        return new Message(id, sender, receiver, content, false, LocalDateTime.now());
+    }
+
+    private static List<Integer> ids(List<Message> messages) {
+        return messages.stream().map(Message::getId).toList();
+    }
+
+    @BeforeEach
+    void setUp() {
+        // DAO giả: trả về các tin của chat 1-2 trong "DB", giống getMessagePageBetween
+        dao = new MessageDAO() {
+            @Override
+            public List<Message> getMessagePageBetween(int user1, int user2, int anchorId, boolean olderThan,
+                    int limit) {
+                loads++;
+                List<Message> older = stored.stream().filter(m -> m.getId() < anchorId).toList();
+                return new ArrayList<>(older.subList(Math.max(0, older.size() - limit), older.size()));
+            }
+        };
+        for (int i = 1; i <= 6; i++) {
+            stored.add(text(i, i % 2 == 0 ? 1 : 2, i % 2 == 0 ? 2 : 1, "tin " + i));
+        }
+    }
+
+    @Test
+    @DisplayName("Test trang mới nhất nạp một lần rồi đọc từ RAM")
+    void testLatestPage() throws Exception {
+        HotConversationCache cache = new HotConversationCache(dao, 4, 1 << 20);
+        assertEquals(List.of(4, 5, 6), ids(cache.page(1, 2, false, Integer.MAX_VALUE, true, 3)));
+        assertEquals(List.of(4, 5, 6), ids(cache.page(2, 1, false, Integer.MAX_VALUE, true, 3)));
+        assertEquals(1, loads);
+        assertEquals(1, cache.getConversationCount());
+
+        // Trang cũ hơn vượt ra ngoài vòng đệm: phải hỏi DB
+        assertNull(cache.page(1, 2, false, 4, true, 3));
+        assertEquals(List.of(5, 6), ids(cache.page(1, 2, false, 4, false, 10)));
+        // Chat dài hơn vòng đệm: không trả lời được "cả cuộc trò chuyện"
+        assertNull(cache.all(1, 2, false));
+        assertEquals(0.6, cache.getHitRate(), 0.001);
+    }
+
+    @Test
+    @DisplayName("Test tin mới, sửa, thu hồi cập nhật vòng đệm; bản trả ra là bản sao")
+    void testUpdates() throws Exception {
+        HotConversationCache cache = new HotConversationCache(dao, 4, 1 << 20);
+        cache.page(1, 2, false, Integer.MAX_VALUE, true, 4);
+
+        Message file = text(7, 1, 2, null);
+        file.setFileName("anh.png");
+        file.setFileData(new byte[100]);
+        cache.onSaved(file);
+        List<Message> page = cache.page(1, 2, false, Integer.MAX_VALUE, true, 4);
+        assertEquals(List.of(4, 5, 6, 7), ids(page));
+        assertNull(page.get(3).getFileData());
+        assertEquals(100, page.get(3).getFileSize());
+        assertEquals("image/png", page.get(3).getMimeType());
+
+        Message edited = text(5, 2, 1, "đã sửa");
+        edited.setEdited(true);
+        cache.onChanged(edited);
+        page.get(0).setIsRead(true);
+        page = cache.page(1, 2, false, 6, true, 2);
+        assertEquals(List.of(4, 5), ids(page));
+        assertFalse(page.get(0).getIsRead());
+        assertEquals("đã sửa", page.get(1).getContent());
+        assertTrue(page.get(1).isEdited());
+
+        // Tin của chat khác không lẫn vào
+        cache.onSaved(text(8, 1, 3, "chat khác"));
+        assertEquals(List.of(7), ids(cache.page(1, 2, false, 6, false, 10)));
+        assertEquals(1, loads);
+    }
+
+    @Test
+    @DisplayName("Test chat ngắn trả lời cả cuộc trò chuyện, tin ghim trước")
+    void testWholeConversation() throws Exception {
+        stored.subList(3, stored.size()).clear();
+        HotConversationCache cache = new HotConversationCache(dao, 4, 1 << 20);
+        assertNull(cache.all(1, 2, false));
+        cache.page(1, 2, false, Integer.MAX_VALUE, true, 2);
+
+        Message pinned = text(2, 1, 2, "tin 2");
+        pinned.setPinned(true);
+        cache.onChanged(pinned);
+        assertEquals(List.of(2, 1, 3), ids(cache.all(2, 1, false)));
+        assertTrue(cache.page(1, 2, false, 1, true, 2).isEmpty());
+    }
+
+    @Test
+    @DisplayName("Test vượt giới hạn bộ nhớ thì bỏ cuộc trò chuyện lâu không dùng")
+    void testEviction() throws Exception {
+        long oneChat = 3 * HotConversationCache.sizeOf(text(1, 1, 2, "tin 1"));
+        HotConversationCache cache = new HotConversationCache(dao, 3, oneChat + oneChat / 2);
+        cache.page(1, 2, false, Integer.MAX_VALUE, true, 3);
+        cache.page(1, 5, false, Integer.MAX_VALUE, true, 3);
+        assertEquals(1, cache.getConversationCount());
+        assertEquals(1, cache.getEvictions());
+        assertTrue(cache.getBytes() <= oneChat + oneChat / 2);
+
+        // Chat 1-2 đã bị bỏ: tin mới không được giữ, lần mở sau nạp lại
+        cache.onSaved(text(7, 1, 2, "tin 7"));
+        assertNull(cache.page(1, 2, false, 6, false, 10));
+        cache.page(1, 2, false, Integer.MAX_VALUE, true, 3);
+        assertEquals(3, loads);
+    }
+}
@@ -0,0 +1,98 @@
+package org.example.zalu.server.metrics;
+
+import org.example.zalu.protocol.Opcode;
+import org.example.zalu.util.database.DBConnection;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringWriter;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests cho LatencyHistogram và CommandMetrics (không cần server, không cần DB)
+ */
+@DisplayName("CommandMetrics Tests")
+public class CommandMetricsTest {
+
+    @Test
+    @DisplayName("Test bucket liền mạch và percentile sai lệch dưới 1/16")
+    void testHistogram() {
+        for (long v = 0; v < 5_000_000; v += 1 + v / 7) {
+            int bucket = LatencyHistogram.bucketOf(v);
+            assertTrue(LatencyHistogram.upperBound(bucket) >= v, "cận trên của " + v);
+            assertTrue(bucket == 0 || LatencyHistogram.upperBound(bucket - 1) < v, "cận dưới của " + v);
+        }
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 100L);
+        }
+        LatencyHistogram.Snapshot s = histogram.snapshot();
+        assertEquals(1000, s.count());
+        assertEquals(100_000, s.maxMicros());
+        assertEquals(50_050, s.meanMicros(), 0.001);
+        assertTrue(Math.abs(s.percentile(0.5) - 50_000) <= 50_000 / 16, "p50=" + s.percentile(0.5));
+        assertTrue(Math.abs(s.percentile(0.99) - 99_000) <= 99_000 / 16, "p99=" + s.percentile(0.99));
+        assertEquals(100_000, s.percentile(1));
+
+        histogram.reset();
+        assertEquals(0, histogram.snapshot().count());
+        assertEquals(0, histogram.snapshot().percentile(0.99));
+    }
+
+    @Test
+    @DisplayName("Test thời gian DB, fan-out và chờ hàng đợi tính vào lệnh đang chạy trên thread")
+    void testCommandScope() {
+        CommandMetrics metrics = new CommandMetrics();
+        assertFalse(metrics.isTracking());
+        // Ngoài lệnh: bỏ qua
+        CommandMetrics.recordDb(1_000_000);
+
+        metrics.commandStarted(null, Opcode.GET_HISTORY_PAGE, 3_000_000);
+        assertTrue(metrics.isTracking());
+        metrics.connectionReleased(DBConnection.Pool.READ, 2_000_000);
+        metrics.connectionReleased(DBConnection.Pool.WRITE, 1_000_000);
+        CommandMetrics.recordFanOut(System.nanoTime() - 500_000);
+        metrics.afterCommand(null, Opcode.GET_HISTORY_PAGE, 8_000_000, null);
+        assertFalse(metrics.isTracking());
+
+        metrics.commandStarted(null, Opcode.GET_HISTORY_PAGE, -1);
+        metrics.afterCommand(null, Opcode.GET_HISTORY_PAGE, 1_000_000, new IllegalStateException("lỗi"));
+
+        List<CommandMetrics.Row> rows = metrics.snapshot();
+        assertEquals(1, rows.size());
+        CommandMetrics.Row row = rows.get(0);
+        assertEquals(Opcode.GET_HISTORY_PAGE, row.opcode());
+        assertEquals(2, row.count());
+        assertEquals(1, row.errors());
+        assertEquals(8_000, row.latency().maxMicros());
+        // Chỉ lần đầu có DB / fan-out / chờ executor
+        assertEquals(1, row.db().count());
+        assertEquals(3_000, row.db().maxMicros());
+        assertEquals(1, row.fanOut().count());
+        assertTrue(row.fanOut().maxMicros() >= 500);
+        assertEquals(1, row.queueWait().count());
+        assertEquals(3_000, row.queueWait().maxMicros());
+    }
+
+    @Test
+    @DisplayName("Test snapshot CSV và reset")
+    void testSnapshotAndReset() throws Exception {
+        CommandMetrics metrics = new CommandMetrics();
+        for (int i = 0; i < 10; i++) {
+            metrics.commandStarted(null, Opcode.SEND_MESSAGE, -1);
+            metrics.afterCommand(null, Opcode.SEND_MESSAGE, 2_000_000, null);
+        }
+        StringWriter csv = new StringWriter();
+        metrics.writeCsv(csv, metrics.snapshot(), metrics.getResetAt() + 2000);
+        String[] lines = csv.toString().split("\n");
+        assertEquals(2, lines.length);
+        assertTrue(lines[0].startsWith("opcode,count,errors,per_second,"));
+        assertTrue(lines[1].startsWith("SEND_MESSAGE,10,0,5.00,2000.0,2000,2000,2000,2000,0,"), lines[1]);
+
+        metrics.reset();
+        assertTrue(metrics.snapshot().isEmpty());
+    }
+}
@@ -0,0 +1,93 @@
+package org.example.zalu.server.persist;
+
+import org.example.zalu.dao.MessageDAO;
+import org.example.zalu.model.Message;
+import org.example.zalu.util.database.DBConnection;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Đo số tin nhắn/giây khi lưu từng tin (MessageDAO.saveMessage) và khi qua group commit
+ * (MessagePersistPipeline), với nhiều thread gửi cùng lúc như nhiều ClientHandler.
+ * <p>
+ * Cần database thật (database.properties) và hai user có sẵn. Không phải unit test, chạy bằng:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=org.example.zalu.server.persist.MessagePersistBenchmark \
+ *     -Dexec.args="senders messagesPerSender senderId receiverId"
+ * </pre>
+ * Mặc định: 16 thread, 500 tin mỗi thread, user 1 gửi cho user 2. Các tin tạo ra bị xóa sau khi đo.
+ */
+public class MessagePersistBenchmark {
+
+    private static final String MARKER = "persist-benchmark";
+
+    public static void main(String[] args) throws Exception {
+        int senders = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int perSender = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        int senderId = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+        int receiverId = args.length > 3 ? Integer.parseInt(args[3]) : 2;
+        MessageDAO dao = new MessageDAO();
+
+        // Làm nóng pool kết nối và JIT
+        run("warm-up", senders, 20, senderId, receiverId, dao::saveMessage);
+
+        double direct = run("saveMessage (từng tin)", senders, perSender, senderId, receiverId, dao::saveMessage);
+
+        MessagePersistPipeline pipeline = new MessagePersistPipeline(dao, 128, 2000, 2, 4096);
+        pipeline.start();
+        double grouped;
+        try {
+            grouped = run("group commit (128 tin / 2 ms)", senders, perSender, senderId, receiverId, pipeline::save);
+        } finally {
+            pipeline.stop();
+        }
+        System.out.printf("%nGroup commit: %.1fx (%d lô, %d tin ghi lại từng tin)%n", grouped / direct,
+                pipeline.getBatches(), pipeline.getFallbackRows());
+
+        try (Connection conn = DBConnection.getConnection();
+                PreparedStatement pstmt = conn.prepareStatement("DELETE FROM messages WHERE content LIKE ?")) {
+            pstmt.setString(1, MARKER + "%");
+            System.out.println("Đã xóa " + pstmt.executeUpdate() + " tin nhắn benchmark");
+        }
+        DBConnection.closePool();
+    }
+
+    private interface Saver {
+        boolean save(Message message) throws Exception;
+    }
+
+    private static double run(String name, int senders, int perSender, int senderId, int receiverId, Saver saver)
+            throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(senders);
+        List<Future<?>> futures = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int s = 0; s < senders; s++) {
+            int thread = s;
+            futures.add(pool.submit(() -> {
+                for (int i = 0; i < perSender; i++) {
+                    Message m = new Message(0, senderId, receiverId, MARKER + " " + thread + "-" + i, false,
+                            LocalDateTime.now());
+                    saver.save(m);
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        pool.shutdown();
+        int total = senders * perSender;
+        double rate = total / seconds;
+        System.out.printf("%-32s %6d tin trong %6.2f s = %8.0f tin/giây%n", name, total, seconds, rate);
+        return rate;
+    }
+}
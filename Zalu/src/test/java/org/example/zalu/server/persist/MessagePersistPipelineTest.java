@@ -0,0 +1,142 @@
+package org.example.zalu.server.persist;
+
+import org.example.zalu.dao.MessageDAO;
+import org.example.zalu.exception.message.MessageCommitUnknownException;
+import org.example.zalu.exception.message.MessageSendFailedException;
+import org.example.zalu.model.Message;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests cho MessagePersistPipeline (group commit tin nhắn)
+ */
+@DisplayName("MessagePersistPipeline Tests")
+public class MessagePersistPipelineTest {
+
+    private final AtomicInteger nextId = new AtomicInteger(1);
+    private final List<Integer> batchSizes = new ArrayList<>();
+    private final AtomicInteger singleSaves = new AtomicInteger();
+    private MessagePersistPipeline pipeline;
+
+    @BeforeEach
+    void setUp() {
+        nextId.set(1);
+        batchSizes.clear();
+        singleSaves.set(0);
+        // DAO giả: lô chứa tin "bad" thì lỗi cả lô, ghi từng tin thì chỉ tin "bad" lỗi
+        MessageDAO dao = new MessageDAO() {
+            @Override
+            public void saveMessages(List<Message> messages) throws MessageSendFailedException {
+                synchronized (batchSizes) {
+                    batchSizes.add(messages.size());
+                }
+                if (messages.stream().anyMatch(m -> "commit".equals(m.getContent()))) {
+                    throw new MessageCommitUnknownException("mất kết nối lúc commit", null);
+                }
+                if (messages.stream().anyMatch(m -> "bad".equals(m.getContent()))) {
+                    throw new MessageSendFailedException("lô lỗi");
+                }
+                for (Message m : messages) {
+                    m.setId(nextId.getAndIncrement());
+                }
+            }
+
+            @Override
+            public boolean saveMessage(Message message) throws MessageSendFailedException {
+                singleSaves.incrementAndGet();
+                if ("bad".equals(message.getContent())) {
+                    throw new MessageSendFailedException("tin lỗi");
+                }
+                message.setId(nextId.getAndIncrement());
+                return true;
+            }
+        };
+        pipeline = new MessagePersistPipeline(dao, 16, 20_000, 1, 1024);
+    }
+
+    @AfterEach
+    void tearDown() {
+        pipeline.stop();
+    }
+
+    private static Message message(String content) {
+        return new Message(0, 1, 2, content, false, LocalDateTime.now());
+    }
+
+    @Test
+    @DisplayName("Test chưa start thì ghi thẳng từng tin")
+    void testDirectWhenStopped() throws Exception {
+        Message m = message("hello");
+        assertTrue(pipeline.save(m));
+        assertEquals(1, m.getId());
+        assertEquals(1, singleSaves.get());
+        assertTrue(batchSizes.isEmpty());
+    }
+
+    @Test
+    @DisplayName("Test nhiều thread gửi cùng lúc được gom thành lô, mỗi tin có id riêng")
+    void testGroupCommit() throws Exception {
+        pipeline.start();
+        ExecutorService senders = Executors.newFixedThreadPool(8);
+        List<Future<Message>> results = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            Message m = message("m" + i);
+            results.add(senders.submit(() -> {
+                pipeline.save(m);
+                return m;
+            }));
+        }
+        Set<Integer> ids = new HashSet<>();
+        for (Future<Message> result : results) {
+            ids.add(result.get().getId());
+        }
+        senders.shutdown();
+
+        assertEquals(64, ids.size());
+        assertFalse(ids.contains(0));
+        assertEquals(64, pipeline.getSaved());
+        assertTrue(batchSizes.size() < 64, "Phải có ít nhất một lô nhiều tin");
+        assertTrue(batchSizes.stream().allMatch(size -> size <= 16), "Không lô nào vượt maxBatch");
+    }
+
+    @Test
+    @DisplayName("Test lô lỗi được ghi lại từng tin, chỉ tin hỏng báo lỗi")
+    void testFallbackPerRow() throws Exception {
+        pipeline.start();
+        ExecutorService senders = Executors.newFixedThreadPool(2);
+        Message good = message("good");
+        Future<Boolean> goodResult = senders.submit(() -> pipeline.save(good));
+        Future<Boolean> badResult = senders.submit(() -> pipeline.save(message("bad")));
+
+        assertTrue(goodResult.get());
+        Exception error = assertThrows(Exception.class, badResult::get);
+        assertInstanceOf(MessageSendFailedException.class, error.getCause());
+        assertTrue(good.getId() > 0);
+        senders.shutdown();
+    }
+
+    @Test
+    @DisplayName("Test lỗi lúc commit không ghi lại từng tin (tránh lưu hai lần)")
+    void testCommitUnknownNotReplayed() throws Exception {
+        pipeline.start();
+        Message m = message("commit");
+        assertThrows(MessageCommitUnknownException.class, () -> pipeline.save(m));
+        assertEquals(0, singleSaves.get());
+        assertEquals(0, pipeline.getFallbackRows());
+        assertEquals(0, pipeline.getSaved());
+    }
+}
@@ -0,0 +1,157 @@
+package org.example.zalu.server.presence;
+
+import org.example.zalu.dao.FriendDAO;
+import org.example.zalu.server.friend.FriendGraphCache;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests cho PresenceService (chống chập chờn, gom trạng thái theo người nhận)
+ */
+@DisplayName("PresenceService Tests")
+public class PresenceServiceTest {
+
+    private static final long DEBOUNCE_MS = 1000;
+
+    private final Set<Integer> online = ConcurrentHashMap.newKeySet();
+    private final List<String> sent = new ArrayList<>();
+    private PresenceService presence;
+
+    @BeforeEach
+    void setUp() {
+        online.clear();
+        sent.clear();
+        // DAO giả: user 1 và 2 cùng là bạn của 3 và 4
+        FriendDAO dao = new FriendDAO() {
+            @Override
+            public List<Integer> getFriendsByUserId(int userId) {
+                return switch (userId) {
+                    case 1, 2 -> List.of(3, 4);
+                    case 3, 4 -> List.of(1, 2);
+                    default -> List.of();
+                };
+            }
+        };
+        FriendGraphCache graph = new FriendGraphCache(dao, online::contains, 100);
+        presence = new PresenceService(graph, online::contains, (userId, msg) -> sent.add(userId + ">" + msg),
+                null, DEBOUNCE_MS, 100, 1000);
+    }
+
+    private long later() {
+        return System.currentTimeMillis() + DEBOUNCE_MS;
+    }
+
+    @Test
+    @DisplayName("Test chưa đủ khoảng chống chập chờn thì chưa báo")
+    void testDebounce() {
+        online.add(3);
+        online.add(1);
+        presence.onConnected(1);
+
+        assertEquals(0, presence.flush(System.currentTimeMillis()));
+        assertTrue(sent.isEmpty());
+
+        assertEquals(1, presence.flush(later()));
+        assertEquals(List.of("3>USER_ONLINE|1"), sent);
+        assertTrue(presence.isPublishedOnline(1));
+    }
+
+    @Test
+    @DisplayName("Test luồng flush gặp lỗi vẫn chạy tiếp ở lượt sau")
+    void testWorkerSurvivesError() throws Exception {
+        FriendDAO dao = new FriendDAO() {
+            @Override
+            public List<Integer> getFriendsByUserId(int userId) {
+                return List.of(3);
+            }
+        };
+        online.add(3);
+        List<String> delivered = new CopyOnWriteArrayList<>();
+        AtomicBoolean fail = new AtomicBoolean(true);
+        PresenceService worker = new PresenceService(new FriendGraphCache(dao, online::contains, 100),
+                online::contains, (userId, msg) -> {
+                    if (fail.getAndSet(false)) {
+                        throw new IllegalStateException("socket lỗi");
+                    }
+                    delivered.add(userId + ">" + msg);
+                }, null, 0, 10, 1000);
+        worker.start();
+        try {
+            online.add(1);
+            worker.onConnected(1);
+            for (int i = 0; i < 100 && fail.get(); i++) {
+                Thread.sleep(10);
+            }
+            online.add(2);
+            worker.onConnected(2);
+            for (int i = 0; i < 100 && delivered.isEmpty(); i++) {
+                Thread.sleep(10);
+            }
+            assertEquals(List.of("3>USER_ONLINE|2"), delivered);
+        } finally {
+            worker.stop();
+        }
+    }
+
+    @Test
+    @DisplayName("Test rớt mạng rồi kết nối lại không báo gì cho bạn bè")
+    void testFlapSuppressed() {
+        online.add(3);
+        online.add(1);
+        presence.onConnected(1);
+        presence.flush(later());
+        sent.clear();
+
+        online.remove(1);
+        presence.onDisconnected(1);
+        online.add(1);
+        presence.onConnected(1);
+
+        assertEquals(0, presence.flush(later()));
+        assertTrue(sent.isEmpty());
+        assertEquals(1, presence.getSuppressedFlaps());
+    }
+
+    @Test
+    @DisplayName("Test client đã đăng ký nhận một frame cho nhiều thay đổi, chỉ của bạn bè đã đăng ký")
+    void testBatchPerSubscriber() throws Exception {
+        online.add(3);
+        assertEquals("PRESENCE_BATCH||1,2", presence.subscribe(3, List.of(2, 1, 9)));
+
+        online.add(1);
+        online.add(2);
+        presence.onConnected(1);
+        presence.onConnected(2);
+        presence.flush(later());
+        assertEquals(List.of("3>PRESENCE_BATCH|1,2|"), sent);
+        sent.clear();
+
+        presence.subscribe(3, List.of(2));
+        online.remove(1);
+        online.remove(2);
+        presence.onDisconnected(1);
+        presence.onDisconnected(2);
+        presence.flush(later());
+        assertEquals(List.of("3>PRESENCE_BATCH||2"), sent);
+    }
+
+    @Test
+    @DisplayName("Test đăng ký trả về trạng thái hiện tại, bỏ id không phải bạn bè")
+    void testSubscribeSnapshot() throws Exception {
+        online.add(1);
+        presence.onConnected(1);
+        presence.flush(later());
+
+        assertEquals("PRESENCE_BATCH|1|2", presence.subscribe(3, List.of(1, 2, 9)));
+    }
+}
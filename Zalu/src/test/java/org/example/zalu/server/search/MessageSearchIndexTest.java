@@ -0,0 +1,211 @@
+package org.example.zalu.server.search;
+
+import org.example.zalu.dao.MessageDAO;
+import org.example.zalu.model.Message;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests cho MessageSearchIndex (không cần DB)
+ */
+@DisplayName("MessageSearchIndex Tests")
+public class MessageSearchIndexTest {
+
+    private static final long CHAT_1_2 = MessageSearchIndex.pairKey(1, 2);
+
+    private static Message text(int id, int sender, int receiver, String content) {
+        return new Message(id, sender, receiver, content, false, LocalDateTime.now());
+    }
+
+    private static void waitReady(MessageSearchIndex index) throws InterruptedException {
+        for (int i = 0; i < 200 && !index.isReady(); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(index.isReady());
+    }
+
+    @Test
+    @DisplayName("Test bỏ dấu tiếng Việt và tách từ")
+    void testNormalizer() {
+        assertEquals(List.of("da", "xem", "duong", "pho"), TextNormalizer.tokenize("Đã xem: Đường phố!"));
+        assertTrue(TextNormalizer.tokenize("  ").isEmpty());
+    }
+
+    @Test
+    @DisplayName("Test tìm không dấu, theo tiền tố, chỉ trong cuộc trò chuyện")
+    void testSearch() {
+        MessageSearchIndex index = new MessageSearchIndex(null, null, 1000, 8);
+        index.index(text(1, 1, 2, "Hẹn gặp ở quán cà phê"));
+        index.index(text(2, 2, 1, "Cà phê sữa đá nhé"));
+        index.index(text(3, 1, 3, "Cà phê không?"));
+        index.index(new Message(4, 1, 0, "cà phê nhóm", false, LocalDateTime.now(), 7));
+
+        MessageSearchIndex.Page page = index.search(CHAT_1_2, "ca phe", 0, 10);
+        assertEquals(2, page.total());
+        // Cùng điểm: tin mới hơn trước
+        assertEquals(List.of(2, 1), page.ids());
+
+        assertEquals(List.of(1), index.search(CHAT_1_2, "QUÁN", 0, 10).ids());
+        assertEquals(List.of(4), index.search(MessageSearchIndex.groupKey(7), "phe", 0, 10).ids());
+        assertEquals(0, index.search(CHAT_1_2, "trà", 0, 10).total());
+    }
+
+    @Test
+    @DisplayName("Test từ cuối khớp tiền tố, khớp đúng nguyên từ xếp trước")
+    void testPrefixRanking() {
+        MessageSearchIndex index = new MessageSearchIndex(null, null, 1000, 8);
+        index.index(text(1, 1, 2, "chat nhóm"));
+        index.index(text(2, 1, 2, "chatbot hay"));
+        index.index(text(3, 1, 2, "chát quá"));
+
+        // 1 và 3 khớp đúng "chat", 2 chỉ khớp tiền tố
+        MessageSearchIndex.Page page = index.search(CHAT_1_2, "chat", 0, 10);
+        assertEquals(3, page.total());
+        assertEquals(List.of(3, 1, 2), page.ids());
+        assertEquals(List.of(1), index.search(CHAT_1_2, "chat nh", 0, 10).ids());
+
+        // Phân trang
+        assertEquals(List.of(1), index.search(CHAT_1_2, "chat", 1, 1).ids());
+        assertTrue(index.search(CHAT_1_2, "chat", 5, 10).ids().isEmpty());
+    }
+
+    @Test
+    @DisplayName("Test sửa, xóa, thu hồi cập nhật chỉ mục")
+    void testUpdates() {
+        MessageSearchIndex index = new MessageSearchIndex(null, null, 1000, 8);
+        index.index(text(1, 1, 2, "họp lúc 9 giờ"));
+        index.index(text(2, 1, 2, "họp lúc 10 giờ"));
+
+        index.index(text(1, 1, 2, "hủy buổi chiều"));
+        assertEquals(List.of(2), index.search(CHAT_1_2, "hop", 0, 10).ids());
+        assertEquals(List.of(1), index.search(CHAT_1_2, "huy", 0, 10).ids());
+
+        Message recalled = text(2, 1, 2, "họp lúc 10 giờ");
+        recalled.setRecalled(true);
+        index.index(recalled);
+        assertEquals(0, index.search(CHAT_1_2, "hop", 0, 10).total());
+
+        index.remove(1);
+        assertEquals(0, index.getIndexedMessages());
+    }
+
+    @Test
+    @DisplayName("Test ghi segment, gộp snapshot và đọc lại khi khởi động")
+    void testSegmentsReplay(@TempDir Path dir) throws Exception {
+        MessageSearchIndex index = new MessageSearchIndex(null, dir, 20, 2);
+        index.start();
+        waitReady(index);
+        for (int i = 1; i <= 5; i++) {
+            index.index(text(i, 1, 2, "tin số " + i));
+            Thread.sleep(60);
+        }
+        index.remove(3);
+        index.stop();
+        assertTrue(index.getMerges() > 0);
+        try (var files = Files.list(dir)) {
+            assertTrue(files.count() <= 3);
+        }
+
+        MessageSearchIndex reopened = new MessageSearchIndex(null, dir, 20, 2);
+        reopened.start();
+        waitReady(reopened);
+        assertEquals(4, reopened.getIndexedMessages());
+        assertEquals(List.of(5, 4, 2, 1), reopened.search(CHAT_1_2, "tin", 0, 10).ids());
+        reopened.stop();
+    }
+
+    @Test
+    @DisplayName("Test khởi động lại lập lại tin cũ đã sửa/thu hồi sau mốc đồng bộ")
+    void testCatchUpChangedMessages(@TempDir Path dir) throws Exception {
+        List<Message> db = new ArrayList<>(List.of(text(1, 1, 2, "xin chào"), text(2, 1, 2, "hẹn gặp"),
+                text(3, 1, 2, "chào buổi sáng")));
+        List<Message> changed = new ArrayList<>();
+        List<Timestamp> since = new ArrayList<>();
+        long[] dbTime = { 1_000_000 };
+        MessageDAO dao = new MessageDAO() {
+            @Override
+            public boolean isChangeTrackingEnabled() {
+                return true;
+            }
+
+            @Override
+            public Timestamp getDatabaseTime() {
+                return new Timestamp(dbTime[0]);
+            }
+
+            @Override
+            public List<Message> getMessagesAfter(int afterId, int limit) {
+                return db.stream().filter(m -> m.getId() > afterId).limit(limit).toList();
+            }
+
+            @Override
+            public List<Message> getChangedMessagesAfter(Timestamp changedSince, int afterId, int limit) {
+                since.add(changedSince);
+                return changed.stream().filter(m -> m.getId() > afterId).limit(limit).toList();
+            }
+        };
+
+        MessageSearchIndex index = new MessageSearchIndex(dao, dir, 20, 8);
+        index.start();
+        waitReady(index);
+        assertEquals(2, index.search(CHAT_1_2, "chào", 0, 10).total());
+        index.stop();
+        // Lần đầu chưa có mốc: đọc mọi tin đã từng thay đổi
+        assertNull(since.get(0));
+
+        // Server dừng trước khi kịp ghi: tin 2 bị sửa, tin 3 bị thu hồi chỉ có trong DB
+        Message edited = text(2, 1, 2, "hẹn gặp chào");
+        Message recalled = text(3, 1, 2, "Tin nhắn đã được thu hồi");
+        recalled.setRecalled(true);
+        changed.addAll(List.of(edited, recalled));
+        since.clear();
+
+        MessageSearchIndex reopened = new MessageSearchIndex(dao, dir, 20, 8);
+        reopened.start();
+        waitReady(reopened);
+        assertEquals(new Timestamp(1_000_000 - 60_000), since.get(0));
+        assertEquals(List.of(2, 1), reopened.search(CHAT_1_2, "chào", 0, 10).ids());
+        assertEquals(0, reopened.search(CHAT_1_2, "sáng", 0, 10).total());
+        reopened.stop();
+    }
+
+    @Test
+    @DisplayName("Test ghi segment lỗi thì giữ lại thay đổi để ghi ở lượt sau")
+    void testFailedWriteKeepsOps(@TempDir Path dir) throws Exception {
+        Path segmentsDir = dir.resolve("idx");
+        MessageSearchIndex index = new MessageSearchIndex(null, segmentsDir, 20, 8);
+        index.start();
+        waitReady(index);
+        // Xóa thư mục để mọi lần ghi segment đều lỗi
+        try (var files = Files.list(segmentsDir)) {
+            for (Path file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(segmentsDir);
+        long written = index.getSegmentsWritten();
+        index.index(text(1, 1, 2, "xin chào"));
+        Thread.sleep(100);
+        assertEquals(written, index.getSegmentsWritten());
+
+        Files.createDirectories(segmentsDir);
+        index.index(text(2, 1, 2, "chào buổi sáng"));
+        index.stop();
+
+        MessageSearchIndex reopened = new MessageSearchIndex(null, segmentsDir, 20, 8);
+        reopened.start();
+        waitReady(reopened);
+        assertEquals(List.of(2, 1), reopened.search(CHAT_1_2, "chào", 0, 10).ids());
+        reopened.stop();
+    }
+}
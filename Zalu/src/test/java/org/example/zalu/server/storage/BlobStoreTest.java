@@ -0,0 +1,81 @@
+package org.example.zalu.server.storage;
+
+import org.example.zalu.protocol.FileRegion;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests cho BlobStore (lưu theo SHA-256, khử trùng lặp, đọc theo đoạn)
+ */
+@DisplayName("BlobStore Tests")
+public class BlobStoreTest {
+
+    @TempDir
+    Path root;
+
+    private BlobStore store;
+    private byte[] content;
+
+    @BeforeEach
+    void setUp() {
+        store = new BlobStore(root);
+        content = new byte[200_000];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i * 13);
+        }
+    }
+
+    @Test
+    @DisplayName("Test cùng nội dung chỉ lưu một lần dù ghi bằng cách khác nhau")
+    void testDeduplication() throws Exception {
+        String fromBytes = store.put(content);
+        Path source = root.resolve("upload.part");
+        Files.write(source, content);
+        String fromFile = store.put(source, null);
+        String fromStream = store.put(new ByteArrayInputStream(content));
+
+        assertEquals(fromBytes, fromFile);
+        assertEquals(fromBytes, fromStream);
+        assertTrue(BlobStore.isValidRef(fromBytes));
+        assertEquals(content.length, store.size(fromBytes));
+        assertArrayEquals(content, store.read(fromBytes));
+    }
+
+    @Test
+    @DisplayName("Test đọc một đoạn và đoạn vượt quá dung lượng")
+    void testReadRange() throws Exception {
+        String ref = store.put(content);
+        assertArrayEquals(Arrays.copyOfRange(content, 1000, 1500), store.read(ref, 1000, 500));
+        assertEquals(10, store.read(ref, content.length - 10, 100).length);
+        assertEquals(0, store.read(ref, content.length + 5, 100).length);
+    }
+
+    @Test
+    @DisplayName("Test FileRegion chép đúng đoạn blob ra stream")
+    void testRegionTransfer() throws Exception {
+        String ref = store.put(content);
+        FileRegion region = store.region(ref, 5000, 20_000);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(20_000, region.transferTo(out));
+        assertArrayEquals(Arrays.copyOfRange(content, 5000, 25_000), out.toByteArray());
+        assertEquals(100, store.region(ref, content.length - 100, 20_000).getLength());
+    }
+
+    @Test
+    @DisplayName("Test từ chối khóa blob không hợp lệ")
+    void testInvalidRef() {
+        assertFalse(BlobStore.isValidRef("../../etc/passwd"));
+        assertFalse(store.exists("abc"));
+        assertThrows(IllegalArgumentException.class, () -> store.resolve("../x"));
+    }
+}
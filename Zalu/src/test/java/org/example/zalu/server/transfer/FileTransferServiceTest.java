@@ -0,0 +1,114 @@
+package org.example.zalu.server.transfer;
+
+import org.example.zalu.exception.file.FileOperationException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HexFormat;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests cho FileTransferService (upload theo chunk, tiếp tục sau khi ngắt, checksum)
+ */
+@DisplayName("FileTransferService Tests")
+public class FileTransferServiceTest {
+
+    @TempDir
+    Path spoolDir;
+
+    private FileTransferService service;
+    private byte[] content;
+
+    @BeforeEach
+    void setUp() {
+        service = new FileTransferService(spoolDir);
+        content = new byte[10_000];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i * 31);
+        }
+    }
+
+    private static String sha256(byte[] data) throws Exception {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+    }
+
+    @Test
+    @DisplayName("Test upload đủ các chunk và kiểm tra checksum")
+    void testCompleteUpload() throws Exception {
+        UploadSession session = service.begin(1, "up-1", 2, 0, "a.bin", content.length);
+        assertEquals(0, session.getCommitted());
+
+        assertEquals(4000, service.writeChunk(1, "up-1", 0, Arrays.copyOfRange(content, 0, 4000)));
+        assertEquals(8000, service.writeChunk(1, "up-1", 4000, Arrays.copyOfRange(content, 4000, 8000)));
+        assertEquals(10_000, service.writeChunk(1, "up-1", 8000, Arrays.copyOfRange(content, 8000, 10_000)));
+
+        UploadSession done = service.complete(1, "up-1", sha256(content));
+        assertArrayEquals(content, Files.readAllBytes(done.getSpoolFile()));
+        assertEquals(0, service.getActiveUploads());
+
+        service.discard(done);
+        assertFalse(Files.exists(done.getSpoolFile()));
+    }
+
+    @Test
+    @DisplayName("Test tiếp tục upload từ offset server đã nhận")
+    void testResume() throws Exception {
+        service.begin(1, "up-2", 2, 0, "a.bin", content.length);
+        service.writeChunk(1, "up-2", 0, Arrays.copyOfRange(content, 0, 6000));
+
+        // Kết nối lại: cùng uploadId và thông tin file → tiếp tục từ byte 6000
+        UploadSession resumed = service.begin(1, "up-2", 2, 0, "a.bin", content.length);
+        assertEquals(6000, resumed.getCommitted());
+        service.writeChunk(1, "up-2", 6000, Arrays.copyOfRange(content, 6000, 10_000));
+
+        UploadSession done = service.complete(1, "up-2", sha256(content));
+        assertArrayEquals(content, Files.readAllBytes(done.getSpoolFile()));
+        service.discard(done);
+    }
+
+    @Test
+    @DisplayName("Test chunk không nối tiếp bị bỏ qua")
+    void testOutOfOrderChunkIgnored() throws Exception {
+        service.begin(1, "up-3", 2, 0, "a.bin", content.length);
+        service.writeChunk(1, "up-3", 0, Arrays.copyOfRange(content, 0, 4000));
+
+        assertEquals(4000, service.writeChunk(1, "up-3", 8000, Arrays.copyOfRange(content, 8000, 10_000)));
+        assertEquals(4000, service.writeChunk(1, "up-3", 0, Arrays.copyOfRange(content, 0, 4000)));
+
+        FileOperationException e = assertThrows(FileOperationException.class,
+                () -> service.complete(1, "up-3", sha256(content)));
+        assertEquals("INCOMPLETE", e.getMessage());
+    }
+
+    @Test
+    @DisplayName("Test sai checksum thì hủy file tạm")
+    void testChecksumMismatch() throws Exception {
+        UploadSession session = service.begin(1, "up-4", 2, 0, "a.bin", content.length);
+        service.writeChunk(1, "up-4", 0, Arrays.copyOfRange(content, 0, 5000));
+        service.writeChunk(1, "up-4", 5000, Arrays.copyOfRange(content, 5000, 10_000));
+
+        FileOperationException e = assertThrows(FileOperationException.class,
+                () -> service.complete(1, "up-4", sha256(new byte[] { 1 })));
+        assertEquals("CHECKSUM_MISMATCH", e.getMessage());
+        assertFalse(Files.exists(session.getSpoolFile()));
+        assertEquals(0, service.getActiveUploads());
+    }
+
+    @Test
+    @DisplayName("Test từ chối yêu cầu upload không hợp lệ")
+    void testInvalidRequests() {
+        assertEquals("INVALID_UPLOAD_ID", assertThrows(FileOperationException.class,
+                () -> service.begin(1, "../etc", 2, 0, "a.bin", 10)).getMessage());
+        assertEquals("FILE_TOO_LARGE", assertThrows(FileOperationException.class,
+                () -> service.begin(1, "up-5", 2, 0, "a.bin", FileTransferService.MAX_FILE_BYTES + 1)).getMessage());
+        assertEquals("UNKNOWN_UPLOAD", assertThrows(FileOperationException.class,
+                () -> service.writeChunk(1, "missing", 0, new byte[] { 1 })).getMessage());
+    }
+}
@@ -0,0 +1,234 @@
+package org.example.zalu.server.unread;
+
+import org.example.zalu.dao.GroupDAO;
+import org.example.zalu.dao.MessageDAO;
+import org.example.zalu.dao.ReadCursorDAO;
+import org.example.zalu.model.Message;
+import org.example.zalu.server.group.GroupMembershipCache;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests cho UnreadCounterService (số tin chưa đọc trong RAM, DB chỉ để nạp lại)
+ */
+@DisplayName("UnreadCounterService Tests")
+public class UnreadCounterServiceTest {
+
+    private int dbLoads;
+    private UnreadCounterService service;
+
+    @BeforeEach
+    void setUp() {
+        dbLoads = 0;
+        // DAO giả: user 1 có 3 tin chưa đọc từ user 2 và 1 tin trong nhóm 7
+        MessageDAO dao = new MessageDAO() {
+            @Override
+            public Map<Integer, Integer> getUnreadCounts(int userId) {
+                dbLoads++;
+                Map<Integer, Integer> counts = new HashMap<>();
+                if (userId == 1) {
+                    counts.put(2, 3);
+                    counts.put(-7, 1);
+                }
+                return counts;
+            }
+        };
+        service = new UnreadCounterService(dao);
+    }
+
+    private static Message direct(int senderId, int receiverId) {
+        return new Message(0, senderId, receiverId, "hi", null, null, false, LocalDateTime.now());
+    }
+
+    private static Message group(int senderId, int groupId) {
+        Message m = direct(senderId, 0);
+        m.setGroupId(groupId);
+        return m;
+    }
+
+    @Test
+    @DisplayName("Test chỉ nạp từ DB một lần cho mỗi user")
+    void testLoadOnce() throws Exception {
+        assertEquals(Map.of(2, 3, -7, 1), service.getUnreadCounts(1));
+        assertEquals(Map.of(2, 3, -7, 1), service.getUnreadCounts(1));
+        assertEquals(1, dbLoads);
+        assertEquals(1, service.getLoads());
+        assertEquals(1, service.getHits());
+    }
+
+    @Test
+    @DisplayName("Test tăng khi lưu tin nhắn và xóa khi đã đọc")
+    void testIncrementAndMarkRead() throws Exception {
+        service.getUnreadCounts(1);
+        service.onMessageSaved(direct(2, 1));
+        service.onMessageSaved(direct(5, 1));
+        assertEquals(Map.of(2, 4, 5, 1, -7, 1), service.getUnreadCounts(1));
+
+        service.markRead(1, 2);
+        service.markRead(1, -7);
+        assertEquals(Map.of(5, 1), service.getUnreadCounts(1));
+        assertEquals(1, dbLoads);
+    }
+
+    @Test
+    @DisplayName("Test user chưa nạp thì không đếm, lần đọc sau lấy từ DB")
+    void testUntrackedUser() throws Exception {
+        service.onMessageSaved(direct(2, 9));
+        assertEquals(0, service.getTrackedUsers());
+        assertTrue(service.getUnreadCounts(9).isEmpty());
+        assertEquals(1, dbLoads);
+    }
+
+    @Test
+    @DisplayName("Test invalidate nạp lại từ DB")
+    void testInvalidate() throws Exception {
+        service.getUnreadCounts(1);
+        service.markRead(1, 2);
+        service.invalidate(1);
+        assertEquals(3, service.getUnreadCounts(1).get(2));
+        assertEquals(2, dbLoads);
+    }
+
+    @Test
+    @DisplayName("Test ngắt kết nối bỏ số đếm, rời nhóm bỏ số đếm của nhóm")
+    void testDisconnectAndLeaveGroup() throws Exception {
+        service.getUnreadCounts(1);
+        service.getUnreadCounts(9);
+        assertEquals(2, service.getTrackedUsers());
+
+        service.onLeftGroup(1, 7);
+        assertEquals(Map.of(2, 3), service.getUnreadCounts(1));
+
+        service.onDisconnected(1);
+        service.onDisconnected(9);
+        assertEquals(0, service.getTrackedUsers());
+        assertEquals(Map.of(2, 3, -7, 1), service.getUnreadCounts(1));
+        assertEquals(3, dbLoads);
+    }
+
+    @Test
+    @DisplayName("Test tin bị xóa/thu hồi làm người nhận nạp lại số đếm")
+    void testRemovedMessageReloads() throws Exception {
+        service.getUnreadCounts(1);
+        service.getUnreadCounts(2);
+        service.onMessageSaved(direct(2, 1));
+        assertEquals(4, service.getUnreadCounts(1).get(2));
+
+        // DB không còn đếm tin đã xóa nên nạp lại cho 3; người gửi giữ nguyên số đếm
+        service.onMessageRemoved(direct(2, 1));
+        assertEquals(1, service.getTrackedUsers());
+        assertEquals(3, service.getUnreadCounts(1).get(2));
+        assertEquals(3, dbLoads);
+    }
+
+    @Test
+    @DisplayName("Test tin nhóm bị thu hồi chỉ nạp lại số đếm của các thành viên khác")
+    void testRemovedGroupMessageReloadsMembers() throws Exception {
+        GroupDAO groups = new GroupDAO() {
+            @Override
+            public List<Integer> getGroupMembers(int groupId) {
+                return List.of(1, 3);
+            }
+        };
+        MessageDAO dao = new MessageDAO() {
+            @Override
+            public Map<Integer, Integer> getUnreadCounts(int userId) {
+                return new HashMap<>();
+            }
+        };
+        UnreadCounterService groupService = new UnreadCounterService(dao, null, new GroupMembershipCache(groups));
+        groupService.getUnreadCounts(1);
+        groupService.getUnreadCounts(3);
+        groupService.getUnreadCounts(5);
+
+        groupService.onMessageRemoved(group(3, 7));
+        assertEquals(2, groupService.getTrackedUsers());
+        assertEquals(3, groupService.getLoads());
+    }
+
+    @Test
+    @DisplayName("Test invalidate/rời nhóm trong lúc đang nạp thì kết quả nạp không được cache")
+    void testChangeDuringLoadNotCached() throws Exception {
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        MessageDAO slowDao = new MessageDAO() {
+            @Override
+            public Map<Integer, Integer> getUnreadCounts(int userId) {
+                entered.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return new HashMap<>(Map.of(2, 3, -7, 1));
+            }
+        };
+        UnreadCounterService slowService = new UnreadCounterService(slowDao);
+        ExecutorService loader = Executors.newSingleThreadExecutor();
+        try {
+            Future<Map<Integer, Integer>> load = loader.submit(() -> slowService.getUnreadCounts(1));
+            assertTrue(entered.await(5, TimeUnit.SECONDS));
+            slowService.onLeftGroup(1, 7);
+            release.countDown();
+            load.get();
+        } finally {
+            loader.shutdown();
+        }
+        assertEquals(0, slowService.getTrackedUsers());
+    }
+
+    @Test
+    @DisplayName("Test có con trỏ đã đọc: nạp từ read_cursors và đếm cả tin nhóm")
+    void testReadCursorsCountGroupMessages() throws Exception {
+        ReadCursorDAO cursors = new ReadCursorDAO() {
+            @Override
+            public boolean isAvailable() {
+                return true;
+            }
+
+            @Override
+            public Map<Integer, Integer> getUnreadCounts(int userId) {
+                return new HashMap<>(Map.of(-7, 2));
+            }
+        };
+        GroupDAO groups = new GroupDAO() {
+            @Override
+            public List<Integer> getGroupMembers(int groupId) {
+                return List.of(1, 3, 4);
+            }
+        };
+        UnreadCounterService cursorService = new UnreadCounterService(new MessageDAO(), cursors,
+                new GroupMembershipCache(groups));
+        cursorService.getUnreadCounts(1);
+        cursorService.getUnreadCounts(3);
+
+        cursorService.onMessageSaved(group(3, 7));
+        assertEquals(Map.of(-7, 3), cursorService.getUnreadCounts(1));
+        // Tin của chính mình không tính là chưa đọc
+        assertEquals(Map.of(-7, 2), cursorService.getUnreadCounts(3));
+
+        cursorService.markRead(1, -7);
+        assertTrue(cursorService.getUnreadCounts(1).isEmpty());
+    }
+
+    @Test
+    @DisplayName("Test không có con trỏ đã đọc thì bỏ qua tin nhóm")
+    void testLegacyIgnoresGroupMessages() throws Exception {
+        service.getUnreadCounts(1);
+        service.onMessageSaved(group(2, 7));
+        assertEquals(Map.of(2, 3, -7, 1), service.getUnreadCounts(1));
+    }
+}
@@ -0,0 +1,125 @@
+package org.example.zalu.util.database;
+
+import com.zaxxer.hikari.HikariConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests cho các pool của DBConnection (hai DB H2 trong RAM đóng vai DB chính và replica)
+ */
+@DisplayName("DBConnection Tests")
+public class DBConnectionTest {
+
+    private static final String PRIMARY = "jdbc:h2:mem:zalu_primary;DB_CLOSE_DELAY=-1";
+    private static final String REPLICA = "jdbc:h2:mem:zalu_replica;DB_CLOSE_DELAY=-1";
+
+    private Properties props;
+
+    private static void mark(String url, String name) throws Exception {
+        try (Connection conn = DriverManager.getConnection(url); Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS db_name (name VARCHAR(20))");
+            stmt.execute("DELETE FROM db_name");
+            stmt.execute("INSERT INTO db_name VALUES ('" + name + "')");
+        }
+    }
+
+    /** Tên DB mà connection của pool trỏ tới, và pool đó có read-only không. */
+    private static String target(DBConnection.Pool pool) throws Exception {
+        try (Connection conn = DBConnection.getConnection(pool); Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery("SELECT name FROM db_name")) {
+            rs.next();
+            return rs.getString(1) + (conn.isReadOnly() ? "/ro" : "");
+        }
+    }
+
+    @BeforeEach
+    void setUp() throws Exception {
+        mark(PRIMARY, "primary");
+        mark(REPLICA, "replica");
+        props = new Properties();
+        props.setProperty("db.url", PRIMARY);
+        props.setProperty("db.username", "sa");
+        props.setProperty("db.driver", "org.h2.Driver");
+    }
+
+    @AfterEach
+    void tearDown() {
+        DBConnection.configure(null);
+    }
+
+    @Test
+    @DisplayName("Test mỗi pool có kích thước riêng, pool write đọc khóa cũ db.pool.*")
+    void testPoolSettings() {
+        props.setProperty("db.pool.maxSize", "7");
+        props.setProperty("db.pool.read.maxSize", "3");
+        props.setProperty("db.pool.analytics.connectionTimeout", "abc");
+
+        HikariConfig write = DBConnection.config(DBConnection.Pool.WRITE, props);
+        HikariConfig read = DBConnection.config(DBConnection.Pool.READ, props);
+        HikariConfig analytics = DBConnection.config(DBConnection.Pool.ANALYTICS, props);
+        assertEquals(7, write.getMaximumPoolSize());
+        assertEquals(3, read.getMaximumPoolSize());
+        assertEquals(2, analytics.getMaximumPoolSize());
+        assertEquals(60000, analytics.getConnectionTimeout());
+        assertFalse(write.isReadOnly());
+        assertTrue(read.isReadOnly());
+        assertEquals(PRIMARY, read.getJdbcUrl());
+
+        props.setProperty("db.replica.url", REPLICA);
+        assertEquals(REPLICA, DBConnection.config(DBConnection.Pool.ANALYTICS, props).getJdbcUrl());
+        assertEquals(PRIMARY, DBConnection.config(DBConnection.Pool.WRITE, props).getJdbcUrl());
+    }
+
+    @Test
+    @DisplayName("Test pool đọc trỏ tới replica, pool ghi trỏ tới DB chính")
+    void testReplicaRouting() throws Exception {
+        props.setProperty("db.replica.url", REPLICA);
+        DBConnection.configure(props);
+
+        assertEquals("primary", target(DBConnection.Pool.WRITE));
+        assertEquals("replica/ro", target(DBConnection.Pool.READ));
+        assertEquals("replica/ro", target(DBConnection.Pool.ANALYTICS));
+        assertFalse(DBConnection.isSharedWithWrite(DBConnection.Pool.READ));
+
+        // Không có replica: pool đọc riêng nhưng cùng DB chính
+        DBConnection.configure(withoutReplica());
+        assertEquals("primary/ro", target(DBConnection.Pool.ANALYTICS));
+        assertFalse(DBConnection.isSharedWithWrite(DBConnection.Pool.ANALYTICS));
+    }
+
+    @Test
+    @DisplayName("Test replica lỗi hoặc tắt tách pool thì dùng pool ghi")
+    void testFallbackToWrite() throws Exception {
+        props.setProperty("db.replica.url", "jdbc:h2:tcp://127.0.0.1:1/khong_co");
+        props.setProperty("db.pool.read.connectionTimeout", "1000");
+        DBConnection.configure(props);
+        assertEquals("primary", target(DBConnection.Pool.READ));
+        assertTrue(DBConnection.isSharedWithWrite(DBConnection.Pool.READ));
+
+        Properties shared = withoutReplica();
+        shared.setProperty("db.pool.split", "false");
+        DBConnection.configure(shared);
+        assertEquals("primary", target(DBConnection.Pool.ANALYTICS));
+        assertTrue(DBConnection.isSharedWithWrite(DBConnection.Pool.ANALYTICS));
+
+        DBConnection.closePool();
+        assertFalse(DBConnection.isPoolActive());
+    }
+
+    private Properties withoutReplica() {
+        Properties copy = new Properties();
+        copy.putAll(props);
+        copy.remove("db.replica.url");
+        return copy;
+    }
+}
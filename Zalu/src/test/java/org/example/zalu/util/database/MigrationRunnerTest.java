@@ -0,0 +1,106 @@
+package org.example.zalu.util.database;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests cho MigrationRunner và SchemaRegistry.detect (H2 trong RAM, chế độ MySQL)
+ */
+@DisplayName("MigrationRunner Tests")
+public class MigrationRunnerTest {
+
+    private Connection conn;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        conn = DriverManager.getConnection("jdbc:h2:mem:;MODE=MySQL");
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE messages (id INT AUTO_INCREMENT PRIMARY KEY, content TEXT)");
+        }
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        conn.close();
+    }
+
+    private static List<MigrationRunner.Migration> migrations() {
+        return List.of(
+                new MigrationRunner.Migration(1, "pins",
+                        "-- Ghim tin nhắn\nALTER TABLE messages\n    ADD COLUMN is_pinned BOOLEAN DEFAULT FALSE;\n", null),
+                new MigrationRunner.Migration(2, "read_cursors",
+                        "CREATE TABLE IF NOT EXISTS read_cursors (user_id INT, chat_id INT);\n"
+                                + "INSERT INTO read_cursors VALUES (1, 2);\n",
+                        SchemaCapability.READ_CURSORS));
+    }
+
+    private int count(String table) throws Exception {
+        try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM " + table)) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    @Test
+    @DisplayName("Test chạy migration một lần, ghi phiên bản và capability")
+    void testMigrateOnce() throws Exception {
+        MigrationRunner runner = new MigrationRunner(migrations());
+        assertEquals(2, runner.migrate(conn));
+        assertEquals(0, runner.migrate(conn));
+
+        SchemaRegistry.Snapshot schema = SchemaRegistry.detect(conn);
+        assertEquals(2, schema.version());
+        assertTrue(schema.has(SchemaCapability.MESSAGE_PINNED));
+        assertTrue(schema.has(SchemaCapability.READ_CURSORS));
+        assertFalse(schema.has(SchemaCapability.MESSAGE_CHANGED_AT));
+        assertEquals(1, count("read_cursors"));
+    }
+
+    @Test
+    @DisplayName("Test DB đã chạy tay script cũ: bỏ qua cột đã có, không chạy lại phần chuyển dữ liệu")
+    void testExistingSchema() throws Exception {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("ALTER TABLE messages ADD COLUMN is_pinned BOOLEAN DEFAULT FALSE");
+            stmt.execute("CREATE TABLE read_cursors (user_id INT, chat_id INT)");
+        }
+
+        assertEquals(2, new MigrationRunner(migrations()).migrate(conn));
+
+        assertEquals(2, SchemaRegistry.detect(conn).version());
+        assertEquals(0, count("read_cursors"));
+    }
+
+    @Test
+    @DisplayName("Test migration lỗi không được ghi phiên bản, các phiên bản sau không chạy")
+    void testFailureStops() throws Exception {
+        MigrationRunner runner = new MigrationRunner(List.of(
+                new MigrationRunner.Migration(1, "broken", "ALTER TABLE missing_table ADD COLUMN x INT;", null),
+                new MigrationRunner.Migration(2, "pins", migrations().get(0).sql(), null)));
+
+        assertThrows(java.sql.SQLException.class, () -> runner.migrate(conn));
+
+        SchemaRegistry.Snapshot schema = SchemaRegistry.detect(conn);
+        assertEquals(0, schema.version());
+        assertFalse(schema.has(SchemaCapability.MESSAGE_PINNED));
+    }
+
+    @Test
+    @DisplayName("Test tách script thành câu lệnh, bỏ chú thích")
+    void testStatements() {
+        List<String> statements = MigrationRunner.statements(
+                "-- header\n\nCREATE TABLE a (\n    id INT\n);\n-- index\nCREATE INDEX i ON a (id);\n");
+        assertEquals(2, statements.size());
+        assertEquals("CREATE TABLE a (\n    id INT\n)", statements.get(0));
+        assertEquals("CREATE INDEX i ON a (id)", statements.get(1));
+    }
+}